@@ -107,4 +107,59 @@ public interface Ray3DType
     final boolean tmin_ok = tmin < Double.POSITIVE_INFINITY;
     return tmax_ok && tmin_ok;
   }
+
+  /**
+   * <p>Calculate the parametric distance along the ray at which the ray
+   * enters the given box, using the same slab test as
+   * {@link #intersectsVolume(double, double, double, double, double, double)}.
+   * If the origin of the ray is inside the box, the returned value is
+   * {@code 0.0}. The returned value is a multiple of the length of the ray's
+   * direction vector.</p>
+   *
+   * @param x0 The lower X coordinate.
+   * @param y0 The lower Y coordinate.
+   * @param z0 The lower Z coordinate.
+   * @param x1 The upper X coordinate.
+   * @param y1 The upper Y coordinate.
+   * @param z1 The upper Z coordinate.
+   *
+   * @return The parametric distance to the box, or
+   * {@link Double#POSITIVE_INFINITY} if the ray does not intersect the box
+   */
+
+  default double intersectionParameterVolume(
+    final double x0,
+    final double y0,
+    final double z0,
+    final double x1,
+    final double y1,
+    final double z1)
+  {
+    final Vector3D origin = this.origin();
+    final Vector3D direction_inverse = this.directionInverse();
+
+    final double tx0 = (x0 - origin.x()) * direction_inverse.x();
+    final double tx1 = (x1 - origin.x()) * direction_inverse.x();
+
+    double tmin = Math.min(tx0, tx1);
+    double tmax = Math.max(tx0, tx1);
+
+    final double ty0 = (y0 - origin.y()) * direction_inverse.y();
+    final double ty1 = (y1 - origin.y()) * direction_inverse.y();
+
+    tmin = Math.max(tmin, Math.min(ty0, ty1));
+    tmax = Math.min(tmax, Math.max(ty0, ty1));
+
+    final double tz0 = (z0 - origin.z()) * direction_inverse.z();
+    final double tz1 = (z1 - origin.z()) * direction_inverse.z();
+
+    tmin = Math.max(tmin, Math.min(tz0, tz1));
+    tmax = Math.min(tmax, Math.max(tz0, tz1));
+
+    final double entry = Math.max(0.0, tmin);
+    if ((tmax >= entry) && (tmin < Double.POSITIVE_INFINITY)) {
+      return entry;
+    }
+    return Double.POSITIVE_INFINITY;
+  }
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.api;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The type of codecs that write and read the objects held in serialized
+ * trees. The bounds of each object are written by the tree serializers;
+ * a codec is only responsible for the object itself.
+ *
+ * @param <A> The type of tree objects
+ *
+ * @since 3.0.0
+ */
+
+public interface TreeItemCodecType<A>
+{
+  /**
+   * Write an object.
+   *
+   * @param output The output
+   * @param item   The object
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void write(
+    DataOutput output,
+    A item)
+    throws IOException;
+
+  /**
+   * Read an object. The method must consume exactly the bytes written for
+   * the object by {@link #write(DataOutput, Object)}.
+   *
+   * @param input The input
+   *
+   * @return The object
+   *
+   * @throws IOException On I/O errors
+   */
+
+  A read(
+    DataInput input)
+    throws IOException;
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.api;
+
+/**
+ * The kinds of queries that report to a {@link TreeQueryListenerType}.
+ *
+ * @since 3.0.0
+ */
+
+public enum TreeQueryKind
+{
+  /**
+   * A query for the objects contained within an area or volume.
+   */
+
+  QUERY_CONTAINED_BY,
+
+  /**
+   * A query for the number of objects contained within an area or volume.
+   */
+
+  QUERY_COUNT,
+
+  /**
+   * A query for the objects overlapped by an area or volume.
+   */
+
+  QUERY_OVERLAPPED_BY,
+
+  /**
+   * A query for the objects intersected by a ray, including queries that
+   * report the distance at which the ray enters each object.
+   */
+
+  QUERY_RAYCAST,
+
+  /**
+   * A query for the objects nearest to the origin of a ray that are
+   * intersected by the ray.
+   */
+
+  QUERY_RAYCAST_UP_TO,
+
+  /**
+   * A query for the objects nearest to a point.
+   */
+
+  QUERY_NEAREST,
+
+  /**
+   * A batch query for the objects overlapped by each of a list of areas or
+   * volumes. The batch is reported as a single query, and an object that is
+   * overlapped by several of the areas or volumes counts as a hit for each.
+   */
+
+  QUERY_OVERLAPPED_BY_ALL,
+
+  /**
+   * A batch query for the objects intersected by each of a list of rays. The
+   * batch is reported as a single query, and an object that is intersected
+   * by several of the rays counts as a hit for each.
+   */
+
+  QUERY_RAYCAST_ALL,
+
+  /**
+   * A query for the objects contained within an area or volume that tests
+   * objects in parallel.
+   */
+
+  QUERY_CONTAINED_BY_PARALLEL,
+
+  /**
+   * A query for the objects overlapped by an area or volume that tests
+   * objects in parallel.
+   */
+
+  QUERY_OVERLAPPED_BY_PARALLEL
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.api;
+
+/**
+ * <p>The type of listeners that receive statistics about the queries
+ * performed on a tree.</p>
+ *
+ * <p>A listener is invoked on the thread that performed a query, once the
+ * query has completed. If the consumer of a query terminates the query early,
+ * the statistics describe the work performed up to that point. Trees that do
+ * not have a listener do not collect any statistics.</p>
+ *
+ * <p>Node tests and object tests count the number of times that the query
+ * was compared against the bounds of a node or an object. Objects held by
+ * a node whose bounds are completely contained within a query are produced
+ * without being tested individually.</p>
+ *
+ * @since 3.0.0
+ */
+
+@FunctionalInterface
+public interface TreeQueryListenerType
+{
+  /**
+   * Receive the statistics of a completed query.
+   *
+   * @param query         The kind of query
+   * @param nodes_visited The number of nodes that the query examined
+   * @param node_tests    The number of tests against the bounds of nodes
+   * @param object_tests  The number of tests against the bounds of objects
+   * @param hits          The number of objects produced by the query
+   * @param max_depth     The maximum depth of the nodes that the query
+   *                      examined, where the root node is at depth {@code 0}
+   */
+
+  void onQueryCompleted(
+    TreeQueryKind query,
+    long nodes_visited,
+    long node_tests,
+    long object_tests,
+    long hits,
+    long max_depth);
+}
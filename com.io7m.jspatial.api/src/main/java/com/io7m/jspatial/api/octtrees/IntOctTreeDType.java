@@ -0,0 +1,427 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.api.octtrees;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeQueryListenerType;
+import com.io7m.jspatial.api.TreeVisitResult;
+
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>The type of mutable octrees with {@code double} precision coordinates
+ * that hold {@code int} handles instead of object references.</p>
+ *
+ * <p>This is intended for applications that already identify their objects
+ * by integer ids, such as indices into arrays of entities: The handles are
+ * stored unboxed, and each result of a query is delivered directly as an
+ * {@code int} without a map lookup.</p>
+ *
+ * @since 3.0.0
+ */
+
+public interface IntOctTreeDType extends OctTreeReadableType
+{
+  /**
+   * @return The tree bounds
+   */
+
+  VolumeD bounds();
+
+  /**
+   * Determine whether or not the handle has already been inserted into the
+   * tree.
+   *
+   * @param item The handle
+   *
+   * @return {@code true} iff the handle is in the tree
+   */
+
+  boolean contains(int item);
+
+  /**
+   * @param item The handle
+   *
+   * @return The bounding volume that was specified for {@code item}
+   *
+   * @throws NoSuchElementException Iff the handle is not present in the tree
+   */
+
+  VolumeD volumeFor(int item)
+    throws NoSuchElementException;
+
+  /**
+   * <p>Insert the handle {@code item} into the octree. If the handle is
+   * already in the octree, it is first removed.</p>
+   *
+   * <p>The function returns {@code false} if the handle could not be
+   * inserted for any reason (perhaps due to being too large).</p>
+   *
+   * @param item The handle to insert
+   * @param x0   The minimum X coordinate of the handle's bounds
+   * @param x1   The maximum X coordinate of the handle's bounds
+   * @param y0   The minimum Y coordinate of the handle's bounds
+   * @param y1   The maximum Y coordinate of the handle's bounds
+   * @param z0   The minimum Z coordinate of the handle's bounds
+   * @param z1   The maximum Z coordinate of the handle's bounds
+   *
+   * @return {@code true} if the handle was inserted
+   */
+
+  boolean insert(
+    int item,
+    double x0,
+    double x1,
+    double y0,
+    double y1,
+    double z0,
+    double z1);
+
+  /**
+   * Insert the handle {@code item} into the octree. This is equivalent to
+   * calling
+   * {@link #insert(int, double, double, double, double, double, double)}
+   * with the coordinates of {@code bounds}.
+   *
+   * @param item   The handle to insert
+   * @param bounds The handle's bounds
+   *
+   * @return {@code true} if the handle was inserted
+   */
+
+  default boolean insert(
+    final int item,
+    final VolumeD bounds)
+  {
+    NullCheck.notNull(bounds, "Bounds");
+    return this.insert(
+      item,
+      bounds.minimumX(),
+      bounds.maximumX(),
+      bounds.minimumY(),
+      bounds.maximumY(),
+      bounds.minimumZ(),
+      bounds.maximumZ());
+  }
+
+  /**
+   * <p>Remove the handle {@code item} from the octree.</p>
+   *
+   * <p>The function returns {@code false} if the handle could not be
+   * removed for any reason (perhaps due to not being in the tree in the first
+   * place).</p>
+   *
+   * @param item The handle to remove
+   *
+   * @return {@code true} if the handle was removed
+   */
+
+  boolean remove(int item);
+
+  /**
+   * <p>Change the bounds of the handle {@code item}, which must already be
+   * in the octree. The search for the handle's new position begins at the
+   * node that currently holds the handle and climbs only as far as the
+   * nearest enclosing node.</p>
+   *
+   * <p>The function returns {@code false}, and leaves the octree
+   * unchanged, if the handle is not in the octree or the new bounds do not
+   * fit within the octree.</p>
+   *
+   * @param item The handle to move
+   * @param x0   The minimum X coordinate of the handle's new bounds
+   * @param x1   The maximum X coordinate of the handle's new bounds
+   * @param y0   The minimum Y coordinate of the handle's new bounds
+   * @param y1   The maximum Y coordinate of the handle's new bounds
+   * @param z0   The minimum Z coordinate of the handle's new bounds
+   * @param z1   The maximum Z coordinate of the handle's new bounds
+   *
+   * @return {@code true} if the handle was moved
+   */
+
+  boolean move(
+    int item,
+    double x0,
+    double x1,
+    double y0,
+    double y1,
+    double z0,
+    double z1);
+
+  /**
+   * Change the bounds of the handle {@code item}. This is equivalent to
+   * calling
+   * {@link #move(int, double, double, double, double, double, double)}
+   * with the coordinates of {@code bounds}.
+   *
+   * @param item   The handle to move
+   * @param bounds The handle's new bounds
+   *
+   * @return {@code true} if the handle was moved
+   */
+
+  default boolean move(
+    final int item,
+    final VolumeD bounds)
+  {
+    NullCheck.notNull(bounds, "Bounds");
+    return this.move(
+      item,
+      bounds.minimumX(),
+      bounds.maximumX(),
+      bounds.minimumY(),
+      bounds.maximumY(),
+      bounds.minimumZ(),
+      bounds.maximumZ());
+  }
+
+  /**
+   * Remove all handles from the tree.
+   */
+
+  void clear();
+
+  /**
+   * Trim all empty octants from the tree.
+   */
+
+  void trim();
+
+  /**
+   * <p>Set the listener that receives statistics about the queries performed
+   * on the octtree, or remove the listener if {@code listener} is empty. The
+   * octtree collects no statistics while it has no listener.</p>
+   *
+   * <p>Queries of the kinds listed by
+   * {@link com.io7m.jspatial.api.TreeQueryKind} are reported.</p>
+   *
+   * @param listener The listener, if any
+   */
+
+  void setQueryListener(Optional<TreeQueryListenerType> listener);
+
+  /**
+   * Passes all handles in the tree that are completely contained within the
+   * given volume to {@code consumer}. Each handle is passed to
+   * {@code consumer} at most once, and the query stops early if
+   * {@code consumer} returns {@link TreeVisitResult#RESULT_TERMINATE}.
+   *
+   * @param x0       The minimum X coordinate of the volume to examine
+   * @param x1       The maximum X coordinate of the volume to examine
+   * @param y0       The minimum Y coordinate of the volume to examine
+   * @param y1       The maximum Y coordinate of the volume to examine
+   * @param z0       The minimum Z coordinate of the volume to examine
+   * @param z1       The maximum Z coordinate of the volume to examine
+   * @param consumer The function that will receive handles
+   */
+
+  void containedBy(
+    double x0,
+    double x1,
+    double y0,
+    double y1,
+    double z0,
+    double z1,
+    IntOctTreeQueryConsumerDType consumer);
+
+  /**
+   * Passes all handles in the tree that are completely contained within
+   * {@code volume} to {@code items}.
+   *
+   * @param volume The volume to examine
+   * @param items  The function that will receive handles
+   */
+
+  default void containedBy(
+    final VolumeD volume,
+    final IntConsumer items)
+  {
+    NullCheck.notNull(volume, "Volume");
+    NullCheck.notNull(items, "Items");
+    this.containedBy(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ(),
+      (item, x0, x1, y0, y1, z0, z1) -> {
+        items.accept(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+  }
+
+  /**
+   * Counts the handles in the tree that are completely contained within
+   * {@code volume}. The result is the number of handles that
+   * {@link #containedBy(VolumeD, IntConsumer)} would pass to its consumer, but
+   * implementations may count the handles held by an octant that lies
+   * completely within {@code volume} without examining each of them.
+   *
+   * @param volume The volume to examine
+   *
+   * @return The number of handles completely contained within {@code volume}
+   */
+
+  default long count(final VolumeD volume)
+  {
+    final long[] count = {0L};
+    this.containedBy(volume, item -> ++count[0]);
+    return count[0];
+  }
+
+  /**
+   * Counts the handles in the tree that are completely contained within the
+   * volume given as coordinates. This is equivalent to calling
+   * {@link #count(VolumeD)} with
+   * {@code VolumeD.of(x0, x1, y0, y1, z0, z1)}, but implementations may
+   * perform the query without allocating the volume.
+   *
+   * @param x0 The minimum X coordinate of the volume to examine
+   * @param x1 The maximum X coordinate of the volume to examine
+   * @param y0 The minimum Y coordinate of the volume to examine
+   * @param y1 The maximum Y coordinate of the volume to examine
+   * @param z0 The minimum Z coordinate of the volume to examine
+   * @param z1 The maximum Z coordinate of the volume to examine
+   *
+   * @return The number of handles completely contained within the volume
+   */
+
+  default long count(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    return this.count(VolumeD.of(x0, x1, y0, y1, z0, z1));
+  }
+
+  /**
+   * Passes all handles in the tree that are overlapped by the given
+   * volume to {@code consumer}. Each handle is passed to {@code consumer}
+   * at most once, and the query stops early if {@code consumer} returns
+   * {@link TreeVisitResult#RESULT_TERMINATE}.
+   *
+   * @param x0       The minimum X coordinate of the volume to examine
+   * @param x1       The maximum X coordinate of the volume to examine
+   * @param y0       The minimum Y coordinate of the volume to examine
+   * @param y1       The maximum Y coordinate of the volume to examine
+   * @param z0       The minimum Z coordinate of the volume to examine
+   * @param z1       The maximum Z coordinate of the volume to examine
+   * @param consumer The function that will receive handles
+   */
+
+  void overlappedBy(
+    double x0,
+    double x1,
+    double y0,
+    double y1,
+    double z0,
+    double z1,
+    IntOctTreeQueryConsumerDType consumer);
+
+  /**
+   * Passes all handles in the tree that are overlapped by {@code volume}
+   * to {@code items}.
+   *
+   * @param volume The volume to examine
+   * @param items  The function that will receive handles
+   */
+
+  default void overlappedBy(
+    final VolumeD volume,
+    final IntConsumer items)
+  {
+    NullCheck.notNull(volume, "Volume");
+    NullCheck.notNull(items, "Items");
+    this.overlappedBy(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ(),
+      (item, x0, x1, y0, y1, z0, z1) -> {
+        items.accept(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+  }
+
+  /**
+   * Passes all handles that are intersected by the given ray to
+   * {@code consumer}. The handles are passed in no particular order. Each
+   * handle is passed to {@code consumer} at most once, and the raycast stops
+   * early if {@code consumer} returns
+   * {@link TreeVisitResult#RESULT_TERMINATE}. The distance passed for each
+   * handle is the distance from the origin of the ray to the minimum corner
+   * {@code (x0, y0, z0)} of the bounds of the handle.
+   *
+   * @param ray      The ray
+   * @param consumer The function that will receive handles
+   */
+
+  void raycast(
+    Ray3D ray,
+    IntOctTreeRaycastConsumerDType consumer);
+
+  /**
+   * Passes all handles that are intersected by the given ray to {@code
+   * consumer} in the same manner as {@link #raycast(Ray3D,
+   * IntOctTreeRaycastConsumerDType)}, except that the distance passed for
+   * each handle is the parameter {@code t} at which the ray enters the bounds
+   * of the handle, as computed by {@link
+   * Ray3D#intersectionParameterVolume(double, double, double, double, double,
+   * double)}: The ray enters the bounds at {@code origin + t * direction},
+   * and {@code t} is {@code 0.0} if the origin of the ray is inside the
+   * bounds. The parameter is measured in multiples of the length of the
+   * direction vector of the ray, and so is only a distance if the direction
+   * has unit length. Hits can be ordered by {@code t} without examining their
+   * bounds again. Implementations do not allocate any objects for each
+   * intersected handle.
+   *
+   * @param ray      The ray
+   * @param consumer The function that will receive handles
+   */
+
+  default void raycastEntry(
+    final Ray3D ray,
+    final IntOctTreeRaycastConsumerDType consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    this.raycast(
+      ray,
+      (item, x0, x1, y0, y1, z0, z1, distance) ->
+        consumer.accept(
+          item,
+          x0, x1, y0, y1, z0, z1,
+          ray.intersectionParameterVolume(
+            x0,
+            y0,
+            z0,
+            x1,
+            y1,
+            z1)));
+  }
+}
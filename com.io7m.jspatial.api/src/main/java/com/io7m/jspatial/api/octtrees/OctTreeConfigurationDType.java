@@ -16,6 +16,7 @@
 
 package com.io7m.jspatial.api.octtrees;
 
+import com.io7m.jaffirm.core.Preconditions;
 import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
 import com.io7m.jspatial.api.JSpatialImmutableStyleType;
 import org.immutables.value.Value;
@@ -81,4 +82,162 @@ public interface OctTreeConfigurationDType
   {
     return false;
   }
+
+  /**
+   * The maximum number of objects that a leaf octant may hold before it is
+   * split. When a leaf is split, the objects it holds are redistributed to
+   * the new child octants where possible. A value of {@code 0} indicates
+   * that leaf octants are split eagerly as objects are inserted, resulting
+   * in each object being placed in the smallest octant that can contain it.
+   *
+   * @return The maximum number of objects per leaf octant (must be
+   * {@code >= 0})
+   */
+
+  @Value.Default
+  default int maximumObjectsPerLeaf()
+  {
+    return 0;
+  }
+
+  /**
+   * The maximum depth of the tree. Octants at this depth are never split.
+   * The root octant is at depth {@code 0}.
+   *
+   * @return The maximum depth of the tree (must be {@code >= 1})
+   */
+
+  @Value.Default
+  default long maximumDepth()
+  {
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * The maximum number of objects that a single task of a parallel query
+   * will test. Parallel queries divide the objects that must be tested into
+   * tasks of at most this size, so queries that must test fewer objects
+   * than this are executed as a single task.
+   *
+   * @return The parallel query threshold (must be {@code >= 1})
+   */
+
+  @Value.Default
+  default int parallelQueryThreshold()
+  {
+    return 8192;
+  }
+
+  /**
+   * The minimum number of objects that a octant must receive during a
+   * parallel bulk load for the subtrees below it to be built by separate
+   * tasks. Subtrees that receive fewer objects are built by the task that
+   * built their parent.
+   *
+   * @return The parallel build threshold (must be {@code >= 1})
+   */
+
+  @Value.Default
+  default int parallelBuildThreshold()
+  {
+    return 8192;
+  }
+
+  /**
+   * The factor by which the volume of each non-root octant is enlarged
+   * about its centre to produce the loose bounds of the octant. The
+   * default value of {@code 1.0} produces an ordinary octtree, in which
+   * an object that straddles the boundary between two child octants
+   * remains in the parent octant. Trees that hold many medium sized
+   * objects then accumulate large numbers of objects in the octants near
+   * the root, and every query must examine all of them. A larger value
+   * produces a loose octtree: Each object descends towards the child
+   * octant that contains its centre for as long as the loose bounds of
+   * that child contain the object, so each object is held by an octant
+   * whose size matches the size of the object. Queries examine each
+   * octant using its loose bounds. Values in the range {@code [1.5, 2.0]}
+   * are typical. The {@code volume} reported for each octant is always the
+   * unenlarged volume.
+   *
+   * @return The looseness factor (must be {@code >= 1.0})
+   */
+
+  @Value.Default
+  default double looseness()
+  {
+    return 1.0;
+  }
+
+  /**
+   * Whether or not the tree grows to hold objects that lie outside of its
+   * bounds. By default, inserting or moving an object to bounds that do not
+   * fit within the {@code volume} of the tree fails. If this option is
+   * enabled, the tree instead grows a new root octant with twice the width,
+   * height and depth of the current root, extended towards the object, that
+   * holds the current root as one of its children. This is repeated until the
+   * root contains the object. No objects are reinserted when the tree grows,
+   * so the depth of the tree follows the extent of the objects that it holds,
+   * and the {@code volume} is then only the initial bounds of the tree. The
+   * root cannot grow if the result would not be finite.
+   *
+   * @return {@code true} iff the tree grows to hold objects
+   */
+
+  @Value.Default
+  default boolean expandable()
+  {
+    return false;
+  }
+
+  /**
+   * Whether or not octants hold the bounds of their objects only as packed
+   * coordinates. By default, each octant keeps a bounds object for each
+   * object that it holds, and returns that bounds object from
+   * {@code objects()} and from queries. If this option is enabled, octants
+   * keep only the coordinates of the bounds, packed into a primitive array
+   * alongside the array of objects, and a bounds object is created each time
+   * that one is requested. This roughly halves the memory used for each
+   * object, at the cost of allocating a bounds object for each result that
+   * is delivered as one. Objects are tested against queries using the packed
+   * coordinates in either case. Linear trees and trees keyed by {@code int}
+   * handles always use packed storage.
+   *
+   * @return {@code true} iff bounds are held only as packed coordinates
+   */
+
+  @Value.Default
+  default boolean packedBounds()
+  {
+    return false;
+  }
+
+  /**
+   * Check the preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    Preconditions.checkPreconditionI(
+      this.maximumObjectsPerLeaf(),
+      this.maximumObjectsPerLeaf() >= 0,
+      x -> "Maximum objects per leaf must be >= 0");
+    Preconditions.checkPreconditionL(
+      this.maximumDepth(),
+      this.maximumDepth() >= 1L,
+      x -> "Maximum depth must be >= 1");
+    Preconditions.checkPreconditionI(
+      this.parallelQueryThreshold(),
+      this.parallelQueryThreshold() >= 1,
+      x -> "Parallel query threshold must be >= 1");
+    Preconditions.checkPreconditionI(
+      this.parallelBuildThreshold(),
+      this.parallelBuildThreshold() >= 1,
+      x -> "Parallel build threshold must be >= 1");
+    Preconditions.checkPreconditionD(
+      this.looseness(),
+      Double.isFinite(this.looseness())
+        && this.looseness() >= 1.0,
+      x -> "Looseness must be finite and >= 1.0");
+  }
 }
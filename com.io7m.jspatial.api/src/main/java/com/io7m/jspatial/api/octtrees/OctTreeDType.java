@@ -17,7 +17,9 @@
 package com.io7m.jspatial.api.octtrees;
 
 import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jspatial.api.TreeQueryListenerType;
 
+import java.util.Optional;
 import java.util.function.BiFunction;
 
 /**
@@ -61,6 +63,144 @@ public interface OctTreeDType<A> extends OctTreeReadableDType<A>
   boolean remove(
     A item);
 
+  /**
+   * <p>Change the bounds of the object {@code item}, which must already be
+   * in the octtree.</p>
+   *
+   * <p>This is equivalent to removing and then re-inserting the object, but
+   * the search for the object's new position begins at the node that
+   * currently holds the object and climbs only as far as the nearest
+   * enclosing node, rather than starting from the root.</p>
+   *
+   * <p>The function returns {@code false}, and leaves the octtree
+   * unchanged, if the object is not in the octtree or the new bounds do not
+   * fit within the octtree.</p>
+   *
+   * @param item   The object to move
+   * @param bounds The object's new bounds
+   *
+   * @return {@code true} if the object was moved
+   */
+
+  boolean move(
+    A item,
+    VolumeD bounds);
+
+  /**
+   * <p>Insert the object {@code item} into the octree, with bounds given
+   * as coordinates.</p>
+   *
+   * <p>This is equivalent to calling {@link #insert(Object, VolumeD)} with
+   * {@code VolumeD.of(x0, x1, y0, y1, z0, z1)}, but implementations may store the
+   * coordinates without allocating the bounds.</p>
+   *
+   * @param item The object
+   * @param x0   The minimum X coordinate of the object's bounds
+   * @param x1   The maximum X coordinate of the object's bounds
+   * @param y0   The minimum Y coordinate of the object's bounds
+   * @param y1   The maximum Y coordinate of the object's bounds
+   * @param z0   The minimum Z coordinate of the object's bounds
+   * @param z1   The maximum Z coordinate of the object's bounds
+   *
+   * @return {@code true} if the object was inserted
+   */
+
+  default boolean insert(
+    final A item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    return this.insert(item, VolumeD.of(x0, x1, y0, y1, z0, z1));
+  }
+
+  /**
+   * <p>Change the bounds of the object {@code item}, which must already be
+   * in the octree, to bounds given as coordinates.</p>
+   *
+   * <p>This is equivalent to calling {@link #move(Object, VolumeD)} with
+   * {@code VolumeD.of(x0, x1, y0, y1, z0, z1)}, but implementations may store the
+   * coordinates without allocating the bounds.</p>
+   *
+   * @param item The object
+   * @param x0   The minimum X coordinate of the object's bounds
+   * @param x1   The maximum X coordinate of the object's bounds
+   * @param y0   The minimum Y coordinate of the object's bounds
+   * @param y1   The maximum Y coordinate of the object's bounds
+   * @param z0   The minimum Z coordinate of the object's bounds
+   * @param z1   The maximum Z coordinate of the object's bounds
+   *
+   * @return {@code true} if the object was moved
+   */
+
+  default boolean move(
+    final A item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    return this.move(item, VolumeD.of(x0, x1, y0, y1, z0, z1));
+  }
+
+  /**
+   * <p>Take an immutable snapshot of the octtree.</p>
+   *
+   * <p>The snapshot is taken in constant time: It shares the structure of the
+   * octtree as it is at the time of the call, and the octtree subsequently
+   * copies only those nodes that it modifies. The snapshot is unaffected by
+   * later modifications to the octtree, and may be queried from any number
+   * of threads without synchronization.</p>
+   *
+   * <p>The first call to {@code contains} or {@code volumeFor} on a snapshot
+   * visits every object in the snapshot to build an index from objects to
+   * their bounds, and therefore takes {@code O(n)} time in the number of
+   * objects. Later calls on the same snapshot take constant time.</p>
+   *
+   * @return A snapshot of the octtree
+   */
+
+  OctTreeReadableDType<A> snapshot();
+
+  /**
+   * <p>Compile the octtree into a read-only form, for objects that will not
+   * move once loaded.</p>
+   *
+   * <p>The octants of the compiled tree are stored in breadth-first order,
+   * and the bounds of the octants and of the objects are packed into direct
+   * buffers outside of the garbage-collected heap. The compiled tree is
+   * unaffected by later modifications to the octtree, and may be queried
+   * from any number of threads without synchronization.</p>
+   *
+   * <p>The compiled tree reports its queries to the query listener that the
+   * octtree has at the time of compilation, if any.</p>
+   *
+   * @return A compiled copy of the octtree
+   */
+
+  OctTreeReadableDType<A> compile();
+
+  /**
+   * <p>Set the listener that receives statistics about the queries performed
+   * on the octtree, or remove the listener if {@code listener} is empty. The
+   * octtree collects no statistics while it has no listener. Snapshots of the
+   * octtree report to the listener of the octtree that created them.</p>
+   *
+   * <p>Queries of the kinds listed by
+   * {@link com.io7m.jspatial.api.TreeQueryKind} are reported, including batch
+   * queries and parallel queries. A compiled copy of the octtree reports to
+   * the listener that the octtree had when it was compiled.</p>
+   *
+   * @param listener The listener, if any
+   */
+
+  void setQueryListener(Optional<TreeQueryListenerType> listener);
+
   /**
    * Remove all objects from the tree.
    */
@@ -17,7 +17,9 @@
 package com.io7m.jspatial.api.octtrees;
 
 import com.io7m.jregions.core.unparameterized.volumes.VolumeI;
+import com.io7m.jspatial.api.TreeQueryListenerType;
 
+import java.util.Optional;
 import java.util.function.BiFunction;
 
 /**
@@ -64,6 +66,125 @@ public interface OctTreeIType<A> extends OctTreeReadableIType<A>
   boolean remove(
     A item);
 
+  /**
+   * <p>Change the bounds of the object {@code item}, which must already be
+   * in the octtree.</p>
+   *
+   * <p>This is equivalent to removing and then re-inserting the object, but
+   * the search for the object's new position begins at the node that
+   * currently holds the object and climbs only as far as the nearest
+   * enclosing node, rather than starting from the root.</p>
+   *
+   * <p>The function returns {@code false}, and leaves the octtree
+   * unchanged, if the object is not in the octtree or the new bounds do not
+   * fit within the octtree.</p>
+   *
+   * @param item   The object to move
+   * @param bounds The object's new bounds
+   *
+   * @return {@code true} if the object was moved
+   */
+
+  boolean move(
+    A item,
+    VolumeI bounds);
+
+  /**
+   * <p>Insert the object {@code item} into the octree, with bounds given
+   * as coordinates.</p>
+   *
+   * <p>This is equivalent to calling {@link #insert(Object, VolumeI)} with
+   * {@code VolumeI.of(x0, x1, y0, y1, z0, z1)}, but implementations may store the
+   * coordinates without allocating the bounds.</p>
+   *
+   * @param item The object
+   * @param x0   The minimum X coordinate of the object's bounds
+   * @param x1   The maximum X coordinate of the object's bounds
+   * @param y0   The minimum Y coordinate of the object's bounds
+   * @param y1   The maximum Y coordinate of the object's bounds
+   * @param z0   The minimum Z coordinate of the object's bounds
+   * @param z1   The maximum Z coordinate of the object's bounds
+   *
+   * @return {@code true} if the object was inserted
+   */
+
+  default boolean insert(
+    final A item,
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1,
+    final int z0,
+    final int z1)
+  {
+    return this.insert(item, VolumeI.of(x0, x1, y0, y1, z0, z1));
+  }
+
+  /**
+   * <p>Change the bounds of the object {@code item}, which must already be
+   * in the octree, to bounds given as coordinates.</p>
+   *
+   * <p>This is equivalent to calling {@link #move(Object, VolumeI)} with
+   * {@code VolumeI.of(x0, x1, y0, y1, z0, z1)}, but implementations may store the
+   * coordinates without allocating the bounds.</p>
+   *
+   * @param item The object
+   * @param x0   The minimum X coordinate of the object's bounds
+   * @param x1   The maximum X coordinate of the object's bounds
+   * @param y0   The minimum Y coordinate of the object's bounds
+   * @param y1   The maximum Y coordinate of the object's bounds
+   * @param z0   The minimum Z coordinate of the object's bounds
+   * @param z1   The maximum Z coordinate of the object's bounds
+   *
+   * @return {@code true} if the object was moved
+   */
+
+  default boolean move(
+    final A item,
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1,
+    final int z0,
+    final int z1)
+  {
+    return this.move(item, VolumeI.of(x0, x1, y0, y1, z0, z1));
+  }
+
+  /**
+   * <p>Take an immutable snapshot of the octtree.</p>
+   *
+   * <p>The snapshot is taken in constant time: It shares the structure of the
+   * octtree as it is at the time of the call, and the octtree subsequently
+   * copies only those nodes that it modifies. The snapshot is unaffected by
+   * later modifications to the octtree, and may be queried from any number
+   * of threads without synchronization.</p>
+   *
+   * <p>The first call to {@code contains} or {@code volumeFor} on a snapshot
+   * visits every object in the snapshot to build an index from objects to
+   * their bounds, and therefore takes {@code O(n)} time in the number of
+   * objects. Later calls on the same snapshot take constant time.</p>
+   *
+   * @return A snapshot of the octtree
+   */
+
+  OctTreeReadableIType<A> snapshot();
+
+  /**
+   * <p>Set the listener that receives statistics about the queries performed
+   * on the octtree, or remove the listener if {@code listener} is empty. The
+   * octtree collects no statistics while it has no listener. Snapshots of the
+   * octtree report to the listener of the octtree that created them.</p>
+   *
+   * <p>Queries of the kinds listed by
+   * {@link com.io7m.jspatial.api.TreeQueryKind} are reported, including batch
+   * queries and parallel queries.</p>
+   *
+   * @param listener The listener, if any
+   */
+
+  void setQueryListener(Optional<TreeQueryListenerType> listener);
+
   /**
    * Remove all objects from the tree.
    */
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.api.octtrees;
+
+import com.io7m.jspatial.api.TreeVisitResult;
+
+/**
+ * The type of functions that receive the results of octree nearest
+ * neighbour queries.
+ *
+ * <p>The bounds of each item are passed as individual coordinates so that
+ * the results of queries can be received without allocating.</p>
+ *
+ * @param <A> The type of tree objects
+ *
+ * @since 3.0.0
+ */
+
+@FunctionalInterface
+public interface OctTreeNearestConsumerDType<A>
+{
+  /**
+   * Receive an item that was near to the query point.
+   *
+   * @param item     The item
+   * @param x0       The minimum X coordinate of the item's bounding volume
+   * @param x1       The maximum X coordinate of the item's bounding volume
+   * @param y0       The minimum Y coordinate of the item's bounding volume
+   * @param y1       The maximum Y coordinate of the item's bounding volume
+   * @param z0       The minimum Z coordinate of the item's bounding volume
+   * @param z1       The maximum Z coordinate of the item's bounding volume
+   * @param distance The distance from the query point to the item
+   *
+   * @return A value indicating whether or not the query should continue
+   */
+
+  TreeVisitResult accept(
+    A item,
+    double x0,
+    double x1,
+    double y0,
+    double y1,
+    double z0,
+    double z1,
+    double distance);
+}
@@ -16,8 +16,13 @@
 
 package com.io7m.jspatial.api.octtrees;
 
+import com.io7m.jnull.NullCheck;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
 import org.osgi.annotation.versioning.ProviderType;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * The type of constructors for trees.
  *
@@ -39,4 +44,57 @@ public interface OctTreeSupplierDType
 
   <A> OctTreeDType<A> create(
     OctTreeConfigurationD config);
+
+  /**
+   * Create a new tree based on the given configuration, containing the given
+   * items. Items with bounds that do not fit within the bounds of the tree
+   * are not inserted. Implementations are expected to override the default
+   * implementation, which simply inserts each item in turn, with one that
+   * builds the tree in a single pass.
+   *
+   * @param config The configuration
+   * @param items  The items and their bounds
+   * @param <A>    The type of objects in the tree
+   *
+   * @return A new tree
+   */
+
+  default <A> OctTreeDType<A> createFrom(
+    final OctTreeConfigurationD config,
+    final Map<A, VolumeD> items)
+  {
+    NullCheck.notNull(items, "Items");
+
+    final OctTreeDType<A> tree = this.create(config);
+    for (final Map.Entry<A, VolumeD> entry : items.entrySet()) {
+      tree.insert(entry.getKey(), entry.getValue());
+    }
+    return tree;
+  }
+
+  /**
+   * Create a new tree based on the given configuration, containing the given
+   * items, using tasks executed on {@code pool}. The resulting tree is
+   * identical to the tree that would be returned by
+   * {@link #createFrom(OctTreeConfigurationD, Map)}. The default
+   * implementation builds the tree on the calling thread.
+   *
+   * @param config The configuration
+   * @param items  The items and their bounds
+   * @param pool   The pool that will execute tasks
+   * @param <A>    The type of objects in the tree
+   *
+   * @return A new tree
+   *
+   * @see OctTreeConfigurationDType#parallelBuildThreshold()
+   */
+
+  default <A> OctTreeDType<A> createFromParallel(
+    final OctTreeConfigurationD config,
+    final Map<A, VolumeD> items,
+    final ForkJoinPool pool)
+  {
+    NullCheck.notNull(pool, "Pool");
+    return this.createFrom(config, items);
+  }
 }
@@ -0,0 +1,395 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.api.quadtrees;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeQueryListenerType;
+import com.io7m.jspatial.api.TreeVisitResult;
+
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>The type of mutable quadtrees with {@code double} precision coordinates
+ * that hold {@code int} handles instead of object references.</p>
+ *
+ * <p>This is intended for applications that already identify their objects
+ * by integer ids, such as indices into arrays of entities: The handles are
+ * stored unboxed, and each result of a query is delivered directly as an
+ * {@code int} without a map lookup.</p>
+ *
+ * @since 3.0.0
+ */
+
+public interface IntQuadTreeDType extends QuadTreeReadableType
+{
+  /**
+   * @return The tree bounds
+   */
+
+  AreaD bounds();
+
+  /**
+   * Determine whether or not the handle has already been inserted into the
+   * tree.
+   *
+   * @param item The handle
+   *
+   * @return {@code true} iff the handle is in the tree
+   */
+
+  boolean contains(int item);
+
+  /**
+   * @param item The handle
+   *
+   * @return The bounding area that was specified for {@code item}
+   *
+   * @throws NoSuchElementException Iff the handle is not present in the tree
+   */
+
+  AreaD areaFor(int item)
+    throws NoSuchElementException;
+
+  /**
+   * <p>Insert the handle {@code item} into the quadtree. If the handle is
+   * already in the quadtree, it is first removed.</p>
+   *
+   * <p>The function returns {@code false} if the handle could not be
+   * inserted for any reason (perhaps due to being too large).</p>
+   *
+   * @param item The handle to insert
+   * @param x0   The minimum X coordinate of the handle's bounds
+   * @param x1   The maximum X coordinate of the handle's bounds
+   * @param y0   The minimum Y coordinate of the handle's bounds
+   * @param y1   The maximum Y coordinate of the handle's bounds
+   *
+   * @return {@code true} if the handle was inserted
+   */
+
+  boolean insert(
+    int item,
+    double x0,
+    double x1,
+    double y0,
+    double y1);
+
+  /**
+   * Insert the handle {@code item} into the quadtree. This is equivalent to
+   * calling {@link #insert(int, double, double, double, double)} with the
+   * coordinates of {@code bounds}.
+   *
+   * @param item   The handle to insert
+   * @param bounds The handle's bounds
+   *
+   * @return {@code true} if the handle was inserted
+   */
+
+  default boolean insert(
+    final int item,
+    final AreaD bounds)
+  {
+    NullCheck.notNull(bounds, "Bounds");
+    return this.insert(
+      item,
+      bounds.minimumX(),
+      bounds.maximumX(),
+      bounds.minimumY(),
+      bounds.maximumY());
+  }
+
+  /**
+   * <p>Remove the handle {@code item} from the quadtree.</p>
+   *
+   * <p>The function returns {@code false} if the handle could not be
+   * removed for any reason (perhaps due to not being in the tree in the first
+   * place).</p>
+   *
+   * @param item The handle to remove
+   *
+   * @return {@code true} if the handle was removed
+   */
+
+  boolean remove(int item);
+
+  /**
+   * <p>Change the bounds of the handle {@code item}, which must already be
+   * in the quadtree. The search for the handle's new position begins at the
+   * node that currently holds the handle and climbs only as far as the
+   * nearest enclosing node.</p>
+   *
+   * <p>The function returns {@code false}, and leaves the quadtree
+   * unchanged, if the handle is not in the quadtree or the new bounds do not
+   * fit within the quadtree.</p>
+   *
+   * @param item The handle to move
+   * @param x0   The minimum X coordinate of the handle's new bounds
+   * @param x1   The maximum X coordinate of the handle's new bounds
+   * @param y0   The minimum Y coordinate of the handle's new bounds
+   * @param y1   The maximum Y coordinate of the handle's new bounds
+   *
+   * @return {@code true} if the handle was moved
+   */
+
+  boolean move(
+    int item,
+    double x0,
+    double x1,
+    double y0,
+    double y1);
+
+  /**
+   * Change the bounds of the handle {@code item}. This is equivalent to
+   * calling {@link #move(int, double, double, double, double)} with the
+   * coordinates of {@code bounds}.
+   *
+   * @param item   The handle to move
+   * @param bounds The handle's new bounds
+   *
+   * @return {@code true} if the handle was moved
+   */
+
+  default boolean move(
+    final int item,
+    final AreaD bounds)
+  {
+    NullCheck.notNull(bounds, "Bounds");
+    return this.move(
+      item,
+      bounds.minimumX(),
+      bounds.maximumX(),
+      bounds.minimumY(),
+      bounds.maximumY());
+  }
+
+  /**
+   * Remove all handles from the tree.
+   */
+
+  void clear();
+
+  /**
+   * Trim all empty quadrants from the tree.
+   */
+
+  void trim();
+
+  /**
+   * <p>Set the listener that receives statistics about the queries performed
+   * on the quadtree, or remove the listener if {@code listener} is empty. The
+   * quadtree collects no statistics while it has no listener.</p>
+   *
+   * <p>Queries of the kinds listed by
+   * {@link com.io7m.jspatial.api.TreeQueryKind} are reported.</p>
+   *
+   * @param listener The listener, if any
+   */
+
+  void setQueryListener(Optional<TreeQueryListenerType> listener);
+
+  /**
+   * Passes all handles in the tree that are completely contained within the
+   * given area to {@code consumer}. Each handle is passed to
+   * {@code consumer} at most once, and the query stops early if
+   * {@code consumer} returns {@link TreeVisitResult#RESULT_TERMINATE}.
+   *
+   * @param x0       The minimum X coordinate of the area to examine
+   * @param x1       The maximum X coordinate of the area to examine
+   * @param y0       The minimum Y coordinate of the area to examine
+   * @param y1       The maximum Y coordinate of the area to examine
+   * @param consumer The function that will receive handles
+   */
+
+  void containedBy(
+    double x0,
+    double x1,
+    double y0,
+    double y1,
+    IntQuadTreeQueryConsumerDType consumer);
+
+  /**
+   * Passes all handles in the tree that are completely contained within
+   * {@code area} to {@code items}.
+   *
+   * @param area  The area to examine
+   * @param items The function that will receive handles
+   */
+
+  default void containedBy(
+    final AreaD area,
+    final IntConsumer items)
+  {
+    NullCheck.notNull(area, "Area");
+    NullCheck.notNull(items, "Items");
+    this.containedBy(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY(),
+      (item, x0, x1, y0, y1) -> {
+        items.accept(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+  }
+
+  /**
+   * Counts the handles in the tree that are completely contained within
+   * {@code area}. The result is the number of handles that
+   * {@link #containedBy(AreaD, IntConsumer)} would pass to its consumer, but
+   * implementations may count the handles held by a quadrant that lies
+   * completely within {@code area} without examining each of them.
+   *
+   * @param area The area to examine
+   *
+   * @return The number of handles completely contained within {@code area}
+   */
+
+  default long count(final AreaD area)
+  {
+    final long[] count = {0L};
+    this.containedBy(area, item -> ++count[0]);
+    return count[0];
+  }
+
+  /**
+   * Counts the handles in the tree that are completely contained within the
+   * area given as coordinates. This is equivalent to calling
+   * {@link #count(AreaD)} with
+   * {@code AreaD.of(x0, x1, y0, y1)}, but implementations may
+   * perform the query without allocating the area.
+   *
+   * @param x0 The minimum X coordinate of the area to examine
+   * @param x1 The maximum X coordinate of the area to examine
+   * @param y0 The minimum Y coordinate of the area to examine
+   * @param y1 The maximum Y coordinate of the area to examine
+   *
+   * @return The number of handles completely contained within the area
+   */
+
+  default long count(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    return this.count(AreaD.of(x0, x1, y0, y1));
+  }
+
+  /**
+   * Passes all handles in the tree that are overlapped by the given
+   * area to {@code consumer}. Each handle is passed to {@code consumer}
+   * at most once, and the query stops early if {@code consumer} returns
+   * {@link TreeVisitResult#RESULT_TERMINATE}.
+   *
+   * @param x0       The minimum X coordinate of the area to examine
+   * @param x1       The maximum X coordinate of the area to examine
+   * @param y0       The minimum Y coordinate of the area to examine
+   * @param y1       The maximum Y coordinate of the area to examine
+   * @param consumer The function that will receive handles
+   */
+
+  void overlappedBy(
+    double x0,
+    double x1,
+    double y0,
+    double y1,
+    IntQuadTreeQueryConsumerDType consumer);
+
+  /**
+   * Passes all handles in the tree that are overlapped by {@code area}
+   * to {@code items}.
+   *
+   * @param area  The area to examine
+   * @param items The function that will receive handles
+   */
+
+  default void overlappedBy(
+    final AreaD area,
+    final IntConsumer items)
+  {
+    NullCheck.notNull(area, "Area");
+    NullCheck.notNull(items, "Items");
+    this.overlappedBy(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY(),
+      (item, x0, x1, y0, y1) -> {
+        items.accept(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+  }
+
+  /**
+   * Passes all handles that are intersected by the given ray to
+   * {@code consumer}. The handles are passed in no particular order. Each
+   * handle is passed to {@code consumer} at most once, and the raycast stops
+   * early if {@code consumer} returns
+   * {@link TreeVisitResult#RESULT_TERMINATE}. The distance passed for each
+   * handle is the distance from the origin of the ray to the minimum corner
+   * {@code (x0, y0)} of the bounds of the handle.
+   *
+   * @param ray      The ray
+   * @param consumer The function that will receive handles
+   */
+
+  void raycast(
+    Ray2D ray,
+    IntQuadTreeRaycastConsumerDType consumer);
+
+  /**
+   * Passes all handles that are intersected by the given ray to {@code
+   * consumer} in the same manner as {@link #raycast(Ray2D,
+   * IntQuadTreeRaycastConsumerDType)}, except that the distance passed for
+   * each handle is the parameter {@code t} at which the ray enters the bounds
+   * of the handle, as computed by
+   * {@link Ray2D#intersectionParameterArea(double, double, double, double)}:
+   * The ray enters the bounds at {@code origin + t * direction}, and
+   * {@code t} is {@code 0.0} if the origin of the ray is inside the bounds.
+   * The parameter is measured in multiples of the length of the direction
+   * vector of the ray, and so is only a distance if the direction has unit
+   * length. Hits can be ordered by {@code t} without examining their bounds
+   * again. Implementations do not allocate any objects for each intersected
+   * handle.
+   *
+   * @param ray      The ray
+   * @param consumer The function that will receive handles
+   */
+
+  default void raycastEntry(
+    final Ray2D ray,
+    final IntQuadTreeRaycastConsumerDType consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    this.raycast(
+      ray,
+      (item, x0, x1, y0, y1, distance) ->
+        consumer.accept(
+          item,
+          x0, x1, y0, y1,
+          ray.intersectionParameterArea(
+            x0,
+            y0,
+            x1,
+            y1)));
+  }
+}
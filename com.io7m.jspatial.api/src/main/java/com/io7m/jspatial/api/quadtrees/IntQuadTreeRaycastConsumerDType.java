@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.api.quadtrees;
+
+import com.io7m.jspatial.api.TreeVisitResult;
+
+/**
+ * The type of functions that receive the results of raycasts of
+ * {@code int}-keyed quadtrees.
+ *
+ * <p>The bounds of each item are passed as individual coordinates so that
+ * the results of raycasts can be received without allocating.</p>
+ *
+ * @since 3.0.0
+ */
+
+@FunctionalInterface
+public interface IntQuadTreeRaycastConsumerDType
+{
+  /**
+   * Receive an item that was intersected by a ray.
+   *
+   * @param item     The item handle
+   * @param x0       The minimum X coordinate of the item's bounding area
+   * @param x1       The maximum X coordinate of the item's bounding area
+   * @param y0       The minimum Y coordinate of the item's bounding area
+   * @param y1       The maximum Y coordinate of the item's bounding area
+   * @param distance The distance from the origin of the ray to the item
+   *
+   * @return A value indicating whether or not the raycast should continue
+   */
+
+  TreeVisitResult accept(
+    int item,
+    double x0,
+    double x1,
+    double y0,
+    double y1,
+    double distance);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.api.quadtrees;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * The type of constructors for {@code int}-keyed quadtrees.
+ *
+ * @since 3.0.0
+ */
+
+@ProviderType
+@FunctionalInterface
+public interface IntQuadTreeSupplierDType
+{
+  /**
+   * Create a new tree based on the given configuration.
+   *
+   * @param config The configuration
+   *
+   * @return A new tree
+   */
+
+  IntQuadTreeDType create(
+    QuadTreeConfigurationD config);
+}
@@ -17,7 +17,9 @@
 package com.io7m.jspatial.api.quadtrees;
 
 import com.io7m.jregions.core.unparameterized.areas.AreaD;
+import com.io7m.jspatial.api.TreeQueryListenerType;
 
+import java.util.Optional;
 import java.util.function.BiFunction;
 
 /**
@@ -61,6 +63,136 @@ public interface QuadTreeDType<A> extends QuadTreeReadableDType<A>
   boolean remove(
     A item);
 
+  /**
+   * <p>Change the bounds of the object {@code item}, which must already be
+   * in the quadtree.</p>
+   *
+   * <p>This is equivalent to removing and then re-inserting the object, but
+   * the search for the object's new position begins at the node that
+   * currently holds the object and climbs only as far as the nearest
+   * enclosing node, rather than starting from the root.</p>
+   *
+   * <p>The function returns {@code false}, and leaves the quadtree
+   * unchanged, if the object is not in the quadtree or the new bounds do not
+   * fit within the quadtree.</p>
+   *
+   * @param item   The object to move
+   * @param bounds The object's new bounds
+   *
+   * @return {@code true} if the object was moved
+   */
+
+  boolean move(
+    A item,
+    AreaD bounds);
+
+  /**
+   * <p>Insert the object {@code item} into the quadtree, with bounds given
+   * as coordinates.</p>
+   *
+   * <p>This is equivalent to calling {@link #insert(Object, AreaD)} with
+   * {@code AreaD.of(x0, x1, y0, y1)}, but implementations may store the
+   * coordinates without allocating the bounds.</p>
+   *
+   * @param item The object
+   * @param x0   The minimum X coordinate of the object's bounds
+   * @param x1   The maximum X coordinate of the object's bounds
+   * @param y0   The minimum Y coordinate of the object's bounds
+   * @param y1   The maximum Y coordinate of the object's bounds
+   *
+   * @return {@code true} if the object was inserted
+   */
+
+  default boolean insert(
+    final A item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    return this.insert(item, AreaD.of(x0, x1, y0, y1));
+  }
+
+  /**
+   * <p>Change the bounds of the object {@code item}, which must already be
+   * in the quadtree, to bounds given as coordinates.</p>
+   *
+   * <p>This is equivalent to calling {@link #move(Object, AreaD)} with
+   * {@code AreaD.of(x0, x1, y0, y1)}, but implementations may store the
+   * coordinates without allocating the bounds.</p>
+   *
+   * @param item The object
+   * @param x0   The minimum X coordinate of the object's bounds
+   * @param x1   The maximum X coordinate of the object's bounds
+   * @param y0   The minimum Y coordinate of the object's bounds
+   * @param y1   The maximum Y coordinate of the object's bounds
+   *
+   * @return {@code true} if the object was moved
+   */
+
+  default boolean move(
+    final A item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    return this.move(item, AreaD.of(x0, x1, y0, y1));
+  }
+
+  /**
+   * <p>Take an immutable snapshot of the quadtree.</p>
+   *
+   * <p>The snapshot is taken in constant time: It shares the structure of the
+   * quadtree as it is at the time of the call, and the quadtree subsequently
+   * copies only those nodes that it modifies. The snapshot is unaffected by
+   * later modifications to the quadtree, and may be queried from any number
+   * of threads without synchronization.</p>
+   *
+   * <p>The first call to {@code contains} or {@code areaFor} on a snapshot
+   * visits every object in the snapshot to build an index from objects to
+   * their bounds, and therefore takes {@code O(n)} time in the number of
+   * objects. Later calls on the same snapshot take constant time.</p>
+   *
+   * @return A snapshot of the quadtree
+   */
+
+  QuadTreeReadableDType<A> snapshot();
+
+  /**
+   * <p>Compile the quadtree into a read-only form, for objects that will not
+   * move once loaded.</p>
+   *
+   * <p>The quadrants of the compiled tree are stored in breadth-first order,
+   * and the bounds of the quadrants and of the objects are packed into direct
+   * buffers outside of the garbage-collected heap. The compiled tree is
+   * unaffected by later modifications to the quadtree, and may be queried
+   * from any number of threads without synchronization.</p>
+   *
+   * <p>The compiled tree reports its queries to the query listener that the
+   * quadtree has at the time of compilation, if any.</p>
+   *
+   * @return A compiled copy of the quadtree
+   */
+
+  QuadTreeReadableDType<A> compile();
+
+  /**
+   * <p>Set the listener that receives statistics about the queries performed
+   * on the quadtree, or remove the listener if {@code listener} is empty. The
+   * quadtree collects no statistics while it has no listener. Snapshots of the
+   * quadtree report to the listener of the quadtree that created them.</p>
+   *
+   * <p>Queries of the kinds listed by
+   * {@link com.io7m.jspatial.api.TreeQueryKind} are reported, including batch
+   * queries and parallel queries. A compiled copy of the quadtree reports to
+   * the listener that the quadtree had when it was compiled.</p>
+   *
+   * @param listener The listener, if any
+   */
+
+  void setQueryListener(Optional<TreeQueryListenerType> listener);
+
   /**
    * Remove all objects from the tree.
    */
@@ -16,12 +16,19 @@
 
 package com.io7m.jspatial.api.quadtrees;
 
+import com.io7m.jnull.NullCheck;
 import com.io7m.jregions.core.unparameterized.areas.AreaL;
 import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
 
 /**
@@ -93,9 +100,101 @@ public interface QuadTreeReadableLType<A> extends QuadTreeReadableType
    * @param items The returned items
    */
 
+  default void containedBy(
+    final AreaL area,
+    final Set<A> items)
+  {
+    NullCheck.notNull(items, "Items");
+    this.containedBy(area, (item, x0, x1, y0, y1) -> {
+      items.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+  }
+
+  /**
+   * Passes all objects in the tree that are completely contained within
+   * {@code area} to {@code consumer}. Each object is passed to
+   * {@code consumer} at most once, and the query stops early if
+   * {@code consumer} returns {@link TreeVisitResult#RESULT_TERMINATE}.
+   *
+   * @param area     The area to examine
+   * @param consumer The function that will receive items
+   */
+
   void containedBy(
     AreaL area,
-    Set<A> items);
+    QuadTreeQueryConsumerLType<A> consumer);
+
+  /**
+   * Passes all objects in the tree that are completely contained within the area given
+   * as coordinates to {@code consumer}. This is equivalent to calling
+   * {@link #containedBy(AreaL, QuadTreeQueryConsumerLType)} with
+   * {@code AreaL.of(x0, x1, y0, y1)}, but implementations may perform the
+   * query without allocating the area.
+   *
+   * @param x0       The minimum X coordinate of the area to examine
+   * @param x1       The maximum X coordinate of the area to examine
+   * @param y0       The minimum Y coordinate of the area to examine
+   * @param y1       The maximum Y coordinate of the area to examine
+   * @param consumer The function that will receive items
+   */
+
+  default void containedBy(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final QuadTreeQueryConsumerLType<A> consumer)
+  {
+    this.containedBy(AreaL.of(x0, x1, y0, y1), consumer);
+  }
+
+  /**
+   * Counts the objects in the tree that are completely contained within
+   * {@code area}. The result is the number of objects that
+   * {@link #containedBy(AreaL, QuadTreeQueryConsumerLType)} would pass to its
+   * consumer, but implementations may count the objects held by a quadrant
+   * that lies completely within {@code area} without examining each of
+   * them.
+   *
+   * @param area The area to examine
+   *
+   * @return The number of objects completely contained within {@code area}
+   */
+
+  default long count(final AreaL area)
+  {
+    final long[] count = {0L};
+    this.containedBy(area, (item, x0, x1, y0, y1) -> {
+      ++count[0];
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    return count[0];
+  }
+
+  /**
+   * Counts the objects in the tree that are completely contained within the
+   * area given as coordinates. This is equivalent to calling
+   * {@link #count(AreaL)} with
+   * {@code AreaL.of(x0, x1, y0, y1)}, but implementations may
+   * perform the query without allocating the area.
+   *
+   * @param x0 The minimum X coordinate of the area to examine
+   * @param x1 The maximum X coordinate of the area to examine
+   * @param y0 The minimum Y coordinate of the area to examine
+   * @param y1 The maximum Y coordinate of the area to examine
+   *
+   * @return The number of objects completely contained within the area
+   */
+
+  default long count(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    return this.count(AreaL.of(x0, x1, y0, y1));
+  }
 
   /**
    * Returns all objects in the tree that are overlapped
@@ -105,20 +204,290 @@ public interface QuadTreeReadableLType<A> extends QuadTreeReadableType
    * @param items The returned items
    */
 
+  default void overlappedBy(
+    final AreaL area,
+    final Set<A> items)
+  {
+    NullCheck.notNull(items, "Items");
+    this.overlappedBy(area, (item, x0, x1, y0, y1) -> {
+      items.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+  }
+
+  /**
+   * Passes all objects in the tree that are overlapped by {@code area} to
+   * {@code consumer}. Each object is passed to {@code consumer} at most
+   * once, and the query stops early if {@code consumer} returns
+   * {@link TreeVisitResult#RESULT_TERMINATE}.
+   *
+   * @param area     The area to examine
+   * @param consumer The function that will receive items
+   */
+
   void overlappedBy(
     AreaL area,
-    Set<A> items);
+    QuadTreeQueryConsumerLType<A> consumer);
+
+  /**
+   * Passes all objects in the tree that are overlapped by the area given
+   * as coordinates to {@code consumer}. This is equivalent to calling
+   * {@link #overlappedBy(AreaL, QuadTreeQueryConsumerLType)} with
+   * {@code AreaL.of(x0, x1, y0, y1)}, but implementations may perform the
+   * query without allocating the area.
+   *
+   * @param x0       The minimum X coordinate of the area to examine
+   * @param x1       The maximum X coordinate of the area to examine
+   * @param y0       The minimum Y coordinate of the area to examine
+   * @param y1       The maximum Y coordinate of the area to examine
+   * @param consumer The function that will receive items
+   */
+
+  default void overlappedBy(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final QuadTreeQueryConsumerLType<A> consumer)
+  {
+    this.overlappedBy(AreaL.of(x0, x1, y0, y1), consumer);
+  }
+
+  /**
+   * Passes all objects in the tree that are overlapped by each of
+   * {@code areas} to {@code consumer}, along with the index within
+   * {@code areas} of the overlapping area. An object is passed to
+   * {@code consumer} once for each area that overlaps it, and the batch
+   * stops early if {@code consumer} returns
+   * {@link TreeVisitResult#RESULT_TERMINATE}. The results are the same as
+   * those of calling {@link #overlappedBy(AreaL, QuadTreeQueryConsumerLType)}
+   * once for each area, but the tree is traversed once for the whole batch.
+   *
+   * @param areas    The areas to examine
+   * @param consumer The function that will receive items
+   */
+
+  void overlappedByAll(
+    List<AreaL> areas,
+    QuadTreeBatchQueryConsumerLType<A> consumer);
+
+  /**
+   * Returns all objects in the tree that are completely contained within
+   * {@code area}, saving the results to {@code items}. The objects that must
+   * be tested are divided into tasks that are executed on {@code pool}, and
+   * the results of the tasks are merged before being added to
+   * {@code items}. The default implementation executes the query on the
+   * calling thread.
+   *
+   * @param area  The area to examine
+   * @param pool  The pool that will execute the query
+   * @param items The returned items
+   *
+   * @see QuadTreeConfigurationLType#parallelQueryThreshold()
+   */
+
+  default void containedByParallel(
+    final AreaL area,
+    final ForkJoinPool pool,
+    final Set<A> items)
+  {
+    NullCheck.notNull(pool, "Pool");
+    this.containedBy(area, items);
+  }
+
+  /**
+   * Returns all objects in the tree that are overlapped by {@code area},
+   * saving the results to {@code items}. The objects that must be tested
+   * are divided into tasks that are executed on {@code pool}, and the
+   * results of the tasks are merged before being added to {@code items}.
+   * The default implementation executes the query on the calling thread.
+   *
+   * @param area  The area to examine
+   * @param pool  The pool that will execute the query
+   * @param items The returned items
+   *
+   * @see QuadTreeConfigurationLType#parallelQueryThreshold()
+   */
+
+  default void overlappedByParallel(
+    final AreaL area,
+    final ForkJoinPool pool,
+    final Set<A> items)
+  {
+    NullCheck.notNull(pool, "Pool");
+    this.overlappedBy(area, items);
+  }
 
   /**
    * Returns all objects that are intersected by the given ray. The objects
    * are returned in order of distance from the origin of the ray: The first
-   * object returned will be the object nearest to the origin.
+   * object returned will be the object nearest to the origin. The distance of
+   * each object is the distance from the origin of the ray to the minimum
+   * corner {@code (x0, y0)} of the bounds of the object, which is not
+   * necessarily the point at which the ray enters the bounds.
    *
    * @param ray   The ray
    * @param items The intersected items
    */
 
+  default void raycast(
+    final Ray2D ray,
+    final SortedSet<QuadTreeRaycastResultL<A>> items)
+  {
+    NullCheck.notNull(items, "Items");
+    this.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+      items.add(QuadTreeRaycastResultL.of(
+        distance, AreaL.of(x0, x1, y0, y1), item));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+  }
+
+  /**
+   * Passes all objects that are intersected by the given ray to
+   * {@code consumer}. The objects are passed in no particular order. Each
+   * object is passed to {@code consumer} at most once, and the raycast stops
+   * early if {@code consumer} returns
+   * {@link TreeVisitResult#RESULT_TERMINATE}. The distance passed for each
+   * object is the distance from the origin of the ray to the minimum corner
+   * {@code (x0, y0)} of the bounds of the object.
+   *
+   * @param ray      The ray
+   * @param consumer The function that will receive items
+   */
+
   void raycast(
     Ray2D ray,
-    SortedSet<QuadTreeRaycastResultL<A>> items);
+    QuadTreeRaycastConsumerLType<A> consumer);
+
+  /**
+   * Passes all objects that are intersected by the given ray to {@code
+   * consumer} in the same manner as {@link #raycast(Ray2D,
+   * QuadTreeRaycastConsumerLType)}, except that the distance passed for each
+   * object is the parameter {@code t} at which the ray enters the bounds of
+   * the object, as computed by
+   * {@link Ray2D#intersectionParameterArea(double, double, double, double)}:
+   * The ray enters the bounds at {@code origin + t * direction}, and
+   * {@code t} is {@code 0.0} if the origin of the ray is inside the bounds.
+   * The parameter is measured in multiples of the length of the direction
+   * vector of the ray, and so is only a distance if the direction has unit
+   * length; {@link #raycastUpTo(Ray2D, double, int, List)} reports {@code t}
+   * multiplied by that length. Hits can be ordered by {@code t} without
+   * examining their bounds again. Implementations do not allocate any objects
+   * for each intersected object.
+   *
+   * @param ray      The ray
+   * @param consumer The function that will receive objects
+   */
+
+  default void raycastEntry(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerLType<A> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    this.raycast(
+      ray,
+      (item, x0, x1, y0, y1, distance) ->
+        consumer.accept(
+          item,
+          x0, x1, y0, y1,
+          ray.intersectionParameterArea(
+            (double) x0,
+            (double) y0,
+            (double) x1,
+            (double) y1)));
+  }
+
+  /**
+   * Passes all objects that are intersected by each of {@code rays} to
+   * {@code consumer}, along with the index within {@code rays} of the
+   * intersecting ray. An object is passed to {@code consumer} once for each
+   * ray that intersects it, and the batch stops early if {@code consumer}
+   * returns {@link TreeVisitResult#RESULT_TERMINATE}. The results are the
+   * same as those of calling
+   * {@link #raycast(Ray2D, QuadTreeRaycastConsumerLType)} once for each ray,
+   * but the tree is traversed once for the whole packet of rays: Each
+   * quadrant is tested against the rays that intersected its parent, and
+   * rays that miss the quadrant are not carried into its descendants. This
+   * is most effective when the rays are coherent, such as rays cast from
+   * a single sensor.
+   *
+   * @param rays     The rays
+   * @param consumer The function that will receive items
+   */
+
+  void raycastAll(
+    List<Ray2D> rays,
+    QuadTreeBatchRaycastConsumerLType<A> consumer);
+
+  /**
+   * Adds at most {@code limit} objects that are intersected by the given
+   * ray to {@code items}, nearest first, ignoring any objects further than
+   * {@code max_distance} from the origin of the ray. Unlike
+   * {@link #raycast(Ray2D, SortedSet)}, the distance of each result is the
+   * distance from the origin of the ray to the point at which the ray enters
+   * the bounds of the object: The parameter {@code t} at which the ray enters
+   * the bounds, as computed by
+   * {@link Ray2D#intersectionParameterArea(double, double, double, double)},
+   * multiplied by the length of the direction vector of the ray. The distance
+   * is {@code 0.0} if the origin of the ray is inside the bounds. Exactly
+   * {@code limit} objects are added if at least that many are intersected
+   * within {@code max_distance}. Objects at equal distances, such as objects
+   * whose bounds all contain the origin of the ray, are added in no
+   * particular order, so if several objects lie at the distance of the last
+   * object added, which of them are added is unspecified. The tree is
+   * traversed front-to-back, and the traversal stops as soon as no unvisited
+   * part of the tree could contain a nearer object.
+   *
+   * @param ray          The ray
+   * @param max_distance The maximum distance of returned objects
+   * @param limit        The maximum number of returned objects
+   * @param items        The intersected items
+   */
+
+  void raycastUpTo(
+    Ray2D ray,
+    double max_distance,
+    int limit,
+    List<QuadTreeRaycastResultL<A>> items);
+
+  /**
+   * Returns the nearest object intersected by the given ray, if any. This is
+   * equivalent to calling
+   * {@link #raycastUpTo(Ray2D, double, int, List)} with an unbounded
+   * distance and a limit of {@code 1}.
+   *
+   * @param ray The ray
+   *
+   * @return The nearest intersected item, if any
+   */
+
+  default Optional<QuadTreeRaycastResultL<A>> raycastFirst(
+    final Ray2D ray)
+  {
+    final List<QuadTreeRaycastResultL<A>> items = new ArrayList<>(1);
+    this.raycastUpTo(ray, Double.POSITIVE_INFINITY, 1, items);
+    if (items.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of(items.get(0));
+  }
+
+  /**
+   * Passes the {@code k} objects nearest to the given point to
+   * {@code consumer}, nearest first. The distance of an object is the
+   * distance from the point to the nearest point on the bounds of the object
+   * ({@code 0.0} if the point is inside the bounds). The tree is traversed
+   * best-first, and the traversal stops as soon as no unvisited part of the
+   * tree could contain a nearer object.
+   *
+   * @param point    The query point
+   * @param k        The maximum number of returned objects
+   * @param consumer The function that will receive the results
+   */
+
+  void nearest(
+    Vector2D point,
+    int k,
+    QuadTreeNearestConsumerLType<A> consumer);
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.benchmarks;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.util.Random;
+
+/**
+ * Functions to generate the bounds of items, queries, and rays used in
+ * benchmarks.
+ */
+
+public final class BenchmarkBounds
+{
+  /**
+   * The size of the world along each axis.
+   */
+
+  public static final double WORLD_SIZE = 65536.0;
+
+  /**
+   * The number of distinct queries executed by query benchmarks.
+   */
+
+  public static final int QUERY_COUNT = 1024;
+
+  /**
+   * The number of items requested by nearest neighbour benchmarks.
+   */
+
+  public static final int NEAREST_COUNT = 8;
+
+  /**
+   * The maximum distance along each axis that an item is moved by move
+   * benchmarks.
+   */
+
+  public static final double MOVE_DISTANCE = 16.0;
+
+  private BenchmarkBounds()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Generate the bounds of {@code count} items. The bounds are returned as a
+   * packed array of {@code count * axes * 2} values: For each item, the
+   * minimum and maximum coordinates on the first axis, followed by the
+   * minimum and maximum on the second axis, and so on. All bounds lie within
+   * {@code [0, WORLD_SIZE]} on each axis.
+   *
+   * @param random       A random number generator
+   * @param count        The number of items
+   * @param axes         The number of axes
+   * @param distribution The distribution of item sizes
+   *
+   * @return The packed bounds
+   */
+
+  public static double[] items(
+    final Random random,
+    final int count,
+    final int axes,
+    final ItemSizeDistribution distribution)
+  {
+    NullCheck.notNull(random, "Random");
+    NullCheck.notNull(distribution, "Distribution");
+
+    final double[] bounds = new double[Math.multiplyExact(count, axes * 2)];
+    for (int index = 0; index < count; ++index) {
+      for (int axis = 0; axis < axes; ++axis) {
+        final double size =
+          Math.min(WORLD_SIZE, distribution.extent(random, WORLD_SIZE));
+        final double min = random.nextDouble() * (WORLD_SIZE - size);
+        final int base = (index * axes * 2) + (axis * 2);
+        bounds[base] = min;
+        bounds[base + 1] = min + size;
+      }
+    }
+    return bounds;
+  }
+
+  /**
+   * Displace each of the given item bounds by a random distance of at most
+   * {@link #MOVE_DISTANCE} along each axis, keeping the bounds within
+   * {@code [0, WORLD_SIZE]}. The bounds are packed in the same manner as
+   * {@link #items(Random, int, int, ItemSizeDistribution)}.
+   *
+   * @param random A random number generator
+   * @param bounds The packed bounds
+   *
+   * @return The displaced bounds
+   */
+
+  public static double[] displace(
+    final Random random,
+    final double[] bounds)
+  {
+    NullCheck.notNull(random, "Random");
+    NullCheck.notNull(bounds, "Bounds");
+
+    final double[] moved = new double[bounds.length];
+    for (int base = 0; base < bounds.length; base += 2) {
+      final double size = bounds[base + 1] - bounds[base];
+      final double offset =
+        ((random.nextDouble() * 2.0) - 1.0) * MOVE_DISTANCE;
+      final double min =
+        Math.max(0.0, Math.min(WORLD_SIZE - size, bounds[base] + offset));
+      moved[base] = min;
+      moved[base + 1] = min + size;
+    }
+    return moved;
+  }
+
+  /**
+   * Generate the bounds of {@link #QUERY_COUNT} query regions, each a
+   * thirty-second of the world along each axis. The bounds are packed in the
+   * same manner as {@link #items(Random, int, int, ItemSizeDistribution)}.
+   *
+   * @param random A random number generator
+   * @param axes   The number of axes
+   *
+   * @return The packed bounds
+   */
+
+  public static double[] queries(
+    final Random random,
+    final int axes)
+  {
+    NullCheck.notNull(random, "Random");
+
+    final double size = WORLD_SIZE / 32.0;
+    final double[] bounds = new double[QUERY_COUNT * axes * 2];
+    for (int index = 0; index < QUERY_COUNT; ++index) {
+      for (int axis = 0; axis < axes; ++axis) {
+        final double min = random.nextDouble() * (WORLD_SIZE - size);
+        final int base = (index * axes * 2) + (axis * 2);
+        bounds[base] = min;
+        bounds[base + 1] = min + size;
+      }
+    }
+    return bounds;
+  }
+
+  /**
+   * Generate {@link #QUERY_COUNT} rays. The rays are returned as a packed
+   * array of {@code QUERY_COUNT * axes * 2} values: For each ray, the
+   * origin coordinates on each axis, followed by the (normalized) direction
+   * on each axis.
+   *
+   * @param random A random number generator
+   * @param axes   The number of axes
+   *
+   * @return The packed rays
+   */
+
+  public static double[] rays(
+    final Random random,
+    final int axes)
+  {
+    NullCheck.notNull(random, "Random");
+
+    final double[] rays = new double[QUERY_COUNT * axes * 2];
+    for (int index = 0; index < QUERY_COUNT; ++index) {
+      final int base = index * axes * 2;
+      double length = 0.0;
+      for (int axis = 0; axis < axes; ++axis) {
+        rays[base + axis] = random.nextDouble() * WORLD_SIZE;
+        final double d = random.nextGaussian();
+        rays[base + axes + axis] = d;
+        length += d * d;
+      }
+      length = Math.sqrt(length);
+      for (int axis = 0; axis < axes; ++axis) {
+        rays[base + axes + axis] = rays[base + axes + axis] / length;
+      }
+    }
+    return rays;
+  }
+
+  /**
+   * Round a packed minimum coordinate down to an integer.
+   *
+   * @param x The coordinate
+   *
+   * @return The coordinate as an integer
+   */
+
+  public static long minimumL(
+    final double x)
+  {
+    return (long) Math.floor(x);
+  }
+
+  /**
+   * Round a packed maximum coordinate up to an integer, ensuring that the
+   * result is at least one greater than the rounded minimum coordinate.
+   *
+   * @param min The minimum coordinate
+   * @param max The maximum coordinate
+   *
+   * @return The coordinate as an integer
+   */
+
+  public static long maximumL(
+    final double min,
+    final double max)
+  {
+    return Math.max(minimumL(min) + 1L, (long) Math.ceil(max));
+  }
+}
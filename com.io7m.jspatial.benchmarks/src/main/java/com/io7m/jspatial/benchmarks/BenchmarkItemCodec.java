@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.benchmarks;
+
+import com.io7m.jspatial.api.TreeItemCodecType;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A codec for the integer items used in benchmarks.
+ */
+
+final class BenchmarkItemCodec implements TreeItemCodecType<Integer>
+{
+  /**
+   * The codec instance.
+   */
+
+  static final BenchmarkItemCodec INSTANCE = new BenchmarkItemCodec();
+
+  private BenchmarkItemCodec()
+  {
+
+  }
+
+  @Override
+  public void write(
+    final DataOutput output,
+    final Integer item)
+    throws IOException
+  {
+    output.writeInt(item.intValue());
+  }
+
+  @Override
+  public Integer read(
+    final DataInput input)
+    throws IOException
+  {
+    return Integer.valueOf(input.readInt());
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.benchmarks;
+
+import java.util.Random;
+
+/**
+ * The distributions of item sizes used in benchmarks.
+ */
+
+public enum ItemSizeDistribution
+{
+  /**
+   * Items are tiny relative to the world: Between 1 and 16 units along each
+   * axis.
+   */
+
+  SMALL {
+    @Override
+    double extent(
+      final Random random,
+      final double world)
+    {
+      return 1.0 + random.nextDouble() * 15.0;
+    }
+  },
+
+  /**
+   * Item sizes are log-uniformly distributed between 1 unit and an eighth of
+   * the world along each axis. Most items are small, but a significant
+   * number of items will straddle node boundaries.
+   */
+
+  MIXED {
+    @Override
+    double extent(
+      final Random random,
+      final double world)
+    {
+      return Math.exp(random.nextDouble() * Math.log(world / 8.0));
+    }
+  },
+
+  /**
+   * Items are large relative to the world: Between a sixty-fourth and an
+   * eighth of the world along each axis.
+   */
+
+  LARGE {
+    @Override
+    double extent(
+      final Random random,
+      final double world)
+    {
+      final double low = world / 64.0;
+      final double high = world / 8.0;
+      return low + random.nextDouble() * (high - low);
+    }
+  };
+
+  abstract double extent(
+    Random random,
+    double world);
+}
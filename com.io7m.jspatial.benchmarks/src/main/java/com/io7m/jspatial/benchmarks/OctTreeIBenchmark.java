@@ -0,0 +1,799 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.benchmarks;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeI;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationI;
+import com.io7m.jspatial.api.octtrees.OctTreeIType;
+import com.io7m.jspatial.api.octtrees.OctTreeNearestConsumerIType;
+import com.io7m.jspatial.api.octtrees.OctTreeQueryConsumerIType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastResultI;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableIType;
+import com.io7m.jspatial.implementation.OctTreeConcurrentSupplierI;
+import com.io7m.jspatial.implementation.OctTreeSupplierI;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@code OctTreeI}.
+ */
+
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class OctTreeIBenchmark
+{
+  /**
+   * Construct a benchmark.
+   */
+
+  public OctTreeIBenchmark()
+  {
+
+  }
+
+  private static OctTreeConfigurationI configuration(
+    final Items items)
+  {
+    return OctTreeConfigurationI.builder()
+      .setVolume(VolumeI.of(
+        0,
+        (int) BenchmarkBounds.WORLD_SIZE,
+        0,
+        (int) BenchmarkBounds.WORLD_SIZE,
+        0,
+        (int) BenchmarkBounds.WORLD_SIZE))
+      .setMinimumOctantWidth(items.minimum)
+      .setMinimumOctantHeight(items.minimum)
+      .setMinimumOctantDepth(items.minimum)
+      .setMaximumObjectsPerLeaf(items.capacity)
+      .setPackedBounds(items.packed)
+      .build();
+  }
+
+  private static OctTreeIType<Integer> create(
+    final Items items)
+  {
+    return new OctTreeSupplierI().create(configuration(items));
+  }
+
+  private static OctTreeIType<Integer> createConcurrent(
+    final Items items)
+  {
+    return new OctTreeConcurrentSupplierI().create(configuration(items));
+  }
+
+  private static void populate(
+    final OctTreeIType<Integer> tree,
+    final Items items)
+  {
+    for (int index = 0; index < items.items.length; ++index) {
+      tree.insert(items.items[index], items.volumes[index]);
+    }
+  }
+
+  /**
+   * Insert all items into an empty tree.
+   *
+   * @param items The items
+   *
+   * @return The populated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeIType<Integer> insert(
+    final Items items)
+  {
+    final OctTreeIType<Integer> tree = create(items);
+    populate(tree, items);
+    return tree;
+  }
+
+  /**
+   * Bulk-load all items into a new tree.
+   *
+   * @param items The items
+   *
+   * @return The populated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeIType<Integer> createFrom(
+    final Items items)
+  {
+    return new OctTreeSupplierI().createFrom(configuration(items), items.map);
+  }
+
+  /**
+   * Bulk-load all items into a new tree using the common fork/join pool.
+   *
+   * @param items The items
+   *
+   * @return The populated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeIType<Integer> createFromParallel(
+    final Items items)
+  {
+    return new OctTreeSupplierI().createFromParallel(
+      configuration(items), items.map, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Remove all items from a populated tree.
+   *
+   * @param fresh A freshly populated tree
+   *
+   * @return The emptied tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeIType<Integer> remove(
+    final Fresh fresh)
+  {
+    final Integer[] items = fresh.items.items;
+    for (int index = 0; index < items.length; ++index) {
+      fresh.tree.remove(items[index]);
+    }
+    return fresh.tree;
+  }
+
+  /**
+   * Move every item in a populated tree by a small distance.
+   *
+   * @param fresh A freshly populated tree
+   *
+   * @return The updated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeIType<Integer> move(
+    final Fresh fresh)
+  {
+    final Integer[] items = fresh.items.items;
+    final VolumeI[] moved = fresh.items.moved;
+    for (int index = 0; index < items.length; ++index) {
+      fresh.tree.move(items[index], moved[index]);
+    }
+    return fresh.tree;
+  }
+
+  /**
+   * Insert all items into an empty thread-safe tree.
+   *
+   * @param items The items
+   *
+   * @return The populated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeIType<Integer> insertConcurrent(
+    final Items items)
+  {
+    final OctTreeIType<Integer> tree = createConcurrent(items);
+    populate(tree, items);
+    return tree;
+  }
+
+  /**
+   * Move every item in a populated thread-safe tree by a small distance.
+   *
+   * @param fresh A freshly populated thread-safe tree
+   *
+   * @return The updated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeIType<Integer> moveConcurrent(
+    final FreshConcurrent fresh)
+  {
+    final Integer[] items = fresh.items.items;
+    final VolumeI[] moved = fresh.items.moved;
+    for (int index = 0; index < items.length; ++index) {
+      fresh.tree.move(items[index], moved[index]);
+    }
+    return fresh.tree;
+  }
+
+  /**
+   * Move every item in a populated thread-safe tree by a small distance,
+   * reading the size of the tree after each move. Each read publishes a
+   * snapshot, so each move must copy the path to the changed node.
+   *
+   * @param fresh A freshly populated thread-safe tree
+   *
+   * @return The sum of the sizes read
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final long moveConcurrentQueried(
+    final FreshConcurrent fresh)
+  {
+    final Integer[] items = fresh.items.items;
+    final VolumeI[] moved = fresh.items.moved;
+    long total = 0L;
+    for (int index = 0; index < items.length; ++index) {
+      fresh.tree.move(items[index], moved[index]);
+      total += fresh.tree.size();
+    }
+    return total;
+  }
+
+  /**
+   * Trim a tree from which half of the items have been removed.
+   *
+   * @param fresh A tree from which half of the items have been removed
+   *
+   * @return The trimmed tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeIType<Integer> trim(
+    final Trimmable fresh)
+  {
+    fresh.tree.trim();
+    return fresh.tree;
+  }
+
+  /**
+   * Map over all items in a populated tree.
+   *
+   * @param populated A populated tree
+   *
+   * @return The mapped tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeReadableIType<Integer> map(
+    final Populated populated)
+  {
+    return populated.tree.map((item, volume) -> Integer.valueOf(item.intValue() + 1));
+  }
+
+  /**
+   * Iterate over all octants in a populated tree.
+   *
+   * @param populated A populated tree
+   *
+   * @return The number of octants visited
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final long iterateOctants(
+    final Populated populated)
+  {
+    final long[] count = new long[1];
+    populated.tree.iterateOctants(count, (context, octant, depth) -> {
+      context[0] = context[0] + (long) octant.objects().size();
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    return count[0];
+  }
+
+  /**
+   * Find the items contained within a query volume.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final int containedBy(
+    final Populated populated,
+    final Queries queries)
+  {
+    final Set<Integer> results = queries.results;
+    results.clear();
+    populated.tree.containedBy(queries.nextVolume(), results);
+    return results.size();
+  }
+
+  /**
+   * Count the items contained within a query volume.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final long count(
+    final Populated populated,
+    final Queries queries)
+  {
+    return populated.tree.count(queries.nextVolume());
+  }
+
+  /**
+   * Find the items overlapped by a query volume.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final int overlappedBy(
+    final Populated populated,
+    final Queries queries)
+  {
+    final Set<Integer> results = queries.results;
+    results.clear();
+    populated.tree.overlappedBy(queries.nextVolume(), results);
+    return results.size();
+  }
+
+  /**
+   * Count the items overlapped by a query volume without collecting them.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final int overlappedByConsumer(
+    final Populated populated,
+    final Queries queries)
+  {
+    queries.visited = 0;
+    populated.tree.overlappedBy(queries.nextVolume(), queries.counter);
+    return queries.visited;
+  }
+
+  /**
+   * Find the items intersected by a ray.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final int raycast(
+    final Populated populated,
+    final Queries queries)
+  {
+    final SortedSet<OctTreeRaycastResultI<Integer>> results = queries.hits;
+    results.clear();
+    populated.tree.raycast(queries.nextRay(), results);
+    return results.size();
+  }
+
+  /**
+   * Find the nearest item intersected by a ray.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return {@code true} if an item was found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final boolean raycastFirst(
+    final Populated populated,
+    final Queries queries)
+  {
+    return populated.tree.raycastFirst(queries.nextRay()).isPresent();
+  }
+
+  /**
+   * Find the items nearest to a point.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final int nearest(
+    final Populated populated,
+    final Queries queries)
+  {
+    queries.visited = 0;
+    populated.tree.nearest(
+      queries.nextRay().origin(),
+      BenchmarkBounds.NEAREST_COUNT,
+      queries.nearest_counter);
+    return queries.visited;
+  }
+
+  /**
+   * The generated items and benchmark parameters.
+   */
+
+  @State(Scope.Benchmark)
+  public static class Items
+  {
+    // CHECKSTYLE_VISIBILITY:OFF
+
+    /**
+     * The number of items.
+     */
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    /**
+     * The distribution of item sizes.
+     */
+
+    @Param({"SMALL", "MIXED", "LARGE"})
+    public ItemSizeDistribution distribution;
+
+    /**
+     * The maximum number of objects per leaf octant ({@code 0} for eager
+     * splitting).
+     */
+
+    @Param({"0", "8"})
+    public int capacity;
+
+    /**
+     * The minimum octant width, height, and depth.
+     */
+
+    @Param({"2", "16", "128"})
+    public int minimum;
+
+    /**
+     * Whether octants hold the bounds of their objects only as packed
+     * coordinates.
+     */
+
+    @Param({"false", "true"})
+    public boolean packed;
+
+    // CHECKSTYLE_VISIBILITY:ON
+
+    private Integer[] items;
+    private VolumeI[] volumes;
+    private VolumeI[] moved;
+    private Map<Integer, VolumeI> map;
+
+    /**
+     * Construct the state.
+     */
+
+    public Items()
+    {
+
+    }
+
+    /**
+     * Generate items.
+     */
+
+    @Setup(Level.Trial)
+    public final void setup()
+    {
+      final double[] bounds = BenchmarkBounds.items(
+        new Random(0x10L), this.size, 3, this.distribution);
+
+      this.items = new Integer[this.size];
+      final double[] displaced =
+        BenchmarkBounds.displace(new Random(0x30L), bounds);
+
+      this.volumes = new VolumeI[this.size];
+      this.moved = new VolumeI[this.size];
+      this.map = new HashMap<>(this.size);
+      for (int index = 0; index < this.size; ++index) {
+        final int base = index * 6;
+        this.items[index] = Integer.valueOf(index);
+        this.volumes[index] = VolumeI.of(
+          (int) BenchmarkBounds.minimumL(bounds[base]),
+          (int) BenchmarkBounds.maximumL(bounds[base], bounds[base + 1]),
+          (int) BenchmarkBounds.minimumL(bounds[base + 2]),
+          (int) BenchmarkBounds.maximumL(bounds[base + 2], bounds[base + 3]),
+          (int) BenchmarkBounds.minimumL(bounds[base + 4]),
+          (int) BenchmarkBounds.maximumL(bounds[base + 4], bounds[base + 5]));
+        this.moved[index] = VolumeI.of(
+          (int) BenchmarkBounds.minimumL(displaced[base]),
+          (int) BenchmarkBounds.maximumL(displaced[base], displaced[base + 1]),
+          (int) BenchmarkBounds.minimumL(displaced[base + 2]),
+          (int) BenchmarkBounds.maximumL(displaced[base + 2], displaced[base + 3]),
+          (int) BenchmarkBounds.minimumL(displaced[base + 4]),
+          (int) BenchmarkBounds.maximumL(displaced[base + 4], displaced[base + 5]));
+        this.map.put(this.items[index], this.volumes[index]);
+      }
+    }
+  }
+
+  /**
+   * A tree that is populated once per trial.
+   */
+
+  @State(Scope.Benchmark)
+  public static class Populated
+  {
+    private OctTreeIType<Integer> tree;
+
+    /**
+     * Construct the state.
+     */
+
+    public Populated()
+    {
+
+    }
+
+    /**
+     * Populate the tree.
+     *
+     * @param items The items
+     */
+
+    @Setup(Level.Trial)
+    public final void setup(
+      final Items items)
+    {
+      this.tree = create(items);
+      populate(this.tree, items);
+    }
+  }
+
+  /**
+   * A tree that is populated before each iteration.
+   */
+
+  @State(Scope.Thread)
+  public static class Fresh
+  {
+    private OctTreeIType<Integer> tree;
+    private Items items;
+
+    /**
+     * Construct the state.
+     */
+
+    public Fresh()
+    {
+
+    }
+
+    /**
+     * Populate the tree.
+     *
+     * @param in_items The items
+     */
+
+    @Setup(Level.Iteration)
+    public final void setup(
+      final Items in_items)
+    {
+      this.items = in_items;
+      this.tree = create(in_items);
+      populate(this.tree, in_items);
+    }
+  }
+
+  /**
+   * A thread-safe tree that is populated before each iteration.
+   */
+
+  @State(Scope.Thread)
+  public static class FreshConcurrent
+  {
+    private OctTreeIType<Integer> tree;
+    private Items items;
+
+    /**
+     * Construct the state.
+     */
+
+    public FreshConcurrent()
+    {
+
+    }
+
+    /**
+     * Populate the tree.
+     *
+     * @param in_items The items
+     */
+
+    @Setup(Level.Iteration)
+    public final void setup(
+      final Items in_items)
+    {
+      this.items = in_items;
+      this.tree = createConcurrent(in_items);
+      populate(this.tree, in_items);
+    }
+  }
+
+  /**
+   * A tree that is populated before each iteration, and then has every
+   * second item removed.
+   */
+
+  @State(Scope.Thread)
+  public static class Trimmable
+  {
+    private OctTreeIType<Integer> tree;
+
+    /**
+     * Construct the state.
+     */
+
+    public Trimmable()
+    {
+
+    }
+
+    /**
+     * Populate the tree.
+     *
+     * @param items The items
+     */
+
+    @Setup(Level.Iteration)
+    public final void setup(
+      final Items items)
+    {
+      this.tree = create(items);
+      populate(this.tree, items);
+      for (int index = 0; index < items.items.length; index += 2) {
+        this.tree.remove(items.items[index]);
+      }
+    }
+  }
+
+  /**
+   * Pregenerated query volumes and rays, and reusable result sets.
+   */
+
+  @State(Scope.Thread)
+  public static class Queries
+  {
+    private final Set<Integer> results;
+    private final OctTreeQueryConsumerIType<Integer> counter;
+    private final OctTreeNearestConsumerIType<Integer> nearest_counter;
+    private final SortedSet<OctTreeRaycastResultI<Integer>> hits;
+    private final VolumeI[] volumes;
+    private final Ray3D[] rays;
+    private int volume_index;
+    private int ray_index;
+    private int visited;
+
+    /**
+     * Construct the state.
+     */
+
+    public Queries()
+    {
+      this.counter = (item, x0, x1, y0, y1, z0, z1) -> {
+        ++this.visited;
+        return TreeVisitResult.RESULT_CONTINUE;
+      };
+      this.nearest_counter = (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        ++this.visited;
+        return TreeVisitResult.RESULT_CONTINUE;
+      };
+      this.results = new HashSet<>(1024);
+      this.hits = new TreeSet<>();
+      this.volumes = new VolumeI[BenchmarkBounds.QUERY_COUNT];
+      this.rays = new Ray3D[BenchmarkBounds.QUERY_COUNT];
+    }
+
+    /**
+     * Generate queries.
+     */
+
+    @Setup(Level.Trial)
+    public final void setup()
+    {
+      final Random random = new Random(0x20L);
+      final double[] bounds = BenchmarkBounds.queries(random, 3);
+      final double[] origins = BenchmarkBounds.rays(random, 3);
+      for (int index = 0; index < BenchmarkBounds.QUERY_COUNT; ++index) {
+        final int base = index * 6;
+        this.volumes[index] = VolumeI.of(
+          (int) BenchmarkBounds.minimumL(bounds[base]),
+          (int) BenchmarkBounds.maximumL(bounds[base], bounds[base + 1]),
+          (int) BenchmarkBounds.minimumL(bounds[base + 2]),
+          (int) BenchmarkBounds.maximumL(bounds[base + 2], bounds[base + 3]),
+          (int) BenchmarkBounds.minimumL(bounds[base + 4]),
+          (int) BenchmarkBounds.maximumL(bounds[base + 4], bounds[base + 5]));
+        this.rays[index] = Ray3D.of(
+          Vector3D.of(origins[base], origins[base + 1], origins[base + 2]),
+          Vector3D.of(origins[base + 3], origins[base + 4], origins[base + 5]));
+      }
+    }
+
+    private VolumeI nextVolume()
+    {
+      final VolumeI volume = this.volumes[this.volume_index];
+      this.volume_index = (this.volume_index + 1) % this.volumes.length;
+      return volume;
+    }
+
+    private Ray3D nextRay()
+    {
+      final Ray3D ray = this.rays[this.ray_index];
+      this.ray_index = (this.ray_index + 1) % this.rays.length;
+      return ray;
+    }
+  }
+}
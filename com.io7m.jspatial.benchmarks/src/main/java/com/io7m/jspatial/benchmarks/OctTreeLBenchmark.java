@@ -0,0 +1,845 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.benchmarks;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationL;
+import com.io7m.jspatial.api.octtrees.OctTreeLType;
+import com.io7m.jspatial.api.octtrees.OctTreeNearestConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeQueryConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastResultL;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableLType;
+import com.io7m.jspatial.api.octtrees.OctTreeSupplierLType;
+import com.io7m.jspatial.implementation.OctTreeConcurrentSupplierL;
+import com.io7m.jspatial.implementation.OctTreeLinearSupplierL;
+import com.io7m.jspatial.implementation.OctTreeSupplierL;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@code OctTreeL}.
+ */
+
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class OctTreeLBenchmark
+{
+  /**
+   * Construct a benchmark.
+   */
+
+  public OctTreeLBenchmark()
+  {
+
+  }
+
+  private static OctTreeConfigurationL configuration(
+    final Items items)
+  {
+    return OctTreeConfigurationL.builder()
+      .setVolume(VolumeL.of(
+        0L,
+        (long) BenchmarkBounds.WORLD_SIZE,
+        0L,
+        (long) BenchmarkBounds.WORLD_SIZE,
+        0L,
+        (long) BenchmarkBounds.WORLD_SIZE))
+      .setMinimumOctantWidth(items.minimum)
+      .setMinimumOctantHeight(items.minimum)
+      .setMinimumOctantDepth(items.minimum)
+      .setMaximumObjectsPerLeaf(items.capacity)
+      .setPackedBounds(items.packed)
+      .build();
+  }
+
+  private static OctTreeSupplierLType supplier(
+    final Items items)
+  {
+    if (items.linear) {
+      return new OctTreeLinearSupplierL();
+    }
+    return new OctTreeSupplierL();
+  }
+
+  private static OctTreeLType<Integer> create(
+    final Items items)
+  {
+    return supplier(items).create(configuration(items));
+  }
+
+  private static OctTreeLType<Integer> createConcurrent(
+    final Items items)
+  {
+    return new OctTreeConcurrentSupplierL().create(configuration(items));
+  }
+
+  private static void populate(
+    final OctTreeLType<Integer> tree,
+    final Items items)
+  {
+    for (int index = 0; index < items.items.length; ++index) {
+      tree.insert(items.items[index], items.volumes[index]);
+    }
+  }
+
+  /**
+   * Insert all items into an empty tree.
+   *
+   * @param items The items
+   *
+   * @return The populated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeLType<Integer> insert(
+    final Items items)
+  {
+    final OctTreeLType<Integer> tree = create(items);
+    populate(tree, items);
+    return tree;
+  }
+
+  /**
+   * Insert all items into an empty tree, taking a snapshot of the tree after
+   * every {@code 64} insertions. This measures the cost of the first write
+   * after each snapshot, which differs between the pointer-based and linear
+   * trees.
+   *
+   * @param items The items
+   *
+   * @return The sum of the sizes of the snapshots
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final long insertSnapshotted(
+    final Items items)
+  {
+    final OctTreeLType<Integer> tree = create(items);
+    long sizes = 0L;
+    for (int index = 0; index < items.items.length; ++index) {
+      tree.insert(items.items[index], items.volumes[index]);
+      if (index % 64 == 63) {
+        sizes = sizes + tree.snapshot().size();
+      }
+    }
+    return sizes;
+  }
+
+  /**
+   * Bulk-load all items into a new tree.
+   *
+   * @param items The items
+   *
+   * @return The populated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeLType<Integer> createFrom(
+    final Items items)
+  {
+    return supplier(items).createFrom(configuration(items), items.map);
+  }
+
+  /**
+   * Bulk-load all items into a new tree using the common fork/join pool.
+   *
+   * @param items The items
+   *
+   * @return The populated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeLType<Integer> createFromParallel(
+    final Items items)
+  {
+    return supplier(items).createFromParallel(
+      configuration(items), items.map, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Remove all items from a populated tree.
+   *
+   * @param fresh A freshly populated tree
+   *
+   * @return The emptied tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeLType<Integer> remove(
+    final Fresh fresh)
+  {
+    final Integer[] items = fresh.items.items;
+    for (int index = 0; index < items.length; ++index) {
+      fresh.tree.remove(items[index]);
+    }
+    return fresh.tree;
+  }
+
+  /**
+   * Move every item in a populated tree by a small distance.
+   *
+   * @param fresh A freshly populated tree
+   *
+   * @return The updated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeLType<Integer> move(
+    final Fresh fresh)
+  {
+    final Integer[] items = fresh.items.items;
+    final VolumeL[] moved = fresh.items.moved;
+    for (int index = 0; index < items.length; ++index) {
+      fresh.tree.move(items[index], moved[index]);
+    }
+    return fresh.tree;
+  }
+
+  /**
+   * Insert all items into an empty thread-safe tree.
+   *
+   * @param items The items
+   *
+   * @return The populated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeLType<Integer> insertConcurrent(
+    final Items items)
+  {
+    final OctTreeLType<Integer> tree = createConcurrent(items);
+    populate(tree, items);
+    return tree;
+  }
+
+  /**
+   * Move every item in a populated thread-safe tree by a small distance.
+   *
+   * @param fresh A freshly populated thread-safe tree
+   *
+   * @return The updated tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeLType<Integer> moveConcurrent(
+    final FreshConcurrent fresh)
+  {
+    final Integer[] items = fresh.items.items;
+    final VolumeL[] moved = fresh.items.moved;
+    for (int index = 0; index < items.length; ++index) {
+      fresh.tree.move(items[index], moved[index]);
+    }
+    return fresh.tree;
+  }
+
+  /**
+   * Move every item in a populated thread-safe tree by a small distance,
+   * reading the size of the tree after each move. Each read publishes a
+   * snapshot, so each move must copy the path to the changed node.
+   *
+   * @param fresh A freshly populated thread-safe tree
+   *
+   * @return The sum of the sizes read
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final long moveConcurrentQueried(
+    final FreshConcurrent fresh)
+  {
+    final Integer[] items = fresh.items.items;
+    final VolumeL[] moved = fresh.items.moved;
+    long total = 0L;
+    for (int index = 0; index < items.length; ++index) {
+      fresh.tree.move(items[index], moved[index]);
+      total += fresh.tree.size();
+    }
+    return total;
+  }
+
+  /**
+   * Trim a tree from which half of the items have been removed.
+   *
+   * @param fresh A tree from which half of the items have been removed
+   *
+   * @return The trimmed tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeLType<Integer> trim(
+    final Trimmable fresh)
+  {
+    fresh.tree.trim();
+    return fresh.tree;
+  }
+
+  /**
+   * Map over all items in a populated tree.
+   *
+   * @param populated A populated tree
+   *
+   * @return The mapped tree
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final OctTreeReadableLType<Integer> map(
+    final Populated populated)
+  {
+    return populated.tree.map((item, volume) -> Integer.valueOf(item.intValue() + 1));
+  }
+
+  /**
+   * Iterate over all octants in a populated tree.
+   *
+   * @param populated A populated tree
+   *
+   * @return The number of octants visited
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public final long iterateOctants(
+    final Populated populated)
+  {
+    final long[] count = new long[1];
+    populated.tree.iterateOctants(count, (context, octant, depth) -> {
+      context[0] = context[0] + (long) octant.objects().size();
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    return count[0];
+  }
+
+  /**
+   * Find the items contained within a query volume.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final int containedBy(
+    final Populated populated,
+    final Queries queries)
+  {
+    final Set<Integer> results = queries.results;
+    results.clear();
+    populated.tree.containedBy(queries.nextVolume(), results);
+    return results.size();
+  }
+
+  /**
+   * Count the items contained within a query volume.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final long count(
+    final Populated populated,
+    final Queries queries)
+  {
+    return populated.tree.count(queries.nextVolume());
+  }
+
+  /**
+   * Find the items overlapped by a query volume.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final int overlappedBy(
+    final Populated populated,
+    final Queries queries)
+  {
+    final Set<Integer> results = queries.results;
+    results.clear();
+    populated.tree.overlappedBy(queries.nextVolume(), results);
+    return results.size();
+  }
+
+  /**
+   * Count the items overlapped by a query volume without collecting them.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final int overlappedByConsumer(
+    final Populated populated,
+    final Queries queries)
+  {
+    queries.visited = 0;
+    populated.tree.overlappedBy(queries.nextVolume(), queries.counter);
+    return queries.visited;
+  }
+
+  /**
+   * Find the items intersected by a ray.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final int raycast(
+    final Populated populated,
+    final Queries queries)
+  {
+    final SortedSet<OctTreeRaycastResultL<Integer>> results = queries.hits;
+    results.clear();
+    populated.tree.raycast(queries.nextRay(), results);
+    return results.size();
+  }
+
+  /**
+   * Find the nearest item intersected by a ray.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return {@code true} if an item was found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final boolean raycastFirst(
+    final Populated populated,
+    final Queries queries)
+  {
+    return populated.tree.raycastFirst(queries.nextRay()).isPresent();
+  }
+
+  /**
+   * Find the items nearest to a point.
+   *
+   * @param populated A populated tree
+   * @param queries   The queries
+   *
+   * @return The number of items found
+   */
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public final int nearest(
+    final Populated populated,
+    final Queries queries)
+  {
+    queries.visited = 0;
+    populated.tree.nearest(
+      queries.nextRay().origin(),
+      BenchmarkBounds.NEAREST_COUNT,
+      queries.nearest_counter);
+    return queries.visited;
+  }
+
+  /**
+   * The generated items and benchmark parameters.
+   */
+
+  @State(Scope.Benchmark)
+  public static class Items
+  {
+    // CHECKSTYLE_VISIBILITY:OFF
+
+    /**
+     * The number of items.
+     */
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    /**
+     * The distribution of item sizes.
+     */
+
+    @Param({"SMALL", "MIXED", "LARGE"})
+    public ItemSizeDistribution distribution;
+
+    /**
+     * The maximum number of objects per leaf octant ({@code 0} for eager
+     * splitting).
+     */
+
+    @Param({"0", "8"})
+    public int capacity;
+
+    /**
+     * The minimum octant width, height, and depth.
+     */
+
+    @Param({"2", "16", "128"})
+    public long minimum;
+
+    /**
+     * Whether to benchmark the linear tree instead of the pointer-based tree.
+     */
+
+    @Param({"false", "true"})
+    public boolean linear;
+
+    /**
+     * Whether octants hold the bounds of their objects only as packed
+     * coordinates.
+     */
+
+    @Param({"false", "true"})
+    public boolean packed;
+
+    // CHECKSTYLE_VISIBILITY:ON
+
+    private Integer[] items;
+    private VolumeL[] volumes;
+    private VolumeL[] moved;
+    private Map<Integer, VolumeL> map;
+
+    /**
+     * Construct the state.
+     */
+
+    public Items()
+    {
+
+    }
+
+    /**
+     * Generate items.
+     */
+
+    @Setup(Level.Trial)
+    public final void setup()
+    {
+      final double[] bounds = BenchmarkBounds.items(
+        new Random(0x10L), this.size, 3, this.distribution);
+
+      this.items = new Integer[this.size];
+      final double[] displaced =
+        BenchmarkBounds.displace(new Random(0x30L), bounds);
+
+      this.volumes = new VolumeL[this.size];
+      this.moved = new VolumeL[this.size];
+      this.map = new HashMap<>(this.size);
+      for (int index = 0; index < this.size; ++index) {
+        final int base = index * 6;
+        this.items[index] = Integer.valueOf(index);
+        this.volumes[index] = VolumeL.of(
+          BenchmarkBounds.minimumL(bounds[base]),
+          BenchmarkBounds.maximumL(bounds[base], bounds[base + 1]),
+          BenchmarkBounds.minimumL(bounds[base + 2]),
+          BenchmarkBounds.maximumL(bounds[base + 2], bounds[base + 3]),
+          BenchmarkBounds.minimumL(bounds[base + 4]),
+          BenchmarkBounds.maximumL(bounds[base + 4], bounds[base + 5]));
+        this.moved[index] = VolumeL.of(
+          BenchmarkBounds.minimumL(displaced[base]),
+          BenchmarkBounds.maximumL(displaced[base], displaced[base + 1]),
+          BenchmarkBounds.minimumL(displaced[base + 2]),
+          BenchmarkBounds.maximumL(displaced[base + 2], displaced[base + 3]),
+          BenchmarkBounds.minimumL(displaced[base + 4]),
+          BenchmarkBounds.maximumL(displaced[base + 4], displaced[base + 5]));
+        this.map.put(this.items[index], this.volumes[index]);
+      }
+    }
+  }
+
+  /**
+   * A tree that is populated once per trial.
+   */
+
+  @State(Scope.Benchmark)
+  public static class Populated
+  {
+    private OctTreeLType<Integer> tree;
+
+    /**
+     * Construct the state.
+     */
+
+    public Populated()
+    {
+
+    }
+
+    /**
+     * Populate the tree.
+     *
+     * @param items The items
+     */
+
+    @Setup(Level.Trial)
+    public final void setup(
+      final Items items)
+    {
+      this.tree = create(items);
+      populate(this.tree, items);
+    }
+  }
+
+  /**
+   * A tree that is populated before each iteration.
+   */
+
+  @State(Scope.Thread)
+  public static class Fresh
+  {
+    private OctTreeLType<Integer> tree;
+    private Items items;
+
+    /**
+     * Construct the state.
+     */
+
+    public Fresh()
+    {
+
+    }
+
+    /**
+     * Populate the tree.
+     *
+     * @param in_items The items
+     */
+
+    @Setup(Level.Iteration)
+    public final void setup(
+      final Items in_items)
+    {
+      this.items = in_items;
+      this.tree = create(in_items);
+      populate(this.tree, in_items);
+    }
+  }
+
+  /**
+   * A thread-safe tree that is populated before each iteration.
+   */
+
+  @State(Scope.Thread)
+  public static class FreshConcurrent
+  {
+    private OctTreeLType<Integer> tree;
+    private Items items;
+
+    /**
+     * Construct the state.
+     */
+
+    public FreshConcurrent()
+    {
+
+    }
+
+    /**
+     * Populate the tree.
+     *
+     * @param in_items The items
+     */
+
+    @Setup(Level.Iteration)
+    public final void setup(
+      final Items in_items)
+    {
+      this.items = in_items;
+      this.tree = createConcurrent(in_items);
+      populate(this.tree, in_items);
+    }
+  }
+
+  /**
+   * A tree that is populated before each iteration, and then has every
+   * second item removed.
+   */
+
+  @State(Scope.Thread)
+  public static class Trimmable
+  {
+    private OctTreeLType<Integer> tree;
+
+    /**
+     * Construct the state.
+     */
+
+    public Trimmable()
+    {
+
+    }
+
+    /**
+     * Populate the tree.
+     *
+     * @param items The items
+     */
+
+    @Setup(Level.Iteration)
+    public final void setup(
+      final Items items)
+    {
+      this.tree = create(items);
+      populate(this.tree, items);
+      for (int index = 0; index < items.items.length; index += 2) {
+        this.tree.remove(items.items[index]);
+      }
+    }
+  }
+
+  /**
+   * Pregenerated query volumes and rays, and reusable result sets.
+   */
+
+  @State(Scope.Thread)
+  public static class Queries
+  {
+    private final Set<Integer> results;
+    private final OctTreeQueryConsumerLType<Integer> counter;
+    private final OctTreeNearestConsumerLType<Integer> nearest_counter;
+    private final SortedSet<OctTreeRaycastResultL<Integer>> hits;
+    private final VolumeL[] volumes;
+    private final Ray3D[] rays;
+    private int volume_index;
+    private int ray_index;
+    private int visited;
+
+    /**
+     * Construct the state.
+     */
+
+    public Queries()
+    {
+      this.counter = (item, x0, x1, y0, y1, z0, z1) -> {
+        ++this.visited;
+        return TreeVisitResult.RESULT_CONTINUE;
+      };
+      this.nearest_counter = (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        ++this.visited;
+        return TreeVisitResult.RESULT_CONTINUE;
+      };
+      this.results = new HashSet<>(1024);
+      this.hits = new TreeSet<>();
+      this.volumes = new VolumeL[BenchmarkBounds.QUERY_COUNT];
+      this.rays = new Ray3D[BenchmarkBounds.QUERY_COUNT];
+    }
+
+    /**
+     * Generate queries.
+     */
+
+    @Setup(Level.Trial)
+    public final void setup()
+    {
+      final Random random = new Random(0x20L);
+      final double[] bounds = BenchmarkBounds.queries(random, 3);
+      final double[] origins = BenchmarkBounds.rays(random, 3);
+      for (int index = 0; index < BenchmarkBounds.QUERY_COUNT; ++index) {
+        final int base = index * 6;
+        this.volumes[index] = VolumeL.of(
+          BenchmarkBounds.minimumL(bounds[base]),
+          BenchmarkBounds.maximumL(bounds[base], bounds[base + 1]),
+          BenchmarkBounds.minimumL(bounds[base + 2]),
+          BenchmarkBounds.maximumL(bounds[base + 2], bounds[base + 3]),
+          BenchmarkBounds.minimumL(bounds[base + 4]),
+          BenchmarkBounds.maximumL(bounds[base + 4], bounds[base + 5]));
+        this.rays[index] = Ray3D.of(
+          Vector3D.of(origins[base], origins[base + 1], origins[base + 2]),
+          Vector3D.of(origins[base + 3], origins[base + 4], origins[base + 5]));
+      }
+    }
+
+    private VolumeL nextVolume()
+    {
+      final VolumeL volume = this.volumes[this.volume_index];
+      this.volume_index = (this.volume_index + 1) % this.volumes.length;
+      return volume;
+    }
+
+    private Ray3D nextRay()
+    {
+      final Ray3D ray = this.rays[this.ray_index];
+      this.ray_index = (this.ray_index + 1) % this.rays.length;
+      return ray;
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+/**
+ * JMH benchmarks for the tree implementations.
+ *
+ * <p>The benchmarks are packaged into a self-contained jar file that can be
+ * executed directly:</p>
+ *
+ * <pre>java -jar com.io7m.jspatial.benchmarks-*-benchmarks.jar QuadTreeD -p size=1000</pre>
+ *
+ * <p>Each tree variant is parameterized by the number of items in the tree,
+ * the distribution of item sizes, the minimum node size, and the maximum
+ * number of objects per leaf node.</p>
+ */
+
+@com.io7m.jnull.NonNullByDefault
+package com.io7m.jspatial.benchmarks;
@@ -0,0 +1,632 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation.vector;
+
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.implementation.spi.BoundsEngineScalar;
+import com.io7m.jspatial.implementation.spi.BoundsEngineType;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>A bounds engine that tests items in parallel using the lanes of the
+ * platform's preferred vector shape, via the {@code jdk.incubator.vector}
+ * module.</p>
+ *
+ * <p>The coordinates of as many items as there are lanes are gathered from
+ * the packed coordinate arrays into one vector per coordinate, and all of
+ * the items are tested at once. Any remaining items that do not fill a
+ * complete vector are tested with a {@link BoundsEngineScalar}. The results
+ * are identical to those of the scalar engine.</p>
+ *
+ * <p>The engine is registered as a {@link java.util.ServiceLoader} service,
+ * and is used automatically when this artifact is on the class path and the
+ * {@code jdk.incubator.vector} module is resolved (for example, with
+ * {@code --add-modules jdk.incubator.vector}).</p>
+ *
+ * @since 3.0.0
+ */
+
+public final class BoundsEngineVector implements BoundsEngineType
+{
+  /**
+   * Gathering loads with 512-bit species have been observed to crash the
+   * C2 compiler on JDK 17, so the preferred shape is limited to 256 bits.
+   */
+
+  private static final VectorShape SHAPE = shape();
+
+  private static final VectorSpecies<Double> DOUBLES =
+    VectorSpecies.of(double.class, SHAPE);
+  private static final VectorSpecies<Long> LONGS =
+    VectorSpecies.of(long.class, SHAPE);
+  private static final VectorSpecies<Integer> INTS =
+    VectorSpecies.of(int.class, SHAPE);
+
+  /**
+   * Integers that are converted to doubles must be loaded with as many
+   * lanes as {@link #DOUBLES} has.
+   */
+
+  private static final VectorSpecies<Integer> INTS_NARROW =
+    VectorSpecies.of(
+      int.class,
+      VectorShape.forBitSize(DOUBLES.length() * Integer.SIZE));
+
+  private static final int[] AREA_MAP = gatherMap(4);
+  private static final int[] VOLUME_MAP = gatherMap(6);
+
+  private final BoundsEngineScalar scalar;
+
+  /**
+   * Construct an engine.
+   */
+
+  public BoundsEngineVector()
+  {
+    this.scalar = new BoundsEngineScalar();
+  }
+
+  private static VectorShape shape()
+  {
+    final VectorShape preferred = VectorShape.preferredShape();
+    if (preferred.vectorBitSize() > VectorShape.S_256_BIT.vectorBitSize()) {
+      return VectorShape.S_256_BIT;
+    }
+    return preferred;
+  }
+
+  /**
+   * @return The offsets of the coordinates of consecutive items, for use as
+   * the index map of a gathering load
+   */
+
+  private static int[] gatherMap(final int stride)
+  {
+    final int lanes =
+      Math.max(INTS.length(), Math.max(LONGS.length(), DOUBLES.length()));
+    final int[] map = new int[lanes];
+    for (int index = 0; index < lanes; ++index) {
+      map[index] = index * stride;
+    }
+    return map;
+  }
+
+  private static VectorMask<Double> overlaps(
+    final double[] coordinates,
+    final int offset,
+    final int[] map,
+    final double min,
+    final double end)
+  {
+    final DoubleVector item_min =
+      DoubleVector.fromArray(DOUBLES, coordinates, offset, map, 0);
+    final DoubleVector item_max =
+      DoubleVector.fromArray(DOUBLES, coordinates, offset + 1, map, 0);
+    final DoubleVector item_end = item_min.add(item_max.sub(item_min).max(1.0));
+    return item_end.compare(VectorOperators.GT, min)
+      .and(item_min.compare(VectorOperators.LT, end));
+  }
+
+  private static VectorMask<Long> overlaps(
+    final long[] coordinates,
+    final int offset,
+    final int[] map,
+    final long min,
+    final long end)
+  {
+    final LongVector item_min =
+      LongVector.fromArray(LONGS, coordinates, offset, map, 0);
+    final LongVector item_max =
+      LongVector.fromArray(LONGS, coordinates, offset + 1, map, 0);
+    final LongVector item_end = item_min.add(item_max.sub(item_min).max(1L));
+    return item_end.compare(VectorOperators.GT, min)
+      .and(item_min.compare(VectorOperators.LT, end));
+  }
+
+  private static VectorMask<Integer> overlaps(
+    final int[] coordinates,
+    final int offset,
+    final int[] map,
+    final int min,
+    final int end)
+  {
+    final IntVector item_min =
+      IntVector.fromArray(INTS, coordinates, offset, map, 0);
+    final IntVector item_max =
+      IntVector.fromArray(INTS, coordinates, offset + 1, map, 0);
+    final IntVector item_end = item_min.add(item_max.sub(item_min).max(1));
+    return item_end.compare(VectorOperators.GT, min)
+      .and(item_min.compare(VectorOperators.LT, end));
+  }
+
+  private static DoubleVector load(
+    final double[] coordinates,
+    final int offset,
+    final int[] map)
+  {
+    return DoubleVector.fromArray(DOUBLES, coordinates, offset, map, 0);
+  }
+
+  private static DoubleVector load(
+    final long[] coordinates,
+    final int offset,
+    final int[] map)
+  {
+    return (DoubleVector) LongVector.fromArray(LONGS, coordinates, offset, map, 0)
+      .convert(VectorOperators.L2D, 0);
+  }
+
+  private static DoubleVector load(
+    final int[] coordinates,
+    final int offset,
+    final int[] map)
+  {
+    return (DoubleVector) IntVector.fromArray(INTS_NARROW, coordinates, offset, map, 0)
+      .convertShape(VectorOperators.I2D, DOUBLES, 0);
+  }
+
+  /**
+   * The slab test of {@link Ray2D#intersectsArea}, evaluated for each lane.
+   */
+
+  private static VectorMask<Double> intersects(
+    final Vector2D origin,
+    final Vector2D inverse,
+    final DoubleVector x0,
+    final DoubleVector x1,
+    final DoubleVector y0,
+    final DoubleVector y1)
+  {
+    final DoubleVector tx0 = x0.sub(origin.x()).mul(inverse.x());
+    final DoubleVector tx1 = x1.sub(origin.x()).mul(inverse.x());
+    final DoubleVector ty0 = y0.sub(origin.y()).mul(inverse.y());
+    final DoubleVector ty1 = y1.sub(origin.y()).mul(inverse.y());
+    final DoubleVector tmin = tx0.min(tx1).max(ty0.min(ty1));
+    final DoubleVector tmax = tx0.max(tx1).min(ty0.max(ty1));
+    return hits(tmin, tmax);
+  }
+
+  /**
+   * The slab test of {@link Ray3D#intersectsVolume}, evaluated for each
+   * lane.
+   */
+
+  private static VectorMask<Double> intersects(
+    final Vector3D origin,
+    final Vector3D inverse,
+    final DoubleVector x0,
+    final DoubleVector x1,
+    final DoubleVector y0,
+    final DoubleVector y1,
+    final DoubleVector z0,
+    final DoubleVector z1)
+  {
+    final DoubleVector tx0 = x0.sub(origin.x()).mul(inverse.x());
+    final DoubleVector tx1 = x1.sub(origin.x()).mul(inverse.x());
+    final DoubleVector ty0 = y0.sub(origin.y()).mul(inverse.y());
+    final DoubleVector ty1 = y1.sub(origin.y()).mul(inverse.y());
+    final DoubleVector tz0 = z0.sub(origin.z()).mul(inverse.z());
+    final DoubleVector tz1 = z1.sub(origin.z()).mul(inverse.z());
+    final DoubleVector tmin =
+      tx0.min(tx1).max(ty0.min(ty1)).max(tz0.min(tz1));
+    final DoubleVector tmax =
+      tx0.max(tx1).min(ty0.max(ty1)).min(tz0.max(tz1));
+    return hits(tmin, tmax);
+  }
+
+  private static VectorMask<Double> hits(
+    final DoubleVector tmin,
+    final DoubleVector tmax)
+  {
+    return tmax.compare(VectorOperators.GE, tmin.max(0.0))
+      .and(tmin.compare(VectorOperators.LT, Double.POSITIVE_INFINITY));
+  }
+
+  @Override
+  public long overlapsArea(
+    final double[] coordinates,
+    final int first,
+    final int count,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    final double x_end = x0 + Math.max(1.0, x1 - x0);
+    final double y_end = y0 + Math.max(1.0, y1 - y0);
+    final int lanes = DOUBLES.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 4;
+      final VectorMask<Double> hits =
+        overlaps(coordinates, base, AREA_MAP, x0, x_end)
+          .and(overlaps(coordinates, base + 2, AREA_MAP, y0, y_end));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.overlapsArea(
+      coordinates, first + done, count - done, x0, x1, y0, y1);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long overlapsArea(
+    final long[] coordinates,
+    final int first,
+    final int count,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    final long x_end = x0 + Math.max(1L, x1 - x0);
+    final long y_end = y0 + Math.max(1L, y1 - y0);
+    final int lanes = LONGS.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 4;
+      final VectorMask<Long> hits =
+        overlaps(coordinates, base, AREA_MAP, x0, x_end)
+          .and(overlaps(coordinates, base + 2, AREA_MAP, y0, y_end));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.overlapsArea(
+      coordinates, first + done, count - done, x0, x1, y0, y1);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long overlapsArea(
+    final int[] coordinates,
+    final int first,
+    final int count,
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1)
+  {
+    final int x_end = x0 + Math.max(1, x1 - x0);
+    final int y_end = y0 + Math.max(1, y1 - y0);
+    final int lanes = INTS.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 4;
+      final VectorMask<Integer> hits =
+        overlaps(coordinates, base, AREA_MAP, x0, x_end)
+          .and(overlaps(coordinates, base + 2, AREA_MAP, y0, y_end));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.overlapsArea(
+      coordinates, first + done, count - done, x0, x1, y0, y1);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long intersectsArea(
+    final Ray2D ray,
+    final double[] coordinates,
+    final int first,
+    final int count)
+  {
+    final Vector2D origin = ray.origin();
+    final Vector2D inverse = ray.directionInverse();
+    final int lanes = DOUBLES.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 4;
+      final VectorMask<Double> hits = intersects(
+        origin,
+        inverse,
+        load(coordinates, base, AREA_MAP),
+        load(coordinates, base + 1, AREA_MAP),
+        load(coordinates, base + 2, AREA_MAP),
+        load(coordinates, base + 3, AREA_MAP));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.intersectsArea(
+      ray, coordinates, first + done, count - done);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long intersectsArea(
+    final Ray2D ray,
+    final long[] coordinates,
+    final int first,
+    final int count)
+  {
+    final Vector2D origin = ray.origin();
+    final Vector2D inverse = ray.directionInverse();
+    final int lanes = DOUBLES.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 4;
+      final VectorMask<Double> hits = intersects(
+        origin,
+        inverse,
+        load(coordinates, base, AREA_MAP),
+        load(coordinates, base + 1, AREA_MAP),
+        load(coordinates, base + 2, AREA_MAP),
+        load(coordinates, base + 3, AREA_MAP));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.intersectsArea(
+      ray, coordinates, first + done, count - done);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long intersectsArea(
+    final Ray2D ray,
+    final int[] coordinates,
+    final int first,
+    final int count)
+  {
+    final Vector2D origin = ray.origin();
+    final Vector2D inverse = ray.directionInverse();
+    final int lanes = DOUBLES.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 4;
+      final VectorMask<Double> hits = intersects(
+        origin,
+        inverse,
+        load(coordinates, base, AREA_MAP),
+        load(coordinates, base + 1, AREA_MAP),
+        load(coordinates, base + 2, AREA_MAP),
+        load(coordinates, base + 3, AREA_MAP));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.intersectsArea(
+      ray, coordinates, first + done, count - done);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long overlapsVolume(
+    final double[] coordinates,
+    final int first,
+    final int count,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    final double x_end = x0 + Math.max(1.0, x1 - x0);
+    final double y_end = y0 + Math.max(1.0, y1 - y0);
+    final double z_end = z0 + Math.max(1.0, z1 - z0);
+    final int lanes = DOUBLES.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 6;
+      final VectorMask<Double> hits =
+        overlaps(coordinates, base, VOLUME_MAP, x0, x_end)
+          .and(overlaps(coordinates, base + 2, VOLUME_MAP, y0, y_end))
+          .and(overlaps(coordinates, base + 4, VOLUME_MAP, z0, z_end));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.overlapsVolume(
+      coordinates, first + done, count - done, x0, x1, y0, y1, z0, z1);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long overlapsVolume(
+    final long[] coordinates,
+    final int first,
+    final int count,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    final long x_end = x0 + Math.max(1L, x1 - x0);
+    final long y_end = y0 + Math.max(1L, y1 - y0);
+    final long z_end = z0 + Math.max(1L, z1 - z0);
+    final int lanes = LONGS.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 6;
+      final VectorMask<Long> hits =
+        overlaps(coordinates, base, VOLUME_MAP, x0, x_end)
+          .and(overlaps(coordinates, base + 2, VOLUME_MAP, y0, y_end))
+          .and(overlaps(coordinates, base + 4, VOLUME_MAP, z0, z_end));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.overlapsVolume(
+      coordinates, first + done, count - done, x0, x1, y0, y1, z0, z1);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long overlapsVolume(
+    final int[] coordinates,
+    final int first,
+    final int count,
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1,
+    final int z0,
+    final int z1)
+  {
+    final int x_end = x0 + Math.max(1, x1 - x0);
+    final int y_end = y0 + Math.max(1, y1 - y0);
+    final int z_end = z0 + Math.max(1, z1 - z0);
+    final int lanes = INTS.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 6;
+      final VectorMask<Integer> hits =
+        overlaps(coordinates, base, VOLUME_MAP, x0, x_end)
+          .and(overlaps(coordinates, base + 2, VOLUME_MAP, y0, y_end))
+          .and(overlaps(coordinates, base + 4, VOLUME_MAP, z0, z_end));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.overlapsVolume(
+      coordinates, first + done, count - done, x0, x1, y0, y1, z0, z1);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long intersectsVolume(
+    final Ray3D ray,
+    final double[] coordinates,
+    final int first,
+    final int count)
+  {
+    final Vector3D origin = ray.origin();
+    final Vector3D inverse = ray.directionInverse();
+    final int lanes = DOUBLES.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 6;
+      final VectorMask<Double> hits = intersects(
+        origin,
+        inverse,
+        load(coordinates, base, VOLUME_MAP),
+        load(coordinates, base + 1, VOLUME_MAP),
+        load(coordinates, base + 2, VOLUME_MAP),
+        load(coordinates, base + 3, VOLUME_MAP),
+        load(coordinates, base + 4, VOLUME_MAP),
+        load(coordinates, base + 5, VOLUME_MAP));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.intersectsVolume(
+      ray, coordinates, first + done, count - done);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long intersectsVolume(
+    final Ray3D ray,
+    final long[] coordinates,
+    final int first,
+    final int count)
+  {
+    final Vector3D origin = ray.origin();
+    final Vector3D inverse = ray.directionInverse();
+    final int lanes = DOUBLES.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 6;
+      final VectorMask<Double> hits = intersects(
+        origin,
+        inverse,
+        load(coordinates, base, VOLUME_MAP),
+        load(coordinates, base + 1, VOLUME_MAP),
+        load(coordinates, base + 2, VOLUME_MAP),
+        load(coordinates, base + 3, VOLUME_MAP),
+        load(coordinates, base + 4, VOLUME_MAP),
+        load(coordinates, base + 5, VOLUME_MAP));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.intersectsVolume(
+      ray, coordinates, first + done, count - done);
+    return result | (rest << done);
+  }
+
+  @Override
+  public long intersectsVolume(
+    final Ray3D ray,
+    final int[] coordinates,
+    final int first,
+    final int count)
+  {
+    final Vector3D origin = ray.origin();
+    final Vector3D inverse = ray.directionInverse();
+    final int lanes = DOUBLES.length();
+
+    long result = 0L;
+    int done = 0;
+    while (count - done >= lanes) {
+      final int base = (first + done) * 6;
+      final VectorMask<Double> hits = intersects(
+        origin,
+        inverse,
+        load(coordinates, base, VOLUME_MAP),
+        load(coordinates, base + 1, VOLUME_MAP),
+        load(coordinates, base + 2, VOLUME_MAP),
+        load(coordinates, base + 3, VOLUME_MAP),
+        load(coordinates, base + 4, VOLUME_MAP),
+        load(coordinates, base + 5, VOLUME_MAP));
+      result |= hits.toLong() << done;
+      done += lanes;
+    }
+
+    final long rest = this.scalar.intersectsVolume(
+      ray, coordinates, first + done, count - done);
+    return result | (rest << done);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jspatial.implementation.spi.BoundsEngineScalar;
+import com.io7m.jspatial.implementation.spi.BoundsEngineType;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * <p>Access to the bounds engine used by all trees.</p>
+ *
+ * <p>The first {@link BoundsEngineType} found with
+ * {@link ServiceLoader} that can be instantiated is used. Engines that
+ * depend on optional platform modules (such as the vector engine, which
+ * requires {@code jdk.incubator.vector}) fail to load when those modules
+ * are not present, in which case the scalar engine is used instead.</p>
+ */
+
+final class BoundsEngines
+{
+  /**
+   * The maximum number of items that can be tested in a single call to an
+   * engine.
+   */
+
+  static final int BLOCK_SIZE = 64;
+
+  private static final BoundsEngineType ENGINE = load();
+
+  private BoundsEngines()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  private static BoundsEngineType load()
+  {
+    final Iterator<BoundsEngineType> engines =
+      ServiceLoader.load(
+        BoundsEngineType.class,
+        BoundsEngineType.class.getClassLoader()).iterator();
+
+    while (true) {
+      try {
+        if (!engines.hasNext()) {
+          return new BoundsEngineScalar();
+        }
+        return engines.next();
+      } catch (final ServiceConfigurationError | LinkageError e) {
+        /*
+         * The engine could not be loaded on this platform: Try the next one.
+         */
+      }
+    }
+  }
+
+  /**
+   * @return The engine used by all trees
+   */
+
+  static BoundsEngineType get()
+  {
+    return ENGINE;
+  }
+}
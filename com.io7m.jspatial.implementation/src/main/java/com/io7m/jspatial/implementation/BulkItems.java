@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * A flat list of items and their bounds, used to bulk-load trees. Ranges of
+ * the list are partitioned in place as a tree is built top-down, so that the
+ * items destined for each node occupy a contiguous range. Disjoint ranges
+ * may be partitioned concurrently by different threads.
+ *
+ * @param <T> The type of items
+ * @param <B> The type of item bounds
+ */
+
+final class BulkItems<T, B>
+{
+  private final Object[] items;
+  private final Object[] bounds;
+  private final Object[] scratch_items;
+  private final Object[] scratch_bounds;
+  private final byte[] buckets;
+  private int size;
+
+  BulkItems(final int capacity)
+  {
+    this.items = new Object[capacity];
+    this.bounds = new Object[capacity];
+    this.scratch_items = new Object[capacity];
+    this.scratch_bounds = new Object[capacity];
+    this.buckets = new byte[capacity];
+    this.size = 0;
+  }
+
+  /**
+   * Add an item.
+   *
+   * @param item        The item
+   * @param item_bounds The bounds of the item
+   */
+
+  void add(
+    final T item,
+    final B item_bounds)
+  {
+    this.items[this.size] = item;
+    this.bounds[this.size] = item_bounds;
+    this.size = this.size + 1;
+  }
+
+  /**
+   * @return The number of items
+   */
+
+  int size()
+  {
+    return this.size;
+  }
+
+  /**
+   * @param index The item index
+   *
+   * @return The item at {@code index}
+   */
+
+  @SuppressWarnings("unchecked")
+  T item(final int index)
+  {
+    return (T) this.items[index];
+  }
+
+  /**
+   * @param index The item index
+   *
+   * @return The bounds of the item at {@code index}
+   */
+
+  @SuppressWarnings("unchecked")
+  B bounds(final int index)
+  {
+    return (B) this.bounds[index];
+  }
+
+  /**
+   * Partition the items in the range {@code [start, end)} into
+   * {@code count} buckets, preserving the relative order of items within
+   * each bucket. On return, the items in bucket {@code b} occupy the range
+   * {@code [offsets[b], offsets[b + 1])}, where {@code offsets} is the
+   * returned array.
+   *
+   * @param start      The start of the range (inclusive)
+   * @param end        The end of the range (exclusive)
+   * @param count      The number of buckets
+   * @param classifier A function that returns the bucket for the given bounds
+   *
+   * @return The offsets of each bucket
+   */
+
+  @SuppressWarnings("unchecked")
+  int[] partition(
+    final int start,
+    final int end,
+    final int count,
+    final ToIntFunction<B> classifier)
+  {
+    final int[] offsets = new int[count + 1];
+    for (int index = start; index < end; ++index) {
+      final int bucket = classifier.applyAsInt((B) this.bounds[index]);
+      this.buckets[index] = (byte) bucket;
+      offsets[bucket + 1] = offsets[bucket + 1] + 1;
+    }
+
+    offsets[0] = start;
+    for (int bucket = 0; bucket < count; ++bucket) {
+      offsets[bucket + 1] = offsets[bucket + 1] + offsets[bucket];
+    }
+
+    final int[] positions = new int[count];
+    System.arraycopy(offsets, 0, positions, 0, count);
+    for (int index = start; index < end; ++index) {
+      final int bucket = (int) this.buckets[index];
+      final int position = positions[bucket];
+      this.scratch_items[position] = this.items[index];
+      this.scratch_bounds[position] = this.bounds[index];
+      positions[bucket] = position + 1;
+    }
+
+    final int length = end - start;
+    System.arraycopy(this.scratch_items, start, this.items, start, length);
+    System.arraycopy(this.scratch_bounds, start, this.bounds, start, length);
+    return offsets;
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.NullCheck;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link DataInput} that reads from a {@link ByteBuffer}, such as a
+ * memory-mapped file. Values are read in big-endian byte order, matching
+ * {@link java.io.DataOutputStream}, regardless of the order of the given
+ * buffer. Attempting to read past the limit of the buffer raises
+ * {@link EOFException}.
+ */
+
+final class ByteBufferDataInput implements DataInput
+{
+  private final ByteBuffer buffer;
+
+  ByteBufferDataInput(
+    final ByteBuffer in_buffer)
+  {
+    this.buffer =
+      NullCheck.notNull(in_buffer, "Buffer")
+        .duplicate()
+        .order(ByteOrder.BIG_ENDIAN);
+  }
+
+  /**
+   * @return The number of bytes remaining
+   */
+
+  int remaining()
+  {
+    return this.buffer.remaining();
+  }
+
+  private void require(final int count)
+    throws EOFException
+  {
+    if (this.buffer.remaining() < count) {
+      throw new EOFException(
+        new StringBuilder(64)
+          .append("Unexpected end of input: Required ")
+          .append(count)
+          .append(" bytes, but ")
+          .append(this.buffer.remaining())
+          .append(" remain")
+          .toString());
+    }
+  }
+
+  @Override
+  public void readFully(final byte[] b)
+    throws IOException
+  {
+    this.readFully(b, 0, b.length);
+  }
+
+  @Override
+  public void readFully(
+    final byte[] b,
+    final int off,
+    final int len)
+    throws IOException
+  {
+    this.require(len);
+    this.buffer.get(b, off, len);
+  }
+
+  @Override
+  public int skipBytes(final int n)
+  {
+    final int count = Math.max(0, Math.min(n, this.buffer.remaining()));
+    this.buffer.position(this.buffer.position() + count);
+    return count;
+  }
+
+  @Override
+  public boolean readBoolean()
+    throws IOException
+  {
+    return this.readByte() != 0;
+  }
+
+  @Override
+  public byte readByte()
+    throws IOException
+  {
+    this.require(1);
+    return this.buffer.get();
+  }
+
+  @Override
+  public int readUnsignedByte()
+    throws IOException
+  {
+    return (int) this.readByte() & 0xff;
+  }
+
+  @Override
+  public short readShort()
+    throws IOException
+  {
+    this.require(2);
+    return this.buffer.getShort();
+  }
+
+  @Override
+  public int readUnsignedShort()
+    throws IOException
+  {
+    return (int) this.readShort() & 0xffff;
+  }
+
+  @Override
+  public char readChar()
+    throws IOException
+  {
+    this.require(2);
+    return this.buffer.getChar();
+  }
+
+  @Override
+  public int readInt()
+    throws IOException
+  {
+    this.require(4);
+    return this.buffer.getInt();
+  }
+
+  @Override
+  public long readLong()
+    throws IOException
+  {
+    this.require(8);
+    return this.buffer.getLong();
+  }
+
+  @Override
+  public float readFloat()
+    throws IOException
+  {
+    this.require(4);
+    return this.buffer.getFloat();
+  }
+
+  @Override
+  public double readDouble()
+    throws IOException
+  {
+    this.require(8);
+    return this.buffer.getDouble();
+  }
+
+  @Override
+  public String readLine()
+    throws IOException
+  {
+    if (!this.buffer.hasRemaining()) {
+      return null;
+    }
+
+    final StringBuilder line = new StringBuilder(64);
+    while (this.buffer.hasRemaining()) {
+      final char c = (char) ((int) this.buffer.get() & 0xff);
+      if (c == '\n') {
+        break;
+      }
+      if (c == '\r') {
+        if (this.buffer.hasRemaining()
+          && this.buffer.get(this.buffer.position()) == (byte) '\n') {
+          this.buffer.get();
+        }
+        break;
+      }
+      line.append(c);
+    }
+    return line.toString();
+  }
+
+  @Override
+  public String readUTF()
+    throws IOException
+  {
+    return DataInputStream.readUTF(this);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * Functions to calculate the distance between points and bounding boxes.
+ */
+
+final class Distances
+{
+  private Distances()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  private static double axis(
+    final double p,
+    final double min,
+    final double max)
+  {
+    if (p < min) {
+      return min - p;
+    }
+    if (p > max) {
+      return p - max;
+    }
+    return 0.0;
+  }
+
+  /**
+   * Calculate the distance from the given point to the nearest point on the
+   * given area. The distance is {@code 0.0} if the point is inside the area.
+   *
+   * @param px The X coordinate of the point
+   * @param py The Y coordinate of the point
+   * @param x0 The minimum X coordinate of the area
+   * @param x1 The maximum X coordinate of the area
+   * @param y0 The minimum Y coordinate of the area
+   * @param y1 The maximum Y coordinate of the area
+   *
+   * @return The distance from the point to the area
+   */
+
+  static double pointArea(
+    final double px,
+    final double py,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    final double dx = axis(px, x0, x1);
+    final double dy = axis(py, y0, y1);
+    return Math.sqrt((dx * dx) + (dy * dy));
+  }
+
+  /**
+   * Calculate the distance from the given point to the nearest point on the
+   * given volume. The distance is {@code 0.0} if the point is inside the
+   * volume.
+   *
+   * @param px The X coordinate of the point
+   * @param py The Y coordinate of the point
+   * @param pz The Z coordinate of the point
+   * @param x0 The minimum X coordinate of the volume
+   * @param x1 The maximum X coordinate of the volume
+   * @param y0 The minimum Y coordinate of the volume
+   * @param y1 The maximum Y coordinate of the volume
+   * @param z0 The minimum Z coordinate of the volume
+   * @param z1 The maximum Z coordinate of the volume
+   *
+   * @return The distance from the point to the volume
+   */
+
+  static double pointVolume(
+    final double px,
+    final double py,
+    final double pz,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    final double dx = axis(px, x0, x1);
+    final double dy = axis(py, y0, y1);
+    final double dz = axis(pz, z0, z1);
+    return Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+  }
+}
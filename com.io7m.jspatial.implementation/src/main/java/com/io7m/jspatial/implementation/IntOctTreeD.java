@@ -0,0 +1,310 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeQueryListenerType;
+import com.io7m.jspatial.api.octtrees.IntOctTreeDType;
+import com.io7m.jspatial.api.octtrees.IntOctTreeQueryConsumerDType;
+import com.io7m.jspatial.api.octtrees.IntOctTreeRaycastConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationD;
+import it.unimi.dsi.fastutil.ints.Int2ReferenceOpenHashMap;
+
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * Default implementation of the {@link IntOctTreeDType} interface.
+ */
+
+public final class IntOctTreeD implements IntOctTreeDType
+{
+  private final Int2ReferenceOpenHashMap<IntOctTreeOctantD> objects;
+  private final OctTreeConfigurationD config;
+  private IntOctTreeOctantD root;
+  private @Nullable TreeQueryListenerType listener;
+
+  private IntOctTreeD(final OctTreeConfigurationD in_config)
+  {
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.root = new IntOctTreeOctantD(this, null, in_config.volume());
+    this.objects = new Int2ReferenceOpenHashMap<>();
+  }
+
+  /**
+   * Create a new empty tree with the given bounds.
+   *
+   * @param config The tree configuration
+   *
+   * @return A new tree
+   */
+
+  public static IntOctTreeDType create(
+    final OctTreeConfigurationD config)
+  {
+    return new IntOctTreeD(config);
+  }
+
+  /**
+   * @return The tree configuration
+   */
+
+  OctTreeConfigurationD configuration()
+  {
+    return this.config;
+  }
+
+  /**
+   * @return The map from each handle in the tree to the octant that holds it
+   */
+
+  Int2ReferenceOpenHashMap<IntOctTreeOctantD> objectIndex()
+  {
+    return this.objects;
+  }
+
+  @Override
+  public VolumeD bounds()
+  {
+    return this.root.volume();
+  }
+
+  @Override
+  public boolean contains(final int item)
+  {
+    return this.objects.containsKey(item);
+  }
+
+  @Override
+  public VolumeD volumeFor(final int item)
+  {
+    final @Nullable IntOctTreeOctantD octant = this.objects.get(item);
+    if (octant == null) {
+      throw new NoSuchElementException(Integer.toString(item));
+    }
+    return octant.boundsOf(item);
+  }
+
+  @Override
+  public boolean insert(
+    final int item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+
+    if (this.objects.containsKey(item)) {
+      this.remove(item);
+      Invariants.checkInvariant(
+        !this.objects.containsKey(item), "Handle must not be in tree");
+    }
+
+    return this.expandToContain(x0, x1, y0, y1, z0, z1)
+      && this.root.insert(item, x0, x1, y0, y1, z0, z1);
+  }
+
+  @Override
+  public boolean remove(final int item)
+  {
+    final @Nullable IntOctTreeOctantD octant = this.objects.get(item);
+    if (octant == null) {
+      return false;
+    }
+
+    octant.removeObject(item);
+    return true;
+  }
+
+  @Override
+  public boolean move(
+    final int item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+
+    final @Nullable IntOctTreeOctantD octant = this.objects.get(item);
+    if (octant == null) {
+      return false;
+    }
+
+    if (!this.expandToContain(x0, x1, y0, y1, z0, z1)) {
+      return false;
+    }
+
+    octant.moveObject(item, x0, x1, y0, y1, z0, z1);
+    return true;
+  }
+
+  @Override
+  public void clear()
+  {
+    this.root = new IntOctTreeOctantD(this, null, this.root.volume());
+    this.objects.clear();
+  }
+
+  /**
+   * Grow the root of the tree until it contains the given bounds, if the
+   * tree is configured to expand.
+   *
+   * @return {@code true} iff the root of the tree contains the given bounds
+   */
+
+  private boolean expandToContain(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    if (this.config.expandable()) {
+      while (!this.root.contains(x0, x1, y0, y1, z0, z1)) {
+        final @Nullable IntOctTreeOctantD expanded =
+          this.root.expandTowards(x0, y0, z0);
+        if (expanded == null) {
+          return false;
+        }
+        this.root = expanded;
+      }
+      return true;
+    }
+    return this.root.contains(x0, x1, y0, y1, z0, z1);
+  }
+
+  @Override
+  public void trim()
+  {
+    this.root.trim();
+  }
+
+  @Override
+  public void setQueryListener(
+    final Optional<TreeQueryListenerType> in_listener)
+  {
+    NullCheck.notNull(in_listener, "Listener");
+    this.listener = in_listener.orElse(null);
+  }
+
+  @Override
+  public long size()
+  {
+    return (long) this.objects.size();
+  }
+
+  @Override
+  public void containedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1,
+    final IntOctTreeQueryConsumerDType consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.root.volumeContaining(x0, x1, y0, y1, z0, z1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+  }
+
+  @Override
+  public long count(final VolumeD volume)
+  {
+    NullCheck.notNull(volume, "Volume");
+    return this.count(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ());
+  }
+
+  @Override
+  public long count(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    final long count = this.root.countContaining(
+      x0, x1, y0, y1, z0, z1, counters);
+    counters.hits(count);
+    counters.report(TreeQueryKind.QUERY_COUNT);
+    return count;
+  }
+
+  @Override
+  public void overlappedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1,
+    final IntOctTreeQueryConsumerDType consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.root.volumeOverlapping(x0, x1, y0, y1, z0, z1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
+  }
+
+  @Override
+  public void raycast(
+    final Ray3D ray,
+    final IntOctTreeRaycastConsumerDType consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.root.raycast(ray, consumer, false, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+
+  @Override
+  public void raycastEntry(
+    final Ray3D ray,
+    final IntOctTreeRaycastConsumerDType consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.root.raycast(ray, consumer, true, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+}
@@ -0,0 +1,1005 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jaffirm.core.Preconditions;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeXYZSplitD;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.IntOctTreeQueryConsumerDType;
+import com.io7m.jspatial.api.octtrees.IntOctTreeRaycastConsumerDType;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.util.Optional;
+
+/**
+ * A octant within an {@link IntOctTreeD}. The structure and the rules for
+ * splitting and unsplitting octants are the same as those of
+ * {@link OctTreeOctantD}, but the octant holds {@code int} handles.
+ */
+
+final class IntOctTreeOctantD
+{
+  private final IntOctTreeD tree;
+  private final VolumeD volume;
+  private VolumeD bounds;
+  private final NodeHandlesD octant_objects;
+  private @Nullable IntOctTreeOctantD parent;
+  private int subtree_objects;
+  private @Nullable IntOctTreeOctantD x0y0z0;
+  private @Nullable IntOctTreeOctantD x0y1z0;
+  private @Nullable IntOctTreeOctantD x1y0z0;
+  private @Nullable IntOctTreeOctantD x1y1z0;
+  private @Nullable IntOctTreeOctantD x0y0z1;
+  private @Nullable IntOctTreeOctantD x0y1z1;
+  private @Nullable IntOctTreeOctantD x1y0z1;
+  private @Nullable IntOctTreeOctantD x1y1z1;
+
+  IntOctTreeOctantD(
+    final IntOctTreeD in_tree,
+    final @Nullable IntOctTreeOctantD in_parent,
+    final VolumeD in_volume)
+  {
+    this.tree = NullCheck.notNull(in_tree, "Tree");
+    this.parent = in_parent;
+    this.volume = NullCheck.notNull(in_volume, "Volume");
+    if (in_parent == null) {
+      this.bounds = this.volume;
+    } else {
+      this.bounds = OctantsD.loosen(
+        this.volume, this.tree.configuration().looseness());
+    }
+    this.octant_objects = new NodeHandlesD(6);
+  }
+
+  boolean insert(
+    final int item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1,
+    final double item_z0,
+    final double item_z1)
+  {
+    Preconditions.checkPreconditionI(
+      item,
+      !this.tree.objectIndex().containsKey(item),
+      x -> "Handle must not be in tree");
+
+    return this.contains(item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)
+      && this.insertStep(
+      item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1, 0L);
+  }
+
+  /**
+   * @return {@code true} iff this octant contains the given bounds
+   */
+
+  boolean contains(
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1,
+    final double item_z0,
+    final double item_z1)
+  {
+    return Regions.containsVolume(
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ(),
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1,
+      item_z0,
+      item_z1);
+  }
+
+  /**
+   * Grow the tree towards the given bounds. A new root octant is created
+   * with twice the width, height and depth of this octant, which must be
+   * the current root, and this octant becomes one of its children.
+   *
+   * @return The new root, or {@code null} if the tree cannot grow further
+   */
+
+  @Nullable IntOctTreeOctantD expandTowards(
+    final double item_x0,
+    final double item_y0,
+    final double item_z0)
+  {
+    final boolean lower_x = item_x0 < this.volume.minimumX();
+    final boolean lower_y = item_y0 < this.volume.minimumY();
+    final boolean lower_z = item_z0 < this.volume.minimumZ();
+    final Optional<VolumeD> extended_opt =
+      OctantsD.extend(this.volume, lower_x, lower_y, lower_z);
+    if (!extended_opt.isPresent()) {
+      return null;
+    }
+
+    final VolumeD extended = extended_opt.get();
+    final double split_x =
+      lower_x ? this.volume.minimumX() : this.volume.maximumX();
+    final double split_y =
+      lower_y ? this.volume.minimumY() : this.volume.maximumY();
+    final double split_z =
+      lower_z ? this.volume.minimumZ() : this.volume.maximumZ();
+
+    final IntOctTreeOctantD root =
+      new IntOctTreeOctantD(this.tree, null, extended);
+    final int index = (lower_x ? 1 : 0) + (lower_y ? 2 : 0) + (lower_z ? 4 : 0);
+    root.x0y0z0 = root.adopt(this, index, 0, VolumeD.of(
+      extended.minimumX(), split_x,
+      extended.minimumY(), split_y,
+      extended.minimumZ(), split_z));
+    root.x1y0z0 = root.adopt(this, index, 1, VolumeD.of(
+      split_x, extended.maximumX(),
+      extended.minimumY(), split_y,
+      extended.minimumZ(), split_z));
+    root.x0y1z0 = root.adopt(this, index, 2, VolumeD.of(
+      extended.minimumX(), split_x,
+      split_y, extended.maximumY(),
+      extended.minimumZ(), split_z));
+    root.x1y1z0 = root.adopt(this, index, 3, VolumeD.of(
+      split_x, extended.maximumX(),
+      split_y, extended.maximumY(),
+      extended.minimumZ(), split_z));
+    root.x0y0z1 = root.adopt(this, index, 4, VolumeD.of(
+      extended.minimumX(), split_x,
+      extended.minimumY(), split_y,
+      split_z, extended.maximumZ()));
+    root.x1y0z1 = root.adopt(this, index, 5, VolumeD.of(
+      split_x, extended.maximumX(),
+      extended.minimumY(), split_y,
+      split_z, extended.maximumZ()));
+    root.x0y1z1 = root.adopt(this, index, 6, VolumeD.of(
+      extended.minimumX(), split_x,
+      split_y, extended.maximumY(),
+      split_z, extended.maximumZ()));
+    root.x1y1z1 = root.adopt(this, index, 7, VolumeD.of(
+      split_x, extended.maximumX(),
+      split_y, extended.maximumY(),
+      split_z, extended.maximumZ()));
+
+    root.subtree_objects = this.subtree_objects;
+    this.parent = root;
+    this.bounds = OctantsD.loosen(
+      this.volume, this.tree.configuration().looseness());
+    return root;
+  }
+
+  private IntOctTreeOctantD adopt(
+    final IntOctTreeOctantD original,
+    final int original_index,
+    final int index,
+    final VolumeD child_volume)
+  {
+    if (index == original_index) {
+      return original;
+    }
+    return new IntOctTreeOctantD(this.tree, this, child_volume);
+  }
+
+  private boolean insertStep(
+    final int item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1,
+    final double item_z0,
+    final double item_z1,
+    final long depth)
+  {
+    /*
+     * The object will be held by this node or one of its descendants.
+     */
+
+    ++this.subtree_objects;
+
+    /*
+     * If this node is a leaf, is full, and is large enough to split, do so.
+     * Otherwise, insert the handle directly into the leaf.
+     */
+
+    if (this.isLeaf()) {
+      if (this.isFull() && this.canSplit(depth)) {
+        this.split(depth);
+      } else {
+        return this.insertObject(
+          item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+      }
+    }
+
+    /*
+     * See if the handle will fit in any of the child nodes, and insert it
+     * into this node if it will not.
+     */
+
+    Invariants.checkInvariant(!this.isLeaf(), "Node is not a leaf");
+
+    final int index = this.childIndexContaining(
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    if (index < 8) {
+      return this.child(index).insertStep(
+        item,
+        item_x0,
+        item_x1,
+        item_y0,
+        item_y1,
+        item_z0,
+        item_z1,
+        Math.addExact(depth, 1L));
+    }
+
+    return this.insertObject(
+      item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+  }
+
+  private boolean insertObject(
+    final int item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1,
+    final double item_z0,
+    final double item_z1)
+  {
+    this.tree.objectIndex().put(item, this);
+    this.octant_objects.addVolume(
+      item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    return true;
+  }
+
+  private void split(final long depth)
+  {
+    Preconditions.checkPrecondition(
+      this.canSplit(depth), "Octant can split");
+
+    final VolumeXYZSplitD<VolumeD> q = OctantsD.subdivide(this.volume);
+    this.x0y0z0 = new IntOctTreeOctantD(this.tree, this, q.x0y0z0());
+    this.x0y1z0 = new IntOctTreeOctantD(this.tree, this, q.x0y1z0());
+    this.x1y0z0 = new IntOctTreeOctantD(this.tree, this, q.x1y0z0());
+    this.x1y1z0 = new IntOctTreeOctantD(this.tree, this, q.x1y1z0());
+
+    this.x0y0z1 = new IntOctTreeOctantD(this.tree, this, q.x0y0z1());
+    this.x0y1z1 = new IntOctTreeOctantD(this.tree, this, q.x0y1z1());
+    this.x1y0z1 = new IntOctTreeOctantD(this.tree, this, q.x1y0z1());
+    this.x1y1z1 = new IntOctTreeOctantD(this.tree, this, q.x1y1z1());
+    this.redistribute(depth);
+  }
+
+  /**
+   * Move any handles held by this (newly split) octant into the child
+   * octants that can contain them.
+   */
+
+  private void redistribute(final long depth)
+  {
+    final long child_depth = Math.addExact(depth, 1L);
+    int index = 0;
+    while (index < this.octant_objects.size()) {
+      final int item = this.octant_objects.item(index);
+      final double[] coordinates = this.octant_objects.coordinates();
+      final int base = index * 6;
+      final double item_x0 = coordinates[base];
+      final double item_x1 = coordinates[base + 1];
+      final double item_y0 = coordinates[base + 2];
+      final double item_y1 = coordinates[base + 3];
+      final double item_z0 = coordinates[base + 4];
+      final double item_z1 = coordinates[base + 5];
+      final int child_index = this.childIndexContaining(
+        item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+      if (child_index < 8) {
+        this.octant_objects.removeAt(index);
+        this.child(child_index).insertStep(
+          item,
+          item_x0,
+          item_x1,
+          item_y0,
+          item_y1,
+          item_z0,
+          item_z1,
+          child_depth);
+      } else {
+        ++index;
+      }
+    }
+  }
+
+  /**
+   * @return The index of the first child that can contain the given
+   * bounds, or {@code 8} if no child can contain them
+   */
+
+  private int childIndexContaining(
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1,
+    final double item_z0,
+    final double item_z1)
+  {
+    if (this.tree.configuration().looseness() > 1.0) {
+      return this.childIndexLoose(
+        item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    }
+
+    for (int index = 0; index < 8; ++index) {
+      final IntOctTreeOctantD child = this.child(index);
+      if (child.contains(
+        item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+        return index;
+      }
+    }
+    return 8;
+  }
+
+  /**
+   * @return The index of the child whose volume contains the centre of the
+   * given bounds, if the loose bounds of that child also contain them, or
+   * {@code 8} otherwise
+   */
+
+  private int childIndexLoose(
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1,
+    final double item_z0,
+    final double item_z1)
+  {
+    final double centre_x = item_x0 + ((item_x1 - item_x0) / 2.0);
+    final double centre_y = item_y0 + ((item_y1 - item_y0) / 2.0);
+    final double centre_z = item_z0 + ((item_z1 - item_z0) / 2.0);
+
+    final IntOctTreeOctantD upper = this.child(7);
+    int index = 0;
+    if (centre_x >= upper.volume.minimumX()) {
+      index += 1;
+    }
+    if (centre_y >= upper.volume.minimumY()) {
+      index += 2;
+    }
+    if (centre_z >= upper.volume.minimumZ()) {
+      index += 4;
+    }
+
+    if (this.child(index).contains(
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+      return index;
+    }
+    return 8;
+  }
+
+  private boolean isFull()
+  {
+    final int maximum = this.tree.configuration().maximumObjectsPerLeaf();
+    return maximum <= 0 || this.octant_objects.size() >= maximum;
+  }
+
+  private boolean canSplit(final long depth)
+  {
+    if (depth >= this.tree.configuration().maximumDepth()) {
+      return false;
+    }
+
+    final double min_width =
+      Math.max(0.0001, this.tree.configuration().minimumOctantWidth());
+    final double min_height =
+      Math.max(0.0001, this.tree.configuration().minimumOctantHeight());
+    final double min_depth =
+      Math.max(0.0001, this.tree.configuration().minimumOctantDepth());
+
+    final double half_width = this.volume.sizeX() / 2.0;
+    final double half_height = this.volume.sizeY() / 2.0;
+    final double half_depth = this.volume.sizeZ() / 2.0;
+
+    return half_width >= min_width
+      && half_height >= min_height
+      && half_depth >= min_depth;
+  }
+
+  private boolean isLeaf()
+  {
+    return this.x0y0z0 == null;
+  }
+
+  /**
+   * Move a handle held by this octant to new bounds. The nearest ancestor
+   * (or this octant itself) that can contain the new bounds is located by
+   * climbing the tree, and the handle is re-inserted from there.
+   */
+
+  void moveObject(
+    final int item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1,
+    final double item_z0,
+    final double item_z1)
+  {
+    final int index = this.octant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Handle must be in this octant");
+
+    this.octant_objects.removeAt(index);
+    this.tree.objectIndex().remove(item);
+
+    /*
+     * The object leaves every octant between this octant and the
+     * ancestor that can contain the new bounds, and is counted again from
+     * that ancestor downwards when it is reinserted.
+     */
+
+    IntOctTreeOctantD ancestor = this;
+    --ancestor.subtree_objects;
+    while (!ancestor.contains(
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+      Invariants.checkInvariant(
+        ancestor.parent != null,
+        "Root octant must contain the bounds");
+      ancestor = ancestor.parent;
+      --ancestor.subtree_objects;
+    }
+
+    final boolean inserted = ancestor.insertStep(
+      item,
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1,
+      item_z0,
+      item_z1,
+      ancestor.depth());
+    Invariants.checkInvariant(inserted, "Handle must have been inserted");
+
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive();
+    }
+  }
+
+  private long depth()
+  {
+    long depth = 0L;
+    IntOctTreeOctantD current = this.parent;
+    while (current != null) {
+      depth = depth + 1L;
+      current = current.parent;
+    }
+    return depth;
+  }
+
+  /**
+   * Record a visit to this octant. The depth of the octant is only
+   * computed if statistics are being collected.
+   */
+
+  private void visited(final QueryCounters counters)
+  {
+    if (counters.isEnabled()) {
+      counters.visit(this.depth());
+    }
+  }
+
+  void removeObject(final int item)
+  {
+    final int index = this.octant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Handle must be in this octant");
+
+    this.octant_objects.removeAt(index);
+    this.tree.objectIndex().remove(item);
+    for (IntOctTreeOctantD node = this; node != null; node = node.parent) {
+      --node.subtree_objects;
+    }
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive();
+    }
+  }
+
+  VolumeD boundsOf(final int item)
+  {
+    final int index = this.octant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Handle must be in this octant");
+
+    final double[] coordinates = this.octant_objects.coordinates();
+    final int base = index * 6;
+    return VolumeD.of(
+      coordinates[base],
+      coordinates[base + 1],
+      coordinates[base + 2],
+      coordinates[base + 3],
+      coordinates[base + 4],
+      coordinates[base + 5]);
+  }
+
+  private TreeVisitResult report(
+    final IntOctTreeQueryConsumerDType consumer,
+    final int index,
+    final QueryCounters counters)
+  {
+    final double[] coordinates = this.octant_objects.coordinates();
+    final int base = index * 6;
+    counters.hits(1L);
+    return consumer.accept(
+      this.octant_objects.item(index),
+      coordinates[base],
+      coordinates[base + 1],
+      coordinates[base + 2],
+      coordinates[base + 3],
+      coordinates[base + 4],
+      coordinates[base + 5]);
+  }
+
+  TreeVisitResult volumeContaining(
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final double target_z0,
+    final double target_z1,
+    final IntOctTreeQueryConsumerDType consumer,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    counters.testNodes(1);
+
+    /*
+     * If the target volume completely contains this octant, collect
+     * everything in this octant and all children of this octant.
+     */
+
+    if (Regions.containsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ())) {
+      return this.collectRecursive(consumer, counters);
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * An object contained within the target volume lies within both the
+     * target volume and this octant, so an octant that does not
+     * intersect the target volume cannot hold any results.
+     */
+
+    if (!Regions.intersectsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ())) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    counters.testObjects(this.octant_objects.size());
+    final double[] coordinates = this.octant_objects.coordinates();
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      final int base = index * 6;
+      if (Regions.containsVolume(
+        target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+        coordinates[base],
+        coordinates[base + 1],
+        coordinates[base + 2],
+        coordinates[base + 3],
+        coordinates[base + 4],
+        coordinates[base + 5])) {
+        if (this.report(consumer, index, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        if (this.child(index).volumeContaining(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          consumer, counters) == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  private TreeVisitResult collectRecursive(
+    final IntOctTreeQueryConsumerDType consumer,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      if (this.report(consumer, index, counters)
+        == TreeVisitResult.RESULT_TERMINATE) {
+        return TreeVisitResult.RESULT_TERMINATE;
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        if (this.child(index).collectRecursive(consumer, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The number of objects held by this octant and its descendants
+   * that are completely contained within the target volume
+   */
+
+  long countContaining(
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final double target_z0,
+    final double target_z1,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return 0L;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * If the target volume completely contains this octant, it contains
+     * every object in this octant and all children of this octant.
+     */
+
+    if (Regions.containsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ())) {
+      return (long) this.subtree_objects;
+    }
+
+    counters.testNodes(1);
+    if (!Regions.intersectsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ())) {
+      return 0L;
+    }
+
+    counters.testObjects(this.octant_objects.size());
+    long count = 0L;
+    final double[] coordinates = this.octant_objects.coordinates();
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      final int base = index * 6;
+      if (Regions.containsVolume(
+        target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+        coordinates[base],
+        coordinates[base + 1],
+        coordinates[base + 2],
+        coordinates[base + 3],
+        coordinates[base + 4],
+        coordinates[base + 5])) {
+        ++count;
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        count += this.child(index).countContaining(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1, counters);
+      }
+    }
+    return count;
+  }
+
+  TreeVisitResult volumeOverlapping(
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final double target_z0,
+    final double target_z1,
+    final IntOctTreeQueryConsumerDType consumer,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    if (Regions.overlapsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ())) {
+      final double[] coordinates = this.octant_objects.coordinates();
+
+      final int size = this.octant_objects.size();
+      counters.testObjects(size);
+      for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+        long hits = BoundsEngines.get().overlapsVolume(
+          coordinates,
+          first,
+          Math.min(BoundsEngines.BLOCK_SIZE, size - first),
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1);
+
+        while (hits != 0L) {
+          final int index = first + Long.numberOfTrailingZeros(hits);
+          hits &= hits - 1L;
+          if (this.report(consumer, index, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      if (!this.isLeaf()) {
+        for (int index = 0; index < 8; ++index) {
+          if (this.child(index).volumeOverlapping(
+            target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+            consumer, counters) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * Pass the objects in this octant and its descendants that are
+   * intersected by {@code ray} to {@code consumer}. If {@code entry} is
+   * {@code true}, the distance passed for each object is the parametric
+   * distance at which the ray enters the bounds of the object. Otherwise,
+   * it is the distance from the origin of the ray to the minimum corner of
+   * the bounds.
+   */
+
+  TreeVisitResult raycast(
+    final Ray3D ray,
+    final IntOctTreeRaycastConsumerDType consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    if (ray.intersectsVolume(
+      this.bounds.minimumX(),
+      this.bounds.minimumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumX(),
+      this.bounds.maximumY(),
+      this.bounds.maximumZ())) {
+      final int size = this.octant_objects.size();
+      counters.testObjects(size);
+      final double[] coordinates = this.octant_objects.coordinates();
+      for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+        long hits = BoundsEngines.get().intersectsVolume(
+          ray,
+          coordinates,
+          first,
+          Math.min(BoundsEngines.BLOCK_SIZE, size - first));
+
+        while (hits != 0L) {
+          final int index = first + Long.numberOfTrailingZeros(hits);
+          hits &= hits - 1L;
+
+          final int base = index * 6;
+          counters.hits(1L);
+          if (consumer.accept(
+            this.octant_objects.item(index),
+            coordinates[base],
+            coordinates[base + 1],
+            coordinates[base + 2],
+            coordinates[base + 3],
+            coordinates[base + 4],
+            coordinates[base + 5],
+            hitDistance(ray, coordinates, base, entry))
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      if (!this.isLeaf()) {
+        for (int index = 0; index < 8; ++index) {
+          if (this.child(index).raycast(ray, consumer, entry, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The distance from the origin of {@code ray} to the given point
+   */
+
+  private static double rayDistance(
+    final Ray3D ray,
+    final double x,
+    final double y,
+    final double z)
+  {
+    final Vector3D origin = ray.origin();
+    final double dx = x - origin.x();
+    final double dy = y - origin.y();
+    final double dz = z - origin.z();
+    return Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+  }
+
+  /**
+   * @return The parametric distance at which {@code ray} enters the bounds
+   * at {@code base} if {@code entry} is {@code true}, or the distance from
+   * the origin of {@code ray} to the minimum corner of the bounds otherwise
+   */
+
+  private static double hitDistance(
+    final Ray3D ray,
+    final double[] coordinates,
+    final int base,
+    final boolean entry)
+  {
+    if (entry) {
+      return ray.intersectionParameterVolume(
+        coordinates[base],
+        coordinates[base + 2],
+        coordinates[base + 4],
+        coordinates[base + 1],
+        coordinates[base + 3],
+        coordinates[base + 5]);
+    }
+    return rayDistance(
+      ray, coordinates[base], coordinates[base + 2], coordinates[base + 4]);
+  }
+
+  /**
+   * @return The child at {@code index}, in the order {@code x0y0z0},
+   * {@code x1y0z0}, {@code x0y1z0}, {@code x1y1z0}, {@code x0y0z1},
+   * {@code x1y0z1}, {@code x0y1z1}, {@code x1y1z1}
+   */
+
+  private IntOctTreeOctantD child(final int index)
+  {
+    switch (index) {
+      case 0:
+        return this.x0y0z0;
+      case 1:
+        return this.x1y0z0;
+      case 2:
+        return this.x0y1z0;
+      case 3:
+        return this.x1y1z0;
+      case 4:
+        return this.x0y0z1;
+      case 5:
+        return this.x1y0z1;
+      case 6:
+        return this.x0y1z1;
+      case 7:
+        return this.x1y1z1;
+      default:
+        throw new UnreachableCodeException();
+    }
+  }
+
+  VolumeD volume()
+  {
+    return this.volume;
+  }
+
+  /**
+   * Attempt to turn this node back into a leaf.
+   */
+
+  private void unsplitAttempt()
+  {
+    if (!this.isLeaf()) {
+      boolean prune = true;
+      for (int index = 0; index < 8; ++index) {
+        prune = prune && this.child(index).unsplitCanPrune();
+      }
+
+      if (prune) {
+        this.x0y0z0 = null;
+        this.x0y1z0 = null;
+        this.x1y0z0 = null;
+        this.x1y1z0 = null;
+        this.x0y0z1 = null;
+        this.x0y1z1 = null;
+        this.x1y0z1 = null;
+        this.x1y1z1 = null;
+      }
+    }
+  }
+
+  /**
+   * Attempt to turn this node and as many ancestors of this node back into
+   * leaves as possible.
+   */
+
+  private void unsplitAttemptRecursive()
+  {
+    this.unsplitAttempt();
+    if (this.parent != null) {
+      this.parent.unsplitAttemptRecursive();
+    }
+  }
+
+  private boolean unsplitCanPrune()
+  {
+    return this.isLeaf() && this.octant_objects.isEmpty();
+  }
+
+  /**
+   * Trim all empty descendants of this octant.
+   */
+
+  void trim()
+  {
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        this.child(index).trim();
+      }
+      this.unsplitAttempt();
+    }
+  }
+}
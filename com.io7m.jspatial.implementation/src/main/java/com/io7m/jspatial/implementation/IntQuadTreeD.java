@@ -0,0 +1,295 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeQueryListenerType;
+import com.io7m.jspatial.api.quadtrees.IntQuadTreeDType;
+import com.io7m.jspatial.api.quadtrees.IntQuadTreeQueryConsumerDType;
+import com.io7m.jspatial.api.quadtrees.IntQuadTreeRaycastConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationD;
+import it.unimi.dsi.fastutil.ints.Int2ReferenceOpenHashMap;
+
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * Default implementation of the {@link IntQuadTreeDType} interface.
+ */
+
+public final class IntQuadTreeD implements IntQuadTreeDType
+{
+  private final Int2ReferenceOpenHashMap<IntQuadTreeQuadrantD> objects;
+  private final QuadTreeConfigurationD config;
+  private IntQuadTreeQuadrantD root;
+  private @Nullable TreeQueryListenerType listener;
+
+  private IntQuadTreeD(final QuadTreeConfigurationD in_config)
+  {
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.root = new IntQuadTreeQuadrantD(this, null, in_config.area());
+    this.objects = new Int2ReferenceOpenHashMap<>();
+  }
+
+  /**
+   * Create a new empty tree with the given bounds.
+   *
+   * @param config The tree configuration
+   *
+   * @return A new tree
+   */
+
+  public static IntQuadTreeDType create(
+    final QuadTreeConfigurationD config)
+  {
+    return new IntQuadTreeD(config);
+  }
+
+  /**
+   * @return The tree configuration
+   */
+
+  QuadTreeConfigurationD configuration()
+  {
+    return this.config;
+  }
+
+  /**
+   * @return The map from each handle in the tree to the quadrant that holds it
+   */
+
+  Int2ReferenceOpenHashMap<IntQuadTreeQuadrantD> objectIndex()
+  {
+    return this.objects;
+  }
+
+  @Override
+  public AreaD bounds()
+  {
+    return this.root.area();
+  }
+
+  @Override
+  public boolean contains(final int item)
+  {
+    return this.objects.containsKey(item);
+  }
+
+  @Override
+  public AreaD areaFor(final int item)
+  {
+    final @Nullable IntQuadTreeQuadrantD quadrant = this.objects.get(item);
+    if (quadrant == null) {
+      throw new NoSuchElementException(Integer.toString(item));
+    }
+    return quadrant.boundsOf(item);
+  }
+
+  @Override
+  public boolean insert(
+    final int item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    Regions.checkArea(x0, x1, y0, y1);
+
+    if (this.objects.containsKey(item)) {
+      this.remove(item);
+      Invariants.checkInvariant(
+        !this.objects.containsKey(item), "Handle must not be in tree");
+    }
+
+    return this.expandToContain(x0, x1, y0, y1)
+      && this.root.insert(item, x0, x1, y0, y1);
+  }
+
+  @Override
+  public boolean remove(final int item)
+  {
+    final @Nullable IntQuadTreeQuadrantD quadrant = this.objects.get(item);
+    if (quadrant == null) {
+      return false;
+    }
+
+    quadrant.removeObject(item);
+    return true;
+  }
+
+  @Override
+  public boolean move(
+    final int item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    Regions.checkArea(x0, x1, y0, y1);
+
+    final @Nullable IntQuadTreeQuadrantD quadrant = this.objects.get(item);
+    if (quadrant == null) {
+      return false;
+    }
+
+    if (!this.expandToContain(x0, x1, y0, y1)) {
+      return false;
+    }
+
+    quadrant.moveObject(item, x0, x1, y0, y1);
+    return true;
+  }
+
+  @Override
+  public void clear()
+  {
+    this.root = new IntQuadTreeQuadrantD(this, null, this.root.area());
+    this.objects.clear();
+  }
+
+  /**
+   * Grow the root of the tree until it contains the given bounds, if the
+   * tree is configured to expand.
+   *
+   * @return {@code true} iff the root of the tree contains the given bounds
+   */
+
+  private boolean expandToContain(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    if (this.config.expandable()) {
+      while (!this.root.contains(x0, x1, y0, y1)) {
+        final @Nullable IntQuadTreeQuadrantD expanded =
+          this.root.expandTowards(x0, y0);
+        if (expanded == null) {
+          return false;
+        }
+        this.root = expanded;
+      }
+      return true;
+    }
+    return this.root.contains(x0, x1, y0, y1);
+  }
+
+  @Override
+  public void trim()
+  {
+    this.root.trim();
+  }
+
+  @Override
+  public void setQueryListener(
+    final Optional<TreeQueryListenerType> in_listener)
+  {
+    NullCheck.notNull(in_listener, "Listener");
+    this.listener = in_listener.orElse(null);
+  }
+
+  @Override
+  public long size()
+  {
+    return (long) this.objects.size();
+  }
+
+  @Override
+  public void containedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final IntQuadTreeQueryConsumerDType consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.root.areaContaining(x0, x1, y0, y1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+  }
+
+  @Override
+  public long count(final AreaD area)
+  {
+    NullCheck.notNull(area, "Area");
+    return this.count(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY());
+  }
+
+  @Override
+  public long count(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    final long count = this.root.countContaining(x0, x1, y0, y1, counters);
+    counters.hits(count);
+    counters.report(TreeQueryKind.QUERY_COUNT);
+    return count;
+  }
+
+  @Override
+  public void overlappedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final IntQuadTreeQueryConsumerDType consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.root.areaOverlapping(x0, x1, y0, y1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
+  }
+
+  @Override
+  public void raycast(
+    final Ray2D ray,
+    final IntQuadTreeRaycastConsumerDType consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.root.raycast(ray, consumer, false, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+
+  @Override
+  public void raycastEntry(
+    final Ray2D ray,
+    final IntQuadTreeRaycastConsumerDType consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.root.raycast(ray, consumer, true, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+}
@@ -0,0 +1,867 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jaffirm.core.Preconditions;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
+import com.io7m.jregions.core.unparameterized.areas.AreaXYSplitD;
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.IntQuadTreeQueryConsumerDType;
+import com.io7m.jspatial.api.quadtrees.IntQuadTreeRaycastConsumerDType;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.util.Optional;
+
+/**
+ * A quadrant within an {@link IntQuadTreeD}. The structure and the rules for
+ * splitting and unsplitting quadrants are the same as those of
+ * {@link QuadTreeQuadrantD}, but the quadrant holds {@code int} handles.
+ */
+
+final class IntQuadTreeQuadrantD
+{
+  private final IntQuadTreeD tree;
+  private final AreaD area;
+  private AreaD bounds;
+  private final NodeHandlesD quadrant_objects;
+  private @Nullable IntQuadTreeQuadrantD parent;
+  private int subtree_objects;
+  private @Nullable IntQuadTreeQuadrantD x0y0;
+  private @Nullable IntQuadTreeQuadrantD x0y1;
+  private @Nullable IntQuadTreeQuadrantD x1y0;
+  private @Nullable IntQuadTreeQuadrantD x1y1;
+
+  IntQuadTreeQuadrantD(
+    final IntQuadTreeD in_tree,
+    final @Nullable IntQuadTreeQuadrantD in_parent,
+    final AreaD in_area)
+  {
+    this.tree = NullCheck.notNull(in_tree, "Tree");
+    this.parent = in_parent;
+    this.area = NullCheck.notNull(in_area, "Area");
+    if (in_parent == null) {
+      this.bounds = this.area;
+    } else {
+      this.bounds = QuadrantsD.loosen(
+        this.area, this.tree.configuration().looseness());
+    }
+    this.quadrant_objects = new NodeHandlesD(4);
+  }
+
+  boolean insert(
+    final int item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    Preconditions.checkPreconditionI(
+      item,
+      !this.tree.objectIndex().containsKey(item),
+      x -> "Handle must not be in tree");
+
+    return this.contains(item_x0, item_x1, item_y0, item_y1)
+      && this.insertStep(item, item_x0, item_x1, item_y0, item_y1, 0L);
+  }
+
+  /**
+   * @return {@code true} iff this quadrant contains the given bounds
+   */
+
+  boolean contains(
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    return Regions.containsArea(
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1);
+  }
+
+  /**
+   * Grow the tree towards the given bounds. A new root quadrant is created
+   * with twice the width and height of this quadrant, which must be the
+   * current root, and this quadrant becomes one of its children.
+   *
+   * @return The new root, or {@code null} if the tree cannot grow further
+   */
+
+  @Nullable IntQuadTreeQuadrantD expandTowards(
+    final double item_x0,
+    final double item_y0)
+  {
+    final boolean lower_x = item_x0 < this.area.minimumX();
+    final boolean lower_y = item_y0 < this.area.minimumY();
+    final Optional<AreaD> extended_opt =
+      QuadrantsD.extend(this.area, lower_x, lower_y);
+    if (!extended_opt.isPresent()) {
+      return null;
+    }
+
+    final AreaD extended = extended_opt.get();
+    final double split_x =
+      lower_x ? this.area.minimumX() : this.area.maximumX();
+    final double split_y =
+      lower_y ? this.area.minimumY() : this.area.maximumY();
+
+    final IntQuadTreeQuadrantD root =
+      new IntQuadTreeQuadrantD(this.tree, null, extended);
+    final int index = (lower_x ? 1 : 0) + (lower_y ? 2 : 0);
+    root.x0y0 = root.adopt(this, index, 0, AreaD.of(
+      extended.minimumX(), split_x,
+      extended.minimumY(), split_y));
+    root.x1y0 = root.adopt(this, index, 1, AreaD.of(
+      split_x, extended.maximumX(),
+      extended.minimumY(), split_y));
+    root.x0y1 = root.adopt(this, index, 2, AreaD.of(
+      extended.minimumX(), split_x,
+      split_y, extended.maximumY()));
+    root.x1y1 = root.adopt(this, index, 3, AreaD.of(
+      split_x, extended.maximumX(),
+      split_y, extended.maximumY()));
+
+    root.subtree_objects = this.subtree_objects;
+    this.parent = root;
+    this.bounds = QuadrantsD.loosen(
+      this.area, this.tree.configuration().looseness());
+    return root;
+  }
+
+  private IntQuadTreeQuadrantD adopt(
+    final IntQuadTreeQuadrantD original,
+    final int original_index,
+    final int index,
+    final AreaD child_area)
+  {
+    if (index == original_index) {
+      return original;
+    }
+    return new IntQuadTreeQuadrantD(this.tree, this, child_area);
+  }
+
+  private boolean insertStep(
+    final int item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1,
+    final long depth)
+  {
+    /*
+     * The object will be held by this node or one of its descendants.
+     */
+
+    ++this.subtree_objects;
+
+    /*
+     * If this node is a leaf, is full, and is large enough to split, do so.
+     * Otherwise, insert the handle directly into the leaf.
+     */
+
+    if (this.isLeaf()) {
+      if (this.isFull() && this.canSplit(depth)) {
+        this.split(depth);
+      } else {
+        return this.insertObject(item, item_x0, item_x1, item_y0, item_y1);
+      }
+    }
+
+    /*
+     * See if the handle will fit in any of the child nodes, and insert it
+     * into this node if it will not.
+     */
+
+    Invariants.checkInvariant(!this.isLeaf(), "Node is not a leaf");
+
+    final int index =
+      this.childIndexContaining(item_x0, item_x1, item_y0, item_y1);
+    if (index < 4) {
+      return this.child(index).insertStep(
+        item, item_x0, item_x1, item_y0, item_y1, Math.addExact(depth, 1L));
+    }
+
+    return this.insertObject(item, item_x0, item_x1, item_y0, item_y1);
+  }
+
+  private boolean insertObject(
+    final int item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    this.tree.objectIndex().put(item, this);
+    this.quadrant_objects.addArea(item, item_x0, item_x1, item_y0, item_y1);
+    return true;
+  }
+
+  private void split(final long depth)
+  {
+    Preconditions.checkPrecondition(
+      this.canSplit(depth), "Quadrant can split");
+
+    final AreaXYSplitD<AreaD> q = QuadrantsD.subdivide(this.area);
+    this.x0y0 = new IntQuadTreeQuadrantD(this.tree, this, q.x0y0());
+    this.x0y1 = new IntQuadTreeQuadrantD(this.tree, this, q.x0y1());
+    this.x1y0 = new IntQuadTreeQuadrantD(this.tree, this, q.x1y0());
+    this.x1y1 = new IntQuadTreeQuadrantD(this.tree, this, q.x1y1());
+    this.redistribute(depth);
+  }
+
+  /**
+   * Move any handles held by this (newly split) quadrant into the child
+   * quadrants that can contain them.
+   */
+
+  private void redistribute(final long depth)
+  {
+    final long child_depth = Math.addExact(depth, 1L);
+    int index = 0;
+    while (index < this.quadrant_objects.size()) {
+      final int item = this.quadrant_objects.item(index);
+      final double[] coordinates = this.quadrant_objects.coordinates();
+      final int base = index * 4;
+      final double item_x0 = coordinates[base];
+      final double item_x1 = coordinates[base + 1];
+      final double item_y0 = coordinates[base + 2];
+      final double item_y1 = coordinates[base + 3];
+      final int child_index =
+        this.childIndexContaining(item_x0, item_x1, item_y0, item_y1);
+      if (child_index < 4) {
+        this.quadrant_objects.removeAt(index);
+        this.child(child_index).insertStep(
+          item, item_x0, item_x1, item_y0, item_y1, child_depth);
+      } else {
+        ++index;
+      }
+    }
+  }
+
+  /**
+   * @return The index of the first child that can contain the given
+   * bounds, or {@code 4} if no child can contain them
+   */
+
+  private int childIndexContaining(
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    if (this.tree.configuration().looseness() > 1.0) {
+      return this.childIndexLoose(item_x0, item_x1, item_y0, item_y1);
+    }
+
+    for (int index = 0; index < 4; ++index) {
+      if (this.child(index).contains(item_x0, item_x1, item_y0, item_y1)) {
+        return index;
+      }
+    }
+    return 4;
+  }
+
+  /**
+   * @return The index of the child whose area contains the centre of the
+   * given bounds, if the loose bounds of that child also contain them, or
+   * {@code 4} otherwise
+   */
+
+  private int childIndexLoose(
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    final double centre_x = item_x0 + ((item_x1 - item_x0) / 2.0);
+    final double centre_y = item_y0 + ((item_y1 - item_y0) / 2.0);
+
+    final IntQuadTreeQuadrantD upper = this.child(3);
+    int index = 0;
+    if (centre_x >= upper.area.minimumX()) {
+      index += 1;
+    }
+    if (centre_y >= upper.area.minimumY()) {
+      index += 2;
+    }
+
+    if (this.child(index).contains(item_x0, item_x1, item_y0, item_y1)) {
+      return index;
+    }
+    return 4;
+  }
+
+  private boolean isFull()
+  {
+    final int maximum = this.tree.configuration().maximumObjectsPerLeaf();
+    return maximum <= 0 || this.quadrant_objects.size() >= maximum;
+  }
+
+  private boolean canSplit(final long depth)
+  {
+    if (depth >= this.tree.configuration().maximumDepth()) {
+      return false;
+    }
+
+    final double min_width =
+      Math.max(0.0001, this.tree.configuration().minimumQuadrantWidth());
+    final double min_height =
+      Math.max(0.0001, this.tree.configuration().minimumQuadrantHeight());
+
+    final double half_width = this.area.width() / 2.0;
+    final double half_height = this.area.height() / 2.0;
+
+    return half_width >= min_width && half_height >= min_height;
+  }
+
+  private boolean isLeaf()
+  {
+    return this.x0y0 == null;
+  }
+
+  /**
+   * Move a handle held by this quadrant to new bounds. The nearest ancestor
+   * (or this quadrant itself) that can contain the new bounds is located by
+   * climbing the tree, and the handle is re-inserted from there.
+   */
+
+  void moveObject(
+    final int item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    final int index = this.quadrant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Handle must be in this quadrant");
+
+    this.quadrant_objects.removeAt(index);
+    this.tree.objectIndex().remove(item);
+
+    /*
+     * The object leaves every quadrant between this quadrant and the
+     * ancestor that can contain the new bounds, and is counted again from
+     * that ancestor downwards when it is reinserted.
+     */
+
+    IntQuadTreeQuadrantD ancestor = this;
+    --ancestor.subtree_objects;
+    while (!ancestor.contains(item_x0, item_x1, item_y0, item_y1)) {
+      Invariants.checkInvariant(
+        ancestor.parent != null,
+        "Root quadrant must contain the bounds");
+      ancestor = ancestor.parent;
+      --ancestor.subtree_objects;
+    }
+
+    final boolean inserted = ancestor.insertStep(
+      item, item_x0, item_x1, item_y0, item_y1, ancestor.depth());
+    Invariants.checkInvariant(inserted, "Handle must have been inserted");
+
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive();
+    }
+  }
+
+  private long depth()
+  {
+    long depth = 0L;
+    IntQuadTreeQuadrantD current = this.parent;
+    while (current != null) {
+      depth = depth + 1L;
+      current = current.parent;
+    }
+    return depth;
+  }
+
+  /**
+   * Record a visit to this quadrant. The depth of the quadrant is only
+   * computed if statistics are being collected.
+   */
+
+  private void visited(final QueryCounters counters)
+  {
+    if (counters.isEnabled()) {
+      counters.visit(this.depth());
+    }
+  }
+
+  void removeObject(final int item)
+  {
+    final int index = this.quadrant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Handle must be in this quadrant");
+
+    this.quadrant_objects.removeAt(index);
+    this.tree.objectIndex().remove(item);
+    for (IntQuadTreeQuadrantD node = this; node != null; node = node.parent) {
+      --node.subtree_objects;
+    }
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive();
+    }
+  }
+
+  AreaD boundsOf(final int item)
+  {
+    final int index = this.quadrant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Handle must be in this quadrant");
+
+    final double[] coordinates = this.quadrant_objects.coordinates();
+    final int base = index * 4;
+    return AreaD.of(
+      coordinates[base],
+      coordinates[base + 1],
+      coordinates[base + 2],
+      coordinates[base + 3]);
+  }
+
+  private TreeVisitResult report(
+    final IntQuadTreeQueryConsumerDType consumer,
+    final int index,
+    final QueryCounters counters)
+  {
+    final double[] coordinates = this.quadrant_objects.coordinates();
+    final int base = index * 4;
+    counters.hits(1L);
+    return consumer.accept(
+      this.quadrant_objects.item(index),
+      coordinates[base],
+      coordinates[base + 1],
+      coordinates[base + 2],
+      coordinates[base + 3]);
+  }
+
+  TreeVisitResult areaContaining(
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final IntQuadTreeQueryConsumerDType consumer,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    counters.testNodes(1);
+
+    /*
+     * If the target area completely contains this quadrant, collect
+     * everything in this quadrant and all children of this quadrant.
+     */
+
+    if (Regions.containsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY())) {
+      return this.collectRecursive(consumer, counters);
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * An object contained within the target area lies within both the
+     * target area and this quadrant, so a quadrant that does not
+     * intersect the target area cannot hold any results.
+     */
+
+    if (!Regions.intersectsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY())) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    counters.testObjects(this.quadrant_objects.size());
+    final double[] coordinates = this.quadrant_objects.coordinates();
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      final int base = index * 4;
+      if (Regions.containsArea(
+        target_x0, target_x1, target_y0, target_y1,
+        coordinates[base],
+        coordinates[base + 1],
+        coordinates[base + 2],
+        coordinates[base + 3])) {
+        if (this.report(consumer, index, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 4; ++index) {
+        if (this.child(index).areaContaining(
+          target_x0, target_x1, target_y0, target_y1,
+          consumer, counters) == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  private TreeVisitResult collectRecursive(
+    final IntQuadTreeQueryConsumerDType consumer,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      if (this.report(consumer, index, counters)
+        == TreeVisitResult.RESULT_TERMINATE) {
+        return TreeVisitResult.RESULT_TERMINATE;
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 4; ++index) {
+        if (this.child(index).collectRecursive(consumer, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The number of objects held by this quadrant and its descendants
+   * that are completely contained within the target area
+   */
+
+  long countContaining(
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return 0L;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * If the target area completely contains this quadrant, it contains
+     * every object in this quadrant and all children of this quadrant.
+     */
+
+    if (Regions.containsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY())) {
+      return (long) this.subtree_objects;
+    }
+
+    counters.testNodes(1);
+    if (!Regions.intersectsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY())) {
+      return 0L;
+    }
+
+    counters.testObjects(this.quadrant_objects.size());
+    long count = 0L;
+    final double[] coordinates = this.quadrant_objects.coordinates();
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      final int base = index * 4;
+      if (Regions.containsArea(
+        target_x0, target_x1, target_y0, target_y1,
+        coordinates[base],
+        coordinates[base + 1],
+        coordinates[base + 2],
+        coordinates[base + 3])) {
+        ++count;
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 4; ++index) {
+        count += this.child(index).countContaining(
+          target_x0, target_x1, target_y0, target_y1, counters);
+      }
+    }
+    return count;
+  }
+
+  TreeVisitResult areaOverlapping(
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final IntQuadTreeQueryConsumerDType consumer,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    if (Regions.overlapsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY())) {
+      final double[] coordinates = this.quadrant_objects.coordinates();
+
+      final int size = this.quadrant_objects.size();
+      counters.testObjects(size);
+      for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+        long hits = BoundsEngines.get().overlapsArea(
+          coordinates,
+          first,
+          Math.min(BoundsEngines.BLOCK_SIZE, size - first),
+          target_x0, target_x1, target_y0, target_y1);
+
+        while (hits != 0L) {
+          final int index = first + Long.numberOfTrailingZeros(hits);
+          hits &= hits - 1L;
+          if (this.report(consumer, index, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      if (!this.isLeaf()) {
+        for (int index = 0; index < 4; ++index) {
+          if (this.child(index).areaOverlapping(
+            target_x0, target_x1, target_y0, target_y1,
+            consumer, counters) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * Pass the objects in this quadrant and its descendants that are
+   * intersected by {@code ray} to {@code consumer}. If {@code entry} is
+   * {@code true}, the distance passed for each object is the parametric
+   * distance at which the ray enters the bounds of the object. Otherwise,
+   * it is the distance from the origin of the ray to the minimum corner of
+   * the bounds.
+   */
+
+  TreeVisitResult raycast(
+    final Ray2D ray,
+    final IntQuadTreeRaycastConsumerDType consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    if (ray.intersectsArea(
+      this.bounds.minimumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumX(),
+      this.bounds.maximumY())) {
+      final int size = this.quadrant_objects.size();
+      counters.testObjects(size);
+      final double[] coordinates = this.quadrant_objects.coordinates();
+      for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+        long hits = BoundsEngines.get().intersectsArea(
+          ray,
+          coordinates,
+          first,
+          Math.min(BoundsEngines.BLOCK_SIZE, size - first));
+
+        while (hits != 0L) {
+          final int index = first + Long.numberOfTrailingZeros(hits);
+          hits &= hits - 1L;
+
+          final int base = index * 4;
+          counters.hits(1L);
+          if (consumer.accept(
+            this.quadrant_objects.item(index),
+            coordinates[base],
+            coordinates[base + 1],
+            coordinates[base + 2],
+            coordinates[base + 3],
+            hitDistance(ray, coordinates, base, entry))
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      if (!this.isLeaf()) {
+        for (int index = 0; index < 4; ++index) {
+          if (this.child(index).raycast(ray, consumer, entry, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The distance from the origin of {@code ray} to the given point
+   */
+
+  private static double rayDistance(
+    final Ray2D ray,
+    final double x,
+    final double y)
+  {
+    final Vector2D origin = ray.origin();
+    final double dx = x - origin.x();
+    final double dy = y - origin.y();
+    return Math.sqrt((dx * dx) + (dy * dy));
+  }
+
+  /**
+   * @return The parametric distance at which {@code ray} enters the bounds
+   * at {@code base} if {@code entry} is {@code true}, or the distance from
+   * the origin of {@code ray} to the minimum corner of the bounds otherwise
+   */
+
+  private static double hitDistance(
+    final Ray2D ray,
+    final double[] coordinates,
+    final int base,
+    final boolean entry)
+  {
+    if (entry) {
+      return ray.intersectionParameterArea(
+        coordinates[base],
+        coordinates[base + 2],
+        coordinates[base + 1],
+        coordinates[base + 3]);
+    }
+    return rayDistance(ray, coordinates[base], coordinates[base + 2]);
+  }
+
+  /**
+   * @return The child at {@code index}, in the order {@code x0y0},
+   * {@code x1y0}, {@code x0y1}, {@code x1y1}
+   */
+
+  private IntQuadTreeQuadrantD child(final int index)
+  {
+    switch (index) {
+      case 0:
+        return this.x0y0;
+      case 1:
+        return this.x1y0;
+      case 2:
+        return this.x0y1;
+      case 3:
+        return this.x1y1;
+      default:
+        throw new UnreachableCodeException();
+    }
+  }
+
+  AreaD area()
+  {
+    return this.area;
+  }
+
+  /**
+   * Attempt to turn this node back into a leaf.
+   */
+
+  private void unsplitAttempt()
+  {
+    if (!this.isLeaf()) {
+      boolean prune = true;
+      for (int index = 0; index < 4; ++index) {
+        prune = prune && this.child(index).unsplitCanPrune();
+      }
+
+      if (prune) {
+        this.x0y0 = null;
+        this.x0y1 = null;
+        this.x1y0 = null;
+        this.x1y1 = null;
+      }
+    }
+  }
+
+  /**
+   * Attempt to turn this node and as many ancestors of this node back into
+   * leaves as possible.
+   */
+
+  private void unsplitAttemptRecursive()
+  {
+    this.unsplitAttempt();
+    if (this.parent != null) {
+      this.parent.unsplitAttemptRecursive();
+    }
+  }
+
+  private boolean unsplitCanPrune()
+  {
+    return this.isLeaf() && this.quadrant_objects.isEmpty();
+  }
+
+  /**
+   * Trim all empty descendants of this quadrant.
+   */
+
+  void trim()
+  {
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 4; ++index) {
+        this.child(index).trim();
+      }
+      this.unsplitAttempt();
+    }
+  }
+}
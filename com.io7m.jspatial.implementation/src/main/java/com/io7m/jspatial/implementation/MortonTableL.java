@@ -0,0 +1,601 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jaffirm.core.Preconditions;
+import com.io7m.jnull.Nullable;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.Reference2LongMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+
+import java.util.Arrays;
+
+/**
+ * The nodes of a linear tree, identified by Morton (Z-order) keys and stored
+ * in parallel arrays sorted by key instead of as linked node objects.
+ *
+ * A key packs the path from the root to a node into the upper bits of a
+ * {@code long}, and the depth of the node into the lower {@link #LEVEL_BITS}
+ * bits. Each step of the path is a child index in which bit 0 selects the
+ * upper X half, bit 1 the upper Y half, and bit 2 (for octtrees) the upper Z
+ * half, so the path interleaves the bits of the cell coordinates of the node
+ * at its depth. Paths are aligned to the most significant end, so sorting
+ * the keys places every node before its descendants, and places the nodes
+ * of any subtree in a contiguous range of the arrays, with the children of
+ * each node in order of their index.
+ *
+ * The objects of each node are held in a {@link NodeObjectsL} that is only
+ * allocated once the node holds an object. A table may be copied for a
+ * snapshot by way of {@link #copy()}: The arrays of the table are copied
+ * immediately, but the collections of objects are shared, and each is
+ * copied the first time that it is modified.
+ *
+ * @param <T> The type of objects
+ */
+
+final class MortonTableL<T>
+{
+  /**
+   * The number of bits of a key that hold the depth of a node.
+   */
+
+  static final int LEVEL_BITS = 5;
+
+  private static final long LEVEL_MASK = (1L << LEVEL_BITS) - 1L;
+  private static final int PATH_BITS = Long.SIZE - 1 - LEVEL_BITS;
+
+  private final int digit_bits;
+  private final int fanout;
+  private final int stride;
+  private final int maximum_level;
+  private long[] keys;
+  private int[] subtree;
+  private Object[] objects;
+  private boolean[] owned;
+  private int size;
+
+  /**
+   * Construct a table.
+   *
+   * @param in_digit_bits The number of bits in each step of a path
+   * @param in_stride     The stride of the coordinates of objects
+   * @param in_root       {@code true} if the table should initially hold an
+   *                      empty root node
+   */
+
+  MortonTableL(
+    final int in_digit_bits,
+    final int in_stride,
+    final boolean in_root)
+  {
+    this.digit_bits = in_digit_bits;
+    this.fanout = 1 << in_digit_bits;
+    this.stride = in_stride;
+    this.maximum_level = PATH_BITS / in_digit_bits;
+    this.keys = new long[16];
+    this.subtree = new int[16];
+    this.objects = new Object[16];
+    this.owned = new boolean[16];
+    this.size = 0;
+    if (in_root) {
+      this.append(0L);
+    }
+  }
+
+  /**
+   * Copy the table. The arrays of keys and subtree sizes are copied, so this
+   * takes {@code O(n)} time in the number of nodes, but the collections of
+   * objects are shared until either table modifies them.
+   *
+   * @return A copy of this table
+   */
+
+  MortonTableL<T> copy()
+  {
+    final MortonTableL<T> result =
+      new MortonTableL<>(this.digit_bits, this.stride, false);
+    result.keys = Arrays.copyOf(this.keys, this.keys.length);
+    result.subtree = Arrays.copyOf(this.subtree, this.subtree.length);
+    result.objects = Arrays.copyOf(this.objects, this.objects.length);
+    result.owned = new boolean[this.owned.length];
+    result.size = this.size;
+    return result;
+  }
+
+  /**
+   * @param key A node key
+   *
+   * @return The depth of the node with the given key
+   */
+
+  static int level(final long key)
+  {
+    return (int) (key & LEVEL_MASK);
+  }
+
+  /**
+   * @return The greatest depth of any node that can be represented
+   */
+
+  int maximumLevel()
+  {
+    return this.maximum_level;
+  }
+
+  /**
+   * @return The number of nodes
+   */
+
+  int size()
+  {
+    return this.size;
+  }
+
+  /**
+   * @param index The node index
+   *
+   * @return The key of the node at {@code index}
+   */
+
+  long key(final int index)
+  {
+    return this.keys[index];
+  }
+
+  /**
+   * @param index The node index
+   *
+   * @return The number of objects held by the node and its descendants
+   */
+
+  int subtree(final int index)
+  {
+    return this.subtree[index];
+  }
+
+  /**
+   * Adjust the number of objects held by the node at {@code index} and its
+   * descendants.
+   *
+   * @param index The node index
+   * @param delta The amount to add
+   */
+
+  void addSubtree(
+    final int index,
+    final int delta)
+  {
+    this.subtree[index] = this.subtree[index] + delta;
+  }
+
+  /**
+   * Set the number of objects held by the node at {@code index} and its
+   * descendants.
+   *
+   * @param index The node index
+   * @param count The number of objects
+   */
+
+  void setSubtree(
+    final int index,
+    final int count)
+  {
+    this.subtree[index] = count;
+  }
+
+  /**
+   * @param index The node index
+   *
+   * @return The objects held directly by the node, if any have been allocated
+   */
+
+  @SuppressWarnings("unchecked")
+  @Nullable NodeObjectsL<T> objects(final int index)
+  {
+    return (NodeObjectsL<T>) this.objects[index];
+  }
+
+  /**
+   * @param index The node index
+   *
+   * @return The number of objects held directly by the node
+   */
+
+  int objectCount(final int index)
+  {
+    final @Nullable NodeObjectsL<T> node_objects = this.objects(index);
+    return node_objects == null ? 0 : node_objects.size();
+  }
+
+  /**
+   * @param index The node index
+   *
+   * @return The objects held directly by the node, allocated or copied
+   * first if they are absent or shared with a snapshot
+   */
+
+  NodeObjectsL<T> ownObjects(final int index)
+  {
+    final @Nullable NodeObjectsL<T> current = this.objects(index);
+    if (this.owned[index] && current != null) {
+      return current;
+    }
+
+    final NodeObjectsL<T> result;
+    if (current == null) {
+      result = new NodeObjectsL<>(this.stride);
+    } else {
+      result = current.copy();
+    }
+    this.objects[index] = result;
+    this.owned[index] = true;
+    return result;
+  }
+
+  /**
+   * @param key   A node key
+   * @param child A child index
+   *
+   * @return The key of the given child of the node with key {@code key}
+   */
+
+  long childKey(
+    final long key,
+    final int child)
+  {
+    final int level = level(key);
+    final int shift = this.digit_bits * (this.maximum_level - level - 1);
+    final long path = (key >>> LEVEL_BITS) | ((long) child << shift);
+    return (path << LEVEL_BITS) | (long) (level + 1);
+  }
+
+  /**
+   * @param key A node key, which must not be the key of the root
+   *
+   * @return The index of the node with key {@code key} within its parent
+   */
+
+  int digit(final long key)
+  {
+    final int shift = this.digit_bits * (this.maximum_level - level(key));
+    return (int) ((key >>> (LEVEL_BITS + shift)) & (long) (this.fanout - 1));
+  }
+
+  /**
+   * @param key A node key, which must not be the key of the root
+   *
+   * @return The key of the parent of the node with key {@code key}
+   */
+
+  long parentKey(final long key)
+  {
+    final int level = level(key);
+    final int shift = this.digit_bits * (this.maximum_level - level);
+    final long mask = (long) (this.fanout - 1) << shift;
+    final long path = (key >>> LEVEL_BITS) & ~mask;
+    return (path << LEVEL_BITS) | (long) (level - 1);
+  }
+
+  /**
+   * @param key A node key
+   *
+   * @return The index of the node with the given key
+   */
+
+  int find(final long key)
+  {
+    final int index = Arrays.binarySearch(this.keys, 0, this.size, key);
+    Invariants.checkInvariant(index >= 0, "Node must exist");
+    return index;
+  }
+
+  /**
+   * @param index The node index
+   *
+   * @return {@code true} iff the node at {@code index} has no children
+   */
+
+  boolean isLeaf(final int index)
+  {
+    final int next = index + 1;
+    return next >= this.size
+      || this.keys[next] != this.childKey(this.keys[index], 0);
+  }
+
+  /**
+   * @param index The index of a node that is not a leaf
+   * @param child A child index
+   *
+   * @return The index of the given child of the node
+   */
+
+  int child(
+    final int index,
+    final int child)
+  {
+    if (child == 0) {
+      return index + 1;
+    }
+
+    final int result = Arrays.binarySearch(
+      this.keys,
+      index + 1,
+      this.size,
+      this.childKey(this.keys[index], child));
+    Invariants.checkInvariant(result >= 0, "Child must exist");
+    return result;
+  }
+
+  /**
+   * @param index The node index
+   *
+   * @return The index of the first node after the node at {@code index} that
+   * is not one of its descendants
+   */
+
+  int end(final int index)
+  {
+    final long key = this.keys[index];
+    final int level = level(key);
+    if (level == 0) {
+      return this.size;
+    }
+
+    final long span = 1L << (this.digit_bits * (this.maximum_level - level));
+    final long path_end = (key >>> LEVEL_BITS) + span;
+    if (path_end >= 1L << PATH_BITS) {
+      return this.size;
+    }
+
+    final int result = Arrays.binarySearch(
+      this.keys, index + 1, this.size, path_end << LEVEL_BITS);
+    return result >= 0 ? result : -(result + 1);
+  }
+
+  private void reserve(final int count)
+  {
+    final int required = this.size + count;
+    if (required > this.keys.length) {
+      final int capacity = Math.max(required, this.keys.length * 2);
+      this.keys = Arrays.copyOf(this.keys, capacity);
+      this.subtree = Arrays.copyOf(this.subtree, capacity);
+      this.objects = Arrays.copyOf(this.objects, capacity);
+      this.owned = Arrays.copyOf(this.owned, capacity);
+    }
+  }
+
+  private void open(
+    final int index,
+    final int count)
+  {
+    this.reserve(count);
+    final int moved = this.size - index;
+    System.arraycopy(this.keys, index, this.keys, index + count, moved);
+    System.arraycopy(this.subtree, index, this.subtree, index + count, moved);
+    System.arraycopy(this.objects, index, this.objects, index + count, moved);
+    System.arraycopy(this.owned, index, this.owned, index + count, moved);
+    this.size = this.size + count;
+  }
+
+  private void close(
+    final int index,
+    final int count)
+  {
+    final int moved = this.size - (index + count);
+    System.arraycopy(this.keys, index + count, this.keys, index, moved);
+    System.arraycopy(this.subtree, index + count, this.subtree, index, moved);
+    System.arraycopy(this.objects, index + count, this.objects, index, moved);
+    System.arraycopy(this.owned, index + count, this.owned, index, moved);
+    this.size = this.size - count;
+    Arrays.fill(this.objects, this.size, this.size + count, null);
+  }
+
+  private void set(
+    final int index,
+    final long key)
+  {
+    this.keys[index] = key;
+    this.subtree[index] = 0;
+    this.objects[index] = null;
+    this.owned[index] = true;
+  }
+
+  /**
+   * Add an empty node with the given key after all existing nodes. The key
+   * must be greater than the keys of all existing nodes.
+   *
+   * @param key The node key
+   *
+   * @return The index of the new node
+   */
+
+  int append(final long key)
+  {
+    Preconditions.checkPrecondition(
+      this.size == 0 || this.keys[this.size - 1] < key,
+      "Keys must be appended in order");
+
+    this.reserve(1);
+    final int index = this.size;
+    this.size = this.size + 1;
+    this.set(index, key);
+    return index;
+  }
+
+  /**
+   * Add all of the nodes of {@code other} after all existing nodes. The
+   * keys of {@code other} must be greater than the keys of all existing
+   * nodes.
+   *
+   * @param other The nodes to add
+   */
+
+  void appendAll(final MortonTableL<T> other)
+  {
+    if (other.size == 0) {
+      return;
+    }
+
+    Preconditions.checkPrecondition(
+      this.size == 0 || this.keys[this.size - 1] < other.keys[0],
+      "Keys must be appended in order");
+
+    this.reserve(other.size);
+    System.arraycopy(other.keys, 0, this.keys, this.size, other.size);
+    System.arraycopy(other.subtree, 0, this.subtree, this.size, other.size);
+    System.arraycopy(other.objects, 0, this.objects, this.size, other.size);
+    System.arraycopy(other.owned, 0, this.owned, this.size, other.size);
+    this.size = this.size + other.size;
+  }
+
+  /**
+   * Add empty children to the leaf node at {@code index}. The children
+   * immediately follow the node.
+   *
+   * @param index The node index
+   */
+
+  void split(final int index)
+  {
+    Preconditions.checkPrecondition(this.isLeaf(index), "Node is a leaf");
+
+    final long key = this.keys[index];
+    this.open(index + 1, this.fanout);
+    for (int child = 0; child < this.fanout; ++child) {
+      this.set(index + 1 + child, this.childKey(key, child));
+    }
+  }
+
+  /**
+   * Remove the children of the node at {@code index}, all of which must be
+   * leaves.
+   *
+   * @param index The node index
+   */
+
+  void unsplit(final int index)
+  {
+    Preconditions.checkPrecondition(!this.isLeaf(index), "Node has children");
+    Preconditions.checkPrecondition(
+      this.end(index) == index + 1 + this.fanout,
+      "Children must be leaves");
+    this.close(index + 1, this.fanout);
+  }
+
+  /**
+   * Adjust the subtree counts of the node with the given key and all of its
+   * ancestors.
+   *
+   * @param key   The node key
+   * @param delta The amount to add
+   */
+
+  void addSubtreeAlongPath(
+    final long key,
+    final int delta)
+  {
+    long current = key;
+    while (true) {
+      this.addSubtree(this.find(current), delta);
+      if (level(current) == 0) {
+        return;
+      }
+      current = this.parentKey(current);
+    }
+  }
+
+  /**
+   * Make the current root the child {@code digit} of a new, larger root. The
+   * other children of the new root are empty leaves, and the keys of all
+   * existing nodes (and the keys recorded for objects in {@code index}) are
+   * extended by one step accordingly. Any nodes at the greatest
+   * representable depth are first merged into their parents.
+   *
+   * @param digit The child index of the current root within the new root
+   * @param index The map from objects to the keys of the nodes that hold them
+   */
+
+  void raise(
+    final int digit,
+    final Reference2LongOpenHashMap<T> index)
+  {
+    this.foldDeepest(index);
+
+    for (int node = 0; node < this.size; ++node) {
+      this.keys[node] = this.raiseKey(this.keys[node], digit);
+    }
+
+    final ObjectIterator<Reference2LongMap.Entry<T>> iter =
+      index.reference2LongEntrySet().fastIterator();
+    while (iter.hasNext()) {
+      final Reference2LongMap.Entry<T> entry = iter.next();
+      entry.setValue(this.raiseKey(entry.getLongValue(), digit));
+    }
+
+    final int count = this.subtree[0];
+    this.open(0, 1);
+    this.set(0, 0L);
+    this.subtree[0] = count;
+
+    for (int child = 0; child < this.fanout; ++child) {
+      if (child != digit) {
+        final long key = this.childKey(0L, child);
+        final int position =
+          -(Arrays.binarySearch(this.keys, 0, this.size, key) + 1);
+        this.open(position, 1);
+        this.set(position, key);
+      }
+    }
+  }
+
+  private long raiseKey(
+    final long key,
+    final int digit)
+  {
+    final int level = level(key);
+    final int shift = this.digit_bits * (this.maximum_level - 1);
+    final long path =
+      ((long) digit << shift) | ((key >>> LEVEL_BITS) >>> this.digit_bits);
+    return (path << LEVEL_BITS) | (long) (level + 1);
+  }
+
+  /**
+   * Merge every node at the greatest representable depth into its parent.
+   */
+
+  private void foldDeepest(final Reference2LongOpenHashMap<T> index)
+  {
+    final int parent_level = this.maximum_level - 1;
+    for (int node = this.size - 1; node >= 0; --node) {
+      if (level(this.keys[node]) == parent_level && !this.isLeaf(node)) {
+        final long key = this.keys[node];
+        for (int child = 1; child <= this.fanout; ++child) {
+          final @Nullable NodeObjectsL<T> child_objects =
+            this.objects(node + child);
+          if (child_objects != null) {
+            for (int item = 0; item < child_objects.size(); ++item) {
+              this.ownObjects(node).addFrom(child_objects, item);
+              index.put(child_objects.item(item), key);
+            }
+          }
+        }
+        this.unsplit(node);
+      }
+    }
+  }
+}
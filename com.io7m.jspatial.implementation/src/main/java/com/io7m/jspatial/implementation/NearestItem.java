@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+/**
+ * An item found by a nearest neighbour query, along with its bounds and its
+ * distance from the query point.
+ *
+ * @param <T> The type of items
+ * @param <B> The type of item bounds
+ */
+
+final class NearestItem<T, B> implements Comparable<NearestItem<T, B>>
+{
+  private final double distance;
+  private final T item;
+  private final B bounds;
+
+  NearestItem(
+    final double in_distance,
+    final T in_item,
+    final B in_bounds)
+  {
+    this.distance = in_distance;
+    this.item = in_item;
+    this.bounds = in_bounds;
+  }
+
+  /**
+   * @return The distance from the query point to the item
+   */
+
+  double distance()
+  {
+    return this.distance;
+  }
+
+  /**
+   * @return The item
+   */
+
+  T item()
+  {
+    return this.item;
+  }
+
+  /**
+   * @return The bounds of the item
+   */
+
+  B bounds()
+  {
+    return this.bounds;
+  }
+
+  @Override
+  public int compareTo(final NearestItem<T, B> other)
+  {
+    return Double.compare(this.distance, other.distance);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.NullCheck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A bounded collection of the results nearest to some point of interest.
+ *
+ * <p>At most {@code limit} results are retained. Traversals use
+ * {@link #bound()} to discard results, and entire nodes of a tree, that
+ * cannot possibly be nearer than the results that have already been
+ * found.</p>
+ *
+ * @param <R> The type of results
+ */
+
+final class NearestResults<R extends Comparable<? super R>>
+{
+  private final PriorityQueue<R> queue;
+  private final ToDoubleFunction<R> distance;
+  private final double maximum_distance;
+  private final int limit;
+
+  NearestResults(
+    final ToDoubleFunction<R> in_distance,
+    final double in_maximum_distance,
+    final int in_limit)
+  {
+    this.distance = NullCheck.notNull(in_distance, "Distance");
+    this.maximum_distance = in_maximum_distance;
+    this.limit = in_limit;
+    this.queue = new PriorityQueue<>(
+      Math.max(1, Math.min(in_limit, 64)) + 1,
+      Collections.reverseOrder());
+  }
+
+  /**
+   * @return The distance beyond which results cannot be accepted
+   */
+
+  double bound()
+  {
+    if (this.queue.size() < this.limit) {
+      return this.maximum_distance;
+    }
+    return Math.min(
+      this.maximum_distance,
+      this.distance.applyAsDouble(this.queue.peek()));
+  }
+
+  /**
+   * Add a result. The caller is expected to have checked that the distance of
+   * the result is not greater than {@link #bound()}.
+   *
+   * @param result The result
+   */
+
+  void add(final R result)
+  {
+    this.queue.add(result);
+    if (this.queue.size() > this.limit) {
+      this.queue.poll();
+    }
+  }
+
+  /**
+   * @return The number of results currently retained
+   */
+
+  int size()
+  {
+    return this.queue.size();
+  }
+
+  /**
+   * Remove all results, returning them in ascending order of distance.
+   *
+   * @return The results
+   */
+
+  List<R> drainSorted()
+  {
+    final List<R> output = new ArrayList<>(this.queue);
+    this.queue.clear();
+    Collections.sort(output);
+    return output;
+  }
+}
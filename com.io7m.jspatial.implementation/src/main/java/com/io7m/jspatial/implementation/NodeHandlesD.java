@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.util.Arrays;
+
+/**
+ * The {@code int} handles held by a single node of an {@code int}-keyed
+ * tree, stored in the same layout as {@link NodeObjectsD}: The handles are
+ * held in one array, and the bounds of the handles are packed into a single
+ * array of {@code double} coordinates.
+ *
+ * <p>A map from each handle to its index is maintained alongside the arrays
+ * so that {@link #indexOf} takes constant time, regardless of the number
+ * of handles held by the node.</p>
+ */
+
+final class NodeHandlesD
+{
+  private static final int[] EMPTY_ITEMS = new int[0];
+  private static final double[] EMPTY_COORDINATES = new double[0];
+
+  private final int stride;
+  private int[] items;
+  private double[] coordinates;
+  private int size;
+  private Int2IntOpenHashMap slots;
+
+  NodeHandlesD(final int in_stride)
+  {
+    this.stride = in_stride;
+    this.items = EMPTY_ITEMS;
+    this.coordinates = EMPTY_COORDINATES;
+    this.size = 0;
+    this.slots = new Int2IntOpenHashMap(0);
+    this.slots.defaultReturnValue(-1);
+  }
+
+  /**
+   * @return The number of handles
+   */
+
+  int size()
+  {
+    return this.size;
+  }
+
+  /**
+   * @return {@code true} iff there are no handles
+   */
+
+  boolean isEmpty()
+  {
+    return this.size == 0;
+  }
+
+  /**
+   * @param index The handle index
+   *
+   * @return The handle at {@code index}
+   */
+
+  int item(final int index)
+  {
+    return this.items[index];
+  }
+
+  /**
+   * Return the packed coordinate array. The coordinates of the handle at
+   * {@code index} begin at offset {@code index * stride}. The returned array
+   * is only valid until the next modification of this collection.
+   *
+   * @return The packed coordinates
+   */
+
+  double[] coordinates()
+  {
+    return this.coordinates;
+  }
+
+  private int reserve()
+  {
+    if (this.size == this.items.length) {
+      final int capacity = Math.max(4, this.size * 2);
+      this.items = Arrays.copyOf(this.items, capacity);
+      this.coordinates =
+        Arrays.copyOf(this.coordinates, capacity * this.stride);
+    }
+
+    final int index = this.size;
+    this.size = this.size + 1;
+    return index;
+  }
+
+  /**
+   * Add a handle with the given area.
+   *
+   * @param item The handle
+   * @param x0   The minimum X coordinate
+   * @param x1   The maximum X coordinate
+   * @param y0   The minimum Y coordinate
+   * @param y1   The maximum Y coordinate
+   *
+   * @return The index of the handle
+   */
+
+  int addArea(
+    final int item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    final int index = this.reserve();
+    final int base = index * this.stride;
+    this.items[index] = item;
+    this.slots.put(item, index);
+    this.coordinates[base] = x0;
+    this.coordinates[base + 1] = x1;
+    this.coordinates[base + 2] = y0;
+    this.coordinates[base + 3] = y1;
+    return index;
+  }
+
+  /**
+   * Add a handle with the given volume.
+   *
+   * @param item The handle
+   * @param x0   The minimum X coordinate
+   * @param x1   The maximum X coordinate
+   * @param y0   The minimum Y coordinate
+   * @param y1   The maximum Y coordinate
+   * @param z0   The minimum Z coordinate
+   * @param z1   The maximum Z coordinate
+   *
+   * @return The index of the handle
+   */
+
+  int addVolume(
+    final int item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    final int index = this.reserve();
+    final int base = index * this.stride;
+    this.items[index] = item;
+    this.slots.put(item, index);
+    this.coordinates[base] = x0;
+    this.coordinates[base + 1] = x1;
+    this.coordinates[base + 2] = y0;
+    this.coordinates[base + 3] = y1;
+    this.coordinates[base + 4] = z0;
+    this.coordinates[base + 5] = z1;
+    return index;
+  }
+
+  /**
+   * @param item The handle
+   *
+   * @return The index of the given handle, or {@code -1} if the handle is
+   * not present
+   */
+
+  int indexOf(final int item)
+  {
+    return this.slots.get(item);
+  }
+
+  /**
+   * Remove the handle at the given index. The last handle is moved into the
+   * vacated slot, so the order of handles is not preserved.
+   *
+   * @param index The handle index
+   */
+
+  void removeAt(final int index)
+  {
+    final int last = this.size - 1;
+    this.slots.remove(this.items[index]);
+    if (index != last) {
+      this.items[index] = this.items[last];
+      this.slots.put(this.items[index], index);
+      System.arraycopy(
+        this.coordinates,
+        last * this.stride,
+        this.coordinates,
+        index * this.stride,
+        this.stride);
+    }
+
+    this.size = last;
+  }
+}
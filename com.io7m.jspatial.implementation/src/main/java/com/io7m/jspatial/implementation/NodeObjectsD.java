@@ -0,0 +1,316 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.Nullable;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+
+import java.util.Arrays;
+
+/**
+ * The objects held by a single tree node, stored as a struct of arrays: The
+ * objects themselves are held in one array, and the bounds of the objects are
+ * packed into a single array of {@code double} coordinates. Each object
+ * occupies {@code stride} consecutive coordinates, in the order
+ * {@code x0, x1, y0, y1} for areas and {@code x0, x1, y0, y1, z0, z1} for
+ * volumes.
+ *
+ * <p>A map from each object to its index is maintained alongside the arrays
+ * so that {@link #indexOf} takes constant time, regardless of the number
+ * of objects held by the node.</p>
+ *
+ * <p>The collection may optionally retain a bounds object for each object,
+ * so that the bounds objects need not be recreated from the packed
+ * coordinates each time that they are requested.</p>
+ *
+ * @param <T> The type of objects
+ */
+
+final class NodeObjectsD<T> implements NodeObjectsType<T>
+{
+  private static final Object[] EMPTY_ITEMS = new Object[0];
+  private static final double[] EMPTY_COORDINATES = new double[0];
+
+  private final int stride;
+  private final boolean retain;
+  private Object[] items;
+  private double[] coordinates;
+  private @Nullable Object[] bounds;
+  private int size;
+  private Reference2IntOpenHashMap<Object> slots;
+
+  NodeObjectsD(final int in_stride)
+  {
+    this(in_stride, false);
+  }
+
+  NodeObjectsD(
+    final int in_stride,
+    final boolean in_retain)
+  {
+    this.stride = in_stride;
+    this.retain = in_retain;
+    this.items = EMPTY_ITEMS;
+    this.bounds = in_retain ? EMPTY_ITEMS : null;
+    this.coordinates = EMPTY_COORDINATES;
+    this.size = 0;
+    this.slots = new Reference2IntOpenHashMap<>(0);
+    this.slots.defaultReturnValue(-1);
+  }
+
+  /**
+   * @return A copy of this collection that shares no mutable state with it
+   */
+
+  NodeObjectsD<T> copy()
+  {
+    final NodeObjectsD<T> result = new NodeObjectsD<>(this.stride, this.retain);
+    if (this.size > 0) {
+      result.items = Arrays.copyOf(this.items, this.size);
+      final @Nullable Object[] current_bounds = this.bounds;
+      if (current_bounds != null) {
+        result.bounds = Arrays.copyOf(current_bounds, this.size);
+      }
+      result.coordinates =
+        Arrays.copyOf(this.coordinates, this.size * this.stride);
+      result.size = this.size;
+      result.slots = this.slots.clone();
+    }
+    return result;
+  }
+
+  /**
+   * @return The number of objects
+   */
+
+  @Override
+  public int size()
+  {
+    return this.size;
+  }
+
+  /**
+   * @return {@code true} iff there are no objects
+   */
+
+  boolean isEmpty()
+  {
+    return this.size == 0;
+  }
+
+  /**
+   * @param index The object index
+   *
+   * @return The object at {@code index}
+   */
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T item(final int index)
+  {
+    return (T) this.items[index];
+  }
+
+  /**
+   * Return the packed coordinate array. The coordinates of the object at
+   * {@code index} begin at offset {@code index * stride}. The returned array
+   * is only valid until the next modification of this collection.
+   *
+   * @return The packed coordinates
+   */
+
+  double[] coordinates()
+  {
+    return this.coordinates;
+  }
+
+  /**
+   * @return {@code true} iff this collection retains a bounds object for
+   * each object
+   */
+
+  boolean retainsBounds()
+  {
+    return this.retain;
+  }
+
+  /**
+   * @param index The object index
+   *
+   * @return The bounds object retained for the object at {@code index}, or
+   * {@code null} if this collection does not retain bounds objects
+   */
+
+  @Nullable Object bounds(final int index)
+  {
+    final @Nullable Object[] current_bounds = this.bounds;
+    if (current_bounds != null) {
+      return current_bounds[index];
+    }
+    return null;
+  }
+
+  /**
+   * Retain a bounds object for the object at {@code index}. The bounds must
+   * be equal to the packed coordinates of the object. This method has no
+   * effect if this collection does not retain bounds objects.
+   *
+   * @param index The object index
+   * @param value The bounds object
+   */
+
+  void setBounds(
+    final int index,
+    final Object value)
+  {
+    final @Nullable Object[] current_bounds = this.bounds;
+    if (current_bounds != null) {
+      current_bounds[index] = value;
+    }
+  }
+
+  private int reserve()
+  {
+    if (this.size == this.items.length) {
+      final int capacity = Math.max(4, this.size * 2);
+      this.items = Arrays.copyOf(this.items, capacity);
+      final @Nullable Object[] current_bounds = this.bounds;
+      if (current_bounds != null) {
+        this.bounds = Arrays.copyOf(current_bounds, capacity);
+      }
+      this.coordinates =
+        Arrays.copyOf(this.coordinates, capacity * this.stride);
+    }
+
+    final int index = this.size;
+    this.size = this.size + 1;
+    return index;
+  }
+
+  /**
+   * Add an object with the given area.
+   *
+   * @param item The object
+   * @param x0   The minimum X coordinate
+   * @param x1   The maximum X coordinate
+   * @param y0   The minimum Y coordinate
+   * @param y1   The maximum Y coordinate
+   *
+   * @return The index of the object
+   */
+
+  int addArea(
+    final T item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    final int index = this.reserve();
+    final int base = index * this.stride;
+    this.items[index] = item;
+    this.slots.put(item, index);
+    this.coordinates[base] = x0;
+    this.coordinates[base + 1] = x1;
+    this.coordinates[base + 2] = y0;
+    this.coordinates[base + 3] = y1;
+    return index;
+  }
+
+  /**
+   * Add an object with the given volume.
+   *
+   * @param item The object
+   * @param x0   The minimum X coordinate
+   * @param x1   The maximum X coordinate
+   * @param y0   The minimum Y coordinate
+   * @param y1   The maximum Y coordinate
+   * @param z0   The minimum Z coordinate
+   * @param z1   The maximum Z coordinate
+   *
+   * @return The index of the object
+   */
+
+  int addVolume(
+    final T item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    final int index = this.reserve();
+    final int base = index * this.stride;
+    this.items[index] = item;
+    this.slots.put(item, index);
+    this.coordinates[base] = x0;
+    this.coordinates[base + 1] = x1;
+    this.coordinates[base + 2] = y0;
+    this.coordinates[base + 3] = y1;
+    this.coordinates[base + 4] = z0;
+    this.coordinates[base + 5] = z1;
+    return index;
+  }
+
+  /**
+   * @param item The object
+   *
+   * @return The index of the given object (compared by reference), or
+   * {@code -1} if the object is not present
+   */
+
+  @Override
+  public int indexOf(final Object item)
+  {
+    return this.slots.getInt(item);
+  }
+
+  /**
+   * Remove the object at the given index. The last object is moved into the
+   * vacated slot, so the order of objects is not preserved.
+   *
+   * @param index The object index
+   */
+
+  void removeAt(final int index)
+  {
+    final int last = this.size - 1;
+    this.slots.removeInt(this.items[index]);
+    final @Nullable Object[] current_bounds = this.bounds;
+    if (index != last) {
+      this.items[index] = this.items[last];
+      this.slots.put(this.items[index], index);
+      if (current_bounds != null) {
+        current_bounds[index] = current_bounds[last];
+      }
+      System.arraycopy(
+        this.coordinates,
+        last * this.stride,
+        this.coordinates,
+        index * this.stride,
+        this.stride);
+    }
+
+    this.items[last] = null;
+    if (current_bounds != null) {
+      current_bounds[last] = null;
+    }
+    this.size = last;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * A read-only map view of the objects held by a single tree node. The view
+ * copies nothing: Lookups go directly to the node storage, and the bounds of
+ * each object are only constructed when they are requested.
+ *
+ * @param <T> The type of objects
+ * @param <R> The type of bounds
+ */
+
+final class NodeObjectsMap<T, R> extends AbstractMap<T, R>
+{
+  private final NodeObjectsType<T> objects;
+  private final IntFunction<R> bounds;
+  private final Set<Map.Entry<T, R>> entries;
+
+  NodeObjectsMap(
+    final NodeObjectsType<T> in_objects,
+    final IntFunction<R> in_bounds)
+  {
+    this.objects = Objects.requireNonNull(in_objects, "Objects");
+    this.bounds = Objects.requireNonNull(in_bounds, "Bounds");
+    this.entries = new Entries();
+  }
+
+  @Override
+  public int size()
+  {
+    return this.objects.size();
+  }
+
+  @Override
+  public boolean containsKey(final Object key)
+  {
+    return this.objects.indexOf(key) >= 0;
+  }
+
+  @Override
+  public R get(final Object key)
+  {
+    final int index = this.objects.indexOf(key);
+    if (index < 0) {
+      return null;
+    }
+    return this.bounds.apply(index);
+  }
+
+  @Override
+  public Set<Map.Entry<T, R>> entrySet()
+  {
+    return this.entries;
+  }
+
+  private final class Entries extends AbstractSet<Map.Entry<T, R>>
+  {
+    Entries()
+    {
+
+    }
+
+    @Override
+    public int size()
+    {
+      return NodeObjectsMap.this.objects.size();
+    }
+
+    @Override
+    public Iterator<Map.Entry<T, R>> iterator()
+    {
+      return new EntryIterator();
+    }
+  }
+
+  private final class EntryIterator implements Iterator<Map.Entry<T, R>>
+  {
+    private int index;
+
+    EntryIterator()
+    {
+      this.index = 0;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return this.index < NodeObjectsMap.this.objects.size();
+    }
+
+    @Override
+    public Map.Entry<T, R> next()
+    {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      final int current = this.index;
+      this.index = current + 1;
+      return new AbstractMap.SimpleImmutableEntry<>(
+        NodeObjectsMap.this.objects.item(current),
+        NodeObjectsMap.this.bounds.apply(current));
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+/**
+ * The objects held by a single tree node, independent of the type of
+ * coordinates used for their bounds.
+ *
+ * @param <T> The type of objects
+ */
+
+interface NodeObjectsType<T>
+{
+  /**
+   * @return The number of objects
+   */
+
+  int size();
+
+  /**
+   * @param index The object index
+   *
+   * @return The object at {@code index}
+   */
+
+  T item(int index);
+
+  /**
+   * @param item The object
+   *
+   * @return The index of the given object (compared by reference), or
+   * {@code -1} if the object is not present
+   */
+
+  int indexOf(Object item);
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+import java.util.Arrays;
+
+/**
+ * A minimum priority queue of tree nodes, keyed on the distance of each node
+ * from some point of interest. The queue stores keys and nodes in parallel
+ * arrays so that no allocation occurs per insertion once the arrays have
+ * grown to the size required by a query.
+ *
+ * @param <N> The type of nodes
+ */
+
+final class NodeQueue<N>
+{
+  private double[] distances;
+  private Object[] nodes;
+  private int size;
+
+  NodeQueue()
+  {
+    this.distances = new double[32];
+    this.nodes = new Object[32];
+    this.size = 0;
+  }
+
+  /**
+   * @return {@code true} iff the queue is empty
+   */
+
+  boolean isEmpty()
+  {
+    return this.size == 0;
+  }
+
+  /**
+   * @return The distance of the nearest node in the queue
+   */
+
+  double peekDistance()
+  {
+    return this.distances[0];
+  }
+
+  /**
+   * Add a node to the queue.
+   *
+   * @param node     The node
+   * @param distance The distance of the node
+   */
+
+  void add(
+    final N node,
+    final double distance)
+  {
+    if (this.size == this.distances.length) {
+      final int capacity = this.size * 2;
+      this.distances = Arrays.copyOf(this.distances, capacity);
+      this.nodes = Arrays.copyOf(this.nodes, capacity);
+    }
+
+    int index = this.size;
+    this.size = this.size + 1;
+    while (index > 0) {
+      final int parent = (index - 1) >>> 1;
+      if (this.distances[parent] <= distance) {
+        break;
+      }
+      this.distances[index] = this.distances[parent];
+      this.nodes[index] = this.nodes[parent];
+      index = parent;
+    }
+    this.distances[index] = distance;
+    this.nodes[index] = node;
+  }
+
+  /**
+   * Remove the nearest node from the queue.
+   *
+   * @return The nearest node
+   */
+
+  @SuppressWarnings("unchecked")
+  N poll()
+  {
+    final N result = (N) this.nodes[0];
+
+    this.size = this.size - 1;
+    final double last_distance = this.distances[this.size];
+    final Object last_node = this.nodes[this.size];
+    this.nodes[this.size] = null;
+
+    int index = 0;
+    final int half = this.size >>> 1;
+    while (index < half) {
+      int child = (index << 1) + 1;
+      final int right = child + 1;
+      if (right < this.size && this.distances[right] < this.distances[child]) {
+        child = right;
+      }
+      if (last_distance <= this.distances[child]) {
+        break;
+      }
+      this.distances[index] = this.distances[child];
+      this.nodes[index] = this.nodes[child];
+      index = child;
+    }
+
+    if (this.size > 0) {
+      this.distances[index] = last_distance;
+      this.nodes[index] = last_node;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,1593 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeQueryListenerType;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchQueryConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchRaycastConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationD;
+import com.io7m.jspatial.api.octtrees.OctTreeDType;
+import com.io7m.jspatial.api.octtrees.OctTreeNearestConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeOctantIterationDType;
+import com.io7m.jspatial.api.octtrees.OctTreeQueryConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastResultD;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableDType;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+import com.io7m.jtensors.core.unparameterized.vectors.Vectors3D;
+import com.io7m.junreachable.UnreachableCodeException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+
+/**
+ * <p>A read-only octtree produced by compiling an {@link OctTreeD}.</p>
+ *
+ * <p>The octants are numbered in breadth-first order, so the eight children
+ * of any octant are adjacent. Each octant occupies a fixed-size record in
+ * a direct buffer holding its loose bounds, the index of its first child, the
+ * range of objects that it holds, the number of objects in its subtree, and
+ * its depth.
+ * The bounds of the objects are packed into a second direct buffer in the
+ * same order, so that the objects of an octant are contiguous. Only the
+ * objects themselves, and the index used to look them up, remain on the
+ * heap.</p>
+ *
+ * <p>The buffers are only ever read using absolute operations, and so the
+ * tree may be queried from any number of threads without
+ * synchronization.</p>
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class OctTreeCompiledD<T> implements OctTreeReadableDType<T>
+{
+  private static final int NODE_X0 = 0;
+  private static final int NODE_X1 = 8;
+  private static final int NODE_Y0 = 16;
+  private static final int NODE_Y1 = 24;
+  private static final int NODE_Z0 = 32;
+  private static final int NODE_Z1 = 40;
+  private static final int NODE_CHILD = 48;
+  private static final int NODE_FIRST = 52;
+  private static final int NODE_COUNT = 56;
+  private static final int NODE_SUBTREE = 60;
+  private static final int NODE_DEPTH = 64;
+  private static final int NODE_SIZE = 72;
+
+  private static final int VOLUME_SIZE = 48;
+  private static final int OBJECT_SIZE = 48;
+
+  private static final int LEAF = -1;
+
+  private final OctTreeConfigurationD config;
+  private final ByteBuffer nodes;
+  private final ByteBuffer volumes;
+  private final ByteBuffer coordinates;
+  private final Object[] items;
+  private final Reference2IntOpenHashMap<T> index;
+  private final @Nullable TreeQueryListenerType listener;
+
+  private OctTreeCompiledD(
+    final OctTreeConfigurationD in_config,
+    final ByteBuffer in_nodes,
+    final ByteBuffer in_volumes,
+    final ByteBuffer in_coordinates,
+    final Object[] in_items,
+    final Reference2IntOpenHashMap<T> in_index,
+    final @Nullable TreeQueryListenerType in_listener)
+  {
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.nodes = NullCheck.notNull(in_nodes, "Nodes");
+    this.volumes = NullCheck.notNull(in_volumes, "Volumes");
+    this.coordinates = NullCheck.notNull(in_coordinates, "Coordinates");
+    this.items = NullCheck.notNull(in_items, "Items");
+    this.index = NullCheck.notNull(in_index, "Index");
+    this.listener = in_listener;
+  }
+
+  private static ByteBuffer allocate(
+    final int count,
+    final int size)
+  {
+    return ByteBuffer.allocateDirect(Math.multiplyExact(count, size))
+      .order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Compile the tree rooted at {@code root}.
+   *
+   * @param config   The configuration of the tree
+   * @param root     The root octant
+   * @param size     The number of objects in the tree
+   * @param listener The listener that receives statistics about queries
+   *                 performed on the compiled tree, if any
+   * @param <T>      The type of tree objects
+   *
+   * @return A compiled tree
+   */
+
+  static <T> OctTreeCompiledD<T> compile(
+    final OctTreeConfigurationD config,
+    final OctTreeOctantD<T> root,
+    final int size,
+    final @Nullable TreeQueryListenerType listener)
+  {
+    NullCheck.notNull(root, "Root");
+
+    /*
+     * Number the octants in breadth-first order. The children of the
+     * octant at position n are appended to the list together, and so
+     * they occupy eight adjacent positions.
+     */
+
+    final List<OctTreeOctantD<T>> order = new ArrayList<>();
+    final IntArrayList children = new IntArrayList();
+    final IntArrayList depths = new IntArrayList();
+    order.add(root);
+    depths.add(0);
+    for (int node = 0; node < order.size(); ++node) {
+      final OctTreeOctantD<T> octant = order.get(node);
+      if (octant.isLeaf()) {
+        children.add(LEAF);
+      } else {
+        children.add(order.size());
+        for (int child = 0; child < 8; ++child) {
+          order.add(octant.child(child));
+          depths.add(depths.getInt(node) + 1);
+        }
+      }
+    }
+
+    final int count = order.size();
+    final ByteBuffer nodes = allocate(count, NODE_SIZE);
+    final ByteBuffer volumes = allocate(count, VOLUME_SIZE);
+    final ByteBuffer coordinates = allocate(size, OBJECT_SIZE);
+    final Object[] items = new Object[size];
+    final Reference2IntOpenHashMap<T> index =
+      new Reference2IntOpenHashMap<>(size);
+    index.defaultReturnValue(-1);
+
+    int object = 0;
+    for (int node = 0; node < count; ++node) {
+      final OctTreeOctantD<T> octant = order.get(node);
+      final VolumeD bounds = octant.bounds();
+      final VolumeD volume = octant.volume();
+      final NodeObjectsD<T> objects = octant.nodeObjects();
+
+      final int base = node * NODE_SIZE;
+      nodes.putDouble(base + NODE_X0, bounds.minimumX());
+      nodes.putDouble(base + NODE_X1, bounds.maximumX());
+      nodes.putDouble(base + NODE_Y0, bounds.minimumY());
+      nodes.putDouble(base + NODE_Y1, bounds.maximumY());
+      nodes.putDouble(base + NODE_Z0, bounds.minimumZ());
+      nodes.putDouble(base + NODE_Z1, bounds.maximumZ());
+      nodes.putInt(base + NODE_CHILD, children.getInt(node));
+      nodes.putInt(base + NODE_FIRST, object);
+      nodes.putInt(base + NODE_COUNT, objects.size());
+      nodes.putInt(base + NODE_DEPTH, depths.getInt(node));
+
+      final int volume_base = node * VOLUME_SIZE;
+      volumes.putDouble(volume_base, volume.minimumX());
+      volumes.putDouble(volume_base + 8, volume.maximumX());
+      volumes.putDouble(volume_base + 16, volume.minimumY());
+      volumes.putDouble(volume_base + 24, volume.maximumY());
+      volumes.putDouble(volume_base + 32, volume.minimumZ());
+      volumes.putDouble(volume_base + 40, volume.maximumZ());
+
+      final double[] source = objects.coordinates();
+      for (int item = 0; item < objects.size(); ++item) {
+        final int source_base = item * 6;
+        final int target_base = object * OBJECT_SIZE;
+        coordinates.putDouble(target_base, source[source_base]);
+        coordinates.putDouble(target_base + 8, source[source_base + 1]);
+        coordinates.putDouble(target_base + 16, source[source_base + 2]);
+        coordinates.putDouble(target_base + 24, source[source_base + 3]);
+        coordinates.putDouble(target_base + 32, source[source_base + 4]);
+        coordinates.putDouble(target_base + 40, source[source_base + 5]);
+        items[object] = objects.item(item);
+        index.put(objects.item(item), object);
+        ++object;
+      }
+    }
+
+    /*
+     * Children always follow their parents, so the subtree counts can be
+     * accumulated in a single pass in reverse order.
+     */
+
+    for (int node = count - 1; node >= 0; --node) {
+      final int base = node * NODE_SIZE;
+      int subtree = nodes.getInt(base + NODE_COUNT);
+      final int first_child = nodes.getInt(base + NODE_CHILD);
+      if (first_child != LEAF) {
+        for (int child = 0; child < 8; ++child) {
+          subtree += nodes.getInt(
+            ((first_child + child) * NODE_SIZE) + NODE_SUBTREE);
+        }
+      }
+      nodes.putInt(base + NODE_SUBTREE, subtree);
+    }
+
+    return new OctTreeCompiledD<>(
+      config, nodes, volumes, coordinates, items, index, listener);
+  }
+
+  private int firstChild(final int node)
+  {
+    return this.nodes.getInt((node * NODE_SIZE) + NODE_CHILD);
+  }
+
+  private int firstObject(final int node)
+  {
+    return this.nodes.getInt((node * NODE_SIZE) + NODE_FIRST);
+  }
+
+  private int objectCount(final int node)
+  {
+    return this.nodes.getInt((node * NODE_SIZE) + NODE_COUNT);
+  }
+
+  private int subtree(final int node)
+  {
+    return this.nodes.getInt((node * NODE_SIZE) + NODE_SUBTREE);
+  }
+
+  /**
+   * Record a visit to the given octant. The depth of the octant is only
+   * read if statistics are being collected.
+   */
+
+  private void visited(
+    final int node,
+    final QueryCounters counters)
+  {
+    if (counters.isEnabled()) {
+      counters.visit(
+        (long) this.nodes.getInt((node * NODE_SIZE) + NODE_DEPTH));
+    }
+  }
+
+  private double boundsX0(final int node)
+  {
+    return this.nodes.getDouble((node * NODE_SIZE) + NODE_X0);
+  }
+
+  private double boundsX1(final int node)
+  {
+    return this.nodes.getDouble((node * NODE_SIZE) + NODE_X1);
+  }
+
+  private double boundsY0(final int node)
+  {
+    return this.nodes.getDouble((node * NODE_SIZE) + NODE_Y0);
+  }
+
+  private double boundsY1(final int node)
+  {
+    return this.nodes.getDouble((node * NODE_SIZE) + NODE_Y1);
+  }
+
+  private double boundsZ0(final int node)
+  {
+    return this.nodes.getDouble((node * NODE_SIZE) + NODE_Z0);
+  }
+
+  private double boundsZ1(final int node)
+  {
+    return this.nodes.getDouble((node * NODE_SIZE) + NODE_Z1);
+  }
+
+  private double objectX0(final int object)
+  {
+    return this.coordinates.getDouble(object * OBJECT_SIZE);
+  }
+
+  private double objectX1(final int object)
+  {
+    return this.coordinates.getDouble((object * OBJECT_SIZE) + 8);
+  }
+
+  private double objectY0(final int object)
+  {
+    return this.coordinates.getDouble((object * OBJECT_SIZE) + 16);
+  }
+
+  private double objectY1(final int object)
+  {
+    return this.coordinates.getDouble((object * OBJECT_SIZE) + 24);
+  }
+
+  private double objectZ0(final int object)
+  {
+    return this.coordinates.getDouble((object * OBJECT_SIZE) + 32);
+  }
+
+  private double objectZ1(final int object)
+  {
+    return this.coordinates.getDouble((object * OBJECT_SIZE) + 40);
+  }
+
+  /**
+   * @return The object with the given index
+   */
+
+  @SuppressWarnings("unchecked")
+  T item(final int object)
+  {
+    return (T) this.items[object];
+  }
+
+  private VolumeD volumeOf(final int node)
+  {
+    final int base = node * VOLUME_SIZE;
+    return VolumeD.of(
+      this.volumes.getDouble(base),
+      this.volumes.getDouble(base + 8),
+      this.volumes.getDouble(base + 16),
+      this.volumes.getDouble(base + 24),
+      this.volumes.getDouble(base + 32),
+      this.volumes.getDouble(base + 40));
+  }
+
+  /**
+   * @return The bounds of the given object
+   */
+
+  VolumeD boundsOf(final int object)
+  {
+    return VolumeD.of(
+      this.objectX0(object),
+      this.objectX1(object),
+      this.objectY0(object),
+      this.objectY1(object),
+      this.objectZ0(object),
+      this.objectZ1(object));
+  }
+
+  private TreeVisitResult report(
+    final OctTreeQueryConsumerDType<T> consumer,
+    final int object,
+    final QueryCounters counters)
+  {
+    counters.hits(1L);
+    return consumer.accept(
+      this.item(object),
+      this.objectX0(object),
+      this.objectX1(object),
+      this.objectY0(object),
+      this.objectY1(object),
+      this.objectZ0(object),
+      this.objectZ1(object));
+  }
+
+  @Override
+  public long size()
+  {
+    return (long) this.items.length;
+  }
+
+  @Override
+  public VolumeD bounds()
+  {
+    return this.volumeOf(0);
+  }
+
+  @Override
+  public boolean contains(final T item)
+  {
+    return this.index.containsKey(item);
+  }
+
+  @Override
+  public <U> OctTreeReadableDType<U> map(final BiFunction<T, VolumeD, U> f)
+  {
+    NullCheck.notNull(f, "Function");
+
+    final OctTreeDType<U> qt = OctTreeD.create(this.config);
+    for (int object = 0; object < this.items.length; ++object) {
+      final VolumeD item_bounds = this.boundsOf(object);
+      qt.insert(f.apply(this.item(object), item_bounds), item_bounds);
+    }
+    return qt;
+  }
+
+  @Override
+  public <C> void iterateOctants(
+    final C context,
+    final OctTreeOctantIterationDType<T, C> f)
+  {
+    NullCheck.notNull(context, "Context");
+    NullCheck.notNull(f, "Function");
+    this.iterateOctantsStep(0, context, f, 0L);
+  }
+
+  private <C> TreeVisitResult iterateOctantsStep(
+    final int node,
+    final C context,
+    final OctTreeOctantIterationDType<T, C> f,
+    final long depth)
+  {
+    final OctTreeCompiledOctantD<T> octant =
+      new OctTreeCompiledOctantD<>(
+        this,
+        this.volumeOf(node),
+        this.firstObject(node),
+        this.objectCount(node));
+
+    switch (f.apply(context, octant, depth)) {
+      case RESULT_CONTINUE: {
+        final int first_child = this.firstChild(node);
+        if (first_child != LEAF) {
+          for (int child = 0; child < 8; ++child) {
+            if (this.iterateOctantsStep(
+              first_child + child, context, f, Math.addExact(depth, 1L))
+              == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+        return TreeVisitResult.RESULT_CONTINUE;
+      }
+      case RESULT_TERMINATE:
+        return TreeVisitResult.RESULT_TERMINATE;
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  @Override
+  public VolumeD volumeFor(final T item)
+  {
+    NullCheck.notNull(item, "Item");
+
+    final int object = this.index.getInt(item);
+    if (object < 0) {
+      throw new NoSuchElementException(item.toString());
+    }
+    return this.boundsOf(object);
+  }
+
+  @Override
+  public void containedBy(
+    final VolumeD volume,
+    final OctTreeQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(volume, "Volume");
+    this.containedBy(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ(),
+      consumer);
+  }
+
+  @Override
+  public void containedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1,
+    final OctTreeQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.volumeContaining(0, x0, x1, y0, y1, z0, z1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+  }
+
+  private TreeVisitResult volumeContaining(
+    final int node,
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final double target_z0,
+    final double target_z1,
+    final OctTreeQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless containment checks.
+     */
+
+    if (this.subtree(node) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    counters.testNodes(1);
+
+    final double x0 = this.boundsX0(node);
+    final double x1 = this.boundsX1(node);
+    final double y0 = this.boundsY0(node);
+    final double y1 = this.boundsY1(node);
+    final double z0 = this.boundsZ0(node);
+    final double z1 = this.boundsZ1(node);
+
+    /*
+     * If the target volume completely contains this octant, collect
+     * everything in this octant and all children of this octant.
+     */
+
+    if (Regions.containsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      x0, x1, y0, y1, z0, z1)) {
+      return this.collectRecursive(node, consumer, counters);
+    }
+
+    this.visited(node, counters);
+    counters.testNodes(1);
+
+    /*
+     * An object contained within the target volume lies within both the
+     * target volume and this octant, so an octant that does not
+     * intersect the target volume cannot hold any results.
+     */
+
+    if (!Regions.intersectsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      x0, x1, y0, y1, z0, z1)) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+    counters.testObjects(last - first);
+    for (int object = first; object < last; ++object) {
+      if (Regions.containsVolume(
+        target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+        this.objectX0(object),
+        this.objectX1(object),
+        this.objectY0(object),
+        this.objectY1(object),
+        this.objectZ0(object),
+        this.objectZ1(object))) {
+        if (this.report(consumer, object, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = 0; child < 8; ++child) {
+        if (this.volumeContaining(
+          first_child + child,
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          consumer,
+          counters) == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  private TreeVisitResult collectRecursive(
+    final int node,
+    final OctTreeQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    if (this.subtree(node) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(node, counters);
+
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+    for (int object = first; object < last; ++object) {
+      if (this.report(consumer, object, counters)
+        == TreeVisitResult.RESULT_TERMINATE) {
+        return TreeVisitResult.RESULT_TERMINATE;
+      }
+    }
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = 0; child < 8; ++child) {
+        if (this.collectRecursive(first_child + child, consumer, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  @Override
+  public long count(final VolumeD volume)
+  {
+    NullCheck.notNull(volume, "Volume");
+    return this.count(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ());
+  }
+
+  @Override
+  public long count(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    final long count = this.countContaining(
+      0, x0, x1, y0, y1, z0, z1, counters);
+    counters.hits(count);
+    counters.report(TreeQueryKind.QUERY_COUNT);
+    return count;
+  }
+
+  private long countContaining(
+    final int node,
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final double target_z0,
+    final double target_z1,
+    final QueryCounters counters)
+  {
+    if (this.subtree(node) == 0) {
+      return 0L;
+    }
+
+    this.visited(node, counters);
+    counters.testNodes(1);
+
+    final double x0 = this.boundsX0(node);
+    final double x1 = this.boundsX1(node);
+    final double y0 = this.boundsY0(node);
+    final double y1 = this.boundsY1(node);
+    final double z0 = this.boundsZ0(node);
+    final double z1 = this.boundsZ1(node);
+
+    /*
+     * If the target volume completely contains this octant, it contains
+     * every object in this octant and all children of this octant.
+     */
+
+    if (Regions.containsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      x0, x1, y0, y1, z0, z1)) {
+      return (long) this.subtree(node);
+    }
+
+    counters.testNodes(1);
+    if (!Regions.intersectsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      x0, x1, y0, y1, z0, z1)) {
+      return 0L;
+    }
+
+    long count = 0L;
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+    counters.testObjects(last - first);
+    for (int object = first; object < last; ++object) {
+      if (Regions.containsVolume(
+        target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+        this.objectX0(object),
+        this.objectX1(object),
+        this.objectY0(object),
+        this.objectY1(object),
+        this.objectZ0(object),
+        this.objectZ1(object))) {
+        ++count;
+      }
+    }
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = 0; child < 8; ++child) {
+        count += this.countContaining(
+          first_child + child,
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          counters);
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void overlappedBy(
+    final VolumeD volume,
+    final OctTreeQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(volume, "Volume");
+    this.overlappedBy(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ(),
+      consumer);
+  }
+
+  @Override
+  public void overlappedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1,
+    final OctTreeQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.volumeOverlapping(0, x0, x1, y0, y1, z0, z1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
+  }
+
+  private TreeVisitResult volumeOverlapping(
+    final int node,
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final double target_z0,
+    final double target_z1,
+    final OctTreeQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless overlap checks.
+     */
+
+    if (this.subtree(node) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(node, counters);
+    counters.testNodes(1);
+
+    /*
+     * If the target volume overlaps this octant, test each object
+     * against the target volume.
+     */
+
+    if (Regions.overlapsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.boundsX0(node),
+      this.boundsX1(node),
+      this.boundsY0(node),
+      this.boundsY1(node),
+      this.boundsZ0(node),
+      this.boundsZ1(node))) {
+      final int first = this.firstObject(node);
+      final int last = first + this.objectCount(node);
+      counters.testObjects(last - first);
+      for (int object = first; object < last; ++object) {
+        if (Regions.overlapsVolume(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          this.objectX0(object),
+          this.objectX1(object),
+          this.objectY0(object),
+          this.objectY1(object),
+          this.objectZ0(object),
+          this.objectZ1(object))) {
+          if (this.report(consumer, object, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      final int first_child = this.firstChild(node);
+      if (first_child != LEAF) {
+        for (int child = 0; child < 8; ++child) {
+          if (this.volumeOverlapping(
+            first_child + child,
+            target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+            consumer,
+            counters) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  @Override
+  public void overlappedByAll(
+    final List<VolumeD> query_volumes,
+    final OctTreeBatchQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(query_volumes, "Volumes");
+    NullCheck.notNull(consumer, "Consumer");
+
+    /*
+     * Pack the query volumes into a single array, and carry the indices of
+     * the queries that overlap each octant down the tree on a shared
+     * stack of query indices.
+     */
+
+    final double[] targets = new double[query_volumes.size() * 6];
+    final IntArrayList active = new IntArrayList(query_volumes.size());
+    for (int query = 0; query < query_volumes.size(); ++query) {
+      final VolumeD volume =
+        NullCheck.notNull(query_volumes.get(query), "Volume");
+      final int base = query * 6;
+      targets[base] = volume.minimumX();
+      targets[base + 1] = volume.maximumX();
+      targets[base + 2] = volume.minimumY();
+      targets[base + 3] = volume.maximumY();
+      targets[base + 4] = volume.minimumZ();
+      targets[base + 5] = volume.maximumZ();
+      if (Regions.overlapsVolume(
+        targets[base],
+        targets[base + 1],
+        targets[base + 2],
+        targets[base + 3],
+        targets[base + 4],
+        targets[base + 5],
+        this.boundsX0(0),
+        this.boundsX1(0),
+        this.boundsY0(0),
+        this.boundsY1(0),
+        this.boundsZ0(0),
+        this.boundsZ1(0))) {
+        active.add(query);
+      }
+    }
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    counters.testNodes(query_volumes.size());
+    if (!active.isEmpty()) {
+      this.volumeOverlappingAll(0, targets, active, 0, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_ALL);
+  }
+
+  private TreeVisitResult volumeOverlappingAll(
+    final int node,
+    final double[] targets,
+    final IntArrayList active,
+    final int bottom,
+    final OctTreeBatchQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(node, counters);
+
+    final int top = active.size();
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+
+    for (int object = first; object < last; ++object) {
+      final double item_x0 = this.objectX0(object);
+      final double item_x1 = this.objectX1(object);
+      final double item_y0 = this.objectY0(object);
+      final double item_y1 = this.objectY1(object);
+      final double item_z0 = this.objectZ0(object);
+      final double item_z1 = this.objectZ1(object);
+      counters.testObjects(top - bottom);
+      for (int position = bottom; position < top; ++position) {
+        final int query = active.getInt(position);
+        final int target = query * 6;
+        if (Regions.overlapsVolume(
+          targets[target],
+          targets[target + 1],
+          targets[target + 2],
+          targets[target + 3],
+          targets[target + 4],
+          targets[target + 5],
+          item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+          counters.hits(1L);
+          if (consumer.accept(
+            query,
+            this.item(object),
+            item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the queries that overlap each non-empty child
+     * onto the stack, and pop them again once the child is done.
+     */
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = first_child; child < first_child + 8; ++child) {
+        if (this.subtree(child) != 0) {
+          counters.testNodes(top - bottom);
+          for (int position = bottom; position < top; ++position) {
+            final int query = active.getInt(position);
+            final int target = query * 6;
+            if (Regions.overlapsVolume(
+              targets[target],
+              targets[target + 1],
+              targets[target + 2],
+              targets[target + 3],
+              targets[target + 4],
+              targets[target + 5],
+              this.boundsX0(child),
+              this.boundsX1(child),
+              this.boundsY0(child),
+              this.boundsY1(child),
+              this.boundsZ0(child),
+              this.boundsZ1(child))) {
+              active.add(query);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > top) {
+            result = this.volumeOverlappingAll(
+              child, targets, active, top, consumer, counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(top);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  @Override
+  public void containedByParallel(
+    final VolumeD volume,
+    final ForkJoinPool pool,
+    final Set<T> results)
+  {
+    this.queryParallel(volume, true, pool, results);
+  }
+
+  @Override
+  public void overlappedByParallel(
+    final VolumeD volume,
+    final ForkJoinPool pool,
+    final Set<T> results)
+  {
+    this.queryParallel(volume, false, pool, results);
+  }
+
+  private void queryParallel(
+    final VolumeD volume,
+    final boolean contained,
+    final ForkJoinPool pool,
+    final Set<T> results)
+  {
+    NullCheck.notNull(volume, "Volume");
+    NullCheck.notNull(pool, "Pool");
+    NullCheck.notNull(results, "Items");
+
+    /*
+     * Find the octants that may hold matching objects on the calling
+     * thread, and then test the objects that they hold on the pool.
+     */
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    final List<Integer> candidates = new ArrayList<>();
+    this.parallelCandidates(0, volume, contained, candidates, counters);
+    final List<T> found = ParallelQuery.execute(
+      pool,
+      this.config.parallelQueryThreshold(),
+      candidates,
+      node -> this.objectCount(node.intValue()),
+      (node, from, to, matched) ->
+        this.volumeMatching(
+          node.intValue(), volume, contained, from, to, matched));
+    results.addAll(found);
+
+    if (counters.isEnabled()) {
+      for (final Integer candidate : candidates) {
+        counters.testObjects(this.objectCount(candidate.intValue()));
+      }
+      counters.hits((long) found.size());
+      if (contained) {
+        counters.report(TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL);
+      } else {
+        counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL);
+      }
+    }
+  }
+
+  private void parallelCandidates(
+    final int node,
+    final VolumeD target_volume,
+    final boolean contained,
+    final List<Integer> candidates,
+    final QueryCounters counters)
+  {
+    if (this.subtree(node) == 0) {
+      return;
+    }
+
+    counters.testNodes(1);
+
+    /*
+     * An object contained within {@code target_volume} lies within both
+     * {@code target_volume} and this octant, so octants that do not
+     * intersect {@code target_volume} can be skipped.
+     */
+
+    final boolean candidate;
+    if (contained) {
+      candidate = Regions.intersectsVolume(
+        target_volume.minimumX(), target_volume.maximumX(),
+        target_volume.minimumY(), target_volume.maximumY(),
+        target_volume.minimumZ(), target_volume.maximumZ(),
+        this.boundsX0(node), this.boundsX1(node),
+        this.boundsY0(node), this.boundsY1(node),
+        this.boundsZ0(node), this.boundsZ1(node));
+    } else {
+      candidate = Regions.overlapsVolume(
+        target_volume.minimumX(), target_volume.maximumX(),
+        target_volume.minimumY(), target_volume.maximumY(),
+        target_volume.minimumZ(), target_volume.maximumZ(),
+        this.boundsX0(node), this.boundsX1(node),
+        this.boundsY0(node), this.boundsY1(node),
+        this.boundsZ0(node), this.boundsZ1(node));
+    }
+
+    if (candidate) {
+      this.visited(node, counters);
+      if (this.objectCount(node) != 0) {
+        candidates.add(Integer.valueOf(node));
+      }
+      final int first_child = this.firstChild(node);
+      if (first_child != LEAF) {
+        for (int child = 0; child < 8; ++child) {
+          this.parallelCandidates(
+            first_child + child,
+            target_volume,
+            contained,
+            candidates,
+            counters);
+        }
+      }
+    }
+  }
+
+  private void volumeMatching(
+    final int node,
+    final VolumeD target_volume,
+    final boolean contained,
+    final int start,
+    final int end,
+    final List<T> results)
+  {
+    final double target_x0 = target_volume.minimumX();
+    final double target_x1 = target_volume.maximumX();
+    final double target_y0 = target_volume.minimumY();
+    final double target_y1 = target_volume.maximumY();
+    final double target_z0 = target_volume.minimumZ();
+    final double target_z1 = target_volume.maximumZ();
+    final int first = this.firstObject(node);
+
+    for (int object = first + start; object < first + end; ++object) {
+      final boolean matched;
+      if (contained) {
+        matched = Regions.containsVolume(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          this.objectX0(object),
+          this.objectX1(object),
+          this.objectY0(object),
+          this.objectY1(object),
+          this.objectZ0(object),
+          this.objectZ1(object));
+      } else {
+        matched = Regions.overlapsVolume(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          this.objectX0(object),
+          this.objectX1(object),
+          this.objectY0(object),
+          this.objectY1(object),
+          this.objectZ0(object),
+          this.objectZ1(object));
+      }
+      if (matched) {
+        results.add(this.item(object));
+      }
+    }
+  }
+
+  @Override
+  public void raycast(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.raycastStep(0, ray, consumer, false, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+
+  @Override
+  public void raycastEntry(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.raycastStep(0, ray, consumer, true, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+
+  private TreeVisitResult raycastStep(
+    final int node,
+    final Ray3D ray,
+    final OctTreeRaycastConsumerDType<T> consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.subtree(node) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(node, counters);
+    counters.testNodes(1);
+
+    /*
+     * If the ray intersects the octant, check each item in the octant
+     * against the ray.
+     */
+
+    if (ray.intersectsVolume(
+      this.boundsX0(node),
+      this.boundsY0(node),
+      this.boundsZ0(node),
+      this.boundsX1(node),
+      this.boundsY1(node),
+      this.boundsZ1(node))) {
+      final int first = this.firstObject(node);
+      final int last = first + this.objectCount(node);
+      counters.testObjects(last - first);
+      for (int object = first; object < last; ++object) {
+        final double item_x0 = this.objectX0(object);
+        final double item_x1 = this.objectX1(object);
+        final double item_y0 = this.objectY0(object);
+        final double item_y1 = this.objectY1(object);
+        final double item_z0 = this.objectZ0(object);
+        final double item_z1 = this.objectZ1(object);
+        if (ray.intersectsVolume(
+          item_x0, item_y0, item_z0, item_x1, item_y1, item_z1)) {
+          final double distance;
+          if (entry) {
+            distance = ray.intersectionParameterVolume(
+              item_x0, item_y0, item_z0, item_x1, item_y1, item_z1);
+          } else {
+            distance = rayDistance(ray, item_x0, item_y0, item_z0);
+          }
+          counters.hits(1L);
+          if (consumer.accept(
+            this.item(object),
+            item_x0, item_x1, item_y0, item_y1, item_z0, item_z1,
+            distance)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      final int first_child = this.firstChild(node);
+      if (first_child != LEAF) {
+        for (int child = 0; child < 8; ++child) {
+          if (this.raycastStep(
+            first_child + child, ray, consumer, entry, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The distance from the origin of {@code ray} to the given point
+   */
+
+  private static double rayDistance(
+    final Ray3D ray,
+    final double x,
+    final double y,
+    final double z)
+  {
+    final Vector3D origin = ray.origin();
+    final double dx = x - origin.x();
+    final double dy = y - origin.y();
+    final double dz = z - origin.z();
+    return Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+  }
+
+  @Override
+  public void raycastAll(
+    final List<Ray3D> rays,
+    final OctTreeBatchRaycastConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(rays, "Rays");
+    NullCheck.notNull(consumer, "Consumer");
+
+    /*
+     * Copy the rays into an array, and carry the indices of the rays that
+     * intersect each octant down the tree on a shared stack of ray indices.
+     */
+
+    final Ray3D[] packet = new Ray3D[rays.size()];
+    final IntArrayList active = new IntArrayList(packet.length);
+    for (int ray_index = 0; ray_index < packet.length; ++ray_index) {
+      final Ray3D ray = NullCheck.notNull(rays.get(ray_index), "Ray");
+      packet[ray_index] = ray;
+      if (ray.intersectsVolume(
+        this.boundsX0(0),
+        this.boundsY0(0),
+        this.boundsZ0(0),
+        this.boundsX1(0),
+        this.boundsY1(0),
+        this.boundsZ1(0))) {
+        active.add(ray_index);
+      }
+    }
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    counters.testNodes(packet.length);
+    if (!active.isEmpty()) {
+      this.raycastAllStep(0, packet, active, 0, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_RAYCAST_ALL);
+  }
+
+  private TreeVisitResult raycastAllStep(
+    final int node,
+    final Ray3D[] rays,
+    final IntArrayList active,
+    final int bottom,
+    final OctTreeBatchRaycastConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(node, counters);
+
+    final int top = active.size();
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+
+    for (int object = first; object < last; ++object) {
+      final double item_x0 = this.objectX0(object);
+      final double item_x1 = this.objectX1(object);
+      final double item_y0 = this.objectY0(object);
+      final double item_y1 = this.objectY1(object);
+      final double item_z0 = this.objectZ0(object);
+      final double item_z1 = this.objectZ1(object);
+
+      counters.testObjects(top - bottom);
+      for (int position = bottom; position < top; ++position) {
+        final int ray_index = active.getInt(position);
+        final Ray3D ray = rays[ray_index];
+        if (ray.intersectsVolume(
+          item_x0, item_y0, item_z0, item_x1, item_y1, item_z1)) {
+          final double distance = rayDistance(ray, item_x0, item_y0, item_z0);
+          counters.hits(1L);
+          if (consumer.accept(
+            ray_index,
+            this.item(object),
+            item_x0,
+            item_x1,
+            item_y0,
+            item_y1,
+            item_z0,
+            item_z1,
+            distance) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the rays that intersect each non-empty child onto
+     * the stack, and pop them again once the child is done. Rays that miss
+     * a child are never tested against anything inside it.
+     */
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = first_child; child < first_child + 8; ++child) {
+        if (this.subtree(child) != 0) {
+          final double x0 = this.boundsX0(child);
+          final double x1 = this.boundsX1(child);
+          final double y0 = this.boundsY0(child);
+          final double y1 = this.boundsY1(child);
+          final double z0 = this.boundsZ0(child);
+          final double z1 = this.boundsZ1(child);
+          counters.testNodes(top - bottom);
+          for (int position = bottom; position < top; ++position) {
+            final int ray_index = active.getInt(position);
+            if (rays[ray_index].intersectsVolume(x0, y0, z0, x1, y1, z1)) {
+              active.add(ray_index);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > top) {
+            result = this.raycastAllStep(
+              child, rays, active, top, consumer, counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(top);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  @Override
+  public void raycastUpTo(
+    final Ray3D ray,
+    final double max_distance,
+    final int limit,
+    final List<OctTreeRaycastResultD<T>> results)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(results, "Items");
+
+    if (limit > 0) {
+      final QueryCounters counters = QueryCounters.create(this.listener);
+      final NearestResults<OctTreeRaycastResultD<T>> nearest =
+        new NearestResults<>(OctTreeRaycastResultD::distance, max_distance, limit);
+      final Vector3D direction = ray.direction();
+      final int x_mask = direction.x() < 0.0 ? 0b01 : 0;
+      final int y_mask = direction.y() < 0.0 ? 0b10 : 0;
+      final int z_mask = direction.z() < 0.0 ? 0b100 : 0;
+      this.raycastNearest(
+        0,
+        ray,
+        Vectors3D.magnitude(direction),
+        x_mask | y_mask | z_mask,
+        nearest,
+        counters);
+      counters.hits((long) nearest.size());
+      results.addAll(nearest.drainSorted());
+      counters.report(TreeQueryKind.QUERY_RAYCAST_UP_TO);
+    }
+  }
+
+  private void raycastNearest(
+    final int node,
+    final Ray3D ray,
+    final double length,
+    final int mask,
+    final NearestResults<OctTreeRaycastResultD<T>> results,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.subtree(node) == 0) {
+      return;
+    }
+
+    counters.testNodes(1);
+
+    /*
+     * Skip this octant if the ray misses it, or if it is further away
+     * than any result that could still be accepted.
+     */
+
+    final double t = ray.intersectionParameterVolume(
+      this.boundsX0(node),
+      this.boundsY0(node),
+      this.boundsZ0(node),
+      this.boundsX1(node),
+      this.boundsY1(node),
+      this.boundsZ1(node));
+    if (t == Double.POSITIVE_INFINITY || t * length > results.bound()) {
+      return;
+    }
+
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+    this.visited(node, counters);
+    counters.testObjects(last - first);
+    for (int object = first; object < last; ++object) {
+      final double item_t = ray.intersectionParameterVolume(
+        this.objectX0(object),
+        this.objectY0(object),
+        this.objectZ0(object),
+        this.objectX1(object),
+        this.objectY1(object),
+        this.objectZ1(object));
+
+      if (item_t < Double.POSITIVE_INFINITY) {
+        final double distance = item_t * length;
+        if (distance <= results.bound()) {
+          results.add(OctTreeRaycastResultD.of(
+            distance, this.boundsOf(object), this.item(object)));
+        }
+      }
+    }
+
+    /*
+     * Visit the children front-to-back: The first child visited is the one
+     * that lies furthest towards the origin of the ray.
+     */
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = 0; child < 8; ++child) {
+        this.raycastNearest(
+          first_child + (child ^ mask), ray, length, mask, results, counters);
+      }
+    }
+  }
+
+  private double distanceTo(
+    final int node,
+    final double px,
+    final double py,
+    final double pz)
+  {
+    return Distances.pointVolume(
+      px, py, pz,
+      this.boundsX0(node),
+      this.boundsX1(node),
+      this.boundsY0(node),
+      this.boundsY1(node),
+      this.boundsZ0(node),
+      this.boundsZ1(node));
+  }
+
+  @Override
+  public void nearest(
+    final Vector3D point,
+    final int k,
+    final OctTreeNearestConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(point, "Point");
+    NullCheck.notNull(consumer, "Consumer");
+
+    if (k > 0) {
+      final QueryCounters counters = QueryCounters.create(this.listener);
+      final double px = point.x();
+      final double py = point.y();
+      final double pz = point.z();
+      final NearestResults<NearestItem<T, VolumeD>> results =
+        new NearestResults<>(NearestItem::distance, Double.POSITIVE_INFINITY, k);
+
+      /*
+       * Visit octants in order of increasing distance from the point,
+       * stopping when the nearest unvisited octant is further away than
+       * any result that could still be accepted.
+       */
+
+      final NodeQueue<Integer> queue = new NodeQueue<>();
+      counters.testNodes(1);
+      queue.add(Integer.valueOf(0), this.distanceTo(0, px, py, pz));
+      while (!queue.isEmpty() && queue.peekDistance() <= results.bound()) {
+        this.nearestStep(
+          queue.poll().intValue(), px, py, pz, results, queue, counters);
+      }
+
+      for (final NearestItem<T, VolumeD> result : results.drainSorted()) {
+        final VolumeD item_volume = result.bounds();
+        counters.hits(1L);
+        final TreeVisitResult visit = consumer.accept(
+          result.item(),
+          item_volume.minimumX(),
+          item_volume.maximumX(),
+          item_volume.minimumY(),
+          item_volume.maximumY(),
+          item_volume.minimumZ(),
+          item_volume.maximumZ(),
+          result.distance());
+        if (visit == TreeVisitResult.RESULT_TERMINATE) {
+          break;
+        }
+      }
+      counters.report(TreeQueryKind.QUERY_NEAREST);
+    }
+  }
+
+  private void nearestStep(
+    final int node,
+    final double px,
+    final double py,
+    final double pz,
+    final NearestResults<NearestItem<T, VolumeD>> results,
+    final NodeQueue<Integer> queue,
+    final QueryCounters counters)
+  {
+    this.visited(node, counters);
+
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+    counters.testObjects(last - first);
+    for (int object = first; object < last; ++object) {
+      final double distance = Distances.pointVolume(
+        px, py, pz,
+        this.objectX0(object),
+        this.objectX1(object),
+        this.objectY0(object),
+        this.objectY1(object),
+        this.objectZ0(object),
+        this.objectZ1(object));
+
+      if (distance <= results.bound()) {
+        results.add(new NearestItem<>(
+          distance, this.item(object), this.boundsOf(object)));
+      }
+    }
+
+    /*
+     * Queue any non-empty children that could contain a result.
+     */
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = first_child; child < first_child + 8; ++child) {
+        if (this.subtree(child) != 0) {
+          counters.testNodes(1);
+          final double child_distance = this.distanceTo(child, px, py, pz);
+          if (child_distance <= results.bound()) {
+            queue.add(Integer.valueOf(child), child_distance);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jspatial.api.octtrees.OctTreeOctantDType;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMaps;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
+
+import java.util.Map;
+
+/**
+ * A read-only view of an octant of a {@link OctTreeCompiledD}, passed to
+ * iteration functions.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class OctTreeCompiledOctantD<T> implements OctTreeOctantDType<T>
+{
+  private final OctTreeCompiledD<T> tree;
+  private final VolumeD volume;
+  private final int first;
+  private final int count;
+
+  OctTreeCompiledOctantD(
+    final OctTreeCompiledD<T> in_tree,
+    final VolumeD in_volume,
+    final int in_first,
+    final int in_count)
+  {
+    this.tree = in_tree;
+    this.volume = in_volume;
+    this.first = in_first;
+    this.count = in_count;
+  }
+
+  @Override
+  public Map<T, VolumeD> objects()
+  {
+    final Reference2ReferenceOpenHashMap<T, VolumeD> results =
+      new Reference2ReferenceOpenHashMap<>(this.count);
+    for (int object = this.first; object < this.first + this.count; ++object) {
+      results.put(this.tree.item(object), this.tree.boundsOf(object));
+    }
+    return Reference2ReferenceMaps.unmodifiable(results);
+  }
+
+  @Override
+  public VolumeD volume()
+  {
+    return this.volume;
+  }
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeQueryListenerType;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchQueryConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchRaycastConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationD;
+import com.io7m.jspatial.api.octtrees.OctTreeDType;
+import com.io7m.jspatial.api.octtrees.OctTreeNearestConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeOctantIterationDType;
+import com.io7m.jspatial.api.octtrees.OctTreeQueryConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastConsumerDType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastResultD;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableDType;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+
+/**
+ * <p>A thread-safe octtree implementation with
+ * {@code double} precision coordinates.</p>
+ *
+ * <p>Modifications are serialized by a {@link StampedLock}. Queries,
+ * iterations, {@link #size()} and {@link #bounds()} are evaluated against an
+ * immutable snapshot of the tree (see {@link #snapshot()}) without holding
+ * any lock, and observe the tree as it was at the end of the most recent
+ * modification. Snapshots are published lazily: A modification only marks the
+ * published snapshot as stale, and the first query after a modification
+ * briefly takes the write lock to publish a new snapshot, waiting for any
+ * modification that is in progress. Other queries never wait for writers.
+ * {@link #contains(Object)}, {@link #volumeFor(Object)} and
+ * {@link #compile()} take the read lock, and so wait for any modification
+ * that is in progress.</p>
+ *
+ * <p>Publishing a snapshot is a constant-time operation, but the next
+ * modification must then copy the octants on the path from the root to the
+ * octant that it changes. Because snapshots are only published when they are
+ * read, a sequence of modifications that is not interleaved with queries
+ * copies nothing.</p>
+ *
+ * <p>The lock is not reentrant, but functions passed to queries and
+ * iterations are evaluated without holding it, and so may query or modify
+ * the tree. A modification made by such a function is not visible to the
+ * query that is in progress.</p>
+ *
+ * @param <T> The precise type of octtree members
+ */
+
+public final class OctTreeConcurrentD<T> implements OctTreeDType<T>
+{
+  private final StampedLock lock;
+  private final OctTreeDType<T> tree;
+  private volatile @Nullable OctTreeReadableDType<T> view;
+
+  private OctTreeConcurrentD(final OctTreeDType<T> in_tree)
+  {
+    this.tree = NullCheck.notNull(in_tree, "Tree");
+    this.lock = new StampedLock();
+    this.view = null;
+  }
+
+  /**
+   * Mark the published snapshot as stale, and release the write lock.
+   */
+
+  private void unlockWriteAndInvalidate(final long stamp)
+  {
+    this.view = null;
+    this.lock.unlockWrite(stamp);
+  }
+
+  /**
+   * @return The published snapshot of the tree, first publishing a new
+   * snapshot if the tree has been modified since the last was published
+   */
+
+  private OctTreeReadableDType<T> view()
+  {
+    final @Nullable OctTreeReadableDType<T> current = this.view;
+    if (current != null) {
+      return current;
+    }
+
+    final long stamp = this.lock.writeLock();
+    try {
+      final @Nullable OctTreeReadableDType<T> published = this.view;
+      if (published != null) {
+        return published;
+      }
+      final OctTreeReadableDType<T> snapshot = this.tree.snapshot();
+      this.view = snapshot;
+      return snapshot;
+    } finally {
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Create a new empty tree with the given bounds.
+   *
+   * @param config The tree configuration
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> OctTreeDType<T> create(
+    final OctTreeConfigurationD config)
+  {
+    return new OctTreeConcurrentD<>(OctTreeD.create(config));
+  }
+
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   *
+   * @see OctTreeD#createFrom(OctTreeConfigurationD, Map)
+   */
+
+  public static <T> OctTreeDType<T> createFrom(
+    final OctTreeConfigurationD config,
+    final Map<T, VolumeD> items)
+  {
+    return new OctTreeConcurrentD<>(OctTreeD.createFrom(config, items));
+  }
+
+  /**
+   * Create a new tree with the given bounds, containing the given items,
+   * using tasks executed on {@code pool}.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param pool   The pool that will execute tasks
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   *
+   * @see OctTreeD#createFromParallel(OctTreeConfigurationD, Map, ForkJoinPool)
+   */
+
+  public static <T> OctTreeDType<T> createFromParallel(
+    final OctTreeConfigurationD config,
+    final Map<T, VolumeD> items,
+    final ForkJoinPool pool)
+  {
+    return new OctTreeConcurrentD<>(
+      OctTreeD.createFromParallel(config, items, pool));
+  }
+
+  @Override
+  public void trim()
+  {
+    final long stamp = this.lock.writeLock();
+    try {
+      this.tree.trim();
+    } finally {
+      this.unlockWriteAndInvalidate(stamp);
+    }
+  }
+
+  @Override
+  public long size()
+  {
+    return this.view().size();
+  }
+
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || this.getClass() != o.getClass()) {
+      return false;
+    }
+
+    /*
+     * Take a copy of the other tree rather than holding both locks at once,
+     * so that two threads comparing the same pair of trees in opposite
+     * orders cannot deadlock.
+     */
+
+    final OctTreeConcurrentD<?> that = (OctTreeConcurrentD<?>) o;
+    final OctTreeDType<?> that_copy = that.copy();
+
+    final long stamp = this.lock.readLock();
+    try {
+      return this.tree.equals(that_copy);
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  private OctTreeDType<T> copy()
+  {
+    final long stamp = this.lock.readLock();
+    try {
+      return this.tree.map((item, item_bounds) -> item);
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public int hashCode()
+  {
+    final long stamp = this.lock.readLock();
+    try {
+      return this.tree.hashCode();
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public VolumeD bounds()
+  {
+    return this.view().bounds();
+  }
+
+  @Override
+  public boolean insert(
+    final T item,
+    final VolumeD item_bounds)
+  {
+    final long stamp = this.lock.writeLock();
+    try {
+      return this.tree.insert(item, item_bounds);
+    } finally {
+      this.unlockWriteAndInvalidate(stamp);
+    }
+  }
+
+  @Override
+  public boolean insert(
+    final T item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    final long stamp = this.lock.writeLock();
+    try {
+      return this.tree.insert(item, x0, x1, y0, y1, z0, z1);
+    } finally {
+      this.unlockWriteAndInvalidate(stamp);
+    }
+  }
+
+  @Override
+  public boolean contains(final T item)
+  {
+    final long stamp = this.lock.readLock();
+    try {
+      return this.tree.contains(item);
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public boolean remove(final T item)
+  {
+    final long stamp = this.lock.writeLock();
+    try {
+      return this.tree.remove(item);
+    } finally {
+      this.unlockWriteAndInvalidate(stamp);
+    }
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final VolumeD item_bounds)
+  {
+    final long stamp = this.lock.writeLock();
+    try {
+      return this.tree.move(item, item_bounds);
+    } finally {
+      this.unlockWriteAndInvalidate(stamp);
+    }
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    final long stamp = this.lock.writeLock();
+    try {
+      return this.tree.move(item, x0, x1, y0, y1, z0, z1);
+    } finally {
+      this.unlockWriteAndInvalidate(stamp);
+    }
+  }
+
+  @Override
+  public OctTreeReadableDType<T> snapshot()
+  {
+    return this.view();
+  }
+
+  @Override
+  public OctTreeReadableDType<T> compile()
+  {
+    final long stamp = this.lock.readLock();
+    try {
+      return this.tree.compile();
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public void setQueryListener(
+    final Optional<TreeQueryListenerType> listener)
+  {
+    final long stamp = this.lock.writeLock();
+    try {
+      this.tree.setQueryListener(listener);
+    } finally {
+      this.unlockWriteAndInvalidate(stamp);
+    }
+  }
+
+  @Override
+  public void clear()
+  {
+    final long stamp = this.lock.writeLock();
+    try {
+      this.tree.clear();
+    } finally {
+      this.unlockWriteAndInvalidate(stamp);
+    }
+  }
+
+  @Override
+  public <U> OctTreeDType<U> map(final BiFunction<T, VolumeD, U> f)
+  {
+    NullCheck.notNull(f, "Function");
+    return new OctTreeConcurrentD<>(this.copy().map(f));
+  }
+
+  @Override
+  public <C> void iterateOctants(
+    final C context,
+    final OctTreeOctantIterationDType<T, C> f)
+  {
+    this.view().iterateOctants(context, f);
+  }
+
+  @Override
+  public VolumeD volumeFor(final T item)
+  {
+    final long stamp = this.lock.readLock();
+    try {
+      return this.tree.volumeFor(item);
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public void containedBy(
+    final VolumeD volume,
+    final OctTreeQueryConsumerDType<T> consumer)
+  {
+    this.view().containedBy(volume, consumer);
+  }
+
+  @Override
+  public void containedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1,
+    final OctTreeQueryConsumerDType<T> consumer)
+  {
+    this.view().containedBy(x0, x1, y0, y1, z0, z1, consumer);
+  }
+
+  @Override
+  public long count(final VolumeD volume)
+  {
+    return this.view().count(volume);
+  }
+
+  @Override
+  public long count(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    return this.view().count(x0, x1, y0, y1, z0, z1);
+  }
+
+  @Override
+  public void overlappedBy(
+    final VolumeD volume,
+    final OctTreeQueryConsumerDType<T> consumer)
+  {
+    this.view().overlappedBy(volume, consumer);
+  }
+
+  @Override
+  public void overlappedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1,
+    final OctTreeQueryConsumerDType<T> consumer)
+  {
+    this.view().overlappedBy(x0, x1, y0, y1, z0, z1, consumer);
+  }
+
+  @Override
+  public void overlappedByAll(
+    final List<VolumeD> volumes,
+    final OctTreeBatchQueryConsumerDType<T> consumer)
+  {
+    this.view().overlappedByAll(volumes, consumer);
+  }
+
+  @Override
+  public void containedByParallel(
+    final VolumeD volume,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.view().containedByParallel(volume, pool, items);
+  }
+
+  @Override
+  public void overlappedByParallel(
+    final VolumeD volume,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.view().overlappedByParallel(volume, pool, items);
+  }
+
+  @Override
+  public void raycast(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerDType<T> consumer)
+  {
+    this.view().raycast(ray, consumer);
+  }
+
+  @Override
+  public void raycastEntry(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerDType<T> consumer)
+  {
+    this.view().raycastEntry(ray, consumer);
+  }
+
+  @Override
+  public void raycastAll(
+    final List<Ray3D> rays,
+    final OctTreeBatchRaycastConsumerDType<T> consumer)
+  {
+    this.view().raycastAll(rays, consumer);
+  }
+
+  @Override
+  public void raycastUpTo(
+    final Ray3D ray,
+    final double max_distance,
+    final int limit,
+    final List<OctTreeRaycastResultD<T>> items)
+  {
+    this.view().raycastUpTo(ray, max_distance, limit, items);
+  }
+
+  @Override
+  public void nearest(
+    final Vector3D point,
+    final int k,
+    final OctTreeNearestConsumerDType<T> consumer)
+  {
+    this.view().nearest(point, k, consumer);
+  }
+}
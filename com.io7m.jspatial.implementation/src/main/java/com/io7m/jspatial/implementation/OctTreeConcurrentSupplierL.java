@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationL;
+import com.io7m.jspatial.api.octtrees.OctTreeLType;
+import com.io7m.jspatial.api.octtrees.OctTreeSupplierLType;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An implementation of the {@link OctTreeSupplierLType} interface that
+ * produces thread-safe trees. The component is registered with the service
+ * property {@code concurrent=true}.
+ *
+ * @see OctTreeConcurrentL
+ */
+
+@Component(property = "concurrent:Boolean=true")
+public final class OctTreeConcurrentSupplierL implements OctTreeSupplierLType
+{
+  /**
+   * Construct a new supplier.
+   */
+
+  public OctTreeConcurrentSupplierL()
+  {
+
+  }
+
+  @Override
+  public <A> OctTreeLType<A> create(final OctTreeConfigurationL config)
+  {
+    return OctTreeConcurrentL.create(config);
+  }
+
+  @Override
+  public <A> OctTreeLType<A> createFrom(
+    final OctTreeConfigurationL config,
+    final Map<A, VolumeL> items)
+  {
+    return OctTreeConcurrentL.createFrom(config, items);
+  }
+
+  @Override
+  public <A> OctTreeLType<A> createFromParallel(
+    final OctTreeConfigurationL config,
+    final Map<A, VolumeL> items,
+    final ForkJoinPool pool)
+  {
+    return OctTreeConcurrentL.createFromParallel(config, items, pool);
+  }
+}
@@ -17,32 +17,39 @@
 package com.io7m.jspatial.implementation;
 
 import com.io7m.jaffirm.core.Invariants;
-import com.io7m.jaffirm.core.Preconditions;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
 import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
-import com.io7m.jregions.core.unparameterized.volumes.VolumeXYZSplitL;
 import com.io7m.jregions.core.unparameterized.volumes.VolumesL;
 import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeQueryListenerType;
 import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchQueryConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchRaycastConsumerLType;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationL;
 import com.io7m.jspatial.api.octtrees.OctTreeLType;
+import com.io7m.jspatial.api.octtrees.OctTreeNearestConsumerLType;
 import com.io7m.jspatial.api.octtrees.OctTreeOctantIterationLType;
-import com.io7m.jspatial.api.octtrees.OctTreeOctantLType;
+import com.io7m.jspatial.api.octtrees.OctTreeQueryConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastConsumerLType;
 import com.io7m.jspatial.api.octtrees.OctTreeRaycastResultL;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableLType;
 import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
 import com.io7m.jtensors.core.unparameterized.vectors.Vectors3D;
-import com.io7m.junreachable.UnreachableCodeException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
-import it.unimi.dsi.fastutil.objects.ObjectSet;
-import it.unimi.dsi.fastutil.objects.Reference2ReferenceMaps;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMap;
 import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
-import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.BiFunction;
 
 /**
@@ -53,17 +60,72 @@ import java.util.function.BiFunction;
 
 public final class OctTreeL<T> implements OctTreeLType<T>
 {
-  private final Reference2ReferenceOpenHashMap<T, VolumeL> objects;
+  private final Reference2ReferenceOpenHashMap<T, OctTreeOctantL<T>> objects;
   private final OctTreeConfigurationL config;
-  private Octant root;
+  private OctTreeOctantL<T> root;
+  private long generation;
+  private @Nullable TreeQueryListenerType listener;
 
   private OctTreeL(final OctTreeConfigurationL in_config)
   {
     this.config = NullCheck.notNull(in_config, "Configuration");
-    this.root = new Octant(null, in_config.volume());
+    this.generation = 0L;
+    this.root = new OctTreeOctantL<>(this, null, in_config.volume());
     this.objects = new Reference2ReferenceOpenHashMap<>();
   }
 
+  /**
+   * @return The tree configuration
+   */
+
+  OctTreeConfigurationL configuration()
+  {
+    return this.config;
+  }
+
+  /**
+   * @return The current generation of the tree; incremented each time a
+   * snapshot is taken
+   */
+
+  long generation()
+  {
+    return this.generation;
+  }
+
+  /**
+   * @return The map from each object in the tree to the octant that holds it
+   */
+
+  Reference2ReferenceOpenHashMap<T, OctTreeOctantL<T>> objectIndex()
+  {
+    return this.objects;
+  }
+
+  /**
+   * Create an empty tree with a root octant of the given volume, in order to
+   * restore a serialized tree. The volume may differ from the volume given in
+   * the configuration if the serialized tree had grown.
+   */
+
+  static <T> OctTreeL<T> createRestored(
+    final OctTreeConfigurationL config,
+    final VolumeL root_volume)
+  {
+    final OctTreeL<T> tree = new OctTreeL<>(config);
+    tree.root = new OctTreeOctantL<>(tree, null, root_volume);
+    return tree;
+  }
+
+  /**
+   * @return The root octant
+   */
+
+  OctTreeOctantL<T> root()
+  {
+    return this.root;
+  }
+
   /**
    * Create a new empty tree with the given bounds.
    *
@@ -79,10 +141,105 @@ public final class OctTreeL<T> implements OctTreeLType<T>
     return new OctTreeL<>(config);
   }
 
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   * This is equivalent to creating an empty tree and inserting each item in
+   * turn, but the tree is built top-down in a single pass: The items are
+   * partitioned between the octants at each level, and each octant
+   * is split at most once. Items with bounds that do not fit within the
+   * bounds of the tree are not inserted, exactly as if {@code insert} had
+   * returned {@code false} for them.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> OctTreeLType<T> createFrom(
+    final OctTreeConfigurationL config,
+    final Map<T, VolumeL> items)
+  {
+    NullCheck.notNull(items, "Items");
+
+    final OctTreeL<T> tree = new OctTreeL<>(config);
+    final BulkItems<T, VolumeL> bulk = tree.bulkItems(items);
+    tree.root.build(bulk, 0, bulk.size(), 0L, false);
+    return tree;
+  }
+
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   * The resulting tree is identical to the tree that would be returned by
+   * {@link #createFrom(OctTreeConfigurationL, Map)}, but the subtrees below
+   * any octant that receives at least
+   * {@link OctTreeConfigurationL#parallelBuildThreshold()} items are built
+   * concurrently by tasks executed on {@code pool}. The tree's index of
+   * items is populated on the calling thread once all tasks have completed.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param pool   The pool that will execute tasks
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> OctTreeLType<T> createFromParallel(
+    final OctTreeConfigurationL config,
+    final Map<T, VolumeL> items,
+    final ForkJoinPool pool)
+  {
+    NullCheck.notNull(items, "Items");
+    NullCheck.notNull(pool, "Pool");
+
+    final OctTreeL<T> tree = new OctTreeL<>(config);
+    final BulkItems<T, VolumeL> bulk = tree.bulkItems(items);
+    pool.invoke(ForkJoinTask.adapt(
+      () -> tree.root.build(bulk, 0, bulk.size(), 0L, true)));
+    tree.root.register();
+    return tree;
+  }
+
+  /**
+   * @return The given items that fit within the bounds of the tree, growing
+   * the tree first if it is configured to expand
+   */
+
+  private BulkItems<T, VolumeL> bulkItems(
+    final Map<T, VolumeL> items)
+  {
+    final BulkItems<T, VolumeL> bulk = new BulkItems<>(items.size());
+    for (final Map.Entry<T, VolumeL> entry : items.entrySet()) {
+      final T item = NullCheck.notNull(entry.getKey(), "Item");
+      final VolumeL item_bounds = NullCheck.notNull(entry.getValue(), "Bounds");
+      if (this.expandToContain(
+        item_bounds.minimumX(),
+        item_bounds.maximumX(),
+        item_bounds.minimumY(),
+        item_bounds.maximumY(),
+        item_bounds.minimumZ(),
+        item_bounds.maximumZ())) {
+        bulk.add(item, item_bounds);
+      }
+    }
+
+    /*
+     * The tree is built from scratch below the final root, so the empty
+     * octants created while growing the root are discarded.
+     */
+
+    if (this.config.expandable()) {
+      this.root = new OctTreeOctantL<>(this, null, this.root.volume());
+    }
+    return bulk;
+  }
+
   @Override
   public void trim()
   {
-    this.root.trim();
+    this.ownRoot().trim();
   }
 
   @Override
@@ -102,19 +259,55 @@ public final class OctTreeL<T> implements OctTreeLType<T>
     }
 
     final OctTreeL<?> that = (OctTreeL<?>) o;
-    return this.objects.equals(that.objects);
+    if (this.objects.size() != that.objects.size()) {
+      return false;
+    }
+
+    final ObjectIterator<Reference2ReferenceMap.Entry<T, OctTreeOctantL<T>>> iter =
+      this.objects.reference2ReferenceEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2ReferenceMap.Entry<T, OctTreeOctantL<T>> entry =
+        iter.next();
+      final T item = entry.getKey();
+      if (!entry.getValue().boundsOf(item).equals(that.boundsOf(item))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public int hashCode()
   {
-    return this.objects.hashCode();
+    int hash = 0;
+
+    final ObjectIterator<Reference2ReferenceMap.Entry<T, OctTreeOctantL<T>>> iter =
+      this.objects.reference2ReferenceEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2ReferenceMap.Entry<T, OctTreeOctantL<T>> entry =
+        iter.next();
+      final T item = entry.getKey();
+      hash += System.identityHashCode(item)
+        ^ entry.getValue().boundsOf(item).hashCode();
+    }
+    return hash;
+  }
+
+  private @Nullable VolumeL boundsOf(final Object item)
+  {
+    final @Nullable OctTreeOctantL<T> octant = this.objects.get(item);
+    if (octant == null) {
+      return null;
+    }
+    return octant.boundsOf(item);
   }
 
   @Override
   public VolumeL bounds()
   {
-    return this.root.volume;
+    return this.root.volume();
   }
 
   @Override
@@ -122,8 +315,29 @@ public final class OctTreeL<T> implements OctTreeLType<T>
     final T item,
     final VolumeL item_bounds)
   {
-    NullCheck.notNull(item, "Item");
     NullCheck.notNull(item_bounds, "Bounds");
+    return this.insert(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY(),
+      item_bounds.minimumZ(),
+      item_bounds.maximumZ());
+  }
+
+  @Override
+  public boolean insert(
+    final T item,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    NullCheck.notNull(item, "Item");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
 
     if (this.objects.containsKey(item)) {
       this.remove(item);
@@ -133,7 +347,8 @@ public final class OctTreeL<T> implements OctTreeLType<T>
         x -> "Item must not be in tree");
     }
 
-    return this.root.insert(item, item_bounds);
+    return this.expandToContain(x0, x1, y0, y1, z0, z1)
+      && this.ownRoot().insert(item, x0, x1, y0, y1, z0, z1);
   }
 
   @Override
@@ -146,26 +361,162 @@ public final class OctTreeL<T> implements OctTreeLType<T>
   public boolean remove(final T item)
   {
     NullCheck.notNull(item, "Item");
-    return this.root.remove(item);
+
+    final @Nullable OctTreeOctantL<T> octant = this.objects.get(item);
+    if (octant == null) {
+      return false;
+    }
+
+    this.own(octant).removeObject(item);
+    return true;
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final VolumeL item_bounds)
+  {
+    NullCheck.notNull(item_bounds, "Bounds");
+    return this.move(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY(),
+      item_bounds.minimumZ(),
+      item_bounds.maximumZ());
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    NullCheck.notNull(item, "Item");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+
+    final @Nullable OctTreeOctantL<T> octant = this.objects.get(item);
+    if (octant == null) {
+      return false;
+    }
+
+    if (!this.expandToContain(x0, x1, y0, y1, z0, z1)) {
+      return false;
+    }
+
+    this.own(octant).moveObject(item, x0, x1, y0, y1, z0, z1);
+    return true;
+  }
+
+  @Override
+  public void setQueryListener(
+    final Optional<TreeQueryListenerType> in_listener)
+  {
+    NullCheck.notNull(in_listener, "Listener");
+    this.listener = in_listener.orElse(null);
   }
 
   @Override
   public void clear()
   {
-    this.root = new Octant(null, this.root.volume);
+    this.root = new OctTreeOctantL<>(this, null, this.root.volume());
     this.objects.clear();
   }
 
+  @Override
+  public OctTreeReadableLType<T> snapshot()
+  {
+    final Snapshot snapshot =
+      new Snapshot(this.root, (long) this.objects.size());
+    this.generation = Math.addExact(this.generation, 1L);
+    return snapshot;
+  }
+
+  /**
+   * @return The root octant, first replacing it with a copy if it is shared
+   * with a snapshot
+   */
+
+  private OctTreeOctantL<T> ownRoot()
+  {
+    if (this.root.generation() != this.generation) {
+      this.root = new OctTreeOctantL<>(this, null, this.root);
+      this.root.claimObjects();
+    }
+    return this.root;
+  }
+
+  /**
+   * Grow the root of the tree until it contains the given bounds, if the
+   * tree is configured to expand.
+   *
+   * @return {@code true} iff the root of the tree contains the given bounds
+   */
+
+  private boolean expandToContain(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    if (this.config.expandable()) {
+      while (!this.root.contains(x0, x1, y0, y1, z0, z1)) {
+        final @Nullable OctTreeOctantL<T> expanded =
+          this.ownRoot().expandTowards(x0, y0, z0);
+        if (expanded == null) {
+          return false;
+        }
+        this.root = expanded;
+      }
+      return true;
+    }
+    return this.root.contains(x0, x1, y0, y1, z0, z1);
+  }
+
+  /**
+   * Locate the given octant in the tree, copying it and all of its ancestors
+   * if they are shared with a snapshot.
+   *
+   * @return The octant, or a copy of it that may be modified
+   */
+
+  private OctTreeOctantL<T> own(final OctTreeOctantL<T> octant)
+  {
+    if (octant.generation() == this.generation) {
+      return octant;
+    }
+
+    OctTreeOctantL<T> current = this.ownRoot();
+    while (!current.volume().equals(octant.volume())) {
+      final int index = current.childIndexContaining(octant.volume());
+      Invariants.checkInvariant(index < 8, "Octant must be in the tree");
+      current = current.ownChild(index);
+    }
+    return current;
+  }
+
   @Override
   public <U> OctTreeLType<U> map(final BiFunction<T, VolumeL, U> f)
   {
     NullCheck.notNull(f, "Function");
 
     final OctTreeLType<U> qt = new OctTreeL<>(this.config);
-    for (final Map.Entry<T, VolumeL> es : this.objects.entrySet()) {
-      final T item = es.getKey();
-      final VolumeL item_volume = es.getValue();
-      qt.insert(f.apply(item, item_volume), es.getValue());
+    final ObjectIterator<Reference2ReferenceMap.Entry<T, OctTreeOctantL<T>>> iter =
+      this.objects.reference2ReferenceEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2ReferenceMap.Entry<T, OctTreeOctantL<T>> entry =
+        iter.next();
+      final T item = entry.getKey();
+      final VolumeL item_volume = entry.getValue().boundsOf(item);
+      qt.insert(f.apply(item, item_volume), item_volume);
     }
     return qt;
   }
@@ -185,689 +536,680 @@ public final class OctTreeL<T> implements OctTreeLType<T>
   {
     NullCheck.notNull(item, "Item");
 
-    return this.objects.computeIfAbsent(item, i -> {
-      throw new NoSuchElementException(i.toString());
-    });
+    final @Nullable VolumeL bounds = this.boundsOf(item);
+    if (bounds == null) {
+      throw new NoSuchElementException(item.toString());
+    }
+    return bounds;
   }
 
   @Override
   public void containedBy(
     final VolumeL volume,
-    final Set<T> items)
+    final OctTreeQueryConsumerLType<T> consumer)
   {
     NullCheck.notNull(volume, "Volume");
-    NullCheck.notNull(items, "Items");
-    this.root.volumeContaining(volume, items);
+    this.containedBy(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ(),
+      consumer);
   }
 
   @Override
-  public void overlappedBy(
-    final VolumeL volume,
-    final Set<T> items)
+  public void containedBy(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final OctTreeQueryConsumerLType<T> consumer)
   {
-    NullCheck.notNull(volume, "Volume");
-    NullCheck.notNull(items, "Items");
-    this.root.volumeOverlapping(volume, items);
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.volumeContaining(x0, x1, y0, y1, z0, z1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
   }
 
   @Override
-  public void raycast(
-    final Ray3D ray,
-    final SortedSet<OctTreeRaycastResultL<T>> items)
+  public long count(final VolumeL volume)
   {
-    NullCheck.notNull(ray, "Ray");
-    NullCheck.notNull(items, "Items");
-    this.root.raycast(ray, items);
-  }
-
-  protected final class Octant implements OctTreeOctantLType<T>
-  {
-    private final VolumeL volume;
-    private final Reference2ReferenceOpenHashMap<T, VolumeL> octant_objects;
-    private final @Nullable Octant parent;
-    private final Map<T, VolumeL> octant_objects_view;
-    private @Nullable Octant x0y0z0;
-    private @Nullable Octant x0y1z0;
-    private @Nullable Octant x1y0z0;
-    private @Nullable Octant x1y1z0;
-    private @Nullable Octant x0y0z1;
-    private @Nullable Octant x0y1z1;
-    private @Nullable Octant x1y0z1;
-    private @Nullable Octant x1y1z1;
-
-    private Octant(
-      final @Nullable Octant in_parent,
-      final VolumeL in_volume)
-    {
-      this.parent = in_parent;
-      this.volume = NullCheck.notNull(in_volume, "Volume");
-      this.octant_objects = new Reference2ReferenceOpenHashMap<>();
-      this.octant_objects_view =
-        Reference2ReferenceMaps.unmodifiable(this.octant_objects);
-    }
+    NullCheck.notNull(volume, "Volume");
+    return this.count(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ());
+  }
 
-    private boolean insert(
-      final T item,
-      final VolumeL item_bounds)
-    {
-      Preconditions.checkPrecondition(
-        item,
-        !OctTreeL.this.objects.containsKey(item),
-        x -> "Object must not be in tree");
+  @Override
+  public long count(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    final long count = this.root.countContaining(
+      x0, x1, y0, y1, z0, z1, counters);
+    counters.hits(count);
+    counters.report(TreeQueryKind.QUERY_COUNT);
+    return count;
+  }
 
-      return VolumesL.contains(this.volume, item_bounds)
-        && this.insertStep(item, item_bounds);
-    }
+  @Override
+  public void overlappedBy(
+    final VolumeL volume,
+    final OctTreeQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(volume, "Volume");
+    this.overlappedBy(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ(),
+      consumer);
+  }
 
-    private boolean insertStep(
-      final T item,
-      final VolumeL item_bounds)
-    {
-      /*
-       * The object can fit in this node, but perhaps it is possible to fit it
-       * more precisely within one of the child nodes.
-       */
+  @Override
+  public void overlappedBy(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final OctTreeQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.volumeOverlapping(x0, x1, y0, y1, z0, z1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
+  }
 
-      /*
-       * If this node is a leaf, and is large enough to split, do so.
-       */
+  @Override
+  public void overlappedByAll(
+    final List<VolumeL> volumes,
+    final OctTreeBatchQueryConsumerLType<T> consumer)
+  {
+    this.overlappedByAllFrom(this.root, volumes, consumer);
+  }
 
-      if (this.isLeaf()) {
-        if (this.canSplit()) {
-          this.split();
-        } else {
+  private void overlappedByAllFrom(
+    final OctTreeOctantL<T> start,
+    final List<VolumeL> volumes,
+    final OctTreeBatchQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(volumes, "Volumes");
+    NullCheck.notNull(consumer, "Consumer");
 
-          /*
-           * The node is a leaf, but cannot be split further. Insert directly.
-           */
+    /*
+     * Pack the query volumes into a single array, and carry the indices of
+     * the queries that overlap each octant down the tree on a shared
+     * stack of query indices.
+     */
 
-          return this.insertObject(item, item_bounds);
-        }
+    final long[] targets = new long[volumes.size() * 6];
+    final IntArrayList active = new IntArrayList(volumes.size());
+    for (int index = 0; index < volumes.size(); ++index) {
+      final VolumeL volume = NullCheck.notNull(volumes.get(index), "Volume");
+      final int base = index * 6;
+      targets[base] = volume.minimumX();
+      targets[base + 1] = volume.maximumX();
+      targets[base + 2] = volume.minimumY();
+      targets[base + 3] = volume.maximumY();
+      targets[base + 4] = volume.minimumZ();
+      targets[base + 5] = volume.maximumZ();
+      if (VolumesL.overlaps(volume, start.volume())) {
+        active.add(index);
       }
+    }
 
-      /*
-       * See if the object will fit in any of the child nodes.
-       */
-
-      Invariants.checkInvariant(!this.isLeaf(), "Node is not a leaf");
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, start.level());
+    counters.testNodes(volumes.size());
+    if (!active.isEmpty()) {
+      start.volumeOverlappingAll(targets, active, 0, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_ALL);
+  }
 
-      if (this.insertStepTryZ0(item, item_bounds)) {
-        return true;
-      }
+  @Override
+  public void containedByParallel(
+    final VolumeL volume,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.queryParallel(this.root, volume, true, pool, items);
+  }
 
-      if (this.insertStepTryZ1(item, item_bounds)) {
-        return true;
-      }
+  @Override
+  public void overlappedByParallel(
+    final VolumeL volume,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.queryParallel(this.root, volume, false, pool, items);
+  }
 
-      /*
-       * Otherwise, insert the object into this node.
-       */
+  private void queryParallel(
+    final OctTreeOctantL<T> start,
+    final VolumeL volume,
+    final boolean contained,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    NullCheck.notNull(volume, "Volume");
+    NullCheck.notNull(pool, "Pool");
+    NullCheck.notNull(items, "Items");
 
-      return this.insertObject(item, item_bounds);
-    }
+    /*
+     * Find the octants that may hold matching objects on the calling
+     * thread, and then test the objects that they hold on the pool.
+     */
 
-    private boolean insertStepTryZ0(
-      final T item,
-      final VolumeL item_bounds)
-    {
-      if (VolumesL.contains(this.x0y0z0.volume, item_bounds)) {
-        return this.x0y0z0.insertStep(item, item_bounds);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, start.level());
+    final List<OctTreeOctantL<T>> nodes = new ArrayList<>();
+    start.parallelCandidates(volume, contained, nodes, counters);
+    final List<T> matched = ParallelQuery.execute(
+      pool,
+      this.config.parallelQueryThreshold(),
+      nodes,
+      OctTreeOctantL::objectCount,
+      (node, from, to, results) ->
+        node.volumeMatching(volume, contained, from, to, results));
+    items.addAll(matched);
+
+    if (counters.isEnabled()) {
+      for (int index = 0; index < nodes.size(); ++index) {
+        counters.testObjects(nodes.get(index).objectCount());
       }
-      if (VolumesL.contains(this.x1y0z0.volume, item_bounds)) {
-        return this.x1y0z0.insertStep(item, item_bounds);
-      }
-      if (VolumesL.contains(this.x0y1z0.volume, item_bounds)) {
-        return this.x0y1z0.insertStep(item, item_bounds);
-      }
-      if (VolumesL.contains(this.x1y1z0.volume, item_bounds)) {
-        return this.x1y1z0.insertStep(item, item_bounds);
+      counters.hits((long) matched.size());
+      if (contained) {
+        counters.report(TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL);
+      } else {
+        counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL);
       }
-      return false;
     }
+  }
 
-    private boolean insertStepTryZ1(
-      final T item,
-      final VolumeL item_bounds)
-    {
-      if (VolumesL.contains(this.x0y0z1.volume, item_bounds)) {
-        return this.x0y0z1.insertStep(item, item_bounds);
-      }
-      if (VolumesL.contains(this.x1y0z1.volume, item_bounds)) {
-        return this.x1y0z1.insertStep(item, item_bounds);
-      }
-      if (VolumesL.contains(this.x0y1z1.volume, item_bounds)) {
-        return this.x0y1z1.insertStep(item, item_bounds);
-      }
-      if (VolumesL.contains(this.x1y1z1.volume, item_bounds)) {
-        return this.x1y1z1.insertStep(item, item_bounds);
-      }
-      return false;
-    }
+  @Override
+  public void raycast(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.raycast(ray, consumer, false, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
 
-    private boolean insertObject(
-      final T item,
-      final VolumeL item_bounds)
-    {
-      OctTreeL.this.objects.put(item, item_bounds);
-      this.octant_objects.put(item, item_bounds);
-      return true;
-    }
+  @Override
+  public void raycastEntry(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.raycast(ray, consumer, true, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
 
-    private void split()
-    {
-      Preconditions.checkPrecondition(this.canSplit(), "Octant can split");
+  @Override
+  public void raycastAll(
+    final List<Ray3D> rays,
+    final OctTreeBatchRaycastConsumerLType<T> consumer)
+  {
+    this.raycastAllFrom(this.root, rays, consumer);
+  }
 
-      final Optional<VolumeXYZSplitL<VolumeL>> q_opt = OctantsL.subdivide(this.volume);
-      Invariants.checkInvariant(q_opt.isPresent(), "Octant must be splittable");
+  private void raycastAllFrom(
+    final OctTreeOctantL<T> start,
+    final List<Ray3D> rays,
+    final OctTreeBatchRaycastConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(rays, "Rays");
+    NullCheck.notNull(consumer, "Consumer");
 
-      q_opt.ifPresent(q -> {
-        this.x0y0z0 = new Octant(this, q.x0y0z0());
-        this.x0y1z0 = new Octant(this, q.x0y1z0());
-        this.x1y0z0 = new Octant(this, q.x1y0z0());
-        this.x1y1z0 = new Octant(this, q.x1y1z0());
+    /*
+     * Copy the rays into an array, and carry the indices of the rays that
+     * intersect each octant down the tree on a shared stack of ray indices.
+     */
 
-        this.x0y0z1 = new Octant(this, q.x0y0z1());
-        this.x0y1z1 = new Octant(this, q.x0y1z1());
-        this.x1y0z1 = new Octant(this, q.x1y0z1());
-        this.x1y1z1 = new Octant(this, q.x1y1z1());
-      });
+    final VolumeL volume = start.volume();
+    final Ray3D[] packet = new Ray3D[rays.size()];
+    final IntArrayList active = new IntArrayList(packet.length);
+    for (int index = 0; index < packet.length; ++index) {
+      final Ray3D ray = NullCheck.notNull(rays.get(index), "Ray");
+      packet[index] = ray;
+      if (ray.intersectsVolume(
+        (double) volume.minimumX(),
+        (double) volume.minimumY(),
+        (double) volume.minimumZ(),
+        (double) volume.maximumX(),
+        (double) volume.maximumY(),
+        (double) volume.maximumZ())) {
+        active.add(index);
+      }
     }
 
-    private boolean canSplit()
-    {
-      final long width = this.volume.sizeX();
-      final long height = this.volume.sizeY();
-      final long depth = this.volume.sizeZ();
-
-      final long min_width =
-        Math.max(2L, OctTreeL.this.config.minimumOctantWidth());
-      final long min_height =
-        Math.max(2L, OctTreeL.this.config.minimumOctantHeight());
-      final long min_depth =
-        Math.max(2L, OctTreeL.this.config.minimumOctantDepth());
-
-      final long half_width = width / 2L;
-      final long half_height = height / 2L;
-      final long half_depth = depth / 2L;
-
-      return half_width >= min_width
-        && half_height >= min_height
-        && half_depth >= min_depth;
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, start.level());
+    counters.testNodes(packet.length);
+    if (!active.isEmpty()) {
+      start.raycastAll(packet, active, 0, consumer, counters);
     }
+    counters.report(TreeQueryKind.QUERY_RAYCAST_ALL);
+  }
 
-    private boolean isLeaf()
-    {
-      return this.x0y0z0 == null;
-    }
+  @Override
+  public void raycastUpTo(
+    final Ray3D ray,
+    final double max_distance,
+    final int limit,
+    final List<OctTreeRaycastResultL<T>> items)
+  {
+    this.raycastUpToFrom(this.root, ray, max_distance, limit, items);
+  }
 
-    private boolean remove(final T item)
-    {
-      if (!OctTreeL.this.objects.containsKey(item)) {
-        return false;
-      }
+  private void raycastUpToFrom(
+    final OctTreeOctantL<T> start,
+    final Ray3D ray,
+    final double max_distance,
+    final int limit,
+    final List<OctTreeRaycastResultL<T>> items)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(items, "Items");
 
-      final VolumeL bounds = OctTreeL.this.objects.get(item);
-      return this.removeStep(item, bounds);
+    if (limit > 0) {
+      final QueryCounters counters =
+        QueryCounters.create(this.listener, start.level());
+      final NearestResults<OctTreeRaycastResultL<T>> results =
+        new NearestResults<>(OctTreeRaycastResultL::distance, max_distance, limit);
+      start.raycastNearest(
+        ray,
+        Vectors3D.magnitude(ray.direction()),
+        directionMask(ray),
+        results,
+        counters);
+      counters.hits((long) results.size());
+      items.addAll(results.drainSorted());
+      counters.report(TreeQueryKind.QUERY_RAYCAST_UP_TO);
     }
+  }
 
-    private boolean removeStep(
-      final T item,
-      final VolumeL item_bounds)
-    {
-      if (this.octant_objects.containsKey(item)) {
-        this.octant_objects.remove(item);
-        OctTreeL.this.objects.remove(item);
-        if (OctTreeL.this.config.trimOnRemove()) {
-          this.unsplitAttemptRecursive();
-        }
-        return true;
-      }
-
-      /*
-       * Try removing the item from the child nodes.
-       */
-
-      Invariants.checkInvariant(!this.isLeaf(), "Node cannot be a leaf");
-
-      if (this.removeStepTryZ0(item, item_bounds)) {
-        return true;
-      }
+  @Override
+  public void nearest(
+    final Vector3D point,
+    final int k,
+    final OctTreeNearestConsumerLType<T> consumer)
+  {
+    this.nearestFrom(this.root, point, k, consumer);
+  }
 
-      if (this.removeStepTryZ1(item, item_bounds)) {
-        return true;
-      }
+  private void nearestFrom(
+    final OctTreeOctantL<T> start,
+    final Vector3D point,
+    final int k,
+    final OctTreeNearestConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(point, "Point");
+    NullCheck.notNull(consumer, "Consumer");
+
+    if (k > 0) {
+      final QueryCounters counters =
+        QueryCounters.create(this.listener, start.level());
+      final double px = point.x();
+      final double py = point.y();
+      final double pz = point.z();
+      final NearestResults<NearestItem<T, VolumeL>> results =
+        new NearestResults<>(NearestItem::distance, Double.POSITIVE_INFINITY, k);
 
       /*
-       * The object must be in the tree, according to remove(). Therefore it
-       * must be in this node, or one of the child octants.
+       * Visit octants in order of increasing distance from the point,
+       * stopping when the nearest unvisited octant is further away than
+       * any result that could still be accepted.
        */
 
-      throw new UnreachableCodeException();
-    }
-
-    private boolean removeStepTryZ0(
-      final T item,
-      final VolumeL item_bounds)
-    {
-      if (VolumesL.contains(this.x0y0z0.volume, item_bounds)) {
-        return this.x0y0z0.removeStep(item, item_bounds);
-      }
-      if (VolumesL.contains(this.x1y0z0.volume, item_bounds)) {
-        return this.x1y0z0.removeStep(item, item_bounds);
-      }
-      if (VolumesL.contains(this.x0y1z0.volume, item_bounds)) {
-        return this.x0y1z0.removeStep(item, item_bounds);
+      final NodeQueue<OctTreeOctantL<T>> queue = new NodeQueue<>();
+      counters.testNodes(1);
+      queue.add(start, start.distanceTo(px, py, pz));
+      while (!queue.isEmpty() && queue.peekDistance() <= results.bound()) {
+        queue.poll().nearest(px, py, pz, results, queue, counters);
       }
-      if (VolumesL.contains(this.x1y1z0.volume, item_bounds)) {
-        return this.x1y1z0.removeStep(item, item_bounds);
-      }
-      return false;
-    }
 
-    private boolean removeStepTryZ1(
-      final T item,
-      final VolumeL item_bounds)
-    {
-      if (VolumesL.contains(this.x0y0z1.volume, item_bounds)) {
-        return this.x0y0z1.removeStep(item, item_bounds);
-      }
-      if (VolumesL.contains(this.x1y0z1.volume, item_bounds)) {
-        return this.x1y0z1.removeStep(item, item_bounds);
-      }
-      if (VolumesL.contains(this.x0y1z1.volume, item_bounds)) {
-        return this.x0y1z1.removeStep(item, item_bounds);
-      }
-      if (VolumesL.contains(this.x1y1z1.volume, item_bounds)) {
-        return this.x1y1z1.removeStep(item, item_bounds);
+      for (final NearestItem<T, VolumeL> result : results.drainSorted()) {
+        final VolumeL item_volume = result.bounds();
+        counters.hits(1L);
+        final TreeVisitResult visit = consumer.accept(
+          result.item(),
+          item_volume.minimumX(),
+          item_volume.maximumX(),
+          item_volume.minimumY(),
+          item_volume.maximumY(),
+          item_volume.minimumZ(),
+          item_volume.maximumZ(),
+          result.distance());
+        if (visit == TreeVisitResult.RESULT_TERMINATE) {
+          break;
+        }
       }
-      return false;
+      counters.report(TreeQueryKind.QUERY_NEAREST);
     }
+  }
 
-    private void volumeContaining(
-      final VolumeL target_volume,
-      final Set<T> items)
-    {
-      /*
-       * Avoid performing pointless containment checks.
-       */
-
-      if (this.isLeaf() && this.octant_objects.isEmpty()) {
-        return;
-      }
+  /**
+   * @return A mask with bit 0 set if the ray points towards negative X, bit
+   * 1 set if the ray points towards negative Y, and bit 2 set if the ray
+   * points towards negative Z
+   */
 
-      /*
-       * If {@code target_volume} completely contains this octant, collect
-       * everything in this octant and all children of this octant.
-       */
+  private static int directionMask(final Ray3D ray)
+  {
+    final Vector3D direction = ray.direction();
+    final int x_mask = direction.x() < 0.0 ? 0b001 : 0;
+    final int y_mask = direction.y() < 0.0 ? 0b010 : 0;
+    final int z_mask = direction.z() < 0.0 ? 0b100 : 0;
+    return x_mask | y_mask | z_mask;
+  }
 
-      if (VolumesL.contains(target_volume, this.volume)) {
-        this.collectRecursive(items);
-      }
+  /**
+   * An immutable snapshot of the tree. The snapshot shares the octants of
+   * the tree as they were at the time that the snapshot was taken, and the
+   * tree copies any such octant before modifying it. The index used by
+   * {@code contains} and by bounds lookups is built by a full traversal on
+   * first use, and is then reused for the life of the snapshot.
+   */
 
-      /*
-       * Otherwise, {@code target_volume} may be overlapping this octant and
-       * therefore some items may still be contained within {@code target_volume}.
-       */
+  private final class Snapshot implements OctTreeReadableLType<T>
+  {
+    private final OctTreeOctantL<T> root;
+    private final long size;
+    private volatile @Nullable Reference2ReferenceOpenHashMap<T, VolumeL> index;
 
-      final ObjectSet<Map.Entry<T, VolumeL>> entries =
-        this.octant_objects.entrySet();
-      final ObjectIterator<Map.Entry<T, VolumeL>> iter =
-        entries.iterator();
+    private Snapshot(
+      final OctTreeOctantL<T> in_root,
+      final long in_size)
+    {
+      this.root = NullCheck.notNull(in_root, "Root");
+      this.size = in_size;
+    }
 
-      while (iter.hasNext()) {
-        final Map.Entry<T, VolumeL> entry = iter.next();
-        final T item = entry.getKey();
-        final VolumeL item_volume = entry.getValue();
+    /**
+     * @return A map from objects to their bounds, built on first use
+     */
 
-        if (VolumesL.contains(target_volume, item_volume)) {
-          items.add(item);
-        }
+    private Reference2ReferenceOpenHashMap<T, VolumeL> index()
+    {
+      final @Nullable Reference2ReferenceOpenHashMap<T, VolumeL> current =
+        this.index;
+      if (current != null) {
+        return current;
       }
 
-      if (!this.isLeaf()) {
-        this.x0y0z0.volumeContaining(target_volume, items);
-        this.x0y1z0.volumeContaining(target_volume, items);
-        this.x1y0z0.volumeContaining(target_volume, items);
-        this.x1y1z0.volumeContaining(target_volume, items);
-
-        this.x0y0z1.volumeContaining(target_volume, items);
-        this.x0y1z1.volumeContaining(target_volume, items);
-        this.x1y0z1.volumeContaining(target_volume, items);
-        this.x1y1z1.volumeContaining(target_volume, items);
-      }
+      final Reference2ReferenceOpenHashMap<T, VolumeL> result =
+        new Reference2ReferenceOpenHashMap<>((int) this.size);
+      this.root.collectRecursive((item, x0, x1, y0, y1, z0, z1) -> {
+        result.put(item, VolumeL.of(x0, x1, y0, y1, z0, z1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      }, QueryCounters.disabled());
+      this.index = result;
+      return result;
     }
 
-    private void collectRecursive(final Set<T> items)
+    @Override
+    public long size()
     {
-      items.addAll(this.octant_objects.keySet());
-      if (!this.isLeaf()) {
-        this.x0y0z0.collectRecursive(items);
-        this.x0y1z0.collectRecursive(items);
-        this.x1y0z0.collectRecursive(items);
-        this.x1y1z0.collectRecursive(items);
-
-        this.x0y0z1.collectRecursive(items);
-        this.x0y1z1.collectRecursive(items);
-        this.x1y0z1.collectRecursive(items);
-        this.x1y1z1.collectRecursive(items);
-      }
+      return this.size;
     }
 
-    private void volumeOverlapping(
-      final VolumeL target_volume,
-      final Set<T> items)
+    @Override
+    public VolumeL bounds()
     {
-      /*
-       * Avoid performing pointless overlap checks.
-       */
-
-      if (this.isLeaf() && this.octant_objects.isEmpty()) {
-        return;
-      }
-
-      /*
-       * If {@code target_volume} overlaps this octant, test each object
-       * against {@code target_volume}.
-       */
-
-      if (VolumesL.overlaps(target_volume, this.volume)) {
-        final ObjectSet<Map.Entry<T, VolumeL>> entries =
-          this.octant_objects.entrySet();
-        final ObjectIterator<Map.Entry<T, VolumeL>> iter =
-          entries.iterator();
-
-        while (iter.hasNext()) {
-          final Map.Entry<T, VolumeL> entry = iter.next();
-          final T item = entry.getKey();
-          final VolumeL item_volume = entry.getValue();
+      return this.root.volume();
+    }
 
-          if (VolumesL.overlaps(target_volume, item_volume)) {
-            items.add(item);
-          }
-        }
+    @Override
+    public boolean contains(final T item)
+    {
+      return this.index().containsKey(item);
+    }
 
-        if (!this.isLeaf()) {
-          this.x0y0z0.volumeOverlapping(target_volume, items);
-          this.x1y0z0.volumeOverlapping(target_volume, items);
-          this.x0y1z0.volumeOverlapping(target_volume, items);
-          this.x1y1z0.volumeOverlapping(target_volume, items);
+    @Override
+    public <U> OctTreeReadableLType<U> map(final BiFunction<T, VolumeL, U> f)
+    {
+      NullCheck.notNull(f, "Function");
+
+      final OctTreeLType<U> qt = new OctTreeL<>(OctTreeL.this.config);
+      this.root.collectRecursive((item, x0, x1, y0, y1, z0, z1) -> {
+        final VolumeL item_bounds = VolumeL.of(x0, x1, y0, y1, z0, z1);
+        qt.insert(f.apply(item, item_bounds), item_bounds);
+        return TreeVisitResult.RESULT_CONTINUE;
+      }, QueryCounters.disabled());
+      return qt;
+    }
 
-          this.x0y0z1.volumeOverlapping(target_volume, items);
-          this.x1y0z1.volumeOverlapping(target_volume, items);
-          this.x0y1z1.volumeOverlapping(target_volume, items);
-          this.x1y1z1.volumeOverlapping(target_volume, items);
-        }
-      }
+    @Override
+    public <C> void iterateOctants(
+      final C context,
+      final OctTreeOctantIterationLType<T, C> f)
+    {
+      NullCheck.notNull(context, "Context");
+      NullCheck.notNull(f, "Function");
+      this.root.iterateOctants(context, f, 0L);
     }
 
-    private void raycast(
-      final Ray3D ray,
-      final SortedSet<OctTreeRaycastResultL<T>> items)
+    @Override
+    public VolumeL volumeFor(final T item)
     {
-      /*
-       * Avoid performing pointless ray checks.
-       */
+      NullCheck.notNull(item, "Item");
 
-      if (this.isLeaf() && this.octant_objects.isEmpty()) {
-        return;
+      final @Nullable VolumeL bounds = this.index().get(item);
+      if (bounds == null) {
+        throw new NoSuchElementException(item.toString());
       }
+      return bounds;
+    }
 
-      /*
-       * Check whether or not the ray intersects the octant.
-       */
-
-      final double x0 = (double) this.volume.minimumX();
-      final double x1 = (double) this.volume.maximumX();
-      final double y0 = (double) this.volume.minimumY();
-      final double y1 = (double) this.volume.maximumY();
-      final double z0 = (double) this.volume.minimumZ();
-      final double z1 = (double) this.volume.maximumZ();
-
-      /*
-       * If the ray intersects the octant, check each item in the octant
-       * against the ray.
-       */
-
-      if (ray.intersectsVolume(x0, y0, z0, x1, y1, z1)) {
-        final ObjectSet<Map.Entry<T, VolumeL>> entries =
-          this.octant_objects.entrySet();
-        final ObjectIterator<Map.Entry<T, VolumeL>> iter =
-          entries.iterator();
-
-        while (iter.hasNext()) {
-          final Map.Entry<T, VolumeL> entry = iter.next();
-          final T item = entry.getKey();
-          final VolumeL item_volume = entry.getValue();
-
-          final double item_x0 = (double) item_volume.minimumX();
-          final double item_x1 = (double) item_volume.maximumX();
-          final double item_y0 = (double) item_volume.minimumY();
-          final double item_y1 = (double) item_volume.maximumY();
-          final double item_z0 = (double) item_volume.minimumZ();
-          final double item_z1 = (double) item_volume.maximumZ();
-
-          if (ray.intersectsVolume(
-            item_x0,
-            item_y0,
-            item_z0,
-            item_x1,
-            item_y1,
-            item_z1)) {
-            final double distance = Vectors3D.distance(
-              Vector3D.of(item_x0, item_y0, item_z0),
-              ray.origin());
-            final OctTreeRaycastResultL<T> result =
-              OctTreeRaycastResultL.of(distance, item_volume, item);
-            items.add(result);
-          }
-        }
-
-        if (!this.isLeaf()) {
-          this.x0y0z0.raycast(ray, items);
-          this.x0y1z0.raycast(ray, items);
-          this.x1y0z0.raycast(ray, items);
-          this.x1y1z0.raycast(ray, items);
-
-          this.x0y0z1.raycast(ray, items);
-          this.x0y1z1.raycast(ray, items);
-          this.x1y0z1.raycast(ray, items);
-          this.x1y1z1.raycast(ray, items);
-        }
-      }
+    @Override
+    public void containedBy(
+      final VolumeL volume,
+      final OctTreeQueryConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(volume, "Volume");
+      this.containedBy(
+        volume.minimumX(),
+        volume.maximumX(),
+        volume.minimumY(),
+        volume.maximumY(),
+        volume.minimumZ(),
+        volume.maximumZ(),
+        consumer);
     }
 
-    private <C> TreeVisitResult iterateOctants(
-      final C context,
-      final OctTreeOctantIterationLType<T, C> f,
-      final long depth)
+    @Override
+    public void containedBy(
+      final long x0,
+      final long x1,
+      final long y0,
+      final long y1,
+      final long z0,
+      final long z1,
+      final OctTreeQueryConsumerLType<T> consumer)
     {
-      switch (f.apply(context, this, depth)) {
-        case RESULT_CONTINUE: {
-          if (!this.isLeaf()) {
-            switch (this.iterateOctantsZ0(context, f, depth)) {
-              case RESULT_CONTINUE:
-                break;
-              case RESULT_TERMINATE:
-                return TreeVisitResult.RESULT_TERMINATE;
-            }
-            switch (this.iterateOctantsZ1(context, f, depth)) {
-              case RESULT_CONTINUE:
-                break;
-              case RESULT_TERMINATE:
-                return TreeVisitResult.RESULT_TERMINATE;
-            }
-          }
-          return TreeVisitResult.RESULT_CONTINUE;
-        }
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
+      NullCheck.notNull(consumer, "Consumer");
+      Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+      final QueryCounters counters =
+        QueryCounters.create(OctTreeL.this.listener, this.root.level());
+      this.root.volumeContaining(x0, x1, y0, y1, z0, z1, consumer, counters);
+      counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+    }
 
-      throw new UnreachableCodeException();
+    @Override
+    public long count(final VolumeL volume)
+    {
+      NullCheck.notNull(volume, "Volume");
+      return this.count(
+        volume.minimumX(),
+        volume.maximumX(),
+        volume.minimumY(),
+        volume.maximumY(),
+        volume.minimumZ(),
+        volume.maximumZ());
     }
 
-    private <C> TreeVisitResult iterateOctantsZ0(
-      final C c,
-      final OctTreeOctantIterationLType<T, C> f,
-      final long depth)
+    @Override
+    public long count(
+      final long x0,
+      final long x1,
+      final long y0,
+      final long y1,
+      final long z0,
+      final long z1)
     {
-      switch (this.x0y0z0.iterateOctants(c, f, Math.addExact(depth, 1L))) {
-        case RESULT_CONTINUE:
-          break;
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
-      switch (this.x1y0z0.iterateOctants(c, f, Math.addExact(depth, 1L))) {
-        case RESULT_CONTINUE:
-          break;
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
-      switch (this.x0y1z0.iterateOctants(c, f, Math.addExact(depth, 1L))) {
-        case RESULT_CONTINUE:
-          break;
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
-      switch (this.x1y1z0.iterateOctants(c, f, Math.addExact(depth, 1L))) {
-        case RESULT_CONTINUE:
-          break;
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
-      return TreeVisitResult.RESULT_CONTINUE;
+      Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+      final QueryCounters counters =
+        QueryCounters.create(OctTreeL.this.listener, this.root.level());
+      final long count = this.root.countContaining(
+        x0, x1, y0, y1, z0, z1, counters);
+      counters.hits(count);
+      counters.report(TreeQueryKind.QUERY_COUNT);
+      return count;
     }
 
-    private <C> TreeVisitResult iterateOctantsZ1(
-      final C c,
-      final OctTreeOctantIterationLType<T, C> f,
-      final long depth)
+    @Override
+    public void overlappedBy(
+      final VolumeL volume,
+      final OctTreeQueryConsumerLType<T> consumer)
     {
-      switch (this.x0y0z1.iterateOctants(c, f, Math.addExact(depth, 1L))) {
-        case RESULT_CONTINUE:
-          break;
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
-      switch (this.x1y0z1.iterateOctants(c, f, Math.addExact(depth, 1L))) {
-        case RESULT_CONTINUE:
-          break;
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
-      switch (this.x0y1z1.iterateOctants(c, f, Math.addExact(depth, 1L))) {
-        case RESULT_CONTINUE:
-          break;
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
-      switch (this.x1y1z1.iterateOctants(c, f, Math.addExact(depth, 1L))) {
-        case RESULT_CONTINUE:
-          break;
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
-      return TreeVisitResult.RESULT_CONTINUE;
+      NullCheck.notNull(volume, "Volume");
+      this.overlappedBy(
+        volume.minimumX(),
+        volume.maximumX(),
+        volume.minimumY(),
+        volume.maximumY(),
+        volume.minimumZ(),
+        volume.maximumZ(),
+        consumer);
     }
 
     @Override
-    public Map<T, VolumeL> objects()
+    public void overlappedBy(
+      final long x0,
+      final long x1,
+      final long y0,
+      final long y1,
+      final long z0,
+      final long z1,
+      final OctTreeQueryConsumerLType<T> consumer)
     {
-      return this.octant_objects_view;
+      NullCheck.notNull(consumer, "Consumer");
+      Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+      final QueryCounters counters =
+        QueryCounters.create(OctTreeL.this.listener, this.root.level());
+      this.root.volumeOverlapping(x0, x1, y0, y1, z0, z1, consumer, counters);
+      counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
     }
 
     @Override
-    public VolumeL volume()
+    public void overlappedByAll(
+      final List<VolumeL> volumes,
+      final OctTreeBatchQueryConsumerLType<T> consumer)
     {
-      return this.volume;
+      OctTreeL.this.overlappedByAllFrom(this.root, volumes, consumer);
     }
 
-    /**
-     * Attempt to turn this node back into a leaf.
-     */
+    @Override
+    public void containedByParallel(
+      final VolumeL volume,
+      final ForkJoinPool pool,
+      final Set<T> items)
+    {
+      OctTreeL.this.queryParallel(this.root, volume, true, pool, items);
+    }
 
-    private void unsplitAttempt()
+    @Override
+    public void overlappedByParallel(
+      final VolumeL volume,
+      final ForkJoinPool pool,
+      final Set<T> items)
     {
-      if (!this.isLeaf()) {
-        boolean prune = true;
-
-        prune &= this.x0y0z0.unsplitCanPrune();
-        prune &= this.x1y0z0.unsplitCanPrune();
-        prune &= this.x0y1z0.unsplitCanPrune();
-        prune &= this.x1y1z0.unsplitCanPrune();
-
-        prune &= this.x0y0z1.unsplitCanPrune();
-        prune &= this.x1y0z1.unsplitCanPrune();
-        prune &= this.x0y1z1.unsplitCanPrune();
-        prune &= this.x1y1z1.unsplitCanPrune();
-
-        if (prune) {
-          this.x0y0z0 = null;
-          this.x0y1z0 = null;
-          this.x1y0z0 = null;
-          this.x1y1z0 = null;
-          this.x0y0z1 = null;
-          this.x0y1z1 = null;
-          this.x1y0z1 = null;
-          this.x1y1z1 = null;
-        }
-      }
+      OctTreeL.this.queryParallel(this.root, volume, false, pool, items);
     }
 
-    /**
-     * Attempt to turn this node and as many ancestors of this node back into
-     * leaves as possible.
-     */
+    @Override
+    public void raycast(
+      final Ray3D ray,
+      final OctTreeRaycastConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(ray, "Ray");
+      NullCheck.notNull(consumer, "Consumer");
+      final QueryCounters counters =
+        QueryCounters.create(OctTreeL.this.listener, this.root.level());
+      this.root.raycast(ray, consumer, false, counters);
+      counters.report(TreeQueryKind.QUERY_RAYCAST);
+    }
 
-    private void unsplitAttemptRecursive()
+    @Override
+    public void raycastEntry(
+      final Ray3D ray,
+      final OctTreeRaycastConsumerLType<T> consumer)
     {
-      this.unsplitAttempt();
-      if (this.parent != null) {
-        this.parent.unsplitAttemptRecursive();
-      }
+      NullCheck.notNull(ray, "Ray");
+      NullCheck.notNull(consumer, "Consumer");
+      final QueryCounters counters =
+        QueryCounters.create(OctTreeL.this.listener, this.root.level());
+      this.root.raycast(ray, consumer, true, counters);
+      counters.report(TreeQueryKind.QUERY_RAYCAST);
     }
 
-    private boolean unsplitCanPrune()
+    @Override
+    public void raycastAll(
+      final List<Ray3D> rays,
+      final OctTreeBatchRaycastConsumerLType<T> consumer)
     {
-      return this.isLeaf() && this.octant_objects.isEmpty();
+      OctTreeL.this.raycastAllFrom(this.root, rays, consumer);
     }
 
-    private void trim()
+    @Override
+    public void raycastUpTo(
+      final Ray3D ray,
+      final double max_distance,
+      final int limit,
+      final List<OctTreeRaycastResultL<T>> items)
     {
-      if (this.isLeaf()) {
-        this.unsplitAttemptRecursive();
-      } else {
-        this.x0y0z0.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x0y1z0.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x1y0z0.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x1y1z0.trim();
-        if (this.isLeaf()) {
-          return;
-        }
+      OctTreeL.this.raycastUpToFrom(this.root, ray, max_distance, limit, items);
+    }
 
-        this.x0y0z1.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x0y1z1.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x1y0z1.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x1y1z1.trim();
-      }
+    @Override
+    public void nearest(
+      final Vector3D point,
+      final int k,
+      final OctTreeNearestConsumerLType<T> consumer)
+    {
+      OctTreeL.this.nearestFrom(this.root, point, k, consumer);
     }
   }
 }
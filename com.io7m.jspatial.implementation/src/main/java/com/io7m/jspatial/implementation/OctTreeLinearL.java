@@ -0,0 +1,1176 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+import com.io7m.jregions.core.unparameterized.volumes.VolumesL;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeQueryListenerType;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchQueryConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchRaycastConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationL;
+import com.io7m.jspatial.api.octtrees.OctTreeLType;
+import com.io7m.jspatial.api.octtrees.OctTreeNearestConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeOctantIterationLType;
+import com.io7m.jspatial.api.octtrees.OctTreeQueryConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastResultL;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableLType;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+import com.io7m.jtensors.core.unparameterized.vectors.Vectors3D;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.Reference2LongMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
+
+/**
+ * A linear implementation of the {@link OctTreeLType} interface.
+ *
+ * The tree does not allocate an object per octant: Each octant is
+ * identified by a key that encodes its depth and its path from the root
+ * as a sequence of three-bit child indices, and the keys of all octants are
+ * held in a single sorted array (see {@link MortonTableL}). Sorting the keys
+ * places the octants in the order of a pre-order traversal, so the
+ * descendants of any octant occupy a contiguous range of the array, and
+ * the subtree below an octant that lies entirely within a query volume is
+ * visited with a sequential scan.
+ *
+ * The tree behaves identically to {@link OctTreeL}, with the exception that
+ * it is limited to a depth of {@code 19} octants. If a tree configured to
+ * expand grows beyond that depth, the octants at the deepest level are
+ * merged into their parents.
+ *
+ * Unlike {@link OctTreeL}, the tree does not share its structure with its
+ * snapshots. Taking a snapshot takes constant time, but the first
+ * modification of the tree after each snapshot copies the arrays that
+ * hold the keys of all octants, and so takes {@code O(n)} time in the
+ * number of octants. Only the collections of objects held by each octant
+ * are shared, and each is copied the first time that it is modified.
+ * Code that interleaves snapshots with individual modifications should
+ * prefer {@link OctTreeL}.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+public final class OctTreeLinearL<T> implements OctTreeLType<T>
+{
+  private final Reference2LongOpenHashMap<T> objects;
+  private final OctTreeConfigurationL config;
+  private OctTreeLinearNodesL<T> nodes;
+  private boolean shared;
+  private @Nullable TreeQueryListenerType listener;
+
+  private OctTreeLinearL(final OctTreeConfigurationL in_config)
+  {
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.objects = new Reference2LongOpenHashMap<>();
+    this.nodes = new OctTreeLinearNodesL<>(this, in_config.volume());
+    this.shared = false;
+  }
+
+  /**
+   * @return The tree configuration
+   */
+
+  OctTreeConfigurationL configuration()
+  {
+    return this.config;
+  }
+
+  /**
+   * @return The map from each object in the tree to the key of the octant
+   * that holds it
+   */
+
+  Reference2LongOpenHashMap<T> objectIndex()
+  {
+    return this.objects;
+  }
+
+  /**
+   * Create a new empty tree with the given bounds.
+   *
+   * @param config The tree configuration
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> OctTreeLType<T> create(
+    final OctTreeConfigurationL config)
+  {
+    return new OctTreeLinearL<>(config);
+  }
+
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   * This is equivalent to creating an empty tree and inserting each item in
+   * turn, but the tree is built top-down in a single pass, appending the
+   * octants in key order.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   *
+   * @see OctTreeL#createFrom(OctTreeConfigurationL, Map)
+   */
+
+  public static <T> OctTreeLType<T> createFrom(
+    final OctTreeConfigurationL config,
+    final Map<T, VolumeL> items)
+  {
+    NullCheck.notNull(items, "Items");
+
+    final OctTreeLinearL<T> tree = new OctTreeLinearL<>(config);
+    final BulkItems<T, VolumeL> bulk = tree.bulkItems(items);
+    tree.nodes.build(bulk, false);
+    return tree;
+  }
+
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   * The resulting tree is identical to the tree that would be returned by
+   * {@link #createFrom(OctTreeConfigurationL, Map)}, but the subtrees below
+   * any octant that receives at least
+   * {@link OctTreeConfigurationL#parallelBuildThreshold()} items are built
+   * into separate arrays by tasks executed on {@code pool}, and the arrays
+   * are then concatenated.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param pool   The pool that will execute tasks
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> OctTreeLType<T> createFromParallel(
+    final OctTreeConfigurationL config,
+    final Map<T, VolumeL> items,
+    final ForkJoinPool pool)
+  {
+    NullCheck.notNull(items, "Items");
+    NullCheck.notNull(pool, "Pool");
+
+    final OctTreeLinearL<T> tree = new OctTreeLinearL<>(config);
+    final BulkItems<T, VolumeL> bulk = tree.bulkItems(items);
+    pool.invoke(ForkJoinTask.adapt(() -> tree.nodes.build(bulk, true)));
+    tree.nodes.register();
+    return tree;
+  }
+
+  /**
+   * @return The given items that fit within the bounds of the tree, growing
+   * the tree first if it is configured to expand
+   */
+
+  private BulkItems<T, VolumeL> bulkItems(
+    final Map<T, VolumeL> items)
+  {
+    final BulkItems<T, VolumeL> bulk = new BulkItems<>(items.size());
+    for (final Map.Entry<T, VolumeL> entry : items.entrySet()) {
+      final T item = NullCheck.notNull(entry.getKey(), "Item");
+      final VolumeL item_bounds = NullCheck.notNull(entry.getValue(), "Bounds");
+      if (this.expandToContain(
+        item_bounds.minimumX(),
+        item_bounds.maximumX(),
+        item_bounds.minimumY(),
+        item_bounds.maximumY(),
+        item_bounds.minimumZ(),
+        item_bounds.maximumZ())) {
+        bulk.add(item, item_bounds);
+      }
+    }
+
+    /*
+     * The tree is built from scratch below the final root, so the empty
+     * octants created while growing the root are discarded.
+     */
+
+    if (this.config.expandable()) {
+      this.nodes = new OctTreeLinearNodesL<>(this, this.nodes.volume());
+    }
+    return bulk;
+  }
+
+  @Override
+  public void trim()
+  {
+    this.ownNodes().trim();
+  }
+
+  @Override
+  public long size()
+  {
+    return (long) this.objects.size();
+  }
+
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || this.getClass() != o.getClass()) {
+      return false;
+    }
+
+    final OctTreeLinearL<?> that = (OctTreeLinearL<?>) o;
+    if (this.objects.size() != that.objects.size()) {
+      return false;
+    }
+
+    final ObjectIterator<Reference2LongMap.Entry<T>> iter =
+      this.objects.reference2LongEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2LongMap.Entry<T> entry = iter.next();
+      final T item = entry.getKey();
+      final VolumeL bounds = this.nodes.boundsOf(item, entry.getLongValue());
+      if (!bounds.equals(that.boundsOf(item))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    int hash = 0;
+
+    final ObjectIterator<Reference2LongMap.Entry<T>> iter =
+      this.objects.reference2LongEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2LongMap.Entry<T> entry = iter.next();
+      final T item = entry.getKey();
+      hash += System.identityHashCode(item)
+        ^ this.nodes.boundsOf(item, entry.getLongValue()).hashCode();
+    }
+    return hash;
+  }
+
+  private @Nullable VolumeL boundsOf(final Object item)
+  {
+    if (!this.objects.containsKey(item)) {
+      return null;
+    }
+    return this.nodes.boundsOf(item, this.objects.getLong(item));
+  }
+
+  @Override
+  public VolumeL bounds()
+  {
+    return this.nodes.volume();
+  }
+
+  @Override
+  public boolean insert(
+    final T item,
+    final VolumeL item_bounds)
+  {
+    NullCheck.notNull(item_bounds, "Bounds");
+    return this.insert(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY(),
+      item_bounds.minimumZ(),
+      item_bounds.maximumZ());
+  }
+
+  @Override
+  public boolean insert(
+    final T item,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    NullCheck.notNull(item, "Item");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+
+    if (this.objects.containsKey(item)) {
+      this.remove(item);
+      Invariants.checkInvariant(
+        item,
+        !this.objects.containsKey(item),
+        x -> "Item must not be in tree");
+    }
+
+    return this.expandToContain(x0, x1, y0, y1, z0, z1)
+      && this.ownNodes().insert(item, x0, x1, y0, y1, z0, z1);
+  }
+
+  @Override
+  public boolean contains(final T item)
+  {
+    return this.objects.containsKey(item);
+  }
+
+  @Override
+  public boolean remove(final T item)
+  {
+    NullCheck.notNull(item, "Item");
+
+    if (!this.objects.containsKey(item)) {
+      return false;
+    }
+
+    this.ownNodes().removeObject(item, this.objects.getLong(item));
+    return true;
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final VolumeL item_bounds)
+  {
+    NullCheck.notNull(item_bounds, "Bounds");
+    return this.move(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY(),
+      item_bounds.minimumZ(),
+      item_bounds.maximumZ());
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    NullCheck.notNull(item, "Item");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+
+    if (!this.objects.containsKey(item)) {
+      return false;
+    }
+
+    if (!this.expandToContain(x0, x1, y0, y1, z0, z1)) {
+      return false;
+    }
+
+    /*
+     * Growing the tree changes the keys of all octants, so the key of the
+     * octant holding the object is only read once the tree has grown.
+     */
+
+    this.ownNodes().moveObject(
+      item, this.objects.getLong(item), x0, x1, y0, y1, z0, z1);
+    return true;
+  }
+
+  @Override
+  public void setQueryListener(
+    final Optional<TreeQueryListenerType> in_listener)
+  {
+    NullCheck.notNull(in_listener, "Listener");
+    this.listener = in_listener.orElse(null);
+  }
+
+  @Override
+  public void clear()
+  {
+    this.nodes = new OctTreeLinearNodesL<>(this, this.nodes.volume());
+    this.shared = false;
+    this.objects.clear();
+  }
+
+  @Override
+  public OctTreeReadableLType<T> snapshot()
+  {
+    this.shared = true;
+    return new Snapshot(this.nodes.queries(), (long) this.objects.size());
+  }
+
+  /**
+   * @return The octants of the tree, first replacing them with a copy if
+   * they are shared with a snapshot
+   */
+
+  private OctTreeLinearNodesL<T> ownNodes()
+  {
+    if (this.shared) {
+      this.nodes = this.nodes.copy();
+      this.shared = false;
+    }
+    return this.nodes;
+  }
+
+  /**
+   * Grow the root of the tree until it contains the given bounds, if the
+   * tree is configured to expand.
+   *
+   * @return {@code true} iff the root of the tree contains the given bounds
+   */
+
+  private boolean expandToContain(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    if (this.config.expandable()) {
+      while (!this.nodes.contains(x0, x1, y0, y1, z0, z1)) {
+        if (!this.ownNodes().expandTowards(x0, y0, z0)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return this.nodes.contains(x0, x1, y0, y1, z0, z1);
+  }
+
+  @Override
+  public <U> OctTreeLType<U> map(final BiFunction<T, VolumeL, U> f)
+  {
+    NullCheck.notNull(f, "Function");
+
+    final OctTreeLType<U> qt = new OctTreeLinearL<>(this.config);
+    final ObjectIterator<Reference2LongMap.Entry<T>> iter =
+      this.objects.reference2LongEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2LongMap.Entry<T> entry = iter.next();
+      final T item = entry.getKey();
+      final VolumeL item_volume =
+        this.nodes.boundsOf(item, entry.getLongValue());
+      qt.insert(f.apply(item, item_volume), item_volume);
+    }
+    return qt;
+  }
+
+  @Override
+  public <C> void iterateOctants(
+    final C context,
+    final OctTreeOctantIterationLType<T, C> f)
+  {
+    NullCheck.notNull(context, "Context");
+    NullCheck.notNull(f, "Function");
+    this.nodes.queries().iterateOctants(context, f);
+  }
+
+  @Override
+  public VolumeL volumeFor(final T item)
+  {
+    NullCheck.notNull(item, "Item");
+
+    final @Nullable VolumeL bounds = this.boundsOf(item);
+    if (bounds == null) {
+      throw new NoSuchElementException(item.toString());
+    }
+    return bounds;
+  }
+
+  @Override
+  public void containedBy(
+    final VolumeL volume,
+    final OctTreeQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(volume, "Volume");
+    this.containedBy(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ(),
+      consumer);
+  }
+
+  @Override
+  public void containedBy(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final OctTreeQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.nodes.queries().volumeContaining(
+      x0, x1, y0, y1, z0, z1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+  }
+
+  @Override
+  public long count(final VolumeL volume)
+  {
+    NullCheck.notNull(volume, "Volume");
+    return this.count(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ());
+  }
+
+  @Override
+  public long count(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    final long count = this.nodes.queries().countContaining(
+      x0, x1, y0, y1, z0, z1, counters);
+    counters.hits(count);
+    counters.report(TreeQueryKind.QUERY_COUNT);
+    return count;
+  }
+
+  @Override
+  public void overlappedBy(
+    final VolumeL volume,
+    final OctTreeQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(volume, "Volume");
+    this.overlappedBy(
+      volume.minimumX(),
+      volume.maximumX(),
+      volume.minimumY(),
+      volume.maximumY(),
+      volume.minimumZ(),
+      volume.maximumZ(),
+      consumer);
+  }
+
+  @Override
+  public void overlappedBy(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final OctTreeQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.nodes.queries().volumeOverlapping(
+      x0, x1, y0, y1, z0, z1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
+  }
+
+  @Override
+  public void overlappedByAll(
+    final List<VolumeL> volumes,
+    final OctTreeBatchQueryConsumerLType<T> consumer)
+  {
+    this.overlappedByAllFrom(this.nodes.queries(), volumes, consumer);
+  }
+
+  private void overlappedByAllFrom(
+    final OctTreeLinearQueriesL<T> start,
+    final List<VolumeL> volumes,
+    final OctTreeBatchQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(volumes, "Volumes");
+    NullCheck.notNull(consumer, "Consumer");
+
+    /*
+     * Pack the query volumes into a single array, and carry the indices of
+     * the queries that overlap each octant down the tree on a shared
+     * stack of query indices.
+     */
+
+    final long[] targets = new long[volumes.size() * 6];
+    final IntArrayList active = new IntArrayList(volumes.size());
+    for (int index = 0; index < volumes.size(); ++index) {
+      final VolumeL volume = NullCheck.notNull(volumes.get(index), "Volume");
+      final int base = index * 6;
+      targets[base] = volume.minimumX();
+      targets[base + 1] = volume.maximumX();
+      targets[base + 2] = volume.minimumY();
+      targets[base + 3] = volume.maximumY();
+      targets[base + 4] = volume.minimumZ();
+      targets[base + 5] = volume.maximumZ();
+      if (VolumesL.overlaps(volume, start.volume())) {
+        active.add(index);
+      }
+    }
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    counters.testNodes(volumes.size());
+    if (!active.isEmpty()) {
+      start.volumeOverlappingAll(targets, active, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_ALL);
+  }
+
+  @Override
+  public void containedByParallel(
+    final VolumeL volume,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.queryParallel(this.nodes.queries(), volume, true, pool, items);
+  }
+
+  @Override
+  public void overlappedByParallel(
+    final VolumeL volume,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.queryParallel(this.nodes.queries(), volume, false, pool, items);
+  }
+
+  private void queryParallel(
+    final OctTreeLinearQueriesL<T> start,
+    final VolumeL volume,
+    final boolean contained,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    NullCheck.notNull(volume, "Volume");
+    NullCheck.notNull(pool, "Pool");
+    NullCheck.notNull(items, "Items");
+
+    /*
+     * Find the octants that may hold matching objects on the calling
+     * thread, and then test the objects that they hold on the pool.
+     */
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    final List<NodeObjectsL<T>> candidates = new ArrayList<>();
+    start.parallelCandidates(volume, contained, candidates, counters);
+    final List<T> matched = ParallelQuery.execute(
+      pool,
+      this.config.parallelQueryThreshold(),
+      candidates,
+      NodeObjectsL::size,
+      (node, from, to, results) -> OctTreeLinearQueriesL.volumeMatching(
+        node, volume, contained, from, to, results));
+    items.addAll(matched);
+
+    if (counters.isEnabled()) {
+      for (int index = 0; index < candidates.size(); ++index) {
+        counters.testObjects(candidates.get(index).size());
+      }
+      counters.hits((long) matched.size());
+      if (contained) {
+        counters.report(TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL);
+      } else {
+        counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL);
+      }
+    }
+  }
+
+  @Override
+  public void raycast(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.nodes.queries().raycast(ray, consumer, false, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+
+  @Override
+  public void raycastEntry(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.nodes.queries().raycast(ray, consumer, true, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+
+  @Override
+  public void raycastAll(
+    final List<Ray3D> rays,
+    final OctTreeBatchRaycastConsumerLType<T> consumer)
+  {
+    this.raycastAllFrom(this.nodes.queries(), rays, consumer);
+  }
+
+  private void raycastAllFrom(
+    final OctTreeLinearQueriesL<T> start,
+    final List<Ray3D> rays,
+    final OctTreeBatchRaycastConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(rays, "Rays");
+    NullCheck.notNull(consumer, "Consumer");
+
+    /*
+     * Copy the rays into an array, and carry the indices of the rays that
+     * intersect each octant down the tree on a shared stack of ray indices.
+     */
+
+    final VolumeL volume = start.volume();
+    final Ray3D[] packet = new Ray3D[rays.size()];
+    final IntArrayList active = new IntArrayList(packet.length);
+    for (int index = 0; index < packet.length; ++index) {
+      final Ray3D ray = NullCheck.notNull(rays.get(index), "Ray");
+      packet[index] = ray;
+      if (ray.intersectsVolume(
+        (double) volume.minimumX(),
+        (double) volume.minimumY(),
+        (double) volume.minimumZ(),
+        (double) volume.maximumX(),
+        (double) volume.maximumY(),
+        (double) volume.maximumZ())) {
+        active.add(index);
+      }
+    }
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    counters.testNodes(packet.length);
+    if (!active.isEmpty()) {
+      start.raycastAll(packet, active, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_RAYCAST_ALL);
+  }
+
+  @Override
+  public void raycastUpTo(
+    final Ray3D ray,
+    final double max_distance,
+    final int limit,
+    final List<OctTreeRaycastResultL<T>> items)
+  {
+    this.raycastUpToFrom(this.nodes.queries(), ray, max_distance, limit, items);
+  }
+
+  private void raycastUpToFrom(
+    final OctTreeLinearQueriesL<T> start,
+    final Ray3D ray,
+    final double max_distance,
+    final int limit,
+    final List<OctTreeRaycastResultL<T>> items)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(items, "Items");
+
+    if (limit > 0) {
+      final QueryCounters counters = QueryCounters.create(this.listener);
+      final NearestResults<OctTreeRaycastResultL<T>> results =
+        new NearestResults<>(OctTreeRaycastResultL::distance, max_distance, limit);
+      start.raycastNearest(
+        ray,
+        Vectors3D.magnitude(ray.direction()),
+        directionMask(ray),
+        results,
+        counters);
+      counters.hits((long) results.size());
+      items.addAll(results.drainSorted());
+      counters.report(TreeQueryKind.QUERY_RAYCAST_UP_TO);
+    }
+  }
+
+  @Override
+  public void nearest(
+    final Vector3D point,
+    final int k,
+    final OctTreeNearestConsumerLType<T> consumer)
+  {
+    this.nearestFrom(this.nodes.queries(), point, k, consumer);
+  }
+
+  private void nearestFrom(
+    final OctTreeLinearQueriesL<T> start,
+    final Vector3D point,
+    final int k,
+    final OctTreeNearestConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(point, "Point");
+    NullCheck.notNull(consumer, "Consumer");
+
+    if (k > 0) {
+      final QueryCounters counters = QueryCounters.create(this.listener);
+      final double px = point.x();
+      final double py = point.y();
+      final double pz = point.z();
+      final NearestResults<NearestItem<T, VolumeL>> results =
+        new NearestResults<>(NearestItem::distance, Double.POSITIVE_INFINITY, k);
+
+      /*
+       * Visit octants in order of increasing distance from the point,
+       * stopping when the nearest unvisited octant is further away than
+       * any result that could still be accepted.
+       */
+
+      final NodeQueue<OctTreeLinearQueriesL.Cell> queue = new NodeQueue<>();
+      final OctTreeLinearQueriesL.Cell root = start.rootCell();
+      counters.testNodes(1);
+      queue.add(root, start.distanceTo(root, px, py, pz));
+      while (!queue.isEmpty() && queue.peekDistance() <= results.bound()) {
+        start.nearest(queue.poll(), px, py, pz, results, queue, counters);
+      }
+
+      for (final NearestItem<T, VolumeL> result : results.drainSorted()) {
+        final VolumeL item_volume = result.bounds();
+        counters.hits(1L);
+        final TreeVisitResult visit = consumer.accept(
+          result.item(),
+          item_volume.minimumX(),
+          item_volume.maximumX(),
+          item_volume.minimumY(),
+          item_volume.maximumY(),
+          item_volume.minimumZ(),
+          item_volume.maximumZ(),
+          result.distance());
+        if (visit == TreeVisitResult.RESULT_TERMINATE) {
+          break;
+        }
+      }
+      counters.report(TreeQueryKind.QUERY_NEAREST);
+    }
+  }
+
+  /**
+   * @return A mask with bit 0 set if the ray points towards negative X, bit
+   * 1 set if the ray points towards negative Y, and bit 2 set if the ray
+   * points towards negative Z
+   */
+
+  private static int directionMask(final Ray3D ray)
+  {
+    final Vector3D direction = ray.direction();
+    final int x_mask = direction.x() < 0.0 ? 0b001 : 0;
+    final int y_mask = direction.y() < 0.0 ? 0b010 : 0;
+    final int z_mask = direction.z() < 0.0 ? 0b100 : 0;
+    return x_mask | y_mask | z_mask;
+  }
+
+  /**
+   * An immutable snapshot of the tree. The snapshot shares the octants of
+   * the tree as they were at the time that the snapshot was taken, and the
+   * tree copies the octants before it is next modified. The
+   * index used by {@code contains} and by bounds lookups is built by a full
+   * traversal on first use, and is then reused for the life of the snapshot.
+   */
+
+  private final class Snapshot implements OctTreeReadableLType<T>
+  {
+    private final OctTreeLinearQueriesL<T> queries;
+    private final long size;
+    private volatile @Nullable Reference2ReferenceOpenHashMap<T, VolumeL> index;
+
+    private Snapshot(
+      final OctTreeLinearQueriesL<T> in_queries,
+      final long in_size)
+    {
+      this.queries = NullCheck.notNull(in_queries, "Queries");
+      this.size = in_size;
+    }
+
+    /**
+     * @return A map from objects to their bounds, built on first use
+     */
+
+    private Reference2ReferenceOpenHashMap<T, VolumeL> index()
+    {
+      final @Nullable Reference2ReferenceOpenHashMap<T, VolumeL> current =
+        this.index;
+      if (current != null) {
+        return current;
+      }
+
+      final Reference2ReferenceOpenHashMap<T, VolumeL> result =
+        new Reference2ReferenceOpenHashMap<>((int) this.size);
+      this.queries.collectAll((item, x0, x1, y0, y1, z0, z1) -> {
+        result.put(item, VolumeL.of(x0, x1, y0, y1, z0, z1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      this.index = result;
+      return result;
+    }
+
+    @Override
+    public long size()
+    {
+      return this.size;
+    }
+
+    @Override
+    public VolumeL bounds()
+    {
+      return this.queries.volume();
+    }
+
+    @Override
+    public boolean contains(final T item)
+    {
+      return this.index().containsKey(item);
+    }
+
+    @Override
+    public <U> OctTreeReadableLType<U> map(final BiFunction<T, VolumeL, U> f)
+    {
+      NullCheck.notNull(f, "Function");
+
+      final OctTreeLType<U> qt =
+        new OctTreeLinearL<>(OctTreeLinearL.this.config);
+      this.queries.collectAll((item, x0, x1, y0, y1, z0, z1) -> {
+        final VolumeL item_bounds = VolumeL.of(x0, x1, y0, y1, z0, z1);
+        qt.insert(f.apply(item, item_bounds), item_bounds);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      return qt;
+    }
+
+    @Override
+    public <C> void iterateOctants(
+      final C context,
+      final OctTreeOctantIterationLType<T, C> f)
+    {
+      NullCheck.notNull(context, "Context");
+      NullCheck.notNull(f, "Function");
+      this.queries.iterateOctants(context, f);
+    }
+
+    @Override
+    public VolumeL volumeFor(final T item)
+    {
+      NullCheck.notNull(item, "Item");
+
+      final @Nullable VolumeL bounds = this.index().get(item);
+      if (bounds == null) {
+        throw new NoSuchElementException(item.toString());
+      }
+      return bounds;
+    }
+
+    @Override
+    public void containedBy(
+      final VolumeL volume,
+      final OctTreeQueryConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(volume, "Volume");
+      this.containedBy(
+        volume.minimumX(),
+        volume.maximumX(),
+        volume.minimumY(),
+        volume.maximumY(),
+        volume.minimumZ(),
+        volume.maximumZ(),
+        consumer);
+    }
+
+    @Override
+    public void containedBy(
+      final long x0,
+      final long x1,
+      final long y0,
+      final long y1,
+      final long z0,
+      final long z1,
+      final OctTreeQueryConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(consumer, "Consumer");
+      Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+      final QueryCounters counters =
+        QueryCounters.create(OctTreeLinearL.this.listener);
+      this.queries.volumeContaining(x0, x1, y0, y1, z0, z1, consumer, counters);
+      counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+    }
+
+    @Override
+    public long count(final VolumeL volume)
+    {
+      NullCheck.notNull(volume, "Volume");
+      return this.count(
+        volume.minimumX(),
+        volume.maximumX(),
+        volume.minimumY(),
+        volume.maximumY(),
+        volume.minimumZ(),
+        volume.maximumZ());
+    }
+
+    @Override
+    public long count(
+      final long x0,
+      final long x1,
+      final long y0,
+      final long y1,
+      final long z0,
+      final long z1)
+    {
+      Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+      final QueryCounters counters =
+        QueryCounters.create(OctTreeLinearL.this.listener);
+      final long count = this.queries.countContaining(
+        x0, x1, y0, y1, z0, z1, counters);
+      counters.hits(count);
+      counters.report(TreeQueryKind.QUERY_COUNT);
+      return count;
+    }
+
+    @Override
+    public void overlappedBy(
+      final VolumeL volume,
+      final OctTreeQueryConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(volume, "Volume");
+      this.overlappedBy(
+        volume.minimumX(),
+        volume.maximumX(),
+        volume.minimumY(),
+        volume.maximumY(),
+        volume.minimumZ(),
+        volume.maximumZ(),
+        consumer);
+    }
+
+    @Override
+    public void overlappedBy(
+      final long x0,
+      final long x1,
+      final long y0,
+      final long y1,
+      final long z0,
+      final long z1,
+      final OctTreeQueryConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(consumer, "Consumer");
+      Regions.checkVolume(x0, x1, y0, y1, z0, z1);
+      final QueryCounters counters =
+        QueryCounters.create(OctTreeLinearL.this.listener);
+      this.queries.volumeOverlapping(
+        x0, x1, y0, y1, z0, z1, consumer, counters);
+      counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
+    }
+
+    @Override
+    public void overlappedByAll(
+      final List<VolumeL> volumes,
+      final OctTreeBatchQueryConsumerLType<T> consumer)
+    {
+      OctTreeLinearL.this.overlappedByAllFrom(this.queries, volumes, consumer);
+    }
+
+    @Override
+    public void containedByParallel(
+      final VolumeL volume,
+      final ForkJoinPool pool,
+      final Set<T> items)
+    {
+      OctTreeLinearL.this.queryParallel(this.queries, volume, true, pool, items);
+    }
+
+    @Override
+    public void overlappedByParallel(
+      final VolumeL volume,
+      final ForkJoinPool pool,
+      final Set<T> items)
+    {
+      OctTreeLinearL.this.queryParallel(this.queries, volume, false, pool, items);
+    }
+
+    @Override
+    public void raycast(
+      final Ray3D ray,
+      final OctTreeRaycastConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(ray, "Ray");
+      NullCheck.notNull(consumer, "Consumer");
+      final QueryCounters counters =
+        QueryCounters.create(OctTreeLinearL.this.listener);
+      this.queries.raycast(ray, consumer, false, counters);
+      counters.report(TreeQueryKind.QUERY_RAYCAST);
+    }
+
+    @Override
+    public void raycastEntry(
+      final Ray3D ray,
+      final OctTreeRaycastConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(ray, "Ray");
+      NullCheck.notNull(consumer, "Consumer");
+      final QueryCounters counters =
+        QueryCounters.create(OctTreeLinearL.this.listener);
+      this.queries.raycast(ray, consumer, true, counters);
+      counters.report(TreeQueryKind.QUERY_RAYCAST);
+    }
+
+    @Override
+    public void raycastAll(
+      final List<Ray3D> rays,
+      final OctTreeBatchRaycastConsumerLType<T> consumer)
+    {
+      OctTreeLinearL.this.raycastAllFrom(this.queries, rays, consumer);
+    }
+
+    @Override
+    public void raycastUpTo(
+      final Ray3D ray,
+      final double max_distance,
+      final int limit,
+      final List<OctTreeRaycastResultL<T>> items)
+    {
+      OctTreeLinearL.this.raycastUpToFrom(
+        this.queries, ray, max_distance, limit, items);
+    }
+
+    @Override
+    public void nearest(
+      final Vector3D point,
+      final int k,
+      final OctTreeNearestConsumerLType<T> consumer)
+    {
+      OctTreeLinearL.this.nearestFrom(this.queries, point, k, consumer);
+    }
+  }
+}
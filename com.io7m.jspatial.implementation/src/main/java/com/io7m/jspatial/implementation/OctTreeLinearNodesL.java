@@ -0,0 +1,845 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jaffirm.core.Preconditions;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The octants of an {@link OctTreeLinearL}, held in a {@link MortonTableL}.
+ *
+ * The octants are exactly those of an {@link OctTreeL} that has been
+ * subjected to the same operations, but the volume of each octant is not
+ * stored: It is derived from the volume of the root while descending the
+ * tree, and so traversals carry the volume of the current octant with them.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class OctTreeLinearNodesL<T>
+{
+  private static final int DIGIT_BITS = 3;
+
+  private static final int STRIDE = 6;
+
+  private final OctTreeLinearL<T> tree;
+
+  private final MortonTableL<T> table;
+
+  private final double looseness;
+
+  private VolumeL volume;
+
+  private OctTreeLinearQueriesL<T> queries;
+
+  OctTreeLinearNodesL(
+    final OctTreeLinearL<T> in_tree,
+    final VolumeL in_volume)
+  {
+    this(in_tree, new MortonTableL<>(DIGIT_BITS, STRIDE, true), in_volume);
+  }
+
+  private OctTreeLinearNodesL(
+    final OctTreeLinearL<T> in_tree,
+    final MortonTableL<T> in_table,
+    final VolumeL in_volume)
+  {
+    this.tree = NullCheck.notNull(in_tree, "Tree");
+    this.table = NullCheck.notNull(in_table, "Table");
+    this.volume = NullCheck.notNull(in_volume, "Volume");
+    this.looseness = in_tree.configuration().looseness();
+    this.queries =
+      new OctTreeLinearQueriesL<>(this.table, this.volume, this.looseness);
+  }
+
+  /**
+   * @return A copy of these octants that may be modified without
+   * affecting this instance
+   */
+
+  OctTreeLinearNodesL<T> copy()
+  {
+    return new OctTreeLinearNodesL<>(this.tree, this.table.copy(), this.volume);
+  }
+
+  /**
+   * @return The queries over the octants as they currently are
+   */
+
+  OctTreeLinearQueriesL<T> queries()
+  {
+    return this.queries;
+  }
+
+  /**
+   * @return The volume of the root octant
+   */
+
+  VolumeL volume()
+  {
+    return this.volume;
+  }
+
+  private static long lower(
+    final long minimum,
+    final long maximum,
+    final boolean upper)
+  {
+    return upper ? minimum + ((maximum - minimum) / 2L) : minimum;
+  }
+
+  private static long upper(
+    final long minimum,
+    final long maximum,
+    final boolean upper)
+  {
+    return upper ? maximum : minimum + ((maximum - minimum) / 2L);
+  }
+
+  /**
+   * @return The margin by which an octant at the given depth is enlarged
+   * on an axis on which its size is {@code size}
+   */
+
+  private long margin(
+    final long size,
+    final int level)
+  {
+    if (level == 0 || this.looseness <= 1.0) {
+      return 0L;
+    }
+    return OctantsL.margin(size, this.looseness);
+  }
+
+  /**
+   * @return {@code true} iff the root octant contains the given bounds
+   */
+
+  boolean contains(
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    return Regions.containsVolume(
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ(),
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+  }
+
+  private boolean octantContains(
+    final int level,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    final long margin_z = this.margin(z1 - z0, level);
+    return Regions.containsVolume(
+      OctantsL.lower(x0, margin_x),
+      OctantsL.upper(x1, margin_x),
+      OctantsL.lower(y0, margin_y),
+      OctantsL.upper(y1, margin_y),
+      OctantsL.lower(z0, margin_z),
+      OctantsL.upper(z1, margin_z),
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+  }
+
+  /**
+   * Grow the tree towards the given bounds. The root octant becomes one of
+   * the eight children of a new root octant with twice its width, height,
+   * and depth.
+   *
+   * @return {@code false} if the tree cannot grow further
+   */
+
+  boolean expandTowards(
+    final long item_x0,
+    final long item_y0,
+    final long item_z0)
+  {
+    final boolean lower_x = item_x0 < this.volume.minimumX();
+    final boolean lower_y = item_y0 < this.volume.minimumY();
+    final boolean lower_z = item_z0 < this.volume.minimumZ();
+    final Optional<VolumeL> extended_opt =
+      OctantsL.extend(this.volume, lower_x, lower_y, lower_z);
+    if (!extended_opt.isPresent()) {
+      return false;
+    }
+
+    final int digit =
+      (lower_x ? 1 : 0) + (lower_y ? 2 : 0) + (lower_z ? 4 : 0);
+    this.table.raise(digit, this.tree.objectIndex());
+    this.volume = extended_opt.get();
+    this.queries =
+      new OctTreeLinearQueriesL<>(this.table, this.volume, this.looseness);
+    return true;
+  }
+
+  boolean insert(
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    Preconditions.checkPrecondition(
+      item,
+      !this.tree.objectIndex().containsKey(item),
+      x -> "Object must not be in tree");
+
+    return this.contains(item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)
+      && this.insertStep(
+      item,
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1,
+      0L,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ());
+  }
+
+  private boolean insertStep(
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1,
+    final long key,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    /*
+     * The object will be held by this octant or one of its descendants.
+     */
+
+    final int index = this.table.find(key);
+    this.table.addSubtree(index, 1);
+
+    /*
+     * If this octant is a leaf, is full, and is large enough to split,
+     * do so. Otherwise, insert directly.
+     */
+
+    if (this.table.isLeaf(index)) {
+      if (this.isFull(index) && this.canSplit(key, x0, x1, y0, y1, z0, z1)) {
+        this.split(key, x0, x1, y0, y1, z0, z1);
+      } else {
+        return this.insertObject(
+          key, item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+      }
+    }
+
+    /*
+     * See if the object will fit in any of the children.
+     */
+
+    final int child = this.childIndexContaining(
+      MortonTableL.level(key),
+      x0, x1, y0, y1, z0, z1,
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+
+    if (child < 8) {
+      final boolean ux = (child & 1) != 0;
+      final boolean uy = (child & 2) != 0;
+      final boolean uz = (child & 4) != 0;
+      return this.insertStep(
+        item,
+        item_x0, item_x1, item_y0, item_y1, item_z0, item_z1,
+        this.table.childKey(key, child),
+        lower(x0, x1, ux), upper(x0, x1, ux),
+        lower(y0, y1, uy), upper(y0, y1, uy),
+        lower(z0, z1, uz), upper(z0, z1, uz));
+    }
+
+    return this.insertObject(
+      key, item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+  }
+
+  private boolean insertObject(
+    final long key,
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    this.tree.objectIndex().put(item, key);
+    this.table.ownObjects(this.table.find(key))
+      .addVolume(item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    return true;
+  }
+
+  private void split(
+    final long key,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    final int index = this.table.find(key);
+    this.table.split(index);
+
+    /*
+     * Move any objects held by the newly split octant into the children
+     * that can contain them. The children are only ever added after the
+     * octant, so the octant's index is unaffected by the insertions.
+     */
+
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects == null || objects.isEmpty()) {
+      return;
+    }
+
+    final NodeObjectsL<T> owned = this.table.ownObjects(index);
+    final int level = MortonTableL.level(key);
+    int position = 0;
+    while (position < owned.size()) {
+      final T item = owned.item(position);
+      final long[] coordinates = owned.coordinates();
+      final int base = position * STRIDE;
+      final long item_x0 = coordinates[base];
+      final long item_x1 = coordinates[base + 1];
+      final long item_y0 = coordinates[base + 2];
+      final long item_y1 = coordinates[base + 3];
+      final long item_z0 = coordinates[base + 4];
+      final long item_z1 = coordinates[base + 5];
+      final int child = this.childIndexContaining(
+        level,
+        x0, x1, y0, y1, z0, z1,
+        item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+      if (child < 8) {
+        owned.removeAt(position);
+        final boolean ux = (child & 1) != 0;
+        final boolean uy = (child & 2) != 0;
+        final boolean uz = (child & 4) != 0;
+        this.insertStep(
+          item,
+          item_x0, item_x1, item_y0, item_y1, item_z0, item_z1,
+          this.table.childKey(key, child),
+          lower(x0, x1, ux), upper(x0, x1, ux),
+          lower(y0, y1, uy), upper(y0, y1, uy),
+          lower(z0, z1, uz), upper(z0, z1, uz));
+      } else {
+        ++position;
+      }
+    }
+  }
+
+  /**
+   * Build the octants below the root from the items in {@code bulk}, all of
+   * which are known to fit within the root. The root must be an empty leaf.
+   * If {@code parallel} is {@code true}, objects are not added to the tree's
+   * index of items (see {@link #register()}), and the subtrees below any
+   * octant that receives enough objects are built by separate fork/join
+   * tasks. The method must then be called from within a fork/join pool.
+   */
+
+  void build(
+    final BulkItems<T, VolumeL> bulk,
+    final boolean parallel)
+  {
+    Preconditions.checkPrecondition(
+      this.table.size() == 1 && this.table.subtree(0) == 0,
+      "Root must be an empty leaf");
+
+    this.buildStep(
+      bulk,
+      0,
+      bulk.size(),
+      0,
+      0L,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ(),
+      parallel);
+  }
+
+  /**
+   * Build the subtree rooted at the octant at {@code index}, which must be
+   * the last octant in the table, from the items in the range
+   * {@code [start, end)} of {@code bulk}. Octants are appended in key
+   * order, so no existing octants are moved.
+   */
+
+  private void buildStep(
+    final BulkItems<T, VolumeL> bulk,
+    final int start,
+    final int end,
+    final int index,
+    final long key,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final boolean parallel)
+  {
+    final int count = end - start;
+    this.table.setSubtree(index, count);
+    final int maximum = this.tree.configuration().maximumObjectsPerLeaf();
+    final boolean full = count > 0 && (maximum <= 0 || count > maximum);
+
+    if (!full || !this.canSplit(key, x0, x1, y0, y1, z0, z1)) {
+      for (int item = start; item < end; ++item) {
+        this.buildObject(
+          index, key, bulk.item(item), bulk.bounds(item), parallel);
+      }
+      return;
+    }
+
+    /*
+     * Objects that do not fit into any child remain in this octant.
+     */
+
+    final int level = MortonTableL.level(key);
+    final int[] offsets = bulk.partition(
+      start, end, 9, bounds -> this.childIndexContaining(
+        level,
+        x0, x1, y0, y1, z0, z1,
+        bounds.minimumX(), bounds.maximumX(),
+        bounds.minimumY(), bounds.maximumY(),
+        bounds.minimumZ(), bounds.maximumZ()));
+    for (int item = offsets[8]; item < offsets[9]; ++item) {
+      this.buildObject(index, key, bulk.item(item), bulk.bounds(item), parallel);
+    }
+
+    if (parallel
+      && count >= this.tree.configuration().parallelBuildThreshold()) {
+      final List<OctTreeLinearNodesL<T>> parts = new ArrayList<>(8);
+      final List<ForkJoinTask<?>> tasks = new ArrayList<>(8);
+      for (int child = 0; child < 8; ++child) {
+        final OctTreeLinearNodesL<T> part = new OctTreeLinearNodesL<>(
+          this.tree, new MortonTableL<>(DIGIT_BITS, STRIDE, false), this.volume);
+        final long child_key = this.table.childKey(key, child);
+        final int child_start = offsets[child];
+        final int child_end = offsets[child + 1];
+        final boolean ux = (child & 1) != 0;
+        final boolean uy = (child & 2) != 0;
+        final boolean uz = (child & 4) != 0;
+        parts.add(part);
+        tasks.add(ForkJoinTask.adapt(() -> part.buildStep(
+          bulk,
+          child_start,
+          child_end,
+          part.table.append(child_key),
+          child_key,
+          lower(x0, x1, ux), upper(x0, x1, ux),
+          lower(y0, y1, uy), upper(y0, y1, uy),
+          lower(z0, z1, uz), upper(z0, z1, uz),
+          true)));
+      }
+      ForkJoinTask.invokeAll(tasks);
+      for (final OctTreeLinearNodesL<T> part : parts) {
+        this.table.appendAll(part.table);
+      }
+      return;
+    }
+
+    for (int child = 0; child < 8; ++child) {
+      final long child_key = this.table.childKey(key, child);
+      final boolean ux = (child & 1) != 0;
+      final boolean uy = (child & 2) != 0;
+      final boolean uz = (child & 4) != 0;
+      this.buildStep(
+        bulk,
+        offsets[child],
+        offsets[child + 1],
+        this.table.append(child_key),
+        child_key,
+        lower(x0, x1, ux), upper(x0, x1, ux),
+        lower(y0, y1, uy), upper(y0, y1, uy),
+        lower(z0, z1, uz), upper(z0, z1, uz),
+        parallel);
+    }
+  }
+
+  private void buildObject(
+    final int index,
+    final long key,
+    final T item,
+    final VolumeL item_bounds,
+    final boolean parallel)
+  {
+    this.table.ownObjects(index).addVolume(
+      item,
+      item_bounds.minimumX(), item_bounds.maximumX(),
+      item_bounds.minimumY(), item_bounds.maximumY(),
+      item_bounds.minimumZ(), item_bounds.maximumZ());
+    if (!parallel) {
+      this.tree.objectIndex().put(item, key);
+    }
+  }
+
+  /**
+   * Add all objects held by the octants to the tree's index of items.
+   */
+
+  void register()
+  {
+    for (int index = 0; index < this.table.size(); ++index) {
+      final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+      if (objects != null) {
+        final long key = this.table.key(index);
+        for (int item = 0; item < objects.size(); ++item) {
+          this.tree.objectIndex().put(objects.item(item), key);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The index of the first child of the given octant that can
+   * contain the given bounds, or {@code 8} if no child can contain them
+   */
+
+  private int childIndexContaining(
+    final int level,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    final int child_level = level + 1;
+
+    if (this.looseness > 1.0) {
+
+      /*
+       * Compute the centre without overflowing for bounds that span most of
+       * the coordinate range, and select the child whose volume contains it.
+       */
+
+      final long centre_x =
+        (item_x0 >> 1) + (item_x1 >> 1) + (item_x0 & item_x1 & 1L);
+      final long centre_y =
+        (item_y0 >> 1) + (item_y1 >> 1) + (item_y0 & item_y1 & 1L);
+      final long centre_z =
+        (item_z0 >> 1) + (item_z1 >> 1) + (item_z0 & item_z1 & 1L);
+
+      final boolean ux = centre_x >= lower(x0, x1, true);
+      final boolean uy = centre_y >= lower(y0, y1, true);
+      final boolean uz = centre_z >= lower(z0, z1, true);
+      if (this.octantContains(
+        child_level,
+        lower(x0, x1, ux), upper(x0, x1, ux),
+        lower(y0, y1, uy), upper(y0, y1, uy),
+        lower(z0, z1, uz), upper(z0, z1, uz),
+        item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+        return (ux ? 1 : 0) + (uy ? 2 : 0) + (uz ? 4 : 0);
+      }
+      return 8;
+    }
+
+    for (int child = 0; child < 8; ++child) {
+      final boolean ux = (child & 1) != 0;
+      final boolean uy = (child & 2) != 0;
+      final boolean uz = (child & 4) != 0;
+      if (this.octantContains(
+        child_level,
+        lower(x0, x1, ux), upper(x0, x1, ux),
+        lower(y0, y1, uy), upper(y0, y1, uy),
+        lower(z0, z1, uz), upper(z0, z1, uz),
+        item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+        return child;
+      }
+    }
+    return 8;
+  }
+
+  private boolean isFull(final int index)
+  {
+    final int maximum = this.tree.configuration().maximumObjectsPerLeaf();
+    return maximum <= 0 || this.table.objectCount(index) >= maximum;
+  }
+
+  private boolean canSplit(
+    final long key,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    final long level = (long) MortonTableL.level(key);
+    if (level >= this.tree.configuration().maximumDepth()
+      || level >= (long) this.table.maximumLevel()) {
+      return false;
+    }
+
+    final long min_width =
+      Math.max(2L, this.tree.configuration().minimumOctantWidth());
+    final long min_height =
+      Math.max(2L, this.tree.configuration().minimumOctantHeight());
+    final long min_depth =
+      Math.max(2L, this.tree.configuration().minimumOctantDepth());
+
+    final long half_width = (x1 - x0) / 2L;
+    final long half_height = (y1 - y0) / 2L;
+    final long half_depth = (z1 - z0) / 2L;
+
+    return half_width >= min_width
+      && half_height >= min_height
+      && half_depth >= min_depth;
+  }
+
+  /**
+   * @return The volume of the octant with the given key, followed by the
+   * volumes of each of its ancestors in order of decreasing depth
+   */
+
+  private long[] volumesAlongPath(final long key)
+  {
+    final int level = MortonTableL.level(key);
+    final long[] volumes = new long[(level + 1) * 6];
+    long current = key;
+    for (int depth = level; depth > 0; --depth) {
+      final int digit = this.table.digit(current);
+      volumes[(level - depth) * 6] = (long) digit;
+      current = this.table.parentKey(current);
+    }
+
+    /*
+     * The digits of the path were recorded above; replace them with volumes
+     * by descending from the root.
+     */
+
+    long x0 = this.volume.minimumX();
+    long x1 = this.volume.maximumX();
+    long y0 = this.volume.minimumY();
+    long y1 = this.volume.maximumY();
+    long z0 = this.volume.minimumZ();
+    long z1 = this.volume.maximumZ();
+    for (int depth = 1; depth <= level; ++depth) {
+      final int base = (level - depth) * 6;
+      final int digit = (int) volumes[base];
+      final boolean ux = (digit & 1) != 0;
+      final boolean uy = (digit & 2) != 0;
+      final boolean uz = (digit & 4) != 0;
+      final long nx0 = lower(x0, x1, ux);
+      final long nx1 = upper(x0, x1, ux);
+      final long ny0 = lower(y0, y1, uy);
+      final long ny1 = upper(y0, y1, uy);
+      final long nz0 = lower(z0, z1, uz);
+      final long nz1 = upper(z0, z1, uz);
+      x0 = nx0;
+      x1 = nx1;
+      y0 = ny0;
+      y1 = ny1;
+      z0 = nz0;
+      z1 = nz1;
+      volumes[base] = x0;
+      volumes[base + 1] = x1;
+      volumes[base + 2] = y0;
+      volumes[base + 3] = y1;
+      volumes[base + 4] = z0;
+      volumes[base + 5] = z1;
+    }
+
+    final int root = level * 6;
+    volumes[root] = this.volume.minimumX();
+    volumes[root + 1] = this.volume.maximumX();
+    volumes[root + 2] = this.volume.minimumY();
+    volumes[root + 3] = this.volume.maximumY();
+    volumes[root + 4] = this.volume.minimumZ();
+    volumes[root + 5] = this.volume.maximumZ();
+    return volumes;
+  }
+
+  /**
+   * Move an object held by the octant with key {@code key} to new bounds.
+   * The nearest ancestor (or the octant itself) that can contain the new
+   * bounds is located by climbing the tree, and the object is re-inserted
+   * from there.
+   */
+
+  void moveObject(
+    final T item,
+    final long key,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    final int index = this.table.find(key);
+    final NodeObjectsL<T> objects = this.table.ownObjects(index);
+    final int position = objects.indexOf(item);
+    Invariants.checkInvariant(position >= 0, "Object must be in this octant");
+
+    objects.removeAt(position);
+    this.tree.objectIndex().removeLong(item);
+
+    /*
+     * The object leaves every octant between this octant and the
+     * ancestor that can contain the new bounds, and is counted again from
+     * that ancestor downwards when it is reinserted.
+     */
+
+    final long[] volumes = this.volumesAlongPath(key);
+    long ancestor = key;
+    int step = 0;
+    this.table.addSubtree(index, -1);
+    while (!this.octantContains(
+      MortonTableL.level(ancestor),
+      volumes[step], volumes[step + 1],
+      volumes[step + 2], volumes[step + 3],
+      volumes[step + 4], volumes[step + 5],
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+      Invariants.checkInvariant(
+        MortonTableL.level(ancestor) > 0,
+        "Root octant must contain the bounds");
+      ancestor = this.table.parentKey(ancestor);
+      step += 6;
+      this.table.addSubtree(this.table.find(ancestor), -1);
+    }
+
+    final boolean inserted = this.insertStep(
+      item,
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1,
+      ancestor,
+      volumes[step], volumes[step + 1],
+      volumes[step + 2], volumes[step + 3],
+      volumes[step + 4], volumes[step + 5]);
+    Invariants.checkInvariant(inserted, "Object must have been inserted");
+
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive(key);
+    }
+  }
+
+  void removeObject(
+    final T item,
+    final long key)
+  {
+    final NodeObjectsL<T> objects =
+      this.table.ownObjects(this.table.find(key));
+    final int position = objects.indexOf(item);
+    Invariants.checkInvariant(position >= 0, "Object must be in this octant");
+
+    objects.removeAt(position);
+    this.tree.objectIndex().removeLong(item);
+    this.table.addSubtreeAlongPath(key, -1);
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive(key);
+    }
+  }
+
+  VolumeL boundsOf(
+    final Object item,
+    final long key)
+  {
+    final @Nullable NodeObjectsL<T> objects =
+      this.table.objects(this.table.find(key));
+    Invariants.checkInvariant(objects != null, "Octant must hold objects");
+
+    final int position = objects.indexOf(item);
+    Invariants.checkInvariant(position >= 0, "Object must be in this octant");
+    return OctTreeLinearQueriesL.boundsAt(objects, position);
+  }
+
+  /**
+   * Attempt to turn the octant with the given key back into a leaf.
+   */
+
+  private void unsplitAttempt(final long key)
+  {
+    final int index = this.table.find(key);
+    if (!this.table.isLeaf(index)) {
+      for (int child = 0; child < 8; ++child) {
+        final int child_index = this.table.child(index, child);
+        if (!this.table.isLeaf(child_index)
+          || this.table.objectCount(child_index) != 0) {
+          return;
+        }
+      }
+      this.table.unsplit(index);
+    }
+  }
+
+  /**
+   * Attempt to turn the octant with the given key and as many of its
+   * ancestors as possible back into leaves.
+   */
+
+  private void unsplitAttemptRecursive(final long key)
+  {
+    long current = key;
+    while (true) {
+      this.unsplitAttempt(current);
+      if (MortonTableL.level(current) == 0) {
+        return;
+      }
+      current = this.table.parentKey(current);
+    }
+  }
+
+  /**
+   * Turn every octant whose children are all empty leaves back into a
+   * leaf. The octants are visited in reverse key order, so the
+   * descendants of each octant are trimmed before the octant itself.
+   */
+
+  void trim()
+  {
+    for (int index = this.table.size() - 1; index >= 0; --index) {
+      this.unsplitAttempt(this.table.key(index));
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+import com.io7m.jspatial.api.octtrees.OctTreeOctantLType;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMaps;
+
+import java.util.Map;
+
+/**
+ * A read-only view of an octant of an {@link OctTreeLinearL}, passed to
+ * iteration functions.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class OctTreeLinearOctantL<T> implements OctTreeOctantLType<T>
+{
+  private final VolumeL volume;
+  private final @Nullable NodeObjectsL<T> objects;
+
+  OctTreeLinearOctantL(
+    final VolumeL in_volume,
+    final @Nullable NodeObjectsL<T> in_objects)
+  {
+    this.volume = in_volume;
+    this.objects = in_objects;
+  }
+
+  @Override
+  public Map<T, VolumeL> objects()
+  {
+    final @Nullable NodeObjectsL<T> current = this.objects;
+    if (current == null) {
+      return Reference2ReferenceMaps.emptyMap();
+    }
+
+    return new NodeObjectsMap<>(
+      current, index -> OctTreeLinearQueriesL.boundsAt(current, index));
+  }
+
+  @Override
+  public VolumeL volume()
+  {
+    return this.volume;
+  }
+}
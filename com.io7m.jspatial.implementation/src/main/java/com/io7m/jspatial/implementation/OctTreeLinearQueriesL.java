@@ -0,0 +1,1436 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchQueryConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchRaycastConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeOctantIterationLType;
+import com.io7m.jspatial.api.octtrees.OctTreeQueryConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastResultL;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+import com.io7m.junreachable.UnreachableCodeException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.List;
+
+/**
+ * The read-only queries of an {@link OctTreeLinearL}, evaluated over the
+ * octants held in a {@link MortonTableL}. An instance captures the table
+ * and the volume of the root, and so a snapshot of the tree can evaluate
+ * queries against the octants as they were when the snapshot was taken.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class OctTreeLinearQueriesL<T>
+{
+  private static final int STRIDE = 6;
+
+  private final MortonTableL<T> table;
+  private final VolumeL volume;
+  private final double looseness;
+
+  OctTreeLinearQueriesL(
+    final MortonTableL<T> in_table,
+    final VolumeL in_volume,
+    final double in_looseness)
+  {
+    this.table = NullCheck.notNull(in_table, "Table");
+    this.volume = NullCheck.notNull(in_volume, "Volume");
+    this.looseness = in_looseness;
+  }
+
+  /**
+   * @return The volume of the root octant
+   */
+
+  VolumeL volume()
+  {
+    return this.volume;
+  }
+
+  /**
+   * @return The bounds of the object at {@code index} in {@code objects}
+   */
+
+  static <T> VolumeL boundsAt(
+    final NodeObjectsL<T> objects,
+    final int index)
+  {
+    final long[] coordinates = objects.coordinates();
+    final int base = index * STRIDE;
+    return VolumeL.of(
+      coordinates[base], coordinates[base + 1],
+      coordinates[base + 2], coordinates[base + 3],
+      coordinates[base + 4], coordinates[base + 5]);
+  }
+
+  private static long lower(
+    final long minimum,
+    final long maximum,
+    final boolean upper)
+  {
+    return upper ? minimum + ((maximum - minimum) / 2L) : minimum;
+  }
+
+  private static long upper(
+    final long minimum,
+    final long maximum,
+    final boolean upper)
+  {
+    return upper ? maximum : minimum + ((maximum - minimum) / 2L);
+  }
+
+  /**
+   * @return The margin by which an octant at the given depth is enlarged
+   * on an axis on which its size is {@code size}
+   */
+
+  private long margin(
+    final long size,
+    final int level)
+  {
+    if (level == 0 || this.looseness <= 1.0) {
+      return 0L;
+    }
+    return OctantsL.margin(size, this.looseness);
+  }
+
+  /**
+   * Record a visit to the octant at {@code index}. The depth of the
+   * octant is only computed if statistics are being collected.
+   */
+
+  private void visited(
+    final int index,
+    final QueryCounters counters)
+  {
+    if (counters.isEnabled()) {
+      counters.visit((long) MortonTableL.level(this.table.key(index)));
+    }
+  }
+
+  private TreeVisitResult report(
+    final OctTreeQueryConsumerLType<T> consumer,
+    final NodeObjectsL<T> objects,
+    final int index,
+    final QueryCounters counters)
+  {
+    final long[] coordinates = objects.coordinates();
+    final int base = index * STRIDE;
+    counters.hits(1L);
+    return consumer.accept(
+      objects.item(index),
+      coordinates[base], coordinates[base + 1],
+      coordinates[base + 2], coordinates[base + 3],
+      coordinates[base + 4], coordinates[base + 5]);
+  }
+
+  /**
+   * Pass every object held by the octant at {@code index} and its
+   * descendants to {@code consumer}. The descendants occupy a contiguous
+   * range of the table, so they are visited in a single sequential pass.
+   */
+
+  private TreeVisitResult collectRange(
+    final int index,
+    final OctTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    if (this.table.subtree(index) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final int end = this.table.end(index);
+    for (int node = index; node < end; ++node) {
+      this.visited(node, counters);
+      final @Nullable NodeObjectsL<T> objects = this.table.objects(node);
+      if (objects != null) {
+        for (int item = 0; item < objects.size(); ++item) {
+          if (this.report(consumer, objects, item, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  TreeVisitResult collectAll(
+    final OctTreeQueryConsumerLType<T> consumer)
+  {
+    return this.collectRange(0, consumer, QueryCounters.disabled());
+  }
+
+  TreeVisitResult volumeContaining(
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final long target_z0,
+    final long target_z1,
+    final OctTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    return this.volumeContainingStep(
+      0,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ(),
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      consumer,
+      counters);
+  }
+
+  private TreeVisitResult volumeContainingStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final long target_z0,
+    final long target_z1,
+    final OctTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless containment checks.
+     */
+
+    if (this.table.subtree(index) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    final long margin_z = this.margin(z1 - z0, level);
+    final long bx0 = OctantsL.lower(x0, margin_x);
+    final long bx1 = OctantsL.upper(x1, margin_x);
+    final long by0 = OctantsL.lower(y0, margin_y);
+    final long by1 = OctantsL.upper(y1, margin_y);
+    final long bz0 = OctantsL.lower(z0, margin_z);
+    final long bz1 = OctantsL.upper(z1, margin_z);
+
+    /*
+     * If the target volume completely contains this octant, collect
+     * everything in this octant and all of its descendants.
+     */
+
+    counters.testNodes(1);
+    if (Regions.containsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      bx0, bx1, by0, by1, bz0, bz1)) {
+      return this.collectRange(index, consumer, counters);
+    }
+
+    /*
+     * An object contained within the target volume lies within both the
+     * target volume and this octant, so an octant that does not
+     * intersect the target volume cannot hold any results.
+     */
+
+    counters.visit((long) level);
+    counters.testNodes(1);
+    if (!Regions.intersectsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      bx0, bx1, by0, by1, bz0, bz1)) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      counters.testObjects(objects.size());
+      if (this.volumeContainingObjects(
+        objects,
+        target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+        consumer,
+        counters) == TreeVisitResult.RESULT_TERMINATE) {
+        return TreeVisitResult.RESULT_TERMINATE;
+      }
+    }
+
+    if (!this.table.isLeaf(index)) {
+      for (int child = 0; child < 8; ++child) {
+        final boolean ux = (child & 1) != 0;
+        final boolean uy = (child & 2) != 0;
+        final boolean uz = (child & 4) != 0;
+        if (this.volumeContainingStep(
+          this.table.child(index, child),
+          lower(x0, x1, ux), upper(x0, x1, ux),
+          lower(y0, y1, uy), upper(y0, y1, uy),
+          lower(z0, z1, uz), upper(z0, z1, uz),
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          consumer,
+          counters) == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  private TreeVisitResult volumeContainingObjects(
+    final NodeObjectsL<T> objects,
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final long target_z0,
+    final long target_z1,
+    final OctTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    final long[] coordinates = objects.coordinates();
+    for (int item = 0; item < objects.size(); ++item) {
+      final int base = item * STRIDE;
+      if (Regions.containsVolume(
+        target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+        coordinates[base], coordinates[base + 1],
+        coordinates[base + 2], coordinates[base + 3],
+        coordinates[base + 4], coordinates[base + 5])) {
+        if (this.report(consumer, objects, item, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  long countContaining(
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final long target_z0,
+    final long target_z1,
+    final QueryCounters counters)
+  {
+    return this.countContainingStep(
+      0,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ(),
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      counters);
+  }
+
+  private long countContainingStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final long target_z0,
+    final long target_z1,
+    final QueryCounters counters)
+  {
+    if (this.table.subtree(index) == 0) {
+      return 0L;
+    }
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    final long margin_z = this.margin(z1 - z0, level);
+    final long bx0 = OctantsL.lower(x0, margin_x);
+    final long bx1 = OctantsL.upper(x1, margin_x);
+    final long by0 = OctantsL.lower(y0, margin_y);
+    final long by1 = OctantsL.upper(y1, margin_y);
+    final long bz0 = OctantsL.lower(z0, margin_z);
+    final long bz1 = OctantsL.upper(z1, margin_z);
+
+    /*
+     * If the target volume completely contains this octant, it contains
+     * every object in this octant and all of its descendants.
+     */
+
+    counters.testNodes(1);
+    if (Regions.containsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      bx0, bx1, by0, by1, bz0, bz1)) {
+      return (long) this.table.subtree(index);
+    }
+
+    counters.visit((long) level);
+    counters.testNodes(1);
+    if (!Regions.intersectsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      bx0, bx1, by0, by1, bz0, bz1)) {
+      return 0L;
+    }
+
+    long count = 0L;
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      counters.testObjects(objects.size());
+      final long[] coordinates = objects.coordinates();
+      for (int item = 0; item < objects.size(); ++item) {
+        final int base = item * STRIDE;
+        if (Regions.containsVolume(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          coordinates[base], coordinates[base + 1],
+          coordinates[base + 2], coordinates[base + 3],
+          coordinates[base + 4], coordinates[base + 5])) {
+          ++count;
+        }
+      }
+    }
+
+    if (!this.table.isLeaf(index)) {
+      for (int child = 0; child < 8; ++child) {
+        final boolean ux = (child & 1) != 0;
+        final boolean uy = (child & 2) != 0;
+        final boolean uz = (child & 4) != 0;
+        count += this.countContainingStep(
+          this.table.child(index, child),
+          lower(x0, x1, ux), upper(x0, x1, ux),
+          lower(y0, y1, uy), upper(y0, y1, uy),
+          lower(z0, z1, uz), upper(z0, z1, uz),
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          counters);
+      }
+    }
+    return count;
+  }
+
+  TreeVisitResult volumeOverlapping(
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final long target_z0,
+    final long target_z1,
+    final OctTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    return this.volumeOverlappingStep(
+      0,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ(),
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      consumer,
+      counters);
+  }
+
+  private TreeVisitResult volumeOverlappingStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final long target_z0,
+    final long target_z1,
+    final OctTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless overlap checks.
+     */
+
+    if (this.table.subtree(index) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    final long margin_z = this.margin(z1 - z0, level);
+    counters.visit((long) level);
+    counters.testNodes(1);
+
+    /*
+     * If the target volume overlaps this octant, test each object
+     * against the target volume.
+     */
+
+    if (Regions.overlapsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      OctantsL.lower(x0, margin_x),
+      OctantsL.upper(x1, margin_x),
+      OctantsL.lower(y0, margin_y),
+      OctantsL.upper(y1, margin_y),
+      OctantsL.lower(z0, margin_z),
+      OctantsL.upper(z1, margin_z))) {
+      final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+      if (objects != null) {
+        counters.testObjects(objects.size());
+        final long[] coordinates = objects.coordinates();
+        final int size = objects.size();
+        for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+          long hits = BoundsEngines.get().overlapsVolume(
+            coordinates,
+            first,
+            Math.min(BoundsEngines.BLOCK_SIZE, size - first),
+            target_x0, target_x1, target_y0, target_y1, target_z0, target_z1);
+
+          while (hits != 0L) {
+            final int item = first + Long.numberOfTrailingZeros(hits);
+            hits &= hits - 1L;
+            if (this.report(consumer, objects, item, counters)
+              == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+      }
+
+      if (!this.table.isLeaf(index)) {
+        for (int child = 0; child < 8; ++child) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          final boolean uz = (child & 4) != 0;
+          if (this.volumeOverlappingStep(
+            this.table.child(index, child),
+            lower(x0, x1, ux), upper(x0, x1, ux),
+            lower(y0, y1, uy), upper(y0, y1, uy),
+            lower(z0, z1, uz), upper(z0, z1, uz),
+            target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+            consumer,
+            counters) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * Pass the objects that are intersected by {@code ray} to
+   * {@code consumer}. If {@code entry} is {@code true}, the distance passed
+   * for each object is the parametric distance at which the ray enters the
+   * bounds of the object. Otherwise, it is the distance from the origin of
+   * the ray to the minimum corner of the bounds.
+   */
+
+  TreeVisitResult raycast(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerLType<T> consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    return this.raycastStep(
+      0,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ(),
+      ray,
+      consumer,
+      entry,
+      counters);
+  }
+
+  private TreeVisitResult raycastStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final Ray3D ray,
+    final OctTreeRaycastConsumerLType<T> consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.table.subtree(index) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    final long margin_z = this.margin(z1 - z0, level);
+    counters.visit((long) level);
+    counters.testNodes(1);
+
+    /*
+     * If the ray intersects the octant, check each item in the octant
+     * against the ray.
+     */
+
+    if (ray.intersectsVolume(
+      (double) OctantsL.lower(x0, margin_x),
+      (double) OctantsL.lower(y0, margin_y),
+      (double) OctantsL.lower(z0, margin_z),
+      (double) OctantsL.upper(x1, margin_x),
+      (double) OctantsL.upper(y1, margin_y),
+      (double) OctantsL.upper(z1, margin_z))) {
+      final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+      if (objects != null) {
+        counters.testObjects(objects.size());
+        final int size = objects.size();
+        final long[] coordinates = objects.coordinates();
+        for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+          long hits = BoundsEngines.get().intersectsVolume(
+            ray,
+            coordinates,
+            first,
+            Math.min(BoundsEngines.BLOCK_SIZE, size - first));
+
+          while (hits != 0L) {
+            final int item = first + Long.numberOfTrailingZeros(hits);
+            hits &= hits - 1L;
+            if (raycastItem(ray, consumer, objects, item, entry, counters)
+              == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+      }
+
+      if (!this.table.isLeaf(index)) {
+        for (int child = 0; child < 8; ++child) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          final boolean uz = (child & 4) != 0;
+          if (this.raycastStep(
+            this.table.child(index, child),
+            lower(x0, x1, ux), upper(x0, x1, ux),
+            lower(y0, y1, uy), upper(y0, y1, uy),
+            lower(z0, z1, uz), upper(z0, z1, uz),
+            ray,
+            consumer,
+            entry,
+            counters) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  private static <T> TreeVisitResult raycastItem(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerLType<T> consumer,
+    final NodeObjectsL<T> objects,
+    final int index,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    final long[] coordinates = objects.coordinates();
+    final int base = index * STRIDE;
+    final long item_x0 = coordinates[base];
+    final long item_x1 = coordinates[base + 1];
+    final long item_y0 = coordinates[base + 2];
+    final long item_y1 = coordinates[base + 3];
+    final long item_z0 = coordinates[base + 4];
+    final long item_z1 = coordinates[base + 5];
+
+    final double distance;
+    if (entry) {
+      distance = ray.intersectionParameterVolume(
+        (double) item_x0,
+        (double) item_y0,
+        (double) item_z0,
+        (double) item_x1,
+        (double) item_y1,
+        (double) item_z1);
+    } else {
+      distance = rayDistance(
+        ray, (double) item_x0, (double) item_y0, (double) item_z0);
+    }
+    counters.hits(1L);
+    return consumer.accept(
+      objects.item(index),
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1,
+      distance);
+  }
+
+  void raycastNearest(
+    final Ray3D ray,
+    final double length,
+    final int mask,
+    final NearestResults<OctTreeRaycastResultL<T>> results,
+    final QueryCounters counters)
+  {
+    this.raycastNearestStep(
+      0,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ(),
+      ray,
+      length,
+      mask,
+      results,
+      counters);
+  }
+
+  private void raycastNearestStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final Ray3D ray,
+    final double length,
+    final int mask,
+    final NearestResults<OctTreeRaycastResultL<T>> results,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.table.subtree(index) == 0) {
+      return;
+    }
+
+    /*
+     * Skip this octant if the ray misses it, or if it is further away
+     * than any result that could still be accepted.
+     */
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    final long margin_z = this.margin(z1 - z0, level);
+    counters.visit((long) level);
+    counters.testNodes(1);
+    final double t = ray.intersectionParameterVolume(
+      (double) OctantsL.lower(x0, margin_x),
+      (double) OctantsL.lower(y0, margin_y),
+      (double) OctantsL.lower(z0, margin_z),
+      (double) OctantsL.upper(x1, margin_x),
+      (double) OctantsL.upper(y1, margin_y),
+      (double) OctantsL.upper(z1, margin_z));
+    if (t == Double.POSITIVE_INFINITY || t * length > results.bound()) {
+      return;
+    }
+
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      counters.testObjects(objects.size());
+      raycastNearestObjects(objects, ray, length, results);
+    }
+
+    /*
+     * Visit the children front-to-back: The first child visited is the one
+     * that lies furthest towards the origin of the ray.
+     */
+
+    if (!this.table.isLeaf(index)) {
+      for (int order = 0; order < 8; ++order) {
+        final int child = order ^ mask;
+        final boolean ux = (child & 1) != 0;
+        final boolean uy = (child & 2) != 0;
+        final boolean uz = (child & 4) != 0;
+        this.raycastNearestStep(
+          this.table.child(index, child),
+          lower(x0, x1, ux), upper(x0, x1, ux),
+          lower(y0, y1, uy), upper(y0, y1, uy),
+          lower(z0, z1, uz), upper(z0, z1, uz),
+          ray,
+          length,
+          mask,
+          results,
+          counters);
+      }
+    }
+  }
+
+  private static <T> void raycastNearestObjects(
+    final NodeObjectsL<T> objects,
+    final Ray3D ray,
+    final double length,
+    final NearestResults<OctTreeRaycastResultL<T>> results)
+  {
+    final long[] coordinates = objects.coordinates();
+    for (int item = 0; item < objects.size(); ++item) {
+      final int base = item * STRIDE;
+      final double item_t =
+        ray.intersectionParameterVolume(
+          (double) coordinates[base],
+          (double) coordinates[base + 2],
+          (double) coordinates[base + 4],
+          (double) coordinates[base + 1],
+          (double) coordinates[base + 3],
+          (double) coordinates[base + 5]);
+
+      if (item_t < Double.POSITIVE_INFINITY) {
+        final double distance = item_t * length;
+        if (distance <= results.bound()) {
+          results.add(OctTreeRaycastResultL.of(
+            distance, boundsAt(objects, item), objects.item(item)));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The root octant as a cell from which a nearest-neighbour
+   * search may begin
+   */
+
+  Cell rootCell()
+  {
+    return new Cell(
+      0,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ());
+  }
+
+  double distanceTo(
+    final Cell cell,
+    final double px,
+    final double py,
+    final double pz)
+  {
+    final int level = MortonTableL.level(this.table.key(cell.index));
+    final long margin_x = this.margin(cell.x1 - cell.x0, level);
+    final long margin_y = this.margin(cell.y1 - cell.y0, level);
+    final long margin_z = this.margin(cell.z1 - cell.z0, level);
+    return Distances.pointVolume(
+      px, py, pz,
+      (double) OctantsL.lower(cell.x0, margin_x),
+      (double) OctantsL.upper(cell.x1, margin_x),
+      (double) OctantsL.lower(cell.y0, margin_y),
+      (double) OctantsL.upper(cell.y1, margin_y),
+      (double) OctantsL.lower(cell.z0, margin_z),
+      (double) OctantsL.upper(cell.z1, margin_z));
+  }
+
+  void nearest(
+    final Cell cell,
+    final double px,
+    final double py,
+    final double pz,
+    final NearestResults<NearestItem<T, VolumeL>> results,
+    final NodeQueue<Cell> queue,
+    final QueryCounters counters)
+  {
+    final int index = cell.index;
+    this.visited(index, counters);
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      counters.testObjects(objects.size());
+      final long[] coordinates = objects.coordinates();
+      for (int item = 0; item < objects.size(); ++item) {
+        final int base = item * STRIDE;
+        final double distance = Distances.pointVolume(
+          px, py, pz,
+          (double) coordinates[base],
+          (double) coordinates[base + 1],
+          (double) coordinates[base + 2],
+          (double) coordinates[base + 3],
+          (double) coordinates[base + 4],
+          (double) coordinates[base + 5]);
+
+        if (distance <= results.bound()) {
+          results.add(new NearestItem<>(
+            distance, objects.item(item), boundsAt(objects, item)));
+        }
+      }
+    }
+
+    /*
+     * Queue any non-empty children that could contain a result.
+     */
+
+    if (!this.table.isLeaf(index)) {
+      for (int child = 0; child < 8; ++child) {
+        final int child_index = this.table.child(index, child);
+        if (this.table.subtree(child_index) != 0) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          final boolean uz = (child & 4) != 0;
+          final Cell child_cell = new Cell(
+            child_index,
+            lower(cell.x0, cell.x1, ux), upper(cell.x0, cell.x1, ux),
+            lower(cell.y0, cell.y1, uy), upper(cell.y0, cell.y1, uy),
+            lower(cell.z0, cell.z1, uz), upper(cell.z0, cell.z1, uz));
+          counters.testNodes(1);
+          final double child_distance = this.distanceTo(child_cell, px, py, pz);
+          if (child_distance <= results.bound()) {
+            queue.add(child_cell, child_distance);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Add the objects of every octant that may hold objects that are
+   * contained within (or overlapped by, if {@code contained} is
+   * {@code false}) {@code target_volume} to {@code nodes}.
+   */
+
+  void parallelCandidates(
+    final VolumeL target_volume,
+    final boolean contained,
+    final List<NodeObjectsL<T>> nodes,
+    final QueryCounters counters)
+  {
+    this.parallelCandidatesStep(
+      0,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ(),
+      target_volume,
+      contained,
+      nodes,
+      counters);
+  }
+
+  private void parallelCandidatesStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final VolumeL target_volume,
+    final boolean contained,
+    final List<NodeObjectsL<T>> nodes,
+    final QueryCounters counters)
+  {
+    if (this.table.subtree(index) == 0) {
+      return;
+    }
+
+    counters.testNodes(1);
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    final long margin_z = this.margin(z1 - z0, level);
+    final long bx0 = OctantsL.lower(x0, margin_x);
+    final long bx1 = OctantsL.upper(x1, margin_x);
+    final long by0 = OctantsL.lower(y0, margin_y);
+    final long by1 = OctantsL.upper(y1, margin_y);
+    final long bz0 = OctantsL.lower(z0, margin_z);
+    final long bz1 = OctantsL.upper(z1, margin_z);
+
+    /*
+     * An object contained within {@code target_volume} lies within both
+     * {@code target_volume} and this octant, so octants that do not
+     * intersect {@code target_volume} can be skipped.
+     */
+
+    final boolean candidate;
+    if (contained) {
+      candidate = Regions.intersectsVolume(
+        target_volume.minimumX(), target_volume.maximumX(),
+        target_volume.minimumY(), target_volume.maximumY(),
+        target_volume.minimumZ(), target_volume.maximumZ(),
+        bx0, bx1, by0, by1, bz0, bz1);
+    } else {
+      candidate = Regions.overlapsVolume(
+        target_volume.minimumX(), target_volume.maximumX(),
+        target_volume.minimumY(), target_volume.maximumY(),
+        target_volume.minimumZ(), target_volume.maximumZ(),
+        bx0, bx1, by0, by1, bz0, bz1);
+    }
+
+    if (candidate) {
+      this.visited(index, counters);
+      final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+      if (objects != null && !objects.isEmpty()) {
+        nodes.add(objects);
+      }
+      if (!this.table.isLeaf(index)) {
+        for (int child = 0; child < 8; ++child) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          final boolean uz = (child & 4) != 0;
+          this.parallelCandidatesStep(
+            this.table.child(index, child),
+            lower(x0, x1, ux), upper(x0, x1, ux),
+            lower(y0, y1, uy), upper(y0, y1, uy),
+            lower(z0, z1, uz), upper(z0, z1, uz),
+            target_volume,
+            contained,
+            nodes,
+            counters);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add the objects at indices {@code [start, end)} of {@code objects} that
+   * are contained within (or overlapped by, if {@code contained} is
+   * {@code false}) {@code target_volume} to {@code results}.
+   */
+
+  static <T> void volumeMatching(
+    final NodeObjectsL<T> objects,
+    final VolumeL target_volume,
+    final boolean contained,
+    final int start,
+    final int end,
+    final List<T> results)
+  {
+    final long target_x0 = target_volume.minimumX();
+    final long target_x1 = target_volume.maximumX();
+    final long target_y0 = target_volume.minimumY();
+    final long target_y1 = target_volume.maximumY();
+    final long target_z0 = target_volume.minimumZ();
+    final long target_z1 = target_volume.maximumZ();
+    final long[] coordinates = objects.coordinates();
+
+    for (int index = start; index < end; ++index) {
+      final int base = index * STRIDE;
+      final boolean matched;
+      if (contained) {
+        matched = Regions.containsVolume(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          coordinates[base], coordinates[base + 1],
+          coordinates[base + 2], coordinates[base + 3],
+          coordinates[base + 4], coordinates[base + 5]);
+      } else {
+        matched = Regions.overlapsVolume(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          coordinates[base], coordinates[base + 1],
+          coordinates[base + 2], coordinates[base + 3],
+          coordinates[base + 4], coordinates[base + 5]);
+      }
+      if (matched) {
+        results.add(objects.item(index));
+      }
+    }
+  }
+
+  /**
+   * Pass the objects that are overlapped by the queries whose indices occupy
+   * positions {@code [0, active.size())} of {@code active} to
+   * {@code consumer}. Each of those queries is known to overlap the root.
+   */
+
+  TreeVisitResult volumeOverlappingAll(
+    final long[] targets,
+    final IntArrayList active,
+    final OctTreeBatchQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    return this.volumeOverlappingAllStep(
+      0,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ(),
+      targets,
+      active,
+      0,
+      consumer,
+      counters);
+  }
+
+  private TreeVisitResult volumeOverlappingAllStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final long[] targets,
+    final IntArrayList active,
+    final int first,
+    final OctTreeBatchQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(index, counters);
+
+    final int last = active.size();
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      final long[] coordinates = objects.coordinates();
+      for (int item = 0; item < objects.size(); ++item) {
+        final int base = item * STRIDE;
+        counters.testObjects(last - first);
+        for (int position = first; position < last; ++position) {
+          final int query = active.getInt(position);
+          final int target = query * 6;
+          if (Regions.overlapsVolume(
+            targets[target], targets[target + 1],
+            targets[target + 2], targets[target + 3],
+            targets[target + 4], targets[target + 5],
+            coordinates[base], coordinates[base + 1],
+            coordinates[base + 2], coordinates[base + 3],
+            coordinates[base + 4], coordinates[base + 5])) {
+            counters.hits(1L);
+            if (consumer.accept(
+              query,
+              objects.item(item),
+              coordinates[base], coordinates[base + 1],
+              coordinates[base + 2], coordinates[base + 3],
+              coordinates[base + 4], coordinates[base + 5])
+              == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the queries that overlap each non-empty child
+     * onto the stack, and pop them again once the child is done.
+     */
+
+    if (!this.table.isLeaf(index)) {
+      final int child_level = MortonTableL.level(this.table.key(index)) + 1;
+      for (int child = 0; child < 8; ++child) {
+        final int child_index = this.table.child(index, child);
+        if (this.table.subtree(child_index) != 0) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          final boolean uz = (child & 4) != 0;
+          final long cx0 = lower(x0, x1, ux);
+          final long cx1 = upper(x0, x1, ux);
+          final long cy0 = lower(y0, y1, uy);
+          final long cy1 = upper(y0, y1, uy);
+          final long cz0 = lower(z0, z1, uz);
+          final long cz1 = upper(z0, z1, uz);
+          final long margin_x = this.margin(cx1 - cx0, child_level);
+          final long margin_y = this.margin(cy1 - cy0, child_level);
+          final long margin_z = this.margin(cz1 - cz0, child_level);
+          final long bx0 = OctantsL.lower(cx0, margin_x);
+          final long bx1 = OctantsL.upper(cx1, margin_x);
+          final long by0 = OctantsL.lower(cy0, margin_y);
+          final long by1 = OctantsL.upper(cy1, margin_y);
+          final long bz0 = OctantsL.lower(cz0, margin_z);
+          final long bz1 = OctantsL.upper(cz1, margin_z);
+
+          counters.testNodes(last - first);
+          for (int position = first; position < last; ++position) {
+            final int query = active.getInt(position);
+            final int target = query * 6;
+            if (Regions.overlapsVolume(
+              targets[target], targets[target + 1],
+              targets[target + 2], targets[target + 3],
+              targets[target + 4], targets[target + 5],
+              bx0, bx1, by0, by1, bz0, bz1)) {
+              active.add(query);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > last) {
+            result = this.volumeOverlappingAllStep(
+              child_index,
+              cx0, cx1, cy0, cy1, cz0, cz1,
+              targets,
+              active,
+              last,
+              consumer,
+              counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(last);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The distance from the origin of {@code ray} to the given point
+   */
+
+  private static double rayDistance(
+    final Ray3D ray,
+    final double x,
+    final double y,
+    final double z)
+  {
+    final Vector3D origin = ray.origin();
+    final double dx = x - origin.x();
+    final double dy = y - origin.y();
+    final double dz = z - origin.z();
+    return Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+  }
+
+  /**
+   * Pass the objects that are intersected by the rays whose indices occupy
+   * positions {@code [0, active.size())} of {@code active} to
+   * {@code consumer}. Each of those rays is known to intersect the root.
+   */
+
+  TreeVisitResult raycastAll(
+    final Ray3D[] rays,
+    final IntArrayList active,
+    final OctTreeBatchRaycastConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    return this.raycastAllStep(
+      0,
+      this.volume.minimumX(), this.volume.maximumX(),
+      this.volume.minimumY(), this.volume.maximumY(),
+      this.volume.minimumZ(), this.volume.maximumZ(),
+      rays,
+      active,
+      0,
+      consumer,
+      counters);
+  }
+
+  private TreeVisitResult raycastAllStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1,
+    final Ray3D[] rays,
+    final IntArrayList active,
+    final int first,
+    final OctTreeBatchRaycastConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(index, counters);
+
+    final int last = active.size();
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      final long[] coordinates = objects.coordinates();
+      for (int item = 0; item < objects.size(); ++item) {
+        final int base = item * STRIDE;
+        final long item_x0 = coordinates[base];
+        final long item_x1 = coordinates[base + 1];
+        final long item_y0 = coordinates[base + 2];
+        final long item_y1 = coordinates[base + 3];
+        final long item_z0 = coordinates[base + 4];
+        final long item_z1 = coordinates[base + 5];
+
+        counters.testObjects(last - first);
+        for (int position = first; position < last; ++position) {
+          final int ray_index = active.getInt(position);
+          final Ray3D ray = rays[ray_index];
+          if (ray.intersectsVolume(
+            (double) item_x0,
+            (double) item_y0,
+            (double) item_z0,
+            (double) item_x1,
+            (double) item_y1,
+            (double) item_z1)) {
+            final double distance = rayDistance(
+              ray, (double) item_x0, (double) item_y0, (double) item_z0);
+            counters.hits(1L);
+            if (consumer.accept(
+              ray_index,
+              objects.item(item),
+              item_x0, item_x1, item_y0, item_y1, item_z0, item_z1,
+              distance) == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the rays that intersect each non-empty child onto
+     * the stack, and pop them again once the child is done. Rays that miss
+     * a child are never tested against anything inside it.
+     */
+
+    if (!this.table.isLeaf(index)) {
+      final int child_level = MortonTableL.level(this.table.key(index)) + 1;
+      for (int child = 0; child < 8; ++child) {
+        final int child_index = this.table.child(index, child);
+        if (this.table.subtree(child_index) != 0) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          final boolean uz = (child & 4) != 0;
+          final long cx0 = lower(x0, x1, ux);
+          final long cx1 = upper(x0, x1, ux);
+          final long cy0 = lower(y0, y1, uy);
+          final long cy1 = upper(y0, y1, uy);
+          final long cz0 = lower(z0, z1, uz);
+          final long cz1 = upper(z0, z1, uz);
+          final long margin_x = this.margin(cx1 - cx0, child_level);
+          final long margin_y = this.margin(cy1 - cy0, child_level);
+          final long margin_z = this.margin(cz1 - cz0, child_level);
+          final double bx0 = (double) OctantsL.lower(cx0, margin_x);
+          final double bx1 = (double) OctantsL.upper(cx1, margin_x);
+          final double by0 = (double) OctantsL.lower(cy0, margin_y);
+          final double by1 = (double) OctantsL.upper(cy1, margin_y);
+          final double bz0 = (double) OctantsL.lower(cz0, margin_z);
+          final double bz1 = (double) OctantsL.upper(cz1, margin_z);
+
+          counters.testNodes(last - first);
+          for (int position = first; position < last; ++position) {
+            final int ray_index = active.getInt(position);
+            if (rays[ray_index].intersectsVolume(
+              bx0, by0, bz0, bx1, by1, bz1)) {
+              active.add(ray_index);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > last) {
+            result = this.raycastAllStep(
+              child_index,
+              cx0, cx1, cy0, cy1, cz0, cz1,
+              rays,
+              active,
+              last,
+              consumer,
+              counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(last);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * Pass each octant to {@code f} in the same order as an {@link OctTreeL}
+   * would. The table is already in that order, so the octants are visited
+   * in a single pass, with the volume of the most recently visited octant
+   * at each depth held on a stack.
+   */
+
+  <C> void iterateOctants(
+    final C context,
+    final OctTreeOctantIterationLType<T, C> f)
+  {
+    final long[] stack = new long[(this.table.maximumLevel() + 1) * 6];
+    stack[0] = this.volume.minimumX();
+    stack[1] = this.volume.maximumX();
+    stack[2] = this.volume.minimumY();
+    stack[3] = this.volume.maximumY();
+    stack[4] = this.volume.minimumZ();
+    stack[5] = this.volume.maximumZ();
+
+    for (int index = 0; index < this.table.size(); ++index) {
+      final long key = this.table.key(index);
+      final int level = MortonTableL.level(key);
+      final int base = level * 6;
+      if (level > 0) {
+        final int parent = base - 6;
+        final int digit = this.table.digit(key);
+        final boolean ux = (digit & 1) != 0;
+        final boolean uy = (digit & 2) != 0;
+        final boolean uz = (digit & 4) != 0;
+        final long x0 = stack[parent];
+        final long x1 = stack[parent + 1];
+        final long y0 = stack[parent + 2];
+        final long y1 = stack[parent + 3];
+        final long z0 = stack[parent + 4];
+        final long z1 = stack[parent + 5];
+        stack[base] = lower(x0, x1, ux);
+        stack[base + 1] = upper(x0, x1, ux);
+        stack[base + 2] = lower(y0, y1, uy);
+        stack[base + 3] = upper(y0, y1, uy);
+        stack[base + 4] = lower(z0, z1, uz);
+        stack[base + 5] = upper(z0, z1, uz);
+      }
+
+      final OctTreeLinearOctantL<T> octant = new OctTreeLinearOctantL<>(
+        VolumeL.of(
+          stack[base],
+          stack[base + 1],
+          stack[base + 2],
+          stack[base + 3],
+          stack[base + 4],
+          stack[base + 5]),
+        this.table.objects(index));
+
+      switch (f.apply(context, octant, (long) level)) {
+        case RESULT_CONTINUE:
+          break;
+        case RESULT_TERMINATE:
+          return;
+        default:
+          throw new UnreachableCodeException();
+      }
+    }
+  }
+
+  /**
+   * An octant and its volume, queued during a nearest-neighbour search.
+   */
+
+  static final class Cell
+  {
+    private final int index;
+    private final long x0;
+    private final long x1;
+    private final long y0;
+    private final long y1;
+    private final long z0;
+    private final long z1;
+
+    Cell(
+      final int in_index,
+      final long in_x0,
+      final long in_x1,
+      final long in_y0,
+      final long in_y1,
+      final long in_z0,
+      final long in_z1)
+    {
+      this.index = in_index;
+      this.x0 = in_x0;
+      this.x1 = in_x1;
+      this.y0 = in_y0;
+      this.y1 = in_y1;
+      this.z0 = in_z0;
+      this.z1 = in_z1;
+    }
+  }
+}
@@ -0,0 +1,1975 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jaffirm.core.Preconditions;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeXYZSplitL;
+import com.io7m.jregions.core.unparameterized.volumes.VolumesL;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchQueryConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeBatchRaycastConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeOctantIterationLType;
+import com.io7m.jspatial.api.octtrees.OctTreeOctantLType;
+import com.io7m.jspatial.api.octtrees.OctTreeQueryConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastConsumerLType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastResultL;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+import com.io7m.junreachable.UnreachableCodeException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A octant within a {@link OctTreeL}.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class OctTreeOctantL<T> implements OctTreeOctantLType<T>
+{
+  private final OctTreeL<T> tree;
+  private final VolumeL volume;
+  private VolumeL bounds;
+  private final NodeObjectsL<T> octant_objects;
+  private @Nullable OctTreeOctantL<T> parent;
+  private int subtree_objects;
+  private final long generation;
+  private long level;
+  private @Nullable OctTreeOctantL<T> x0y0z0;
+  private @Nullable OctTreeOctantL<T> x0y1z0;
+  private @Nullable OctTreeOctantL<T> x1y0z0;
+  private @Nullable OctTreeOctantL<T> x1y1z0;
+  private @Nullable OctTreeOctantL<T> x0y0z1;
+  private @Nullable OctTreeOctantL<T> x0y1z1;
+  private @Nullable OctTreeOctantL<T> x1y0z1;
+  private @Nullable OctTreeOctantL<T> x1y1z1;
+
+  OctTreeOctantL(
+    final OctTreeL<T> in_tree,
+    final @Nullable OctTreeOctantL<T> in_parent,
+    final VolumeL in_volume)
+  {
+    this.tree = NullCheck.notNull(in_tree, "Tree");
+    this.parent = in_parent;
+    this.generation = this.tree.generation();
+    if (in_parent == null) {
+      this.level = 0L;
+    } else {
+      this.level = in_parent.level + 1L;
+    }
+    this.volume = NullCheck.notNull(in_volume, "Volume");
+    if (in_parent == null) {
+      this.bounds = this.volume;
+    } else {
+      this.bounds = OctantsL.loosen(
+        this.volume, this.tree.configuration().looseness());
+    }
+    this.octant_objects = new NodeObjectsL<>(
+      6, !this.tree.configuration().packedBounds());
+  }
+
+  /**
+   * Construct a copy of {@code in_original} that belongs to the current
+   * generation of the tree. The children of the original are shared with
+   * the copy.
+   */
+
+  OctTreeOctantL(
+    final OctTreeL<T> in_tree,
+    final @Nullable OctTreeOctantL<T> in_parent,
+    final OctTreeOctantL<T> in_original)
+  {
+    this.tree = NullCheck.notNull(in_tree, "Tree");
+    this.parent = in_parent;
+    this.generation = this.tree.generation();
+    this.level = in_original.level;
+    this.volume = in_original.volume;
+    this.bounds = in_original.bounds;
+    this.subtree_objects = in_original.subtree_objects;
+    this.octant_objects = in_original.octant_objects.copy();
+    this.x0y0z0 = in_original.x0y0z0;
+    this.x1y0z0 = in_original.x1y0z0;
+    this.x0y1z0 = in_original.x0y1z0;
+    this.x1y1z0 = in_original.x1y1z0;
+    this.x0y0z1 = in_original.x0y0z1;
+    this.x1y0z1 = in_original.x1y0z1;
+    this.x0y1z1 = in_original.x0y1z1;
+    this.x1y1z1 = in_original.x1y1z1;
+  }
+
+  /**
+   * Point the tree's object map at this octant for each object that it holds.
+   */
+
+  void claimObjects()
+  {
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      this.tree.objectIndex().put(this.octant_objects.item(index), this);
+    }
+  }
+
+  /**
+   * @return The child at {@code index}, first replacing it with a copy if
+   * it is shared with a snapshot
+   */
+
+  OctTreeOctantL<T> ownChild(final int index)
+  {
+    final OctTreeOctantL<T> child = this.child(index);
+    if (child.generation == this.tree.generation()) {
+      return child;
+    }
+
+    final OctTreeOctantL<T> copy = new OctTreeOctantL<>(this.tree, this, child);
+    copy.claimObjects();
+    this.setChild(index, copy);
+    return copy;
+  }
+
+  private void setChild(
+    final int index,
+    final OctTreeOctantL<T> child)
+  {
+    switch (index) {
+      case 0:
+        this.x0y0z0 = child;
+        break;
+      case 1:
+        this.x1y0z0 = child;
+        break;
+      case 2:
+        this.x0y1z0 = child;
+        break;
+      case 3:
+        this.x1y1z0 = child;
+        break;
+      case 4:
+        this.x0y0z1 = child;
+        break;
+      case 5:
+        this.x1y0z1 = child;
+        break;
+      case 6:
+        this.x0y1z1 = child;
+        break;
+      case 7:
+        this.x1y1z1 = child;
+        break;
+      default:
+        throw new UnreachableCodeException();
+    }
+  }
+
+  boolean insert(
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    Preconditions.checkPrecondition(
+      item,
+      !this.tree.objectIndex().containsKey(item),
+      x -> "Object must not be in tree");
+
+    return this.contains(item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)
+      && this.insertStep(
+        item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1, 0L);
+  }
+
+  /**
+   * @return {@code true} iff this octant contains the given bounds
+   */
+
+  boolean contains(
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    return Regions.containsVolume(
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ(),
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1,
+      item_z0,
+      item_z1);
+  }
+
+  /**
+   * Grow the tree towards the given bounds. A new root octant is created
+   * with twice the width, height and depth of this octant, which must be
+   * the current root, and this octant becomes one of its children.
+   *
+   * @return The new root, or {@code null} if the tree cannot grow further
+   */
+
+  @Nullable OctTreeOctantL<T> expandTowards(
+    final long item_x0,
+    final long item_y0,
+    final long item_z0)
+  {
+    final boolean lower_x = item_x0 < this.volume.minimumX();
+    final boolean lower_y = item_y0 < this.volume.minimumY();
+    final boolean lower_z = item_z0 < this.volume.minimumZ();
+    final Optional<VolumeL> extended_opt =
+      OctantsL.extend(this.volume, lower_x, lower_y, lower_z);
+    if (!extended_opt.isPresent()) {
+      return null;
+    }
+
+    final VolumeL extended = extended_opt.get();
+    final long split_x =
+      lower_x ? this.volume.minimumX() : this.volume.maximumX();
+    final long split_y =
+      lower_y ? this.volume.minimumY() : this.volume.maximumY();
+    final long split_z =
+      lower_z ? this.volume.minimumZ() : this.volume.maximumZ();
+
+    final OctTreeOctantL<T> root =
+      new OctTreeOctantL<>(this.tree, null, extended);
+    root.level = this.level - 1L;
+    final int index = (lower_x ? 1 : 0) + (lower_y ? 2 : 0) + (lower_z ? 4 : 0);
+    root.x0y0z0 = root.adopt(this, index, 0, VolumeL.of(
+      extended.minimumX(), split_x,
+      extended.minimumY(), split_y,
+      extended.minimumZ(), split_z));
+    root.x1y0z0 = root.adopt(this, index, 1, VolumeL.of(
+      split_x, extended.maximumX(),
+      extended.minimumY(), split_y,
+      extended.minimumZ(), split_z));
+    root.x0y1z0 = root.adopt(this, index, 2, VolumeL.of(
+      extended.minimumX(), split_x,
+      split_y, extended.maximumY(),
+      extended.minimumZ(), split_z));
+    root.x1y1z0 = root.adopt(this, index, 3, VolumeL.of(
+      split_x, extended.maximumX(),
+      split_y, extended.maximumY(),
+      extended.minimumZ(), split_z));
+    root.x0y0z1 = root.adopt(this, index, 4, VolumeL.of(
+      extended.minimumX(), split_x,
+      extended.minimumY(), split_y,
+      split_z, extended.maximumZ()));
+    root.x1y0z1 = root.adopt(this, index, 5, VolumeL.of(
+      split_x, extended.maximumX(),
+      extended.minimumY(), split_y,
+      split_z, extended.maximumZ()));
+    root.x0y1z1 = root.adopt(this, index, 6, VolumeL.of(
+      extended.minimumX(), split_x,
+      split_y, extended.maximumY(),
+      split_z, extended.maximumZ()));
+    root.x1y1z1 = root.adopt(this, index, 7, VolumeL.of(
+      split_x, extended.maximumX(),
+      split_y, extended.maximumY(),
+      split_z, extended.maximumZ()));
+
+    root.subtree_objects = this.subtree_objects;
+    this.parent = root;
+    this.bounds = OctantsL.loosen(
+      this.volume, this.tree.configuration().looseness());
+    return root;
+  }
+
+  private OctTreeOctantL<T> adopt(
+    final OctTreeOctantL<T> original,
+    final int original_index,
+    final int index,
+    final VolumeL child_volume)
+  {
+    if (index == original_index) {
+      return original;
+    }
+    return new OctTreeOctantL<>(this.tree, this, child_volume);
+  }
+
+  private boolean insertStep(
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1,
+    final long depth)
+  {
+    /*
+     * The object will be held by this node or one of its descendants.
+     */
+
+    ++this.subtree_objects;
+
+    /*
+     * The object can fit in this node, but perhaps it is possible to fit it
+     * more precisely within one of the child nodes.
+     */
+
+    /*
+     * If this node is a leaf, is full, and is large enough to split, do so.
+     */
+
+    if (this.isLeaf()) {
+      if (this.isFull() && this.canSplit(depth)) {
+        this.split(depth);
+      } else {
+
+        /*
+         * The node is a leaf, but either has room for the object or cannot
+         * be split further. Insert directly.
+         */
+
+        return this.insertObject(
+          item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+      }
+    }
+
+    /*
+     * See if the object will fit in any of the child nodes.
+     */
+
+    Invariants.checkInvariant(!this.isLeaf(), "Node is not a leaf");
+
+    final long child_depth = Math.addExact(depth, 1L);
+    final int index = this.childIndexContaining(
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    if (index < 8) {
+      return this.ownChild(index).insertStep(
+        item,
+        item_x0,
+        item_x1,
+        item_y0,
+        item_y1,
+        item_z0,
+        item_z1,
+        child_depth);
+    }
+
+    /*
+     * Otherwise, insert the object into this node.
+     */
+
+    return this.insertObject(
+      item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+  }
+
+  private boolean insertObject(
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    this.tree.objectIndex().put(item, this);
+    this.storeObject(
+      item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    return true;
+  }
+
+  private void storeObject(
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    final int index = this.octant_objects.addVolume(
+      item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    if (this.octant_objects.retainsBounds()) {
+      this.octant_objects.setBounds(
+        index,
+        VolumeL.of(item_x0, item_x1, item_y0, item_y1, item_z0, item_z1));
+    }
+  }
+
+  private void split(final long depth)
+  {
+    Preconditions.checkPrecondition(
+      this.canSplit(depth), "Octant can split");
+
+    final Optional<VolumeXYZSplitL<VolumeL>> q_opt =
+      OctantsL.subdivide(this.volume);
+    Invariants.checkInvariant(q_opt.isPresent(), "Octant must be splittable");
+
+    q_opt.ifPresent(q -> {
+      this.x0y0z0 = new OctTreeOctantL<>(this.tree, this, q.x0y0z0());
+      this.x0y1z0 = new OctTreeOctantL<>(this.tree, this, q.x0y1z0());
+      this.x1y0z0 = new OctTreeOctantL<>(this.tree, this, q.x1y0z0());
+      this.x1y1z0 = new OctTreeOctantL<>(this.tree, this, q.x1y1z0());
+
+      this.x0y0z1 = new OctTreeOctantL<>(this.tree, this, q.x0y0z1());
+      this.x0y1z1 = new OctTreeOctantL<>(this.tree, this, q.x0y1z1());
+      this.x1y0z1 = new OctTreeOctantL<>(this.tree, this, q.x1y0z1());
+      this.x1y1z1 = new OctTreeOctantL<>(this.tree, this, q.x1y1z1());
+    });
+    this.redistribute(depth);
+  }
+
+  /**
+   * Move any objects held by this (newly split) octant into the child
+   * octants that can contain them.
+   */
+
+  private void redistribute(final long depth)
+  {
+    if (this.octant_objects.isEmpty()) {
+      return;
+    }
+
+    final long child_depth = Math.addExact(depth, 1L);
+    int index = 0;
+    while (index < this.octant_objects.size()) {
+      final T item = this.octant_objects.item(index);
+      final long[] coordinates = this.octant_objects.coordinates();
+      final int base = index * 6;
+      final long item_x0 = coordinates[base];
+      final long item_x1 = coordinates[base + 1];
+      final long item_y0 = coordinates[base + 2];
+      final long item_y1 = coordinates[base + 3];
+      final long item_z0 = coordinates[base + 4];
+      final long item_z1 = coordinates[base + 5];
+      final int child_index = this.childIndexContaining(
+        item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+      if (child_index < 8) {
+        this.octant_objects.removeAt(index);
+        this.child(child_index).insertStep(
+          item,
+          item_x0,
+          item_x1,
+          item_y0,
+          item_y1,
+          item_z0,
+          item_z1,
+          child_depth);
+      } else {
+        ++index;
+      }
+    }
+  }
+
+  /**
+   * Build the subtree rooted at this (empty, leaf) octant from the
+   * items in the range {@code [start, end)} of {@code bulk}, all of which
+   * are known to fit within this octant. The same splitting rules are
+   * applied as for incremental insertion. If {@code parallel} is
+   * {@code true}, objects are not added to the tree's index of items
+   * (see {@link #register()}), and the subtrees below any octant that
+   * receives enough objects are built by separate fork/join tasks. The
+   * method must then be called from within a fork/join pool.
+   */
+
+  void build(
+    final BulkItems<T, VolumeL> bulk,
+    final int start,
+    final int end,
+    final long depth,
+    final boolean parallel)
+  {
+    final int count = end - start;
+    this.subtree_objects = count;
+    final int maximum = this.tree.configuration().maximumObjectsPerLeaf();
+    final boolean full = count > 0 && (maximum <= 0 || count > maximum);
+
+    if (!full || !this.canSplit(depth)) {
+      for (int index = start; index < end; ++index) {
+        this.buildObject(bulk.item(index), bulk.bounds(index), parallel);
+      }
+      return;
+    }
+
+    this.split(depth);
+
+    /*
+     * Objects that do not fit into any child remain in this octant.
+     */
+
+    final int[] offsets =
+      bulk.partition(start, end, 9, this::childIndexContaining);
+    for (int index = offsets[8]; index < offsets[9]; ++index) {
+      this.buildObject(bulk.item(index), bulk.bounds(index), parallel);
+    }
+
+    final long child_depth = Math.addExact(depth, 1L);
+    if (parallel
+      && count >= this.tree.configuration().parallelBuildThreshold()) {
+      final List<ForkJoinTask<?>> tasks = new ArrayList<>(8);
+      for (int index = 0; index < 8; ++index) {
+        final OctTreeOctantL<T> child = this.child(index);
+        final int child_start = offsets[index];
+        final int child_end = offsets[index + 1];
+        tasks.add(ForkJoinTask.adapt(() -> child.build(
+          bulk, child_start, child_end, child_depth, true)));
+      }
+      ForkJoinTask.invokeAll(tasks);
+      return;
+    }
+
+    for (int index = 0; index < 8; ++index) {
+      this.child(index).build(
+        bulk, offsets[index], offsets[index + 1], child_depth, parallel);
+    }
+  }
+
+  private void buildObject(
+    final T item,
+    final VolumeL item_bounds,
+    final boolean parallel)
+  {
+    final long item_x0 = item_bounds.minimumX();
+    final long item_x1 = item_bounds.maximumX();
+    final long item_y0 = item_bounds.minimumY();
+    final long item_y1 = item_bounds.maximumY();
+    final long item_z0 = item_bounds.minimumZ();
+    final long item_z1 = item_bounds.maximumZ();
+    if (parallel) {
+      this.storeObject(
+        item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    } else {
+      this.insertObject(
+        item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    }
+  }
+
+  /**
+   * Add all objects held by this octant and its descendants to the
+   * tree's index of items.
+   */
+
+  void register()
+  {
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      this.tree.objectIndex().put(this.octant_objects.item(index), this);
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        this.child(index).register();
+      }
+    }
+  }
+
+  /**
+   * Add a child to this octant, which must be a leaf, while restoring a
+   * serialized tree. The octant is not a valid non-leaf octant until all
+   * eight children have been added.
+   *
+   * @return The new child
+   */
+
+  OctTreeOctantL<T> restoreChild(
+    final int index,
+    final VolumeL child_volume)
+  {
+    final OctTreeOctantL<T> child =
+      new OctTreeOctantL<>(this.tree, this, child_volume);
+    switch (index) {
+      case 0:
+        this.x0y0z0 = child;
+        break;
+      case 1:
+        this.x1y0z0 = child;
+        break;
+      case 2:
+        this.x0y1z0 = child;
+        break;
+      case 3:
+        this.x1y1z0 = child;
+        break;
+      case 4:
+        this.x0y0z1 = child;
+        break;
+      case 5:
+        this.x1y0z1 = child;
+        break;
+      case 6:
+        this.x0y1z1 = child;
+        break;
+      case 7:
+        this.x1y1z1 = child;
+        break;
+      default:
+        throw new UnreachableCodeException();
+    }
+    return child;
+  }
+
+  /**
+   * Add an object to this octant while restoring a serialized tree.
+   *
+   * @return {@code false} iff the object is already in the tree, or the
+   * given bounds do not fit within this octant
+   */
+
+  boolean restoreObject(
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    if (this.tree.objectIndex().containsKey(item)
+      || !this.contains(item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+      return false;
+    }
+
+    this.storeObject(item, item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    this.tree.objectIndex().put(item, this);
+    return true;
+  }
+
+  /**
+   * Set the number of objects in the subtree rooted at this octant, once
+   * the octant and all of its descendants have been restored.
+   */
+
+  void restoreCount()
+  {
+    int count = this.octant_objects.size();
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        count += this.child(index).subtree_objects;
+      }
+    }
+    this.subtree_objects = count;
+  }
+
+  /**
+   * @return The index of the first child that can contain the given
+   * bounds, or {@code 8} if no child can contain them
+   */
+
+  int childIndexContaining(final VolumeL item_bounds)
+  {
+    return this.childIndexContaining(
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY(),
+      item_bounds.minimumZ(),
+      item_bounds.maximumZ());
+  }
+
+  /**
+   * @return The index of the first child that can contain the given
+   * bounds, or {@code 8} if no child can contain them
+   */
+
+  private int childIndexContaining(
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    if (this.tree.configuration().looseness() > 1.0) {
+      return this.childIndexLoose(
+        item_x0, item_x1, item_y0, item_y1, item_z0, item_z1);
+    }
+
+    for (int index = 0; index < 8; ++index) {
+      if (this.child(index).contains(
+        item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+        return index;
+      }
+    }
+    return 8;
+  }
+
+  /**
+   * @return The index of the child whose volume contains the centre of the
+   * given bounds, if the loose bounds of that child also contain them, or
+   * {@code 8} otherwise
+   */
+
+  private int childIndexLoose(
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    /*
+     * Compute the centre without overflowing for bounds that span most of
+     * the coordinate range.
+     */
+
+    final long centre_x =
+      (item_x0 >> 1) + (item_x1 >> 1) + (item_x0 & item_x1 & 1L);
+    final long centre_y =
+      (item_y0 >> 1) + (item_y1 >> 1) + (item_y0 & item_y1 & 1L);
+    final long centre_z =
+      (item_z0 >> 1) + (item_z1 >> 1) + (item_z0 & item_z1 & 1L);
+
+    final OctTreeOctantL<T> upper = this.child(7);
+    int index = 0;
+    if (centre_x >= upper.volume.minimumX()) {
+      index += 1;
+    }
+    if (centre_y >= upper.volume.minimumY()) {
+      index += 2;
+    }
+    if (centre_z >= upper.volume.minimumZ()) {
+      index += 4;
+    }
+
+    if (this.child(index).contains(
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+      return index;
+    }
+    return 8;
+  }
+
+  private boolean isFull()
+  {
+    final int maximum = this.tree.configuration().maximumObjectsPerLeaf();
+    return maximum <= 0 || this.octant_objects.size() >= maximum;
+  }
+
+  private boolean canSplit(final long node_depth)
+  {
+    if (node_depth >= this.tree.configuration().maximumDepth()) {
+      return false;
+    }
+    final long width = this.volume.sizeX();
+    final long height = this.volume.sizeY();
+    final long depth = this.volume.sizeZ();
+
+    final long min_width =
+      Math.max(2L, this.tree.configuration().minimumOctantWidth());
+    final long min_height =
+      Math.max(2L, this.tree.configuration().minimumOctantHeight());
+    final long min_depth =
+      Math.max(2L, this.tree.configuration().minimumOctantDepth());
+
+    final long half_width = width / 2L;
+    final long half_height = height / 2L;
+    final long half_depth = depth / 2L;
+
+    return half_width >= min_width
+      && half_height >= min_height
+      && half_depth >= min_depth;
+  }
+
+  private boolean isLeaf()
+  {
+    return this.x0y0z0 == null;
+  }
+
+  /**
+   * Move an object held by this octant to new bounds. The nearest ancestor
+   * (or this octant itself) that can contain the new bounds is located by
+   * climbing the tree, and the object is re-inserted from there.
+   */
+
+  void moveObject(
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long item_z0,
+    final long item_z1)
+  {
+    final int index = this.octant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Object must be in this octant");
+
+    this.octant_objects.removeAt(index);
+    this.tree.objectIndex().remove(item);
+
+    /*
+     * The object leaves every octant between this octant and the
+     * ancestor that can contain the new bounds, and is counted again from
+     * that ancestor downwards when it is reinserted.
+     */
+
+    OctTreeOctantL<T> ancestor = this;
+    --ancestor.subtree_objects;
+    while (!ancestor.contains(
+      item_x0, item_x1, item_y0, item_y1, item_z0, item_z1)) {
+      Invariants.checkInvariant(
+        ancestor.parent != null,
+        "Root octant must contain the bounds");
+      ancestor = ancestor.parent;
+      --ancestor.subtree_objects;
+    }
+
+    final boolean inserted =
+      ancestor.insertStep(
+        item,
+        item_x0,
+        item_x1,
+        item_y0,
+        item_y1,
+        item_z0,
+        item_z1,
+        ancestor.depth());
+    Invariants.checkInvariant(inserted, "Object must have been inserted");
+
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive();
+    }
+  }
+
+  /**
+   * @return The depth of this octant in the current tree, which is the
+   * difference between the level of this octant and the level of the root
+   */
+
+  private long depth()
+  {
+    return this.level - this.tree.root().level;
+  }
+
+  /**
+   * @return The level of this octant: The level of a child is one greater than
+   * the level of its parent. Levels are never changed once assigned, so that
+   * octants can be shared between snapshots. The depth of an octant within any
+   * tree that holds it is its level minus the level of the root of that tree.
+   */
+
+  long level()
+  {
+    return this.level;
+  }
+
+  /**
+   * Record a visit to this octant.
+   */
+
+  private void visited(final QueryCounters counters)
+  {
+    counters.visitLevel(this.level);
+  }
+
+  void removeObject(final T item)
+  {
+    final int index = this.octant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Object must be in this octant");
+
+    this.octant_objects.removeAt(index);
+    this.tree.objectIndex().remove(item);
+    for (OctTreeOctantL<T> node = this; node != null; node = node.parent) {
+      --node.subtree_objects;
+    }
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive();
+    }
+  }
+
+  private VolumeL boundsAt(final int index)
+  {
+    final @Nullable Object retained = this.octant_objects.bounds(index);
+    if (retained != null) {
+      return (VolumeL) retained;
+    }
+
+    final long[] coordinates = this.octant_objects.coordinates();
+    final int base = index * 6;
+    return VolumeL.of(
+      coordinates[base],
+      coordinates[base + 1],
+      coordinates[base + 2],
+      coordinates[base + 3],
+      coordinates[base + 4],
+      coordinates[base + 5]);
+  }
+
+  VolumeL boundsOf(final Object item)
+  {
+    final int index = this.octant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Object must be in this octant");
+    return this.boundsAt(index);
+  }
+
+  private TreeVisitResult report(
+    final OctTreeQueryConsumerLType<T> consumer,
+    final int index,
+    final QueryCounters counters)
+  {
+    final long[] coordinates = this.octant_objects.coordinates();
+    final int base = index * 6;
+    counters.hits(1L);
+    return consumer.accept(
+      this.octant_objects.item(index),
+      coordinates[base],
+      coordinates[base + 1],
+      coordinates[base + 2],
+      coordinates[base + 3],
+      coordinates[base + 4],
+      coordinates[base + 5]);
+  }
+
+  private TreeVisitResult raycastItem(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerLType<T> consumer,
+    final int index,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    final long[] coordinates = this.octant_objects.coordinates();
+    final int base = index * 6;
+    final long item_x0 = coordinates[base];
+    final long item_x1 = coordinates[base + 1];
+    final long item_y0 = coordinates[base + 2];
+    final long item_y1 = coordinates[base + 3];
+    final long item_z0 = coordinates[base + 4];
+    final long item_z1 = coordinates[base + 5];
+
+    final double distance;
+    if (entry) {
+      distance = ray.intersectionParameterVolume(
+        (double) item_x0,
+        (double) item_y0,
+        (double) item_z0,
+        (double) item_x1,
+        (double) item_y1,
+        (double) item_z1);
+    } else {
+      distance = rayDistance(ray, (double) item_x0, (double) item_y0, (double) item_z0);
+    }
+    counters.hits(1L);
+    return consumer.accept(
+      this.octant_objects.item(index),
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1,
+      item_z0,
+      item_z1,
+      distance);
+  }
+
+  TreeVisitResult volumeContaining(
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final long target_z0,
+    final long target_z1,
+    final OctTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless containment checks.
+     */
+
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    counters.testNodes(1);
+
+    /*
+     * If the target volume completely contains this octant, collect
+     * everything in this octant and all children of this octant.
+     */
+
+    if (Regions.containsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ())) {
+      return this.collectRecursive(consumer, counters);
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * An object contained within the target volume lies within both the
+     * target volume and this octant, so an octant that does not
+     * intersect the target volume cannot hold any results.
+     */
+
+    if (!Regions.intersectsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ())) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    /*
+     * Otherwise, the target volume may be overlapping this octant and
+     * therefore some items may still be contained within the target volume.
+     */
+
+    counters.testObjects(this.octant_objects.size());
+    final long[] coordinates = this.octant_objects.coordinates();
+
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      final int base = index * 6;
+      if (Regions.containsVolume(
+        target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+        coordinates[base],
+        coordinates[base + 1],
+        coordinates[base + 2],
+        coordinates[base + 3],
+        coordinates[base + 4],
+        coordinates[base + 5])) {
+        if (this.report(consumer, index, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        if (this.child(index).volumeContaining(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          consumer, counters) == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  TreeVisitResult collectRecursive(
+    final OctTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      if (this.report(consumer, index, counters)
+        == TreeVisitResult.RESULT_TERMINATE) {
+        return TreeVisitResult.RESULT_TERMINATE;
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        if (this.child(index).collectRecursive(consumer, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The number of objects held by this octant and its descendants
+   * that are completely contained within the target volume
+   */
+
+  long countContaining(
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final long target_z0,
+    final long target_z1,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return 0L;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * If the target volume completely contains this octant, it contains
+     * every object in this octant and all children of this octant.
+     */
+
+    if (Regions.containsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ())) {
+      return (long) this.subtree_objects;
+    }
+
+    counters.testNodes(1);
+    if (!Regions.intersectsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ())) {
+      return 0L;
+    }
+
+    counters.testObjects(this.octant_objects.size());
+    long count = 0L;
+    final long[] coordinates = this.octant_objects.coordinates();
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      final int base = index * 6;
+      if (Regions.containsVolume(
+        target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+        coordinates[base],
+        coordinates[base + 1],
+        coordinates[base + 2],
+        coordinates[base + 3],
+        coordinates[base + 4],
+        coordinates[base + 5])) {
+        ++count;
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        count += this.child(index).countContaining(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          counters);
+      }
+    }
+    return count;
+  }
+
+  TreeVisitResult volumeOverlapping(
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final long target_z0,
+    final long target_z1,
+    final OctTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless overlap checks.
+     */
+
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * If the target volume overlaps this octant, test each object
+     * against the target volume.
+     */
+
+    if (Regions.overlapsVolume(
+      target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      this.bounds.minimumZ(),
+      this.bounds.maximumZ())) {
+      final long[] coordinates = this.octant_objects.coordinates();
+
+      final int size = this.octant_objects.size();
+      counters.testObjects(size);
+      for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+        long hits = BoundsEngines.get().overlapsVolume(
+          coordinates,
+          first,
+          Math.min(BoundsEngines.BLOCK_SIZE, size - first),
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1);
+
+        while (hits != 0L) {
+          final int index = first + Long.numberOfTrailingZeros(hits);
+          hits &= hits - 1L;
+          if (this.report(consumer, index, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      if (!this.isLeaf()) {
+        for (int index = 0; index < 8; ++index) {
+          if (this.child(index).volumeOverlapping(
+            target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+            consumer, counters) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * Pass the objects in this octant and its descendants that are
+   * intersected by {@code ray} to {@code consumer}. If {@code entry} is
+   * {@code true}, the distance passed for each object is the parametric
+   * distance at which the ray enters the bounds of the object. Otherwise,
+   * it is the distance from the origin of the ray to the minimum corner of
+   * the bounds.
+   */
+
+  TreeVisitResult raycast(
+    final Ray3D ray,
+    final OctTreeRaycastConsumerLType<T> consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * Check whether or not the ray intersects the octant.
+     */
+
+    final double x0 = (double) this.bounds.minimumX();
+    final double x1 = (double) this.bounds.maximumX();
+    final double y0 = (double) this.bounds.minimumY();
+    final double y1 = (double) this.bounds.maximumY();
+    final double z0 = (double) this.bounds.minimumZ();
+    final double z1 = (double) this.bounds.maximumZ();
+
+    /*
+     * If the ray intersects the octant, check each item in the octant
+     * against the ray.
+     */
+
+    if (ray.intersectsVolume(x0, y0, z0, x1, y1, z1)) {
+      final int size = this.octant_objects.size();
+      counters.testObjects(size);
+      final long[] coordinates = this.octant_objects.coordinates();
+      for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+        long hits = BoundsEngines.get().intersectsVolume(
+          ray,
+          coordinates,
+          first,
+          Math.min(BoundsEngines.BLOCK_SIZE, size - first));
+
+        while (hits != 0L) {
+          final int index = first + Long.numberOfTrailingZeros(hits);
+          hits &= hits - 1L;
+          if (this.raycastItem(ray, consumer, index, entry, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      if (!this.isLeaf()) {
+        for (int index = 0; index < 8; ++index) {
+          if (this.child(index).raycast(ray, consumer, entry, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  void raycastNearest(
+    final Ray3D ray,
+    final double length,
+    final int mask,
+    final NearestResults<OctTreeRaycastResultL<T>> results,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.subtree_objects == 0) {
+      return;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * Skip this octant if the ray misses it, or if it is further away
+     * than any result that could still be accepted.
+     */
+
+    final double t = ray.intersectionParameterVolume(
+      (double) this.bounds.minimumX(),
+      (double) this.bounds.minimumY(),
+      (double) this.bounds.minimumZ(),
+      (double) this.bounds.maximumX(),
+      (double) this.bounds.maximumY(),
+      (double) this.bounds.maximumZ());
+    if (t == Double.POSITIVE_INFINITY || t * length > results.bound()) {
+      return;
+    }
+
+    counters.testObjects(this.octant_objects.size());
+    final long[] coordinates = this.octant_objects.coordinates();
+
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      final int base = index * 6;
+      final double item_t =
+        ray.intersectionParameterVolume(
+          (double) coordinates[base],
+          (double) coordinates[base + 2],
+          (double) coordinates[base + 4],
+          (double) coordinates[base + 1],
+          (double) coordinates[base + 3],
+          (double) coordinates[base + 5]);
+
+      if (item_t < Double.POSITIVE_INFINITY) {
+        final double distance = item_t * length;
+        if (distance <= results.bound()) {
+          results.add(OctTreeRaycastResultL.of(
+            distance, this.boundsAt(index), this.octant_objects.item(index)));
+        }
+      }
+    }
+
+    /*
+     * Visit the children front-to-back: The first child visited is the one
+     * that lies furthest towards the origin of the ray.
+     */
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        this.child(index ^ mask).raycastNearest(
+          ray, length, mask, results, counters);
+      }
+    }
+  }
+
+  double distanceTo(
+    final double px,
+    final double py,
+    final double pz)
+  {
+    return Distances.pointVolume(
+      px, py, pz,
+      (double) this.bounds.minimumX(),
+      (double) this.bounds.maximumX(),
+      (double) this.bounds.minimumY(),
+      (double) this.bounds.maximumY(),
+      (double) this.bounds.minimumZ(),
+      (double) this.bounds.maximumZ());
+  }
+
+  void nearest(
+    final double px,
+    final double py,
+    final double pz,
+    final NearestResults<NearestItem<T, VolumeL>> results,
+    final NodeQueue<OctTreeOctantL<T>> queue,
+    final QueryCounters counters)
+  {
+    this.visited(counters);
+    counters.testObjects(this.octant_objects.size());
+
+    final long[] coordinates = this.octant_objects.coordinates();
+
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      final int base = index * 6;
+      final double distance = Distances.pointVolume(
+        px, py, pz,
+        (double) coordinates[base],
+        (double) coordinates[base + 1],
+        (double) coordinates[base + 2],
+        (double) coordinates[base + 3],
+        (double) coordinates[base + 4],
+        (double) coordinates[base + 5]);
+
+      if (distance <= results.bound()) {
+        results.add(new NearestItem<>(
+          distance, this.octant_objects.item(index), this.boundsAt(index)));
+      }
+    }
+
+    /*
+     * Queue any non-empty children that could contain a result.
+     */
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 8; ++index) {
+        final OctTreeOctantL<T> child = this.child(index);
+        if (child.subtree_objects != 0) {
+          counters.testNodes(1);
+          final double child_distance = child.distanceTo(px, py, pz);
+          if (child_distance <= results.bound()) {
+            queue.add(child, child_distance);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Add this octant and all descendant octants that hold objects that
+   * may be contained within (or overlapped by, if {@code contained} is
+   * {@code false}) {@code target_volume} to {@code nodes}.
+   */
+
+  void parallelCandidates(
+    final VolumeL target_volume,
+    final boolean contained,
+    final List<OctTreeOctantL<T>> nodes,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return;
+    }
+
+    counters.testNodes(1);
+
+    /*
+     * An object contained within {@code target_volume} lies within both
+     * {@code target_volume} and this octant, so octants that do not
+     * intersect {@code target_volume} can be skipped.
+     */
+
+    final boolean candidate;
+    if (contained) {
+      candidate = Regions.intersectsVolume(
+        target_volume.minimumX(), target_volume.maximumX(),
+        target_volume.minimumY(), target_volume.maximumY(),
+        target_volume.minimumZ(), target_volume.maximumZ(),
+        this.bounds.minimumX(), this.bounds.maximumX(),
+        this.bounds.minimumY(), this.bounds.maximumY(),
+        this.bounds.minimumZ(), this.bounds.maximumZ());
+    } else {
+      candidate = VolumesL.overlaps(target_volume, this.bounds);
+    }
+
+    if (candidate) {
+      this.visited(counters);
+      if (!this.octant_objects.isEmpty()) {
+        nodes.add(this);
+      }
+      if (!this.isLeaf()) {
+        for (int index = 0; index < 8; ++index) {
+          this.child(index).parallelCandidates(
+            target_volume, contained, nodes, counters);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add the objects at indices {@code [start, end)} that are contained
+   * within (or overlapped by, if {@code contained} is {@code false})
+   * {@code target_volume} to {@code results}.
+   */
+
+  void volumeMatching(
+    final VolumeL target_volume,
+    final boolean contained,
+    final int start,
+    final int end,
+    final List<T> results)
+  {
+    final long target_x0 = target_volume.minimumX();
+    final long target_x1 = target_volume.maximumX();
+    final long target_y0 = target_volume.minimumY();
+    final long target_y1 = target_volume.maximumY();
+    final long target_z0 = target_volume.minimumZ();
+    final long target_z1 = target_volume.maximumZ();
+    final long[] coordinates = this.octant_objects.coordinates();
+
+    for (int index = start; index < end; ++index) {
+      final int base = index * 6;
+      final boolean matched;
+      if (contained) {
+        matched = Regions.containsVolume(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          coordinates[base],
+          coordinates[base + 1],
+          coordinates[base + 2],
+          coordinates[base + 3],
+          coordinates[base + 4],
+          coordinates[base + 5]);
+      } else {
+        matched = Regions.overlapsVolume(
+          target_x0, target_x1, target_y0, target_y1, target_z0, target_z1,
+          coordinates[base],
+          coordinates[base + 1],
+          coordinates[base + 2],
+          coordinates[base + 3],
+          coordinates[base + 4],
+          coordinates[base + 5]);
+      }
+      if (matched) {
+        results.add(this.octant_objects.item(index));
+      }
+    }
+  }
+
+  /**
+   * Pass the objects in this octant and its descendants that are
+   * overlapped by the queries whose indices occupy positions
+   * {@code [first, active.size())} of {@code active} to {@code consumer}.
+   * Each of those queries is known to overlap this octant.
+   */
+
+  TreeVisitResult volumeOverlappingAll(
+    final long[] targets,
+    final IntArrayList active,
+    final int first,
+    final OctTreeBatchQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(counters);
+
+    final int last = active.size();
+    final long[] coordinates = this.octant_objects.coordinates();
+
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      final int base = index * 6;
+      counters.testObjects(last - first);
+      for (int position = first; position < last; ++position) {
+        final int query = active.getInt(position);
+        final int target = query * 6;
+        if (Regions.overlapsVolume(
+          targets[target],
+          targets[target + 1],
+          targets[target + 2],
+          targets[target + 3],
+          targets[target + 4],
+          targets[target + 5],
+          coordinates[base],
+          coordinates[base + 1],
+          coordinates[base + 2],
+          coordinates[base + 3],
+          coordinates[base + 4],
+          coordinates[base + 5])) {
+          counters.hits(1L);
+          if (consumer.accept(
+            query,
+            this.octant_objects.item(index),
+            coordinates[base],
+            coordinates[base + 1],
+            coordinates[base + 2],
+            coordinates[base + 3],
+            coordinates[base + 4],
+            coordinates[base + 5]) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the queries that overlap each non-empty child
+     * onto the stack, and pop them again once the child is done.
+     */
+
+    if (!this.isLeaf()) {
+      for (int child_index = 0; child_index < 8; ++child_index) {
+        final OctTreeOctantL<T> child = this.child(child_index);
+        if (child.subtree_objects != 0) {
+          counters.testNodes(last - first);
+          for (int position = first; position < last; ++position) {
+            final int query = active.getInt(position);
+            final int target = query * 6;
+            if (Regions.overlapsVolume(
+              targets[target],
+              targets[target + 1],
+              targets[target + 2],
+              targets[target + 3],
+              targets[target + 4],
+              targets[target + 5],
+              child.bounds.minimumX(),
+              child.bounds.maximumX(),
+              child.bounds.minimumY(),
+              child.bounds.maximumY(),
+              child.bounds.minimumZ(),
+              child.bounds.maximumZ())) {
+              active.add(query);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > last) {
+            result = child.volumeOverlappingAll(
+              targets, active, last, consumer, counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(last);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The distance from the origin of {@code ray} to the given point
+   */
+
+  private static double rayDistance(
+    final Ray3D ray,
+    final double x,
+    final double y,
+    final double z)
+  {
+    final Vector3D origin = ray.origin();
+    final double dx = x - origin.x();
+    final double dy = y - origin.y();
+    final double dz = z - origin.z();
+    return Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+  }
+
+  /**
+   * Pass the objects in this octant and its descendants that are
+   * intersected by the rays whose indices occupy positions
+   * {@code [first, active.size())} of {@code active} to {@code consumer}.
+   * Each of those rays is known to intersect this octant.
+   */
+
+  TreeVisitResult raycastAll(
+    final Ray3D[] rays,
+    final IntArrayList active,
+    final int first,
+    final OctTreeBatchRaycastConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(counters);
+
+    final int last = active.size();
+    final long[] coordinates = this.octant_objects.coordinates();
+
+    for (int index = 0; index < this.octant_objects.size(); ++index) {
+      final int base = index * 6;
+      final long item_x0 = coordinates[base];
+      final long item_x1 = coordinates[base + 1];
+      final long item_y0 = coordinates[base + 2];
+      final long item_y1 = coordinates[base + 3];
+      final long item_z0 = coordinates[base + 4];
+      final long item_z1 = coordinates[base + 5];
+
+      counters.testObjects(last - first);
+      for (int position = first; position < last; ++position) {
+        final int ray_index = active.getInt(position);
+        final Ray3D ray = rays[ray_index];
+        if (ray.intersectsVolume(
+            (double) item_x0,
+            (double) item_y0,
+            (double) item_z0,
+            (double) item_x1,
+            (double) item_y1,
+            (double) item_z1)) {
+          final double distance =
+            rayDistance(ray, (double) item_x0, (double) item_y0, (double) item_z0);
+          counters.hits(1L);
+          if (consumer.accept(
+              ray_index,
+              this.octant_objects.item(index),
+              item_x0,
+              item_x1,
+              item_y0,
+              item_y1,
+              item_z0,
+              item_z1,
+              distance)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the rays that intersect each non-empty child onto
+     * the stack, and pop them again once the child is done. Rays that miss
+     * a child are never tested against anything inside it.
+     */
+
+    if (!this.isLeaf()) {
+      for (int child_index = 0; child_index < 8; ++child_index) {
+        final OctTreeOctantL<T> child = this.child(child_index);
+        if (child.subtree_objects != 0) {
+          final double x0 = (double) child.bounds.minimumX();
+          final double x1 = (double) child.bounds.maximumX();
+          final double y0 = (double) child.bounds.minimumY();
+          final double y1 = (double) child.bounds.maximumY();
+          final double z0 = (double) child.bounds.minimumZ();
+          final double z1 = (double) child.bounds.maximumZ();
+          counters.testNodes(last - first);
+          for (int position = first; position < last; ++position) {
+            final int ray_index = active.getInt(position);
+            if (rays[ray_index].intersectsVolume(x0, y0, z0, x1, y1, z1)) {
+              active.add(ray_index);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > last) {
+            result = child.raycastAll(rays, active, last, consumer, counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(last);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The child octant with the given index, where bit 0 of the
+   * index selects the upper X half, bit 1 selects the upper Y half, and
+   * bit 2 selects the upper Z half
+   */
+
+  private OctTreeOctantL<T> child(final int index)
+  {
+    switch (index) {
+      case 0:
+        return this.x0y0z0;
+      case 1:
+        return this.x1y0z0;
+      case 2:
+        return this.x0y1z0;
+      case 3:
+        return this.x1y1z0;
+      case 4:
+        return this.x0y0z1;
+      case 5:
+        return this.x1y0z1;
+      case 6:
+        return this.x0y1z1;
+      case 7:
+        return this.x1y1z1;
+      default:
+        throw new UnreachableCodeException();
+    }
+  }
+
+  <C> TreeVisitResult iterateOctants(
+    final C context,
+    final OctTreeOctantIterationLType<T, C> f,
+    final long depth)
+  {
+    switch (f.apply(context, this, depth)) {
+      case RESULT_CONTINUE: {
+        if (!this.isLeaf()) {
+          final long child_depth = Math.addExact(depth, 1L);
+          for (int index = 0; index < 8; ++index) {
+            if (this.child(index).iterateOctants(context, f, child_depth)
+              == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+        return TreeVisitResult.RESULT_CONTINUE;
+      }
+      case RESULT_TERMINATE:
+        return TreeVisitResult.RESULT_TERMINATE;
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  @Override
+  public Map<T, VolumeL> objects()
+  {
+    return new NodeObjectsMap<>(this.octant_objects, this::boundsAt);
+  }
+
+  @Override
+  public VolumeL volume()
+  {
+    return this.volume;
+  }
+
+  /**
+   * Attempt to turn this node back into a leaf.
+   */
+
+  private void unsplitAttempt()
+  {
+    if (!this.isLeaf()) {
+      boolean prune = true;
+
+      prune &= this.x0y0z0.unsplitCanPrune();
+      prune &= this.x1y0z0.unsplitCanPrune();
+      prune &= this.x0y1z0.unsplitCanPrune();
+      prune &= this.x1y1z0.unsplitCanPrune();
+
+      prune &= this.x0y0z1.unsplitCanPrune();
+      prune &= this.x1y0z1.unsplitCanPrune();
+      prune &= this.x0y1z1.unsplitCanPrune();
+      prune &= this.x1y1z1.unsplitCanPrune();
+
+      if (prune) {
+        this.x0y0z0 = null;
+        this.x0y1z0 = null;
+        this.x1y0z0 = null;
+        this.x1y1z0 = null;
+        this.x0y0z1 = null;
+        this.x0y1z1 = null;
+        this.x1y0z1 = null;
+        this.x1y1z1 = null;
+      }
+    }
+  }
+
+  /**
+   * Attempt to turn this node and as many ancestors of this node back into
+   * leaves as possible.
+   */
+
+  private void unsplitAttemptRecursive()
+  {
+    this.unsplitAttempt();
+    if (this.parent != null) {
+      this.parent.unsplitAttemptRecursive();
+    }
+  }
+
+  private boolean unsplitCanPrune()
+  {
+    return this.isLeaf() && this.octant_objects.isEmpty();
+  }
+
+  /**
+   * Trim this (unshared) octant, copying only those descendants that
+   * change. Only empty octants are removed, so the number of objects
+   * in each remaining subtree is unchanged.
+   */
+
+  void trim()
+  {
+    final OctTreeOctantL<T> result = this.trimmed();
+    Invariants.checkInvariant(
+      result == this, "Octant must not be shared");
+  }
+
+  /**
+   * Trim the subtree rooted at this octant in a single pass. Subtrees that
+   * hold no objects are removed without being examined.
+   *
+   * @return This octant, or a trimmed copy if this octant is shared
+   * with a snapshot and trimming changes it
+   */
+
+  private OctTreeOctantL<T> trimmed()
+  {
+    if (this.isLeaf()) {
+      return this;
+    }
+
+    if (this.subtree_objects == this.octant_objects.size()) {
+      final OctTreeOctantL<T> result = this.owned();
+      result.x0y0z0 = null;
+      result.x1y0z0 = null;
+      result.x0y1z0 = null;
+      result.x1y1z0 = null;
+      result.x0y0z1 = null;
+      result.x1y0z1 = null;
+      result.x0y1z1 = null;
+      result.x1y1z1 = null;
+      return result;
+    }
+
+    OctTreeOctantL<T> result = this;
+    for (int index = 0; index < 8; ++index) {
+      final OctTreeOctantL<T> child = result.child(index);
+      final OctTreeOctantL<T> child_trimmed = child.trimmed();
+      if (child_trimmed != child) {
+        result = result.owned();
+        child_trimmed.parent = result;
+        result.setChild(index, child_trimmed);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return This octant, or a copy of it that belongs to the current
+   * generation of the tree if it is shared with a snapshot
+   */
+
+  private OctTreeOctantL<T> owned()
+  {
+    if (this.generation == this.tree.generation()) {
+      return this;
+    }
+
+    final OctTreeOctantL<T> copy =
+      new OctTreeOctantL<>(this.tree, this.parent, this);
+    copy.claimObjects();
+    return copy;
+  }
+
+  /**
+   * @return The generation of the tree in which this octant was created
+   */
+
+  long generation()
+  {
+    return this.generation;
+  }
+
+  /**
+   * @return The number of objects held directly by this octant
+   */
+
+  int objectCount()
+  {
+    return this.octant_objects.size();
+  }
+}
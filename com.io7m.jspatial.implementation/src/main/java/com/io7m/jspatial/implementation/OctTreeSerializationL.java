@@ -0,0 +1,397 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeXYZSplitL;
+import com.io7m.jspatial.api.TreeItemCodecType;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationL;
+import com.io7m.jspatial.api.octtrees.OctTreeLType;
+import com.io7m.jspatial.api.octtrees.OctTreeOctantLType;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableLType;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Functions to serialize and deserialize octtrees.
+ *
+ * A serialized tree records the octants of the tree and the objects held
+ * by each octant (see {@link TreeFormat}), and so deserializing a tree
+ * restores the octants directly: No object is inserted, and no octant is
+ * split, by the insertion algorithm.
+ */
+
+public final class OctTreeSerializationL
+{
+  private OctTreeSerializationL()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Serialize a tree. The stream is flushed but not closed.
+   *
+   * @param tree   The tree
+   * @param codec  The codec used to write objects
+   * @param stream The output stream
+   * @param <T>    The type of objects in the tree
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static <T> void write(
+    final OctTreeReadableLType<T> tree,
+    final TreeItemCodecType<T> codec,
+    final OutputStream stream)
+    throws IOException
+  {
+    NullCheck.notNull(tree, "Tree");
+    NullCheck.notNull(codec, "Codec");
+    NullCheck.notNull(stream, "Stream");
+
+    final DataOutputStream output =
+      new DataOutputStream(new BufferedOutputStream(stream));
+    TreeFormat.writeHeader(output, TreeFormat.KIND_OCTTREE_L);
+    writeVolume(output, tree.bounds());
+    output.writeLong(tree.size());
+
+    final OctantWriter<T> writer = new OctantWriter<>(output, codec);
+    try {
+      tree.iterateOctants(writer, (context, octant, depth) -> {
+        try {
+          context.visit(octant, depth);
+          return TreeVisitResult.RESULT_CONTINUE;
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    writer.finish();
+    output.flush();
+  }
+
+  private static void writeVolume(
+    final DataOutput output,
+    final VolumeL volume)
+    throws IOException
+  {
+    output.writeLong(volume.minimumX());
+    output.writeLong(volume.maximumX());
+    output.writeLong(volume.minimumY());
+    output.writeLong(volume.maximumY());
+    output.writeLong(volume.minimumZ());
+    output.writeLong(volume.maximumZ());
+  }
+
+  private static VolumeL readVolume(
+    final DataInput input)
+    throws IOException
+  {
+    final long x0 = input.readLong();
+    final long x1 = input.readLong();
+    final long y0 = input.readLong();
+    final long y1 = input.readLong();
+    final long z0 = input.readLong();
+    final long z1 = input.readLong();
+    if (!(x0 <= x1 && y0 <= y1 && z0 <= z1)) {
+      throw TreeFormat.malformed("Invalid volume");
+    }
+    return VolumeL.of(x0, x1, y0, y1, z0, z1);
+  }
+
+  /**
+   * Deserialize a tree from the given buffer, starting at the buffer's
+   * current position. The position of the buffer is not modified.
+   *
+   * The tree takes its configuration from {@code config}, with the exception
+   * of the volume of the root octant, which is taken from the serialized tree
+   * (and may therefore be larger than the volume in the configuration if the
+   * serialized tree had grown). The configuration should therefore be the
+   * configuration of the tree that was serialized.
+   *
+   * @param config The tree configuration
+   * @param codec  The codec used to read objects
+   * @param buffer The buffer
+   * @param <T>    The type of objects in the tree
+   *
+   * @return A new tree
+   *
+   * @throws IOException On I/O errors, or if the buffer does not contain a
+   *                     serialized tree
+   */
+
+  public static <T> OctTreeLType<T> read(
+    final OctTreeConfigurationL config,
+    final TreeItemCodecType<T> codec,
+    final ByteBuffer buffer)
+    throws IOException
+  {
+    NullCheck.notNull(config, "Configuration");
+    NullCheck.notNull(codec, "Codec");
+
+    final ByteBufferDataInput input = new ByteBufferDataInput(buffer);
+    TreeFormat.readHeader(input, TreeFormat.KIND_OCTTREE_L);
+    final VolumeL volume = readVolume(input);
+    final long size = input.readLong();
+
+    final OctTreeL<T> tree = OctTreeL.createRestored(config, volume);
+    readOctant(input, codec, tree.root());
+    TreeFormat.checkEnd(input, size, tree.size());
+    return tree;
+  }
+
+  /**
+   * Deserialize a tree from the given file. The file is mapped into memory
+   * with {@link java.nio.channels.FileChannel#map}, and the tree is restored
+   * as by {@link #read(OctTreeConfigurationL, TreeItemCodecType, ByteBuffer)}.
+   *
+   * @param config The tree configuration
+   * @param codec  The codec used to read objects
+   * @param path   The file
+   * @param <T>    The type of objects in the tree
+   *
+   * @return A new tree
+   *
+   * @throws IOException On I/O errors, or if the file does not contain a
+   *                     serialized tree
+   */
+
+  public static <T> OctTreeLType<T> load(
+    final OctTreeConfigurationL config,
+    final TreeItemCodecType<T> codec,
+    final Path path)
+    throws IOException
+  {
+    NullCheck.notNull(path, "Path");
+    return read(config, codec, TreeFormat.map(path));
+  }
+
+  private static <T> void readOctant(
+    final ByteBufferDataInput input,
+    final TreeItemCodecType<T> codec,
+    final OctTreeOctantL<T> octant)
+    throws IOException
+  {
+    final VolumeL[] children = readChildVolumes(input, octant.volume());
+
+    final int count = TreeFormat.readObjectCount(input);
+    for (int index = 0; index < count; ++index) {
+      final long x0 = input.readLong();
+      final long x1 = input.readLong();
+      final long y0 = input.readLong();
+      final long y1 = input.readLong();
+      final long z0 = input.readLong();
+      final long z1 = input.readLong();
+      if (!(x0 <= x1 && y0 <= y1 && z0 <= z1)) {
+        throw TreeFormat.malformed("Invalid object bounds");
+      }
+      final T item = NullCheck.notNull(codec.read(input), "Item");
+      if (!octant.restoreObject(item, x0, x1, y0, y1, z0, z1)) {
+        throw TreeFormat.malformed(
+          "Object is duplicated or does not fit its octant: " + item);
+      }
+    }
+
+    for (int index = 0; index < children.length; ++index) {
+      readOctant(input, codec, octant.restoreChild(index, children[index]));
+    }
+    octant.restoreCount();
+  }
+
+  /**
+   * Read the way in which an octant is split.
+   *
+   * @return The volumes of the children of the octant in index order, or an
+   * empty array if the octant is a leaf
+   */
+
+  private static VolumeL[] readChildVolumes(
+    final DataInput input,
+    final VolumeL volume)
+    throws IOException
+  {
+    switch (TreeFormat.readNodeKind(input)) {
+      case TreeFormat.NODE_LEAF: {
+        return new VolumeL[0];
+      }
+      case TreeFormat.NODE_SUBDIVIDED: {
+        final VolumeXYZSplitL<VolumeL> split =
+          OctantsL.subdivide(volume).orElseThrow(
+            () -> TreeFormat.malformed(
+              "Octant cannot be subdivided"));
+        return new VolumeL[]{
+          split.x0y0z0(),
+          split.x1y0z0(),
+          split.x0y1z0(),
+          split.x1y1z0(),
+          split.x0y0z1(),
+          split.x1y0z1(),
+          split.x0y1z1(),
+          split.x1y1z1(),
+        };
+      }
+      case TreeFormat.NODE_SPLIT: {
+        return readSplitVolumes(input, volume);
+      }
+      default: {
+        throw new UnreachableCodeException();
+      }
+    }
+  }
+
+  /**
+   * Read the split point of an octant that is not split at its centre.
+   *
+   * @return The volumes of the children of the octant in index order
+   */
+
+  private static VolumeL[] readSplitVolumes(
+    final DataInput input,
+    final VolumeL volume)
+    throws IOException
+  {
+    final long x = input.readLong();
+    final long y = input.readLong();
+    final long z = input.readLong();
+    if (!(volume.minimumX() < x && x < volume.maximumX()
+      && volume.minimumY() < y && y < volume.maximumY()
+      && volume.minimumZ() < z && z < volume.maximumZ())) {
+      throw TreeFormat.malformed("Split point is not within octant");
+    }
+
+    final VolumeL[] children = new VolumeL[8];
+    for (int index = 0; index < 8; ++index) {
+      final boolean upper_x = (index & 1) != 0;
+      final boolean upper_y = (index & 2) != 0;
+      final boolean upper_z = (index & 4) != 0;
+      children[index] = VolumeL.of(
+        upper_x ? x : volume.minimumX(),
+        upper_x ? volume.maximumX() : x,
+        upper_y ? y : volume.minimumY(),
+        upper_y ? volume.maximumY() : y,
+        upper_z ? z : volume.minimumZ(),
+        upper_z ? volume.maximumZ() : z);
+    }
+    return children;
+  }
+
+  /**
+   * A writer that records the octants of a tree as they are visited in
+   * pre-order. The record of an octant begins with the way in which it is
+   * split, and so each record is written when the next octant is visited
+   * (or when the traversal has finished).
+   *
+   * @param <T> The type of objects in the tree
+   */
+
+  private static final class OctantWriter<T>
+  {
+    private final DataOutput output;
+    private final TreeItemCodecType<T> codec;
+    private @Nullable OctTreeOctantLType<T> pending;
+    private long pending_depth;
+
+    OctantWriter(
+      final DataOutput in_output,
+      final TreeItemCodecType<T> in_codec)
+    {
+      this.output = NullCheck.notNull(in_output, "Output");
+      this.codec = NullCheck.notNull(in_codec, "Codec");
+    }
+
+    void visit(
+      final OctTreeOctantLType<T> octant,
+      final long depth)
+      throws IOException
+    {
+      final @Nullable OctTreeOctantLType<T> previous = this.pending;
+      if (previous != null) {
+        if (depth > this.pending_depth) {
+          this.writeSplit(previous.volume(), octant.volume());
+        } else {
+          this.output.writeByte(TreeFormat.NODE_LEAF);
+        }
+        this.writeObjects(previous);
+      }
+      this.pending = octant;
+      this.pending_depth = depth;
+    }
+
+    void finish()
+      throws IOException
+    {
+      final @Nullable OctTreeOctantLType<T> previous = this.pending;
+      if (previous != null) {
+        this.output.writeByte(TreeFormat.NODE_LEAF);
+        this.writeObjects(previous);
+        this.pending = null;
+      }
+    }
+
+    /**
+     * Write the way in which an octant is split, given the volume of its
+     * first child. The children of an octant are usually produced by
+     * {@link OctantsL#subdivide(VolumeL)}, but the root of a tree that has
+     * grown is split at the bounds of the previous root.
+     */
+
+    private void writeSplit(
+      final VolumeL volume,
+      final VolumeL first)
+      throws IOException
+    {
+      final Optional<VolumeXYZSplitL<VolumeL>> split =
+        OctantsL.subdivide(volume);
+      if (split.isPresent() && split.get().x0y0z0().equals(first)) {
+        this.output.writeByte(TreeFormat.NODE_SUBDIVIDED);
+      } else {
+        this.output.writeByte(TreeFormat.NODE_SPLIT);
+        this.output.writeLong(first.maximumX());
+        this.output.writeLong(first.maximumY());
+        this.output.writeLong(first.maximumZ());
+      }
+    }
+
+    private void writeObjects(
+      final OctTreeOctantLType<T> octant)
+      throws IOException
+    {
+      final Map<T, VolumeL> objects = octant.objects();
+      this.output.writeInt(objects.size());
+      for (final Map.Entry<T, VolumeL> entry : objects.entrySet()) {
+        writeVolume(this.output, entry.getValue());
+        this.codec.write(this.output, entry.getKey());
+      }
+    }
+  }
+}
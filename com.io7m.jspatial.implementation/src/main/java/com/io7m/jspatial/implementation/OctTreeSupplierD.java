@@ -16,11 +16,15 @@
 
 package com.io7m.jspatial.implementation;
 
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationD;
 import com.io7m.jspatial.api.octtrees.OctTreeDType;
 import com.io7m.jspatial.api.octtrees.OctTreeSupplierDType;
 import org.osgi.service.component.annotations.Component;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * The default implementation of the {@link OctTreeSupplierDType} interface.
  */
@@ -42,4 +46,21 @@ public final class OctTreeSupplierD implements OctTreeSupplierDType
   {
     return OctTreeD.create(config);
   }
+
+  @Override
+  public <A> OctTreeDType<A> createFrom(
+    final OctTreeConfigurationD config,
+    final Map<A, VolumeD> items)
+  {
+    return OctTreeD.createFrom(config, items);
+  }
+
+  @Override
+  public <A> OctTreeDType<A> createFromParallel(
+    final OctTreeConfigurationD config,
+    final Map<A, VolumeD> items,
+    final ForkJoinPool pool)
+  {
+    return OctTreeD.createFromParallel(config, items, pool);
+  }
 }
@@ -16,11 +16,15 @@
 
 package com.io7m.jspatial.implementation;
 
+import com.io7m.jregions.core.unparameterized.volumes.VolumeI;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationI;
 import com.io7m.jspatial.api.octtrees.OctTreeIType;
 import com.io7m.jspatial.api.octtrees.OctTreeSupplierIType;
 import org.osgi.service.component.annotations.Component;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * The default implementation of the {@link OctTreeSupplierIType} interface.
  */
@@ -42,4 +46,21 @@ public final class OctTreeSupplierI implements OctTreeSupplierIType
   {
     return OctTreeI.create(config);
   }
+
+  @Override
+  public <A> OctTreeIType<A> createFrom(
+    final OctTreeConfigurationI config,
+    final Map<A, VolumeI> items)
+  {
+    return OctTreeI.createFrom(config, items);
+  }
+
+  @Override
+  public <A> OctTreeIType<A> createFromParallel(
+    final OctTreeConfigurationI config,
+    final Map<A, VolumeI> items,
+    final ForkJoinPool pool)
+  {
+    return OctTreeI.createFromParallel(config, items, pool);
+  }
 }
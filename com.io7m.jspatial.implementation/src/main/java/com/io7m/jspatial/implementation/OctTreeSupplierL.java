@@ -16,11 +16,15 @@
 
 package com.io7m.jspatial.implementation;
 
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationL;
 import com.io7m.jspatial.api.octtrees.OctTreeLType;
 import com.io7m.jspatial.api.octtrees.OctTreeSupplierLType;
 import org.osgi.service.component.annotations.Component;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * The default implementation of the {@link OctTreeSupplierLType} interface.
  */
@@ -42,4 +46,21 @@ public final class OctTreeSupplierL implements OctTreeSupplierLType
   {
     return OctTreeL.create(config);
   }
+
+  @Override
+  public <A> OctTreeLType<A> createFrom(
+    final OctTreeConfigurationL config,
+    final Map<A, VolumeL> items)
+  {
+    return OctTreeL.createFrom(config, items);
+  }
+
+  @Override
+  public <A> OctTreeLType<A> createFromParallel(
+    final OctTreeConfigurationL config,
+    final Map<A, VolumeL> items,
+    final ForkJoinPool pool)
+  {
+    return OctTreeL.createFromParallel(config, items, pool);
+  }
 }
@@ -22,6 +22,8 @@ import com.io7m.jregions.core.unparameterized.volumes.VolumeXYZSplitD;
 import com.io7m.jregions.core.unparameterized.volumes.VolumesD;
 import com.io7m.junreachable.UnreachableCodeException;
 
+import java.util.Optional;
+
 /**
  * Functions to divide volumes into octants.
  */
@@ -52,4 +54,111 @@ public final class OctantsD
       area.sizeY() / 2.0,
       area.sizeZ() / 2.0);
   }
+
+  /**
+   * Enlarge a volume about its centre so that its size on each axis is
+   * multiplied by {@code factor}. The volume is returned unchanged if
+   * {@code factor <= 1.0}.
+   *
+   * @param volume   The volume
+   * @param factor The factor
+   *
+   * @return The enlarged volume
+   */
+
+  public static VolumeD loosen(
+    final VolumeD volume,
+    final double factor)
+  {
+    NullCheck.notNull(volume, "Volume");
+
+    if (factor <= 1.0) {
+      return volume;
+    }
+
+    final double margin_x = volume.sizeX() * (factor - 1.0) / 2.0;
+    final double margin_y = volume.sizeY() * (factor - 1.0) / 2.0;
+    final double margin_z = volume.sizeZ() * (factor - 1.0) / 2.0;
+    return VolumeD.of(
+      volume.minimumX() - margin_x,
+      volume.maximumX() + margin_x,
+      volume.minimumY() - margin_y,
+      volume.maximumY() + margin_y,
+      volume.minimumZ() - margin_z,
+      volume.maximumZ() + margin_z);
+  }
+
+  /**
+   * Extend a volume to twice its width, height and depth, such that the original
+   * volume becomes one of the eight octants of the result. On each axis, the
+   * volume is extended towards negative infinity if the corresponding
+   * {@code lower} parameter is {@code true}, and towards positive infinity
+   * otherwise. No extended volume exists if the volume is empty on any
+   * axis, or if the result would not be representable.
+   *
+   * @param volume  The volume
+   * @param lower_x Whether to extend towards negative infinity on the X axis
+   * @param lower_y Whether to extend towards negative infinity on the Y axis
+   * @param lower_z Whether to extend towards negative infinity on the Z axis
+   *
+   * @return The extended volume, if any
+   */
+
+  public static Optional<VolumeD> extend(
+    final VolumeD volume,
+    final boolean lower_x,
+    final boolean lower_y,
+    final boolean lower_z)
+  {
+    NullCheck.notNull(volume, "Volume");
+
+    final double size_x = volume.sizeX();
+    final double size_y = volume.sizeY();
+    final double size_z = volume.sizeZ();
+
+    final double x0;
+    final double x1;
+    if (lower_x) {
+      x0 = volume.minimumX() - size_x;
+      x1 = volume.maximumX();
+    } else {
+      x0 = volume.minimumX();
+      x1 = volume.maximumX() + size_x;
+    }
+
+    final double y0;
+    final double y1;
+    if (lower_y) {
+      y0 = volume.minimumY() - size_y;
+      y1 = volume.maximumY();
+    } else {
+      y0 = volume.minimumY();
+      y1 = volume.maximumY() + size_y;
+    }
+
+    final double z0;
+    final double z1;
+    if (lower_z) {
+      z0 = volume.minimumZ() - size_z;
+      z1 = volume.maximumZ();
+    } else {
+      z0 = volume.minimumZ();
+      z1 = volume.maximumZ() + size_z;
+    }
+
+    if (extensible(size_x, x0, x1)
+      && extensible(size_y, y0, y1)
+      && extensible(size_z, z0, z1)) {
+      return Optional.of(VolumeD.of(x0, x1, y0, y1, z0, z1));
+    }
+    return Optional.empty();
+  }
+
+  private static boolean extensible(
+    final double size,
+    final double minimum,
+    final double maximum)
+  {
+    return size > 0.0 && Double.isFinite(minimum) && Double.isFinite(maximum);
+  }
 }
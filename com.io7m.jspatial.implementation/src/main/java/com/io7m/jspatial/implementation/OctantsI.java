@@ -59,4 +59,135 @@ public final class OctantsI
     }
     return Optional.empty();
   }
+
+  /**
+   * Enlarge a volume about its centre so that its size on each axis is
+   * multiplied by {@code factor}. The volume is returned unchanged if
+   * {@code factor <= 1.0}. Fractional margins are rounded towards zero, and
+   * the result is clamped to the range of the coordinate type.
+   *
+   * @param volume   The volume
+   * @param factor The factor
+   *
+   * @return The enlarged volume
+   */
+
+  public static VolumeI loosen(
+    final VolumeI volume,
+    final double factor)
+  {
+    NullCheck.notNull(volume, "Volume");
+
+    if (factor <= 1.0) {
+      return volume;
+    }
+
+    final long margin_x =
+      (long) ((double) volume.sizeX() * (factor - 1.0) / 2.0);
+    final long margin_y =
+      (long) ((double) volume.sizeY() * (factor - 1.0) / 2.0);
+    final long margin_z =
+      (long) ((double) volume.sizeZ() * (factor - 1.0) / 2.0);
+    return VolumeI.of(
+      lower(volume.minimumX(), margin_x),
+      upper(volume.maximumX(), margin_x),
+      lower(volume.minimumY(), margin_y),
+      upper(volume.maximumY(), margin_y),
+      lower(volume.minimumZ(), margin_z),
+      upper(volume.maximumZ(), margin_z));
+  }
+
+  private static int lower(
+    final int x,
+    final long margin)
+  {
+    return (int) Math.max((long) Integer.MIN_VALUE, (long) x - margin);
+  }
+
+  private static int upper(
+    final int x,
+    final long margin)
+  {
+    return (int) Math.min((long) Integer.MAX_VALUE, (long) x + margin);
+  }
+
+  /**
+   * Extend a volume to twice its width, height and depth, such that the original
+   * volume becomes one of the eight octants of the result. On each axis, the
+   * volume is extended towards negative infinity if the corresponding
+   * {@code lower} parameter is {@code true}, and towards positive infinity
+   * otherwise. No extended volume exists if the volume is empty on any
+   * axis, or if the result would not be representable.
+   *
+   * @param volume  The volume
+   * @param lower_x Whether to extend towards negative infinity on the X axis
+   * @param lower_y Whether to extend towards negative infinity on the Y axis
+   * @param lower_z Whether to extend towards negative infinity on the Z axis
+   *
+   * @return The extended volume, if any
+   */
+
+  public static Optional<VolumeI> extend(
+    final VolumeI volume,
+    final boolean lower_x,
+    final boolean lower_y,
+    final boolean lower_z)
+  {
+    NullCheck.notNull(volume, "Volume");
+
+    final int size_x = volume.sizeX();
+    final int size_y = volume.sizeY();
+    final int size_z = volume.sizeZ();
+    if (!extensible(volume.minimumX(), volume.maximumX(), size_x, lower_x)
+      || !extensible(volume.minimumY(), volume.maximumY(), size_y, lower_y)
+      || !extensible(volume.minimumZ(), volume.maximumZ(), size_z, lower_z)) {
+      return Optional.empty();
+    }
+
+    final int x0;
+    final int x1;
+    if (lower_x) {
+      x0 = volume.minimumX() - size_x;
+      x1 = volume.maximumX();
+    } else {
+      x0 = volume.minimumX();
+      x1 = volume.maximumX() + size_x;
+    }
+
+    final int y0;
+    final int y1;
+    if (lower_y) {
+      y0 = volume.minimumY() - size_y;
+      y1 = volume.maximumY();
+    } else {
+      y0 = volume.minimumY();
+      y1 = volume.maximumY() + size_y;
+    }
+
+    final int z0;
+    final int z1;
+    if (lower_z) {
+      z0 = volume.minimumZ() - size_z;
+      z1 = volume.maximumZ();
+    } else {
+      z0 = volume.minimumZ();
+      z1 = volume.maximumZ() + size_z;
+    }
+    return Optional.of(VolumeI.of(x0, x1, y0, y1, z0, z1));
+  }
+
+  private static boolean extensible(
+    final int minimum,
+    final int maximum,
+    final int size,
+    final boolean lower)
+  {
+    if (size <= 0) {
+      return false;
+    }
+    if (lower) {
+      return minimum >= Integer.MIN_VALUE + size;
+    }
+    return maximum <= Integer.MAX_VALUE - size;
+  }
 }
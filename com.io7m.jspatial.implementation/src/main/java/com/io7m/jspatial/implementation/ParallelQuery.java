@@ -0,0 +1,176 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ToIntFunction;
+
+/**
+ * A fork/join task that tests the objects held by a list of tree nodes
+ * against a query. The objects of all nodes are numbered consecutively, and
+ * a task responsible for more than a threshold number of objects splits its
+ * range of objects in half and forks the halves. Ranges may divide the
+ * objects of a single node, so the work remains evenly divided even when a
+ * few nodes hold most of the objects. The results of each half are merged
+ * when the halves are joined.
+ *
+ * @param <N> The type of nodes
+ * @param <T> The type of objects
+ */
+
+final class ParallelQuery<N, T> extends RecursiveTask<ArrayList<T>>
+{
+  private static final long serialVersionUID = 1L;
+
+  private final List<N> nodes;
+  private final int[] offsets;
+  private final MatcherType<N, T> matcher;
+  private final int threshold;
+  private final int lower;
+  private final int upper;
+
+  private ParallelQuery(
+    final List<N> in_nodes,
+    final int[] in_offsets,
+    final MatcherType<N, T> in_matcher,
+    final int in_threshold,
+    final int in_lower,
+    final int in_upper)
+  {
+    this.nodes = in_nodes;
+    this.offsets = in_offsets;
+    this.matcher = in_matcher;
+    this.threshold = in_threshold;
+    this.lower = in_lower;
+    this.upper = in_upper;
+  }
+
+  /**
+   * Test the objects held by {@code nodes} on {@code pool}.
+   *
+   * @param pool      The pool that will execute tasks
+   * @param threshold The maximum number of objects tested by a single task
+   * @param nodes     The nodes that hold candidate objects
+   * @param counts    A function that yields the number of objects in a node
+   * @param matcher   A function that tests a range of objects in a node
+   * @param <N>       The type of nodes
+   * @param <T>       The type of objects
+   *
+   * @return The objects accepted by {@code matcher}
+   */
+
+  static <N, T> ArrayList<T> execute(
+    final ForkJoinPool pool,
+    final int threshold,
+    final List<N> nodes,
+    final ToIntFunction<N> counts,
+    final MatcherType<N, T> matcher)
+  {
+    final int[] offsets = new int[nodes.size() + 1];
+    for (int index = 0; index < nodes.size(); ++index) {
+      offsets[index + 1] = offsets[index] + counts.applyAsInt(nodes.get(index));
+    }
+
+    return pool.invoke(new ParallelQuery<>(
+      nodes,
+      offsets,
+      matcher,
+      Math.max(1, threshold),
+      0,
+      offsets[nodes.size()]));
+  }
+
+  @Override
+  protected ArrayList<T> compute()
+  {
+    if (this.upper - this.lower > this.threshold) {
+      final int middle = (this.lower + this.upper) >>> 1;
+      final ParallelQuery<N, T> left = new ParallelQuery<>(
+        this.nodes, this.offsets, this.matcher, this.threshold,
+        this.lower, middle);
+      final ParallelQuery<N, T> right = new ParallelQuery<>(
+        this.nodes, this.offsets, this.matcher, this.threshold,
+        middle, this.upper);
+
+      left.fork();
+      final ArrayList<T> right_results = right.compute();
+      final ArrayList<T> left_results = left.join();
+      left_results.addAll(right_results);
+      return left_results;
+    }
+
+    final ArrayList<T> results = new ArrayList<>();
+    if (this.lower == this.upper) {
+      return results;
+    }
+
+    /*
+     * Find the node that holds the first object in the range, and then
+     * test objects node by node until the end of the range is reached.
+     */
+
+    final int search = Arrays.binarySearch(
+      this.offsets, 0, this.nodes.size(), this.lower);
+    int node = search >= 0 ? search : -search - 2;
+    while (this.offsets[node + 1] <= this.lower) {
+      node = node + 1;
+    }
+
+    int position = this.lower;
+    while (position < this.upper) {
+      final int base = this.offsets[node];
+      final int end = Math.min(this.offsets[node + 1], this.upper);
+      this.matcher.match(
+        this.nodes.get(node), position - base, end - base, results);
+      position = end;
+      node = node + 1;
+    }
+    return results;
+  }
+
+  /**
+   * A function that tests a range of the objects held by a node.
+   *
+   * @param <N> The type of nodes
+   * @param <T> The type of objects
+   */
+
+  @FunctionalInterface
+  interface MatcherType<N, T>
+  {
+    /**
+     * Test the objects at indices {@code [start, end)} in {@code node},
+     * adding each accepted object to {@code results}.
+     *
+     * @param node    The node
+     * @param start   The index of the first object
+     * @param end     The index one past the last object
+     * @param results The accepted objects
+     */
+
+    void match(
+      N node,
+      int start,
+      int end,
+      List<T> results);
+  }
+}
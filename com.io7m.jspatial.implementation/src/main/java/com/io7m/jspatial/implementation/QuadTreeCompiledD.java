@@ -0,0 +1,1461 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeQueryListenerType;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchQueryConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchRaycastConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationD;
+import com.io7m.jspatial.api.quadtrees.QuadTreeDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeNearestConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantIterationDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQueryConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastResultD;
+import com.io7m.jspatial.api.quadtrees.QuadTreeReadableDType;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
+import com.io7m.jtensors.core.unparameterized.vectors.Vectors2D;
+import com.io7m.junreachable.UnreachableCodeException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+
+/**
+ * <p>A read-only quadtree produced by compiling a {@link QuadTreeD}.</p>
+ *
+ * <p>The quadrants are numbered in breadth-first order, so the four children
+ * of any quadrant are adjacent. Each quadrant occupies a fixed-size record in
+ * a direct buffer holding its loose bounds, the index of its first child, the
+ * range of objects that it holds, the number of objects in its subtree, and
+ * its depth.
+ * The bounds of the objects are packed into a second direct buffer in the
+ * same order, so that the objects of a quadrant are contiguous. Only the
+ * objects themselves, and the index used to look them up, remain on the
+ * heap.</p>
+ *
+ * <p>The buffers are only ever read using absolute operations, and so the
+ * tree may be queried from any number of threads without
+ * synchronization.</p>
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class QuadTreeCompiledD<T> implements QuadTreeReadableDType<T>
+{
+  private static final int NODE_X0 = 0;
+  private static final int NODE_X1 = 8;
+  private static final int NODE_Y0 = 16;
+  private static final int NODE_Y1 = 24;
+  private static final int NODE_CHILD = 32;
+  private static final int NODE_FIRST = 36;
+  private static final int NODE_COUNT = 40;
+  private static final int NODE_SUBTREE = 44;
+  private static final int NODE_DEPTH = 48;
+  private static final int NODE_SIZE = 56;
+
+  private static final int AREA_SIZE = 32;
+  private static final int OBJECT_SIZE = 32;
+
+  private static final int LEAF = -1;
+
+  private final QuadTreeConfigurationD config;
+  private final ByteBuffer nodes;
+  private final ByteBuffer areas;
+  private final ByteBuffer coordinates;
+  private final Object[] items;
+  private final Reference2IntOpenHashMap<T> index;
+  private final @Nullable TreeQueryListenerType listener;
+
+  private QuadTreeCompiledD(
+    final QuadTreeConfigurationD in_config,
+    final ByteBuffer in_nodes,
+    final ByteBuffer in_areas,
+    final ByteBuffer in_coordinates,
+    final Object[] in_items,
+    final Reference2IntOpenHashMap<T> in_index,
+    final @Nullable TreeQueryListenerType in_listener)
+  {
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.nodes = NullCheck.notNull(in_nodes, "Nodes");
+    this.areas = NullCheck.notNull(in_areas, "Areas");
+    this.coordinates = NullCheck.notNull(in_coordinates, "Coordinates");
+    this.items = NullCheck.notNull(in_items, "Items");
+    this.index = NullCheck.notNull(in_index, "Index");
+    this.listener = in_listener;
+  }
+
+  private static ByteBuffer allocate(
+    final int count,
+    final int size)
+  {
+    return ByteBuffer.allocateDirect(Math.multiplyExact(count, size))
+      .order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Compile the tree rooted at {@code root}.
+   *
+   * @param config   The configuration of the tree
+   * @param root     The root quadrant
+   * @param size     The number of objects in the tree
+   * @param listener The listener that receives statistics about queries
+   *                 performed on the compiled tree, if any
+   * @param <T>      The type of tree objects
+   *
+   * @return A compiled tree
+   */
+
+  static <T> QuadTreeCompiledD<T> compile(
+    final QuadTreeConfigurationD config,
+    final QuadTreeQuadrantD<T> root,
+    final int size,
+    final @Nullable TreeQueryListenerType listener)
+  {
+    NullCheck.notNull(root, "Root");
+
+    /*
+     * Number the quadrants in breadth-first order. The children of the
+     * quadrant at position n are appended to the list together, and so
+     * they occupy four adjacent positions.
+     */
+
+    final List<QuadTreeQuadrantD<T>> order = new ArrayList<>();
+    final IntArrayList children = new IntArrayList();
+    final IntArrayList depths = new IntArrayList();
+    order.add(root);
+    depths.add(0);
+    for (int node = 0; node < order.size(); ++node) {
+      final QuadTreeQuadrantD<T> quadrant = order.get(node);
+      if (quadrant.isLeaf()) {
+        children.add(LEAF);
+      } else {
+        children.add(order.size());
+        for (int child = 0; child < 4; ++child) {
+          order.add(quadrant.child(child));
+          depths.add(depths.getInt(node) + 1);
+        }
+      }
+    }
+
+    final int count = order.size();
+    final ByteBuffer nodes = allocate(count, NODE_SIZE);
+    final ByteBuffer areas = allocate(count, AREA_SIZE);
+    final ByteBuffer coordinates = allocate(size, OBJECT_SIZE);
+    final Object[] items = new Object[size];
+    final Reference2IntOpenHashMap<T> index =
+      new Reference2IntOpenHashMap<>(size);
+    index.defaultReturnValue(-1);
+
+    int object = 0;
+    for (int node = 0; node < count; ++node) {
+      final QuadTreeQuadrantD<T> quadrant = order.get(node);
+      final AreaD bounds = quadrant.bounds();
+      final AreaD area = quadrant.area();
+      final NodeObjectsD<T> objects = quadrant.nodeObjects();
+
+      final int base = node * NODE_SIZE;
+      nodes.putDouble(base + NODE_X0, bounds.minimumX());
+      nodes.putDouble(base + NODE_X1, bounds.maximumX());
+      nodes.putDouble(base + NODE_Y0, bounds.minimumY());
+      nodes.putDouble(base + NODE_Y1, bounds.maximumY());
+      nodes.putInt(base + NODE_CHILD, children.getInt(node));
+      nodes.putInt(base + NODE_FIRST, object);
+      nodes.putInt(base + NODE_COUNT, objects.size());
+      nodes.putInt(base + NODE_DEPTH, depths.getInt(node));
+
+      final int area_base = node * AREA_SIZE;
+      areas.putDouble(area_base, area.minimumX());
+      areas.putDouble(area_base + 8, area.maximumX());
+      areas.putDouble(area_base + 16, area.minimumY());
+      areas.putDouble(area_base + 24, area.maximumY());
+
+      final double[] source = objects.coordinates();
+      for (int item = 0; item < objects.size(); ++item) {
+        final int source_base = item * 4;
+        final int target_base = object * OBJECT_SIZE;
+        coordinates.putDouble(target_base, source[source_base]);
+        coordinates.putDouble(target_base + 8, source[source_base + 1]);
+        coordinates.putDouble(target_base + 16, source[source_base + 2]);
+        coordinates.putDouble(target_base + 24, source[source_base + 3]);
+        items[object] = objects.item(item);
+        index.put(objects.item(item), object);
+        ++object;
+      }
+    }
+
+    /*
+     * Children always follow their parents, so the subtree counts can be
+     * accumulated in a single pass in reverse order.
+     */
+
+    for (int node = count - 1; node >= 0; --node) {
+      final int base = node * NODE_SIZE;
+      int subtree = nodes.getInt(base + NODE_COUNT);
+      final int first_child = nodes.getInt(base + NODE_CHILD);
+      if (first_child != LEAF) {
+        for (int child = 0; child < 4; ++child) {
+          subtree += nodes.getInt(
+            ((first_child + child) * NODE_SIZE) + NODE_SUBTREE);
+        }
+      }
+      nodes.putInt(base + NODE_SUBTREE, subtree);
+    }
+
+    return new QuadTreeCompiledD<>(
+      config, nodes, areas, coordinates, items, index, listener);
+  }
+
+  private int firstChild(final int node)
+  {
+    return this.nodes.getInt((node * NODE_SIZE) + NODE_CHILD);
+  }
+
+  private int firstObject(final int node)
+  {
+    return this.nodes.getInt((node * NODE_SIZE) + NODE_FIRST);
+  }
+
+  private int objectCount(final int node)
+  {
+    return this.nodes.getInt((node * NODE_SIZE) + NODE_COUNT);
+  }
+
+  private int subtree(final int node)
+  {
+    return this.nodes.getInt((node * NODE_SIZE) + NODE_SUBTREE);
+  }
+
+  /**
+   * Record a visit to the given quadrant. The depth of the quadrant is only
+   * read if statistics are being collected.
+   */
+
+  private void visited(
+    final int node,
+    final QueryCounters counters)
+  {
+    if (counters.isEnabled()) {
+      counters.visit(
+        (long) this.nodes.getInt((node * NODE_SIZE) + NODE_DEPTH));
+    }
+  }
+
+  private double boundsX0(final int node)
+  {
+    return this.nodes.getDouble((node * NODE_SIZE) + NODE_X0);
+  }
+
+  private double boundsX1(final int node)
+  {
+    return this.nodes.getDouble((node * NODE_SIZE) + NODE_X1);
+  }
+
+  private double boundsY0(final int node)
+  {
+    return this.nodes.getDouble((node * NODE_SIZE) + NODE_Y0);
+  }
+
+  private double boundsY1(final int node)
+  {
+    return this.nodes.getDouble((node * NODE_SIZE) + NODE_Y1);
+  }
+
+  private double objectX0(final int object)
+  {
+    return this.coordinates.getDouble(object * OBJECT_SIZE);
+  }
+
+  private double objectX1(final int object)
+  {
+    return this.coordinates.getDouble((object * OBJECT_SIZE) + 8);
+  }
+
+  private double objectY0(final int object)
+  {
+    return this.coordinates.getDouble((object * OBJECT_SIZE) + 16);
+  }
+
+  private double objectY1(final int object)
+  {
+    return this.coordinates.getDouble((object * OBJECT_SIZE) + 24);
+  }
+
+  /**
+   * @return The object with the given index
+   */
+
+  @SuppressWarnings("unchecked")
+  T item(final int object)
+  {
+    return (T) this.items[object];
+  }
+
+  private AreaD areaOf(final int node)
+  {
+    final int base = node * AREA_SIZE;
+    return AreaD.of(
+      this.areas.getDouble(base),
+      this.areas.getDouble(base + 8),
+      this.areas.getDouble(base + 16),
+      this.areas.getDouble(base + 24));
+  }
+
+  /**
+   * @return The bounds of the given object
+   */
+
+  AreaD boundsOf(final int object)
+  {
+    return AreaD.of(
+      this.objectX0(object),
+      this.objectX1(object),
+      this.objectY0(object),
+      this.objectY1(object));
+  }
+
+  private TreeVisitResult report(
+    final QuadTreeQueryConsumerDType<T> consumer,
+    final int object,
+    final QueryCounters counters)
+  {
+    counters.hits(1L);
+    return consumer.accept(
+      this.item(object),
+      this.objectX0(object),
+      this.objectX1(object),
+      this.objectY0(object),
+      this.objectY1(object));
+  }
+
+  @Override
+  public long size()
+  {
+    return (long) this.items.length;
+  }
+
+  @Override
+  public AreaD bounds()
+  {
+    return this.areaOf(0);
+  }
+
+  @Override
+  public boolean contains(final T item)
+  {
+    return this.index.containsKey(item);
+  }
+
+  @Override
+  public <U> QuadTreeReadableDType<U> map(final BiFunction<T, AreaD, U> f)
+  {
+    NullCheck.notNull(f, "Function");
+
+    final QuadTreeDType<U> qt = QuadTreeD.create(this.config);
+    for (int object = 0; object < this.items.length; ++object) {
+      final AreaD item_bounds = this.boundsOf(object);
+      qt.insert(f.apply(this.item(object), item_bounds), item_bounds);
+    }
+    return qt;
+  }
+
+  @Override
+  public <C> void iterateQuadrants(
+    final C context,
+    final QuadTreeQuadrantIterationDType<T, C> f)
+  {
+    NullCheck.notNull(context, "Context");
+    NullCheck.notNull(f, "Function");
+    this.iterateQuadrantsStep(0, context, f, 0L);
+  }
+
+  private <C> TreeVisitResult iterateQuadrantsStep(
+    final int node,
+    final C context,
+    final QuadTreeQuadrantIterationDType<T, C> f,
+    final long depth)
+  {
+    final QuadTreeCompiledQuadrantD<T> quadrant =
+      new QuadTreeCompiledQuadrantD<>(
+        this,
+        this.areaOf(node),
+        this.firstObject(node),
+        this.objectCount(node));
+
+    switch (f.apply(context, quadrant, depth)) {
+      case RESULT_CONTINUE: {
+        final int first_child = this.firstChild(node);
+        if (first_child != LEAF) {
+          for (int child = 0; child < 4; ++child) {
+            if (this.iterateQuadrantsStep(
+              first_child + child, context, f, Math.addExact(depth, 1L))
+              == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+        return TreeVisitResult.RESULT_CONTINUE;
+      }
+      case RESULT_TERMINATE:
+        return TreeVisitResult.RESULT_TERMINATE;
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  @Override
+  public AreaD areaFor(final T item)
+  {
+    NullCheck.notNull(item, "Item");
+
+    final int object = this.index.getInt(item);
+    if (object < 0) {
+      throw new NoSuchElementException(item.toString());
+    }
+    return this.boundsOf(object);
+  }
+
+  @Override
+  public void containedBy(
+    final AreaD area,
+    final QuadTreeQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(area, "Area");
+    this.containedBy(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY(),
+      consumer);
+  }
+
+  @Override
+  public void containedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final QuadTreeQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.areaContaining(0, x0, x1, y0, y1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+  }
+
+  private TreeVisitResult areaContaining(
+    final int node,
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final QuadTreeQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless containment checks.
+     */
+
+    if (this.subtree(node) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    counters.testNodes(1);
+
+    final double x0 = this.boundsX0(node);
+    final double x1 = this.boundsX1(node);
+    final double y0 = this.boundsY0(node);
+    final double y1 = this.boundsY1(node);
+
+    /*
+     * If the target area completely contains this quadrant, collect
+     * everything in this quadrant and all children of this quadrant.
+     */
+
+    if (Regions.containsArea(
+      target_x0, target_x1, target_y0, target_y1, x0, x1, y0, y1)) {
+      return this.collectRecursive(node, consumer, counters);
+    }
+
+    this.visited(node, counters);
+    counters.testNodes(1);
+
+    /*
+     * An object contained within the target area lies within both the
+     * target area and this quadrant, so a quadrant that does not
+     * intersect the target area cannot hold any results.
+     */
+
+    if (!Regions.intersectsArea(
+      target_x0, target_x1, target_y0, target_y1, x0, x1, y0, y1)) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+    counters.testObjects(last - first);
+    for (int object = first; object < last; ++object) {
+      if (Regions.containsArea(
+        target_x0, target_x1, target_y0, target_y1,
+        this.objectX0(object),
+        this.objectX1(object),
+        this.objectY0(object),
+        this.objectY1(object))) {
+        if (this.report(consumer, object, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = 0; child < 4; ++child) {
+        if (this.areaContaining(
+          first_child + child,
+          target_x0, target_x1, target_y0, target_y1,
+          consumer,
+          counters) == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  private TreeVisitResult collectRecursive(
+    final int node,
+    final QuadTreeQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    if (this.subtree(node) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(node, counters);
+
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+    for (int object = first; object < last; ++object) {
+      if (this.report(consumer, object, counters)
+        == TreeVisitResult.RESULT_TERMINATE) {
+        return TreeVisitResult.RESULT_TERMINATE;
+      }
+    }
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = 0; child < 4; ++child) {
+        if (this.collectRecursive(first_child + child, consumer, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  @Override
+  public long count(final AreaD area)
+  {
+    NullCheck.notNull(area, "Area");
+    return this.count(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY());
+  }
+
+  @Override
+  public long count(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    final long count = this.countContaining(0, x0, x1, y0, y1, counters);
+    counters.hits(count);
+    counters.report(TreeQueryKind.QUERY_COUNT);
+    return count;
+  }
+
+  private long countContaining(
+    final int node,
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final QueryCounters counters)
+  {
+    if (this.subtree(node) == 0) {
+      return 0L;
+    }
+
+    this.visited(node, counters);
+    counters.testNodes(1);
+
+    final double x0 = this.boundsX0(node);
+    final double x1 = this.boundsX1(node);
+    final double y0 = this.boundsY0(node);
+    final double y1 = this.boundsY1(node);
+
+    /*
+     * If the target area completely contains this quadrant, it contains
+     * every object in this quadrant and all children of this quadrant.
+     */
+
+    if (Regions.containsArea(
+      target_x0, target_x1, target_y0, target_y1, x0, x1, y0, y1)) {
+      return (long) this.subtree(node);
+    }
+
+    counters.testNodes(1);
+    if (!Regions.intersectsArea(
+      target_x0, target_x1, target_y0, target_y1, x0, x1, y0, y1)) {
+      return 0L;
+    }
+
+    long count = 0L;
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+    counters.testObjects(last - first);
+    for (int object = first; object < last; ++object) {
+      if (Regions.containsArea(
+        target_x0, target_x1, target_y0, target_y1,
+        this.objectX0(object),
+        this.objectX1(object),
+        this.objectY0(object),
+        this.objectY1(object))) {
+        ++count;
+      }
+    }
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = 0; child < 4; ++child) {
+        count += this.countContaining(
+          first_child + child,
+          target_x0, target_x1, target_y0, target_y1,
+          counters);
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void overlappedBy(
+    final AreaD area,
+    final QuadTreeQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(area, "Area");
+    this.overlappedBy(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY(),
+      consumer);
+  }
+
+  @Override
+  public void overlappedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final QuadTreeQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.areaOverlapping(0, x0, x1, y0, y1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
+  }
+
+  private TreeVisitResult areaOverlapping(
+    final int node,
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final QuadTreeQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless overlap checks.
+     */
+
+    if (this.subtree(node) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(node, counters);
+    counters.testNodes(1);
+
+    /*
+     * If the target area overlaps this quadrant, test each object
+     * against the target area.
+     */
+
+    if (Regions.overlapsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.boundsX0(node),
+      this.boundsX1(node),
+      this.boundsY0(node),
+      this.boundsY1(node))) {
+      final int first = this.firstObject(node);
+      final int last = first + this.objectCount(node);
+      counters.testObjects(last - first);
+      for (int object = first; object < last; ++object) {
+        if (Regions.overlapsArea(
+          target_x0, target_x1, target_y0, target_y1,
+          this.objectX0(object),
+          this.objectX1(object),
+          this.objectY0(object),
+          this.objectY1(object))) {
+          if (this.report(consumer, object, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      final int first_child = this.firstChild(node);
+      if (first_child != LEAF) {
+        for (int child = 0; child < 4; ++child) {
+          if (this.areaOverlapping(
+            first_child + child,
+            target_x0, target_x1, target_y0, target_y1,
+            consumer,
+            counters) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  @Override
+  public void overlappedByAll(
+    final List<AreaD> query_areas,
+    final QuadTreeBatchQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(query_areas, "Areas");
+    NullCheck.notNull(consumer, "Consumer");
+
+    /*
+     * Pack the query areas into a single array, and carry the indices of
+     * the queries that overlap each quadrant down the tree on a shared
+     * stack of query indices.
+     */
+
+    final double[] targets = new double[query_areas.size() * 4];
+    final IntArrayList active = new IntArrayList(query_areas.size());
+    for (int query = 0; query < query_areas.size(); ++query) {
+      final AreaD area = NullCheck.notNull(query_areas.get(query), "Area");
+      final int base = query * 4;
+      targets[base] = area.minimumX();
+      targets[base + 1] = area.maximumX();
+      targets[base + 2] = area.minimumY();
+      targets[base + 3] = area.maximumY();
+      if (Regions.overlapsArea(
+        targets[base],
+        targets[base + 1],
+        targets[base + 2],
+        targets[base + 3],
+        this.boundsX0(0),
+        this.boundsX1(0),
+        this.boundsY0(0),
+        this.boundsY1(0))) {
+        active.add(query);
+      }
+    }
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    counters.testNodes(query_areas.size());
+    if (!active.isEmpty()) {
+      this.areaOverlappingAll(0, targets, active, 0, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_ALL);
+  }
+
+  private TreeVisitResult areaOverlappingAll(
+    final int node,
+    final double[] targets,
+    final IntArrayList active,
+    final int bottom,
+    final QuadTreeBatchQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(node, counters);
+
+    final int top = active.size();
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+
+    for (int object = first; object < last; ++object) {
+      final double item_x0 = this.objectX0(object);
+      final double item_x1 = this.objectX1(object);
+      final double item_y0 = this.objectY0(object);
+      final double item_y1 = this.objectY1(object);
+      counters.testObjects(top - bottom);
+      for (int position = bottom; position < top; ++position) {
+        final int query = active.getInt(position);
+        final int target = query * 4;
+        if (Regions.overlapsArea(
+          targets[target],
+          targets[target + 1],
+          targets[target + 2],
+          targets[target + 3],
+          item_x0, item_x1, item_y0, item_y1)) {
+          counters.hits(1L);
+          if (consumer.accept(
+            query, this.item(object), item_x0, item_x1, item_y0, item_y1)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the queries that overlap each non-empty child
+     * onto the stack, and pop them again once the child is done.
+     */
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = first_child; child < first_child + 4; ++child) {
+        if (this.subtree(child) != 0) {
+          counters.testNodes(top - bottom);
+          for (int position = bottom; position < top; ++position) {
+            final int query = active.getInt(position);
+            final int target = query * 4;
+            if (Regions.overlapsArea(
+              targets[target],
+              targets[target + 1],
+              targets[target + 2],
+              targets[target + 3],
+              this.boundsX0(child),
+              this.boundsX1(child),
+              this.boundsY0(child),
+              this.boundsY1(child))) {
+              active.add(query);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > top) {
+            result = this.areaOverlappingAll(
+              child, targets, active, top, consumer, counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(top);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  @Override
+  public void containedByParallel(
+    final AreaD area,
+    final ForkJoinPool pool,
+    final Set<T> results)
+  {
+    this.queryParallel(area, true, pool, results);
+  }
+
+  @Override
+  public void overlappedByParallel(
+    final AreaD area,
+    final ForkJoinPool pool,
+    final Set<T> results)
+  {
+    this.queryParallel(area, false, pool, results);
+  }
+
+  private void queryParallel(
+    final AreaD area,
+    final boolean contained,
+    final ForkJoinPool pool,
+    final Set<T> results)
+  {
+    NullCheck.notNull(area, "Area");
+    NullCheck.notNull(pool, "Pool");
+    NullCheck.notNull(results, "Items");
+
+    /*
+     * Find the quadrants that may hold matching objects on the calling
+     * thread, and then test the objects that they hold on the pool.
+     */
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    final List<Integer> candidates = new ArrayList<>();
+    this.parallelCandidates(0, area, contained, candidates, counters);
+    final List<T> found = ParallelQuery.execute(
+      pool,
+      this.config.parallelQueryThreshold(),
+      candidates,
+      node -> this.objectCount(node.intValue()),
+      (node, from, to, matched) ->
+        this.areaMatching(
+          node.intValue(), area, contained, from, to, matched));
+    results.addAll(found);
+
+    if (counters.isEnabled()) {
+      for (final Integer candidate : candidates) {
+        counters.testObjects(this.objectCount(candidate.intValue()));
+      }
+      counters.hits((long) found.size());
+      if (contained) {
+        counters.report(TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL);
+      } else {
+        counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL);
+      }
+    }
+  }
+
+  private void parallelCandidates(
+    final int node,
+    final AreaD target_area,
+    final boolean contained,
+    final List<Integer> candidates,
+    final QueryCounters counters)
+  {
+    if (this.subtree(node) == 0) {
+      return;
+    }
+
+    counters.testNodes(1);
+
+    /*
+     * An object contained within {@code target_area} lies within both
+     * {@code target_area} and this quadrant, so quadrants that do not
+     * intersect {@code target_area} can be skipped.
+     */
+
+    final boolean candidate;
+    if (contained) {
+      candidate = Regions.intersectsArea(
+        target_area.minimumX(), target_area.maximumX(),
+        target_area.minimumY(), target_area.maximumY(),
+        this.boundsX0(node), this.boundsX1(node),
+        this.boundsY0(node), this.boundsY1(node));
+    } else {
+      candidate = Regions.overlapsArea(
+        target_area.minimumX(), target_area.maximumX(),
+        target_area.minimumY(), target_area.maximumY(),
+        this.boundsX0(node), this.boundsX1(node),
+        this.boundsY0(node), this.boundsY1(node));
+    }
+
+    if (candidate) {
+      this.visited(node, counters);
+      if (this.objectCount(node) != 0) {
+        candidates.add(Integer.valueOf(node));
+      }
+      final int first_child = this.firstChild(node);
+      if (first_child != LEAF) {
+        for (int child = 0; child < 4; ++child) {
+          this.parallelCandidates(
+            first_child + child, target_area, contained, candidates, counters);
+        }
+      }
+    }
+  }
+
+  private void areaMatching(
+    final int node,
+    final AreaD target_area,
+    final boolean contained,
+    final int start,
+    final int end,
+    final List<T> results)
+  {
+    final double target_x0 = target_area.minimumX();
+    final double target_x1 = target_area.maximumX();
+    final double target_y0 = target_area.minimumY();
+    final double target_y1 = target_area.maximumY();
+    final int first = this.firstObject(node);
+
+    for (int object = first + start; object < first + end; ++object) {
+      final boolean matched;
+      if (contained) {
+        matched = Regions.containsArea(
+          target_x0, target_x1, target_y0, target_y1,
+          this.objectX0(object),
+          this.objectX1(object),
+          this.objectY0(object),
+          this.objectY1(object));
+      } else {
+        matched = Regions.overlapsArea(
+          target_x0, target_x1, target_y0, target_y1,
+          this.objectX0(object),
+          this.objectX1(object),
+          this.objectY0(object),
+          this.objectY1(object));
+      }
+      if (matched) {
+        results.add(this.item(object));
+      }
+    }
+  }
+
+  @Override
+  public void raycast(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.raycastStep(0, ray, consumer, false, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+
+  @Override
+  public void raycastEntry(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.raycastStep(0, ray, consumer, true, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+
+  private TreeVisitResult raycastStep(
+    final int node,
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerDType<T> consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.subtree(node) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(node, counters);
+    counters.testNodes(1);
+
+    /*
+     * If the ray intersects the quadrant, check each item in the quadrant
+     * against the ray.
+     */
+
+    if (ray.intersectsArea(
+      this.boundsX0(node),
+      this.boundsY0(node),
+      this.boundsX1(node),
+      this.boundsY1(node))) {
+      final int first = this.firstObject(node);
+      final int last = first + this.objectCount(node);
+      counters.testObjects(last - first);
+      for (int object = first; object < last; ++object) {
+        final double item_x0 = this.objectX0(object);
+        final double item_x1 = this.objectX1(object);
+        final double item_y0 = this.objectY0(object);
+        final double item_y1 = this.objectY1(object);
+        if (ray.intersectsArea(item_x0, item_y0, item_x1, item_y1)) {
+          final double distance;
+          if (entry) {
+            distance = ray.intersectionParameterArea(
+              item_x0, item_y0, item_x1, item_y1);
+          } else {
+            distance = rayDistance(ray, item_x0, item_y0);
+          }
+          counters.hits(1L);
+          if (consumer.accept(
+            this.item(object), item_x0, item_x1, item_y0, item_y1, distance)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      final int first_child = this.firstChild(node);
+      if (first_child != LEAF) {
+        for (int child = 0; child < 4; ++child) {
+          if (this.raycastStep(
+            first_child + child, ray, consumer, entry, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The distance from the origin of {@code ray} to the given point
+   */
+
+  private static double rayDistance(
+    final Ray2D ray,
+    final double x,
+    final double y)
+  {
+    final Vector2D origin = ray.origin();
+    final double dx = x - origin.x();
+    final double dy = y - origin.y();
+    return Math.sqrt((dx * dx) + (dy * dy));
+  }
+
+  @Override
+  public void raycastAll(
+    final List<Ray2D> rays,
+    final QuadTreeBatchRaycastConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(rays, "Rays");
+    NullCheck.notNull(consumer, "Consumer");
+
+    /*
+     * Copy the rays into an array, and carry the indices of the rays that
+     * intersect each quadrant down the tree on a shared stack of ray indices.
+     */
+
+    final Ray2D[] packet = new Ray2D[rays.size()];
+    final IntArrayList active = new IntArrayList(packet.length);
+    for (int ray_index = 0; ray_index < packet.length; ++ray_index) {
+      final Ray2D ray = NullCheck.notNull(rays.get(ray_index), "Ray");
+      packet[ray_index] = ray;
+      if (ray.intersectsArea(
+        this.boundsX0(0),
+        this.boundsY0(0),
+        this.boundsX1(0),
+        this.boundsY1(0))) {
+        active.add(ray_index);
+      }
+    }
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    counters.testNodes(packet.length);
+    if (!active.isEmpty()) {
+      this.raycastAllStep(0, packet, active, 0, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_RAYCAST_ALL);
+  }
+
+  private TreeVisitResult raycastAllStep(
+    final int node,
+    final Ray2D[] rays,
+    final IntArrayList active,
+    final int bottom,
+    final QuadTreeBatchRaycastConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(node, counters);
+
+    final int top = active.size();
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+
+    for (int object = first; object < last; ++object) {
+      final double item_x0 = this.objectX0(object);
+      final double item_x1 = this.objectX1(object);
+      final double item_y0 = this.objectY0(object);
+      final double item_y1 = this.objectY1(object);
+
+      counters.testObjects(top - bottom);
+      for (int position = bottom; position < top; ++position) {
+        final int ray_index = active.getInt(position);
+        final Ray2D ray = rays[ray_index];
+        if (ray.intersectsArea(item_x0, item_y0, item_x1, item_y1)) {
+          final double distance = rayDistance(ray, item_x0, item_y0);
+          counters.hits(1L);
+          if (consumer.accept(
+            ray_index,
+            this.item(object),
+            item_x0,
+            item_x1,
+            item_y0,
+            item_y1,
+            distance) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the rays that intersect each non-empty child onto
+     * the stack, and pop them again once the child is done. Rays that miss
+     * a child are never tested against anything inside it.
+     */
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = first_child; child < first_child + 4; ++child) {
+        if (this.subtree(child) != 0) {
+          final double x0 = this.boundsX0(child);
+          final double x1 = this.boundsX1(child);
+          final double y0 = this.boundsY0(child);
+          final double y1 = this.boundsY1(child);
+          counters.testNodes(top - bottom);
+          for (int position = bottom; position < top; ++position) {
+            final int ray_index = active.getInt(position);
+            if (rays[ray_index].intersectsArea(x0, y0, x1, y1)) {
+              active.add(ray_index);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > top) {
+            result = this.raycastAllStep(
+              child, rays, active, top, consumer, counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(top);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  @Override
+  public void raycastUpTo(
+    final Ray2D ray,
+    final double max_distance,
+    final int limit,
+    final List<QuadTreeRaycastResultD<T>> results)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(results, "Items");
+
+    if (limit > 0) {
+      final QueryCounters counters = QueryCounters.create(this.listener);
+      final NearestResults<QuadTreeRaycastResultD<T>> nearest =
+        new NearestResults<>(QuadTreeRaycastResultD::distance, max_distance, limit);
+      final Vector2D direction = ray.direction();
+      final int x_mask = direction.x() < 0.0 ? 0b01 : 0;
+      final int y_mask = direction.y() < 0.0 ? 0b10 : 0;
+      this.raycastNearest(
+        0,
+        ray,
+        Vectors2D.magnitude(direction),
+        x_mask | y_mask,
+        nearest,
+        counters);
+      counters.hits((long) nearest.size());
+      results.addAll(nearest.drainSorted());
+      counters.report(TreeQueryKind.QUERY_RAYCAST_UP_TO);
+    }
+  }
+
+  private void raycastNearest(
+    final int node,
+    final Ray2D ray,
+    final double length,
+    final int mask,
+    final NearestResults<QuadTreeRaycastResultD<T>> results,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.subtree(node) == 0) {
+      return;
+    }
+
+    counters.testNodes(1);
+
+    /*
+     * Skip this quadrant if the ray misses it, or if it is further away
+     * than any result that could still be accepted.
+     */
+
+    final double t = ray.intersectionParameterArea(
+      this.boundsX0(node),
+      this.boundsY0(node),
+      this.boundsX1(node),
+      this.boundsY1(node));
+    if (t == Double.POSITIVE_INFINITY || t * length > results.bound()) {
+      return;
+    }
+
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+    this.visited(node, counters);
+    counters.testObjects(last - first);
+    for (int object = first; object < last; ++object) {
+      final double item_t = ray.intersectionParameterArea(
+        this.objectX0(object),
+        this.objectY0(object),
+        this.objectX1(object),
+        this.objectY1(object));
+
+      if (item_t < Double.POSITIVE_INFINITY) {
+        final double distance = item_t * length;
+        if (distance <= results.bound()) {
+          results.add(QuadTreeRaycastResultD.of(
+            distance, this.boundsOf(object), this.item(object)));
+        }
+      }
+    }
+
+    /*
+     * Visit the children front-to-back: The first child visited is the one
+     * that lies furthest towards the origin of the ray.
+     */
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = 0; child < 4; ++child) {
+        this.raycastNearest(
+          first_child + (child ^ mask), ray, length, mask, results, counters);
+      }
+    }
+  }
+
+  private double distanceTo(
+    final int node,
+    final double px,
+    final double py)
+  {
+    return Distances.pointArea(
+      px, py,
+      this.boundsX0(node),
+      this.boundsX1(node),
+      this.boundsY0(node),
+      this.boundsY1(node));
+  }
+
+  @Override
+  public void nearest(
+    final Vector2D point,
+    final int k,
+    final QuadTreeNearestConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(point, "Point");
+    NullCheck.notNull(consumer, "Consumer");
+
+    if (k > 0) {
+      final QueryCounters counters = QueryCounters.create(this.listener);
+      final double px = point.x();
+      final double py = point.y();
+      final NearestResults<NearestItem<T, AreaD>> results =
+        new NearestResults<>(NearestItem::distance, Double.POSITIVE_INFINITY, k);
+
+      /*
+       * Visit quadrants in order of increasing distance from the point,
+       * stopping when the nearest unvisited quadrant is further away than
+       * any result that could still be accepted.
+       */
+
+      final NodeQueue<Integer> queue = new NodeQueue<>();
+      counters.testNodes(1);
+      queue.add(Integer.valueOf(0), this.distanceTo(0, px, py));
+      while (!queue.isEmpty() && queue.peekDistance() <= results.bound()) {
+        this.nearestStep(
+          queue.poll().intValue(), px, py, results, queue, counters);
+      }
+
+      for (final NearestItem<T, AreaD> result : results.drainSorted()) {
+        final AreaD item_area = result.bounds();
+        counters.hits(1L);
+        final TreeVisitResult visit = consumer.accept(
+          result.item(),
+          item_area.minimumX(),
+          item_area.maximumX(),
+          item_area.minimumY(),
+          item_area.maximumY(),
+          result.distance());
+        if (visit == TreeVisitResult.RESULT_TERMINATE) {
+          break;
+        }
+      }
+      counters.report(TreeQueryKind.QUERY_NEAREST);
+    }
+  }
+
+  private void nearestStep(
+    final int node,
+    final double px,
+    final double py,
+    final NearestResults<NearestItem<T, AreaD>> results,
+    final NodeQueue<Integer> queue,
+    final QueryCounters counters)
+  {
+    this.visited(node, counters);
+
+    final int first = this.firstObject(node);
+    final int last = first + this.objectCount(node);
+    counters.testObjects(last - first);
+    for (int object = first; object < last; ++object) {
+      final double distance = Distances.pointArea(
+        px, py,
+        this.objectX0(object),
+        this.objectX1(object),
+        this.objectY0(object),
+        this.objectY1(object));
+
+      if (distance <= results.bound()) {
+        results.add(new NearestItem<>(
+          distance, this.item(object), this.boundsOf(object)));
+      }
+    }
+
+    /*
+     * Queue any non-empty children that could contain a result.
+     */
+
+    final int first_child = this.firstChild(node);
+    if (first_child != LEAF) {
+      for (int child = first_child; child < first_child + 4; ++child) {
+        if (this.subtree(child) != 0) {
+          counters.testNodes(1);
+          final double child_distance = this.distanceTo(child, px, py);
+          if (child_distance <= results.bound()) {
+            queue.add(Integer.valueOf(child), child_distance);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantDType;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMaps;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
+
+import java.util.Map;
+
+/**
+ * A read-only view of a quadrant of a {@link QuadTreeCompiledD}, passed to
+ * iteration functions.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class QuadTreeCompiledQuadrantD<T> implements QuadTreeQuadrantDType<T>
+{
+  private final QuadTreeCompiledD<T> tree;
+  private final AreaD area;
+  private final int first;
+  private final int count;
+
+  QuadTreeCompiledQuadrantD(
+    final QuadTreeCompiledD<T> in_tree,
+    final AreaD in_area,
+    final int in_first,
+    final int in_count)
+  {
+    this.tree = in_tree;
+    this.area = in_area;
+    this.first = in_first;
+    this.count = in_count;
+  }
+
+  @Override
+  public Map<T, AreaD> objects()
+  {
+    final Reference2ReferenceOpenHashMap<T, AreaD> results =
+      new Reference2ReferenceOpenHashMap<>(this.count);
+    for (int object = this.first; object < this.first + this.count; ++object) {
+      results.put(this.tree.item(object), this.tree.boundsOf(object));
+    }
+    return Reference2ReferenceMaps.unmodifiable(results);
+  }
+
+  @Override
+  public AreaD area()
+  {
+    return this.area;
+  }
+}
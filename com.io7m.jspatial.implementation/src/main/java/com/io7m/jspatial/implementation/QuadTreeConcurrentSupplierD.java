@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationD;
+import com.io7m.jspatial.api.quadtrees.QuadTreeDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeSupplierDType;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An implementation of the {@link QuadTreeSupplierDType} interface that
+ * produces thread-safe trees. The component is registered with the service
+ * property {@code concurrent=true}.
+ *
+ * @see QuadTreeConcurrentD
+ */
+
+@Component(property = "concurrent:Boolean=true")
+public final class QuadTreeConcurrentSupplierD implements QuadTreeSupplierDType
+{
+  /**
+   * Construct a new supplier.
+   */
+
+  public QuadTreeConcurrentSupplierD()
+  {
+
+  }
+
+  @Override
+  public <A> QuadTreeDType<A> create(final QuadTreeConfigurationD config)
+  {
+    return QuadTreeConcurrentD.create(config);
+  }
+
+  @Override
+  public <A> QuadTreeDType<A> createFrom(
+    final QuadTreeConfigurationD config,
+    final Map<A, AreaD> items)
+  {
+    return QuadTreeConcurrentD.createFrom(config, items);
+  }
+
+  @Override
+  public <A> QuadTreeDType<A> createFromParallel(
+    final QuadTreeConfigurationD config,
+    final Map<A, AreaD> items,
+    final ForkJoinPool pool)
+  {
+    return QuadTreeConcurrentD.createFromParallel(config, items, pool);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jregions.core.unparameterized.areas.AreaL;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationL;
+import com.io7m.jspatial.api.quadtrees.QuadTreeLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeSupplierLType;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An implementation of the {@link QuadTreeSupplierLType} interface that
+ * produces thread-safe trees. The component is registered with the service
+ * property {@code concurrent=true}.
+ *
+ * @see QuadTreeConcurrentL
+ */
+
+@Component(property = "concurrent:Boolean=true")
+public final class QuadTreeConcurrentSupplierL implements QuadTreeSupplierLType
+{
+  /**
+   * Construct a new supplier.
+   */
+
+  public QuadTreeConcurrentSupplierL()
+  {
+
+  }
+
+  @Override
+  public <A> QuadTreeLType<A> create(final QuadTreeConfigurationL config)
+  {
+    return QuadTreeConcurrentL.create(config);
+  }
+
+  @Override
+  public <A> QuadTreeLType<A> createFrom(
+    final QuadTreeConfigurationL config,
+    final Map<A, AreaL> items)
+  {
+    return QuadTreeConcurrentL.createFrom(config, items);
+  }
+
+  @Override
+  public <A> QuadTreeLType<A> createFromParallel(
+    final QuadTreeConfigurationL config,
+    final Map<A, AreaL> items,
+    final ForkJoinPool pool)
+  {
+    return QuadTreeConcurrentL.createFromParallel(config, items, pool);
+  }
+}
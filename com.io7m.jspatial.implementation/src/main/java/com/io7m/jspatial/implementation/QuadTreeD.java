@@ -17,31 +17,39 @@
 package com.io7m.jspatial.implementation;
 
 import com.io7m.jaffirm.core.Invariants;
-import com.io7m.jaffirm.core.Preconditions;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
 import com.io7m.jregions.core.unparameterized.areas.AreaD;
-import com.io7m.jregions.core.unparameterized.areas.AreaXYSplitD;
 import com.io7m.jregions.core.unparameterized.areas.AreasD;
 import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeQueryListenerType;
 import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchQueryConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchRaycastConsumerDType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationD;
 import com.io7m.jspatial.api.quadtrees.QuadTreeDType;
-import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeNearestConsumerDType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantIterationDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQueryConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastConsumerDType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastResultD;
+import com.io7m.jspatial.api.quadtrees.QuadTreeReadableDType;
 import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
 import com.io7m.jtensors.core.unparameterized.vectors.Vectors2D;
-import com.io7m.junreachable.UnreachableCodeException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
-import it.unimi.dsi.fastutil.objects.ObjectSet;
-import it.unimi.dsi.fastutil.objects.Reference2ReferenceMaps;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMap;
 import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Set;
-import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.BiFunction;
 
 /**
@@ -52,17 +60,72 @@ import java.util.function.BiFunction;
 
 public final class QuadTreeD<T> implements QuadTreeDType<T>
 {
-  private final Reference2ReferenceOpenHashMap<T, AreaD> objects;
+  private final Reference2ReferenceOpenHashMap<T, QuadTreeQuadrantD<T>> objects;
   private final QuadTreeConfigurationD config;
-  private Quadrant root;
+  private QuadTreeQuadrantD<T> root;
+  private long generation;
+  private @Nullable TreeQueryListenerType listener;
 
   private QuadTreeD(final QuadTreeConfigurationD in_config)
   {
     this.config = NullCheck.notNull(in_config, "Configuration");
-    this.root = new Quadrant(null, in_config.area());
+    this.generation = 0L;
+    this.root = new QuadTreeQuadrantD<>(this, null, in_config.area());
     this.objects = new Reference2ReferenceOpenHashMap<>();
   }
 
+  /**
+   * @return The tree configuration
+   */
+
+  QuadTreeConfigurationD configuration()
+  {
+    return this.config;
+  }
+
+  /**
+   * @return The current generation of the tree; incremented each time a
+   * snapshot is taken
+   */
+
+  long generation()
+  {
+    return this.generation;
+  }
+
+  /**
+   * @return The map from each object in the tree to the quadrant that holds it
+   */
+
+  Reference2ReferenceOpenHashMap<T, QuadTreeQuadrantD<T>> objectIndex()
+  {
+    return this.objects;
+  }
+
+  /**
+   * Create an empty tree with a root quadrant of the given area, in order to
+   * restore a serialized tree. The area may differ from the area given in
+   * the configuration if the serialized tree had grown.
+   */
+
+  static <T> QuadTreeD<T> createRestored(
+    final QuadTreeConfigurationD config,
+    final AreaD root_area)
+  {
+    final QuadTreeD<T> tree = new QuadTreeD<>(config);
+    tree.root = new QuadTreeQuadrantD<>(tree, null, root_area);
+    return tree;
+  }
+
+  /**
+   * @return The root quadrant
+   */
+
+  QuadTreeQuadrantD<T> root()
+  {
+    return this.root;
+  }
+
   /**
    * Create a new empty tree with the given bounds.
    *
@@ -78,10 +141,103 @@ public final class QuadTreeD<T> implements QuadTreeDType<T>
     return new QuadTreeD<>(config);
   }
 
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   * This is equivalent to creating an empty tree and inserting each item in
+   * turn, but the tree is built top-down in a single pass: The items are
+   * partitioned between the quadrants at each level, and each quadrant
+   * is split at most once. Items with bounds that do not fit within the
+   * bounds of the tree are not inserted, exactly as if {@code insert} had
+   * returned {@code false} for them.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> QuadTreeDType<T> createFrom(
+    final QuadTreeConfigurationD config,
+    final Map<T, AreaD> items)
+  {
+    NullCheck.notNull(items, "Items");
+
+    final QuadTreeD<T> tree = new QuadTreeD<>(config);
+    final BulkItems<T, AreaD> bulk = tree.bulkItems(items);
+    tree.root.build(bulk, 0, bulk.size(), 0L, false);
+    return tree;
+  }
+
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   * The resulting tree is identical to the tree that would be returned by
+   * {@link #createFrom(QuadTreeConfigurationD, Map)}, but the subtrees below
+   * any quadrant that receives at least
+   * {@link QuadTreeConfigurationD#parallelBuildThreshold()} items are built
+   * concurrently by tasks executed on {@code pool}. The tree's index of
+   * items is populated on the calling thread once all tasks have completed.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param pool   The pool that will execute tasks
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> QuadTreeDType<T> createFromParallel(
+    final QuadTreeConfigurationD config,
+    final Map<T, AreaD> items,
+    final ForkJoinPool pool)
+  {
+    NullCheck.notNull(items, "Items");
+    NullCheck.notNull(pool, "Pool");
+
+    final QuadTreeD<T> tree = new QuadTreeD<>(config);
+    final BulkItems<T, AreaD> bulk = tree.bulkItems(items);
+    pool.invoke(ForkJoinTask.adapt(
+      () -> tree.root.build(bulk, 0, bulk.size(), 0L, true)));
+    tree.root.register();
+    return tree;
+  }
+
+  /**
+   * @return The given items that fit within the bounds of the tree, growing
+   * the tree first if it is configured to expand
+   */
+
+  private BulkItems<T, AreaD> bulkItems(
+    final Map<T, AreaD> items)
+  {
+    final BulkItems<T, AreaD> bulk = new BulkItems<>(items.size());
+    for (final Map.Entry<T, AreaD> entry : items.entrySet()) {
+      final T item = NullCheck.notNull(entry.getKey(), "Item");
+      final AreaD item_bounds = NullCheck.notNull(entry.getValue(), "Bounds");
+      if (this.expandToContain(
+        item_bounds.minimumX(),
+        item_bounds.maximumX(),
+        item_bounds.minimumY(),
+        item_bounds.maximumY())) {
+        bulk.add(item, item_bounds);
+      }
+    }
+
+    /*
+     * The tree is built from scratch below the final root, so the empty
+     * quadrants created while growing the root are discarded.
+     */
+
+    if (this.config.expandable()) {
+      this.root = new QuadTreeQuadrantD<>(this, null, this.root.area());
+    }
+    return bulk;
+  }
+
   @Override
   public void trim()
   {
-    this.root.trim();
+    this.ownRoot().trim();
   }
 
   @Override
@@ -101,19 +257,55 @@ public final class QuadTreeD<T> implements QuadTreeDType<T>
     }
 
     final QuadTreeD<?> that = (QuadTreeD<?>) o;
-    return this.objects.equals(that.objects);
+    if (this.objects.size() != that.objects.size()) {
+      return false;
+    }
+
+    final ObjectIterator<Reference2ReferenceMap.Entry<T, QuadTreeQuadrantD<T>>> iter =
+      this.objects.reference2ReferenceEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2ReferenceMap.Entry<T, QuadTreeQuadrantD<T>> entry =
+        iter.next();
+      final T item = entry.getKey();
+      if (!entry.getValue().boundsOf(item).equals(that.boundsOf(item))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public int hashCode()
   {
-    return this.objects.hashCode();
+    int hash = 0;
+
+    final ObjectIterator<Reference2ReferenceMap.Entry<T, QuadTreeQuadrantD<T>>> iter =
+      this.objects.reference2ReferenceEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2ReferenceMap.Entry<T, QuadTreeQuadrantD<T>> entry =
+        iter.next();
+      final T item = entry.getKey();
+      hash += System.identityHashCode(item)
+        ^ entry.getValue().boundsOf(item).hashCode();
+    }
+    return hash;
+  }
+
+  private @Nullable AreaD boundsOf(final Object item)
+  {
+    final @Nullable QuadTreeQuadrantD<T> quadrant = this.objects.get(item);
+    if (quadrant == null) {
+      return null;
+    }
+    return quadrant.boundsOf(item);
   }
 
   @Override
   public AreaD bounds()
   {
-    return this.root.area;
+    return this.root.area();
   }
 
   @Override
@@ -121,8 +313,25 @@ public final class QuadTreeD<T> implements QuadTreeDType<T>
     final T item,
     final AreaD item_bounds)
   {
-    NullCheck.notNull(item, "Item");
     NullCheck.notNull(item_bounds, "Bounds");
+    return this.insert(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY());
+  }
+
+  @Override
+  public boolean insert(
+    final T item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    NullCheck.notNull(item, "Item");
+    Regions.checkArea(x0, x1, y0, y1);
 
     if (this.objects.containsKey(item)) {
       this.remove(item);
@@ -132,7 +341,8 @@ public final class QuadTreeD<T> implements QuadTreeDType<T>
         x -> "Item must not be in tree");
     }
 
-    return this.root.insert(item, item_bounds);
+    return this.expandToContain(x0, x1, y0, y1)
+      && this.ownRoot().insert(item, x0, x1, y0, y1);
   }
 
   @Override
@@ -145,26 +355,163 @@ public final class QuadTreeD<T> implements QuadTreeDType<T>
   public boolean remove(final T item)
   {
     NullCheck.notNull(item, "Item");
-    return this.root.remove(item);
+
+    final @Nullable QuadTreeQuadrantD<T> quadrant = this.objects.get(item);
+    if (quadrant == null) {
+      return false;
+    }
+
+    this.own(quadrant).removeObject(item);
+    return true;
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final AreaD item_bounds)
+  {
+    NullCheck.notNull(item_bounds, "Bounds");
+    return this.move(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY());
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    NullCheck.notNull(item, "Item");
+    Regions.checkArea(x0, x1, y0, y1);
+
+    final @Nullable QuadTreeQuadrantD<T> quadrant = this.objects.get(item);
+    if (quadrant == null) {
+      return false;
+    }
+
+    if (!this.expandToContain(x0, x1, y0, y1)) {
+      return false;
+    }
+
+    this.own(quadrant).moveObject(item, x0, x1, y0, y1);
+    return true;
+  }
+
+  @Override
+  public void setQueryListener(
+    final Optional<TreeQueryListenerType> in_listener)
+  {
+    NullCheck.notNull(in_listener, "Listener");
+    this.listener = in_listener.orElse(null);
   }
 
   @Override
   public void clear()
   {
-    this.root = new Quadrant(null, this.root.area);
+    this.root = new QuadTreeQuadrantD<>(this, null, this.root.area());
     this.objects.clear();
   }
 
+  @Override
+  public QuadTreeReadableDType<T> snapshot()
+  {
+    final Snapshot snapshot =
+      new Snapshot(this.root, (long) this.objects.size());
+    this.generation = Math.addExact(this.generation, 1L);
+    return snapshot;
+  }
+
+  @Override
+  public QuadTreeReadableDType<T> compile()
+  {
+    return QuadTreeCompiledD.compile(
+      this.config, this.root, this.objects.size(), this.listener);
+  }
+
+  /**
+   * @return The root quadrant, first replacing it with a copy if it is shared
+   * with a snapshot
+   */
+
+  private QuadTreeQuadrantD<T> ownRoot()
+  {
+    if (this.root.generation() != this.generation) {
+      this.root = new QuadTreeQuadrantD<>(this, null, this.root);
+      this.root.claimObjects();
+    }
+    return this.root;
+  }
+
+  /**
+   * Grow the root of the tree until it contains the given bounds, if the
+   * tree is configured to expand.
+   *
+   * @return {@code true} iff the root of the tree contains the given bounds
+   */
+
+  private boolean expandToContain(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    if (this.config.expandable()) {
+      while (!this.root.contains(x0, x1, y0, y1)) {
+        final @Nullable QuadTreeQuadrantD<T> expanded =
+          this.ownRoot().expandTowards(x0, y0);
+        if (expanded == null) {
+          return false;
+        }
+        this.root = expanded;
+      }
+      return true;
+    }
+    return this.root.contains(x0, x1, y0, y1);
+  }
+
+  /**
+   * Locate the given quadrant in the tree, copying it and all of its ancestors
+   * if they are shared with a snapshot.
+   *
+   * @return The quadrant, or a copy of it that may be modified
+   */
+
+  private QuadTreeQuadrantD<T> own(final QuadTreeQuadrantD<T> quadrant)
+  {
+    if (quadrant.generation() == this.generation) {
+      return quadrant;
+    }
+
+    QuadTreeQuadrantD<T> current = this.ownRoot();
+    while (!current.area().equals(quadrant.area())) {
+      final int index = current.childIndexContaining(quadrant.area());
+      Invariants.checkInvariant(index < 4, "Quadrant must be in the tree");
+      current = current.ownChild(index);
+    }
+    return current;
+  }
+
   @Override
   public <U> QuadTreeDType<U> map(final BiFunction<T, AreaD, U> f)
   {
     NullCheck.notNull(f, "Function");
 
     final QuadTreeDType<U> qt = new QuadTreeD<>(this.config);
-    for (final Map.Entry<T, AreaD> es : this.objects.entrySet()) {
-      final T item = es.getKey();
-      final AreaD item_area = es.getValue();
-      qt.insert(f.apply(item, item_area), es.getValue());
+    final ObjectIterator<Reference2ReferenceMap.Entry<T, QuadTreeQuadrantD<T>>> iter =
+      this.objects.reference2ReferenceEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2ReferenceMap.Entry<T, QuadTreeQuadrantD<T>> entry =
+        iter.next();
+      final T item = entry.getKey();
+      final AreaD item_area = entry.getValue().boundsOf(item);
+      qt.insert(f.apply(item, item_area), item_area);
     }
     return qt;
   }
@@ -184,497 +531,645 @@ public final class QuadTreeD<T> implements QuadTreeDType<T>
   {
     NullCheck.notNull(item, "Item");
 
-    return this.objects.computeIfAbsent(item, i -> {
-      throw new NoSuchElementException(i.toString());
-    });
+    final @Nullable AreaD bounds = this.boundsOf(item);
+    if (bounds == null) {
+      throw new NoSuchElementException(item.toString());
+    }
+    return bounds;
   }
 
   @Override
   public void containedBy(
     final AreaD area,
-    final Set<T> items)
+    final QuadTreeQueryConsumerDType<T> consumer)
   {
     NullCheck.notNull(area, "Area");
-    NullCheck.notNull(items, "Items");
-    this.root.areaContaining(area, items);
+    this.containedBy(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY(),
+      consumer);
+  }
+
+  @Override
+  public void containedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final QuadTreeQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.areaContaining(x0, x1, y0, y1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+  }
+
+  @Override
+  public long count(final AreaD area)
+  {
+    NullCheck.notNull(area, "Area");
+    return this.count(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY());
+  }
+
+  @Override
+  public long count(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    final long count = this.root.countContaining(x0, x1, y0, y1, counters);
+    counters.hits(count);
+    counters.report(TreeQueryKind.QUERY_COUNT);
+    return count;
   }
 
   @Override
   public void overlappedBy(
     final AreaD area,
-    final Set<T> items)
+    final QuadTreeQueryConsumerDType<T> consumer)
   {
     NullCheck.notNull(area, "Area");
-    NullCheck.notNull(items, "Items");
-    this.root.areaOverlapping(area, items);
+    this.overlappedBy(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY(),
+      consumer);
   }
 
   @Override
-  public void raycast(
-    final Ray2D ray,
-    final SortedSet<QuadTreeRaycastResultD<T>> items)
+  public void overlappedBy(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final QuadTreeQueryConsumerDType<T> consumer)
   {
-    NullCheck.notNull(ray, "Ray");
-    NullCheck.notNull(items, "Items");
-    this.root.raycast(ray, items);
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.areaOverlapping(x0, x1, y0, y1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
   }
 
-  protected final class Quadrant implements QuadTreeQuadrantDType<T>
+  @Override
+  public void overlappedByAll(
+    final List<AreaD> areas,
+    final QuadTreeBatchQueryConsumerDType<T> consumer)
   {
-    private final AreaD area;
-    private final Reference2ReferenceOpenHashMap<T, AreaD> quadrant_objects;
-    private final @Nullable Quadrant parent;
-    private final Map<T, AreaD> quadrant_objects_view;
-    private @Nullable Quadrant x0y0;
-    private @Nullable Quadrant x0y1;
-    private @Nullable Quadrant x1y0;
-    private @Nullable Quadrant x1y1;
+    this.overlappedByAllFrom(this.root, areas, consumer);
+  }
 
-    private Quadrant(
-      final @Nullable Quadrant in_parent,
-      final AreaD in_area)
-    {
-      this.parent = in_parent;
-      this.area = NullCheck.notNull(in_area, "Area");
-      this.quadrant_objects = new Reference2ReferenceOpenHashMap<>();
-      this.quadrant_objects_view =
-        Reference2ReferenceMaps.unmodifiable(this.quadrant_objects);
-    }
+  private void overlappedByAllFrom(
+    final QuadTreeQuadrantD<T> start,
+    final List<AreaD> areas,
+    final QuadTreeBatchQueryConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(areas, "Areas");
+    NullCheck.notNull(consumer, "Consumer");
 
-    private boolean insert(
-      final T item,
-      final AreaD item_bounds)
-    {
-      Preconditions.checkPrecondition(
-        item,
-        !QuadTreeD.this.objects.containsKey(item),
-        x -> "Object must not be in tree");
+    /*
+     * Pack the query areas into a single array, and carry the indices of
+     * the queries that overlap each quadrant down the tree on a shared
+     * stack of query indices.
+     */
 
-      return AreasD.contains(this.area, item_bounds)
-        && this.insertStep(item, item_bounds);
+    final double[] targets = new double[areas.size() * 4];
+    final IntArrayList active = new IntArrayList(areas.size());
+    for (int index = 0; index < areas.size(); ++index) {
+      final AreaD area = NullCheck.notNull(areas.get(index), "Area");
+      final int base = index * 4;
+      targets[base] = area.minimumX();
+      targets[base + 1] = area.maximumX();
+      targets[base + 2] = area.minimumY();
+      targets[base + 3] = area.maximumY();
+      if (AreasD.overlaps(area, start.area())) {
+        active.add(index);
+      }
     }
 
-    private boolean insertStep(
-      final T item,
-      final AreaD item_bounds)
-    {
-      /*
-       * The object can fit in this node, but perhaps it is possible to fit it
-       * more precisely within one of the child nodes.
-       */
-
-      /*
-       * If this node is a leaf, and is large enough to split, do so.
-       */
-
-      if (this.isLeaf()) {
-        if (this.canSplit()) {
-          this.split();
-        } else {
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, start.level());
+    counters.testNodes(areas.size());
+    if (!active.isEmpty()) {
+      start.areaOverlappingAll(targets, active, 0, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_ALL);
+  }
 
-          /*
-           * The node is a leaf, but cannot be split further. Insert directly.
-           */
+  @Override
+  public void containedByParallel(
+    final AreaD area,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.queryParallel(this.root, area, true, pool, items);
+  }
 
-          return this.insertObject(item, item_bounds);
-        }
-      }
+  @Override
+  public void overlappedByParallel(
+    final AreaD area,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.queryParallel(this.root, area, false, pool, items);
+  }
 
-      /*
-       * See if the object will fit in any of the child nodes.
-       */
+  private void queryParallel(
+    final QuadTreeQuadrantD<T> start,
+    final AreaD area,
+    final boolean contained,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    NullCheck.notNull(area, "Area");
+    NullCheck.notNull(pool, "Pool");
+    NullCheck.notNull(items, "Items");
 
-      Invariants.checkInvariant(!this.isLeaf(), "Node is not a leaf");
+    /*
+     * Find the quadrants that may hold matching objects on the calling
+     * thread, and then test the objects that they hold on the pool.
+     */
 
-      if (AreasD.contains(this.x0y0.area, item_bounds)) {
-        return this.x0y0.insertStep(item, item_bounds);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, start.level());
+    final List<QuadTreeQuadrantD<T>> nodes = new ArrayList<>();
+    start.parallelCandidates(area, contained, nodes, counters);
+    final List<T> matched = ParallelQuery.execute(
+      pool,
+      this.config.parallelQueryThreshold(),
+      nodes,
+      QuadTreeQuadrantD::objectCount,
+      (node, from, to, results) ->
+        node.areaMatching(area, contained, from, to, results));
+    items.addAll(matched);
+
+    if (counters.isEnabled()) {
+      for (int index = 0; index < nodes.size(); ++index) {
+        counters.testObjects(nodes.get(index).objectCount());
       }
-      if (AreasD.contains(this.x1y0.area, item_bounds)) {
-        return this.x1y0.insertStep(item, item_bounds);
-      }
-      if (AreasD.contains(this.x0y1.area, item_bounds)) {
-        return this.x0y1.insertStep(item, item_bounds);
-      }
-      if (AreasD.contains(this.x1y1.area, item_bounds)) {
-        return this.x1y1.insertStep(item, item_bounds);
+      counters.hits((long) matched.size());
+      if (contained) {
+        counters.report(TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL);
+      } else {
+        counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL);
       }
-
-      /*
-       * Otherwise, insert the object into this node.
-       */
-
-      return this.insertObject(item, item_bounds);
-    }
-
-    private boolean insertObject(
-      final T item,
-      final AreaD item_bounds)
-    {
-      QuadTreeD.this.objects.put(item, item_bounds);
-      this.quadrant_objects.put(item, item_bounds);
-      return true;
     }
+  }
 
-    private void split()
-    {
-      Preconditions.checkPrecondition(this.canSplit(), "Quadrant can split");
+  @Override
+  public void raycast(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.raycast(ray, consumer, false, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
 
-      final AreaXYSplitD<AreaD> q = QuadrantsD.subdivide(this.area);
-      this.x0y0 = new Quadrant(this, q.x0y0());
-      this.x0y1 = new Quadrant(this, q.x0y1());
-      this.x1y0 = new Quadrant(this, q.x1y0());
-      this.x1y1 = new Quadrant(this, q.x1y1());
-    }
+  @Override
+  public void raycastEntry(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.raycast(ray, consumer, true, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
 
-    private boolean canSplit()
-    {
-      final double width = this.area.width();
-      final double height = this.area.height();
+  @Override
+  public void raycastAll(
+    final List<Ray2D> rays,
+    final QuadTreeBatchRaycastConsumerDType<T> consumer)
+  {
+    this.raycastAllFrom(this.root, rays, consumer);
+  }
 
-      final double min_width =
-        Math.max(0.0001, QuadTreeD.this.config.minimumQuadrantWidth());
-      final double min_height =
-        Math.max(0.0001, QuadTreeD.this.config.minimumQuadrantHeight());
+  private void raycastAllFrom(
+    final QuadTreeQuadrantD<T> start,
+    final List<Ray2D> rays,
+    final QuadTreeBatchRaycastConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(rays, "Rays");
+    NullCheck.notNull(consumer, "Consumer");
 
-      final double half_width = width / 2.0;
-      final double half_height = height / 2.0;
+    /*
+     * Copy the rays into an array, and carry the indices of the rays that
+     * intersect each quadrant down the tree on a shared stack of ray indices.
+     */
 
-      return half_width >= min_width && half_height >= min_height;
+    final AreaD area = start.area();
+    final Ray2D[] packet = new Ray2D[rays.size()];
+    final IntArrayList active = new IntArrayList(packet.length);
+    for (int index = 0; index < packet.length; ++index) {
+      final Ray2D ray = NullCheck.notNull(rays.get(index), "Ray");
+      packet[index] = ray;
+      if (ray.intersectsArea(
+        area.minimumX(),
+        area.minimumY(),
+        area.maximumX(),
+        area.maximumY())) {
+        active.add(index);
+      }
     }
 
-    private boolean isLeaf()
-    {
-      return this.x0y0 == null;
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, start.level());
+    counters.testNodes(packet.length);
+    if (!active.isEmpty()) {
+      start.raycastAll(packet, active, 0, consumer, counters);
     }
+    counters.report(TreeQueryKind.QUERY_RAYCAST_ALL);
+  }
 
-    private boolean remove(final T item)
-    {
-      if (!QuadTreeD.this.objects.containsKey(item)) {
-        return false;
-      }
-
-      final AreaD bounds = QuadTreeD.this.objects.get(item);
-      return this.removeStep(item, bounds);
-    }
+  @Override
+  public void raycastUpTo(
+    final Ray2D ray,
+    final double max_distance,
+    final int limit,
+    final List<QuadTreeRaycastResultD<T>> items)
+  {
+    this.raycastUpToFrom(this.root, ray, max_distance, limit, items);
+  }
 
-    private boolean removeStep(
-      final T item,
-      final AreaD item_bounds)
-    {
-      if (this.quadrant_objects.containsKey(item)) {
-        this.quadrant_objects.remove(item);
-        QuadTreeD.this.objects.remove(item);
-        if (QuadTreeD.this.config.trimOnRemove()) {
-          this.unsplitAttemptRecursive();
-        }
-        return true;
-      }
+  private void raycastUpToFrom(
+    final QuadTreeQuadrantD<T> start,
+    final Ray2D ray,
+    final double max_distance,
+    final int limit,
+    final List<QuadTreeRaycastResultD<T>> items)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(items, "Items");
 
-      Invariants.checkInvariant(!this.isLeaf(), "Node cannot be a leaf");
+    if (limit > 0) {
+      final QueryCounters counters =
+        QueryCounters.create(this.listener, start.level());
+      final NearestResults<QuadTreeRaycastResultD<T>> results =
+        new NearestResults<>(QuadTreeRaycastResultD::distance, max_distance, limit);
+      start.raycastNearest(
+        ray,
+        Vectors2D.magnitude(ray.direction()),
+        directionMask(ray),
+        results,
+        counters);
+      counters.hits((long) results.size());
+      items.addAll(results.drainSorted());
+      counters.report(TreeQueryKind.QUERY_RAYCAST_UP_TO);
+    }
+  }
 
-      if (AreasD.contains(this.x0y0.area, item_bounds)) {
-        return this.x0y0.removeStep(item, item_bounds);
-      }
-      if (AreasD.contains(this.x1y0.area, item_bounds)) {
-        return this.x1y0.removeStep(item, item_bounds);
-      }
-      if (AreasD.contains(this.x0y1.area, item_bounds)) {
-        return this.x0y1.removeStep(item, item_bounds);
-      }
-      if (AreasD.contains(this.x1y1.area, item_bounds)) {
-        return this.x1y1.removeStep(item, item_bounds);
-      }
+  @Override
+  public void nearest(
+    final Vector2D point,
+    final int k,
+    final QuadTreeNearestConsumerDType<T> consumer)
+  {
+    this.nearestFrom(this.root, point, k, consumer);
+  }
 
-      /*
-       * The object must be in the tree, according to remove(). Therefore it
-       * must be in this node, or one of the child quadrants.
-       */
+  private void nearestFrom(
+    final QuadTreeQuadrantD<T> start,
+    final Vector2D point,
+    final int k,
+    final QuadTreeNearestConsumerDType<T> consumer)
+  {
+    NullCheck.notNull(point, "Point");
+    NullCheck.notNull(consumer, "Consumer");
 
-      throw new UnreachableCodeException();
-    }
+    if (k > 0) {
+      final QueryCounters counters =
+        QueryCounters.create(this.listener, start.level());
+      final double px = point.x();
+      final double py = point.y();
+      final NearestResults<NearestItem<T, AreaD>> results =
+        new NearestResults<>(NearestItem::distance, Double.POSITIVE_INFINITY, k);
 
-    private void areaContaining(
-      final AreaD target_area,
-      final Set<T> items)
-    {
       /*
-       * Avoid performing pointless containment checks.
+       * Visit quadrants in order of increasing distance from the point,
+       * stopping when the nearest unvisited quadrant is further away than
+       * any result that could still be accepted.
        */
 
-      if (this.isLeaf() && this.quadrant_objects.isEmpty()) {
-        return;
+      final NodeQueue<QuadTreeQuadrantD<T>> queue = new NodeQueue<>();
+      counters.testNodes(1);
+      queue.add(start, start.distanceTo(px, py));
+      while (!queue.isEmpty() && queue.peekDistance() <= results.bound()) {
+        queue.poll().nearest(px, py, results, queue, counters);
       }
 
-      /*
-       * If {@code target_area} completely contains this quadrant, collect
-       * everything in this quadrant and all children of this quadrant.
-       */
-
-      if (AreasD.contains(target_area, this.area)) {
-        this.collectRecursive(items);
+      for (final NearestItem<T, AreaD> result : results.drainSorted()) {
+        final AreaD item_area = result.bounds();
+        counters.hits(1L);
+        final TreeVisitResult visit = consumer.accept(
+          result.item(),
+          item_area.minimumX(),
+          item_area.maximumX(),
+          item_area.minimumY(),
+          item_area.maximumY(),
+          result.distance());
+        if (visit == TreeVisitResult.RESULT_TERMINATE) {
+          break;
+        }
       }
+      counters.report(TreeQueryKind.QUERY_NEAREST);
+    }
+  }
 
-      /*
-       * Otherwise, {@code target_area} may be overlapping this quadrant and
-       * therefore some items may still be contained within {@code target_area}.
-       */
+  /**
+   * @return A mask with bit 0 set if the ray points towards negative X, and
+   * bit 1 set if the ray points towards negative Y
+   */
 
-      final ObjectSet<Map.Entry<T, AreaD>> entries =
-        this.quadrant_objects.entrySet();
-      final ObjectIterator<Map.Entry<T, AreaD>> iter =
-        entries.iterator();
+  private static int directionMask(final Ray2D ray)
+  {
+    final Vector2D direction = ray.direction();
+    final int x_mask = direction.x() < 0.0 ? 0b01 : 0;
+    final int y_mask = direction.y() < 0.0 ? 0b10 : 0;
+    return x_mask | y_mask;
+  }
 
-      while (iter.hasNext()) {
-        final Map.Entry<T, AreaD> entry = iter.next();
-        final T item = entry.getKey();
-        final AreaD item_area = entry.getValue();
+  /**
+   * An immutable snapshot of the tree. The snapshot shares the quadrants of
+   * the tree as they were at the time that the snapshot was taken, and the
+   * tree copies any such quadrant before modifying it. The index used by
+   * {@code contains} and by bounds lookups is built by a full traversal on
+   * first use, and is then reused for the life of the snapshot.
+   */
 
-        if (AreasD.contains(target_area, item_area)) {
-          items.add(item);
-        }
-      }
+  private final class Snapshot implements QuadTreeReadableDType<T>
+  {
+    private final QuadTreeQuadrantD<T> root;
+    private final long size;
+    private volatile @Nullable Reference2ReferenceOpenHashMap<T, AreaD> index;
 
-      if (!this.isLeaf()) {
-        this.x0y0.areaContaining(target_area, items);
-        this.x0y1.areaContaining(target_area, items);
-        this.x1y0.areaContaining(target_area, items);
-        this.x1y1.areaContaining(target_area, items);
-      }
+    private Snapshot(
+      final QuadTreeQuadrantD<T> in_root,
+      final long in_size)
+    {
+      this.root = NullCheck.notNull(in_root, "Root");
+      this.size = in_size;
     }
 
-    private void collectRecursive(final Set<T> items)
+    /**
+     * @return A map from objects to their bounds, built on first use
+     */
+
+    private Reference2ReferenceOpenHashMap<T, AreaD> index()
     {
-      items.addAll(this.quadrant_objects.keySet());
-      if (!this.isLeaf()) {
-        this.x0y0.collectRecursive(items);
-        this.x0y1.collectRecursive(items);
-        this.x1y0.collectRecursive(items);
-        this.x1y1.collectRecursive(items);
+      final @Nullable Reference2ReferenceOpenHashMap<T, AreaD> current =
+        this.index;
+      if (current != null) {
+        return current;
       }
+
+      final Reference2ReferenceOpenHashMap<T, AreaD> result =
+        new Reference2ReferenceOpenHashMap<>((int) this.size);
+      this.root.collectRecursive((item, x0, x1, y0, y1) -> {
+        result.put(item, AreaD.of(x0, x1, y0, y1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      }, QueryCounters.disabled());
+      this.index = result;
+      return result;
     }
 
-    private void areaOverlapping(
-      final AreaD target_area,
-      final Set<T> items)
+    @Override
+    public long size()
     {
-      /*
-       * Avoid performing pointless overlap checks.
-       */
-
-      if (this.isLeaf() && this.quadrant_objects.isEmpty()) {
-        return;
-      }
-
-      /*
-       * If {@code target_area} overlaps this quadrant, test each object
-       * against {@code target_area}.
-       */
+      return this.size;
+    }
 
-      if (AreasD.overlaps(target_area, this.area)) {
-        final ObjectSet<Map.Entry<T, AreaD>> entries =
-          this.quadrant_objects.entrySet();
-        final ObjectIterator<Map.Entry<T, AreaD>> iter =
-          entries.iterator();
+    @Override
+    public AreaD bounds()
+    {
+      return this.root.area();
+    }
 
-        while (iter.hasNext()) {
-          final Map.Entry<T, AreaD> entry = iter.next();
-          final T item = entry.getKey();
-          final AreaD item_area = entry.getValue();
+    @Override
+    public boolean contains(final T item)
+    {
+      return this.index().containsKey(item);
+    }
 
-          if (AreasD.overlaps(target_area, item_area)) {
-            items.add(item);
-          }
-        }
+    @Override
+    public <U> QuadTreeReadableDType<U> map(final BiFunction<T, AreaD, U> f)
+    {
+      NullCheck.notNull(f, "Function");
+
+      final QuadTreeDType<U> qt = new QuadTreeD<>(QuadTreeD.this.config);
+      this.root.collectRecursive((item, x0, x1, y0, y1) -> {
+        final AreaD item_bounds = AreaD.of(x0, x1, y0, y1);
+        qt.insert(f.apply(item, item_bounds), item_bounds);
+        return TreeVisitResult.RESULT_CONTINUE;
+      }, QueryCounters.disabled());
+      return qt;
+    }
 
-        if (!this.isLeaf()) {
-          this.x0y0.areaOverlapping(target_area, items);
-          this.x1y0.areaOverlapping(target_area, items);
-          this.x0y1.areaOverlapping(target_area, items);
-          this.x1y1.areaOverlapping(target_area, items);
-        }
-      }
+    @Override
+    public <C> void iterateQuadrants(
+      final C context,
+      final QuadTreeQuadrantIterationDType<T, C> f)
+    {
+      NullCheck.notNull(context, "Context");
+      NullCheck.notNull(f, "Function");
+      this.root.iterateQuadrants(context, f, 0L);
     }
 
-    private void raycast(
-      final Ray2D ray,
-      final SortedSet<QuadTreeRaycastResultD<T>> items)
+    @Override
+    public AreaD areaFor(final T item)
     {
-      /*
-       * Avoid performing pointless ray checks.
-       */
+      NullCheck.notNull(item, "Item");
 
-      if (this.isLeaf() && this.quadrant_objects.isEmpty()) {
-        return;
+      final @Nullable AreaD bounds = this.index().get(item);
+      if (bounds == null) {
+        throw new NoSuchElementException(item.toString());
       }
+      return bounds;
+    }
 
-      /*
-       * Check whether or not the ray intersects the quadrant.
-       */
-
-      final double x0 = this.area.minimumX();
-      final double x1 = this.area.maximumX();
-      final double y0 = this.area.minimumY();
-      final double y1 = this.area.maximumY();
+    @Override
+    public void containedBy(
+      final AreaD area,
+      final QuadTreeQueryConsumerDType<T> consumer)
+    {
+      NullCheck.notNull(area, "Area");
+      this.containedBy(
+        area.minimumX(),
+        area.maximumX(),
+        area.minimumY(),
+        area.maximumY(),
+        consumer);
+    }
 
-      /*
-       * If the ray intersects the quadrant, check each item in the quadrant
-       * against the ray.
-       */
+    @Override
+    public void containedBy(
+      final double x0,
+      final double x1,
+      final double y0,
+      final double y1,
+      final QuadTreeQueryConsumerDType<T> consumer)
+    {
+      NullCheck.notNull(consumer, "Consumer");
+      Regions.checkArea(x0, x1, y0, y1);
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeD.this.listener, this.root.level());
+      this.root.areaContaining(x0, x1, y0, y1, consumer, counters);
+      counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+    }
 
-      if (ray.intersectsArea(x0, y0, x1, y1)) {
-        final ObjectSet<Map.Entry<T, AreaD>> entries =
-          this.quadrant_objects.entrySet();
-        final ObjectIterator<Map.Entry<T, AreaD>> iter =
-          entries.iterator();
-
-        while (iter.hasNext()) {
-          final Map.Entry<T, AreaD> entry = iter.next();
-          final T item = entry.getKey();
-          final AreaD item_area = entry.getValue();
-
-          final double item_x0 = item_area.minimumX();
-          final double item_x1 = item_area.maximumX();
-          final double item_y0 = item_area.minimumY();
-          final double item_y1 = item_area.maximumY();
-
-          if (ray.intersectsArea(item_x0, item_y0, item_x1, item_y1)) {
-            final double distance = Vectors2D.distance(
-              Vector2D.of(item_x0, item_y0),
-              ray.origin());
-            final QuadTreeRaycastResultD<T> result =
-              QuadTreeRaycastResultD.of(distance, item_area, item);
-            items.add(result);
-          }
-        }
+    @Override
+    public long count(final AreaD area)
+    {
+      NullCheck.notNull(area, "Area");
+      return this.count(
+        area.minimumX(),
+        area.maximumX(),
+        area.minimumY(),
+        area.maximumY());
+    }
 
-        if (!this.isLeaf()) {
-          this.x0y0.raycast(ray, items);
-          this.x0y1.raycast(ray, items);
-          this.x1y0.raycast(ray, items);
-          this.x1y1.raycast(ray, items);
-        }
-      }
+    @Override
+    public long count(
+      final double x0,
+      final double x1,
+      final double y0,
+      final double y1)
+    {
+      Regions.checkArea(x0, x1, y0, y1);
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeD.this.listener, this.root.level());
+      final long count = this.root.countContaining(x0, x1, y0, y1, counters);
+      counters.hits(count);
+      counters.report(TreeQueryKind.QUERY_COUNT);
+      return count;
     }
 
-    private <C> TreeVisitResult iterateQuadrants(
-      final C context,
-      final QuadTreeQuadrantIterationDType<T, C> f,
-      final long depth)
+    @Override
+    public void overlappedBy(
+      final AreaD area,
+      final QuadTreeQueryConsumerDType<T> consumer)
     {
-      switch (f.apply(context, this, depth)) {
-        case RESULT_CONTINUE: {
-          if (!this.isLeaf()) {
-            switch (this.x0y0.iterateQuadrants(
-              context, f, Math.addExact(depth, 1L))) {
-              case RESULT_CONTINUE:
-                break;
-              case RESULT_TERMINATE:
-                return TreeVisitResult.RESULT_TERMINATE;
-            }
-            switch (this.x1y0.iterateQuadrants(
-              context, f, Math.addExact(depth, 1L))) {
-              case RESULT_CONTINUE:
-                break;
-              case RESULT_TERMINATE:
-                return TreeVisitResult.RESULT_TERMINATE;
-            }
-            switch (this.x0y1.iterateQuadrants(
-              context, f, Math.addExact(depth, 1L))) {
-              case RESULT_CONTINUE:
-                break;
-              case RESULT_TERMINATE:
-                return TreeVisitResult.RESULT_TERMINATE;
-            }
-            switch (this.x1y1.iterateQuadrants(
-              context, f, Math.addExact(depth, 1L))) {
-              case RESULT_CONTINUE:
-                break;
-              case RESULT_TERMINATE:
-                return TreeVisitResult.RESULT_TERMINATE;
-            }
-          }
-          return TreeVisitResult.RESULT_CONTINUE;
-        }
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
+      NullCheck.notNull(area, "Area");
+      this.overlappedBy(
+        area.minimumX(),
+        area.maximumX(),
+        area.minimumY(),
+        area.maximumY(),
+        consumer);
+    }
 
-      throw new UnreachableCodeException();
+    @Override
+    public void overlappedBy(
+      final double x0,
+      final double x1,
+      final double y0,
+      final double y1,
+      final QuadTreeQueryConsumerDType<T> consumer)
+    {
+      NullCheck.notNull(consumer, "Consumer");
+      Regions.checkArea(x0, x1, y0, y1);
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeD.this.listener, this.root.level());
+      this.root.areaOverlapping(x0, x1, y0, y1, consumer, counters);
+      counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
     }
 
     @Override
-    public Map<T, AreaD> objects()
+    public void overlappedByAll(
+      final List<AreaD> areas,
+      final QuadTreeBatchQueryConsumerDType<T> consumer)
     {
-      return this.quadrant_objects_view;
+      QuadTreeD.this.overlappedByAllFrom(this.root, areas, consumer);
     }
 
     @Override
-    public AreaD area()
+    public void containedByParallel(
+      final AreaD area,
+      final ForkJoinPool pool,
+      final Set<T> items)
     {
-      return this.area;
+      QuadTreeD.this.queryParallel(this.root, area, true, pool, items);
     }
 
-    /**
-     * Attempt to turn this node back into a leaf.
-     */
+    @Override
+    public void overlappedByParallel(
+      final AreaD area,
+      final ForkJoinPool pool,
+      final Set<T> items)
+    {
+      QuadTreeD.this.queryParallel(this.root, area, false, pool, items);
+    }
 
-    private void unsplitAttempt()
+    @Override
+    public void raycast(
+      final Ray2D ray,
+      final QuadTreeRaycastConsumerDType<T> consumer)
     {
-      if (!this.isLeaf()) {
-        final boolean x0y0_can_be_pruned = this.x0y0.unsplitCanPrune();
-        final boolean x1y0_can_be_pruned = this.x1y0.unsplitCanPrune();
-        final boolean x0y1_can_be_pruned = this.x0y1.unsplitCanPrune();
-        final boolean x1y1_can_be_pruned = this.x1y1.unsplitCanPrune();
-
-        if (x0y0_can_be_pruned
-          && x1y0_can_be_pruned
-          && x0y1_can_be_pruned
-          && x1y1_can_be_pruned) {
-          this.x0y0 = null;
-          this.x0y1 = null;
-          this.x1y0 = null;
-          this.x1y1 = null;
-        }
-      }
+      NullCheck.notNull(ray, "Ray");
+      NullCheck.notNull(consumer, "Consumer");
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeD.this.listener, this.root.level());
+      this.root.raycast(ray, consumer, false, counters);
+      counters.report(TreeQueryKind.QUERY_RAYCAST);
     }
 
-    /**
-     * Attempt to turn this node and as many ancestors of this node back into
-     * leaves as possible.
-     */
+    @Override
+    public void raycastEntry(
+      final Ray2D ray,
+      final QuadTreeRaycastConsumerDType<T> consumer)
+    {
+      NullCheck.notNull(ray, "Ray");
+      NullCheck.notNull(consumer, "Consumer");
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeD.this.listener, this.root.level());
+      this.root.raycast(ray, consumer, true, counters);
+      counters.report(TreeQueryKind.QUERY_RAYCAST);
+    }
 
-    private void unsplitAttemptRecursive()
+    @Override
+    public void raycastAll(
+      final List<Ray2D> rays,
+      final QuadTreeBatchRaycastConsumerDType<T> consumer)
     {
-      this.unsplitAttempt();
-      if (this.parent != null) {
-        this.parent.unsplitAttemptRecursive();
-      }
+      QuadTreeD.this.raycastAllFrom(this.root, rays, consumer);
     }
 
-    private boolean unsplitCanPrune()
+    @Override
+    public void raycastUpTo(
+      final Ray2D ray,
+      final double max_distance,
+      final int limit,
+      final List<QuadTreeRaycastResultD<T>> items)
     {
-      return this.isLeaf() && this.quadrant_objects.isEmpty();
+      QuadTreeD.this.raycastUpToFrom(this.root, ray, max_distance, limit, items);
     }
 
-    private void trim()
+    @Override
+    public void nearest(
+      final Vector2D point,
+      final int k,
+      final QuadTreeNearestConsumerDType<T> consumer)
     {
-      if (this.isLeaf()) {
-        this.unsplitAttemptRecursive();
-      } else {
-        this.x0y0.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x0y1.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x1y0.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x1y1.trim();
-      }
+      QuadTreeD.this.nearestFrom(this.root, point, k, consumer);
     }
   }
 }
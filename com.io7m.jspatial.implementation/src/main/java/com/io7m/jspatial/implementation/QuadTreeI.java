@@ -17,32 +17,39 @@
 package com.io7m.jspatial.implementation;
 
 import com.io7m.jaffirm.core.Invariants;
-import com.io7m.jaffirm.core.Preconditions;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
 import com.io7m.jregions.core.unparameterized.areas.AreaI;
-import com.io7m.jregions.core.unparameterized.areas.AreaXYSplitI;
 import com.io7m.jregions.core.unparameterized.areas.AreasI;
 import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeQueryListenerType;
 import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchQueryConsumerIType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchRaycastConsumerIType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationI;
 import com.io7m.jspatial.api.quadtrees.QuadTreeIType;
-import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantIType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeNearestConsumerIType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantIterationIType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQueryConsumerIType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastConsumerIType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastResultI;
+import com.io7m.jspatial.api.quadtrees.QuadTreeReadableIType;
 import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
 import com.io7m.jtensors.core.unparameterized.vectors.Vectors2D;
-import com.io7m.junreachable.UnreachableCodeException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
-import it.unimi.dsi.fastutil.objects.ObjectSet;
-import it.unimi.dsi.fastutil.objects.Reference2ReferenceMaps;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMap;
 import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
-import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.BiFunction;
 
 /**
@@ -53,17 +60,72 @@ import java.util.function.BiFunction;
 
 public final class QuadTreeI<T> implements QuadTreeIType<T>
 {
-  private final Reference2ReferenceOpenHashMap<T, AreaI> objects;
+  private final Reference2ReferenceOpenHashMap<T, QuadTreeQuadrantI<T>> objects;
   private final QuadTreeConfigurationI config;
-  private Quadrant root;
+  private QuadTreeQuadrantI<T> root;
+  private long generation;
+  private @Nullable TreeQueryListenerType listener;
 
   private QuadTreeI(final QuadTreeConfigurationI in_config)
   {
     this.config = NullCheck.notNull(in_config, "Configuration");
-    this.root = new Quadrant(null, in_config.area());
+    this.generation = 0L;
+    this.root = new QuadTreeQuadrantI<>(this, null, in_config.area());
     this.objects = new Reference2ReferenceOpenHashMap<>();
   }
 
+  /**
+   * @return The tree configuration
+   */
+
+  QuadTreeConfigurationI configuration()
+  {
+    return this.config;
+  }
+
+  /**
+   * @return The current generation of the tree; incremented each time a
+   * snapshot is taken
+   */
+
+  long generation()
+  {
+    return this.generation;
+  }
+
+  /**
+   * @return The map from each object in the tree to the quadrant that holds it
+   */
+
+  Reference2ReferenceOpenHashMap<T, QuadTreeQuadrantI<T>> objectIndex()
+  {
+    return this.objects;
+  }
+
+  /**
+   * Create an empty tree with a root quadrant of the given area, in order to
+   * restore a serialized tree. The area may differ from the area given in
+   * the configuration if the serialized tree had grown.
+   */
+
+  static <T> QuadTreeI<T> createRestored(
+    final QuadTreeConfigurationI config,
+    final AreaI root_area)
+  {
+    final QuadTreeI<T> tree = new QuadTreeI<>(config);
+    tree.root = new QuadTreeQuadrantI<>(tree, null, root_area);
+    return tree;
+  }
+
+  /**
+   * @return The root quadrant
+   */
+
+  QuadTreeQuadrantI<T> root()
+  {
+    return this.root;
+  }
+
   /**
    * Create a new empty tree with the given bounds.
    *
@@ -79,10 +141,103 @@ public final class QuadTreeI<T> implements QuadTreeIType<T>
     return new QuadTreeI<>(config);
   }
 
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   * This is equivalent to creating an empty tree and inserting each item in
+   * turn, but the tree is built top-down in a single pass: The items are
+   * partitioned between the quadrants at each level, and each quadrant
+   * is split at most once. Items with bounds that do not fit within the
+   * bounds of the tree are not inserted, exactly as if {@code insert} had
+   * returned {@code false} for them.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> QuadTreeIType<T> createFrom(
+    final QuadTreeConfigurationI config,
+    final Map<T, AreaI> items)
+  {
+    NullCheck.notNull(items, "Items");
+
+    final QuadTreeI<T> tree = new QuadTreeI<>(config);
+    final BulkItems<T, AreaI> bulk = tree.bulkItems(items);
+    tree.root.build(bulk, 0, bulk.size(), 0, false);
+    return tree;
+  }
+
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   * The resulting tree is identical to the tree that would be returned by
+   * {@link #createFrom(QuadTreeConfigurationI, Map)}, but the subtrees below
+   * any quadrant that receives at least
+   * {@link QuadTreeConfigurationI#parallelBuildThreshold()} items are built
+   * concurrently by tasks executed on {@code pool}. The tree's index of
+   * items is populated on the calling thread once all tasks have completed.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param pool   The pool that will execute tasks
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> QuadTreeIType<T> createFromParallel(
+    final QuadTreeConfigurationI config,
+    final Map<T, AreaI> items,
+    final ForkJoinPool pool)
+  {
+    NullCheck.notNull(items, "Items");
+    NullCheck.notNull(pool, "Pool");
+
+    final QuadTreeI<T> tree = new QuadTreeI<>(config);
+    final BulkItems<T, AreaI> bulk = tree.bulkItems(items);
+    pool.invoke(ForkJoinTask.adapt(
+      () -> tree.root.build(bulk, 0, bulk.size(), 0, true)));
+    tree.root.register();
+    return tree;
+  }
+
+  /**
+   * @return The given items that fit within the bounds of the tree, growing
+   * the tree first if it is configured to expand
+   */
+
+  private BulkItems<T, AreaI> bulkItems(
+    final Map<T, AreaI> items)
+  {
+    final BulkItems<T, AreaI> bulk = new BulkItems<>(items.size());
+    for (final Map.Entry<T, AreaI> entry : items.entrySet()) {
+      final T item = NullCheck.notNull(entry.getKey(), "Item");
+      final AreaI item_bounds = NullCheck.notNull(entry.getValue(), "Bounds");
+      if (this.expandToContain(
+        item_bounds.minimumX(),
+        item_bounds.maximumX(),
+        item_bounds.minimumY(),
+        item_bounds.maximumY())) {
+        bulk.add(item, item_bounds);
+      }
+    }
+
+    /*
+     * The tree is built from scratch below the final root, so the empty
+     * quadrants created while growing the root are discarded.
+     */
+
+    if (this.config.expandable()) {
+      this.root = new QuadTreeQuadrantI<>(this, null, this.root.area());
+    }
+    return bulk;
+  }
+
   @Override
   public void trim()
   {
-    this.root.trim();
+    this.ownRoot().trim();
   }
 
   @Override
@@ -102,19 +257,55 @@ public final class QuadTreeI<T> implements QuadTreeIType<T>
     }
 
     final QuadTreeI<?> that = (QuadTreeI<?>) o;
-    return this.objects.equals(that.objects);
+    if (this.objects.size() != that.objects.size()) {
+      return false;
+    }
+
+    final ObjectIterator<Reference2ReferenceMap.Entry<T, QuadTreeQuadrantI<T>>> iter =
+      this.objects.reference2ReferenceEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2ReferenceMap.Entry<T, QuadTreeQuadrantI<T>> entry =
+        iter.next();
+      final T item = entry.getKey();
+      if (!entry.getValue().boundsOf(item).equals(that.boundsOf(item))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public int hashCode()
   {
-    return this.objects.hashCode();
+    int hash = 0;
+
+    final ObjectIterator<Reference2ReferenceMap.Entry<T, QuadTreeQuadrantI<T>>> iter =
+      this.objects.reference2ReferenceEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2ReferenceMap.Entry<T, QuadTreeQuadrantI<T>> entry =
+        iter.next();
+      final T item = entry.getKey();
+      hash += System.identityHashCode(item)
+        ^ entry.getValue().boundsOf(item).hashCode();
+    }
+    return hash;
+  }
+
+  private @Nullable AreaI boundsOf(final Object item)
+  {
+    final @Nullable QuadTreeQuadrantI<T> quadrant = this.objects.get(item);
+    if (quadrant == null) {
+      return null;
+    }
+    return quadrant.boundsOf(item);
   }
 
   @Override
   public AreaI bounds()
   {
-    return this.root.area;
+    return this.root.area();
   }
 
   @Override
@@ -122,8 +313,25 @@ public final class QuadTreeI<T> implements QuadTreeIType<T>
     final T item,
     final AreaI item_bounds)
   {
-    NullCheck.notNull(item, "Item");
     NullCheck.notNull(item_bounds, "Bounds");
+    return this.insert(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY());
+  }
+
+  @Override
+  public boolean insert(
+    final T item,
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1)
+  {
+    NullCheck.notNull(item, "Item");
+    Regions.checkArea(x0, x1, y0, y1);
 
     if (this.objects.containsKey(item)) {
       this.remove(item);
@@ -133,7 +341,8 @@ public final class QuadTreeI<T> implements QuadTreeIType<T>
         x -> "Item must not be in tree");
     }
 
-    return this.root.insert(item, item_bounds);
+    return this.expandToContain(x0, x1, y0, y1)
+      && this.ownRoot().insert(item, x0, x1, y0, y1);
   }
 
   @Override
@@ -146,26 +355,156 @@ public final class QuadTreeI<T> implements QuadTreeIType<T>
   public boolean remove(final T item)
   {
     NullCheck.notNull(item, "Item");
-    return this.root.remove(item);
+
+    final @Nullable QuadTreeQuadrantI<T> quadrant = this.objects.get(item);
+    if (quadrant == null) {
+      return false;
+    }
+
+    this.own(quadrant).removeObject(item);
+    return true;
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final AreaI item_bounds)
+  {
+    NullCheck.notNull(item_bounds, "Bounds");
+    return this.move(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY());
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1)
+  {
+    NullCheck.notNull(item, "Item");
+    Regions.checkArea(x0, x1, y0, y1);
+
+    final @Nullable QuadTreeQuadrantI<T> quadrant = this.objects.get(item);
+    if (quadrant == null) {
+      return false;
+    }
+
+    if (!this.expandToContain(x0, x1, y0, y1)) {
+      return false;
+    }
+
+    this.own(quadrant).moveObject(item, x0, x1, y0, y1);
+    return true;
+  }
+
+  @Override
+  public void setQueryListener(
+    final Optional<TreeQueryListenerType> in_listener)
+  {
+    NullCheck.notNull(in_listener, "Listener");
+    this.listener = in_listener.orElse(null);
   }
 
   @Override
   public void clear()
   {
-    this.root = new Quadrant(null, this.root.area);
+    this.root = new QuadTreeQuadrantI<>(this, null, this.root.area());
     this.objects.clear();
   }
 
+  @Override
+  public QuadTreeReadableIType<T> snapshot()
+  {
+    final Snapshot snapshot =
+      new Snapshot(this.root, (long) this.objects.size());
+    this.generation = Math.addExact(this.generation, 1L);
+    return snapshot;
+  }
+
+  /**
+   * @return The root quadrant, first replacing it with a copy if it is shared
+   * with a snapshot
+   */
+
+  private QuadTreeQuadrantI<T> ownRoot()
+  {
+    if (this.root.generation() != this.generation) {
+      this.root = new QuadTreeQuadrantI<>(this, null, this.root);
+      this.root.claimObjects();
+    }
+    return this.root;
+  }
+
+  /**
+   * Grow the root of the tree until it contains the given bounds, if the
+   * tree is configured to expand.
+   *
+   * @return {@code true} iff the root of the tree contains the given bounds
+   */
+
+  private boolean expandToContain(
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1)
+  {
+    if (this.config.expandable()) {
+      while (!this.root.contains(x0, x1, y0, y1)) {
+        final @Nullable QuadTreeQuadrantI<T> expanded =
+          this.ownRoot().expandTowards(x0, y0);
+        if (expanded == null) {
+          return false;
+        }
+        this.root = expanded;
+      }
+      return true;
+    }
+    return this.root.contains(x0, x1, y0, y1);
+  }
+
+  /**
+   * Locate the given quadrant in the tree, copying it and all of its ancestors
+   * if they are shared with a snapshot.
+   *
+   * @return The quadrant, or a copy of it that may be modified
+   */
+
+  private QuadTreeQuadrantI<T> own(final QuadTreeQuadrantI<T> quadrant)
+  {
+    if (quadrant.generation() == this.generation) {
+      return quadrant;
+    }
+
+    QuadTreeQuadrantI<T> current = this.ownRoot();
+    while (!current.area().equals(quadrant.area())) {
+      final int index = current.childIndexContaining(quadrant.area());
+      Invariants.checkInvariant(index < 4, "Quadrant must be in the tree");
+      current = current.ownChild(index);
+    }
+    return current;
+  }
+
   @Override
   public <U> QuadTreeIType<U> map(final BiFunction<T, AreaI, U> f)
   {
     NullCheck.notNull(f, "Function");
 
     final QuadTreeIType<U> qt = new QuadTreeI<>(this.config);
-    for (final Map.Entry<T, AreaI> es : this.objects.entrySet()) {
-      final T item = es.getKey();
-      final AreaI item_area = es.getValue();
-      qt.insert(f.apply(item, item_area), es.getValue());
+    final ObjectIterator<Reference2ReferenceMap.Entry<T, QuadTreeQuadrantI<T>>> iter =
+      this.objects.reference2ReferenceEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2ReferenceMap.Entry<T, QuadTreeQuadrantI<T>> entry =
+        iter.next();
+      final T item = entry.getKey();
+      final AreaI item_area = entry.getValue().boundsOf(item);
+      qt.insert(f.apply(item, item_area), item_area);
     }
     return qt;
   }
@@ -185,502 +524,645 @@ public final class QuadTreeI<T> implements QuadTreeIType<T>
   {
     NullCheck.notNull(item, "Item");
 
-    return this.objects.computeIfAbsent(item, i -> {
-      throw new NoSuchElementException(i.toString());
-    });
+    final @Nullable AreaI bounds = this.boundsOf(item);
+    if (bounds == null) {
+      throw new NoSuchElementException(item.toString());
+    }
+    return bounds;
   }
 
   @Override
   public void containedBy(
     final AreaI area,
-    final Set<T> items)
+    final QuadTreeQueryConsumerIType<T> consumer)
   {
     NullCheck.notNull(area, "Area");
-    NullCheck.notNull(items, "Items");
-    this.root.areaContaining(area, items);
+    this.containedBy(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY(),
+      consumer);
+  }
+
+  @Override
+  public void containedBy(
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1,
+    final QuadTreeQueryConsumerIType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.areaContaining(x0, x1, y0, y1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+  }
+
+  @Override
+  public long count(final AreaI area)
+  {
+    NullCheck.notNull(area, "Area");
+    return this.count(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY());
+  }
+
+  @Override
+  public long count(
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1)
+  {
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    final long count = this.root.countContaining(x0, x1, y0, y1, counters);
+    counters.hits(count);
+    counters.report(TreeQueryKind.QUERY_COUNT);
+    return count;
   }
 
   @Override
   public void overlappedBy(
     final AreaI area,
-    final Set<T> items)
+    final QuadTreeQueryConsumerIType<T> consumer)
   {
     NullCheck.notNull(area, "Area");
-    NullCheck.notNull(items, "Items");
-    this.root.areaOverlapping(area, items);
+    this.overlappedBy(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY(),
+      consumer);
   }
 
   @Override
-  public void raycast(
-    final Ray2D ray,
-    final SortedSet<QuadTreeRaycastResultI<T>> items)
+  public void overlappedBy(
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1,
+    final QuadTreeQueryConsumerIType<T> consumer)
   {
-    NullCheck.notNull(ray, "Ray");
-    NullCheck.notNull(items, "Items");
-    this.root.raycast(ray, items);
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.areaOverlapping(x0, x1, y0, y1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
   }
 
-  protected final class Quadrant implements QuadTreeQuadrantIType<T>
+  @Override
+  public void overlappedByAll(
+    final List<AreaI> areas,
+    final QuadTreeBatchQueryConsumerIType<T> consumer)
   {
-    private final AreaI area;
-    private final Reference2ReferenceOpenHashMap<T, AreaI> quadrant_objects;
-    private final @Nullable Quadrant parent;
-    private final Map<T, AreaI> quadrant_objects_view;
-    private @Nullable Quadrant x0y0;
-    private @Nullable Quadrant x0y1;
-    private @Nullable Quadrant x1y0;
-    private @Nullable Quadrant x1y1;
+    this.overlappedByAllFrom(this.root, areas, consumer);
+  }
 
-    protected Quadrant(
-      final @Nullable Quadrant in_parent,
-      final AreaI in_area)
-    {
-      this.parent = in_parent;
-      this.area = NullCheck.notNull(in_area, "Area");
-      this.quadrant_objects = new Reference2ReferenceOpenHashMap<>();
-      this.quadrant_objects_view =
-        Reference2ReferenceMaps.unmodifiable(this.quadrant_objects);
-    }
+  private void overlappedByAllFrom(
+    final QuadTreeQuadrantI<T> start,
+    final List<AreaI> areas,
+    final QuadTreeBatchQueryConsumerIType<T> consumer)
+  {
+    NullCheck.notNull(areas, "Areas");
+    NullCheck.notNull(consumer, "Consumer");
 
-    private boolean insert(
-      final T item,
-      final AreaI item_bounds)
-    {
-      Preconditions.checkPrecondition(
-        item,
-        !QuadTreeI.this.objects.containsKey(item),
-        x -> "Object must not be in tree");
+    /*
+     * Pack the query areas into a single array, and carry the indices of
+     * the queries that overlap each quadrant down the tree on a shared
+     * stack of query indices.
+     */
 
-      return AreasI.contains(this.area, item_bounds)
-        && this.insertStep(item, item_bounds);
+    final int[] targets = new int[areas.size() * 4];
+    final IntArrayList active = new IntArrayList(areas.size());
+    for (int index = 0; index < areas.size(); ++index) {
+      final AreaI area = NullCheck.notNull(areas.get(index), "Area");
+      final int base = index * 4;
+      targets[base] = area.minimumX();
+      targets[base + 1] = area.maximumX();
+      targets[base + 2] = area.minimumY();
+      targets[base + 3] = area.maximumY();
+      if (AreasI.overlaps(area, start.area())) {
+        active.add(index);
+      }
     }
 
-    private boolean insertStep(
-      final T item,
-      final AreaI item_bounds)
-    {
-      /*
-       * The object can fit in this node, but perhaps it is possible to fit it
-       * more precisely within one of the child nodes.
-       */
-
-      /*
-       * If this node is a leaf, and is large enough to split, do so.
-       */
-
-      if (this.isLeaf()) {
-        if (this.canSplit()) {
-          this.split();
-        } else {
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, start.level());
+    counters.testNodes(areas.size());
+    if (!active.isEmpty()) {
+      start.areaOverlappingAll(targets, active, 0, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_ALL);
+  }
 
-          /*
-           * The node is a leaf, but cannot be split further. Insert directly.
-           */
+  @Override
+  public void containedByParallel(
+    final AreaI area,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.queryParallel(this.root, area, true, pool, items);
+  }
 
-          return this.insertObject(item, item_bounds);
-        }
-      }
+  @Override
+  public void overlappedByParallel(
+    final AreaI area,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.queryParallel(this.root, area, false, pool, items);
+  }
 
-      /*
-       * See if the object will fit in any of the child nodes.
-       */
+  private void queryParallel(
+    final QuadTreeQuadrantI<T> start,
+    final AreaI area,
+    final boolean contained,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    NullCheck.notNull(area, "Area");
+    NullCheck.notNull(pool, "Pool");
+    NullCheck.notNull(items, "Items");
 
-      Invariants.checkInvariant(!this.isLeaf(), "Node is not a leaf");
+    /*
+     * Find the quadrants that may hold matching objects on the calling
+     * thread, and then test the objects that they hold on the pool.
+     */
 
-      if (AreasI.contains(this.x0y0.area, item_bounds)) {
-        return this.x0y0.insertStep(item, item_bounds);
-      }
-      if (AreasI.contains(this.x1y0.area, item_bounds)) {
-        return this.x1y0.insertStep(item, item_bounds);
-      }
-      if (AreasI.contains(this.x0y1.area, item_bounds)) {
-        return this.x0y1.insertStep(item, item_bounds);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, start.level());
+    final List<QuadTreeQuadrantI<T>> nodes = new ArrayList<>();
+    start.parallelCandidates(area, contained, nodes, counters);
+    final List<T> matched = ParallelQuery.execute(
+      pool,
+      this.config.parallelQueryThreshold(),
+      nodes,
+      QuadTreeQuadrantI::objectCount,
+      (node, from, to, results) ->
+        node.areaMatching(area, contained, from, to, results));
+    items.addAll(matched);
+
+    if (counters.isEnabled()) {
+      for (int index = 0; index < nodes.size(); ++index) {
+        counters.testObjects(nodes.get(index).objectCount());
       }
-      if (AreasI.contains(this.x1y1.area, item_bounds)) {
-        return this.x1y1.insertStep(item, item_bounds);
-      }
-
-      /*
-       * Otherwise, insert the object into this node.
-       */
-
-      return this.insertObject(item, item_bounds);
-    }
-
-    private boolean insertObject(
-      final T item,
-      final AreaI item_bounds)
-    {
-      QuadTreeI.this.objects.put(item, item_bounds);
-      this.quadrant_objects.put(item, item_bounds);
-      return true;
-    }
-
-    private void split()
-    {
-      Preconditions.checkPrecondition(this.canSplit(), "Quadrant can split");
-
-      final Optional<AreaXYSplitI<AreaI>> q_opt = QuadrantsI.subdivide(this.area);
-      if (q_opt.isPresent()) {
-        final AreaXYSplitI<AreaI> q = q_opt.get();
-        this.x0y0 = new Quadrant(this, q.x0y0());
-        this.x0y1 = new Quadrant(this, q.x0y1());
-        this.x1y0 = new Quadrant(this, q.x1y0());
-        this.x1y1 = new Quadrant(this, q.x1y1());
+      counters.hits((long) matched.size());
+      if (contained) {
+        counters.report(TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL);
       } else {
-        throw new UnreachableCodeException();
+        counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL);
       }
     }
+  }
 
-    private boolean canSplit()
-    {
-      final int width = this.area.sizeX();
-      final int height = this.area.sizeY();
+  @Override
+  public void raycast(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerIType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.raycast(ray, consumer, false, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
 
-      final int min_width =
-        Math.max(2, QuadTreeI.this.config.minimumQuadrantWidth());
-      final int min_height =
-        Math.max(2, QuadTreeI.this.config.minimumQuadrantHeight());
+  @Override
+  public void raycastEntry(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerIType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, this.root.level());
+    this.root.raycast(ray, consumer, true, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
 
-      final int half_width = width / 2;
-      final int half_height = height / 2;
+  @Override
+  public void raycastAll(
+    final List<Ray2D> rays,
+    final QuadTreeBatchRaycastConsumerIType<T> consumer)
+  {
+    this.raycastAllFrom(this.root, rays, consumer);
+  }
 
-      return half_width >= min_width && half_height >= min_height;
-    }
+  private void raycastAllFrom(
+    final QuadTreeQuadrantI<T> start,
+    final List<Ray2D> rays,
+    final QuadTreeBatchRaycastConsumerIType<T> consumer)
+  {
+    NullCheck.notNull(rays, "Rays");
+    NullCheck.notNull(consumer, "Consumer");
 
-    private boolean isLeaf()
-    {
-      return this.x0y0 == null;
-    }
+    /*
+     * Copy the rays into an array, and carry the indices of the rays that
+     * intersect each quadrant down the tree on a shared stack of ray indices.
+     */
 
-    private boolean remove(final T item)
-    {
-      if (!QuadTreeI.this.objects.containsKey(item)) {
-        return false;
+    final AreaI area = start.area();
+    final Ray2D[] packet = new Ray2D[rays.size()];
+    final IntArrayList active = new IntArrayList(packet.length);
+    for (int index = 0; index < packet.length; ++index) {
+      final Ray2D ray = NullCheck.notNull(rays.get(index), "Ray");
+      packet[index] = ray;
+      if (ray.intersectsArea(
+        (double) area.minimumX(),
+        (double) area.minimumY(),
+        (double) area.maximumX(),
+        (double) area.maximumY())) {
+        active.add(index);
       }
+    }
 
-      final AreaI bounds = QuadTreeI.this.objects.get(item);
-      return this.removeStep(item, bounds);
+    final QueryCounters counters =
+      QueryCounters.create(this.listener, start.level());
+    counters.testNodes(packet.length);
+    if (!active.isEmpty()) {
+      start.raycastAll(packet, active, 0, consumer, counters);
     }
+    counters.report(TreeQueryKind.QUERY_RAYCAST_ALL);
+  }
 
-    private boolean removeStep(
-      final T item,
-      final AreaI item_bounds)
-    {
-      if (this.quadrant_objects.containsKey(item)) {
-        this.quadrant_objects.remove(item);
-        QuadTreeI.this.objects.remove(item);
-        if (QuadTreeI.this.config.trimOnRemove()) {
-          this.unsplitAttemptRecursive();
-        }
-        return true;
-      }
+  @Override
+  public void raycastUpTo(
+    final Ray2D ray,
+    final double max_distance,
+    final int limit,
+    final List<QuadTreeRaycastResultI<T>> items)
+  {
+    this.raycastUpToFrom(this.root, ray, max_distance, limit, items);
+  }
 
-      Invariants.checkInvariant(!this.isLeaf(), "Node cannot be a leaf");
+  private void raycastUpToFrom(
+    final QuadTreeQuadrantI<T> start,
+    final Ray2D ray,
+    final double max_distance,
+    final int limit,
+    final List<QuadTreeRaycastResultI<T>> items)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(items, "Items");
 
-      if (AreasI.contains(this.x0y0.area, item_bounds)) {
-        return this.x0y0.removeStep(item, item_bounds);
-      }
-      if (AreasI.contains(this.x1y0.area, item_bounds)) {
-        return this.x1y0.removeStep(item, item_bounds);
-      }
-      if (AreasI.contains(this.x0y1.area, item_bounds)) {
-        return this.x0y1.removeStep(item, item_bounds);
-      }
-      if (AreasI.contains(this.x1y1.area, item_bounds)) {
-        return this.x1y1.removeStep(item, item_bounds);
-      }
+    if (limit > 0) {
+      final QueryCounters counters =
+        QueryCounters.create(this.listener, start.level());
+      final NearestResults<QuadTreeRaycastResultI<T>> results =
+        new NearestResults<>(QuadTreeRaycastResultI::distance, max_distance, limit);
+      start.raycastNearest(
+        ray,
+        Vectors2D.magnitude(ray.direction()),
+        directionMask(ray),
+        results,
+        counters);
+      counters.hits((long) results.size());
+      items.addAll(results.drainSorted());
+      counters.report(TreeQueryKind.QUERY_RAYCAST_UP_TO);
+    }
+  }
 
-      /*
-       * The object must be in the tree, according to remove(). Therefore it
-       * must be in this node, or one of the child quadrants.
-       */
+  @Override
+  public void nearest(
+    final Vector2D point,
+    final int k,
+    final QuadTreeNearestConsumerIType<T> consumer)
+  {
+    this.nearestFrom(this.root, point, k, consumer);
+  }
 
-      throw new UnreachableCodeException();
-    }
+  private void nearestFrom(
+    final QuadTreeQuadrantI<T> start,
+    final Vector2D point,
+    final int k,
+    final QuadTreeNearestConsumerIType<T> consumer)
+  {
+    NullCheck.notNull(point, "Point");
+    NullCheck.notNull(consumer, "Consumer");
+
+    if (k > 0) {
+      final QueryCounters counters =
+        QueryCounters.create(this.listener, start.level());
+      final double px = point.x();
+      final double py = point.y();
+      final NearestResults<NearestItem<T, AreaI>> results =
+        new NearestResults<>(NearestItem::distance, Double.POSITIVE_INFINITY, k);
 
-    private void areaContaining(
-      final AreaI target_area,
-      final Set<T> items)
-    {
       /*
-       * Avoid performing pointless containment checks.
+       * Visit quadrants in order of increasing distance from the point,
+       * stopping when the nearest unvisited quadrant is further away than
+       * any result that could still be accepted.
        */
 
-      if (this.isLeaf() && this.quadrant_objects.isEmpty()) {
-        return;
+      final NodeQueue<QuadTreeQuadrantI<T>> queue = new NodeQueue<>();
+      counters.testNodes(1);
+      queue.add(start, start.distanceTo(px, py));
+      while (!queue.isEmpty() && queue.peekDistance() <= results.bound()) {
+        queue.poll().nearest(px, py, results, queue, counters);
       }
 
-      /*
-       * If {@code target_area} completely contains this quadrant, collect
-       * everything in this quadrant and all children of this quadrant.
-       */
-
-      if (AreasI.contains(target_area, this.area)) {
-        this.collectRecursive(items);
+      for (final NearestItem<T, AreaI> result : results.drainSorted()) {
+        final AreaI item_area = result.bounds();
+        counters.hits(1L);
+        final TreeVisitResult visit = consumer.accept(
+          result.item(),
+          item_area.minimumX(),
+          item_area.maximumX(),
+          item_area.minimumY(),
+          item_area.maximumY(),
+          result.distance());
+        if (visit == TreeVisitResult.RESULT_TERMINATE) {
+          break;
+        }
       }
+      counters.report(TreeQueryKind.QUERY_NEAREST);
+    }
+  }
 
-      /*
-       * Otherwise, {@code target_area} may be overlapping this quadrant and
-       * therefore some items may still be contained within {@code target_area}.
-       */
+  /**
+   * @return A mask with bit 0 set if the ray points towards negative X, and
+   * bit 1 set if the ray points towards negative Y
+   */
 
-      final ObjectSet<Map.Entry<T, AreaI>> entries =
-        this.quadrant_objects.entrySet();
-      final ObjectIterator<Map.Entry<T, AreaI>> iter =
-        entries.iterator();
+  private static int directionMask(final Ray2D ray)
+  {
+    final Vector2D direction = ray.direction();
+    final int x_mask = direction.x() < 0.0 ? 0b01 : 0;
+    final int y_mask = direction.y() < 0.0 ? 0b10 : 0;
+    return x_mask | y_mask;
+  }
 
-      while (iter.hasNext()) {
-        final Map.Entry<T, AreaI> entry = iter.next();
-        final T item = entry.getKey();
-        final AreaI item_area = entry.getValue();
+  /**
+   * An immutable snapshot of the tree. The snapshot shares the quadrants of
+   * the tree as they were at the time that the snapshot was taken, and the
+   * tree copies any such quadrant before modifying it. The index used by
+   * {@code contains} and by bounds lookups is built by a full traversal on
+   * first use, and is then reused for the life of the snapshot.
+   */
 
-        if (AreasI.contains(target_area, item_area)) {
-          items.add(item);
-        }
-      }
+  private final class Snapshot implements QuadTreeReadableIType<T>
+  {
+    private final QuadTreeQuadrantI<T> root;
+    private final long size;
+    private volatile @Nullable Reference2ReferenceOpenHashMap<T, AreaI> index;
 
-      if (!this.isLeaf()) {
-        this.x0y0.areaContaining(target_area, items);
-        this.x0y1.areaContaining(target_area, items);
-        this.x1y0.areaContaining(target_area, items);
-        this.x1y1.areaContaining(target_area, items);
-      }
+    private Snapshot(
+      final QuadTreeQuadrantI<T> in_root,
+      final long in_size)
+    {
+      this.root = NullCheck.notNull(in_root, "Root");
+      this.size = in_size;
     }
 
-    private void collectRecursive(final Set<T> items)
+    /**
+     * @return A map from objects to their bounds, built on first use
+     */
+
+    private Reference2ReferenceOpenHashMap<T, AreaI> index()
     {
-      items.addAll(this.quadrant_objects.keySet());
-      if (!this.isLeaf()) {
-        this.x0y0.collectRecursive(items);
-        this.x0y1.collectRecursive(items);
-        this.x1y0.collectRecursive(items);
-        this.x1y1.collectRecursive(items);
+      final @Nullable Reference2ReferenceOpenHashMap<T, AreaI> current =
+        this.index;
+      if (current != null) {
+        return current;
       }
+
+      final Reference2ReferenceOpenHashMap<T, AreaI> result =
+        new Reference2ReferenceOpenHashMap<>((int) this.size);
+      this.root.collectRecursive((item, x0, x1, y0, y1) -> {
+        result.put(item, AreaI.of(x0, x1, y0, y1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      }, QueryCounters.disabled());
+      this.index = result;
+      return result;
     }
 
-    private void areaOverlapping(
-      final AreaI target_area,
-      final Set<T> items)
+    @Override
+    public long size()
     {
-      /*
-       * Avoid performing pointless overlap checks.
-       */
-
-      if (this.isLeaf() && this.quadrant_objects.isEmpty()) {
-        return;
-      }
-
-      /*
-       * If {@code target_area} overlaps this quadrant, test each object
-       * against {@code target_area}.
-       */
+      return this.size;
+    }
 
-      if (AreasI.overlaps(target_area, this.area)) {
-        final ObjectSet<Map.Entry<T, AreaI>> entries =
-          this.quadrant_objects.entrySet();
-        final ObjectIterator<Map.Entry<T, AreaI>> iter =
-          entries.iterator();
+    @Override
+    public AreaI bounds()
+    {
+      return this.root.area();
+    }
 
-        while (iter.hasNext()) {
-          final Map.Entry<T, AreaI> entry = iter.next();
-          final T item = entry.getKey();
-          final AreaI item_area = entry.getValue();
+    @Override
+    public boolean contains(final T item)
+    {
+      return this.index().containsKey(item);
+    }
 
-          if (AreasI.overlaps(target_area, item_area)) {
-            items.add(item);
-          }
-        }
+    @Override
+    public <U> QuadTreeReadableIType<U> map(final BiFunction<T, AreaI, U> f)
+    {
+      NullCheck.notNull(f, "Function");
+
+      final QuadTreeIType<U> qt = new QuadTreeI<>(QuadTreeI.this.config);
+      this.root.collectRecursive((item, x0, x1, y0, y1) -> {
+        final AreaI item_bounds = AreaI.of(x0, x1, y0, y1);
+        qt.insert(f.apply(item, item_bounds), item_bounds);
+        return TreeVisitResult.RESULT_CONTINUE;
+      }, QueryCounters.disabled());
+      return qt;
+    }
 
-        if (!this.isLeaf()) {
-          this.x0y0.areaOverlapping(target_area, items);
-          this.x1y0.areaOverlapping(target_area, items);
-          this.x0y1.areaOverlapping(target_area, items);
-          this.x1y1.areaOverlapping(target_area, items);
-        }
-      }
+    @Override
+    public <C> void iterateQuadrants(
+      final C context,
+      final QuadTreeQuadrantIterationIType<T, C> f)
+    {
+      NullCheck.notNull(context, "Context");
+      NullCheck.notNull(f, "Function");
+      this.root.iterateQuadrants(context, f, 0);
     }
 
-    private void raycast(
-      final Ray2D ray,
-      final SortedSet<QuadTreeRaycastResultI<T>> items)
+    @Override
+    public AreaI areaFor(final T item)
     {
-      /*
-       * Avoid performing pointless ray checks.
-       */
+      NullCheck.notNull(item, "Item");
 
-      if (this.isLeaf() && this.quadrant_objects.isEmpty()) {
-        return;
+      final @Nullable AreaI bounds = this.index().get(item);
+      if (bounds == null) {
+        throw new NoSuchElementException(item.toString());
       }
+      return bounds;
+    }
 
-      /*
-       * Check whether or not the ray intersects the quadrant.
-       */
-
-      final double x0 = (double) this.area.minimumX();
-      final double x1 = (double) this.area.maximumX();
-      final double y0 = (double) this.area.minimumY();
-      final double y1 = (double) this.area.maximumY();
+    @Override
+    public void containedBy(
+      final AreaI area,
+      final QuadTreeQueryConsumerIType<T> consumer)
+    {
+      NullCheck.notNull(area, "Area");
+      this.containedBy(
+        area.minimumX(),
+        area.maximumX(),
+        area.minimumY(),
+        area.maximumY(),
+        consumer);
+    }
 
-      /*
-       * If the ray intersects the quadrant, check each item in the quadrant
-       * against the ray.
-       */
+    @Override
+    public void containedBy(
+      final int x0,
+      final int x1,
+      final int y0,
+      final int y1,
+      final QuadTreeQueryConsumerIType<T> consumer)
+    {
+      NullCheck.notNull(consumer, "Consumer");
+      Regions.checkArea(x0, x1, y0, y1);
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeI.this.listener, this.root.level());
+      this.root.areaContaining(x0, x1, y0, y1, consumer, counters);
+      counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+    }
 
-      if (ray.intersectsArea(x0, y0, x1, y1)) {
-        final ObjectSet<Map.Entry<T, AreaI>> entries =
-          this.quadrant_objects.entrySet();
-        final ObjectIterator<Map.Entry<T, AreaI>> iter =
-          entries.iterator();
-
-        while (iter.hasNext()) {
-          final Map.Entry<T, AreaI> entry = iter.next();
-          final T item = entry.getKey();
-          final AreaI item_area = entry.getValue();
-
-          final double item_x0 = (double) item_area.minimumX();
-          final double item_x1 = (double) item_area.maximumX();
-          final double item_y0 = (double) item_area.minimumY();
-          final double item_y1 = (double) item_area.maximumY();
-
-          if (ray.intersectsArea(item_x0, item_y0, item_x1, item_y1)) {
-            final double distance = Vectors2D.distance(
-              Vector2D.of(item_x0, item_y0),
-              ray.origin());
-            final QuadTreeRaycastResultI<T> result =
-              QuadTreeRaycastResultI.of(distance, item_area, item);
-            items.add(result);
-          }
-        }
+    @Override
+    public long count(final AreaI area)
+    {
+      NullCheck.notNull(area, "Area");
+      return this.count(
+        area.minimumX(),
+        area.maximumX(),
+        area.minimumY(),
+        area.maximumY());
+    }
 
-        if (!this.isLeaf()) {
-          this.x0y0.raycast(ray, items);
-          this.x0y1.raycast(ray, items);
-          this.x1y0.raycast(ray, items);
-          this.x1y1.raycast(ray, items);
-        }
-      }
+    @Override
+    public long count(
+      final int x0,
+      final int x1,
+      final int y0,
+      final int y1)
+    {
+      Regions.checkArea(x0, x1, y0, y1);
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeI.this.listener, this.root.level());
+      final long count = this.root.countContaining(x0, x1, y0, y1, counters);
+      counters.hits(count);
+      counters.report(TreeQueryKind.QUERY_COUNT);
+      return count;
     }
 
-    private <C> TreeVisitResult iterateQuadrants(
-      final C context,
-      final QuadTreeQuadrantIterationIType<T, C> f,
-      final int depth)
+    @Override
+    public void overlappedBy(
+      final AreaI area,
+      final QuadTreeQueryConsumerIType<T> consumer)
     {
-      switch (f.apply(context, this, depth)) {
-        case RESULT_CONTINUE: {
-          if (!this.isLeaf()) {
-            switch (this.x0y0.iterateQuadrants(
-              context, f, Math.addExact(depth, 1))) {
-              case RESULT_CONTINUE:
-                break;
-              case RESULT_TERMINATE:
-                return TreeVisitResult.RESULT_TERMINATE;
-            }
-            switch (this.x1y0.iterateQuadrants(
-              context, f, Math.addExact(depth, 1))) {
-              case RESULT_CONTINUE:
-                break;
-              case RESULT_TERMINATE:
-                return TreeVisitResult.RESULT_TERMINATE;
-            }
-            switch (this.x0y1.iterateQuadrants(
-              context, f, Math.addExact(depth, 1))) {
-              case RESULT_CONTINUE:
-                break;
-              case RESULT_TERMINATE:
-                return TreeVisitResult.RESULT_TERMINATE;
-            }
-            switch (this.x1y1.iterateQuadrants(
-              context, f, Math.addExact(depth, 1))) {
-              case RESULT_CONTINUE:
-                break;
-              case RESULT_TERMINATE:
-                return TreeVisitResult.RESULT_TERMINATE;
-            }
-          }
-          return TreeVisitResult.RESULT_CONTINUE;
-        }
-        case RESULT_TERMINATE:
-          return TreeVisitResult.RESULT_TERMINATE;
-      }
+      NullCheck.notNull(area, "Area");
+      this.overlappedBy(
+        area.minimumX(),
+        area.maximumX(),
+        area.minimumY(),
+        area.maximumY(),
+        consumer);
+    }
 
-      throw new UnreachableCodeException();
+    @Override
+    public void overlappedBy(
+      final int x0,
+      final int x1,
+      final int y0,
+      final int y1,
+      final QuadTreeQueryConsumerIType<T> consumer)
+    {
+      NullCheck.notNull(consumer, "Consumer");
+      Regions.checkArea(x0, x1, y0, y1);
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeI.this.listener, this.root.level());
+      this.root.areaOverlapping(x0, x1, y0, y1, consumer, counters);
+      counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
     }
 
     @Override
-    public Map<T, AreaI> objects()
+    public void overlappedByAll(
+      final List<AreaI> areas,
+      final QuadTreeBatchQueryConsumerIType<T> consumer)
     {
-      return this.quadrant_objects_view;
+      QuadTreeI.this.overlappedByAllFrom(this.root, areas, consumer);
     }
 
     @Override
-    public AreaI area()
+    public void containedByParallel(
+      final AreaI area,
+      final ForkJoinPool pool,
+      final Set<T> items)
     {
-      return this.area;
+      QuadTreeI.this.queryParallel(this.root, area, true, pool, items);
     }
 
-    /**
-     * Attempt to turn this node back into a leaf.
-     */
+    @Override
+    public void overlappedByParallel(
+      final AreaI area,
+      final ForkJoinPool pool,
+      final Set<T> items)
+    {
+      QuadTreeI.this.queryParallel(this.root, area, false, pool, items);
+    }
 
-    private void unsplitAttempt()
+    @Override
+    public void raycast(
+      final Ray2D ray,
+      final QuadTreeRaycastConsumerIType<T> consumer)
     {
-      if (!this.isLeaf()) {
-        final boolean x0y0_can_be_pruned = this.x0y0.unsplitCanPrune();
-        final boolean x1y0_can_be_pruned = this.x1y0.unsplitCanPrune();
-        final boolean x0y1_can_be_pruned = this.x0y1.unsplitCanPrune();
-        final boolean x1y1_can_be_pruned = this.x1y1.unsplitCanPrune();
-
-        if (x0y0_can_be_pruned
-          && x1y0_can_be_pruned
-          && x0y1_can_be_pruned
-          && x1y1_can_be_pruned) {
-          this.x0y0 = null;
-          this.x0y1 = null;
-          this.x1y0 = null;
-          this.x1y1 = null;
-        }
-      }
+      NullCheck.notNull(ray, "Ray");
+      NullCheck.notNull(consumer, "Consumer");
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeI.this.listener, this.root.level());
+      this.root.raycast(ray, consumer, false, counters);
+      counters.report(TreeQueryKind.QUERY_RAYCAST);
     }
 
-    /**
-     * Attempt to turn this node and as many ancestors of this node back into
-     * leaves as possible.
-     */
+    @Override
+    public void raycastEntry(
+      final Ray2D ray,
+      final QuadTreeRaycastConsumerIType<T> consumer)
+    {
+      NullCheck.notNull(ray, "Ray");
+      NullCheck.notNull(consumer, "Consumer");
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeI.this.listener, this.root.level());
+      this.root.raycast(ray, consumer, true, counters);
+      counters.report(TreeQueryKind.QUERY_RAYCAST);
+    }
 
-    private void unsplitAttemptRecursive()
+    @Override
+    public void raycastAll(
+      final List<Ray2D> rays,
+      final QuadTreeBatchRaycastConsumerIType<T> consumer)
     {
-      this.unsplitAttempt();
-      if (this.parent != null) {
-        this.parent.unsplitAttemptRecursive();
-      }
+      QuadTreeI.this.raycastAllFrom(this.root, rays, consumer);
     }
 
-    private boolean unsplitCanPrune()
+    @Override
+    public void raycastUpTo(
+      final Ray2D ray,
+      final double max_distance,
+      final int limit,
+      final List<QuadTreeRaycastResultI<T>> items)
     {
-      return this.isLeaf() && this.quadrant_objects.isEmpty();
+      QuadTreeI.this.raycastUpToFrom(this.root, ray, max_distance, limit, items);
     }
 
-    private void trim()
+    @Override
+    public void nearest(
+      final Vector2D point,
+      final int k,
+      final QuadTreeNearestConsumerIType<T> consumer)
     {
-      if (this.isLeaf()) {
-        this.unsplitAttemptRecursive();
-      } else {
-        this.x0y0.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x0y1.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x1y0.trim();
-        if (this.isLeaf()) {
-          return;
-        }
-        this.x1y1.trim();
-      }
+      QuadTreeI.this.nearestFrom(this.root, point, k, consumer);
     }
   }
 }
@@ -0,0 +1,1126 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.areas.AreaL;
+import com.io7m.jregions.core.unparameterized.areas.AreasL;
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeQueryListenerType;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchQueryConsumerLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchRaycastConsumerLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationL;
+import com.io7m.jspatial.api.quadtrees.QuadTreeLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeNearestConsumerLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantIterationLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQueryConsumerLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastConsumerLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastResultL;
+import com.io7m.jspatial.api.quadtrees.QuadTreeReadableLType;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
+import com.io7m.jtensors.core.unparameterized.vectors.Vectors2D;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.Reference2LongMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
+
+/**
+ * A linear implementation of the {@link QuadTreeLType} interface.
+ *
+ * The tree does not allocate an object per quadrant: Each quadrant is
+ * identified by a key that encodes its depth and its path from the root
+ * as a sequence of two-bit child indices, and the keys of all quadrants are
+ * held in a single sorted array (see {@link MortonTableL}). Sorting the keys
+ * places the quadrants in the order of a pre-order traversal, so the
+ * descendants of any quadrant occupy a contiguous range of the array, and
+ * the subtree below a quadrant that lies entirely within a query area is
+ * visited with a sequential scan.
+ *
+ * The tree behaves identically to {@link QuadTreeL}, with the exception that
+ * it is limited to a depth of {@code 29} quadrants. If a tree configured to
+ * expand grows beyond that depth, the quadrants at the deepest level are
+ * merged into their parents.
+ *
+ * Unlike {@link QuadTreeL}, the tree does not share its structure with its
+ * snapshots. Taking a snapshot takes constant time, but the first
+ * modification of the tree after each snapshot copies the arrays that
+ * hold the keys of all quadrants, and so takes {@code O(n)} time in the
+ * number of quadrants. Only the collections of objects held by each quadrant
+ * are shared, and each is copied the first time that it is modified.
+ * Code that interleaves snapshots with individual modifications should
+ * prefer {@link QuadTreeL}.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+public final class QuadTreeLinearL<T> implements QuadTreeLType<T>
+{
+  private final Reference2LongOpenHashMap<T> objects;
+  private final QuadTreeConfigurationL config;
+  private QuadTreeLinearNodesL<T> nodes;
+  private boolean shared;
+  private @Nullable TreeQueryListenerType listener;
+
+  private QuadTreeLinearL(final QuadTreeConfigurationL in_config)
+  {
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.objects = new Reference2LongOpenHashMap<>();
+    this.nodes = new QuadTreeLinearNodesL<>(this, in_config.area());
+    this.shared = false;
+  }
+
+  /**
+   * @return The tree configuration
+   */
+
+  QuadTreeConfigurationL configuration()
+  {
+    return this.config;
+  }
+
+  /**
+   * @return The map from each object in the tree to the key of the quadrant
+   * that holds it
+   */
+
+  Reference2LongOpenHashMap<T> objectIndex()
+  {
+    return this.objects;
+  }
+
+  /**
+   * Create a new empty tree with the given bounds.
+   *
+   * @param config The tree configuration
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> QuadTreeLType<T> create(
+    final QuadTreeConfigurationL config)
+  {
+    return new QuadTreeLinearL<>(config);
+  }
+
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   * This is equivalent to creating an empty tree and inserting each item in
+   * turn, but the tree is built top-down in a single pass, appending the
+   * quadrants in key order.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   *
+   * @see QuadTreeL#createFrom(QuadTreeConfigurationL, Map)
+   */
+
+  public static <T> QuadTreeLType<T> createFrom(
+    final QuadTreeConfigurationL config,
+    final Map<T, AreaL> items)
+  {
+    NullCheck.notNull(items, "Items");
+
+    final QuadTreeLinearL<T> tree = new QuadTreeLinearL<>(config);
+    final BulkItems<T, AreaL> bulk = tree.bulkItems(items);
+    tree.nodes.build(bulk, false);
+    return tree;
+  }
+
+  /**
+   * Create a new tree with the given bounds, containing the given items.
+   * The resulting tree is identical to the tree that would be returned by
+   * {@link #createFrom(QuadTreeConfigurationL, Map)}, but the subtrees below
+   * any quadrant that receives at least
+   * {@link QuadTreeConfigurationL#parallelBuildThreshold()} items are built
+   * into separate arrays by tasks executed on {@code pool}, and the arrays
+   * are then concatenated.
+   *
+   * @param config The tree configuration
+   * @param items  The items and their bounds
+   * @param pool   The pool that will execute tasks
+   * @param <T>    The type of objects contained within the tree
+   *
+   * @return A new tree
+   */
+
+  public static <T> QuadTreeLType<T> createFromParallel(
+    final QuadTreeConfigurationL config,
+    final Map<T, AreaL> items,
+    final ForkJoinPool pool)
+  {
+    NullCheck.notNull(items, "Items");
+    NullCheck.notNull(pool, "Pool");
+
+    final QuadTreeLinearL<T> tree = new QuadTreeLinearL<>(config);
+    final BulkItems<T, AreaL> bulk = tree.bulkItems(items);
+    pool.invoke(ForkJoinTask.adapt(() -> tree.nodes.build(bulk, true)));
+    tree.nodes.register();
+    return tree;
+  }
+
+  /**
+   * @return The given items that fit within the bounds of the tree, growing
+   * the tree first if it is configured to expand
+   */
+
+  private BulkItems<T, AreaL> bulkItems(
+    final Map<T, AreaL> items)
+  {
+    final BulkItems<T, AreaL> bulk = new BulkItems<>(items.size());
+    for (final Map.Entry<T, AreaL> entry : items.entrySet()) {
+      final T item = NullCheck.notNull(entry.getKey(), "Item");
+      final AreaL item_bounds = NullCheck.notNull(entry.getValue(), "Bounds");
+      if (this.expandToContain(
+        item_bounds.minimumX(),
+        item_bounds.maximumX(),
+        item_bounds.minimumY(),
+        item_bounds.maximumY())) {
+        bulk.add(item, item_bounds);
+      }
+    }
+
+    /*
+     * The tree is built from scratch below the final root, so the empty
+     * quadrants created while growing the root are discarded.
+     */
+
+    if (this.config.expandable()) {
+      this.nodes = new QuadTreeLinearNodesL<>(this, this.nodes.area());
+    }
+    return bulk;
+  }
+
+  @Override
+  public void trim()
+  {
+    this.ownNodes().trim();
+  }
+
+  @Override
+  public long size()
+  {
+    return (long) this.objects.size();
+  }
+
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || this.getClass() != o.getClass()) {
+      return false;
+    }
+
+    final QuadTreeLinearL<?> that = (QuadTreeLinearL<?>) o;
+    if (this.objects.size() != that.objects.size()) {
+      return false;
+    }
+
+    final ObjectIterator<Reference2LongMap.Entry<T>> iter =
+      this.objects.reference2LongEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2LongMap.Entry<T> entry = iter.next();
+      final T item = entry.getKey();
+      final AreaL bounds = this.nodes.boundsOf(item, entry.getLongValue());
+      if (!bounds.equals(that.boundsOf(item))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    int hash = 0;
+
+    final ObjectIterator<Reference2LongMap.Entry<T>> iter =
+      this.objects.reference2LongEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2LongMap.Entry<T> entry = iter.next();
+      final T item = entry.getKey();
+      hash += System.identityHashCode(item)
+        ^ this.nodes.boundsOf(item, entry.getLongValue()).hashCode();
+    }
+    return hash;
+  }
+
+  private @Nullable AreaL boundsOf(final Object item)
+  {
+    if (!this.objects.containsKey(item)) {
+      return null;
+    }
+    return this.nodes.boundsOf(item, this.objects.getLong(item));
+  }
+
+  @Override
+  public AreaL bounds()
+  {
+    return this.nodes.area();
+  }
+
+  @Override
+  public boolean insert(
+    final T item,
+    final AreaL item_bounds)
+  {
+    NullCheck.notNull(item_bounds, "Bounds");
+    return this.insert(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY());
+  }
+
+  @Override
+  public boolean insert(
+    final T item,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    NullCheck.notNull(item, "Item");
+    Regions.checkArea(x0, x1, y0, y1);
+
+    if (this.objects.containsKey(item)) {
+      this.remove(item);
+      Invariants.checkInvariant(
+        item,
+        !this.objects.containsKey(item),
+        x -> "Item must not be in tree");
+    }
+
+    return this.expandToContain(x0, x1, y0, y1)
+      && this.ownNodes().insert(item, x0, x1, y0, y1);
+  }
+
+  @Override
+  public boolean contains(final T item)
+  {
+    return this.objects.containsKey(item);
+  }
+
+  @Override
+  public boolean remove(final T item)
+  {
+    NullCheck.notNull(item, "Item");
+
+    if (!this.objects.containsKey(item)) {
+      return false;
+    }
+
+    this.ownNodes().removeObject(item, this.objects.getLong(item));
+    return true;
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final AreaL item_bounds)
+  {
+    NullCheck.notNull(item_bounds, "Bounds");
+    return this.move(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY());
+  }
+
+  @Override
+  public boolean move(
+    final T item,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    NullCheck.notNull(item, "Item");
+    Regions.checkArea(x0, x1, y0, y1);
+
+    if (!this.objects.containsKey(item)) {
+      return false;
+    }
+
+    if (!this.expandToContain(x0, x1, y0, y1)) {
+      return false;
+    }
+
+    /*
+     * Growing the tree changes the keys of all quadrants, so the key of the
+     * quadrant holding the object is only read once the tree has grown.
+     */
+
+    this.ownNodes().moveObject(
+      item, this.objects.getLong(item), x0, x1, y0, y1);
+    return true;
+  }
+
+  @Override
+  public void setQueryListener(
+    final Optional<TreeQueryListenerType> in_listener)
+  {
+    NullCheck.notNull(in_listener, "Listener");
+    this.listener = in_listener.orElse(null);
+  }
+
+  @Override
+  public void clear()
+  {
+    this.nodes = new QuadTreeLinearNodesL<>(this, this.nodes.area());
+    this.shared = false;
+    this.objects.clear();
+  }
+
+  @Override
+  public QuadTreeReadableLType<T> snapshot()
+  {
+    this.shared = true;
+    return new Snapshot(this.nodes.queries(), (long) this.objects.size());
+  }
+
+  /**
+   * @return The quadrants of the tree, first replacing them with a copy if
+   * they are shared with a snapshot
+   */
+
+  private QuadTreeLinearNodesL<T> ownNodes()
+  {
+    if (this.shared) {
+      this.nodes = this.nodes.copy();
+      this.shared = false;
+    }
+    return this.nodes;
+  }
+
+  /**
+   * Grow the root of the tree until it contains the given bounds, if the
+   * tree is configured to expand.
+   *
+   * @return {@code true} iff the root of the tree contains the given bounds
+   */
+
+  private boolean expandToContain(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    if (this.config.expandable()) {
+      while (!this.nodes.contains(x0, x1, y0, y1)) {
+        if (!this.ownNodes().expandTowards(x0, y0)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return this.nodes.contains(x0, x1, y0, y1);
+  }
+
+  @Override
+  public <U> QuadTreeLType<U> map(final BiFunction<T, AreaL, U> f)
+  {
+    NullCheck.notNull(f, "Function");
+
+    final QuadTreeLType<U> qt = new QuadTreeLinearL<>(this.config);
+    final ObjectIterator<Reference2LongMap.Entry<T>> iter =
+      this.objects.reference2LongEntrySet().fastIterator();
+
+    while (iter.hasNext()) {
+      final Reference2LongMap.Entry<T> entry = iter.next();
+      final T item = entry.getKey();
+      final AreaL item_area = this.nodes.boundsOf(item, entry.getLongValue());
+      qt.insert(f.apply(item, item_area), item_area);
+    }
+    return qt;
+  }
+
+  @Override
+  public <C> void iterateQuadrants(
+    final C context,
+    final QuadTreeQuadrantIterationLType<T, C> f)
+  {
+    NullCheck.notNull(context, "Context");
+    NullCheck.notNull(f, "Function");
+    this.nodes.queries().iterateQuadrants(context, f);
+  }
+
+  @Override
+  public AreaL areaFor(final T item)
+  {
+    NullCheck.notNull(item, "Item");
+
+    final @Nullable AreaL bounds = this.boundsOf(item);
+    if (bounds == null) {
+      throw new NoSuchElementException(item.toString());
+    }
+    return bounds;
+  }
+
+  @Override
+  public void containedBy(
+    final AreaL area,
+    final QuadTreeQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(area, "Area");
+    this.containedBy(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY(),
+      consumer);
+  }
+
+  @Override
+  public void containedBy(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final QuadTreeQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.nodes.queries().areaContaining(x0, x1, y0, y1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+  }
+
+  @Override
+  public long count(final AreaL area)
+  {
+    NullCheck.notNull(area, "Area");
+    return this.count(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY());
+  }
+
+  @Override
+  public long count(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    final long count = this.nodes.queries().countContaining(
+      x0, x1, y0, y1, counters);
+    counters.hits(count);
+    counters.report(TreeQueryKind.QUERY_COUNT);
+    return count;
+  }
+
+  @Override
+  public void overlappedBy(
+    final AreaL area,
+    final QuadTreeQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(area, "Area");
+    this.overlappedBy(
+      area.minimumX(),
+      area.maximumX(),
+      area.minimumY(),
+      area.maximumY(),
+      consumer);
+  }
+
+  @Override
+  public void overlappedBy(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final QuadTreeQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(consumer, "Consumer");
+    Regions.checkArea(x0, x1, y0, y1);
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.nodes.queries().areaOverlapping(x0, x1, y0, y1, consumer, counters);
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
+  }
+
+  @Override
+  public void overlappedByAll(
+    final List<AreaL> areas,
+    final QuadTreeBatchQueryConsumerLType<T> consumer)
+  {
+    this.overlappedByAllFrom(this.nodes.queries(), areas, consumer);
+  }
+
+  private void overlappedByAllFrom(
+    final QuadTreeLinearQueriesL<T> start,
+    final List<AreaL> areas,
+    final QuadTreeBatchQueryConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(areas, "Areas");
+    NullCheck.notNull(consumer, "Consumer");
+
+    /*
+     * Pack the query areas into a single array, and carry the indices of
+     * the queries that overlap each quadrant down the tree on a shared
+     * stack of query indices.
+     */
+
+    final long[] targets = new long[areas.size() * 4];
+    final IntArrayList active = new IntArrayList(areas.size());
+    for (int index = 0; index < areas.size(); ++index) {
+      final AreaL area = NullCheck.notNull(areas.get(index), "Area");
+      final int base = index * 4;
+      targets[base] = area.minimumX();
+      targets[base + 1] = area.maximumX();
+      targets[base + 2] = area.minimumY();
+      targets[base + 3] = area.maximumY();
+      if (AreasL.overlaps(area, start.area())) {
+        active.add(index);
+      }
+    }
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    counters.testNodes(areas.size());
+    if (!active.isEmpty()) {
+      start.areaOverlappingAll(targets, active, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_ALL);
+  }
+
+  @Override
+  public void containedByParallel(
+    final AreaL area,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.queryParallel(this.nodes.queries(), area, true, pool, items);
+  }
+
+  @Override
+  public void overlappedByParallel(
+    final AreaL area,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    this.queryParallel(this.nodes.queries(), area, false, pool, items);
+  }
+
+  private void queryParallel(
+    final QuadTreeLinearQueriesL<T> start,
+    final AreaL area,
+    final boolean contained,
+    final ForkJoinPool pool,
+    final Set<T> items)
+  {
+    NullCheck.notNull(area, "Area");
+    NullCheck.notNull(pool, "Pool");
+    NullCheck.notNull(items, "Items");
+
+    /*
+     * Find the quadrants that may hold matching objects on the calling
+     * thread, and then test the objects that they hold on the pool.
+     */
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    final List<NodeObjectsL<T>> candidates = new ArrayList<>();
+    start.parallelCandidates(area, contained, candidates, counters);
+    final List<T> matched = ParallelQuery.execute(
+      pool,
+      this.config.parallelQueryThreshold(),
+      candidates,
+      NodeObjectsL::size,
+      (node, from, to, results) -> QuadTreeLinearQueriesL.areaMatching(
+        node, area, contained, from, to, results));
+    items.addAll(matched);
+
+    if (counters.isEnabled()) {
+      for (int index = 0; index < candidates.size(); ++index) {
+        counters.testObjects(candidates.get(index).size());
+      }
+      counters.hits((long) matched.size());
+      if (contained) {
+        counters.report(TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL);
+      } else {
+        counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL);
+      }
+    }
+  }
+
+  @Override
+  public void raycast(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.nodes.queries().raycast(ray, consumer, false, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+
+  @Override
+  public void raycastEntry(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(consumer, "Consumer");
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    this.nodes.queries().raycast(ray, consumer, true, counters);
+    counters.report(TreeQueryKind.QUERY_RAYCAST);
+  }
+
+  @Override
+  public void raycastAll(
+    final List<Ray2D> rays,
+    final QuadTreeBatchRaycastConsumerLType<T> consumer)
+  {
+    this.raycastAllFrom(this.nodes.queries(), rays, consumer);
+  }
+
+  private void raycastAllFrom(
+    final QuadTreeLinearQueriesL<T> start,
+    final List<Ray2D> rays,
+    final QuadTreeBatchRaycastConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(rays, "Rays");
+    NullCheck.notNull(consumer, "Consumer");
+
+    /*
+     * Copy the rays into an array, and carry the indices of the rays that
+     * intersect each quadrant down the tree on a shared stack of ray indices.
+     */
+
+    final AreaL area = start.area();
+    final Ray2D[] packet = new Ray2D[rays.size()];
+    final IntArrayList active = new IntArrayList(packet.length);
+    for (int index = 0; index < packet.length; ++index) {
+      final Ray2D ray = NullCheck.notNull(rays.get(index), "Ray");
+      packet[index] = ray;
+      if (ray.intersectsArea(
+        (double) area.minimumX(),
+        (double) area.minimumY(),
+        (double) area.maximumX(),
+        (double) area.maximumY())) {
+        active.add(index);
+      }
+    }
+
+    final QueryCounters counters = QueryCounters.create(this.listener);
+    counters.testNodes(packet.length);
+    if (!active.isEmpty()) {
+      start.raycastAll(packet, active, consumer, counters);
+    }
+    counters.report(TreeQueryKind.QUERY_RAYCAST_ALL);
+  }
+
+  @Override
+  public void raycastUpTo(
+    final Ray2D ray,
+    final double max_distance,
+    final int limit,
+    final List<QuadTreeRaycastResultL<T>> items)
+  {
+    this.raycastUpToFrom(this.nodes.queries(), ray, max_distance, limit, items);
+  }
+
+  private void raycastUpToFrom(
+    final QuadTreeLinearQueriesL<T> start,
+    final Ray2D ray,
+    final double max_distance,
+    final int limit,
+    final List<QuadTreeRaycastResultL<T>> items)
+  {
+    NullCheck.notNull(ray, "Ray");
+    NullCheck.notNull(items, "Items");
+
+    if (limit > 0) {
+      final QueryCounters counters = QueryCounters.create(this.listener);
+      final NearestResults<QuadTreeRaycastResultL<T>> results =
+        new NearestResults<>(QuadTreeRaycastResultL::distance, max_distance, limit);
+      start.raycastNearest(
+        ray,
+        Vectors2D.magnitude(ray.direction()),
+        directionMask(ray),
+        results,
+        counters);
+      counters.hits((long) results.size());
+      items.addAll(results.drainSorted());
+      counters.report(TreeQueryKind.QUERY_RAYCAST_UP_TO);
+    }
+  }
+
+  @Override
+  public void nearest(
+    final Vector2D point,
+    final int k,
+    final QuadTreeNearestConsumerLType<T> consumer)
+  {
+    this.nearestFrom(this.nodes.queries(), point, k, consumer);
+  }
+
+  private void nearestFrom(
+    final QuadTreeLinearQueriesL<T> start,
+    final Vector2D point,
+    final int k,
+    final QuadTreeNearestConsumerLType<T> consumer)
+  {
+    NullCheck.notNull(point, "Point");
+    NullCheck.notNull(consumer, "Consumer");
+
+    if (k > 0) {
+      final QueryCounters counters = QueryCounters.create(this.listener);
+      final double px = point.x();
+      final double py = point.y();
+      final NearestResults<NearestItem<T, AreaL>> results =
+        new NearestResults<>(NearestItem::distance, Double.POSITIVE_INFINITY, k);
+
+      /*
+       * Visit quadrants in order of increasing distance from the point,
+       * stopping when the nearest unvisited quadrant is further away than
+       * any result that could still be accepted.
+       */
+
+      final NodeQueue<QuadTreeLinearQueriesL.Cell> queue = new NodeQueue<>();
+      final QuadTreeLinearQueriesL.Cell root = start.rootCell();
+      counters.testNodes(1);
+      queue.add(root, start.distanceTo(root, px, py));
+      while (!queue.isEmpty() && queue.peekDistance() <= results.bound()) {
+        start.nearest(queue.poll(), px, py, results, queue, counters);
+      }
+
+      for (final NearestItem<T, AreaL> result : results.drainSorted()) {
+        final AreaL item_area = result.bounds();
+        counters.hits(1L);
+        final TreeVisitResult visit = consumer.accept(
+          result.item(),
+          item_area.minimumX(),
+          item_area.maximumX(),
+          item_area.minimumY(),
+          item_area.maximumY(),
+          result.distance());
+        if (visit == TreeVisitResult.RESULT_TERMINATE) {
+          break;
+        }
+      }
+      counters.report(TreeQueryKind.QUERY_NEAREST);
+    }
+  }
+
+  /**
+   * @return A mask with bit 0 set if the ray points towards negative X, and
+   * bit 1 set if the ray points towards negative Y
+   */
+
+  private static int directionMask(final Ray2D ray)
+  {
+    final Vector2D direction = ray.direction();
+    final int x_mask = direction.x() < 0.0 ? 0b01 : 0;
+    final int y_mask = direction.y() < 0.0 ? 0b10 : 0;
+    return x_mask | y_mask;
+  }
+
+  /**
+   * An immutable snapshot of the tree. The snapshot shares the quadrants of
+   * the tree as they were at the time that the snapshot was taken, and the
+   * tree copies the quadrants before it is next modified. The
+   * index used by {@code contains} and by bounds lookups is built by a full
+   * traversal on first use, and is then reused for the life of the snapshot.
+   */
+
+  private final class Snapshot implements QuadTreeReadableLType<T>
+  {
+    private final QuadTreeLinearQueriesL<T> queries;
+    private final long size;
+    private volatile @Nullable Reference2ReferenceOpenHashMap<T, AreaL> index;
+
+    private Snapshot(
+      final QuadTreeLinearQueriesL<T> in_queries,
+      final long in_size)
+    {
+      this.queries = NullCheck.notNull(in_queries, "Queries");
+      this.size = in_size;
+    }
+
+    /**
+     * @return A map from objects to their bounds, built on first use
+     */
+
+    private Reference2ReferenceOpenHashMap<T, AreaL> index()
+    {
+      final @Nullable Reference2ReferenceOpenHashMap<T, AreaL> current =
+        this.index;
+      if (current != null) {
+        return current;
+      }
+
+      final Reference2ReferenceOpenHashMap<T, AreaL> result =
+        new Reference2ReferenceOpenHashMap<>((int) this.size);
+      this.queries.collectAll((item, x0, x1, y0, y1) -> {
+        result.put(item, AreaL.of(x0, x1, y0, y1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      this.index = result;
+      return result;
+    }
+
+    @Override
+    public long size()
+    {
+      return this.size;
+    }
+
+    @Override
+    public AreaL bounds()
+    {
+      return this.queries.area();
+    }
+
+    @Override
+    public boolean contains(final T item)
+    {
+      return this.index().containsKey(item);
+    }
+
+    @Override
+    public <U> QuadTreeReadableLType<U> map(final BiFunction<T, AreaL, U> f)
+    {
+      NullCheck.notNull(f, "Function");
+
+      final QuadTreeLType<U> qt =
+        new QuadTreeLinearL<>(QuadTreeLinearL.this.config);
+      this.queries.collectAll((item, x0, x1, y0, y1) -> {
+        final AreaL item_bounds = AreaL.of(x0, x1, y0, y1);
+        qt.insert(f.apply(item, item_bounds), item_bounds);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      return qt;
+    }
+
+    @Override
+    public <C> void iterateQuadrants(
+      final C context,
+      final QuadTreeQuadrantIterationLType<T, C> f)
+    {
+      NullCheck.notNull(context, "Context");
+      NullCheck.notNull(f, "Function");
+      this.queries.iterateQuadrants(context, f);
+    }
+
+    @Override
+    public AreaL areaFor(final T item)
+    {
+      NullCheck.notNull(item, "Item");
+
+      final @Nullable AreaL bounds = this.index().get(item);
+      if (bounds == null) {
+        throw new NoSuchElementException(item.toString());
+      }
+      return bounds;
+    }
+
+    @Override
+    public void containedBy(
+      final AreaL area,
+      final QuadTreeQueryConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(area, "Area");
+      this.containedBy(
+        area.minimumX(),
+        area.maximumX(),
+        area.minimumY(),
+        area.maximumY(),
+        consumer);
+    }
+
+    @Override
+    public void containedBy(
+      final long x0,
+      final long x1,
+      final long y0,
+      final long y1,
+      final QuadTreeQueryConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(consumer, "Consumer");
+      Regions.checkArea(x0, x1, y0, y1);
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeLinearL.this.listener);
+      this.queries.areaContaining(x0, x1, y0, y1, consumer, counters);
+      counters.report(TreeQueryKind.QUERY_CONTAINED_BY);
+    }
+
+    @Override
+    public long count(final AreaL area)
+    {
+      NullCheck.notNull(area, "Area");
+      return this.count(
+        area.minimumX(),
+        area.maximumX(),
+        area.minimumY(),
+        area.maximumY());
+    }
+
+    @Override
+    public long count(
+      final long x0,
+      final long x1,
+      final long y0,
+      final long y1)
+    {
+      Regions.checkArea(x0, x1, y0, y1);
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeLinearL.this.listener);
+      final long count = this.queries.countContaining(x0, x1, y0, y1, counters);
+      counters.hits(count);
+      counters.report(TreeQueryKind.QUERY_COUNT);
+      return count;
+    }
+
+    @Override
+    public void overlappedBy(
+      final AreaL area,
+      final QuadTreeQueryConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(area, "Area");
+      this.overlappedBy(
+        area.minimumX(),
+        area.maximumX(),
+        area.minimumY(),
+        area.maximumY(),
+        consumer);
+    }
+
+    @Override
+    public void overlappedBy(
+      final long x0,
+      final long x1,
+      final long y0,
+      final long y1,
+      final QuadTreeQueryConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(consumer, "Consumer");
+      Regions.checkArea(x0, x1, y0, y1);
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeLinearL.this.listener);
+      this.queries.areaOverlapping(x0, x1, y0, y1, consumer, counters);
+      counters.report(TreeQueryKind.QUERY_OVERLAPPED_BY);
+    }
+
+    @Override
+    public void overlappedByAll(
+      final List<AreaL> areas,
+      final QuadTreeBatchQueryConsumerLType<T> consumer)
+    {
+      QuadTreeLinearL.this.overlappedByAllFrom(this.queries, areas, consumer);
+    }
+
+    @Override
+    public void containedByParallel(
+      final AreaL area,
+      final ForkJoinPool pool,
+      final Set<T> items)
+    {
+      QuadTreeLinearL.this.queryParallel(this.queries, area, true, pool, items);
+    }
+
+    @Override
+    public void overlappedByParallel(
+      final AreaL area,
+      final ForkJoinPool pool,
+      final Set<T> items)
+    {
+      QuadTreeLinearL.this.queryParallel(this.queries, area, false, pool, items);
+    }
+
+    @Override
+    public void raycast(
+      final Ray2D ray,
+      final QuadTreeRaycastConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(ray, "Ray");
+      NullCheck.notNull(consumer, "Consumer");
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeLinearL.this.listener);
+      this.queries.raycast(ray, consumer, false, counters);
+      counters.report(TreeQueryKind.QUERY_RAYCAST);
+    }
+
+    @Override
+    public void raycastEntry(
+      final Ray2D ray,
+      final QuadTreeRaycastConsumerLType<T> consumer)
+    {
+      NullCheck.notNull(ray, "Ray");
+      NullCheck.notNull(consumer, "Consumer");
+      final QueryCounters counters =
+        QueryCounters.create(QuadTreeLinearL.this.listener);
+      this.queries.raycast(ray, consumer, true, counters);
+      counters.report(TreeQueryKind.QUERY_RAYCAST);
+    }
+
+    @Override
+    public void raycastAll(
+      final List<Ray2D> rays,
+      final QuadTreeBatchRaycastConsumerLType<T> consumer)
+    {
+      QuadTreeLinearL.this.raycastAllFrom(this.queries, rays, consumer);
+    }
+
+    @Override
+    public void raycastUpTo(
+      final Ray2D ray,
+      final double max_distance,
+      final int limit,
+      final List<QuadTreeRaycastResultL<T>> items)
+    {
+      QuadTreeLinearL.this.raycastUpToFrom(
+        this.queries, ray, max_distance, limit, items);
+    }
+
+    @Override
+    public void nearest(
+      final Vector2D point,
+      final int k,
+      final QuadTreeNearestConsumerLType<T> consumer)
+    {
+      QuadTreeLinearL.this.nearestFrom(this.queries, point, k, consumer);
+    }
+  }
+}
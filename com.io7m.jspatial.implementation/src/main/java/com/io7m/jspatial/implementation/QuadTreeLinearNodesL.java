@@ -0,0 +1,797 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jaffirm.core.Preconditions;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.areas.AreaL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The quadrants of a {@link QuadTreeLinearL}, held in a {@link MortonTableL}.
+ *
+ * The quadrants are exactly those of a {@link QuadTreeL} that has been
+ * subjected to the same operations, but the area of each quadrant is not
+ * stored: It is derived from the area of the root while descending the
+ * tree, and so traversals carry the area of the current quadrant with them.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class QuadTreeLinearNodesL<T>
+{
+  private static final int DIGIT_BITS = 2;
+
+  private static final int STRIDE = 4;
+
+  private final QuadTreeLinearL<T> tree;
+
+  private final MortonTableL<T> table;
+
+  private final double looseness;
+
+  private AreaL area;
+
+  private QuadTreeLinearQueriesL<T> queries;
+
+  QuadTreeLinearNodesL(
+    final QuadTreeLinearL<T> in_tree,
+    final AreaL in_area)
+  {
+    this(in_tree, new MortonTableL<>(DIGIT_BITS, STRIDE, true), in_area);
+  }
+
+  private QuadTreeLinearNodesL(
+    final QuadTreeLinearL<T> in_tree,
+    final MortonTableL<T> in_table,
+    final AreaL in_area)
+  {
+    this.tree = NullCheck.notNull(in_tree, "Tree");
+    this.table = NullCheck.notNull(in_table, "Table");
+    this.area = NullCheck.notNull(in_area, "Area");
+    this.looseness = in_tree.configuration().looseness();
+    this.queries =
+      new QuadTreeLinearQueriesL<>(this.table, this.area, this.looseness);
+  }
+
+  /**
+   * @return A copy of these quadrants that may be modified without
+   * affecting this instance
+   */
+
+  QuadTreeLinearNodesL<T> copy()
+  {
+    return new QuadTreeLinearNodesL<>(this.tree, this.table.copy(), this.area);
+  }
+
+  /**
+   * @return The queries over the quadrants as they currently are
+   */
+
+  QuadTreeLinearQueriesL<T> queries()
+  {
+    return this.queries;
+  }
+
+  /**
+   * @return The area of the root quadrant
+   */
+
+  AreaL area()
+  {
+    return this.area;
+  }
+
+  private static long lower(
+    final long minimum,
+    final long maximum,
+    final boolean upper)
+  {
+    return upper ? minimum + ((maximum - minimum) / 2L) : minimum;
+  }
+
+  private static long upper(
+    final long minimum,
+    final long maximum,
+    final boolean upper)
+  {
+    return upper ? maximum : minimum + ((maximum - minimum) / 2L);
+  }
+
+  /**
+   * @return The margin by which a quadrant at the given depth is enlarged
+   * on an axis on which its size is {@code size}
+   */
+
+  private long margin(
+    final long size,
+    final int level)
+  {
+    if (level == 0 || this.looseness <= 1.0) {
+      return 0L;
+    }
+    return QuadrantsL.margin(size, this.looseness);
+  }
+
+  /**
+   * @return {@code true} iff the root quadrant contains the given bounds
+   */
+
+  boolean contains(
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1)
+  {
+    return Regions.containsArea(
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY(),
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1);
+  }
+
+  private boolean quadrantContains(
+    final int level,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1)
+  {
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    return Regions.containsArea(
+      QuadrantsL.lower(x0, margin_x),
+      QuadrantsL.upper(x1, margin_x),
+      QuadrantsL.lower(y0, margin_y),
+      QuadrantsL.upper(y1, margin_y),
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1);
+  }
+
+  /**
+   * Grow the tree towards the given bounds. The root quadrant becomes one of
+   * the four children of a new root quadrant with twice its width and height.
+   *
+   * @return {@code false} if the tree cannot grow further
+   */
+
+  boolean expandTowards(
+    final long item_x0,
+    final long item_y0)
+  {
+    final boolean lower_x = item_x0 < this.area.minimumX();
+    final boolean lower_y = item_y0 < this.area.minimumY();
+    final Optional<AreaL> extended_opt =
+      QuadrantsL.extend(this.area, lower_x, lower_y);
+    if (!extended_opt.isPresent()) {
+      return false;
+    }
+
+    final int digit = (lower_x ? 1 : 0) + (lower_y ? 2 : 0);
+    this.table.raise(digit, this.tree.objectIndex());
+    this.area = extended_opt.get();
+    this.queries =
+      new QuadTreeLinearQueriesL<>(this.table, this.area, this.looseness);
+    return true;
+  }
+
+  boolean insert(
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1)
+  {
+    Preconditions.checkPrecondition(
+      item,
+      !this.tree.objectIndex().containsKey(item),
+      x -> "Object must not be in tree");
+
+    return this.contains(item_x0, item_x1, item_y0, item_y1)
+      && this.insertStep(
+      item,
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1,
+      0L,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY());
+  }
+
+  private boolean insertStep(
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1,
+    final long key,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    /*
+     * The object will be held by this quadrant or one of its descendants.
+     */
+
+    final int index = this.table.find(key);
+    this.table.addSubtree(index, 1);
+
+    /*
+     * If this quadrant is a leaf, is full, and is large enough to split,
+     * do so. Otherwise, insert directly.
+     */
+
+    if (this.table.isLeaf(index)) {
+      if (this.isFull(index) && this.canSplit(key, x0, x1, y0, y1)) {
+        this.split(key, x0, x1, y0, y1);
+      } else {
+        return this.insertObject(key, item, item_x0, item_x1, item_y0, item_y1);
+      }
+    }
+
+    /*
+     * See if the object will fit in any of the children.
+     */
+
+    final int child = this.childIndexContaining(
+      MortonTableL.level(key),
+      x0, x1, y0, y1,
+      item_x0, item_x1, item_y0, item_y1);
+
+    if (child < 4) {
+      final boolean ux = (child & 1) != 0;
+      final boolean uy = (child & 2) != 0;
+      return this.insertStep(
+        item,
+        item_x0,
+        item_x1,
+        item_y0,
+        item_y1,
+        this.table.childKey(key, child),
+        lower(x0, x1, ux), upper(x0, x1, ux),
+        lower(y0, y1, uy), upper(y0, y1, uy));
+    }
+
+    return this.insertObject(key, item, item_x0, item_x1, item_y0, item_y1);
+  }
+
+  private boolean insertObject(
+    final long key,
+    final T item,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1)
+  {
+    this.tree.objectIndex().put(item, key);
+    this.table.ownObjects(this.table.find(key))
+      .addArea(item, item_x0, item_x1, item_y0, item_y1);
+    return true;
+  }
+
+  private void split(
+    final long key,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    final int index = this.table.find(key);
+    this.table.split(index);
+
+    /*
+     * Move any objects held by the newly split quadrant into the children
+     * that can contain them. The children are only ever added after the
+     * quadrant, so the quadrant's index is unaffected by the insertions.
+     */
+
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects == null || objects.isEmpty()) {
+      return;
+    }
+
+    final NodeObjectsL<T> owned = this.table.ownObjects(index);
+    final int level = MortonTableL.level(key);
+    int position = 0;
+    while (position < owned.size()) {
+      final T item = owned.item(position);
+      final long[] coordinates = owned.coordinates();
+      final int base = position * STRIDE;
+      final long item_x0 = coordinates[base];
+      final long item_x1 = coordinates[base + 1];
+      final long item_y0 = coordinates[base + 2];
+      final long item_y1 = coordinates[base + 3];
+      final int child = this.childIndexContaining(
+        level,
+        x0, x1, y0, y1,
+        item_x0, item_x1, item_y0, item_y1);
+      if (child < 4) {
+        owned.removeAt(position);
+        final boolean ux = (child & 1) != 0;
+        final boolean uy = (child & 2) != 0;
+        this.insertStep(
+          item,
+          item_x0,
+          item_x1,
+          item_y0,
+          item_y1,
+          this.table.childKey(key, child),
+          lower(x0, x1, ux), upper(x0, x1, ux),
+          lower(y0, y1, uy), upper(y0, y1, uy));
+      } else {
+        ++position;
+      }
+    }
+  }
+
+  /**
+   * Build the quadrants below the root from the items in {@code bulk}, all of
+   * which are known to fit within the root. The root must be an empty leaf.
+   * If {@code parallel} is {@code true}, objects are not added to the tree's
+   * index of items (see {@link #register()}), and the subtrees below any
+   * quadrant that receives enough objects are built by separate fork/join
+   * tasks. The method must then be called from within a fork/join pool.
+   */
+
+  void build(
+    final BulkItems<T, AreaL> bulk,
+    final boolean parallel)
+  {
+    Preconditions.checkPrecondition(
+      this.table.size() == 1 && this.table.subtree(0) == 0,
+      "Root must be an empty leaf");
+
+    this.buildStep(
+      bulk,
+      0,
+      bulk.size(),
+      0,
+      0L,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY(),
+      parallel);
+  }
+
+  /**
+   * Build the subtree rooted at the quadrant at {@code index}, which must be
+   * the last quadrant in the table, from the items in the range
+   * {@code [start, end)} of {@code bulk}. Quadrants are appended in key
+   * order, so no existing quadrants are moved.
+   */
+
+  private void buildStep(
+    final BulkItems<T, AreaL> bulk,
+    final int start,
+    final int end,
+    final int index,
+    final long key,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final boolean parallel)
+  {
+    final int count = end - start;
+    this.table.setSubtree(index, count);
+    final int maximum = this.tree.configuration().maximumObjectsPerLeaf();
+    final boolean full = count > 0 && (maximum <= 0 || count > maximum);
+
+    if (!full || !this.canSplit(key, x0, x1, y0, y1)) {
+      for (int item = start; item < end; ++item) {
+        this.buildObject(
+          index, key, bulk.item(item), bulk.bounds(item), parallel);
+      }
+      return;
+    }
+
+    /*
+     * Objects that do not fit into any child remain in this quadrant.
+     */
+
+    final int level = MortonTableL.level(key);
+    final int[] offsets = bulk.partition(
+      start, end, 5, bounds -> this.childIndexContaining(
+        level,
+        x0, x1, y0, y1,
+        bounds.minimumX(),
+        bounds.maximumX(),
+        bounds.minimumY(),
+        bounds.maximumY()));
+    for (int item = offsets[4]; item < offsets[5]; ++item) {
+      this.buildObject(index, key, bulk.item(item), bulk.bounds(item), parallel);
+    }
+
+    if (parallel
+      && count >= this.tree.configuration().parallelBuildThreshold()) {
+      final List<QuadTreeLinearNodesL<T>> parts = new ArrayList<>(4);
+      final List<ForkJoinTask<?>> tasks = new ArrayList<>(4);
+      for (int child = 0; child < 4; ++child) {
+        final QuadTreeLinearNodesL<T> part = new QuadTreeLinearNodesL<>(
+          this.tree, new MortonTableL<>(DIGIT_BITS, STRIDE, false), this.area);
+        final long child_key = this.table.childKey(key, child);
+        final int child_start = offsets[child];
+        final int child_end = offsets[child + 1];
+        final boolean ux = (child & 1) != 0;
+        final boolean uy = (child & 2) != 0;
+        parts.add(part);
+        tasks.add(ForkJoinTask.adapt(() -> part.buildStep(
+          bulk,
+          child_start,
+          child_end,
+          part.table.append(child_key),
+          child_key,
+          lower(x0, x1, ux), upper(x0, x1, ux),
+          lower(y0, y1, uy), upper(y0, y1, uy),
+          true)));
+      }
+      ForkJoinTask.invokeAll(tasks);
+      for (final QuadTreeLinearNodesL<T> part : parts) {
+        this.table.appendAll(part.table);
+      }
+      return;
+    }
+
+    for (int child = 0; child < 4; ++child) {
+      final long child_key = this.table.childKey(key, child);
+      final boolean ux = (child & 1) != 0;
+      final boolean uy = (child & 2) != 0;
+      this.buildStep(
+        bulk,
+        offsets[child],
+        offsets[child + 1],
+        this.table.append(child_key),
+        child_key,
+        lower(x0, x1, ux), upper(x0, x1, ux),
+        lower(y0, y1, uy), upper(y0, y1, uy),
+        parallel);
+    }
+  }
+
+  private void buildObject(
+    final int index,
+    final long key,
+    final T item,
+    final AreaL item_bounds,
+    final boolean parallel)
+  {
+    this.table.ownObjects(index).addArea(
+      item,
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY());
+    if (!parallel) {
+      this.tree.objectIndex().put(item, key);
+    }
+  }
+
+  /**
+   * Add all objects held by the quadrants to the tree's index of items.
+   */
+
+  void register()
+  {
+    for (int index = 0; index < this.table.size(); ++index) {
+      final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+      if (objects != null) {
+        final long key = this.table.key(index);
+        for (int item = 0; item < objects.size(); ++item) {
+          this.tree.objectIndex().put(objects.item(item), key);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The index of the first child of the given quadrant that can
+   * contain the given bounds, or {@code 4} if no child can contain them
+   */
+
+  private int childIndexContaining(
+    final int level,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1)
+  {
+    final int child_level = level + 1;
+
+    if (this.looseness > 1.0) {
+
+      /*
+       * Compute the centre without overflowing for bounds that span most of
+       * the coordinate range, and select the child whose area contains it.
+       */
+
+      final long centre_x =
+        (item_x0 >> 1) + (item_x1 >> 1) + (item_x0 & item_x1 & 1L);
+      final long centre_y =
+        (item_y0 >> 1) + (item_y1 >> 1) + (item_y0 & item_y1 & 1L);
+
+      final boolean ux = centre_x >= lower(x0, x1, true);
+      final boolean uy = centre_y >= lower(y0, y1, true);
+      if (this.quadrantContains(
+        child_level,
+        lower(x0, x1, ux), upper(x0, x1, ux),
+        lower(y0, y1, uy), upper(y0, y1, uy),
+        item_x0, item_x1, item_y0, item_y1)) {
+        return (ux ? 1 : 0) + (uy ? 2 : 0);
+      }
+      return 4;
+    }
+
+    for (int child = 0; child < 4; ++child) {
+      final boolean ux = (child & 1) != 0;
+      final boolean uy = (child & 2) != 0;
+      if (this.quadrantContains(
+        child_level,
+        lower(x0, x1, ux), upper(x0, x1, ux),
+        lower(y0, y1, uy), upper(y0, y1, uy),
+        item_x0, item_x1, item_y0, item_y1)) {
+        return child;
+      }
+    }
+    return 4;
+  }
+
+  private boolean isFull(final int index)
+  {
+    final int maximum = this.tree.configuration().maximumObjectsPerLeaf();
+    return maximum <= 0 || this.table.objectCount(index) >= maximum;
+  }
+
+  private boolean canSplit(
+    final long key,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    final long depth = (long) MortonTableL.level(key);
+    if (depth >= this.tree.configuration().maximumDepth()
+      || depth >= (long) this.table.maximumLevel()) {
+      return false;
+    }
+
+    final long min_width =
+      Math.max(2L, this.tree.configuration().minimumQuadrantWidth());
+    final long min_height =
+      Math.max(2L, this.tree.configuration().minimumQuadrantHeight());
+
+    final long half_width = (x1 - x0) / 2L;
+    final long half_height = (y1 - y0) / 2L;
+
+    return half_width >= min_width && half_height >= min_height;
+  }
+
+  /**
+   * @return The area of the quadrant with the given key, followed by the
+   * areas of each of its ancestors in order of decreasing depth
+   */
+
+  private long[] areasAlongPath(final long key)
+  {
+    final int level = MortonTableL.level(key);
+    final long[] areas = new long[(level + 1) * 4];
+    long current = key;
+    for (int depth = level; depth > 0; --depth) {
+      final int digit = this.table.digit(current);
+      areas[(level - depth) * 4] = (long) digit;
+      current = this.table.parentKey(current);
+    }
+
+    /*
+     * The digits of the path were recorded above; replace them with areas
+     * by descending from the root.
+     */
+
+    long x0 = this.area.minimumX();
+    long x1 = this.area.maximumX();
+    long y0 = this.area.minimumY();
+    long y1 = this.area.maximumY();
+    for (int depth = 1; depth <= level; ++depth) {
+      final int base = (level - depth) * 4;
+      final int digit = (int) areas[base];
+      final boolean ux = (digit & 1) != 0;
+      final boolean uy = (digit & 2) != 0;
+      final long nx0 = lower(x0, x1, ux);
+      final long nx1 = upper(x0, x1, ux);
+      final long ny0 = lower(y0, y1, uy);
+      final long ny1 = upper(y0, y1, uy);
+      x0 = nx0;
+      x1 = nx1;
+      y0 = ny0;
+      y1 = ny1;
+      areas[base] = x0;
+      areas[base + 1] = x1;
+      areas[base + 2] = y0;
+      areas[base + 3] = y1;
+    }
+
+    final int root = level * 4;
+    areas[root] = this.area.minimumX();
+    areas[root + 1] = this.area.maximumX();
+    areas[root + 2] = this.area.minimumY();
+    areas[root + 3] = this.area.maximumY();
+    return areas;
+  }
+
+  /**
+   * Move an object held by the quadrant with key {@code key} to new bounds.
+   * The nearest ancestor (or the quadrant itself) that can contain the new
+   * bounds is located by climbing the tree, and the object is re-inserted
+   * from there.
+   */
+
+  void moveObject(
+    final T item,
+    final long key,
+    final long item_x0,
+    final long item_x1,
+    final long item_y0,
+    final long item_y1)
+  {
+    final int index = this.table.find(key);
+    final NodeObjectsL<T> objects = this.table.ownObjects(index);
+    final int position = objects.indexOf(item);
+    Invariants.checkInvariant(position >= 0, "Object must be in this quadrant");
+
+    objects.removeAt(position);
+    this.tree.objectIndex().removeLong(item);
+
+    /*
+     * The object leaves every quadrant between this quadrant and the
+     * ancestor that can contain the new bounds, and is counted again from
+     * that ancestor downwards when it is reinserted.
+     */
+
+    final long[] areas = this.areasAlongPath(key);
+    long ancestor = key;
+    int step = 0;
+    this.table.addSubtree(index, -1);
+    while (!this.quadrantContains(
+      MortonTableL.level(ancestor),
+      areas[step],
+      areas[step + 1],
+      areas[step + 2],
+      areas[step + 3],
+      item_x0, item_x1, item_y0, item_y1)) {
+      Invariants.checkInvariant(
+        MortonTableL.level(ancestor) > 0,
+        "Root quadrant must contain the bounds");
+      ancestor = this.table.parentKey(ancestor);
+      step += 4;
+      this.table.addSubtree(this.table.find(ancestor), -1);
+    }
+
+    final boolean inserted = this.insertStep(
+      item,
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1,
+      ancestor,
+      areas[step],
+      areas[step + 1],
+      areas[step + 2],
+      areas[step + 3]);
+    Invariants.checkInvariant(inserted, "Object must have been inserted");
+
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive(key);
+    }
+  }
+
+  void removeObject(
+    final T item,
+    final long key)
+  {
+    final NodeObjectsL<T> objects =
+      this.table.ownObjects(this.table.find(key));
+    final int position = objects.indexOf(item);
+    Invariants.checkInvariant(position >= 0, "Object must be in this quadrant");
+
+    objects.removeAt(position);
+    this.tree.objectIndex().removeLong(item);
+    this.table.addSubtreeAlongPath(key, -1);
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive(key);
+    }
+  }
+
+  AreaL boundsOf(
+    final Object item,
+    final long key)
+  {
+    final @Nullable NodeObjectsL<T> objects =
+      this.table.objects(this.table.find(key));
+    Invariants.checkInvariant(objects != null, "Quadrant must hold objects");
+
+    final int position = objects.indexOf(item);
+    Invariants.checkInvariant(position >= 0, "Object must be in this quadrant");
+    return QuadTreeLinearQueriesL.boundsAt(objects, position);
+  }
+
+  /**
+   * Attempt to turn the quadrant with the given key back into a leaf.
+   */
+
+  private void unsplitAttempt(final long key)
+  {
+    final int index = this.table.find(key);
+    if (!this.table.isLeaf(index)) {
+      for (int child = 0; child < 4; ++child) {
+        final int child_index = this.table.child(index, child);
+        if (!this.table.isLeaf(child_index)
+          || this.table.objectCount(child_index) != 0) {
+          return;
+        }
+      }
+      this.table.unsplit(index);
+    }
+  }
+
+  /**
+   * Attempt to turn the quadrant with the given key and as many of its
+   * ancestors as possible back into leaves.
+   */
+
+  private void unsplitAttemptRecursive(final long key)
+  {
+    long current = key;
+    while (true) {
+      this.unsplitAttempt(current);
+      if (MortonTableL.level(current) == 0) {
+        return;
+      }
+      current = this.table.parentKey(current);
+    }
+  }
+
+  /**
+   * Turn every quadrant whose children are all empty leaves back into a
+   * leaf. The quadrants are visited in reverse key order, so the
+   * descendants of each quadrant are trimmed before the quadrant itself.
+   */
+
+  void trim()
+  {
+    for (int index = this.table.size() - 1; index >= 0; --index) {
+      this.unsplitAttempt(this.table.key(index));
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.areas.AreaL;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantLType;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMaps;
+
+import java.util.Map;
+
+/**
+ * A read-only view of a quadrant of a {@link QuadTreeLinearL}, passed to
+ * iteration functions.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class QuadTreeLinearQuadrantL<T> implements QuadTreeQuadrantLType<T>
+{
+  private final AreaL area;
+  private final @Nullable NodeObjectsL<T> objects;
+
+  QuadTreeLinearQuadrantL(
+    final AreaL in_area,
+    final @Nullable NodeObjectsL<T> in_objects)
+  {
+    this.area = in_area;
+    this.objects = in_objects;
+  }
+
+  @Override
+  public Map<T, AreaL> objects()
+  {
+    final @Nullable NodeObjectsL<T> current = this.objects;
+    if (current == null) {
+      return Reference2ReferenceMaps.emptyMap();
+    }
+
+    return new NodeObjectsMap<>(
+      current, index -> QuadTreeLinearQueriesL.boundsAt(current, index));
+  }
+
+  @Override
+  public AreaL area()
+  {
+    return this.area;
+  }
+}
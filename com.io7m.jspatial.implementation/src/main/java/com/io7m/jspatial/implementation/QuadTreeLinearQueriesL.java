@@ -0,0 +1,1310 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.areas.AreaL;
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchQueryConsumerLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchRaycastConsumerLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantIterationLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQueryConsumerLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastConsumerLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastResultL;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
+import com.io7m.junreachable.UnreachableCodeException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.List;
+
+/**
+ * The read-only queries of a {@link QuadTreeLinearL}, evaluated over the
+ * quadrants held in a {@link MortonTableL}. An instance captures the table
+ * and the area of the root, and so a snapshot of the tree can evaluate
+ * queries against the quadrants as they were when the snapshot was taken.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class QuadTreeLinearQueriesL<T>
+{
+  private static final int STRIDE = 4;
+
+  private final MortonTableL<T> table;
+  private final AreaL area;
+  private final double looseness;
+
+  QuadTreeLinearQueriesL(
+    final MortonTableL<T> in_table,
+    final AreaL in_area,
+    final double in_looseness)
+  {
+    this.table = NullCheck.notNull(in_table, "Table");
+    this.area = NullCheck.notNull(in_area, "Area");
+    this.looseness = in_looseness;
+  }
+
+  /**
+   * @return The area of the root quadrant
+   */
+
+  AreaL area()
+  {
+    return this.area;
+  }
+
+  /**
+   * @return The bounds of the object at {@code index} in {@code objects}
+   */
+
+  static <T> AreaL boundsAt(
+    final NodeObjectsL<T> objects,
+    final int index)
+  {
+    final long[] coordinates = objects.coordinates();
+    final int base = index * STRIDE;
+    return AreaL.of(
+      coordinates[base],
+      coordinates[base + 1],
+      coordinates[base + 2],
+      coordinates[base + 3]);
+  }
+
+  private static long lower(
+    final long minimum,
+    final long maximum,
+    final boolean upper)
+  {
+    return upper ? minimum + ((maximum - minimum) / 2L) : minimum;
+  }
+
+  private static long upper(
+    final long minimum,
+    final long maximum,
+    final boolean upper)
+  {
+    return upper ? maximum : minimum + ((maximum - minimum) / 2L);
+  }
+
+  /**
+   * @return The margin by which a quadrant at the given depth is enlarged
+   * on an axis on which its size is {@code size}
+   */
+
+  private long margin(
+    final long size,
+    final int level)
+  {
+    if (level == 0 || this.looseness <= 1.0) {
+      return 0L;
+    }
+    return QuadrantsL.margin(size, this.looseness);
+  }
+
+  /**
+   * Record a visit to the quadrant at {@code index}. The depth of the
+   * quadrant is only computed if statistics are being collected.
+   */
+
+  private void visited(
+    final int index,
+    final QueryCounters counters)
+  {
+    if (counters.isEnabled()) {
+      counters.visit((long) MortonTableL.level(this.table.key(index)));
+    }
+  }
+
+  private TreeVisitResult report(
+    final QuadTreeQueryConsumerLType<T> consumer,
+    final NodeObjectsL<T> objects,
+    final int index,
+    final QueryCounters counters)
+  {
+    final long[] coordinates = objects.coordinates();
+    final int base = index * STRIDE;
+    counters.hits(1L);
+    return consumer.accept(
+      objects.item(index),
+      coordinates[base],
+      coordinates[base + 1],
+      coordinates[base + 2],
+      coordinates[base + 3]);
+  }
+
+  /**
+   * Pass every object held by the quadrant at {@code index} and its
+   * descendants to {@code consumer}. The descendants occupy a contiguous
+   * range of the table, so they are visited in a single sequential pass.
+   */
+
+  private TreeVisitResult collectRange(
+    final int index,
+    final QuadTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    if (this.table.subtree(index) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final int end = this.table.end(index);
+    for (int node = index; node < end; ++node) {
+      this.visited(node, counters);
+      final @Nullable NodeObjectsL<T> objects = this.table.objects(node);
+      if (objects != null) {
+        for (int item = 0; item < objects.size(); ++item) {
+          if (this.report(consumer, objects, item, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  TreeVisitResult collectAll(
+    final QuadTreeQueryConsumerLType<T> consumer)
+  {
+    return this.collectRange(0, consumer, QueryCounters.disabled());
+  }
+
+  TreeVisitResult areaContaining(
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final QuadTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    return this.areaContainingStep(
+      0,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY(),
+      target_x0, target_x1, target_y0, target_y1,
+      consumer,
+      counters);
+  }
+
+  private TreeVisitResult areaContainingStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final QuadTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless containment checks.
+     */
+
+    if (this.table.subtree(index) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    final long bx0 = QuadrantsL.lower(x0, margin_x);
+    final long bx1 = QuadrantsL.upper(x1, margin_x);
+    final long by0 = QuadrantsL.lower(y0, margin_y);
+    final long by1 = QuadrantsL.upper(y1, margin_y);
+
+    /*
+     * If the target area completely contains this quadrant, collect
+     * everything in this quadrant and all of its descendants.
+     */
+
+    counters.testNodes(1);
+    if (Regions.containsArea(
+      target_x0, target_x1, target_y0, target_y1, bx0, bx1, by0, by1)) {
+      return this.collectRange(index, consumer, counters);
+    }
+
+    /*
+     * An object contained within the target area lies within both the
+     * target area and this quadrant, so a quadrant that does not
+     * intersect the target area cannot hold any results.
+     */
+
+    counters.visit((long) level);
+    counters.testNodes(1);
+    if (!Regions.intersectsArea(
+      target_x0, target_x1, target_y0, target_y1, bx0, bx1, by0, by1)) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      counters.testObjects(objects.size());
+      if (this.areaContainingObjects(
+        objects,
+        target_x0, target_x1, target_y0, target_y1,
+        consumer,
+        counters) == TreeVisitResult.RESULT_TERMINATE) {
+        return TreeVisitResult.RESULT_TERMINATE;
+      }
+    }
+
+    if (!this.table.isLeaf(index)) {
+      for (int child = 0; child < 4; ++child) {
+        final boolean ux = (child & 1) != 0;
+        final boolean uy = (child & 2) != 0;
+        if (this.areaContainingStep(
+          this.table.child(index, child),
+          lower(x0, x1, ux), upper(x0, x1, ux),
+          lower(y0, y1, uy), upper(y0, y1, uy),
+          target_x0, target_x1, target_y0, target_y1,
+          consumer,
+          counters) == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  private TreeVisitResult areaContainingObjects(
+    final NodeObjectsL<T> objects,
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final QuadTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    final long[] coordinates = objects.coordinates();
+    for (int item = 0; item < objects.size(); ++item) {
+      final int base = item * STRIDE;
+      if (Regions.containsArea(
+        target_x0, target_x1, target_y0, target_y1,
+        coordinates[base],
+        coordinates[base + 1],
+        coordinates[base + 2],
+        coordinates[base + 3])) {
+        if (this.report(consumer, objects, item, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  long countContaining(
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final QueryCounters counters)
+  {
+    return this.countContainingStep(
+      0,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY(),
+      target_x0, target_x1, target_y0, target_y1,
+      counters);
+  }
+
+  private long countContainingStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final QueryCounters counters)
+  {
+    if (this.table.subtree(index) == 0) {
+      return 0L;
+    }
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    final long bx0 = QuadrantsL.lower(x0, margin_x);
+    final long bx1 = QuadrantsL.upper(x1, margin_x);
+    final long by0 = QuadrantsL.lower(y0, margin_y);
+    final long by1 = QuadrantsL.upper(y1, margin_y);
+
+    /*
+     * If the target area completely contains this quadrant, it contains
+     * every object in this quadrant and all of its descendants.
+     */
+
+    counters.testNodes(1);
+    if (Regions.containsArea(
+      target_x0, target_x1, target_y0, target_y1, bx0, bx1, by0, by1)) {
+      return (long) this.table.subtree(index);
+    }
+
+    counters.visit((long) level);
+    counters.testNodes(1);
+    if (!Regions.intersectsArea(
+      target_x0, target_x1, target_y0, target_y1, bx0, bx1, by0, by1)) {
+      return 0L;
+    }
+
+    long count = 0L;
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      counters.testObjects(objects.size());
+      final long[] coordinates = objects.coordinates();
+      for (int item = 0; item < objects.size(); ++item) {
+        final int base = item * STRIDE;
+        if (Regions.containsArea(
+          target_x0, target_x1, target_y0, target_y1,
+          coordinates[base],
+          coordinates[base + 1],
+          coordinates[base + 2],
+          coordinates[base + 3])) {
+          ++count;
+        }
+      }
+    }
+
+    if (!this.table.isLeaf(index)) {
+      for (int child = 0; child < 4; ++child) {
+        final boolean ux = (child & 1) != 0;
+        final boolean uy = (child & 2) != 0;
+        count += this.countContainingStep(
+          this.table.child(index, child),
+          lower(x0, x1, ux), upper(x0, x1, ux),
+          lower(y0, y1, uy), upper(y0, y1, uy),
+          target_x0, target_x1, target_y0, target_y1,
+          counters);
+      }
+    }
+    return count;
+  }
+
+  TreeVisitResult areaOverlapping(
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final QuadTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    return this.areaOverlappingStep(
+      0,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY(),
+      target_x0, target_x1, target_y0, target_y1,
+      consumer,
+      counters);
+  }
+
+  private TreeVisitResult areaOverlappingStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long target_x0,
+    final long target_x1,
+    final long target_y0,
+    final long target_y1,
+    final QuadTreeQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless overlap checks.
+     */
+
+    if (this.table.subtree(index) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    counters.visit((long) level);
+    counters.testNodes(1);
+
+    /*
+     * If the target area overlaps this quadrant, test each object
+     * against the target area.
+     */
+
+    if (Regions.overlapsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      QuadrantsL.lower(x0, margin_x),
+      QuadrantsL.upper(x1, margin_x),
+      QuadrantsL.lower(y0, margin_y),
+      QuadrantsL.upper(y1, margin_y))) {
+      final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+      if (objects != null) {
+        counters.testObjects(objects.size());
+        final long[] coordinates = objects.coordinates();
+        final int size = objects.size();
+        for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+          long hits = BoundsEngines.get().overlapsArea(
+            coordinates,
+            first,
+            Math.min(BoundsEngines.BLOCK_SIZE, size - first),
+            target_x0, target_x1, target_y0, target_y1);
+
+          while (hits != 0L) {
+            final int item = first + Long.numberOfTrailingZeros(hits);
+            hits &= hits - 1L;
+            if (this.report(consumer, objects, item, counters)
+              == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+      }
+
+      if (!this.table.isLeaf(index)) {
+        for (int child = 0; child < 4; ++child) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          if (this.areaOverlappingStep(
+            this.table.child(index, child),
+            lower(x0, x1, ux), upper(x0, x1, ux),
+            lower(y0, y1, uy), upper(y0, y1, uy),
+            target_x0, target_x1, target_y0, target_y1,
+            consumer,
+            counters) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * Pass the objects that are intersected by {@code ray} to
+   * {@code consumer}. If {@code entry} is {@code true}, the distance passed
+   * for each object is the parametric distance at which the ray enters the
+   * bounds of the object. Otherwise, it is the distance from the origin of
+   * the ray to the minimum corner of the bounds.
+   */
+
+  TreeVisitResult raycast(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerLType<T> consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    return this.raycastStep(
+      0,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY(),
+      ray,
+      consumer,
+      entry,
+      counters);
+  }
+
+  private TreeVisitResult raycastStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerLType<T> consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.table.subtree(index) == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    counters.visit((long) level);
+    counters.testNodes(1);
+
+    /*
+     * If the ray intersects the quadrant, check each item in the quadrant
+     * against the ray.
+     */
+
+    if (ray.intersectsArea(
+      (double) QuadrantsL.lower(x0, margin_x),
+      (double) QuadrantsL.lower(y0, margin_y),
+      (double) QuadrantsL.upper(x1, margin_x),
+      (double) QuadrantsL.upper(y1, margin_y))) {
+      final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+      if (objects != null) {
+        counters.testObjects(objects.size());
+        final int size = objects.size();
+        final long[] coordinates = objects.coordinates();
+        for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+          long hits = BoundsEngines.get().intersectsArea(
+            ray,
+            coordinates,
+            first,
+            Math.min(BoundsEngines.BLOCK_SIZE, size - first));
+
+          while (hits != 0L) {
+            final int item = first + Long.numberOfTrailingZeros(hits);
+            hits &= hits - 1L;
+            if (raycastItem(ray, consumer, objects, item, entry, counters)
+              == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+      }
+
+      if (!this.table.isLeaf(index)) {
+        for (int child = 0; child < 4; ++child) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          if (this.raycastStep(
+            this.table.child(index, child),
+            lower(x0, x1, ux), upper(x0, x1, ux),
+            lower(y0, y1, uy), upper(y0, y1, uy),
+            ray,
+            consumer,
+            entry,
+            counters) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  private static <T> TreeVisitResult raycastItem(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerLType<T> consumer,
+    final NodeObjectsL<T> objects,
+    final int index,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    final long[] coordinates = objects.coordinates();
+    final int base = index * STRIDE;
+    final long item_x0 = coordinates[base];
+    final long item_x1 = coordinates[base + 1];
+    final long item_y0 = coordinates[base + 2];
+    final long item_y1 = coordinates[base + 3];
+
+    final double distance;
+    if (entry) {
+      distance = ray.intersectionParameterArea(
+        (double) item_x0,
+        (double) item_y0,
+        (double) item_x1,
+        (double) item_y1);
+    } else {
+      distance = rayDistance(ray, (double) item_x0, (double) item_y0);
+    }
+    counters.hits(1L);
+    return consumer.accept(
+      objects.item(index),
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1,
+      distance);
+  }
+
+  void raycastNearest(
+    final Ray2D ray,
+    final double length,
+    final int mask,
+    final NearestResults<QuadTreeRaycastResultL<T>> results,
+    final QueryCounters counters)
+  {
+    this.raycastNearestStep(
+      0,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY(),
+      ray,
+      length,
+      mask,
+      results,
+      counters);
+  }
+
+  private void raycastNearestStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final Ray2D ray,
+    final double length,
+    final int mask,
+    final NearestResults<QuadTreeRaycastResultL<T>> results,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.table.subtree(index) == 0) {
+      return;
+    }
+
+    /*
+     * Skip this quadrant if the ray misses it, or if it is further away
+     * than any result that could still be accepted.
+     */
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    counters.visit((long) level);
+    counters.testNodes(1);
+    final double t = ray.intersectionParameterArea(
+      (double) QuadrantsL.lower(x0, margin_x),
+      (double) QuadrantsL.lower(y0, margin_y),
+      (double) QuadrantsL.upper(x1, margin_x),
+      (double) QuadrantsL.upper(y1, margin_y));
+    if (t == Double.POSITIVE_INFINITY || t * length > results.bound()) {
+      return;
+    }
+
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      counters.testObjects(objects.size());
+      raycastNearestObjects(objects, ray, length, results);
+    }
+
+    /*
+     * Visit the children front-to-back: The first child visited is the one
+     * that lies furthest towards the origin of the ray.
+     */
+
+    if (!this.table.isLeaf(index)) {
+      for (int order = 0; order < 4; ++order) {
+        final int child = order ^ mask;
+        final boolean ux = (child & 1) != 0;
+        final boolean uy = (child & 2) != 0;
+        this.raycastNearestStep(
+          this.table.child(index, child),
+          lower(x0, x1, ux), upper(x0, x1, ux),
+          lower(y0, y1, uy), upper(y0, y1, uy),
+          ray,
+          length,
+          mask,
+          results,
+          counters);
+      }
+    }
+  }
+
+  private static <T> void raycastNearestObjects(
+    final NodeObjectsL<T> objects,
+    final Ray2D ray,
+    final double length,
+    final NearestResults<QuadTreeRaycastResultL<T>> results)
+  {
+    final long[] coordinates = objects.coordinates();
+    for (int item = 0; item < objects.size(); ++item) {
+      final int base = item * STRIDE;
+      final double item_t =
+        ray.intersectionParameterArea(
+          (double) coordinates[base],
+          (double) coordinates[base + 2],
+          (double) coordinates[base + 1],
+          (double) coordinates[base + 3]);
+
+      if (item_t < Double.POSITIVE_INFINITY) {
+        final double distance = item_t * length;
+        if (distance <= results.bound()) {
+          results.add(QuadTreeRaycastResultL.of(
+            distance, boundsAt(objects, item), objects.item(item)));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The root quadrant as a cell from which a nearest-neighbour
+   * search may begin
+   */
+
+  Cell rootCell()
+  {
+    return new Cell(
+      0,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY());
+  }
+
+  double distanceTo(
+    final Cell cell,
+    final double px,
+    final double py)
+  {
+    final int level = MortonTableL.level(this.table.key(cell.index));
+    final long margin_x = this.margin(cell.x1 - cell.x0, level);
+    final long margin_y = this.margin(cell.y1 - cell.y0, level);
+    return Distances.pointArea(
+      px, py,
+      (double) QuadrantsL.lower(cell.x0, margin_x),
+      (double) QuadrantsL.upper(cell.x1, margin_x),
+      (double) QuadrantsL.lower(cell.y0, margin_y),
+      (double) QuadrantsL.upper(cell.y1, margin_y));
+  }
+
+  void nearest(
+    final Cell cell,
+    final double px,
+    final double py,
+    final NearestResults<NearestItem<T, AreaL>> results,
+    final NodeQueue<Cell> queue,
+    final QueryCounters counters)
+  {
+    final int index = cell.index;
+    this.visited(index, counters);
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      counters.testObjects(objects.size());
+      final long[] coordinates = objects.coordinates();
+      for (int item = 0; item < objects.size(); ++item) {
+        final int base = item * STRIDE;
+        final double distance = Distances.pointArea(
+          px, py,
+          (double) coordinates[base],
+          (double) coordinates[base + 1],
+          (double) coordinates[base + 2],
+          (double) coordinates[base + 3]);
+
+        if (distance <= results.bound()) {
+          results.add(new NearestItem<>(
+            distance, objects.item(item), boundsAt(objects, item)));
+        }
+      }
+    }
+
+    /*
+     * Queue any non-empty children that could contain a result.
+     */
+
+    if (!this.table.isLeaf(index)) {
+      for (int child = 0; child < 4; ++child) {
+        final int child_index = this.table.child(index, child);
+        if (this.table.subtree(child_index) != 0) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          final Cell child_cell = new Cell(
+            child_index,
+            lower(cell.x0, cell.x1, ux), upper(cell.x0, cell.x1, ux),
+            lower(cell.y0, cell.y1, uy), upper(cell.y0, cell.y1, uy));
+          counters.testNodes(1);
+          final double child_distance = this.distanceTo(child_cell, px, py);
+          if (child_distance <= results.bound()) {
+            queue.add(child_cell, child_distance);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Add the objects of every quadrant that may hold objects that are
+   * contained within (or overlapped by, if {@code contained} is
+   * {@code false}) {@code target_area} to {@code nodes}.
+   */
+
+  void parallelCandidates(
+    final AreaL target_area,
+    final boolean contained,
+    final List<NodeObjectsL<T>> nodes,
+    final QueryCounters counters)
+  {
+    this.parallelCandidatesStep(
+      0,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY(),
+      target_area,
+      contained,
+      nodes,
+      counters);
+  }
+
+  private void parallelCandidatesStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final AreaL target_area,
+    final boolean contained,
+    final List<NodeObjectsL<T>> nodes,
+    final QueryCounters counters)
+  {
+    if (this.table.subtree(index) == 0) {
+      return;
+    }
+
+    counters.testNodes(1);
+
+    final int level = MortonTableL.level(this.table.key(index));
+    final long margin_x = this.margin(x1 - x0, level);
+    final long margin_y = this.margin(y1 - y0, level);
+    final long bx0 = QuadrantsL.lower(x0, margin_x);
+    final long bx1 = QuadrantsL.upper(x1, margin_x);
+    final long by0 = QuadrantsL.lower(y0, margin_y);
+    final long by1 = QuadrantsL.upper(y1, margin_y);
+
+    /*
+     * An object contained within {@code target_area} lies within both
+     * {@code target_area} and this quadrant, so quadrants that do not
+     * intersect {@code target_area} can be skipped.
+     */
+
+    final boolean candidate;
+    if (contained) {
+      candidate = Regions.intersectsArea(
+        target_area.minimumX(), target_area.maximumX(),
+        target_area.minimumY(), target_area.maximumY(),
+        bx0, bx1, by0, by1);
+    } else {
+      candidate = Regions.overlapsArea(
+        target_area.minimumX(), target_area.maximumX(),
+        target_area.minimumY(), target_area.maximumY(),
+        bx0, bx1, by0, by1);
+    }
+
+    if (candidate) {
+      this.visited(index, counters);
+      final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+      if (objects != null && !objects.isEmpty()) {
+        nodes.add(objects);
+      }
+      if (!this.table.isLeaf(index)) {
+        for (int child = 0; child < 4; ++child) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          this.parallelCandidatesStep(
+            this.table.child(index, child),
+            lower(x0, x1, ux), upper(x0, x1, ux),
+            lower(y0, y1, uy), upper(y0, y1, uy),
+            target_area,
+            contained,
+            nodes,
+            counters);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add the objects at indices {@code [start, end)} of {@code objects} that
+   * are contained within (or overlapped by, if {@code contained} is
+   * {@code false}) {@code target_area} to {@code results}.
+   */
+
+  static <T> void areaMatching(
+    final NodeObjectsL<T> objects,
+    final AreaL target_area,
+    final boolean contained,
+    final int start,
+    final int end,
+    final List<T> results)
+  {
+    final long target_x0 = target_area.minimumX();
+    final long target_x1 = target_area.maximumX();
+    final long target_y0 = target_area.minimumY();
+    final long target_y1 = target_area.maximumY();
+    final long[] coordinates = objects.coordinates();
+
+    for (int index = start; index < end; ++index) {
+      final int base = index * STRIDE;
+      final boolean matched;
+      if (contained) {
+        matched = Regions.containsArea(
+          target_x0, target_x1, target_y0, target_y1,
+          coordinates[base],
+          coordinates[base + 1],
+          coordinates[base + 2],
+          coordinates[base + 3]);
+      } else {
+        matched = Regions.overlapsArea(
+          target_x0, target_x1, target_y0, target_y1,
+          coordinates[base],
+          coordinates[base + 1],
+          coordinates[base + 2],
+          coordinates[base + 3]);
+      }
+      if (matched) {
+        results.add(objects.item(index));
+      }
+    }
+  }
+
+  /**
+   * Pass the objects that are overlapped by the queries whose indices occupy
+   * positions {@code [0, active.size())} of {@code active} to
+   * {@code consumer}. Each of those queries is known to overlap the root.
+   */
+
+  TreeVisitResult areaOverlappingAll(
+    final long[] targets,
+    final IntArrayList active,
+    final QuadTreeBatchQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    return this.areaOverlappingAllStep(
+      0,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY(),
+      targets,
+      active,
+      0,
+      consumer,
+      counters);
+  }
+
+  private TreeVisitResult areaOverlappingAllStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long[] targets,
+    final IntArrayList active,
+    final int first,
+    final QuadTreeBatchQueryConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(index, counters);
+
+    final int last = active.size();
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      final long[] coordinates = objects.coordinates();
+      for (int item = 0; item < objects.size(); ++item) {
+        final int base = item * STRIDE;
+        counters.testObjects(last - first);
+        for (int position = first; position < last; ++position) {
+          final int query = active.getInt(position);
+          final int target = query * 4;
+          if (Regions.overlapsArea(
+            targets[target],
+            targets[target + 1],
+            targets[target + 2],
+            targets[target + 3],
+            coordinates[base],
+            coordinates[base + 1],
+            coordinates[base + 2],
+            coordinates[base + 3])) {
+            counters.hits(1L);
+            if (consumer.accept(
+              query,
+              objects.item(item),
+              coordinates[base],
+              coordinates[base + 1],
+              coordinates[base + 2],
+              coordinates[base + 3]) == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the queries that overlap each non-empty child
+     * onto the stack, and pop them again once the child is done.
+     */
+
+    if (!this.table.isLeaf(index)) {
+      final int child_level = MortonTableL.level(this.table.key(index)) + 1;
+      for (int child = 0; child < 4; ++child) {
+        final int child_index = this.table.child(index, child);
+        if (this.table.subtree(child_index) != 0) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          final long cx0 = lower(x0, x1, ux);
+          final long cx1 = upper(x0, x1, ux);
+          final long cy0 = lower(y0, y1, uy);
+          final long cy1 = upper(y0, y1, uy);
+          final long margin_x = this.margin(cx1 - cx0, child_level);
+          final long margin_y = this.margin(cy1 - cy0, child_level);
+          final long bx0 = QuadrantsL.lower(cx0, margin_x);
+          final long bx1 = QuadrantsL.upper(cx1, margin_x);
+          final long by0 = QuadrantsL.lower(cy0, margin_y);
+          final long by1 = QuadrantsL.upper(cy1, margin_y);
+
+          counters.testNodes(last - first);
+          for (int position = first; position < last; ++position) {
+            final int query = active.getInt(position);
+            final int target = query * 4;
+            if (Regions.overlapsArea(
+              targets[target],
+              targets[target + 1],
+              targets[target + 2],
+              targets[target + 3],
+              bx0, bx1, by0, by1)) {
+              active.add(query);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > last) {
+            result = this.areaOverlappingAllStep(
+              child_index, cx0, cx1, cy0, cy1, targets, active, last, consumer,
+              counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(last);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The distance from the origin of {@code ray} to the given point
+   */
+
+  private static double rayDistance(
+    final Ray2D ray,
+    final double x,
+    final double y)
+  {
+    final Vector2D origin = ray.origin();
+    final double dx = x - origin.x();
+    final double dy = y - origin.y();
+    return Math.sqrt((dx * dx) + (dy * dy));
+  }
+
+  /**
+   * Pass the objects that are intersected by the rays whose indices occupy
+   * positions {@code [0, active.size())} of {@code active} to
+   * {@code consumer}. Each of those rays is known to intersect the root.
+   */
+
+  TreeVisitResult raycastAll(
+    final Ray2D[] rays,
+    final IntArrayList active,
+    final QuadTreeBatchRaycastConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    return this.raycastAllStep(
+      0,
+      this.area.minimumX(), this.area.maximumX(),
+      this.area.minimumY(), this.area.maximumY(),
+      rays,
+      active,
+      0,
+      consumer,
+      counters);
+  }
+
+  private TreeVisitResult raycastAllStep(
+    final int index,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final Ray2D[] rays,
+    final IntArrayList active,
+    final int first,
+    final QuadTreeBatchRaycastConsumerLType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(index, counters);
+
+    final int last = active.size();
+    final @Nullable NodeObjectsL<T> objects = this.table.objects(index);
+    if (objects != null) {
+      final long[] coordinates = objects.coordinates();
+      for (int item = 0; item < objects.size(); ++item) {
+        final int base = item * STRIDE;
+        final long item_x0 = coordinates[base];
+        final long item_x1 = coordinates[base + 1];
+        final long item_y0 = coordinates[base + 2];
+        final long item_y1 = coordinates[base + 3];
+
+        counters.testObjects(last - first);
+        for (int position = first; position < last; ++position) {
+          final int ray_index = active.getInt(position);
+          final Ray2D ray = rays[ray_index];
+          if (ray.intersectsArea(
+            (double) item_x0,
+            (double) item_y0,
+            (double) item_x1,
+            (double) item_y1)) {
+            final double distance =
+              rayDistance(ray, (double) item_x0, (double) item_y0);
+            counters.hits(1L);
+            if (consumer.accept(
+              ray_index,
+              objects.item(item),
+              item_x0,
+              item_x1,
+              item_y0,
+              item_y1,
+              distance) == TreeVisitResult.RESULT_TERMINATE) {
+              return TreeVisitResult.RESULT_TERMINATE;
+            }
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the rays that intersect each non-empty child onto
+     * the stack, and pop them again once the child is done. Rays that miss
+     * a child are never tested against anything inside it.
+     */
+
+    if (!this.table.isLeaf(index)) {
+      final int child_level = MortonTableL.level(this.table.key(index)) + 1;
+      for (int child = 0; child < 4; ++child) {
+        final int child_index = this.table.child(index, child);
+        if (this.table.subtree(child_index) != 0) {
+          final boolean ux = (child & 1) != 0;
+          final boolean uy = (child & 2) != 0;
+          final long cx0 = lower(x0, x1, ux);
+          final long cx1 = upper(x0, x1, ux);
+          final long cy0 = lower(y0, y1, uy);
+          final long cy1 = upper(y0, y1, uy);
+          final long margin_x = this.margin(cx1 - cx0, child_level);
+          final long margin_y = this.margin(cy1 - cy0, child_level);
+          final double bx0 = (double) QuadrantsL.lower(cx0, margin_x);
+          final double bx1 = (double) QuadrantsL.upper(cx1, margin_x);
+          final double by0 = (double) QuadrantsL.lower(cy0, margin_y);
+          final double by1 = (double) QuadrantsL.upper(cy1, margin_y);
+
+          counters.testNodes(last - first);
+          for (int position = first; position < last; ++position) {
+            final int ray_index = active.getInt(position);
+            if (rays[ray_index].intersectsArea(bx0, by0, bx1, by1)) {
+              active.add(ray_index);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > last) {
+            result = this.raycastAllStep(
+              child_index, cx0, cx1, cy0, cy1, rays, active, last, consumer,
+              counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(last);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * Pass each quadrant to {@code f} in the same order as a {@link QuadTreeL}
+   * would. The table is already in that order, so the quadrants are visited
+   * in a single pass, with the area of the most recently visited quadrant
+   * at each depth held on a stack.
+   */
+
+  <C> void iterateQuadrants(
+    final C context,
+    final QuadTreeQuadrantIterationLType<T, C> f)
+  {
+    final long[] stack = new long[(this.table.maximumLevel() + 1) * 4];
+    stack[0] = this.area.minimumX();
+    stack[1] = this.area.maximumX();
+    stack[2] = this.area.minimumY();
+    stack[3] = this.area.maximumY();
+
+    for (int index = 0; index < this.table.size(); ++index) {
+      final long key = this.table.key(index);
+      final int level = MortonTableL.level(key);
+      final int base = level * 4;
+      if (level > 0) {
+        final int parent = base - 4;
+        final int digit = this.table.digit(key);
+        final boolean ux = (digit & 1) != 0;
+        final boolean uy = (digit & 2) != 0;
+        final long x0 = stack[parent];
+        final long x1 = stack[parent + 1];
+        final long y0 = stack[parent + 2];
+        final long y1 = stack[parent + 3];
+        stack[base] = lower(x0, x1, ux);
+        stack[base + 1] = upper(x0, x1, ux);
+        stack[base + 2] = lower(y0, y1, uy);
+        stack[base + 3] = upper(y0, y1, uy);
+      }
+
+      final QuadTreeLinearQuadrantL<T> quadrant = new QuadTreeLinearQuadrantL<>(
+        AreaL.of(stack[base], stack[base + 1], stack[base + 2], stack[base + 3]),
+        this.table.objects(index));
+
+      switch (f.apply(context, quadrant, (long) level)) {
+        case RESULT_CONTINUE:
+          break;
+        case RESULT_TERMINATE:
+          return;
+        default:
+          throw new UnreachableCodeException();
+      }
+    }
+  }
+
+  /**
+   * A quadrant and its area, queued during a nearest-neighbour search.
+   */
+
+  static final class Cell
+  {
+    private final int index;
+    private final long x0;
+    private final long x1;
+    private final long y0;
+    private final long y1;
+
+    Cell(
+      final int in_index,
+      final long in_x0,
+      final long in_x1,
+      final long in_y0,
+      final long in_y1)
+    {
+      this.index = in_index;
+      this.x0 = in_x0;
+      this.x1 = in_x1;
+      this.y0 = in_y0;
+      this.y1 = in_y1;
+    }
+  }
+}
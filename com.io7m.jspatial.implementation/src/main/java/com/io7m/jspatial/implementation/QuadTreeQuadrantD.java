@@ -0,0 +1,1800 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Invariants;
+import com.io7m.jaffirm.core.Preconditions;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
+import com.io7m.jregions.core.unparameterized.areas.AreaXYSplitD;
+import com.io7m.jregions.core.unparameterized.areas.AreasD;
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchQueryConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeBatchRaycastConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantIterationDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQueryConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastConsumerDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastResultD;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
+import com.io7m.junreachable.UnreachableCodeException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A quadrant within a {@link QuadTreeD}.
+ *
+ * @param <T> The precise type of tree objects
+ */
+
+final class QuadTreeQuadrantD<T> implements QuadTreeQuadrantDType<T>
+{
+  private final QuadTreeD<T> tree;
+  private final AreaD area;
+  private AreaD bounds;
+  private final NodeObjectsD<T> quadrant_objects;
+  private @Nullable QuadTreeQuadrantD<T> parent;
+  private int subtree_objects;
+  private final long generation;
+  private long level;
+  private @Nullable QuadTreeQuadrantD<T> x0y0;
+  private @Nullable QuadTreeQuadrantD<T> x0y1;
+  private @Nullable QuadTreeQuadrantD<T> x1y0;
+  private @Nullable QuadTreeQuadrantD<T> x1y1;
+
+  QuadTreeQuadrantD(
+    final QuadTreeD<T> in_tree,
+    final @Nullable QuadTreeQuadrantD<T> in_parent,
+    final AreaD in_area)
+  {
+    this.tree = NullCheck.notNull(in_tree, "Tree");
+    this.parent = in_parent;
+    this.generation = this.tree.generation();
+    if (in_parent == null) {
+      this.level = 0L;
+    } else {
+      this.level = in_parent.level + 1L;
+    }
+    this.area = NullCheck.notNull(in_area, "Area");
+    if (in_parent == null) {
+      this.bounds = this.area;
+    } else {
+      this.bounds = QuadrantsD.loosen(
+        this.area, this.tree.configuration().looseness());
+    }
+    this.quadrant_objects = new NodeObjectsD<>(
+      4, !this.tree.configuration().packedBounds());
+  }
+
+  /**
+   * Construct a copy of {@code in_original} that belongs to the current
+   * generation of the tree. The children of the original are shared with
+   * the copy.
+   */
+
+  QuadTreeQuadrantD(
+    final QuadTreeD<T> in_tree,
+    final @Nullable QuadTreeQuadrantD<T> in_parent,
+    final QuadTreeQuadrantD<T> in_original)
+  {
+    this.tree = NullCheck.notNull(in_tree, "Tree");
+    this.parent = in_parent;
+    this.generation = this.tree.generation();
+    this.level = in_original.level;
+    this.area = in_original.area;
+    this.bounds = in_original.bounds;
+    this.subtree_objects = in_original.subtree_objects;
+    this.quadrant_objects = in_original.quadrant_objects.copy();
+    this.x0y0 = in_original.x0y0;
+    this.x1y0 = in_original.x1y0;
+    this.x0y1 = in_original.x0y1;
+    this.x1y1 = in_original.x1y1;
+  }
+
+  /**
+   * Point the tree's object map at this quadrant for each object that it holds.
+   */
+
+  void claimObjects()
+  {
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      this.tree.objectIndex().put(this.quadrant_objects.item(index), this);
+    }
+  }
+
+  /**
+   * @return The child at {@code index}, first replacing it with a copy if
+   * it is shared with a snapshot
+   */
+
+  QuadTreeQuadrantD<T> ownChild(final int index)
+  {
+    final QuadTreeQuadrantD<T> child = this.child(index);
+    if (child.generation == this.tree.generation()) {
+      return child;
+    }
+
+    final QuadTreeQuadrantD<T> copy =
+      new QuadTreeQuadrantD<>(this.tree, this, child);
+    copy.claimObjects();
+    this.setChild(index, copy);
+    return copy;
+  }
+
+  private void setChild(
+    final int index,
+    final QuadTreeQuadrantD<T> child)
+  {
+    switch (index) {
+      case 0:
+        this.x0y0 = child;
+        break;
+      case 1:
+        this.x1y0 = child;
+        break;
+      case 2:
+        this.x0y1 = child;
+        break;
+      case 3:
+        this.x1y1 = child;
+        break;
+      default:
+        throw new UnreachableCodeException();
+    }
+  }
+
+  boolean insert(
+    final T item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    Preconditions.checkPrecondition(
+      item,
+      !this.tree.objectIndex().containsKey(item),
+      x -> "Object must not be in tree");
+
+    return this.contains(item_x0, item_x1, item_y0, item_y1)
+      && this.insertStep(item, item_x0, item_x1, item_y0, item_y1, 0L);
+  }
+
+  /**
+   * @return {@code true} iff this quadrant contains the given bounds
+   */
+
+  boolean contains(
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    return Regions.containsArea(
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY(),
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1);
+  }
+
+  /**
+   * Grow the tree towards the given bounds. A new root quadrant is created
+   * with twice the width and height of this quadrant, which must be the
+   * current root, and this quadrant becomes one of its children.
+   *
+   * @return The new root, or {@code null} if the tree cannot grow further
+   */
+
+  @Nullable QuadTreeQuadrantD<T> expandTowards(
+    final double item_x0,
+    final double item_y0)
+  {
+    final boolean lower_x = item_x0 < this.area.minimumX();
+    final boolean lower_y = item_y0 < this.area.minimumY();
+    final Optional<AreaD> extended_opt =
+      QuadrantsD.extend(this.area, lower_x, lower_y);
+    if (!extended_opt.isPresent()) {
+      return null;
+    }
+
+    final AreaD extended = extended_opt.get();
+    final double split_x =
+      lower_x ? this.area.minimumX() : this.area.maximumX();
+    final double split_y =
+      lower_y ? this.area.minimumY() : this.area.maximumY();
+
+    final QuadTreeQuadrantD<T> root =
+      new QuadTreeQuadrantD<>(this.tree, null, extended);
+    root.level = this.level - 1L;
+    final int index = (lower_x ? 1 : 0) + (lower_y ? 2 : 0);
+    root.x0y0 = root.adopt(this, index, 0, AreaD.of(
+      extended.minimumX(), split_x,
+      extended.minimumY(), split_y));
+    root.x1y0 = root.adopt(this, index, 1, AreaD.of(
+      split_x, extended.maximumX(),
+      extended.minimumY(), split_y));
+    root.x0y1 = root.adopt(this, index, 2, AreaD.of(
+      extended.minimumX(), split_x,
+      split_y, extended.maximumY()));
+    root.x1y1 = root.adopt(this, index, 3, AreaD.of(
+      split_x, extended.maximumX(),
+      split_y, extended.maximumY()));
+
+    root.subtree_objects = this.subtree_objects;
+    this.parent = root;
+    this.bounds = QuadrantsD.loosen(
+      this.area, this.tree.configuration().looseness());
+    return root;
+  }
+
+  private QuadTreeQuadrantD<T> adopt(
+    final QuadTreeQuadrantD<T> original,
+    final int original_index,
+    final int index,
+    final AreaD child_area)
+  {
+    if (index == original_index) {
+      return original;
+    }
+    return new QuadTreeQuadrantD<>(this.tree, this, child_area);
+  }
+
+  private boolean insertStep(
+    final T item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1,
+    final long depth)
+  {
+    /*
+     * The object will be held by this node or one of its descendants.
+     */
+
+    ++this.subtree_objects;
+
+    /*
+     * The object can fit in this node, but perhaps it is possible to fit it
+     * more precisely within one of the child nodes.
+     */
+
+    /*
+     * If this node is a leaf, is full, and is large enough to split, do so.
+     */
+
+    if (this.isLeaf()) {
+      if (this.isFull() && this.canSplit(depth)) {
+        this.split(depth);
+      } else {
+
+        /*
+         * The node is a leaf, but either has room for the object or cannot
+         * be split further. Insert directly.
+         */
+
+        return this.insertObject(item, item_x0, item_x1, item_y0, item_y1);
+      }
+    }
+
+    /*
+     * See if the object will fit in any of the child nodes.
+     */
+
+    Invariants.checkInvariant(!this.isLeaf(), "Node is not a leaf");
+
+    final long child_depth = Math.addExact(depth, 1L);
+
+    final int index = this.childIndexContaining(
+      item_x0, item_x1, item_y0, item_y1);
+    if (index < 4) {
+      return this.ownChild(index).insertStep(
+        item, item_x0, item_x1, item_y0, item_y1, child_depth);
+    }
+
+    /*
+     * Otherwise, insert the object into this node.
+     */
+
+    return this.insertObject(item, item_x0, item_x1, item_y0, item_y1);
+  }
+
+  private boolean insertObject(
+    final T item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    this.tree.objectIndex().put(item, this);
+    this.storeObject(item, item_x0, item_x1, item_y0, item_y1);
+    return true;
+  }
+
+  private void storeObject(
+    final T item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    final int index =
+      this.quadrant_objects.addArea(item, item_x0, item_x1, item_y0, item_y1);
+    if (this.quadrant_objects.retainsBounds()) {
+      this.quadrant_objects.setBounds(
+        index, AreaD.of(item_x0, item_x1, item_y0, item_y1));
+    }
+  }
+
+  private void split(final long depth)
+  {
+    Preconditions.checkPrecondition(
+      this.canSplit(depth), "Quadrant can split");
+
+    final AreaXYSplitD<AreaD> q = QuadrantsD.subdivide(this.area);
+    this.x0y0 = new QuadTreeQuadrantD<>(this.tree, this, q.x0y0());
+    this.x0y1 = new QuadTreeQuadrantD<>(this.tree, this, q.x0y1());
+    this.x1y0 = new QuadTreeQuadrantD<>(this.tree, this, q.x1y0());
+    this.x1y1 = new QuadTreeQuadrantD<>(this.tree, this, q.x1y1());
+    this.redistribute(depth);
+  }
+
+  /**
+   * Move any objects held by this (newly split) quadrant into the child
+   * quadrants that can contain them.
+   */
+
+  private void redistribute(final long depth)
+  {
+    if (this.quadrant_objects.isEmpty()) {
+      return;
+    }
+
+    final long child_depth = Math.addExact(depth, 1L);
+    int index = 0;
+    while (index < this.quadrant_objects.size()) {
+      final T item = this.quadrant_objects.item(index);
+      final double[] coordinates = this.quadrant_objects.coordinates();
+      final int base = index * 4;
+      final double item_x0 = coordinates[base];
+      final double item_x1 = coordinates[base + 1];
+      final double item_y0 = coordinates[base + 2];
+      final double item_y1 = coordinates[base + 3];
+      final int child_index = this.childIndexContaining(
+        item_x0, item_x1, item_y0, item_y1);
+      if (child_index < 4) {
+        this.quadrant_objects.removeAt(index);
+        this.child(child_index).insertStep(
+          item, item_x0, item_x1, item_y0, item_y1, child_depth);
+      } else {
+        ++index;
+      }
+    }
+  }
+
+  /**
+   * Build the subtree rooted at this (empty, leaf) quadrant from the
+   * items in the range {@code [start, end)} of {@code bulk}, all of which
+   * are known to fit within this quadrant. The same splitting rules are
+   * applied as for incremental insertion. If {@code parallel} is
+   * {@code true}, objects are not added to the tree's index of items
+   * (see {@link #register()}), and the subtrees below any quadrant that
+   * receives enough objects are built by separate fork/join tasks. The
+   * method must then be called from within a fork/join pool.
+   */
+
+  void build(
+    final BulkItems<T, AreaD> bulk,
+    final int start,
+    final int end,
+    final long depth,
+    final boolean parallel)
+  {
+    final int count = end - start;
+    this.subtree_objects = count;
+    final int maximum = this.tree.configuration().maximumObjectsPerLeaf();
+    final boolean full = count > 0 && (maximum <= 0 || count > maximum);
+
+    if (!full || !this.canSplit(depth)) {
+      for (int index = start; index < end; ++index) {
+        this.buildObject(bulk.item(index), bulk.bounds(index), parallel);
+      }
+      return;
+    }
+
+    this.split(depth);
+
+    /*
+     * Objects that do not fit into any child remain in this quadrant.
+     */
+
+    final int[] offsets =
+      bulk.partition(start, end, 5, this::childIndexContaining);
+    for (int index = offsets[4]; index < offsets[5]; ++index) {
+      this.buildObject(bulk.item(index), bulk.bounds(index), parallel);
+    }
+
+    final long child_depth = Math.addExact(depth, 1L);
+    if (parallel
+      && count >= this.tree.configuration().parallelBuildThreshold()) {
+      final List<ForkJoinTask<?>> tasks = new ArrayList<>(4);
+      for (int index = 0; index < 4; ++index) {
+        final QuadTreeQuadrantD<T> child = this.child(index);
+        final int child_start = offsets[index];
+        final int child_end = offsets[index + 1];
+        tasks.add(ForkJoinTask.adapt(() -> child.build(
+          bulk, child_start, child_end, child_depth, true)));
+      }
+      ForkJoinTask.invokeAll(tasks);
+      return;
+    }
+
+    for (int index = 0; index < 4; ++index) {
+      this.child(index).build(
+        bulk, offsets[index], offsets[index + 1], child_depth, parallel);
+    }
+  }
+
+  private void buildObject(
+    final T item,
+    final AreaD item_bounds,
+    final boolean parallel)
+  {
+    final double item_x0 = item_bounds.minimumX();
+    final double item_x1 = item_bounds.maximumX();
+    final double item_y0 = item_bounds.minimumY();
+    final double item_y1 = item_bounds.maximumY();
+    if (parallel) {
+      this.storeObject(item, item_x0, item_x1, item_y0, item_y1);
+    } else {
+      this.insertObject(item, item_x0, item_x1, item_y0, item_y1);
+    }
+  }
+
+  /**
+   * Add all objects held by this quadrant and its descendants to the
+   * tree's index of items.
+   */
+
+  void register()
+  {
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      this.tree.objectIndex().put(this.quadrant_objects.item(index), this);
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 4; ++index) {
+        this.child(index).register();
+      }
+    }
+  }
+
+  /**
+   * Add a child to this quadrant, which must be a leaf, while restoring a
+   * serialized tree. The quadrant is not a valid non-leaf quadrant until all
+   * four children have been added.
+   *
+   * @return The new child
+   */
+
+  QuadTreeQuadrantD<T> restoreChild(
+    final int index,
+    final AreaD child_area)
+  {
+    final QuadTreeQuadrantD<T> child =
+      new QuadTreeQuadrantD<>(this.tree, this, child_area);
+    switch (index) {
+      case 0:
+        this.x0y0 = child;
+        break;
+      case 1:
+        this.x1y0 = child;
+        break;
+      case 2:
+        this.x0y1 = child;
+        break;
+      case 3:
+        this.x1y1 = child;
+        break;
+      default:
+        throw new UnreachableCodeException();
+    }
+    return child;
+  }
+
+  /**
+   * Add an object to this quadrant while restoring a serialized tree.
+   *
+   * @return {@code false} iff the object is already in the tree, or the
+   * given bounds do not fit within this quadrant
+   */
+
+  boolean restoreObject(
+    final T item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    if (this.tree.objectIndex().containsKey(item)
+      || !this.contains(item_x0, item_x1, item_y0, item_y1)) {
+      return false;
+    }
+
+    this.storeObject(item, item_x0, item_x1, item_y0, item_y1);
+    this.tree.objectIndex().put(item, this);
+    return true;
+  }
+
+  /**
+   * Set the number of objects in the subtree rooted at this quadrant, once
+   * the quadrant and all of its descendants have been restored.
+   */
+
+  void restoreCount()
+  {
+    int count = this.quadrant_objects.size();
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 4; ++index) {
+        count += this.child(index).subtree_objects;
+      }
+    }
+    this.subtree_objects = count;
+  }
+
+  /**
+   * @return The index of the first child that can contain the given
+   * bounds, or {@code 4} if no child can contain them
+   */
+
+  int childIndexContaining(final AreaD item_bounds)
+  {
+    return this.childIndexContaining(
+      item_bounds.minimumX(),
+      item_bounds.maximumX(),
+      item_bounds.minimumY(),
+      item_bounds.maximumY());
+  }
+
+  /**
+   * @return The index of the first child that can contain the given
+   * bounds, or {@code 4} if no child can contain them
+   */
+
+  private int childIndexContaining(
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    if (this.tree.configuration().looseness() > 1.0) {
+      return this.childIndexLoose(item_x0, item_x1, item_y0, item_y1);
+    }
+
+    for (int index = 0; index < 4; ++index) {
+      if (this.child(index).contains(item_x0, item_x1, item_y0, item_y1)) {
+        return index;
+      }
+    }
+    return 4;
+  }
+
+  /**
+   * @return The index of the child whose area contains the centre of the
+   * given bounds, if the loose bounds of that child also contain them, or
+   * {@code 4} otherwise
+   */
+
+  private int childIndexLoose(
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    final double centre_x = item_x0 + ((item_x1 - item_x0) / 2.0);
+    final double centre_y = item_y0 + ((item_y1 - item_y0) / 2.0);
+
+    final QuadTreeQuadrantD<T> upper = this.child(3);
+    int index = 0;
+    if (centre_x >= upper.area.minimumX()) {
+      index += 1;
+    }
+    if (centre_y >= upper.area.minimumY()) {
+      index += 2;
+    }
+
+    if (this.child(index).contains(item_x0, item_x1, item_y0, item_y1)) {
+      return index;
+    }
+    return 4;
+  }
+
+  private boolean isFull()
+  {
+    final int maximum = this.tree.configuration().maximumObjectsPerLeaf();
+    return maximum <= 0 || this.quadrant_objects.size() >= maximum;
+  }
+
+  private boolean canSplit(final long depth)
+  {
+    if (depth >= this.tree.configuration().maximumDepth()) {
+      return false;
+    }
+
+    final double width = this.area.width();
+    final double height = this.area.height();
+
+    final double min_width =
+      Math.max(0.0001, this.tree.configuration().minimumQuadrantWidth());
+    final double min_height =
+      Math.max(0.0001, this.tree.configuration().minimumQuadrantHeight());
+
+    final double half_width = width / 2.0;
+    final double half_height = height / 2.0;
+
+    return half_width >= min_width && half_height >= min_height;
+  }
+
+  boolean isLeaf()
+  {
+    return this.x0y0 == null;
+  }
+
+  /**
+   * Move an object held by this quadrant to new bounds. The nearest ancestor
+   * (or this quadrant itself) that can contain the new bounds is located by
+   * climbing the tree, and the object is re-inserted from there.
+   */
+
+  void moveObject(
+    final T item,
+    final double item_x0,
+    final double item_x1,
+    final double item_y0,
+    final double item_y1)
+  {
+    final int index = this.quadrant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Object must be in this quadrant");
+
+    this.quadrant_objects.removeAt(index);
+    this.tree.objectIndex().remove(item);
+
+    /*
+     * The object leaves every quadrant between this quadrant and the
+     * ancestor that can contain the new bounds, and is counted again from
+     * that ancestor downwards when it is reinserted.
+     */
+
+    QuadTreeQuadrantD<T> ancestor = this;
+    --ancestor.subtree_objects;
+    while (!ancestor.contains(item_x0, item_x1, item_y0, item_y1)) {
+      Invariants.checkInvariant(
+        ancestor.parent != null,
+        "Root quadrant must contain the bounds");
+      ancestor = ancestor.parent;
+      --ancestor.subtree_objects;
+    }
+
+    final boolean inserted =
+      ancestor.insertStep(
+        item, item_x0, item_x1, item_y0, item_y1, ancestor.depth());
+    Invariants.checkInvariant(inserted, "Object must have been inserted");
+
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive();
+    }
+  }
+
+  /**
+   * @return The depth of this quadrant in the current tree, which is the
+   * difference between the level of this quadrant and the level of the root
+   */
+
+  private long depth()
+  {
+    return this.level - this.tree.root().level;
+  }
+
+  /**
+   * @return The level of this quadrant: The level of a child is one greater
+   * than the level of its parent. Levels are never changed once assigned, so
+   * that quadrants can be shared between snapshots. The depth of a quadrant
+   * within any tree that holds it is its level minus the level of the root of
+   * that tree.
+   */
+
+  long level()
+  {
+    return this.level;
+  }
+
+  /**
+   * Record a visit to this quadrant.
+   */
+
+  private void visited(final QueryCounters counters)
+  {
+    counters.visitLevel(this.level);
+  }
+
+  void removeObject(final T item)
+  {
+    final int index = this.quadrant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Object must be in this quadrant");
+
+    this.quadrant_objects.removeAt(index);
+    this.tree.objectIndex().remove(item);
+    for (QuadTreeQuadrantD<T> node = this; node != null; node = node.parent) {
+      --node.subtree_objects;
+    }
+    if (this.tree.configuration().trimOnRemove()) {
+      this.unsplitAttemptRecursive();
+    }
+  }
+
+  private AreaD boundsAt(final int index)
+  {
+    final @Nullable Object retained = this.quadrant_objects.bounds(index);
+    if (retained != null) {
+      return (AreaD) retained;
+    }
+
+    final double[] coordinates = this.quadrant_objects.coordinates();
+    final int base = index * 4;
+    return AreaD.of(
+      coordinates[base],
+      coordinates[base + 1],
+      coordinates[base + 2],
+      coordinates[base + 3]);
+  }
+
+  AreaD boundsOf(final Object item)
+  {
+    final int index = this.quadrant_objects.indexOf(item);
+    Invariants.checkInvariant(index >= 0, "Object must be in this quadrant");
+    return this.boundsAt(index);
+  }
+
+  private TreeVisitResult report(
+    final QuadTreeQueryConsumerDType<T> consumer,
+    final int index,
+    final QueryCounters counters)
+  {
+    final double[] coordinates = this.quadrant_objects.coordinates();
+    final int base = index * 4;
+    counters.hits(1L);
+    return consumer.accept(
+      this.quadrant_objects.item(index),
+      coordinates[base],
+      coordinates[base + 1],
+      coordinates[base + 2],
+      coordinates[base + 3]);
+  }
+
+  private TreeVisitResult raycastItem(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerDType<T> consumer,
+    final int index,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    final double[] coordinates = this.quadrant_objects.coordinates();
+    final int base = index * 4;
+    final double item_x0 = coordinates[base];
+    final double item_x1 = coordinates[base + 1];
+    final double item_y0 = coordinates[base + 2];
+    final double item_y1 = coordinates[base + 3];
+
+    final double distance;
+    if (entry) {
+      distance = ray.intersectionParameterArea(
+        item_x0,
+        item_y0,
+        item_x1,
+        item_y1);
+    } else {
+      distance = rayDistance(ray, item_x0, item_y0);
+    }
+    counters.hits(1L);
+    return consumer.accept(
+      this.quadrant_objects.item(index),
+      item_x0,
+      item_x1,
+      item_y0,
+      item_y1,
+      distance);
+  }
+
+  TreeVisitResult areaContaining(
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final QuadTreeQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless containment checks.
+     */
+
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    counters.testNodes(1);
+
+    /*
+     * If the target area completely contains this quadrant, collect
+     * everything in this quadrant and all children of this quadrant.
+     */
+
+    if (Regions.containsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY())) {
+      return this.collectRecursive(consumer, counters);
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * An object contained within the target area lies within both the
+     * target area and this quadrant, so a quadrant that does not
+     * intersect the target area cannot hold any results.
+     */
+
+    if (!Regions.intersectsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY())) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    /*
+     * Otherwise, the target area may be overlapping this quadrant and
+     * therefore some items may still be contained within the target area.
+     */
+
+    counters.testObjects(this.quadrant_objects.size());
+    final double[] coordinates = this.quadrant_objects.coordinates();
+
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      final int base = index * 4;
+      if (Regions.containsArea(
+        target_x0, target_x1, target_y0, target_y1,
+        coordinates[base],
+        coordinates[base + 1],
+        coordinates[base + 2],
+        coordinates[base + 3])) {
+        if (this.report(consumer, index, counters)
+          == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 4; ++index) {
+        if (this.child(index).areaContaining(
+          target_x0, target_x1, target_y0, target_y1,
+          consumer, counters) == TreeVisitResult.RESULT_TERMINATE) {
+          return TreeVisitResult.RESULT_TERMINATE;
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  TreeVisitResult collectRecursive(
+    final QuadTreeQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      if (this.report(consumer, index, counters)
+        == TreeVisitResult.RESULT_TERMINATE) {
+        return TreeVisitResult.RESULT_TERMINATE;
+      }
+    }
+
+    if (!this.isLeaf()) {
+      if (this.x0y0.collectRecursive(consumer, counters)
+        == TreeVisitResult.RESULT_TERMINATE
+        || this.x0y1.collectRecursive(consumer, counters)
+        == TreeVisitResult.RESULT_TERMINATE
+        || this.x1y0.collectRecursive(consumer, counters)
+        == TreeVisitResult.RESULT_TERMINATE
+        || this.x1y1.collectRecursive(consumer, counters)
+        == TreeVisitResult.RESULT_TERMINATE) {
+        return TreeVisitResult.RESULT_TERMINATE;
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The number of objects held by this quadrant and its descendants
+   * that are completely contained within the target area
+   */
+
+  long countContaining(
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return 0L;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * If the target area completely contains this quadrant, it contains
+     * every object in this quadrant and all children of this quadrant.
+     */
+
+    if (Regions.containsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY())) {
+      return (long) this.subtree_objects;
+    }
+
+    counters.testNodes(1);
+    if (!Regions.intersectsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY())) {
+      return 0L;
+    }
+
+    counters.testObjects(this.quadrant_objects.size());
+    long count = 0L;
+    final double[] coordinates = this.quadrant_objects.coordinates();
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      final int base = index * 4;
+      if (Regions.containsArea(
+        target_x0, target_x1, target_y0, target_y1,
+        coordinates[base],
+        coordinates[base + 1],
+        coordinates[base + 2],
+        coordinates[base + 3])) {
+        ++count;
+      }
+    }
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 4; ++index) {
+        count += this.child(index).countContaining(
+          target_x0, target_x1, target_y0, target_y1, counters);
+      }
+    }
+    return count;
+  }
+
+  TreeVisitResult areaOverlapping(
+    final double target_x0,
+    final double target_x1,
+    final double target_y0,
+    final double target_y1,
+    final QuadTreeQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless overlap checks.
+     */
+
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * If the target area overlaps this quadrant, test each object
+     * against the target area.
+     */
+
+    if (Regions.overlapsArea(
+      target_x0, target_x1, target_y0, target_y1,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY())) {
+      final double[] coordinates = this.quadrant_objects.coordinates();
+
+      final int size = this.quadrant_objects.size();
+      counters.testObjects(size);
+      for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+        long hits = BoundsEngines.get().overlapsArea(
+          coordinates,
+          first,
+          Math.min(BoundsEngines.BLOCK_SIZE, size - first),
+          target_x0, target_x1, target_y0, target_y1);
+
+        while (hits != 0L) {
+          final int index = first + Long.numberOfTrailingZeros(hits);
+          hits &= hits - 1L;
+          if (this.report(consumer, index, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      if (!this.isLeaf()) {
+        for (int index = 0; index < 4; ++index) {
+          if (this.child(index).areaOverlapping(
+            target_x0, target_x1, target_y0, target_y1,
+            consumer, counters) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * Pass the objects in this quadrant and its descendants that are
+   * intersected by {@code ray} to {@code consumer}. If {@code entry} is
+   * {@code true}, the distance passed for each object is the parametric
+   * distance at which the ray enters the bounds of the object. Otherwise,
+   * it is the distance from the origin of the ray to the minimum corner of
+   * the bounds.
+   */
+
+  TreeVisitResult raycast(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerDType<T> consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.subtree_objects == 0) {
+      return TreeVisitResult.RESULT_CONTINUE;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * Check whether or not the ray intersects the quadrant.
+     */
+
+    final double x0 = this.bounds.minimumX();
+    final double x1 = this.bounds.maximumX();
+    final double y0 = this.bounds.minimumY();
+    final double y1 = this.bounds.maximumY();
+
+    /*
+     * If the ray intersects the quadrant, check each item in the quadrant
+     * against the ray.
+     */
+
+    if (ray.intersectsArea(x0, y0, x1, y1)) {
+      final int size = this.quadrant_objects.size();
+      counters.testObjects(size);
+      final double[] coordinates = this.quadrant_objects.coordinates();
+      for (int first = 0; first < size; first += BoundsEngines.BLOCK_SIZE) {
+        long hits = BoundsEngines.get().intersectsArea(
+          ray,
+          coordinates,
+          first,
+          Math.min(BoundsEngines.BLOCK_SIZE, size - first));
+
+        while (hits != 0L) {
+          final int index = first + Long.numberOfTrailingZeros(hits);
+          hits &= hits - 1L;
+          if (this.raycastItem(ray, consumer, index, entry, counters)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+
+      if (!this.isLeaf()) {
+        return this.raycastChildren(ray, consumer, entry, counters);
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  private TreeVisitResult raycastChildren(
+    final Ray2D ray,
+    final QuadTreeRaycastConsumerDType<T> consumer,
+    final boolean entry,
+    final QueryCounters counters)
+  {
+    if (this.x0y0.raycast(ray, consumer, entry, counters)
+      == TreeVisitResult.RESULT_TERMINATE
+      || this.x0y1.raycast(ray, consumer, entry, counters)
+      == TreeVisitResult.RESULT_TERMINATE
+      || this.x1y0.raycast(ray, consumer, entry, counters)
+      == TreeVisitResult.RESULT_TERMINATE
+      || this.x1y1.raycast(ray, consumer, entry, counters)
+      == TreeVisitResult.RESULT_TERMINATE) {
+      return TreeVisitResult.RESULT_TERMINATE;
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  void raycastNearest(
+    final Ray2D ray,
+    final double length,
+    final int mask,
+    final NearestResults<QuadTreeRaycastResultD<T>> results,
+    final QueryCounters counters)
+  {
+    /*
+     * Avoid performing pointless ray checks.
+     */
+
+    if (this.subtree_objects == 0) {
+      return;
+    }
+
+    this.visited(counters);
+    counters.testNodes(1);
+
+    /*
+     * Skip this quadrant if the ray misses it, or if it is further away
+     * than any result that could still be accepted.
+     */
+
+    final double t = ray.intersectionParameterArea(
+      this.bounds.minimumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumX(),
+      this.bounds.maximumY());
+    if (t == Double.POSITIVE_INFINITY || t * length > results.bound()) {
+      return;
+    }
+
+    counters.testObjects(this.quadrant_objects.size());
+    final double[] coordinates = this.quadrant_objects.coordinates();
+
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      final int base = index * 4;
+      final double item_t =
+        ray.intersectionParameterArea(
+          coordinates[base],
+          coordinates[base + 2],
+          coordinates[base + 1],
+          coordinates[base + 3]);
+
+      if (item_t < Double.POSITIVE_INFINITY) {
+        final double distance = item_t * length;
+        if (distance <= results.bound()) {
+          results.add(QuadTreeRaycastResultD.of(
+            distance, this.boundsAt(index), this.quadrant_objects.item(index)));
+        }
+      }
+    }
+
+    /*
+     * Visit the children front-to-back: The first child visited is the one
+     * that lies furthest towards the origin of the ray.
+     */
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 4; ++index) {
+        this.child(index ^ mask).raycastNearest(
+          ray, length, mask, results, counters);
+      }
+    }
+  }
+
+  double distanceTo(
+    final double px,
+    final double py)
+  {
+    return Distances.pointArea(
+      px, py,
+      this.bounds.minimumX(),
+      this.bounds.maximumX(),
+      this.bounds.minimumY(),
+      this.bounds.maximumY());
+  }
+
+  void nearest(
+    final double px,
+    final double py,
+    final NearestResults<NearestItem<T, AreaD>> results,
+    final NodeQueue<QuadTreeQuadrantD<T>> queue,
+    final QueryCounters counters)
+  {
+    this.visited(counters);
+    counters.testObjects(this.quadrant_objects.size());
+
+    final double[] coordinates = this.quadrant_objects.coordinates();
+
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      final int base = index * 4;
+      final double distance = Distances.pointArea(
+        px, py,
+        coordinates[base],
+        coordinates[base + 1],
+        coordinates[base + 2],
+        coordinates[base + 3]);
+
+      if (distance <= results.bound()) {
+        results.add(new NearestItem<>(
+          distance, this.quadrant_objects.item(index), this.boundsAt(index)));
+      }
+    }
+
+    /*
+     * Queue any non-empty children that could contain a result.
+     */
+
+    if (!this.isLeaf()) {
+      for (int index = 0; index < 4; ++index) {
+        final QuadTreeQuadrantD<T> child = this.child(index);
+        if (child.subtree_objects != 0) {
+          counters.testNodes(1);
+          final double child_distance = child.distanceTo(px, py);
+          if (child_distance <= results.bound()) {
+            queue.add(child, child_distance);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Add this quadrant and all descendant quadrants that hold objects that
+   * may be contained within (or overlapped by, if {@code contained} is
+   * {@code false}) {@code target_area} to {@code nodes}.
+   */
+
+  void parallelCandidates(
+    final AreaD target_area,
+    final boolean contained,
+    final List<QuadTreeQuadrantD<T>> nodes,
+    final QueryCounters counters)
+  {
+    if (this.subtree_objects == 0) {
+      return;
+    }
+
+    counters.testNodes(1);
+
+    /*
+     * An object contained within {@code target_area} lies within both
+     * {@code target_area} and this quadrant, so quadrants that do not
+     * intersect {@code target_area} can be skipped.
+     */
+
+    final boolean candidate;
+    if (contained) {
+      candidate = Regions.intersectsArea(
+        target_area.minimumX(), target_area.maximumX(),
+        target_area.minimumY(), target_area.maximumY(),
+        this.bounds.minimumX(), this.bounds.maximumX(),
+        this.bounds.minimumY(), this.bounds.maximumY());
+    } else {
+      candidate = AreasD.overlaps(target_area, this.bounds);
+    }
+
+    if (candidate) {
+      this.visited(counters);
+      if (!this.quadrant_objects.isEmpty()) {
+        nodes.add(this);
+      }
+      if (!this.isLeaf()) {
+        for (int index = 0; index < 4; ++index) {
+          this.child(index).parallelCandidates(
+            target_area, contained, nodes, counters);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add the objects at indices {@code [start, end)} that are contained
+   * within (or overlapped by, if {@code contained} is {@code false})
+   * {@code target_area} to {@code results}.
+   */
+
+  void areaMatching(
+    final AreaD target_area,
+    final boolean contained,
+    final int start,
+    final int end,
+    final List<T> results)
+  {
+    final double target_x0 = target_area.minimumX();
+    final double target_x1 = target_area.maximumX();
+    final double target_y0 = target_area.minimumY();
+    final double target_y1 = target_area.maximumY();
+    final double[] coordinates = this.quadrant_objects.coordinates();
+
+    for (int index = start; index < end; ++index) {
+      final int base = index * 4;
+      final boolean matched;
+      if (contained) {
+        matched = Regions.containsArea(
+          target_x0, target_x1, target_y0, target_y1,
+          coordinates[base],
+          coordinates[base + 1],
+          coordinates[base + 2],
+          coordinates[base + 3]);
+      } else {
+        matched = Regions.overlapsArea(
+          target_x0, target_x1, target_y0, target_y1,
+          coordinates[base],
+          coordinates[base + 1],
+          coordinates[base + 2],
+          coordinates[base + 3]);
+      }
+      if (matched) {
+        results.add(this.quadrant_objects.item(index));
+      }
+    }
+  }
+
+  /**
+   * Pass the objects in this quadrant and its descendants that are
+   * overlapped by the queries whose indices occupy positions
+   * {@code [first, active.size())} of {@code active} to {@code consumer}.
+   * Each of those queries is known to overlap this quadrant.
+   */
+
+  TreeVisitResult areaOverlappingAll(
+    final double[] targets,
+    final IntArrayList active,
+    final int first,
+    final QuadTreeBatchQueryConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(counters);
+
+    final int last = active.size();
+    final double[] coordinates = this.quadrant_objects.coordinates();
+
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      final int base = index * 4;
+      counters.testObjects(last - first);
+      for (int position = first; position < last; ++position) {
+        final int query = active.getInt(position);
+        final int target = query * 4;
+        if (Regions.overlapsArea(
+          targets[target],
+          targets[target + 1],
+          targets[target + 2],
+          targets[target + 3],
+          coordinates[base],
+          coordinates[base + 1],
+          coordinates[base + 2],
+          coordinates[base + 3])) {
+          counters.hits(1L);
+          if (consumer.accept(
+            query,
+            this.quadrant_objects.item(index),
+            coordinates[base],
+            coordinates[base + 1],
+            coordinates[base + 2],
+            coordinates[base + 3]) == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the queries that overlap each non-empty child
+     * onto the stack, and pop them again once the child is done.
+     */
+
+    if (!this.isLeaf()) {
+      for (int child_index = 0; child_index < 4; ++child_index) {
+        final QuadTreeQuadrantD<T> child = this.child(child_index);
+        if (child.subtree_objects != 0) {
+          counters.testNodes(last - first);
+          for (int position = first; position < last; ++position) {
+            final int query = active.getInt(position);
+            final int target = query * 4;
+            if (Regions.overlapsArea(
+              targets[target],
+              targets[target + 1],
+              targets[target + 2],
+              targets[target + 3],
+              child.bounds.minimumX(),
+              child.bounds.maximumX(),
+              child.bounds.minimumY(),
+              child.bounds.maximumY())) {
+              active.add(query);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > last) {
+            result = child.areaOverlappingAll(
+              targets, active, last, consumer, counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(last);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The distance from the origin of {@code ray} to the given point
+   */
+
+  private static double rayDistance(
+    final Ray2D ray,
+    final double x,
+    final double y)
+  {
+    final Vector2D origin = ray.origin();
+    final double dx = x - origin.x();
+    final double dy = y - origin.y();
+    return Math.sqrt((dx * dx) + (dy * dy));
+  }
+
+  /**
+   * Pass the objects in this quadrant and its descendants that are
+   * intersected by the rays whose indices occupy positions
+   * {@code [first, active.size())} of {@code active} to {@code consumer}.
+   * Each of those rays is known to intersect this quadrant.
+   */
+
+  TreeVisitResult raycastAll(
+    final Ray2D[] rays,
+    final IntArrayList active,
+    final int first,
+    final QuadTreeBatchRaycastConsumerDType<T> consumer,
+    final QueryCounters counters)
+  {
+    this.visited(counters);
+
+    final int last = active.size();
+    final double[] coordinates = this.quadrant_objects.coordinates();
+
+    for (int index = 0; index < this.quadrant_objects.size(); ++index) {
+      final int base = index * 4;
+      final double item_x0 = coordinates[base];
+      final double item_x1 = coordinates[base + 1];
+      final double item_y0 = coordinates[base + 2];
+      final double item_y1 = coordinates[base + 3];
+
+      counters.testObjects(last - first);
+      for (int position = first; position < last; ++position) {
+        final int ray_index = active.getInt(position);
+        final Ray2D ray = rays[ray_index];
+        if (ray.intersectsArea(
+            item_x0,
+            item_y0,
+            item_x1,
+            item_y1)) {
+          final double distance =
+            rayDistance(ray, item_x0, item_y0);
+          counters.hits(1L);
+          if (consumer.accept(
+              ray_index,
+              this.quadrant_objects.item(index),
+              item_x0,
+              item_x1,
+              item_y0,
+              item_y1,
+              distance)
+            == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+
+    /*
+     * Push the subset of the rays that intersect each non-empty child onto
+     * the stack, and pop them again once the child is done. Rays that miss
+     * a child are never tested against anything inside it.
+     */
+
+    if (!this.isLeaf()) {
+      for (int child_index = 0; child_index < 4; ++child_index) {
+        final QuadTreeQuadrantD<T> child = this.child(child_index);
+        if (child.subtree_objects != 0) {
+          final double x0 = child.bounds.minimumX();
+          final double x1 = child.bounds.maximumX();
+          final double y0 = child.bounds.minimumY();
+          final double y1 = child.bounds.maximumY();
+          counters.testNodes(last - first);
+          for (int position = first; position < last; ++position) {
+            final int ray_index = active.getInt(position);
+            if (rays[ray_index].intersectsArea(x0, y0, x1, y1)) {
+              active.add(ray_index);
+            }
+          }
+
+          final TreeVisitResult result;
+          if (active.size() > last) {
+            result = child.raycastAll(rays, active, last, consumer, counters);
+          } else {
+            result = TreeVisitResult.RESULT_CONTINUE;
+          }
+          active.size(last);
+          if (result == TreeVisitResult.RESULT_TERMINATE) {
+            return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+      }
+    }
+    return TreeVisitResult.RESULT_CONTINUE;
+  }
+
+  /**
+   * @return The child quadrant with the given index, where bit 0 of the
+   * index selects the upper X half, and bit 1 selects the upper Y half
+   */
+
+  QuadTreeQuadrantD<T> child(final int index)
+  {
+    switch (index) {
+      case 0:
+        return this.x0y0;
+      case 1:
+        return this.x1y0;
+      case 2:
+        return this.x0y1;
+      case 3:
+        return this.x1y1;
+      default:
+        throw new UnreachableCodeException();
+    }
+  }
+
+  <C> TreeVisitResult iterateQuadrants(
+    final C context,
+    final QuadTreeQuadrantIterationDType<T, C> f,
+    final long depth)
+  {
+    switch (f.apply(context, this, depth)) {
+      case RESULT_CONTINUE: {
+        if (!this.isLeaf()) {
+          switch (this.x0y0.iterateQuadrants(
+            context, f, Math.addExact(depth, 1L))) {
+            case RESULT_CONTINUE:
+              break;
+            case RESULT_TERMINATE:
+              return TreeVisitResult.RESULT_TERMINATE;
+          }
+          switch (this.x1y0.iterateQuadrants(
+            context, f, Math.addExact(depth, 1L))) {
+            case RESULT_CONTINUE:
+              break;
+            case RESULT_TERMINATE:
+              return TreeVisitResult.RESULT_TERMINATE;
+          }
+          switch (this.x0y1.iterateQuadrants(
+            context, f, Math.addExact(depth, 1L))) {
+            case RESULT_CONTINUE:
+              break;
+            case RESULT_TERMINATE:
+              return TreeVisitResult.RESULT_TERMINATE;
+          }
+          switch (this.x1y1.iterateQuadrants(
+            context, f, Math.addExact(depth, 1L))) {
+            case RESULT_CONTINUE:
+              break;
+            case RESULT_TERMINATE:
+              return TreeVisitResult.RESULT_TERMINATE;
+          }
+        }
+        return TreeVisitResult.RESULT_CONTINUE;
+      }
+      case RESULT_TERMINATE:
+        return TreeVisitResult.RESULT_TERMINATE;
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  @Override
+  public Map<T, AreaD> objects()
+  {
+    return new NodeObjectsMap<>(this.quadrant_objects, this::boundsAt);
+  }
+
+  @Override
+  public AreaD area()
+  {
+    return this.area;
+  }
+
+  /**
+   * Attempt to turn this node back into a leaf.
+   */
+
+  private void unsplitAttempt()
+  {
+    if (!this.isLeaf()) {
+      final boolean x0y0_can_be_pruned = this.x0y0.unsplitCanPrune();
+      final boolean x1y0_can_be_pruned = this.x1y0.unsplitCanPrune();
+      final boolean x0y1_can_be_pruned = this.x0y1.unsplitCanPrune();
+      final boolean x1y1_can_be_pruned = this.x1y1.unsplitCanPrune();
+
+      if (x0y0_can_be_pruned
+        && x1y0_can_be_pruned
+        && x0y1_can_be_pruned
+        && x1y1_can_be_pruned) {
+        this.x0y0 = null;
+        this.x0y1 = null;
+        this.x1y0 = null;
+        this.x1y1 = null;
+      }
+    }
+  }
+
+  /**
+   * Attempt to turn this node and as many ancestors of this node back into
+   * leaves as possible.
+   */
+
+  private void unsplitAttemptRecursive()
+  {
+    this.unsplitAttempt();
+    if (this.parent != null) {
+      this.parent.unsplitAttemptRecursive();
+    }
+  }
+
+  private boolean unsplitCanPrune()
+  {
+    return this.isLeaf() && this.quadrant_objects.isEmpty();
+  }
+
+  /**
+   * Trim this (unshared) quadrant, copying only those descendants that
+   * change. Only empty quadrants are removed, so the number of objects
+   * in each remaining subtree is unchanged.
+   */
+
+  void trim()
+  {
+    final QuadTreeQuadrantD<T> result = this.trimmed();
+    Invariants.checkInvariant(
+      result == this, "Quadrant must not be shared");
+  }
+
+  /**
+   * Trim the subtree rooted at this quadrant in a single pass. Subtrees that
+   * hold no objects are removed without being examined.
+   *
+   * @return This quadrant, or a trimmed copy if this quadrant is shared
+   * with a snapshot and trimming changes it
+   */
+
+  private QuadTreeQuadrantD<T> trimmed()
+  {
+    if (this.isLeaf()) {
+      return this;
+    }
+
+    if (this.subtree_objects == this.quadrant_objects.size()) {
+      final QuadTreeQuadrantD<T> result = this.owned();
+      result.x0y0 = null;
+      result.x1y0 = null;
+      result.x0y1 = null;
+      result.x1y1 = null;
+      return result;
+    }
+
+    QuadTreeQuadrantD<T> result = this;
+    for (int index = 0; index < 4; ++index) {
+      final QuadTreeQuadrantD<T> child = result.child(index);
+      final QuadTreeQuadrantD<T> child_trimmed = child.trimmed();
+      if (child_trimmed != child) {
+        result = result.owned();
+        child_trimmed.parent = result;
+        result.setChild(index, child_trimmed);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return This quadrant, or a copy of it that belongs to the current
+   * generation of the tree if it is shared with a snapshot
+   */
+
+  private QuadTreeQuadrantD<T> owned()
+  {
+    if (this.generation == this.tree.generation()) {
+      return this;
+    }
+
+    final QuadTreeQuadrantD<T> copy =
+      new QuadTreeQuadrantD<>(this.tree, this.parent, this);
+    copy.claimObjects();
+    return copy;
+  }
+
+  /**
+   * @return The generation of the tree in which this quadrant was created
+   */
+
+  long generation()
+  {
+    return this.generation;
+  }
+
+  /**
+   * @return The loose bounds of this quadrant, against which queries are tested
+   */
+
+  AreaD bounds()
+  {
+    return this.bounds;
+  }
+
+  /**
+   * @return The objects held directly by this quadrant
+   */
+
+  NodeObjectsD<T> nodeObjects()
+  {
+    return this.quadrant_objects;
+  }
+
+  /**
+   * @return The number of objects held directly by this quadrant
+   */
+
+  int objectCount()
+  {
+    return this.quadrant_objects.size();
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
+import com.io7m.jregions.core.unparameterized.areas.AreaXYSplitD;
+import com.io7m.jspatial.api.TreeItemCodecType;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationD;
+import com.io7m.jspatial.api.quadtrees.QuadTreeDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeReadableDType;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Functions to serialize and deserialize quadtrees.
+ *
+ * A serialized tree records the quadrants of the tree and the objects held
+ * by each quadrant (see {@link TreeFormat}), and so deserializing a tree
+ * restores the quadrants directly: No object is inserted, and no quadrant is
+ * split, by the insertion algorithm.
+ */
+
+public final class QuadTreeSerializationD
+{
+  private QuadTreeSerializationD()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Serialize a tree. The stream is flushed but not closed.
+   *
+   * @param tree   The tree
+   * @param codec  The codec used to write objects
+   * @param stream The output stream
+   * @param <T>    The type of objects in the tree
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static <T> void write(
+    final QuadTreeReadableDType<T> tree,
+    final TreeItemCodecType<T> codec,
+    final OutputStream stream)
+    throws IOException
+  {
+    NullCheck.notNull(tree, "Tree");
+    NullCheck.notNull(codec, "Codec");
+    NullCheck.notNull(stream, "Stream");
+
+    final DataOutputStream output =
+      new DataOutputStream(new BufferedOutputStream(stream));
+    TreeFormat.writeHeader(output, TreeFormat.KIND_QUADTREE_D);
+    writeArea(output, tree.bounds());
+    output.writeLong(tree.size());
+
+    final QuadrantWriter<T> writer = new QuadrantWriter<>(output, codec);
+    try {
+      tree.iterateQuadrants(writer, (context, quadrant, depth) -> {
+        try {
+          context.visit(quadrant, depth);
+          return TreeVisitResult.RESULT_CONTINUE;
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    writer.finish();
+    output.flush();
+  }
+
+  private static void writeArea(
+    final DataOutput output,
+    final AreaD area)
+    throws IOException
+  {
+    output.writeDouble(area.minimumX());
+    output.writeDouble(area.maximumX());
+    output.writeDouble(area.minimumY());
+    output.writeDouble(area.maximumY());
+  }
+
+  private static AreaD readArea(
+    final DataInput input)
+    throws IOException
+  {
+    final double x0 = input.readDouble();
+    final double x1 = input.readDouble();
+    final double y0 = input.readDouble();
+    final double y1 = input.readDouble();
+    if (!(x0 <= x1 && y0 <= y1)) {
+      throw TreeFormat.malformed("Invalid area");
+    }
+    return AreaD.of(x0, x1, y0, y1);
+  }
+
+  /**
+   * Deserialize a tree from the given buffer, starting at the buffer's
+   * current position. The position of the buffer is not modified.
+   *
+   * The tree takes its configuration from {@code config}, with the exception
+   * of the area of the root quadrant, which is taken from the serialized tree
+   * (and may therefore be larger than the area in the configuration if the
+   * serialized tree had grown). The configuration should therefore be the
+   * configuration of the tree that was serialized.
+   *
+   * @param config The tree configuration
+   * @param codec  The codec used to read objects
+   * @param buffer The buffer
+   * @param <T>    The type of objects in the tree
+   *
+   * @return A new tree
+   *
+   * @throws IOException On I/O errors, or if the buffer does not contain a
+   *                     serialized tree
+   */
+
+  public static <T> QuadTreeDType<T> read(
+    final QuadTreeConfigurationD config,
+    final TreeItemCodecType<T> codec,
+    final ByteBuffer buffer)
+    throws IOException
+  {
+    NullCheck.notNull(config, "Configuration");
+    NullCheck.notNull(codec, "Codec");
+
+    final ByteBufferDataInput input = new ByteBufferDataInput(buffer);
+    TreeFormat.readHeader(input, TreeFormat.KIND_QUADTREE_D);
+    final AreaD area = readArea(input);
+    final long size = input.readLong();
+
+    final QuadTreeD<T> tree = QuadTreeD.createRestored(config, area);
+    readQuadrant(input, codec, tree.root());
+    TreeFormat.checkEnd(input, size, tree.size());
+    return tree;
+  }
+
+  /**
+   * Deserialize a tree from the given file. The file is mapped into memory
+   * with {@link java.nio.channels.FileChannel#map}, and the tree is restored
+   * as by {@link #read(QuadTreeConfigurationD, TreeItemCodecType, ByteBuffer)}.
+   *
+   * @param config The tree configuration
+   * @param codec  The codec used to read objects
+   * @param path   The file
+   * @param <T>    The type of objects in the tree
+   *
+   * @return A new tree
+   *
+   * @throws IOException On I/O errors, or if the file does not contain a
+   *                     serialized tree
+   */
+
+  public static <T> QuadTreeDType<T> load(
+    final QuadTreeConfigurationD config,
+    final TreeItemCodecType<T> codec,
+    final Path path)
+    throws IOException
+  {
+    NullCheck.notNull(path, "Path");
+    return read(config, codec, TreeFormat.map(path));
+  }
+
+  private static <T> void readQuadrant(
+    final ByteBufferDataInput input,
+    final TreeItemCodecType<T> codec,
+    final QuadTreeQuadrantD<T> quadrant)
+    throws IOException
+  {
+    final AreaD[] children = readChildAreas(input, quadrant.area());
+
+    final int count = TreeFormat.readObjectCount(input);
+    for (int index = 0; index < count; ++index) {
+      final double x0 = input.readDouble();
+      final double x1 = input.readDouble();
+      final double y0 = input.readDouble();
+      final double y1 = input.readDouble();
+      if (!(x0 <= x1 && y0 <= y1)) {
+        throw TreeFormat.malformed("Invalid object bounds");
+      }
+      final T item = NullCheck.notNull(codec.read(input), "Item");
+      if (!quadrant.restoreObject(item, x0, x1, y0, y1)) {
+        throw TreeFormat.malformed(
+          "Object is duplicated or does not fit its quadrant: " + item);
+      }
+    }
+
+    for (int index = 0; index < children.length; ++index) {
+      readQuadrant(input, codec, quadrant.restoreChild(index, children[index]));
+    }
+    quadrant.restoreCount();
+  }
+
+  /**
+   * Read the way in which a quadrant is split.
+   *
+   * @return The areas of the children of the quadrant in index order, or an
+   * empty array if the quadrant is a leaf
+   */
+
+  private static AreaD[] readChildAreas(
+    final DataInput input,
+    final AreaD area)
+    throws IOException
+  {
+    switch (TreeFormat.readNodeKind(input)) {
+      case TreeFormat.NODE_LEAF: {
+        return new AreaD[0];
+      }
+      case TreeFormat.NODE_SUBDIVIDED: {
+        final AreaXYSplitD<AreaD> split = QuadrantsD.subdivide(area);
+        return new AreaD[]{
+          split.x0y0(),
+          split.x1y0(),
+          split.x0y1(),
+          split.x1y1(),
+        };
+      }
+      case TreeFormat.NODE_SPLIT: {
+        final double x = input.readDouble();
+        final double y = input.readDouble();
+        if (!(area.minimumX() < x && x < area.maximumX()
+          && area.minimumY() < y && y < area.maximumY())) {
+          throw TreeFormat.malformed("Split point is not within quadrant");
+        }
+        return new AreaD[]{
+          AreaD.of(area.minimumX(), x, area.minimumY(), y),
+          AreaD.of(x, area.maximumX(), area.minimumY(), y),
+          AreaD.of(area.minimumX(), x, y, area.maximumY()),
+          AreaD.of(x, area.maximumX(), y, area.maximumY()),
+        };
+      }
+      default: {
+        throw new UnreachableCodeException();
+      }
+    }
+  }
+
+  /**
+   * A writer that records the quadrants of a tree as they are visited in
+   * pre-order. The record of a quadrant begins with the way in which it is
+   * split, and so each record is written when the next quadrant is visited
+   * (or when the traversal has finished).
+   *
+   * @param <T> The type of objects in the tree
+   */
+
+  private static final class QuadrantWriter<T>
+  {
+    private final DataOutput output;
+    private final TreeItemCodecType<T> codec;
+    private @Nullable QuadTreeQuadrantDType<T> pending;
+    private long pending_depth;
+
+    QuadrantWriter(
+      final DataOutput in_output,
+      final TreeItemCodecType<T> in_codec)
+    {
+      this.output = NullCheck.notNull(in_output, "Output");
+      this.codec = NullCheck.notNull(in_codec, "Codec");
+    }
+
+    void visit(
+      final QuadTreeQuadrantDType<T> quadrant,
+      final long depth)
+      throws IOException
+    {
+      final @Nullable QuadTreeQuadrantDType<T> previous = this.pending;
+      if (previous != null) {
+        if (depth > this.pending_depth) {
+          this.writeSplit(previous.area(), quadrant.area());
+        } else {
+          this.output.writeByte(TreeFormat.NODE_LEAF);
+        }
+        this.writeObjects(previous);
+      }
+      this.pending = quadrant;
+      this.pending_depth = depth;
+    }
+
+    void finish()
+      throws IOException
+    {
+      final @Nullable QuadTreeQuadrantDType<T> previous = this.pending;
+      if (previous != null) {
+        this.output.writeByte(TreeFormat.NODE_LEAF);
+        this.writeObjects(previous);
+        this.pending = null;
+      }
+    }
+
+    /**
+     * Write the way in which a quadrant is split, given the area of its
+     * first child. The children of a quadrant are usually produced by
+     * {@link QuadrantsD#subdivide(AreaD)}, but the root of a tree that has
+     * grown is split at the bounds of the previous root.
+     */
+
+    private void writeSplit(
+      final AreaD area,
+      final AreaD first)
+      throws IOException
+    {
+      if (QuadrantsD.subdivide(area).x0y0().equals(first)) {
+        this.output.writeByte(TreeFormat.NODE_SUBDIVIDED);
+      } else {
+        this.output.writeByte(TreeFormat.NODE_SPLIT);
+        this.output.writeDouble(first.maximumX());
+        this.output.writeDouble(first.maximumY());
+      }
+    }
+
+    private void writeObjects(
+      final QuadTreeQuadrantDType<T> quadrant)
+      throws IOException
+    {
+      final Map<T, AreaD> objects = quadrant.objects();
+      this.output.writeInt(objects.size());
+      for (final Map.Entry<T, AreaD> entry : objects.entrySet()) {
+        writeArea(this.output, entry.getValue());
+        this.codec.write(this.output, entry.getKey());
+      }
+    }
+  }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jregions.core.unparameterized.areas.AreaL;
+import com.io7m.jregions.core.unparameterized.areas.AreaXYSplitL;
+import com.io7m.jspatial.api.TreeItemCodecType;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationL;
+import com.io7m.jspatial.api.quadtrees.QuadTreeLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeQuadrantLType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeReadableLType;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Functions to serialize and deserialize quadtrees.
+ *
+ * A serialized tree records the quadrants of the tree and the objects held
+ * by each quadrant (see {@link TreeFormat}), and so deserializing a tree
+ * restores the quadrants directly: No object is inserted, and no quadrant is
+ * split, by the insertion algorithm.
+ */
+
+public final class QuadTreeSerializationL
+{
+  private QuadTreeSerializationL()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Serialize a tree. The stream is flushed but not closed.
+   *
+   * @param tree   The tree
+   * @param codec  The codec used to write objects
+   * @param stream The output stream
+   * @param <T>    The type of objects in the tree
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static <T> void write(
+    final QuadTreeReadableLType<T> tree,
+    final TreeItemCodecType<T> codec,
+    final OutputStream stream)
+    throws IOException
+  {
+    NullCheck.notNull(tree, "Tree");
+    NullCheck.notNull(codec, "Codec");
+    NullCheck.notNull(stream, "Stream");
+
+    final DataOutputStream output =
+      new DataOutputStream(new BufferedOutputStream(stream));
+    TreeFormat.writeHeader(output, TreeFormat.KIND_QUADTREE_L);
+    writeArea(output, tree.bounds());
+    output.writeLong(tree.size());
+
+    final QuadrantWriter<T> writer = new QuadrantWriter<>(output, codec);
+    try {
+      tree.iterateQuadrants(writer, (context, quadrant, depth) -> {
+        try {
+          context.visit(quadrant, depth);
+          return TreeVisitResult.RESULT_CONTINUE;
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    writer.finish();
+    output.flush();
+  }
+
+  private static void writeArea(
+    final DataOutput output,
+    final AreaL area)
+    throws IOException
+  {
+    output.writeLong(area.minimumX());
+    output.writeLong(area.maximumX());
+    output.writeLong(area.minimumY());
+    output.writeLong(area.maximumY());
+  }
+
+  private static AreaL readArea(
+    final DataInput input)
+    throws IOException
+  {
+    final long x0 = input.readLong();
+    final long x1 = input.readLong();
+    final long y0 = input.readLong();
+    final long y1 = input.readLong();
+    if (!(x0 <= x1 && y0 <= y1)) {
+      throw TreeFormat.malformed("Invalid area");
+    }
+    return AreaL.of(x0, x1, y0, y1);
+  }
+
+  /**
+   * Deserialize a tree from the given buffer, starting at the buffer's
+   * current position. The position of the buffer is not modified.
+   *
+   * The tree takes its configuration from {@code config}, with the exception
+   * of the area of the root quadrant, which is taken from the serialized tree
+   * (and may therefore be larger than the area in the configuration if the
+   * serialized tree had grown). The configuration should therefore be the
+   * configuration of the tree that was serialized.
+   *
+   * @param config The tree configuration
+   * @param codec  The codec used to read objects
+   * @param buffer The buffer
+   * @param <T>    The type of objects in the tree
+   *
+   * @return A new tree
+   *
+   * @throws IOException On I/O errors, or if the buffer does not contain a
+   *                     serialized tree
+   */
+
+  public static <T> QuadTreeLType<T> read(
+    final QuadTreeConfigurationL config,
+    final TreeItemCodecType<T> codec,
+    final ByteBuffer buffer)
+    throws IOException
+  {
+    NullCheck.notNull(config, "Configuration");
+    NullCheck.notNull(codec, "Codec");
+
+    final ByteBufferDataInput input = new ByteBufferDataInput(buffer);
+    TreeFormat.readHeader(input, TreeFormat.KIND_QUADTREE_L);
+    final AreaL area = readArea(input);
+    final long size = input.readLong();
+
+    final QuadTreeL<T> tree = QuadTreeL.createRestored(config, area);
+    readQuadrant(input, codec, tree.root());
+    TreeFormat.checkEnd(input, size, tree.size());
+    return tree;
+  }
+
+  /**
+   * Deserialize a tree from the given file. The file is mapped into memory
+   * with {@link java.nio.channels.FileChannel#map}, and the tree is restored
+   * as by {@link #read(QuadTreeConfigurationL, TreeItemCodecType, ByteBuffer)}.
+   *
+   * @param config The tree configuration
+   * @param codec  The codec used to read objects
+   * @param path   The file
+   * @param <T>    The type of objects in the tree
+   *
+   * @return A new tree
+   *
+   * @throws IOException On I/O errors, or if the file does not contain a
+   *                     serialized tree
+   */
+
+  public static <T> QuadTreeLType<T> load(
+    final QuadTreeConfigurationL config,
+    final TreeItemCodecType<T> codec,
+    final Path path)
+    throws IOException
+  {
+    NullCheck.notNull(path, "Path");
+    return read(config, codec, TreeFormat.map(path));
+  }
+
+  private static <T> void readQuadrant(
+    final ByteBufferDataInput input,
+    final TreeItemCodecType<T> codec,
+    final QuadTreeQuadrantL<T> quadrant)
+    throws IOException
+  {
+    final AreaL[] children = readChildAreas(input, quadrant.area());
+
+    final int count = TreeFormat.readObjectCount(input);
+    for (int index = 0; index < count; ++index) {
+      final long x0 = input.readLong();
+      final long x1 = input.readLong();
+      final long y0 = input.readLong();
+      final long y1 = input.readLong();
+      if (!(x0 <= x1 && y0 <= y1)) {
+        throw TreeFormat.malformed("Invalid object bounds");
+      }
+      final T item = NullCheck.notNull(codec.read(input), "Item");
+      if (!quadrant.restoreObject(item, x0, x1, y0, y1)) {
+        throw TreeFormat.malformed(
+          "Object is duplicated or does not fit its quadrant: " + item);
+      }
+    }
+
+    for (int index = 0; index < children.length; ++index) {
+      readQuadrant(input, codec, quadrant.restoreChild(index, children[index]));
+    }
+    quadrant.restoreCount();
+  }
+
+  /**
+   * Read the way in which a quadrant is split.
+   *
+   * @return The areas of the children of the quadrant in index order, or an
+   * empty array if the quadrant is a leaf
+   */
+
+  private static AreaL[] readChildAreas(
+    final DataInput input,
+    final AreaL area)
+    throws IOException
+  {
+    switch (TreeFormat.readNodeKind(input)) {
+      case TreeFormat.NODE_LEAF: {
+        return new AreaL[0];
+      }
+      case TreeFormat.NODE_SUBDIVIDED: {
+        final AreaXYSplitL<AreaL> split =
+          QuadrantsL.subdivide(area).orElseThrow(
+            () -> TreeFormat.malformed(
+              "Quadrant cannot be subdivided"));
+        return new AreaL[]{
+          split.x0y0(),
+          split.x1y0(),
+          split.x0y1(),
+          split.x1y1(),
+        };
+      }
+      case TreeFormat.NODE_SPLIT: {
+        final long x = input.readLong();
+        final long y = input.readLong();
+        if (!(area.minimumX() < x && x < area.maximumX()
+          && area.minimumY() < y && y < area.maximumY())) {
+          throw TreeFormat.malformed("Split point is not within quadrant");
+        }
+        return new AreaL[]{
+          AreaL.of(area.minimumX(), x, area.minimumY(), y),
+          AreaL.of(x, area.maximumX(), area.minimumY(), y),
+          AreaL.of(area.minimumX(), x, y, area.maximumY()),
+          AreaL.of(x, area.maximumX(), y, area.maximumY()),
+        };
+      }
+      default: {
+        throw new UnreachableCodeException();
+      }
+    }
+  }
+
+  /**
+   * A writer that records the quadrants of a tree as they are visited in
+   * pre-order. The record of a quadrant begins with the way in which it is
+   * split, and so each record is written when the next quadrant is visited
+   * (or when the traversal has finished).
+   *
+   * @param <T> The type of objects in the tree
+   */
+
+  private static final class QuadrantWriter<T>
+  {
+    private final DataOutput output;
+    private final TreeItemCodecType<T> codec;
+    private @Nullable QuadTreeQuadrantLType<T> pending;
+    private long pending_depth;
+
+    QuadrantWriter(
+      final DataOutput in_output,
+      final TreeItemCodecType<T> in_codec)
+    {
+      this.output = NullCheck.notNull(in_output, "Output");
+      this.codec = NullCheck.notNull(in_codec, "Codec");
+    }
+
+    void visit(
+      final QuadTreeQuadrantLType<T> quadrant,
+      final long depth)
+      throws IOException
+    {
+      final @Nullable QuadTreeQuadrantLType<T> previous = this.pending;
+      if (previous != null) {
+        if (depth > this.pending_depth) {
+          this.writeSplit(previous.area(), quadrant.area());
+        } else {
+          this.output.writeByte(TreeFormat.NODE_LEAF);
+        }
+        this.writeObjects(previous);
+      }
+      this.pending = quadrant;
+      this.pending_depth = depth;
+    }
+
+    void finish()
+      throws IOException
+    {
+      final @Nullable QuadTreeQuadrantLType<T> previous = this.pending;
+      if (previous != null) {
+        this.output.writeByte(TreeFormat.NODE_LEAF);
+        this.writeObjects(previous);
+        this.pending = null;
+      }
+    }
+
+    /**
+     * Write the way in which a quadrant is split, given the area of its
+     * first child. The children of a quadrant are usually produced by
+     * {@link QuadrantsL#subdivide(AreaL)}, but the root of a tree that has
+     * grown is split at the bounds of the previous root.
+     */
+
+    private void writeSplit(
+      final AreaL area,
+      final AreaL first)
+      throws IOException
+    {
+      final Optional<AreaXYSplitL<AreaL>> split =
+        QuadrantsL.subdivide(area);
+      if (split.isPresent() && split.get().x0y0().equals(first)) {
+        this.output.writeByte(TreeFormat.NODE_SUBDIVIDED);
+      } else {
+        this.output.writeByte(TreeFormat.NODE_SPLIT);
+        this.output.writeLong(first.maximumX());
+        this.output.writeLong(first.maximumY());
+      }
+    }
+
+    private void writeObjects(
+      final QuadTreeQuadrantLType<T> quadrant)
+      throws IOException
+    {
+      final Map<T, AreaL> objects = quadrant.objects();
+      this.output.writeInt(objects.size());
+      for (final Map.Entry<T, AreaL> entry : objects.entrySet()) {
+        writeArea(this.output, entry.getValue());
+        this.codec.write(this.output, entry.getKey());
+      }
+    }
+  }
+}
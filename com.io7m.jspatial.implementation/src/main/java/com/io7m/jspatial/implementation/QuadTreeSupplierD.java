@@ -16,11 +16,15 @@
 
 package com.io7m.jspatial.implementation;
 
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationD;
 import com.io7m.jspatial.api.quadtrees.QuadTreeDType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeSupplierDType;
 import org.osgi.service.component.annotations.Component;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * The default implementation of the {@link QuadTreeSupplierDType} interface.
  */
@@ -42,4 +46,21 @@ public final class QuadTreeSupplierD implements QuadTreeSupplierDType
   {
     return QuadTreeD.create(config);
   }
+
+  @Override
+  public <A> QuadTreeDType<A> createFrom(
+    final QuadTreeConfigurationD config,
+    final Map<A, AreaD> items)
+  {
+    return QuadTreeD.createFrom(config, items);
+  }
+
+  @Override
+  public <A> QuadTreeDType<A> createFromParallel(
+    final QuadTreeConfigurationD config,
+    final Map<A, AreaD> items,
+    final ForkJoinPool pool)
+  {
+    return QuadTreeD.createFromParallel(config, items, pool);
+  }
 }
@@ -16,11 +16,15 @@
 
 package com.io7m.jspatial.implementation;
 
+import com.io7m.jregions.core.unparameterized.areas.AreaI;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationI;
 import com.io7m.jspatial.api.quadtrees.QuadTreeIType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeSupplierIType;
 import org.osgi.service.component.annotations.Component;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * The default implementation of the {@link QuadTreeSupplierIType} interface.
  */
@@ -42,4 +46,21 @@ public final class QuadTreeSupplierI implements QuadTreeSupplierIType
   {
     return QuadTreeI.create(config);
   }
+
+  @Override
+  public <A> QuadTreeIType<A> createFrom(
+    final QuadTreeConfigurationI config,
+    final Map<A, AreaI> items)
+  {
+    return QuadTreeI.createFrom(config, items);
+  }
+
+  @Override
+  public <A> QuadTreeIType<A> createFromParallel(
+    final QuadTreeConfigurationI config,
+    final Map<A, AreaI> items,
+    final ForkJoinPool pool)
+  {
+    return QuadTreeI.createFromParallel(config, items, pool);
+  }
 }
@@ -16,11 +16,15 @@
 
 package com.io7m.jspatial.implementation;
 
+import com.io7m.jregions.core.unparameterized.areas.AreaL;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationL;
 import com.io7m.jspatial.api.quadtrees.QuadTreeLType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeSupplierLType;
 import org.osgi.service.component.annotations.Component;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * The default implementation of the {@link QuadTreeSupplierLType} interface.
  */
@@ -42,4 +46,21 @@ public final class QuadTreeSupplierL implements QuadTreeSupplierLType
   {
     return QuadTreeL.create(config);
   }
+
+  @Override
+  public <A> QuadTreeLType<A> createFrom(
+    final QuadTreeConfigurationL config,
+    final Map<A, AreaL> items)
+  {
+    return QuadTreeL.createFrom(config, items);
+  }
+
+  @Override
+  public <A> QuadTreeLType<A> createFromParallel(
+    final QuadTreeConfigurationL config,
+    final Map<A, AreaL> items,
+    final ForkJoinPool pool)
+  {
+    return QuadTreeL.createFromParallel(config, items, pool);
+  }
 }
@@ -22,6 +22,8 @@ import com.io7m.jregions.core.unparameterized.areas.AreaXYSplitD;
 import com.io7m.jregions.core.unparameterized.areas.AreasD;
 import com.io7m.junreachable.UnreachableCodeException;
 
+import java.util.Optional;
+
 /**
  * Functions to divide areas into quadrants.
  */
@@ -51,4 +53,94 @@ public final class QuadrantsD
       area.sizeX() / 2.0,
       area.sizeY() / 2.0);
   }
+
+  /**
+   * Enlarge an area about its centre so that its size on each axis is
+   * multiplied by {@code factor}. The area is returned unchanged if
+   * {@code factor <= 1.0}.
+   *
+   * @param area   The area
+   * @param factor The factor
+   *
+   * @return The enlarged area
+   */
+
+  public static AreaD loosen(
+    final AreaD area,
+    final double factor)
+  {
+    NullCheck.notNull(area, "Area");
+
+    if (factor <= 1.0) {
+      return area;
+    }
+
+    final double margin_x = area.sizeX() * (factor - 1.0) / 2.0;
+    final double margin_y = area.sizeY() * (factor - 1.0) / 2.0;
+    return AreaD.of(
+      area.minimumX() - margin_x,
+      area.maximumX() + margin_x,
+      area.minimumY() - margin_y,
+      area.maximumY() + margin_y);
+  }
+
+  /**
+   * Extend an area to twice its width and height, such that the original
+   * area becomes one of the four quadrants of the result. On each axis, the
+   * area is extended towards negative infinity if the corresponding
+   * {@code lower} parameter is {@code true}, and towards positive infinity
+   * otherwise. No extended area exists if the area is empty on any
+   * axis, or if the result would not be representable.
+   *
+   * @param area    The area
+   * @param lower_x Whether to extend towards negative infinity on the X axis
+   * @param lower_y Whether to extend towards negative infinity on the Y axis
+   *
+   * @return The extended area, if any
+   */
+
+  public static Optional<AreaD> extend(
+    final AreaD area,
+    final boolean lower_x,
+    final boolean lower_y)
+  {
+    NullCheck.notNull(area, "Area");
+
+    final double size_x = area.sizeX();
+    final double size_y = area.sizeY();
+
+    final double x0;
+    final double x1;
+    if (lower_x) {
+      x0 = area.minimumX() - size_x;
+      x1 = area.maximumX();
+    } else {
+      x0 = area.minimumX();
+      x1 = area.maximumX() + size_x;
+    }
+
+    final double y0;
+    final double y1;
+    if (lower_y) {
+      y0 = area.minimumY() - size_y;
+      y1 = area.maximumY();
+    } else {
+      y0 = area.minimumY();
+      y1 = area.maximumY() + size_y;
+    }
+
+    if (extensible(size_x, x0, x1)
+      && extensible(size_y, y0, y1)) {
+      return Optional.of(AreaD.of(x0, x1, y0, y1));
+    }
+    return Optional.empty();
+  }
+
+  private static boolean extensible(
+    final double size,
+    final double minimum,
+    final double maximum)
+  {
+    return size > 0.0 && Double.isFinite(minimum) && Double.isFinite(maximum);
+  }
 }
@@ -58,4 +58,117 @@ public final class QuadrantsI
     }
     return Optional.empty();
   }
+
+  /**
+   * Enlarge an area about its centre so that its size on each axis is
+   * multiplied by {@code factor}. The area is returned unchanged if
+   * {@code factor <= 1.0}. Fractional margins are rounded towards zero, and
+   * the result is clamped to the range of the coordinate type.
+   *
+   * @param area   The area
+   * @param factor The factor
+   *
+   * @return The enlarged area
+   */
+
+  public static AreaI loosen(
+    final AreaI area,
+    final double factor)
+  {
+    NullCheck.notNull(area, "Area");
+
+    if (factor <= 1.0) {
+      return area;
+    }
+
+    final long margin_x =
+      (long) ((double) area.sizeX() * (factor - 1.0) / 2.0);
+    final long margin_y =
+      (long) ((double) area.sizeY() * (factor - 1.0) / 2.0);
+    return AreaI.of(
+      lower(area.minimumX(), margin_x),
+      upper(area.maximumX(), margin_x),
+      lower(area.minimumY(), margin_y),
+      upper(area.maximumY(), margin_y));
+  }
+
+  private static int lower(
+    final int x,
+    final long margin)
+  {
+    return (int) Math.max((long) Integer.MIN_VALUE, (long) x - margin);
+  }
+
+  private static int upper(
+    final int x,
+    final long margin)
+  {
+    return (int) Math.min((long) Integer.MAX_VALUE, (long) x + margin);
+  }
+
+  /**
+   * Extend an area to twice its width and height, such that the original
+   * area becomes one of the four quadrants of the result. On each axis, the
+   * area is extended towards negative infinity if the corresponding
+   * {@code lower} parameter is {@code true}, and towards positive infinity
+   * otherwise. No extended area exists if the area is empty on any
+   * axis, or if the result would not be representable.
+   *
+   * @param area    The area
+   * @param lower_x Whether to extend towards negative infinity on the X axis
+   * @param lower_y Whether to extend towards negative infinity on the Y axis
+   *
+   * @return The extended area, if any
+   */
+
+  public static Optional<AreaI> extend(
+    final AreaI area,
+    final boolean lower_x,
+    final boolean lower_y)
+  {
+    NullCheck.notNull(area, "Area");
+
+    final int size_x = area.sizeX();
+    final int size_y = area.sizeY();
+    if (!extensible(area.minimumX(), area.maximumX(), size_x, lower_x)
+      || !extensible(area.minimumY(), area.maximumY(), size_y, lower_y)) {
+      return Optional.empty();
+    }
+
+    final int x0;
+    final int x1;
+    if (lower_x) {
+      x0 = area.minimumX() - size_x;
+      x1 = area.maximumX();
+    } else {
+      x0 = area.minimumX();
+      x1 = area.maximumX() + size_x;
+    }
+
+    final int y0;
+    final int y1;
+    if (lower_y) {
+      y0 = area.minimumY() - size_y;
+      y1 = area.maximumY();
+    } else {
+      y0 = area.minimumY();
+      y1 = area.maximumY() + size_y;
+    }
+    return Optional.of(AreaI.of(x0, x1, y0, y1));
+  }
+
+  private static boolean extensible(
+    final int minimum,
+    final int maximum,
+    final int size,
+    final boolean lower)
+  {
+    if (size <= 0) {
+      return false;
+    }
+    if (lower) {
+      return minimum >= Integer.MIN_VALUE + size;
+    }
+    return maximum <= Integer.MAX_VALUE - size;
+  }
 }
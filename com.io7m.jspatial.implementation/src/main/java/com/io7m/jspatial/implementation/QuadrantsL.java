@@ -58,4 +58,141 @@ public final class QuadrantsL
     }
     return Optional.empty();
   }
+
+  /**
+   * Enlarge an area about its centre so that its size on each axis is
+   * multiplied by {@code factor}. The area is returned unchanged if
+   * {@code factor <= 1.0}. Fractional margins are rounded towards zero, and
+   * the result is clamped to the range of the coordinate type.
+   *
+   * @param area   The area
+   * @param factor The factor
+   *
+   * @return The enlarged area
+   */
+
+  public static AreaL loosen(
+    final AreaL area,
+    final double factor)
+  {
+    NullCheck.notNull(area, "Area");
+
+    if (factor <= 1.0) {
+      return area;
+    }
+
+    final long margin_x = margin(area.sizeX(), factor);
+    final long margin_y = margin(area.sizeY(), factor);
+    return AreaL.of(
+      lower(area.minimumX(), margin_x),
+      upper(area.maximumX(), margin_x),
+      lower(area.minimumY(), margin_y),
+      upper(area.maximumY(), margin_y));
+  }
+
+  /**
+   * @return The margin added to each side of an extent of the given size
+   * when it is enlarged by {@code factor}, rounded towards zero
+   */
+
+  static long margin(
+    final long size,
+    final double factor)
+  {
+    return (long) ((double) size * (factor - 1.0) / 2.0);
+  }
+
+  /**
+   * @return {@code x - margin}, clamped to the range of the coordinate type
+   */
+
+  static long lower(
+    final long x,
+    final long margin)
+  {
+    if (x < Long.MIN_VALUE + margin) {
+      return Long.MIN_VALUE;
+    }
+    return x - margin;
+  }
+
+  /**
+   * @return {@code x + margin}, clamped to the range of the coordinate type
+   */
+
+  static long upper(
+    final long x,
+    final long margin)
+  {
+    if (x > Long.MAX_VALUE - margin) {
+      return Long.MAX_VALUE;
+    }
+    return x + margin;
+  }
+
+  /**
+   * Extend an area to twice its width and height, such that the original
+   * area becomes one of the four quadrants of the result. On each axis, the
+   * area is extended towards negative infinity if the corresponding
+   * {@code lower} parameter is {@code true}, and towards positive infinity
+   * otherwise. No extended area exists if the area is empty on any
+   * axis, or if the result would not be representable.
+   *
+   * @param area    The area
+   * @param lower_x Whether to extend towards negative infinity on the X axis
+   * @param lower_y Whether to extend towards negative infinity on the Y axis
+   *
+   * @return The extended area, if any
+   */
+
+  public static Optional<AreaL> extend(
+    final AreaL area,
+    final boolean lower_x,
+    final boolean lower_y)
+  {
+    NullCheck.notNull(area, "Area");
+
+    final long size_x = area.sizeX();
+    final long size_y = area.sizeY();
+    if (!extensible(area.minimumX(), area.maximumX(), size_x, lower_x)
+      || !extensible(area.minimumY(), area.maximumY(), size_y, lower_y)) {
+      return Optional.empty();
+    }
+
+    final long x0;
+    final long x1;
+    if (lower_x) {
+      x0 = area.minimumX() - size_x;
+      x1 = area.maximumX();
+    } else {
+      x0 = area.minimumX();
+      x1 = area.maximumX() + size_x;
+    }
+
+    final long y0;
+    final long y1;
+    if (lower_y) {
+      y0 = area.minimumY() - size_y;
+      y1 = area.maximumY();
+    } else {
+      y0 = area.minimumY();
+      y1 = area.maximumY() + size_y;
+    }
+    return Optional.of(AreaL.of(x0, x1, y0, y1));
+  }
+
+  private static boolean extensible(
+    final long minimum,
+    final long maximum,
+    final long size,
+    final boolean lower)
+  {
+    if (size <= 0L) {
+      return false;
+    }
+    if (lower) {
+      return minimum >= Long.MIN_VALUE + size;
+    }
+    return maximum <= Long.MAX_VALUE - size;
+  }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jnull.Nullable;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeQueryListenerType;
+
+/**
+ * The statistics collected by a single query.
+ *
+ * <p>Queries performed on a tree without a listener all share the disabled
+ * instance, which discards everything that is recorded, so queries record
+ * their statistics unconditionally. Callers check {@link #isEnabled()} only
+ * where computing a value to record would itself have a cost.</p>
+ */
+
+final class QueryCounters
+{
+  private static final QueryCounters DISABLED = new QueryCounters(null, 0L);
+
+  private final @Nullable TreeQueryListenerType listener;
+  private final long root_level;
+  private long nodes_visited;
+  private long node_tests;
+  private long object_tests;
+  private long hits;
+  private long max_depth;
+
+  private QueryCounters(
+    final @Nullable TreeQueryListenerType in_listener,
+    final long in_root_level)
+  {
+    this.listener = in_listener;
+    this.root_level = in_root_level;
+  }
+
+  /**
+   * @param listener The listener of the tree, if any
+   *
+   * @return Counters for a new query that report to {@code listener}
+   */
+
+  static QueryCounters create(
+    final @Nullable TreeQueryListenerType listener)
+  {
+    return create(listener, 0L);
+  }
+
+  /**
+   * @param listener   The listener of the tree, if any
+   * @param root_level The level of the root node of the tree being queried
+   *
+   * @return Counters for a new query that report to {@code listener}
+   *
+   * @see #visitLevel(long)
+   */
+
+  static QueryCounters create(
+    final @Nullable TreeQueryListenerType listener,
+    final long root_level)
+  {
+    if (listener == null) {
+      return DISABLED;
+    }
+    return new QueryCounters(listener, root_level);
+  }
+
+  /**
+   * @return Counters that discard everything that is recorded
+   */
+
+  static QueryCounters disabled()
+  {
+    return DISABLED;
+  }
+
+  /**
+   * @return {@code true} iff statistics are being collected
+   */
+
+  boolean isEnabled()
+  {
+    return this.listener != null;
+  }
+
+  /**
+   * Record that the query examined a node at the given depth.
+   *
+   * @param depth The depth of the node
+   */
+
+  void visit(final long depth)
+  {
+    if (this.listener != null) {
+      this.nodes_visited = this.nodes_visited + 1L;
+      this.max_depth = Math.max(this.max_depth, depth);
+    }
+  }
+
+  /**
+   * Record that the query examined a node at the given level. Nodes that
+   * can be shared between trees whose roots differ record their level
+   * instead of their depth, and the depth is the difference between the
+   * level and the level of the root given when the counters were created.
+   *
+   * @param level The level of the node
+   */
+
+  void visitLevel(final long level)
+  {
+    this.visit(level - this.root_level);
+  }
+
+  /**
+   * Record tests against the bounds of nodes.
+   *
+   * @param count The number of tests
+   */
+
+  void testNodes(final int count)
+  {
+    if (this.listener != null) {
+      this.node_tests = this.node_tests + (long) count;
+    }
+  }
+
+  /**
+   * Record tests against the bounds of objects.
+   *
+   * @param count The number of tests
+   */
+
+  void testObjects(final int count)
+  {
+    if (this.listener != null) {
+      this.object_tests = this.object_tests + (long) count;
+    }
+  }
+
+  /**
+   * Record objects produced by the query.
+   *
+   * @param count The number of objects
+   */
+
+  void hits(final long count)
+  {
+    if (this.listener != null) {
+      this.hits = this.hits + count;
+    }
+  }
+
+  /**
+   * Pass the collected statistics to the listener, if any.
+   *
+   * @param query The kind of query that completed
+   */
+
+  void report(final TreeQueryKind query)
+  {
+    final TreeQueryListenerType current = this.listener;
+    if (current != null) {
+      current.onQueryCompleted(
+        query,
+        this.nodes_visited,
+        this.node_tests,
+        this.object_tests,
+        this.hits,
+        this.max_depth);
+    }
+  }
+}
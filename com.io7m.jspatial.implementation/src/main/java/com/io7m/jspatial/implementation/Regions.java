@@ -0,0 +1,579 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.jaffirm.core.Preconditions;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * Containment and overlap tests on bounds given as individual coordinates.
+ * The tests have exactly the same semantics as the corresponding functions in
+ * {@code AreasD}, {@code VolumesD} and related classes, but do not require
+ * the bounds to be allocated as objects.
+ */
+
+final class Regions
+{
+  private Regions()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @return {@code true} iff area {@code a} contains area {@code b}
+   */
+
+  static boolean containsArea(
+    final double a_x0,
+    final double a_x1,
+    final double a_y0,
+    final double a_y1,
+    final double b_x0,
+    final double b_x1,
+    final double b_y0,
+    final double b_y1)
+  {
+    return b_x0 >= a_x0
+      && b_x1 <= a_x1
+      && b_y0 >= a_y0
+      && b_y1 <= a_y1;
+  }
+
+  /**
+   * @return {@code true} iff area {@code a} overlaps area {@code b}; areas
+   * are treated as being at least one unit in size on each axis
+   */
+
+  static boolean overlapsArea(
+    final double a_x0,
+    final double a_x1,
+    final double a_y0,
+    final double a_y1,
+    final double b_x0,
+    final double b_x1,
+    final double b_y0,
+    final double b_y1)
+  {
+    return a_x0 < b_x0 + Math.max(1.0, b_x1 - b_x0)
+      && a_x0 + Math.max(1.0, a_x1 - a_x0) > b_x0
+      && a_y0 < b_y0 + Math.max(1.0, b_y1 - b_y0)
+      && a_y0 + Math.max(1.0, a_y1 - a_y0) > b_y0;
+  }
+
+  /**
+   * @return {@code true} iff volume {@code a} contains volume {@code b}
+   */
+
+  static boolean containsVolume(
+    final double a_x0,
+    final double a_x1,
+    final double a_y0,
+    final double a_y1,
+    final double a_z0,
+    final double a_z1,
+    final double b_x0,
+    final double b_x1,
+    final double b_y0,
+    final double b_y1,
+    final double b_z0,
+    final double b_z1)
+  {
+    return containsArea(a_x0, a_x1, a_y0, a_y1, b_x0, b_x1, b_y0, b_y1)
+      && b_z0 >= a_z0
+      && b_z1 <= a_z1;
+  }
+
+  /**
+   * @return {@code true} iff volume {@code a} overlaps volume {@code b};
+   * volumes are treated as being at least one unit in size on each axis
+   */
+
+  static boolean overlapsVolume(
+    final double a_x0,
+    final double a_x1,
+    final double a_y0,
+    final double a_y1,
+    final double a_z0,
+    final double a_z1,
+    final double b_x0,
+    final double b_x1,
+    final double b_y0,
+    final double b_y1,
+    final double b_z0,
+    final double b_z1)
+  {
+    return overlapsArea(a_x0, a_x1, a_y0, a_y1, b_x0, b_x1, b_y0, b_y1)
+      && a_z0 < b_z0 + Math.max(1.0, b_z1 - b_z0)
+      && a_z0 + Math.max(1.0, a_z1 - a_z0) > b_z0;
+  }
+
+  /**
+   * @return {@code true} iff area {@code a} and area {@code b} have at least
+   * one point in common, counting points on their edges
+   */
+
+  static boolean intersectsArea(
+    final double a_x0,
+    final double a_x1,
+    final double a_y0,
+    final double a_y1,
+    final double b_x0,
+    final double b_x1,
+    final double b_y0,
+    final double b_y1)
+  {
+    return a_x0 <= b_x1
+      && b_x0 <= a_x1
+      && a_y0 <= b_y1
+      && b_y0 <= a_y1;
+  }
+
+  /**
+   * @return {@code true} iff volume {@code a} and volume {@code b} have at
+   * least one point in common, counting points on their faces
+   */
+
+  static boolean intersectsVolume(
+    final double a_x0,
+    final double a_x1,
+    final double a_y0,
+    final double a_y1,
+    final double a_z0,
+    final double a_z1,
+    final double b_x0,
+    final double b_x1,
+    final double b_y0,
+    final double b_y1,
+    final double b_z0,
+    final double b_z1)
+  {
+    return intersectsArea(a_x0, a_x1, a_y0, a_y1, b_x0, b_x1, b_y0, b_y1)
+      && a_z0 <= b_z1
+      && b_z0 <= a_z1;
+  }
+
+  /**
+   * @return {@code true} iff area {@code a} contains area {@code b}
+   */
+
+  static boolean containsArea(
+    final long a_x0,
+    final long a_x1,
+    final long a_y0,
+    final long a_y1,
+    final long b_x0,
+    final long b_x1,
+    final long b_y0,
+    final long b_y1)
+  {
+    return b_x0 >= a_x0
+      && b_x1 <= a_x1
+      && b_y0 >= a_y0
+      && b_y1 <= a_y1;
+  }
+
+  /**
+   * @return {@code true} iff area {@code a} overlaps area {@code b}; areas
+   * are treated as being at least one unit in size on each axis
+   */
+
+  static boolean overlapsArea(
+    final long a_x0,
+    final long a_x1,
+    final long a_y0,
+    final long a_y1,
+    final long b_x0,
+    final long b_x1,
+    final long b_y0,
+    final long b_y1)
+  {
+    return a_x0 < b_x0 + Math.max(1L, b_x1 - b_x0)
+      && a_x0 + Math.max(1L, a_x1 - a_x0) > b_x0
+      && a_y0 < b_y0 + Math.max(1L, b_y1 - b_y0)
+      && a_y0 + Math.max(1L, a_y1 - a_y0) > b_y0;
+  }
+
+  /**
+   * @return {@code true} iff volume {@code a} contains volume {@code b}
+   */
+
+  static boolean containsVolume(
+    final long a_x0,
+    final long a_x1,
+    final long a_y0,
+    final long a_y1,
+    final long a_z0,
+    final long a_z1,
+    final long b_x0,
+    final long b_x1,
+    final long b_y0,
+    final long b_y1,
+    final long b_z0,
+    final long b_z1)
+  {
+    return containsArea(a_x0, a_x1, a_y0, a_y1, b_x0, b_x1, b_y0, b_y1)
+      && b_z0 >= a_z0
+      && b_z1 <= a_z1;
+  }
+
+  /**
+   * @return {@code true} iff volume {@code a} overlaps volume {@code b};
+   * volumes are treated as being at least one unit in size on each axis
+   */
+
+  static boolean overlapsVolume(
+    final long a_x0,
+    final long a_x1,
+    final long a_y0,
+    final long a_y1,
+    final long a_z0,
+    final long a_z1,
+    final long b_x0,
+    final long b_x1,
+    final long b_y0,
+    final long b_y1,
+    final long b_z0,
+    final long b_z1)
+  {
+    return overlapsArea(a_x0, a_x1, a_y0, a_y1, b_x0, b_x1, b_y0, b_y1)
+      && a_z0 < b_z0 + Math.max(1L, b_z1 - b_z0)
+      && a_z0 + Math.max(1L, a_z1 - a_z0) > b_z0;
+  }
+
+  /**
+   * @return {@code true} iff area {@code a} and area {@code b} have at least
+   * one point in common, counting points on their edges
+   */
+
+  static boolean intersectsArea(
+    final long a_x0,
+    final long a_x1,
+    final long a_y0,
+    final long a_y1,
+    final long b_x0,
+    final long b_x1,
+    final long b_y0,
+    final long b_y1)
+  {
+    return a_x0 <= b_x1
+      && b_x0 <= a_x1
+      && a_y0 <= b_y1
+      && b_y0 <= a_y1;
+  }
+
+  /**
+   * @return {@code true} iff volume {@code a} and volume {@code b} have at
+   * least one point in common, counting points on their faces
+   */
+
+  static boolean intersectsVolume(
+    final long a_x0,
+    final long a_x1,
+    final long a_y0,
+    final long a_y1,
+    final long a_z0,
+    final long a_z1,
+    final long b_x0,
+    final long b_x1,
+    final long b_y0,
+    final long b_y1,
+    final long b_z0,
+    final long b_z1)
+  {
+    return intersectsArea(a_x0, a_x1, a_y0, a_y1, b_x0, b_x1, b_y0, b_y1)
+      && a_z0 <= b_z1
+      && b_z0 <= a_z1;
+  }
+
+  /**
+   * @return {@code true} iff area {@code a} contains area {@code b}
+   */
+
+  static boolean containsArea(
+    final int a_x0,
+    final int a_x1,
+    final int a_y0,
+    final int a_y1,
+    final int b_x0,
+    final int b_x1,
+    final int b_y0,
+    final int b_y1)
+  {
+    return b_x0 >= a_x0
+      && b_x1 <= a_x1
+      && b_y0 >= a_y0
+      && b_y1 <= a_y1;
+  }
+
+  /**
+   * @return {@code true} iff area {@code a} overlaps area {@code b}; areas
+   * are treated as being at least one unit in size on each axis
+   */
+
+  static boolean overlapsArea(
+    final int a_x0,
+    final int a_x1,
+    final int a_y0,
+    final int a_y1,
+    final int b_x0,
+    final int b_x1,
+    final int b_y0,
+    final int b_y1)
+  {
+    return a_x0 < b_x0 + Math.max(1, b_x1 - b_x0)
+      && a_x0 + Math.max(1, a_x1 - a_x0) > b_x0
+      && a_y0 < b_y0 + Math.max(1, b_y1 - b_y0)
+      && a_y0 + Math.max(1, a_y1 - a_y0) > b_y0;
+  }
+
+  /**
+   * @return {@code true} iff volume {@code a} contains volume {@code b}
+   */
+
+  static boolean containsVolume(
+    final int a_x0,
+    final int a_x1,
+    final int a_y0,
+    final int a_y1,
+    final int a_z0,
+    final int a_z1,
+    final int b_x0,
+    final int b_x1,
+    final int b_y0,
+    final int b_y1,
+    final int b_z0,
+    final int b_z1)
+  {
+    return containsArea(a_x0, a_x1, a_y0, a_y1, b_x0, b_x1, b_y0, b_y1)
+      && b_z0 >= a_z0
+      && b_z1 <= a_z1;
+  }
+
+  /**
+   * @return {@code true} iff volume {@code a} overlaps volume {@code b};
+   * volumes are treated as being at least one unit in size on each axis
+   */
+
+  static boolean overlapsVolume(
+    final int a_x0,
+    final int a_x1,
+    final int a_y0,
+    final int a_y1,
+    final int a_z0,
+    final int a_z1,
+    final int b_x0,
+    final int b_x1,
+    final int b_y0,
+    final int b_y1,
+    final int b_z0,
+    final int b_z1)
+  {
+    return overlapsArea(a_x0, a_x1, a_y0, a_y1, b_x0, b_x1, b_y0, b_y1)
+      && a_z0 < b_z0 + Math.max(1, b_z1 - b_z0)
+      && a_z0 + Math.max(1, a_z1 - a_z0) > b_z0;
+  }
+
+  /**
+   * @return {@code true} iff area {@code a} and area {@code b} have at least
+   * one point in common, counting points on their edges
+   */
+
+  static boolean intersectsArea(
+    final int a_x0,
+    final int a_x1,
+    final int a_y0,
+    final int a_y1,
+    final int b_x0,
+    final int b_x1,
+    final int b_y0,
+    final int b_y1)
+  {
+    return a_x0 <= b_x1
+      && b_x0 <= a_x1
+      && a_y0 <= b_y1
+      && b_y0 <= a_y1;
+  }
+
+  /**
+   * @return {@code true} iff volume {@code a} and volume {@code b} have at
+   * least one point in common, counting points on their faces
+   */
+
+  static boolean intersectsVolume(
+    final int a_x0,
+    final int a_x1,
+    final int a_y0,
+    final int a_y1,
+    final int a_z0,
+    final int a_z1,
+    final int b_x0,
+    final int b_x1,
+    final int b_y0,
+    final int b_y1,
+    final int b_z0,
+    final int b_z1)
+  {
+    return intersectsArea(a_x0, a_x1, a_y0, a_y1, b_x0, b_x1, b_y0, b_y1)
+      && a_z0 <= b_z1
+      && b_z0 <= a_z1;
+  }
+
+  /**
+   * Check that the given coordinates describe a valid area, exactly as
+   * {@code AreaD.of} does.
+   */
+
+  static void checkArea(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    Preconditions.checkPreconditionD(
+      x1,
+      x1 >= x0,
+      x -> "X maximum must be >= X minimum");
+    Preconditions.checkPreconditionD(
+      y1,
+      y1 >= y0,
+      x -> "Y maximum must be >= Y minimum");
+  }
+
+  /**
+   * Check that the given coordinates describe a valid volume, exactly as
+   * {@code VolumeD.of} does.
+   */
+
+  static void checkVolume(
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    Preconditions.checkPreconditionD(
+      x1,
+      x1 >= x0,
+      x -> "X maximum must be >= X minimum");
+    Preconditions.checkPreconditionD(
+      y1,
+      y1 >= y0,
+      x -> "Y maximum must be >= Y minimum");
+    Preconditions.checkPreconditionD(
+      z1,
+      z1 >= z0,
+      x -> "Z maximum must be >= Z minimum");
+  }
+
+  /**
+   * Check that the given coordinates describe a valid area, exactly as
+   * {@code AreaL.of} does.
+   */
+
+  static void checkArea(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    Preconditions.checkPreconditionL(
+      x1,
+      x1 >= x0,
+      x -> "X maximum must be >= X minimum");
+    Preconditions.checkPreconditionL(
+      y1,
+      y1 >= y0,
+      x -> "Y maximum must be >= Y minimum");
+  }
+
+  /**
+   * Check that the given coordinates describe a valid volume, exactly as
+   * {@code VolumeL.of} does.
+   */
+
+  static void checkVolume(
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    Preconditions.checkPreconditionL(
+      x1,
+      x1 >= x0,
+      x -> "X maximum must be >= X minimum");
+    Preconditions.checkPreconditionL(
+      y1,
+      y1 >= y0,
+      x -> "Y maximum must be >= Y minimum");
+    Preconditions.checkPreconditionL(
+      z1,
+      z1 >= z0,
+      x -> "Z maximum must be >= Z minimum");
+  }
+
+  /**
+   * Check that the given coordinates describe a valid area, exactly as
+   * {@code AreaI.of} does.
+   */
+
+  static void checkArea(
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1)
+  {
+    Preconditions.checkPreconditionI(
+      x1,
+      x1 >= x0,
+      x -> "X maximum must be >= X minimum");
+    Preconditions.checkPreconditionI(
+      y1,
+      y1 >= y0,
+      x -> "Y maximum must be >= Y minimum");
+  }
+
+  /**
+   * Check that the given coordinates describe a valid volume, exactly as
+   * {@code VolumeI.of} does.
+   */
+
+  static void checkVolume(
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1,
+    final int z0,
+    final int z1)
+  {
+    Preconditions.checkPreconditionI(
+      x1,
+      x1 >= x0,
+      x -> "X maximum must be >= X minimum");
+    Preconditions.checkPreconditionI(
+      y1,
+      y1 >= y0,
+      x -> "Y maximum must be >= Y minimum");
+    Preconditions.checkPreconditionI(
+      z1,
+      z1 >= z0,
+      x -> "Z maximum must be >= Z minimum");
+  }
+}
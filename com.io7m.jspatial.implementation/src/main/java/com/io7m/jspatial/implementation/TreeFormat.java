@@ -0,0 +1,272 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.implementation;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The binary format of serialized trees.
+ *
+ * A serialized tree begins with a header consisting of the {@code int}
+ * values {@link #MAGIC}, {@link #VERSION}, and the kind of the tree (such
+ * as {@link #KIND_QUADTREE_D}). The header is followed by the bounds of the
+ * root node and the number of objects in the tree as a {@code long}. The
+ * nodes of the tree then follow in pre-order: Each node is written as a
+ * single byte giving the way in which the node is split (see
+ * {@link #NODE_LEAF}, {@link #NODE_SUBDIVIDED}, and {@link #NODE_SPLIT}),
+ * followed by the number of objects that it holds as an {@code int}, and
+ * then the bounds of each object and the object itself as written by a
+ * {@link com.io7m.jspatial.api.TreeItemCodecType}. The children of a node,
+ * if any, follow the node in index order.
+ *
+ * The bounds of nodes other than the root are not written: They are derived
+ * from the bounds of their parents when the tree is read.
+ *
+ * Bounds are written as the minimum and maximum coordinates on each axis in
+ * turn ({@code x0, x1, y0, y1} for areas, and {@code x0, x1, y0, y1, z0, z1}
+ * for volumes), with each coordinate written with the precision of the tree.
+ * All values are big-endian, as written by {@link java.io.DataOutputStream}.
+ */
+
+final class TreeFormat
+{
+  /**
+   * The value at the start of every serialized tree.
+   */
+
+  static final int MAGIC = 0x4A53_5054;
+
+  /**
+   * The current version of the format.
+   */
+
+  static final int VERSION = 1;
+
+  static final int KIND_QUADTREE_D = 0x5144;
+  static final int KIND_QUADTREE_I = 0x5149;
+  static final int KIND_QUADTREE_L = 0x514C;
+  static final int KIND_OCTTREE_D = 0x4F44;
+  static final int KIND_OCTTREE_I = 0x4F49;
+  static final int KIND_OCTTREE_L = 0x4F4C;
+
+  /**
+   * A node that has no children.
+   */
+
+  static final int NODE_LEAF = 0;
+
+  /**
+   * A node whose children are produced by subdividing the node into equal
+   * parts, as by {@link QuadrantsD} and {@link OctantsD}.
+   */
+
+  static final int NODE_SUBDIVIDED = 1;
+
+  /**
+   * A node whose children are produced by splitting the node at a point
+   * that is not necessarily its centre, such as the root of a tree that has
+   * grown. The node kind is followed by the coordinates of the split point on
+   * each axis in turn.
+   */
+
+  static final int NODE_SPLIT = 2;
+
+  private TreeFormat()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Write the header of a serialized tree.
+   *
+   * @param output The output
+   * @param kind   The kind of tree
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static void writeHeader(
+    final DataOutput output,
+    final int kind)
+    throws IOException
+  {
+    output.writeInt(MAGIC);
+    output.writeInt(VERSION);
+    output.writeInt(kind);
+  }
+
+  /**
+   * Read and check the header of a serialized tree.
+   *
+   * @param input The input
+   * @param kind  The expected kind of tree
+   *
+   * @throws IOException If the header is not that of a tree of the given
+   *                     kind in the current version of the format
+   */
+
+  static void readHeader(
+    final DataInput input,
+    final int kind)
+    throws IOException
+  {
+    checkValue("magic number", MAGIC, input.readInt());
+    checkValue("format version", VERSION, input.readInt());
+    checkValue("tree kind", kind, input.readInt());
+  }
+
+  /**
+   * Check a value read from a serialized tree.
+   *
+   * @param name     The name of the value
+   * @param expected The expected value
+   * @param received The value that was read
+   *
+   * @throws IOException If {@code expected != received}
+   */
+
+  static void checkValue(
+    final String name,
+    final long expected,
+    final long received)
+    throws IOException
+  {
+    if (expected != received) {
+      throw malformed(
+        new StringBuilder(64)
+          .append("Unexpected ")
+          .append(name)
+          .append(": Expected 0x")
+          .append(Long.toHexString(expected))
+          .append(", received 0x")
+          .append(Long.toHexString(received))
+          .toString());
+    }
+  }
+
+  /**
+   * @param message The error message
+   *
+   * @return An exception indicating that a serialized tree is malformed
+   */
+
+  static IOException malformed(
+    final String message)
+  {
+    return new IOException("Malformed serialized tree: " + message);
+  }
+
+  /**
+   * Read the number of objects held by a node.
+   *
+   * @param input The input
+   *
+   * @return The number of objects
+   *
+   * @throws IOException On I/O errors, or if the number is negative
+   */
+
+  static int readObjectCount(
+    final DataInput input)
+    throws IOException
+  {
+    final int count = input.readInt();
+    if (count < 0) {
+      throw malformed("Negative object count " + count);
+    }
+    return count;
+  }
+
+  /**
+   * Read the kind of a node.
+   *
+   * @param input The input
+   *
+   * @return One of {@link #NODE_LEAF}, {@link #NODE_SUBDIVIDED}, or
+   * {@link #NODE_SPLIT}
+   *
+   * @throws IOException On I/O errors, or if the kind is not recognized
+   */
+
+  static int readNodeKind(
+    final DataInput input)
+    throws IOException
+  {
+    final int kind = input.readUnsignedByte();
+    if (kind > NODE_SPLIT) {
+      throw malformed("Unrecognized node kind " + kind);
+    }
+    return kind;
+  }
+
+  /**
+   * Check that the whole of a serialized tree has been read, and that the
+   * tree holds the expected number of objects.
+   *
+   * @param input    The input
+   * @param expected The number of objects given in the header
+   * @param received The number of objects in the restored tree
+   *
+   * @throws IOException If the tree is followed by trailing data, or
+   *                     {@code expected != received}
+   */
+
+  static void checkEnd(
+    final ByteBufferDataInput input,
+    final long expected,
+    final long received)
+    throws IOException
+  {
+    if (input.remaining() > 0) {
+      throw malformed(input.remaining() + " bytes of trailing data");
+    }
+    checkValue("object count", expected, received);
+  }
+
+  /**
+   * Map a file into memory for reading.
+   *
+   * @param path The file
+   *
+   * @return The mapped file
+   *
+   * @throws IOException On I/O errors, or if the file is too large to map
+   */
+
+  static MappedByteBuffer map(
+    final Path path)
+    throws IOException
+  {
+    try (final FileChannel channel =
+           FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > (long) Integer.MAX_VALUE) {
+        throw new IOException(
+          "File is too large to be mapped (" + size + " bytes): " + path);
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+    }
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation.spi;
+
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.Ray3D;
+
+/**
+ * A bounds engine that tests one item at a time. This is the engine used
+ * when no other engine is available, and other engines may use it to test
+ * the items that do not fill a complete vector.
+ *
+ * @since 3.0.0
+ */
+
+public final class BoundsEngineScalar implements BoundsEngineType
+{
+  /**
+   * Construct an engine.
+   */
+
+  public BoundsEngineScalar()
+  {
+
+  }
+
+  /**
+   * @return {@code true} iff the range {@code [a0, a1]} overlaps the range
+   * {@code [b0, b1]}; ranges are treated as being at least one unit long
+   */
+
+  private static boolean overlapsAxis(
+    final double a0,
+    final double a1,
+    final double b0,
+    final double b1)
+  {
+    return a0 < b0 + Math.max(1.0, b1 - b0)
+      && a0 + Math.max(1.0, a1 - a0) > b0;
+  }
+
+  /**
+   * @return {@code true} iff the range {@code [a0, a1]} overlaps the range
+   * {@code [b0, b1]}; ranges are treated as being at least one unit long
+   */
+
+  private static boolean overlapsAxis(
+    final long a0,
+    final long a1,
+    final long b0,
+    final long b1)
+  {
+    return a0 < b0 + Math.max(1L, b1 - b0)
+      && a0 + Math.max(1L, a1 - a0) > b0;
+  }
+
+  /**
+   * @return {@code true} iff the range {@code [a0, a1]} overlaps the range
+   * {@code [b0, b1]}; ranges are treated as being at least one unit long
+   */
+
+  private static boolean overlapsAxis(
+    final int a0,
+    final int a1,
+    final int b0,
+    final int b1)
+  {
+    return a0 < b0 + Math.max(1, b1 - b0)
+      && a0 + Math.max(1, a1 - a0) > b0;
+  }
+
+  @Override
+  public long overlapsArea(
+    final double[] coordinates,
+    final int first,
+    final int count,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 4;
+      if (overlapsAxis(x0, x1, coordinates[base], coordinates[base + 1])
+        && overlapsAxis(y0, y1, coordinates[base + 2], coordinates[base + 3])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long overlapsArea(
+    final long[] coordinates,
+    final int first,
+    final int count,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 4;
+      if (overlapsAxis(x0, x1, coordinates[base], coordinates[base + 1])
+        && overlapsAxis(y0, y1, coordinates[base + 2], coordinates[base + 3])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long overlapsArea(
+    final int[] coordinates,
+    final int first,
+    final int count,
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 4;
+      if (overlapsAxis(x0, x1, coordinates[base], coordinates[base + 1])
+        && overlapsAxis(y0, y1, coordinates[base + 2], coordinates[base + 3])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long overlapsVolume(
+    final double[] coordinates,
+    final int first,
+    final int count,
+    final double x0,
+    final double x1,
+    final double y0,
+    final double y1,
+    final double z0,
+    final double z1)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 6;
+      if (overlapsAxis(x0, x1, coordinates[base], coordinates[base + 1])
+        && overlapsAxis(y0, y1, coordinates[base + 2], coordinates[base + 3])
+        && overlapsAxis(z0, z1, coordinates[base + 4], coordinates[base + 5])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long overlapsVolume(
+    final long[] coordinates,
+    final int first,
+    final int count,
+    final long x0,
+    final long x1,
+    final long y0,
+    final long y1,
+    final long z0,
+    final long z1)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 6;
+      if (overlapsAxis(x0, x1, coordinates[base], coordinates[base + 1])
+        && overlapsAxis(y0, y1, coordinates[base + 2], coordinates[base + 3])
+        && overlapsAxis(z0, z1, coordinates[base + 4], coordinates[base + 5])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long overlapsVolume(
+    final int[] coordinates,
+    final int first,
+    final int count,
+    final int x0,
+    final int x1,
+    final int y0,
+    final int y1,
+    final int z0,
+    final int z1)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 6;
+      if (overlapsAxis(x0, x1, coordinates[base], coordinates[base + 1])
+        && overlapsAxis(y0, y1, coordinates[base + 2], coordinates[base + 3])
+        && overlapsAxis(z0, z1, coordinates[base + 4], coordinates[base + 5])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long intersectsArea(
+    final Ray2D ray,
+    final double[] coordinates,
+    final int first,
+    final int count)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 4;
+      if (ray.intersectsArea(
+        coordinates[base],
+        coordinates[base + 2],
+        coordinates[base + 1],
+        coordinates[base + 3])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long intersectsArea(
+    final Ray2D ray,
+    final long[] coordinates,
+    final int first,
+    final int count)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 4;
+      if (ray.intersectsArea(
+        (double) coordinates[base],
+        (double) coordinates[base + 2],
+        (double) coordinates[base + 1],
+        (double) coordinates[base + 3])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long intersectsArea(
+    final Ray2D ray,
+    final int[] coordinates,
+    final int first,
+    final int count)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 4;
+      if (ray.intersectsArea(
+        (double) coordinates[base],
+        (double) coordinates[base + 2],
+        (double) coordinates[base + 1],
+        (double) coordinates[base + 3])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long intersectsVolume(
+    final Ray3D ray,
+    final double[] coordinates,
+    final int first,
+    final int count)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 6;
+      if (ray.intersectsVolume(
+        coordinates[base],
+        coordinates[base + 2],
+        coordinates[base + 4],
+        coordinates[base + 1],
+        coordinates[base + 3],
+        coordinates[base + 5])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long intersectsVolume(
+    final Ray3D ray,
+    final long[] coordinates,
+    final int first,
+    final int count)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 6;
+      if (ray.intersectsVolume(
+        (double) coordinates[base],
+        (double) coordinates[base + 2],
+        (double) coordinates[base + 4],
+        (double) coordinates[base + 1],
+        (double) coordinates[base + 3],
+        (double) coordinates[base + 5])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long intersectsVolume(
+    final Ray3D ray,
+    final int[] coordinates,
+    final int first,
+    final int count)
+  {
+    long result = 0L;
+    for (int index = 0; index < count; ++index) {
+      final int base = (first + index) * 6;
+      if (ray.intersectsVolume(
+        (double) coordinates[base],
+        (double) coordinates[base + 2],
+        (double) coordinates[base + 4],
+        (double) coordinates[base + 1],
+        (double) coordinates[base + 3],
+        (double) coordinates[base + 5])) {
+        result |= 1L << index;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.implementation.spi;
+
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.Ray3D;
+
+/**
+ * <p>An engine that tests the packed bounds of the items held in a tree
+ * node against a query in bulk.</p>
+ *
+ * <p>Item bounds are packed into arrays in the order
+ * {@code x0, x1, y0, y1} for areas and {@code x0, x1, y0, y1, z0, z1} for
+ * volumes, one item after another. Each method tests a block of at most
+ * {@code 64} items, and returns the results as a bit mask so that no
+ * allocation is required. Implementations must produce exactly the same
+ * results as {@link BoundsEngineScalar}.</p>
+ *
+ * <p>Implementations are registered as {@link java.util.ServiceLoader}
+ * services, and the first that can be instantiated is used by all
+ * trees.</p>
+ *
+ * @since 3.0.0
+ */
+
+public interface BoundsEngineType
+{
+  /**
+   * Test the items in {@code [first, first + count)} against the given
+   * area, using the same semantics as {@code AreasD.overlaps}.
+   *
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   * @param x0          The minimum X coordinate of the area
+   * @param x1          The maximum X coordinate of the area
+   * @param y0          The minimum Y coordinate of the area
+   * @param y1          The maximum Y coordinate of the area
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * overlaps the area
+   */
+
+  long overlapsArea(
+    double[] coordinates,
+    int first,
+    int count,
+    double x0,
+    double x1,
+    double y0,
+    double y1);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given
+   * area, using the same semantics as {@code AreasL.overlaps}.
+   *
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   * @param x0          The minimum X coordinate of the area
+   * @param x1          The maximum X coordinate of the area
+   * @param y0          The minimum Y coordinate of the area
+   * @param y1          The maximum Y coordinate of the area
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * overlaps the area
+   */
+
+  long overlapsArea(
+    long[] coordinates,
+    int first,
+    int count,
+    long x0,
+    long x1,
+    long y0,
+    long y1);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given
+   * area, using the same semantics as {@code AreasI.overlaps}.
+   *
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   * @param x0          The minimum X coordinate of the area
+   * @param x1          The maximum X coordinate of the area
+   * @param y0          The minimum Y coordinate of the area
+   * @param y1          The maximum Y coordinate of the area
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * overlaps the area
+   */
+
+  long overlapsArea(
+    int[] coordinates,
+    int first,
+    int count,
+    int x0,
+    int x1,
+    int y0,
+    int y1);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given
+   * volume, using the same semantics as {@code VolumesD.overlaps}.
+   *
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   * @param x0          The minimum X coordinate of the volume
+   * @param x1          The maximum X coordinate of the volume
+   * @param y0          The minimum Y coordinate of the volume
+   * @param y1          The maximum Y coordinate of the volume
+   * @param z0          The minimum Z coordinate of the volume
+   * @param z1          The maximum Z coordinate of the volume
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * overlaps the volume
+   */
+
+  long overlapsVolume(
+    double[] coordinates,
+    int first,
+    int count,
+    double x0,
+    double x1,
+    double y0,
+    double y1,
+    double z0,
+    double z1);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given
+   * volume, using the same semantics as {@code VolumesL.overlaps}.
+   *
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   * @param x0          The minimum X coordinate of the volume
+   * @param x1          The maximum X coordinate of the volume
+   * @param y0          The minimum Y coordinate of the volume
+   * @param y1          The maximum Y coordinate of the volume
+   * @param z0          The minimum Z coordinate of the volume
+   * @param z1          The maximum Z coordinate of the volume
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * overlaps the volume
+   */
+
+  long overlapsVolume(
+    long[] coordinates,
+    int first,
+    int count,
+    long x0,
+    long x1,
+    long y0,
+    long y1,
+    long z0,
+    long z1);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given
+   * volume, using the same semantics as {@code VolumesI.overlaps}.
+   *
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   * @param x0          The minimum X coordinate of the volume
+   * @param x1          The maximum X coordinate of the volume
+   * @param y0          The minimum Y coordinate of the volume
+   * @param y1          The maximum Y coordinate of the volume
+   * @param z0          The minimum Z coordinate of the volume
+   * @param z1          The maximum Z coordinate of the volume
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * overlaps the volume
+   */
+
+  long overlapsVolume(
+    int[] coordinates,
+    int first,
+    int count,
+    int x0,
+    int x1,
+    int y0,
+    int y1,
+    int z0,
+    int z1);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given ray,
+   * using the same semantics as {@link Ray2D#intersectsArea}.
+   *
+   * @param ray         The ray
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * is intersected by the ray
+   */
+
+  long intersectsArea(
+    Ray2D ray,
+    double[] coordinates,
+    int first,
+    int count);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given ray,
+   * using the same semantics as {@link Ray2D#intersectsArea}.
+   *
+   * @param ray         The ray
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * is intersected by the ray
+   */
+
+  long intersectsArea(
+    Ray2D ray,
+    long[] coordinates,
+    int first,
+    int count);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given ray,
+   * using the same semantics as {@link Ray2D#intersectsArea}.
+   *
+   * @param ray         The ray
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * is intersected by the ray
+   */
+
+  long intersectsArea(
+    Ray2D ray,
+    int[] coordinates,
+    int first,
+    int count);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given ray,
+   * using the same semantics as {@link Ray3D#intersectsVolume}.
+   *
+   * @param ray         The ray
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * is intersected by the ray
+   */
+
+  long intersectsVolume(
+    Ray3D ray,
+    double[] coordinates,
+    int first,
+    int count);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given ray,
+   * using the same semantics as {@link Ray3D#intersectsVolume}.
+   *
+   * @param ray         The ray
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * is intersected by the ray
+   */
+
+  long intersectsVolume(
+    Ray3D ray,
+    long[] coordinates,
+    int first,
+    int count);
+
+  /**
+   * Test the items in {@code [first, first + count)} against the given ray,
+   * using the same semantics as {@link Ray3D#intersectsVolume}.
+   *
+   * @param ray         The ray
+   * @param coordinates The packed item coordinates
+   * @param first       The index of the first item
+   * @param count       The number of items, at most {@code 64}
+   *
+   * @return A mask in which bit {@code n} is set iff item {@code first + n}
+   * is intersected by the ray
+   */
+
+  long intersectsVolume(
+    Ray3D ray,
+    int[] coordinates,
+    int first,
+    int count);
+}
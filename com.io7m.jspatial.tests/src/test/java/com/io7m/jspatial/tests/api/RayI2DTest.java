@@ -269,4 +269,23 @@ public final class RayI2DTest
       Assert.assertFalse(i);
     }
   }
+
+  @Test
+  public void testRayIntersectionParameter()
+  {
+    final Ray2D ray = Ray2D.of(Vector2D.of(1.0, 3.0), Vector2D.of(2.0, 0.0));
+
+    Assert.assertEquals(
+      0.5, ray.intersectionParameterArea(2.0, 2.0, 4.0, 4.0), 0.0);
+    Assert.assertEquals(
+      0.0, ray.intersectionParameterArea(0.0, 2.0, 4.0, 4.0), 0.0);
+    Assert.assertEquals(
+      Double.POSITIVE_INFINITY,
+      ray.intersectionParameterArea(2.0, 4.0, 4.0, 6.0),
+      0.0);
+    Assert.assertEquals(
+      Double.POSITIVE_INFINITY,
+      ray.intersectionParameterArea(-4.0, 2.0, -2.0, 4.0),
+      0.0);
+  }
 }
@@ -377,4 +377,28 @@ public final class RayI3DTest
       Assert.assertFalse(i);
     }
   }
+
+  @Test
+  public void testRayIntersectionParameter()
+  {
+    final Ray3D ray =
+      Ray3D.of(Vector3D.of(1.0, 3.0, 3.0), Vector3D.of(2.0, 0.0, 0.0));
+
+    Assert.assertEquals(
+      0.5,
+      ray.intersectionParameterVolume(2.0, 2.0, 2.0, 4.0, 4.0, 4.0),
+      0.0);
+    Assert.assertEquals(
+      0.0,
+      ray.intersectionParameterVolume(0.0, 2.0, 2.0, 4.0, 4.0, 4.0),
+      0.0);
+    Assert.assertEquals(
+      Double.POSITIVE_INFINITY,
+      ray.intersectionParameterVolume(2.0, 2.0, 4.0, 4.0, 4.0, 6.0),
+      0.0);
+    Assert.assertEquals(
+      Double.POSITIVE_INFINITY,
+      ray.intersectionParameterVolume(-4.0, 2.0, 2.0, -2.0, 4.0, 4.0),
+      0.0);
+  }
 }
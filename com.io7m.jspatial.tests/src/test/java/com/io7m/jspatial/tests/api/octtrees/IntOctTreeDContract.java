@@ -0,0 +1,522 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.tests.api.octtrees;
+
+import com.io7m.jaffirm.core.PreconditionViolationException;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jregions.core.unparameterized.volumes.VolumesD;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeQueryKind;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.IntOctTreeDType;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationD;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+import com.io7m.jtensors.core.unparameterized.vectors.Vectors3D;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Int handle tree contract.
+ */
+
+public abstract class IntOctTreeDContract
+{
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  private static OctTreeConfigurationD configuration()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    return cb.build();
+  }
+
+  protected abstract IntOctTreeDType create(OctTreeConfigurationD config);
+
+  /**
+   * Simple identities.
+   */
+
+  @Test
+  public final void testCreate()
+  {
+    final OctTreeConfigurationD c = configuration();
+    final IntOctTreeDType tree = this.create(c);
+    Assert.assertEquals(c.volume(), tree.bounds());
+    Assert.assertEquals(0L, tree.size());
+    Assert.assertFalse(tree.contains(0));
+  }
+
+  /**
+   * Inserting, querying and removing a handle works.
+   */
+
+  @Test
+  public final void testInsertRemove()
+  {
+    final IntOctTreeDType tree = this.create(configuration());
+    final VolumeD volume =
+      VolumeD.of(10.0, 20.0, 10.0, 20.0, 10.0, 20.0);
+
+    Assert.assertTrue(tree.insert(23, volume));
+    Assert.assertTrue(tree.contains(23));
+    Assert.assertEquals(1L, tree.size());
+    Assert.assertEquals(volume, tree.volumeFor(23));
+
+    Assert.assertTrue(tree.remove(23));
+    Assert.assertFalse(tree.contains(23));
+    Assert.assertEquals(0L, tree.size());
+    Assert.assertFalse(tree.remove(23));
+  }
+
+  /**
+   * Inserting a handle twice replaces its bounds.
+   */
+
+  @Test
+  public final void testInsertReplace()
+  {
+    final IntOctTreeDType tree = this.create(configuration());
+    Assert.assertTrue(tree.insert(1, 10.0, 20.0, 10.0, 20.0, 10.0, 20.0));
+    Assert.assertTrue(tree.insert(1, 60.0, 70.0, 60.0, 70.0, 60.0, 70.0));
+    Assert.assertEquals(1L, tree.size());
+    Assert.assertEquals(
+      VolumeD.of(60.0, 70.0, 60.0, 70.0, 60.0, 70.0), tree.volumeFor(1));
+  }
+
+  /**
+   * Handles that do not fit within the tree are not inserted.
+   */
+
+  @Test
+  public final void testInsertOutside()
+  {
+    final IntOctTreeDType tree = this.create(configuration());
+    Assert.assertFalse(tree.insert(1, 90.0, 110.0, 10.0, 20.0, 10.0, 20.0));
+    Assert.assertFalse(tree.contains(1));
+    Assert.assertEquals(0L, tree.size());
+  }
+
+  /**
+   * Asking for the bounds of a nonexistent handle fails.
+   */
+
+  @Test
+  public final void testVolumeForNonexistent()
+  {
+    final IntOctTreeDType tree = this.create(configuration());
+    this.expected.expect(NoSuchElementException.class);
+    tree.volumeFor(0);
+  }
+
+  /**
+   * Coordinates that do not describe a valid volume are rejected.
+   */
+
+  @Test
+  public final void testInsertInvalid()
+  {
+    final IntOctTreeDType tree = this.create(configuration());
+    this.expected.expect(PreconditionViolationException.class);
+    tree.insert(0, 10.0, 20.0, 10.0, 20.0, 20.0, 10.0);
+  }
+
+  /**
+   * Counting within coordinates that do not describe a valid volume is
+   * rejected.
+   */
+
+  @Test
+  public final void testCountInvalid()
+  {
+    final IntOctTreeDType tree = this.create(configuration());
+    this.expected.expect(PreconditionViolationException.class);
+    tree.count(10.0, 20.0, 10.0, 20.0, 20.0, 10.0);
+  }
+
+  /**
+   * Moving handles works and fails for handles that are not in the tree or
+   * bounds that do not fit.
+   */
+
+  @Test
+  public final void testMove()
+  {
+    final IntOctTreeDType tree = this.create(configuration());
+    Assert.assertFalse(tree.move(0, 10.0, 20.0, 10.0, 20.0, 10.0, 20.0));
+
+    Assert.assertTrue(tree.insert(0, 10.0, 20.0, 10.0, 20.0, 10.0, 20.0));
+    Assert.assertTrue(tree.move(0, 80.0, 90.0, 80.0, 90.0, 80.0, 90.0));
+    Assert.assertEquals(
+      VolumeD.of(80.0, 90.0, 80.0, 90.0, 80.0, 90.0), tree.volumeFor(0));
+
+    Assert.assertFalse(tree.move(0, 90.0, 110.0, 80.0, 90.0, 80.0, 90.0));
+    Assert.assertEquals(
+      VolumeD.of(80.0, 90.0, 80.0, 90.0, 80.0, 90.0), tree.volumeFor(0));
+  }
+
+  /**
+   * Clearing and trimming a tree works.
+   */
+
+  @Test
+  public final void testClearTrim()
+  {
+    final IntOctTreeDType tree = this.create(configuration());
+    for (int index = 0; index < 100; ++index) {
+      final double x = (double) (index % 10) * 10.0;
+      final double y = (double) (index / 10) * 10.0;
+      Assert.assertTrue(
+        tree.insert(index, x, x + 2.0, y, y + 2.0, 50.0, 52.0));
+    }
+    Assert.assertEquals(100L, tree.size());
+
+    for (int index = 0; index < 100; index += 2) {
+      Assert.assertTrue(tree.remove(index));
+    }
+    tree.trim();
+    Assert.assertEquals(50L, tree.size());
+    for (int index = 1; index < 100; index += 2) {
+      Assert.assertTrue(tree.contains(index));
+    }
+
+    tree.clear();
+    Assert.assertEquals(0L, tree.size());
+    Assert.assertFalse(tree.contains(1));
+  }
+
+  /**
+   * Queries can be terminated early.
+   */
+
+  @Test
+  public final void testQueryTerminate()
+  {
+    final IntOctTreeDType tree = this.create(configuration());
+    for (int index = 0; index < 20; ++index) {
+      Assert.assertTrue(tree.insert(index, 10.0, 20.0, 10.0, 20.0, 10.0, 20.0));
+    }
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.overlappedBy(
+      0.0, 100.0, 0.0, 100.0, 0.0, 100.0,
+      (item, x0, x1, y0, y1, z0, z1) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_TERMINATE;
+      });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.containedBy(
+      0.0, 100.0, 0.0, 100.0, 0.0, 100.0,
+      (item, x0, x1, y0, y1, z0, z1) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_TERMINATE;
+      });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * Queries, moves and raycasts agree with a brute force search over the
+   * same data.
+   */
+
+  @Test
+  public final void testEquivalentBruteForce()
+  {
+    this.checkEquivalentBruteForce(configuration());
+  }
+
+  /**
+   * Queries, moves and raycasts on a loose tree agree with a brute force
+   * search over the same data.
+   */
+
+  @Test
+  public final void testEquivalentBruteForceLoose()
+  {
+    this.checkEquivalentBruteForce(configuration().withLooseness(2.0));
+  }
+
+  /**
+   * Queries, moves and raycasts on a tree that grows from a small initial
+   * volume agree with a brute force search over the same data.
+   */
+
+  @Test
+  public final void testEquivalentBruteForceExpandable()
+  {
+    this.checkEquivalentBruteForce(
+      configuration().withVolume(VolumeD.of(40.0, 50.0, 40.0, 50.0, 40.0, 50.0)).withExpandable(true));
+  }
+
+  /**
+   * Queries, moves and raycasts on a loose tree that grows from a small
+   * initial volume agree with a brute force search over the same data.
+   */
+
+  @Test
+  public final void testEquivalentBruteForceExpandableLoose()
+  {
+    this.checkEquivalentBruteForce(
+      configuration()
+        .withVolume(VolumeD.of(40.0, 50.0, 40.0, 50.0, 40.0, 50.0))
+        .withExpandable(true)
+        .withLooseness(2.0));
+  }
+
+  private void checkEquivalentBruteForce(
+    final OctTreeConfigurationD c)
+  {
+    final IntOctTreeDType tree = this.create(c);
+    final Map<Integer, VolumeD> reference = new HashMap<>();
+
+    final Random random = new Random(0x5eedL);
+    for (int index = 0; index < 500; ++index) {
+      final double x = (double) random.nextInt(110);
+      final double y = (double) random.nextInt(110);
+      final double z = (double) random.nextInt(110);
+      final double size = (double) (1 + random.nextInt(10));
+      final VolumeD volume =
+        VolumeD.of(x, x + size, y, y + size, z, z + size);
+      final boolean fits =
+        c.expandable() || VolumesD.contains(c.volume(), volume);
+      Assert.assertEquals(
+        Boolean.valueOf(fits), Boolean.valueOf(tree.insert(index, volume)));
+      if (fits) {
+        reference.put(Integer.valueOf(index), volume);
+      }
+    }
+
+    for (int index = 0; index < 500; index += 3) {
+      final double x = (double) random.nextInt(110);
+      final double y = (double) random.nextInt(110);
+      final double z = (double) random.nextInt(110);
+      final VolumeD volume =
+        VolumeD.of(x, x + 5.0, y, y + 5.0, z, z + 5.0);
+      final Integer boxed = Integer.valueOf(index);
+      final boolean fits =
+        reference.containsKey(boxed)
+          && (c.expandable() || VolumesD.contains(c.volume(), volume));
+      Assert.assertEquals(
+        Boolean.valueOf(fits), Boolean.valueOf(tree.move(index, volume)));
+      if (fits) {
+        reference.put(boxed, volume);
+      }
+    }
+
+    Assert.assertEquals((long) reference.size(), tree.size());
+    for (int index = 0; index < 500; ++index) {
+      final Integer boxed = Integer.valueOf(index);
+      Assert.assertEquals(
+        Boolean.valueOf(reference.containsKey(boxed)),
+        Boolean.valueOf(tree.contains(index)));
+      if (tree.contains(index)) {
+        Assert.assertEquals(reference.get(boxed), tree.volumeFor(index));
+      }
+    }
+
+    for (int query = 0; query < 50; ++query) {
+      final double x = (double) random.nextInt(80);
+      final double y = (double) random.nextInt(80);
+      final double z = (double) random.nextInt(80);
+      final VolumeD volume =
+        VolumeD.of(x, x + 20.0, y, y + 20.0, z, z + 20.0);
+
+      final Set<Integer> expected_over = new HashSet<>();
+      final Set<Integer> expected_in = new HashSet<>();
+      for (final Map.Entry<Integer, VolumeD> e : reference.entrySet()) {
+        if (VolumesD.overlaps(volume, e.getValue())) {
+          expected_over.add(e.getKey());
+        }
+        if (VolumesD.contains(volume, e.getValue())) {
+          expected_in.add(e.getKey());
+        }
+      }
+
+      final Set<Integer> received_over = new HashSet<>();
+      tree.overlappedBy(
+        volume, item -> received_over.add(Integer.valueOf(item)));
+      Assert.assertEquals(expected_over, received_over);
+
+      final Set<Integer> received_in = new HashSet<>();
+      tree.containedBy(
+        volume, item -> received_in.add(Integer.valueOf(item)));
+      Assert.assertEquals(expected_in, received_in);
+      Assert.assertEquals((long) expected_in.size(), tree.count(volume));
+    }
+
+    for (int query = 0; query < 50; ++query) {
+      final Vector3D origin = Vector3D.of(
+        0.0, (double) random.nextInt(100), (double) random.nextInt(100));
+      final Ray3D ray = Ray3D.of(
+        origin,
+        Vector3D.of(
+          1.0, random.nextDouble() - 0.5, random.nextDouble() - 0.5));
+
+      final Map<Integer, Double> expected_hits = new HashMap<>();
+      for (final Map.Entry<Integer, VolumeD> e : reference.entrySet()) {
+        final VolumeD volume = e.getValue();
+        if (ray.intersectsVolume(
+          volume.minimumX(),
+          volume.minimumY(),
+          volume.minimumZ(),
+          volume.maximumX(),
+          volume.maximumY(),
+          volume.maximumZ())) {
+          final Vector3D corner = Vector3D.of(
+            volume.minimumX(), volume.minimumY(), volume.minimumZ());
+          expected_hits.put(
+            e.getKey(),
+            Double.valueOf(Vectors3D.distance(origin, corner)));
+        }
+      }
+
+      final Map<Integer, Double> received_hits = new HashMap<>();
+      tree.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        Assert.assertEquals(
+          tree.volumeFor(item), VolumeD.of(x0, x1, y0, y1, z0, z1));
+        received_hits.put(Integer.valueOf(item), Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      Assert.assertEquals(expected_hits.keySet(), received_hits.keySet());
+      for (final Map.Entry<Integer, Double> e : expected_hits.entrySet()) {
+        Assert.assertEquals(
+          e.getValue().doubleValue(),
+          received_hits.get(e.getKey()).doubleValue(),
+          0.000001);
+      }
+
+      final Map<Integer, Double> received_entries = new HashMap<>();
+      tree.raycastEntry(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        received_entries.put(Integer.valueOf(item), Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      Assert.assertEquals(expected_hits.keySet(), received_entries.keySet());
+      for (final Map.Entry<Integer, Double> e : received_entries.entrySet()) {
+        final VolumeD volume = tree.volumeFor(e.getKey().intValue());
+        final double expected = ray.intersectionParameterVolume(
+          volume.minimumX(),
+          volume.minimumY(),
+          volume.minimumZ(),
+          volume.maximumX(),
+          volume.maximumY(),
+          volume.maximumZ());
+        Assert.assertEquals(expected, e.getValue().doubleValue(), 0.000001);
+      }
+    }
+  }
+
+  /**
+   * A query listener receives the statistics of each query performed on the
+   * tree, and receives nothing once it is removed.
+   */
+
+  @Test
+  public final void testQueryListener()
+  {
+    final IntOctTreeDType tree = this.create(configuration());
+
+    final Random random = new Random(0x57a7L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final int size = 1 + random.nextInt(9);
+      Assert.assertTrue(tree.insert(index, VolumeD.of(
+        (double) x, (double) (x + size),
+        (double) y, (double) (y + size),
+        (double) z, (double) (z + size))));
+    }
+
+    final List<TreeQueryKind> kinds = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) -> {
+        kinds.add(query);
+        stats.add(new long[]{
+          nodes_visited, node_tests, object_tests, hits, max_depth});
+      }));
+
+    final VolumeD target = VolumeD.of(16.0, 80.0, 16.0, 80.0, 16.0, 80.0);
+    final Set<Integer> contained = new HashSet<>();
+    tree.containedBy(target, item -> contained.add(Integer.valueOf(item)));
+    final Set<Integer> overlapped = new HashSet<>();
+    tree.overlappedBy(target, item -> overlapped.add(Integer.valueOf(item)));
+    final long count = tree.count(target);
+
+    final Ray3D ray =
+      Ray3D.of(Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0));
+    final Set<Integer> hit = new HashSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      hit.add(Integer.valueOf(item));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    Assert.assertEquals(
+      Arrays.asList(
+        TreeQueryKind.QUERY_CONTAINED_BY,
+        TreeQueryKind.QUERY_OVERLAPPED_BY,
+        TreeQueryKind.QUERY_COUNT,
+        TreeQueryKind.QUERY_RAYCAST),
+      kinds);
+
+    final long[] expected_hits = {
+      (long) contained.size(),
+      (long) overlapped.size(),
+      count,
+      (long) hit.size(),
+    };
+
+    Assert.assertEquals(count, (long) contained.size());
+
+    for (int index = 0; index < expected_hits.length; ++index) {
+      final long[] query = stats.get(index);
+      Assert.assertTrue(query[0] > 0L);
+      Assert.assertTrue(query[1] > 0L);
+      Assert.assertTrue(query[2] >= 0L);
+      Assert.assertEquals(expected_hits[index], query[3]);
+      Assert.assertTrue(query[4] >= 0L && query[4] < 64L);
+    }
+
+    /*
+     * The overlap query examines handles in octants below the root.
+     */
+
+    Assert.assertTrue(stats.get(1)[2] >= (long) overlapped.size());
+    Assert.assertTrue(stats.get(1)[4] > 0L);
+
+    tree.setQueryListener(Optional.empty());
+    tree.overlappedBy(target, item -> overlapped.add(Integer.valueOf(item)));
+    Assert.assertEquals(4L, (long) kinds.size());
+  }
+}
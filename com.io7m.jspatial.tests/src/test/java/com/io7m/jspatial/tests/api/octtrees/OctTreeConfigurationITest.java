@@ -16,6 +16,7 @@
 
 package com.io7m.jspatial.tests.api.octtrees;
 
+import com.io7m.jaffirm.core.PreconditionViolationException;
 import com.io7m.jregions.core.unparameterized.volumes.VolumeI;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationI;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationIType;
@@ -310,4 +311,116 @@ public final class OctTreeConfigurationITest extends
     Assert.assertEquals(qc0, qc2);
     Assert.assertEquals(qc1, qc2);
   }
+
+  /**
+   * A negative maximum number of objects per leaf is rejected.
+   */
+
+  @Test
+  public void testMaximumObjectsPerLeafNegative()
+  {
+    final OctTreeConfigurationI.Builder b = OctTreeConfigurationI.builder();
+    b.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    b.setMaximumObjectsPerLeaf(-1);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A maximum depth of zero is rejected.
+   */
+
+  @Test
+  public void testMaximumDepthZero()
+  {
+    final OctTreeConfigurationI.Builder b = OctTreeConfigurationI.builder();
+    b.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    b.setMaximumDepth(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A parallel query threshold of zero is rejected.
+   */
+
+  @Test
+  public void testParallelQueryThresholdZero()
+  {
+    final OctTreeConfigurationI.Builder b = OctTreeConfigurationI.builder();
+    b.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    b.setParallelQueryThreshold(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A parallel build threshold of zero is rejected.
+   */
+
+  @Test
+  public void testParallelBuildThresholdZero()
+  {
+    final OctTreeConfigurationI.Builder b = OctTreeConfigurationI.builder();
+    b.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    b.setParallelBuildThreshold(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A looseness less than one is rejected.
+   */
+
+  @Test
+  public void testLoosenessLessThanOne()
+  {
+    final OctTreeConfigurationI.Builder b = OctTreeConfigurationI.builder();
+    b.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    b.setLooseness(0.5);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A looseness that is not a number is rejected.
+   */
+
+  @Test
+  public void testLoosenessNaN()
+  {
+    final OctTreeConfigurationI.Builder b = OctTreeConfigurationI.builder();
+    b.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    b.setLooseness(Double.NaN);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * An infinite looseness is rejected.
+   */
+
+  @Test
+  public void testLoosenessInfinite()
+  {
+    final OctTreeConfigurationI.Builder b = OctTreeConfigurationI.builder();
+    b.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    b.setLooseness(Double.POSITIVE_INFINITY);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
 }
@@ -16,6 +16,7 @@
 
 package com.io7m.jspatial.tests.api.octtrees;
 
+import com.io7m.jaffirm.core.PreconditionViolationException;
 import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationL;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationLType;
@@ -310,4 +311,116 @@ public final class OctTreeConfigurationLTest extends
     Assert.assertEquals(qc0, qc2);
     Assert.assertEquals(qc1, qc2);
   }
+
+  /**
+   * A negative maximum number of objects per leaf is rejected.
+   */
+
+  @Test
+  public void testMaximumObjectsPerLeafNegative()
+  {
+    final OctTreeConfigurationL.Builder b = OctTreeConfigurationL.builder();
+    b.setVolume(VolumeL.of(0L, 100L, 0L, 100L, 0L, 100L));
+    b.setMaximumObjectsPerLeaf(-1);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A maximum depth of zero is rejected.
+   */
+
+  @Test
+  public void testMaximumDepthZero()
+  {
+    final OctTreeConfigurationL.Builder b = OctTreeConfigurationL.builder();
+    b.setVolume(VolumeL.of(0L, 100L, 0L, 100L, 0L, 100L));
+    b.setMaximumDepth(0L);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A parallel query threshold of zero is rejected.
+   */
+
+  @Test
+  public void testParallelQueryThresholdZero()
+  {
+    final OctTreeConfigurationL.Builder b = OctTreeConfigurationL.builder();
+    b.setVolume(VolumeL.of(0L, 100L, 0L, 100L, 0L, 100L));
+    b.setParallelQueryThreshold(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A parallel build threshold of zero is rejected.
+   */
+
+  @Test
+  public void testParallelBuildThresholdZero()
+  {
+    final OctTreeConfigurationL.Builder b = OctTreeConfigurationL.builder();
+    b.setVolume(VolumeL.of(0L, 100L, 0L, 100L, 0L, 100L));
+    b.setParallelBuildThreshold(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A looseness less than one is rejected.
+   */
+
+  @Test
+  public void testLoosenessLessThanOne()
+  {
+    final OctTreeConfigurationL.Builder b = OctTreeConfigurationL.builder();
+    b.setVolume(VolumeL.of(0L, 100L, 0L, 100L, 0L, 100L));
+    b.setLooseness(0.5);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A looseness that is not a number is rejected.
+   */
+
+  @Test
+  public void testLoosenessNaN()
+  {
+    final OctTreeConfigurationL.Builder b = OctTreeConfigurationL.builder();
+    b.setVolume(VolumeL.of(0L, 100L, 0L, 100L, 0L, 100L));
+    b.setLooseness(Double.NaN);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * An infinite looseness is rejected.
+   */
+
+  @Test
+  public void testLoosenessInfinite()
+  {
+    final OctTreeConfigurationL.Builder b = OctTreeConfigurationL.builder();
+    b.setVolume(VolumeL.of(0L, 100L, 0L, 100L, 0L, 100L));
+    b.setLooseness(Double.POSITIVE_INFINITY);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
 }
@@ -16,14 +16,18 @@
 
 package com.io7m.jspatial.tests.api.octtrees;
 
+import com.io7m.jaffirm.core.PreconditionViolationException;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
 import com.io7m.jregions.core.unparameterized.volumes.VolumesD;
 import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeQueryKind;
 import com.io7m.jspatial.api.TreeVisitResult;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationD;
 import com.io7m.jspatial.api.octtrees.OctTreeDType;
+import com.io7m.jspatial.api.octtrees.OctTreeRaycastConsumerDType;
 import com.io7m.jspatial.api.octtrees.OctTreeRaycastResultD;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableDType;
 import com.io7m.jspatial.tests.api.VolumeDContainedGenerator;
 import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
 import com.io7m.jtensors.core.unparameterized.vectors.Vectors3D;
@@ -34,14 +38,20 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -64,6 +74,15 @@ public abstract class OctTreeDContract
 
   protected abstract <T> OctTreeDType<T> create(OctTreeConfigurationD config);
 
+  protected abstract <T> OctTreeDType<T> createFrom(
+    OctTreeConfigurationD config,
+    Map<T, VolumeD> items);
+
+  protected abstract <T> OctTreeDType<T> createFromParallel(
+    OctTreeConfigurationD config,
+    Map<T, VolumeD> items,
+    ForkJoinPool pool);
+
   /**
    * Simple identities.
    */
@@ -2434,4 +2453,2544 @@ public abstract class OctTreeDContract
     Assert.assertTrue(tree.insert(item, item_volume));
     Assert.assertEquals(1L, (long) OctTreeDContract.countOctants(tree));
   }
+
+  /**
+   * Leaves are only split when they are full, and their objects are
+   * redistributed to the new child octants.
+   */
+
+  @Test
+  public final void testInsertCapacitySplit()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(2);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final Integer item2 = Integer.valueOf(2);
+
+    Assert.assertTrue(tree.insert(item0, VolumeD.of(1.0, 2.0, 1.0, 2.0, 1.0, 2.0)));
+    Assert.assertTrue(
+      tree.insert(item1, VolumeD.of(60.0, 61.0, 60.0, 61.0, 60.0, 61.0)));
+    Assert.assertEquals(1L, (long) OctTreeDContract.countOctants(tree));
+
+    Assert.assertTrue(
+      tree.insert(item2, VolumeD.of(40.0, 60.0, 40.0, 60.0, 40.0, 60.0)));
+    Assert.assertEquals(9L, (long) OctTreeDContract.countOctants(tree));
+
+    final Map<Long, Set<Object>> by_depth = new HashMap<>();
+    tree.iterateOctants(by_depth, (context, octant, depth) -> {
+      context.computeIfAbsent(Long.valueOf((long) depth), k -> new HashSet<>())
+        .addAll(octant.objects().keySet());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    Assert.assertEquals(1L, (long) by_depth.get(Long.valueOf(0L)).size());
+    Assert.assertTrue(by_depth.get(Long.valueOf(0L)).contains(item2));
+    Assert.assertEquals(2L, (long) by_depth.get(Long.valueOf(1L)).size());
+    Assert.assertTrue(by_depth.get(Long.valueOf(1L)).contains(item0));
+    Assert.assertTrue(by_depth.get(Long.valueOf(1L)).contains(item1));
+
+    final Set<Object> items = new HashSet<>();
+    tree.containedBy(volume, items);
+    Assert.assertEquals(3L, (long) items.size());
+
+    Assert.assertTrue(tree.remove(item0));
+    Assert.assertTrue(tree.remove(item1));
+    Assert.assertTrue(tree.remove(item2));
+    Assert.assertTrue(tree.isEmpty());
+  }
+
+  /**
+   * Splitting leaves only when full results in fewer octants than
+   * eager splitting.
+   */
+
+  @Test
+  public final void testInsertCapacityFewerOctants()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c_eager = cb.build();
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationD c_capacity = cb.build();
+
+    final OctTreeDType<Object> tree_eager = this.create(c_eager);
+    final OctTreeDType<Object> tree_capacity = this.create(c_capacity);
+
+    for (int index = 0; index < 64; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final int x = (index % 4) * 32;
+      final int y = ((index / 4) % 4) * 32;
+      final int z = (index / 16) * 32;
+      final VolumeD item_volume =
+        VolumeD.of(x + 1.0, x + 2.0, y + 1.0, y + 2.0, z + 1.0, z + 2.0);
+      Assert.assertTrue(tree_eager.insert(item, item_volume));
+      Assert.assertTrue(tree_capacity.insert(item, item_volume));
+    }
+
+    Assert.assertTrue(
+      OctTreeDContract.countOctants(tree_capacity)
+        < OctTreeDContract.countOctants(tree_eager));
+
+    final Set<Object> items_eager = new HashSet<>();
+    final Set<Object> items_capacity = new HashSet<>();
+    final VolumeD query = VolumeD.of(0.0, 64.0, 0.0, 64.0, 0.0, 64.0);
+    tree_eager.containedBy(query, items_eager);
+    tree_capacity.containedBy(query, items_capacity);
+    Assert.assertEquals(8L, (long) items_capacity.size());
+    Assert.assertEquals(items_eager, items_capacity);
+
+    for (int index = 0; index < 64; ++index) {
+      Assert.assertTrue(tree_capacity.remove(Integer.valueOf(index)));
+    }
+    Assert.assertTrue(tree_capacity.isEmpty());
+  }
+
+  /**
+   * Octants at the maximum depth are not split.
+   */
+
+  @Test
+  public final void testInsertMaximumDepth()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    cb.setMaximumDepth(1);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+
+    final Integer item = Integer.valueOf(0);
+    final VolumeD item_volume = VolumeD.of(1.0, 2.0, 1.0, 2.0, 1.0, 2.0);
+    Assert.assertTrue(tree.insert(item, item_volume));
+    Assert.assertEquals(9L, (long) OctTreeDContract.countOctants(tree));
+  }
+
+  /**
+   * Query consumers receive each item exactly once, with the correct bounds.
+   */
+
+  @Test
+  public final void testContainedByConsumer()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+
+    final Map<Object, VolumeD> expected = new HashMap<>();
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeD item_volume = VolumeD.of(
+        5.0 * index, 5.0 * index + 10.0,
+        5.0 * index, 5.0 * index + 10.0,
+        5.0 * index, 5.0 * index + 10.0);
+      expected.put(item, item_volume);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final Map<Object, VolumeD> received = new HashMap<>();
+    tree.containedBy(volume, (item, x0, x1, y0, y1, z0, z1) -> {
+      Assert.assertNull(received.put(item, VolumeD.of(x0, x1, y0, y1, z0, z1)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+
+    received.clear();
+    tree.overlappedBy(volume, (item, x0, x1, y0, y1, z0, z1) -> {
+      Assert.assertNull(received.put(item, VolumeD.of(x0, x1, y0, y1, z0, z1)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+
+    final Set<Object> contained = new HashSet<>();
+    final Set<Object> contained_consumer = new HashSet<>();
+    final VolumeD query = VolumeD.of(0.0, 30.0, 0.0, 30.0, 0.0, 30.0);
+    tree.containedBy(query, contained);
+    tree.containedBy(query, (item, x0, x1, y0, y1, z0, z1) -> {
+      contained_consumer.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(5L, (long) contained.size());
+    Assert.assertEquals(contained, contained_consumer);
+  }
+
+  /**
+   * Query consumers can terminate queries early.
+   */
+
+  @Test
+  public final void testQueryConsumerTerminate()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeD item_volume = VolumeD.of(
+        5.0 * index, 5.0 * index + 10.0,
+        5.0 * index, 5.0 * index + 10.0,
+        5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.containedBy(volume, (item, x0, x1, y0, y1, z0, z1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.containedBy(
+      VolumeD.of(1.0, 99.0, 1.0, 99.0, 1.0, 99.0),
+      (item, x0, x1, y0, y1, z0, z1) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_TERMINATE;
+      });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.overlappedBy(volume, (item, x0, x1, y0, y1, z0, z1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    final Ray3D ray =
+      Ray3D.of(Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0));
+    tree.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * Raycast consumers receive the same results as the sorted raycast.
+   */
+
+  @Test
+  public final void testRaycastConsumer()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeD item_volume = VolumeD.of(
+        5.0 * index, 5.0 * index + 10.0,
+        5.0 * index, 5.0 * index + 10.0,
+        5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final Ray3D ray =
+      Ray3D.of(Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0));
+    final SortedSet<OctTreeRaycastResultD<Object>> sorted = new TreeSet<>();
+    tree.raycast(ray, sorted);
+    Assert.assertEquals(10L, (long) sorted.size());
+
+    final SortedSet<OctTreeRaycastResultD<Object>> received = new TreeSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      received.add(OctTreeRaycastResultD.of(
+        distance, VolumeD.of(x0, x1, y0, y1, z0, z1), item));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(sorted, received);
+  }
+
+  /**
+   * Nearest-first raycasts return the nearest items in order.
+   */
+
+  @Test
+  public final void testRaycastUpTo()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeD item_volume = VolumeD.of(
+        5.0 * index, 5.0 * index + 10.0,
+        5.0 * index, 5.0 * index + 10.0,
+        5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final Ray3D ray = Ray3D.of(
+      Vector3D.of(-10.0, -10.0, -10.0),
+      Vectors3D.normalize(Vector3D.of(1.0, 1.0, 1.0)));
+
+    {
+      final Optional<OctTreeRaycastResultD<Object>> first_opt =
+        tree.raycastFirst(ray);
+      Assert.assertTrue(first_opt.isPresent());
+      final OctTreeRaycastResultD<Object> first = first_opt.get();
+      Assert.assertEquals(Integer.valueOf(0), first.item());
+      Assert.assertEquals(10.0 * Math.sqrt(3.0), first.distance(), 0.000001);
+    }
+
+    {
+      final List<OctTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 2, items);
+      Assert.assertEquals(2L, (long) items.size());
+      final Iterator<OctTreeRaycastResultD<Object>> iter = items.iterator();
+      Assert.assertEquals(Integer.valueOf(0), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(1), iter.next().item());
+    }
+
+    {
+      final List<OctTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, 35.0, 10, items);
+      Assert.assertEquals(3L, (long) items.size());
+      final Iterator<OctTreeRaycastResultD<Object>> iter = items.iterator();
+      Assert.assertEquals(Integer.valueOf(0), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(1), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(2), iter.next().item());
+    }
+
+    {
+      final List<OctTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 100, items);
+      Assert.assertEquals(10L, (long) items.size());
+      int expected = 0;
+      for (final OctTreeRaycastResultD<Object> result : items) {
+        Assert.assertEquals(Integer.valueOf(expected), result.item());
+        ++expected;
+      }
+    }
+
+    {
+      final List<OctTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 0, items);
+      Assert.assertTrue(items.isEmpty());
+    }
+  }
+
+  /**
+   * Nearest-first raycasts keep every object at the same distance, such as
+   * objects whose bounds all contain the origin of the ray.
+   */
+
+  @Test
+  public final void testRaycastUpToTies()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0));
+    final OctTreeDType<Object> tree = this.create(cb.build());
+
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(0),
+      VolumeD.of(5.0, 15.0, 5.0, 15.0, 5.0, 15.0)));
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(1),
+      VolumeD.of(0.0, 20.0, 0.0, 20.0, 0.0, 20.0)));
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(2),
+      VolumeD.of(8.0, 12.0, 8.0, 12.0, 8.0, 12.0)));
+
+    final Ray3D ray = Ray3D.of(
+      Vector3D.of(10.0, 10.0, 10.0),
+      Vector3D.of(1.0, 0.0, 0.0));
+
+    {
+      final List<OctTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 10, items);
+      Assert.assertEquals(3L, (long) items.size());
+      final Set<Object> received = new HashSet<>();
+      for (final OctTreeRaycastResultD<Object> result : items) {
+        Assert.assertEquals(0.0, result.distance(), 0.0);
+        received.add(result.item());
+      }
+      Assert.assertEquals(3L, (long) received.size());
+    }
+
+    {
+      final List<OctTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 2, items);
+      Assert.assertEquals(2L, (long) items.size());
+    }
+
+    final Optional<OctTreeRaycastResultD<Object>> first =
+      tree.raycastFirst(ray);
+    Assert.assertTrue(first.isPresent());
+    Assert.assertEquals(0.0, first.get().distance(), 0.0);
+  }
+
+  /**
+   * Nearest-first raycasts work in the negative direction.
+   */
+
+  @Test
+  public final void testRaycastFirstNegative()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeD item_volume = VolumeD.of(
+        5.0 * index, 5.0 * index + 10.0,
+        5.0 * index, 5.0 * index + 10.0,
+        5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final Ray3D ray = Ray3D.of(
+      Vector3D.of(110.0, 110.0, 110.0),
+      Vectors3D.normalize(Vector3D.of(-1.0, -1.0, -1.0)));
+
+    final Optional<OctTreeRaycastResultD<Object>> first_opt =
+      tree.raycastFirst(ray);
+    Assert.assertTrue(first_opt.isPresent());
+    final OctTreeRaycastResultD<Object> first = first_opt.get();
+    Assert.assertEquals(Integer.valueOf(9), first.item());
+    Assert.assertEquals(55.0 * Math.sqrt(3.0), first.distance(), 0.000001);
+
+    final Ray3D miss = Ray3D.of(
+      Vector3D.of(110.0, 110.0, 110.0),
+      Vectors3D.normalize(Vector3D.of(1.0, 1.0, 1.0)));
+    Assert.assertFalse(tree.raycastFirst(miss).isPresent());
+  }
+
+  /**
+   * Nearest neighbour queries return the nearest items, nearest first.
+   */
+
+  @Test
+  public final void testNearest()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(2);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeD item_volume =
+        VolumeD.of(
+          5.0 * index, 5.0 * index + 10.0,
+          5.0 * index, 5.0 * index + 10.0,
+          5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    {
+      final List<Object> items = new ArrayList<>();
+      final List<Double> distances = new ArrayList<>();
+      tree.nearest(
+        Vector3D.of(-10.0, -10.0, -10.0),
+        3,
+        (item, x0, x1, y0, y1, z0, z1, distance) -> {
+          items.add(item);
+          distances.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(3L, (long) items.size());
+      Assert.assertEquals(Integer.valueOf(0), items.get(0));
+      Assert.assertEquals(Integer.valueOf(1), items.get(1));
+      Assert.assertEquals(Integer.valueOf(2), items.get(2));
+      Assert.assertEquals(
+        10.0 * Math.sqrt(3.0), distances.get(0).doubleValue(), 0.000001);
+      Assert.assertEquals(
+        15.0 * Math.sqrt(3.0), distances.get(1).doubleValue(), 0.000001);
+    }
+
+    {
+      final List<Object> items = new ArrayList<>();
+      final List<Double> distances = new ArrayList<>();
+      tree.nearest(
+        Vector3D.of(50.0, 50.0, 50.0),
+        3,
+        (item, x0, x1, y0, y1, z0, z1, distance) -> {
+          items.add(item);
+          distances.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(3L, (long) items.size());
+      Assert.assertTrue(items.contains(Integer.valueOf(8)));
+      Assert.assertTrue(items.contains(Integer.valueOf(9)));
+      Assert.assertEquals(Integer.valueOf(7), items.get(2));
+      Assert.assertEquals(0.0, distances.get(0).doubleValue(), 0.0);
+      Assert.assertEquals(0.0, distances.get(1).doubleValue(), 0.0);
+      Assert.assertEquals(
+        5.0 * Math.sqrt(3.0), distances.get(2).doubleValue(), 0.000001);
+    }
+  }
+
+  /**
+   * Nearest neighbour queries agree with an exhaustive search.
+   */
+
+  @Test
+  public final void testNearestExhaustive()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+    final Random random = new Random(0x5eedL);
+
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final VolumeD item_volume =
+        VolumeD.of(
+          (double) x, (double) (x + size),
+          (double) y, (double) (y + size),
+          (double) z, (double) (z + size));
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), item_volume));
+    }
+
+    for (int query = 0; query < 20; ++query) {
+      final double px = random.nextDouble() * 120.0 - 10.0;
+      final double py = random.nextDouble() * 120.0 - 10.0;
+      final double pz = random.nextDouble() * 120.0 - 10.0;
+
+      final List<Double> expected = new ArrayList<>();
+      tree.map((item, item_volume) -> {
+        final double dx = Math.max(
+          0.0, Math.max((double) item_volume.minimumX() - px, px - (double) item_volume.maximumX()));
+        final double dy = Math.max(
+          0.0, Math.max((double) item_volume.minimumY() - py, py - (double) item_volume.maximumY()));
+        final double dz = Math.max(
+          0.0, Math.max((double) item_volume.minimumZ() - pz, pz - (double) item_volume.maximumZ()));
+        expected.add(Double.valueOf(Math.sqrt(dx * dx + dy * dy + dz * dz)));
+        return item;
+      });
+      Collections.sort(expected);
+
+      final List<Double> received = new ArrayList<>();
+      tree.nearest(
+        Vector3D.of(px, py, pz),
+        10,
+        (item, x0, x1, y0, y1, z0, z1, distance) -> {
+          received.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(expected.subList(0, 10), received);
+    }
+  }
+
+  /**
+   * Nearest neighbour queries can be terminated early, and return nothing for
+   * non-positive limits.
+   */
+
+  @Test
+  public final void testNearestTerminate()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeD item_volume =
+        VolumeD.of(
+          5.0 * index, 5.0 * index + 10.0,
+          5.0 * index, 5.0 * index + 10.0,
+          5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.nearest(
+      Vector3D.of(0.0, 0.0, 0.0),
+      5,
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_TERMINATE;
+      });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.nearest(
+      Vector3D.of(0.0, 0.0, 0.0),
+      0,
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(0L, (long) count.get());
+  }
+
+  /**
+   * Bulk-loading a tree produces the same tree as inserting each item in
+   * turn.
+   */
+
+  @Test
+  public final void testCreateFromEquivalent()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final Random random = new Random(0x5eedL);
+    final Map<Object, VolumeD> items = new HashMap<>();
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int z = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      items.put(
+        Integer.valueOf(index),
+        VolumeD.of(
+          (double) x, (double) (x + size),
+          (double) y, (double) (y + size),
+          (double) z, (double) (z + size)));
+    }
+
+    for (final int capacity : new int[]{0, 1, 8}) {
+      final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+      cb.setVolume(volume);
+      cb.setMaximumObjectsPerLeaf(capacity);
+      final OctTreeConfigurationD c = cb.build();
+
+      final OctTreeDType<Object> expected = this.create(c);
+      for (final Map.Entry<Object, VolumeD> entry : items.entrySet()) {
+        expected.insert(entry.getKey(), entry.getValue());
+      }
+
+      final OctTreeDType<Object> tree = this.createFrom(c, items);
+      Assert.assertEquals(expected.size(), tree.size());
+      Assert.assertEquals(expected, tree);
+      Assert.assertEquals(
+        (long) countOctants(expected), (long) countOctants(tree));
+
+      for (int query = 0; query < 20; ++query) {
+        final int x = random.nextInt(90);
+        final int y = random.nextInt(90);
+        final int z = random.nextInt(90);
+        final VolumeD query_volume =
+          VolumeD.of(
+            (double) x, (double) (x + 20),
+            (double) y, (double) (y + 20),
+            (double) z, (double) (z + 20));
+
+        final Set<Object> expected_items = new HashSet<>();
+        final Set<Object> received_items = new HashSet<>();
+        expected.overlappedBy(query_volume, expected_items);
+        tree.overlappedBy(query_volume, received_items);
+        Assert.assertEquals(expected_items, received_items);
+      }
+    }
+  }
+
+  /**
+   * Bulk-loading a tree skips items that do not fit within the tree.
+   */
+
+  @Test
+  public final void testCreateFromOutside()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c = cb.build();
+
+    final Integer inside = Integer.valueOf(0);
+    final Integer outside = Integer.valueOf(1);
+    final Map<Object, VolumeD> items = new HashMap<>();
+    items.put(inside, VolumeD.of(10.0, 20.0, 10.0, 20.0, 10.0, 20.0));
+    items.put(outside, VolumeD.of(90.0, 110.0, 10.0, 20.0, 10.0, 20.0));
+
+    final OctTreeDType<Object> tree = this.createFrom(c, items);
+    Assert.assertEquals(1L, tree.size());
+    Assert.assertTrue(tree.contains(inside));
+    Assert.assertFalse(tree.contains(outside));
+    Assert.assertTrue(tree.remove(inside));
+    Assert.assertEquals(0L, tree.size());
+  }
+
+  /**
+   * Removing objects leaves the bounds of the remaining objects intact.
+   */
+
+  @Test
+  public final void testRemoveRetainsBounds()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationD c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, VolumeD> items = new HashMap<>();
+    final OctTreeDType<Object> tree = this.create(c);
+    for (int index = 0; index < 300; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final VolumeD item_volume =
+        VolumeD.of(
+          (double) x, (double) (x + size),
+          (double) y, (double) (y + size),
+          (double) z, (double) (z + size));
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, item_volume);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    for (int index = 0; index < 300; index += 2) {
+      final Object item = objects.get(index);
+      Assert.assertTrue(tree.remove(item));
+      items.remove(item);
+    }
+
+    Assert.assertEquals((long) items.size(), tree.size());
+    for (final Map.Entry<Object, VolumeD> entry : items.entrySet()) {
+      Assert.assertEquals(entry.getValue(), tree.volumeFor(entry.getKey()));
+    }
+
+    final Map<Object, VolumeD> received = new HashMap<>();
+    tree.iterateOctants(received, (context, octant, depth) -> {
+      context.putAll(octant.objects());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(items, received);
+
+    final Set<Object> overlapped = new HashSet<>();
+    tree.overlappedBy(volume, overlapped);
+    Assert.assertEquals(items.keySet(), overlapped);
+  }
+
+  /**
+   * Moving objects produces the same tree contents as removing and
+   * re-inserting them.
+   */
+
+  @Test
+  public final void testMove()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(2);
+    cb.setTrimOnRemove(true);
+    final OctTreeConfigurationD c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, VolumeD> items = new HashMap<>();
+    final OctTreeDType<Object> tree = this.create(c);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final VolumeD item_volume =
+        VolumeD.of(
+          (double) x, (double) (x + size),
+          (double) y, (double) (y + size),
+          (double) z, (double) (z + size));
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, item_volume);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    for (int round = 0; round < 10; ++round) {
+      for (final Object item : objects) {
+        final VolumeD current = items.get(item);
+        final int x = Math.max(0, Math.min(90, (int) current.minimumX()
+          + random.nextInt(9) - 4));
+        final int y = Math.max(0, Math.min(90, (int) current.minimumY()
+          + random.nextInt(9) - 4));
+        final int z = Math.max(0, Math.min(90, (int) current.minimumZ()
+          + random.nextInt(9) - 4));
+        final int size = 1 + random.nextInt(10);
+        final VolumeD item_volume =
+          VolumeD.of(
+          (double) x, (double) (x + size),
+          (double) y, (double) (y + size),
+          (double) z, (double) (z + size));
+        items.put(item, item_volume);
+        Assert.assertTrue(tree.move(item, item_volume));
+      }
+    }
+
+    final OctTreeDType<Object> expected = this.create(c);
+    for (final Map.Entry<Object, VolumeD> entry : items.entrySet()) {
+      expected.insert(entry.getKey(), entry.getValue());
+    }
+
+    Assert.assertEquals((long) items.size(), tree.size());
+    Assert.assertEquals(expected, tree);
+
+    final Map<Object, VolumeD> received = new HashMap<>();
+    tree.iterateOctants(received, (context, octant, depth) -> {
+      context.putAll(octant.objects());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(items, received);
+
+    for (int query = 0; query < 20; ++query) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final VolumeD query_volume =
+        VolumeD.of(
+          (double) x, (double) (x + 20),
+          (double) y, (double) (y + 20),
+          (double) z, (double) (z + 20));
+
+      final Set<Object> expected_items = new HashSet<>();
+      final Set<Object> received_items = new HashSet<>();
+      expected.overlappedBy(query_volume, expected_items);
+      tree.overlappedBy(query_volume, received_items);
+      Assert.assertEquals(expected_items, received_items);
+    }
+  }
+
+  /**
+   * Moving an object that is not in the tree fails.
+   */
+
+  @Test
+  public final void testMoveNotPresent()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> tree = this.create(c);
+    Assert.assertFalse(tree.move(Integer.valueOf(0), volume));
+    Assert.assertEquals(0L, tree.size());
+  }
+
+  /**
+   * Moving an object to bounds outside of the tree fails and leaves the
+   * object in place.
+   */
+
+  @Test
+  public final void testMoveOutside()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c = cb.build();
+
+    final Integer item = Integer.valueOf(0);
+    final VolumeD item_volume = VolumeD.of(10.0, 20.0, 10.0, 20.0, 10.0, 20.0);
+    final OctTreeDType<Object> tree = this.create(c);
+    Assert.assertTrue(tree.insert(item, item_volume));
+    Assert.assertFalse(tree.move(item, VolumeD.of(90.0, 110.0, 10.0, 20.0, 10.0, 20.0)));
+    Assert.assertEquals(1L, tree.size());
+    Assert.assertEquals(item_volume, tree.volumeFor(item));
+  }
+
+  /**
+   * Snapshots are unaffected by later modifications to the tree.
+   */
+
+  @Test
+  public final void testSnapshotIsolated()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+    final VolumeD query =
+      VolumeD.of(20.0, 60.0, 20.0, 60.0, 20.0, 60.0);
+
+    for (final boolean trim : new boolean[]{false, true}) {
+      final OctTreeConfigurationD.Builder cb =
+        OctTreeConfigurationD.builder();
+      cb.setVolume(volume);
+      cb.setMaximumObjectsPerLeaf(2);
+      cb.setTrimOnRemove(trim);
+      final OctTreeConfigurationD c = cb.build();
+
+      final Random random = new Random(0x5eedL);
+      final List<Object> objects = new ArrayList<>();
+      final Map<Object, VolumeD> items = new HashMap<>();
+      final OctTreeDType<Object> tree = this.create(c);
+      final List<OctTreeReadableDType<Object>> snapshots = new ArrayList<>();
+      final List<Map<Object, VolumeD>> expected = new ArrayList<>();
+
+      int counter = 0;
+      for (int round = 0; round < 10; ++round) {
+        snapshots.add(tree.snapshot());
+        expected.add(new HashMap<>(items));
+
+        for (int step = 0; step < 50; ++step) {
+          final int x = random.nextInt(90);
+          final int y = random.nextInt(90);
+          final int z = random.nextInt(90);
+          final int size = 1 + random.nextInt(10);
+          final VolumeD item_volume =
+            VolumeD.of(
+              (double) x, (double) (x + size),
+              (double) y, (double) (y + size),
+              (double) z, (double) (z + size));
+
+          final int action = random.nextInt(4);
+          if (action == 0 || objects.isEmpty()) {
+            final Object item = Integer.valueOf(counter);
+            counter = counter + 1;
+            objects.add(item);
+            items.put(item, item_volume);
+            Assert.assertTrue(tree.insert(item, item_volume));
+          } else if (action == 1) {
+            final Object item = objects.remove(random.nextInt(objects.size()));
+            items.remove(item);
+            Assert.assertTrue(tree.remove(item));
+          } else {
+            final Object item = objects.get(random.nextInt(objects.size()));
+            items.put(item, item_volume);
+            Assert.assertTrue(tree.move(item, item_volume));
+          }
+        }
+
+        if (round % 3 == 2) {
+          tree.trim();
+        }
+      }
+
+      snapshots.add(tree.snapshot());
+      expected.add(new HashMap<>(items));
+      snapshots.add(tree);
+      expected.add(items);
+
+      for (int index = 0; index < snapshots.size(); ++index) {
+        final OctTreeReadableDType<Object> snapshot = snapshots.get(index);
+        final Map<Object, VolumeD> snapshot_items = expected.get(index);
+
+        Assert.assertEquals((long) snapshot_items.size(), snapshot.size());
+        for (final Map.Entry<Object, VolumeD> entry : snapshot_items.entrySet()) {
+          Assert.assertTrue(snapshot.contains(entry.getKey()));
+          Assert.assertEquals(
+            entry.getValue(), snapshot.volumeFor(entry.getKey()));
+        }
+
+        final Map<Object, VolumeD> received = new HashMap<>();
+        snapshot.iterateOctants(received, (context, octant, depth) -> {
+          context.putAll(octant.objects());
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+        Assert.assertEquals(snapshot_items, received);
+
+        final Set<Object> overlapped_expected = new HashSet<>();
+        for (final Map.Entry<Object, VolumeD> entry : snapshot_items.entrySet()) {
+          if (VolumesD.overlaps(query, entry.getValue())) {
+            overlapped_expected.add(entry.getKey());
+          }
+        }
+
+        final Set<Object> overlapped = new HashSet<>();
+        snapshot.overlappedBy(query, overlapped);
+        Assert.assertEquals(overlapped_expected, overlapped);
+      }
+    }
+  }
+
+  /**
+   * A snapshot does not contain objects inserted after it was taken.
+   */
+
+  @Test
+  public final void testSnapshotContains()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationD c = cb.build();
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final OctTreeDType<Object> tree = this.create(c);
+    Assert.assertTrue(tree.insert(item0, VolumeD.of(10.0, 20.0, 10.0, 20.0, 10.0, 20.0)));
+
+    final OctTreeReadableDType<Object> snapshot = tree.snapshot();
+    Assert.assertTrue(tree.insert(item1, VolumeD.of(30.0, 40.0, 30.0, 40.0, 30.0, 40.0)));
+    tree.clear();
+
+    Assert.assertEquals(volume, snapshot.bounds());
+    Assert.assertEquals(1L, snapshot.size());
+    Assert.assertTrue(snapshot.contains(item0));
+    Assert.assertFalse(snapshot.contains(item1));
+    Assert.assertEquals(0L, tree.size());
+
+    this.expected.expect(NoSuchElementException.class);
+    snapshot.volumeFor(item1);
+  }
+
+  /**
+   * Parallel queries return the same results as sequential queries, both
+   * on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testParallelQueriesEquivalent()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final int capacity : new int[]{0, 4, 64}) {
+        final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+        cb.setVolume(volume);
+        cb.setMaximumObjectsPerLeaf(capacity);
+        cb.setParallelQueryThreshold(7);
+        final OctTreeConfigurationD c = cb.build();
+
+        final Random random = new Random(0x5eedL);
+        final OctTreeDType<Object> tree = this.create(c);
+        for (int index = 0; index < 1000; ++index) {
+          final int x = random.nextInt(95);
+          final int y = random.nextInt(95);
+          final int z = random.nextInt(95);
+          final int size = random.nextInt(6);
+          tree.insert(
+            Integer.valueOf(index),
+            VolumeD.of(
+              (double) x, (double) (x + size),
+              (double) y, (double) (y + size),
+              (double) z, (double) (z + size)));
+        }
+
+        final OctTreeReadableDType<Object> snapshot = tree.snapshot();
+        for (int query = 0; query < 20; ++query) {
+          final int x = random.nextInt(80);
+          final int y = random.nextInt(80);
+          final int z = random.nextInt(80);
+          final int size = random.nextInt(60);
+          final VolumeD query_volume =
+            VolumeD.of(
+              (double) x, (double) (x + size),
+              (double) y, (double) (y + size),
+              (double) z, (double) (z + size));
+
+          for (final OctTreeReadableDType<Object> target
+            : new OctTreeReadableDType[]{tree, snapshot}) {
+            final Set<Object> contained = new HashSet<>();
+            final Set<Object> contained_parallel = new HashSet<>();
+            target.containedBy(query_volume, contained);
+            target.containedByParallel(query_volume, pool, contained_parallel);
+            Assert.assertEquals(contained, contained_parallel);
+
+            final Set<Object> overlapped = new HashSet<>();
+            final Set<Object> overlapped_parallel = new HashSet<>();
+            target.overlappedBy(query_volume, overlapped);
+            target.overlappedByParallel(query_volume, pool, overlapped_parallel);
+            Assert.assertEquals(overlapped, overlapped_parallel);
+          }
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Bulk-loading a tree in parallel produces the same tree as bulk-loading
+   * it on a single thread.
+   */
+
+  @Test
+  public final void testCreateFromParallelEquivalent()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, VolumeD> items = new HashMap<>();
+    for (int index = 0; index < 2000; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int z = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, VolumeD.of(
+        (double) x, (double) (x + size),
+        (double) y, (double) (y + size),
+        (double) z, (double) (z + size)));
+    }
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final int capacity : new int[]{0, 1, 8}) {
+        final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+        cb.setVolume(volume);
+        cb.setMaximumObjectsPerLeaf(capacity);
+        cb.setParallelBuildThreshold(16);
+        final OctTreeConfigurationD c = cb.build();
+
+        final OctTreeDType<Object> expected = this.createFrom(c, items);
+        final OctTreeDType<Object> tree =
+          this.createFromParallel(c, items, pool);
+        Assert.assertEquals(expected.size(), tree.size());
+        Assert.assertEquals(expected, tree);
+        Assert.assertEquals(
+          (long) countOctants(expected), (long) countOctants(tree));
+
+        for (final Object item : objects) {
+          Assert.assertEquals(expected.contains(item), tree.contains(item));
+        }
+
+        final Set<Object> expected_items = new HashSet<>();
+        final Set<Object> received_items = new HashSet<>();
+        expected.overlappedBy(volume, expected_items);
+        tree.overlappedBy(volume, received_items);
+        Assert.assertEquals(expected_items, received_items);
+
+        for (final Object item : expected_items) {
+          Assert.assertTrue(tree.remove(item));
+        }
+        Assert.assertEquals(0L, tree.size());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * A batch of queries returns the same results as each query executed
+   * separately, both on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testOverlappedByAllEquivalent()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationD c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final OctTreeDType<Object> tree = this.create(c);
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(95);
+      final int y = random.nextInt(95);
+      final int z = random.nextInt(95);
+      final int size = random.nextInt(6);
+      tree.insert(
+        Integer.valueOf(index),
+        VolumeD.of(
+          (double) x, (double) (x + size),
+          (double) y, (double) (y + size),
+          (double) z, (double) (z + size)));
+    }
+
+    final List<VolumeD> queries = new ArrayList<>();
+    for (int query = 0; query < 40; ++query) {
+      final int x = random.nextInt(120) - 10;
+      final int y = random.nextInt(120) - 10;
+      final int z = random.nextInt(120) - 10;
+      final int size = random.nextInt(30);
+      queries.add(VolumeD.of(
+        (double) x, (double) (x + size),
+        (double) y, (double) (y + size),
+        (double) z, (double) (z + size)));
+    }
+
+    final OctTreeReadableDType<Object> snapshot = tree.snapshot();
+    for (final OctTreeReadableDType<Object> target
+      : new OctTreeReadableDType[]{tree, snapshot}) {
+      final List<Set<Object>> received = new ArrayList<>();
+      for (int query = 0; query < queries.size(); ++query) {
+        received.add(new HashSet<>());
+      }
+
+      target.overlappedByAll(queries, (query, item, x0, x1, y0, y1, z0, z1) -> {
+        Assert.assertTrue(received.get(query).add(item));
+        Assert.assertEquals(target.volumeFor(item), VolumeD.of(x0, x1, y0, y1, z0, z1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+      for (int query = 0; query < queries.size(); ++query) {
+        final Set<Object> expected = new HashSet<>();
+        target.overlappedBy(queries.get(query), expected);
+        Assert.assertEquals(expected, received.get(query));
+      }
+    }
+  }
+
+  /**
+   * A batch of queries stops when the consumer asks it to.
+   */
+
+  @Test
+  public final void testOverlappedByAllTerminate()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeDType<Object> tree = this.create(cb.build());
+    for (int index = 0; index < 10; ++index) {
+      tree.insert(Integer.valueOf(index), VolumeD.of(10.0, 20.0, 10.0, 20.0, 10.0, 20.0));
+    }
+
+    final List<VolumeD> queries = new ArrayList<>();
+    queries.add(volume);
+    queries.add(volume);
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.overlappedByAll(queries, (query, item, x0, x1, y0, y1, z0, z1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * A packet of rays returns the same results as each ray cast separately,
+   * both on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testRaycastAllEquivalent()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationD c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final OctTreeDType<Object> tree = this.create(c);
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(95);
+      final int y = random.nextInt(95);
+      final int z = random.nextInt(95);
+      final int size = random.nextInt(6);
+      tree.insert(
+        Integer.valueOf(index),
+        VolumeD.of(
+          (double) x, (double) (x + size),
+          (double) y, (double) (y + size),
+          (double) z, (double) (z + size)));
+    }
+
+    final List<Ray3D> rays = new ArrayList<>();
+    for (int index = 0; index < 40; ++index) {
+      rays.add(Ray3D.of(
+        Vector3D.of(
+          (double) (random.nextInt(140) - 20),
+          (double) (random.nextInt(140) - 20),
+          (double) (random.nextInt(140) - 20)),
+        Vectors3D.normalize(Vector3D.of(
+          random.nextGaussian(),
+          random.nextGaussian(),
+          random.nextGaussian()))));
+    }
+
+    final OctTreeReadableDType<Object> snapshot = tree.snapshot();
+    for (final OctTreeReadableDType<Object> target
+      : new OctTreeReadableDType[]{tree, snapshot}) {
+      final List<Map<Object, Double>> received = new ArrayList<>();
+      for (int index = 0; index < rays.size(); ++index) {
+        received.add(new HashMap<>());
+      }
+
+      target.raycastAll(rays, (ray, item, x0, x1, y0, y1, z0, z1, distance) -> {
+        Assert.assertNull(received.get(ray).put(item, Double.valueOf(distance)));
+        Assert.assertEquals(target.volumeFor(item), VolumeD.of(x0, x1, y0, y1, z0, z1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+      for (int index = 0; index < rays.size(); ++index) {
+        final Map<Object, Double> expected = new HashMap<>();
+        target.raycast(rays.get(index), (item, x0, x1, y0, y1, z0, z1, distance) -> {
+          expected.put(item, Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+        Assert.assertEquals(expected, received.get(index));
+      }
+    }
+  }
+
+  /**
+   * A packet of rays stops when the consumer asks it to.
+   */
+
+  @Test
+  public final void testRaycastAllTerminate()
+  {
+    final VolumeD volume =
+      VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeDType<Object> tree = this.create(cb.build());
+    for (int index = 0; index < 10; ++index) {
+      tree.insert(Integer.valueOf(index), VolumeD.of(10.0, 20.0, 10.0, 20.0, 10.0, 20.0));
+    }
+
+    final Ray3D ray = Ray3D.of(
+      Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0));
+    final List<Ray3D> rays = new ArrayList<>();
+    rays.add(ray);
+    rays.add(ray);
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.raycastAll(rays, (index, item, x0, x1, y0, y1, z0, z1, distance) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * Inserting, moving and querying with coordinates is equivalent to doing
+   * so with volumes.
+   */
+
+  @Test
+  public final void testCoordinatesEquivalent()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationD c = cb.build();
+
+    final OctTreeDType<Object> expected = this.create(c);
+    final OctTreeDType<Object> tree = this.create(c);
+
+    final Random random = new Random(0x5eedL);
+    for (int index = 0; index < 300; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int z = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      final Integer item = Integer.valueOf(index);
+      Assert.assertEquals(
+        Boolean.valueOf(expected.insert(
+          item, VolumeD.of(
+            (double) x, (double) (x + size),
+            (double) y, (double) (y + size),
+            (double) z, (double) (z + size)))),
+        Boolean.valueOf(tree.insert(
+          item,
+          (double) x, (double) (x + size),
+          (double) y, (double) (y + size),
+          (double) z, (double) (z + size))));
+    }
+    Assert.assertEquals(expected, tree);
+
+    for (int index = 0; index < 300; index += 3) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int z = random.nextInt(110);
+      final Integer item = Integer.valueOf(index);
+      Assert.assertEquals(
+        Boolean.valueOf(expected.move(
+          item,
+          VolumeD.of(
+            (double) x, (double) (x + 5),
+            (double) y, (double) (y + 5),
+            (double) z, (double) (z + 5)))),
+        Boolean.valueOf(tree.move(
+          item,
+          (double) x, (double) (x + 5),
+          (double) y, (double) (y + 5),
+          (double) z, (double) (z + 5))));
+    }
+    Assert.assertEquals(expected, tree);
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final VolumeD volume =
+        VolumeD.of(
+          (double) x, (double) (x + 20),
+          (double) y, (double) (y + 20),
+          (double) z, (double) (z + 20));
+
+      final Set<Object> expected_over = new HashSet<>();
+      final Set<Object> received_over = new HashSet<>();
+      expected.overlappedBy(volume, expected_over);
+      tree.overlappedBy(
+        (double) x, (double) (x + 20),
+        (double) y, (double) (y + 20),
+        (double) z, (double) (z + 20),
+        (i, x0, x1, y0, y1, z0, z1) -> {
+          Assert.assertEquals(
+            tree.volumeFor(i), VolumeD.of(x0, x1, y0, y1, z0, z1));
+          received_over.add(i);
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+      Assert.assertEquals(expected_over, received_over);
+
+      final Set<Object> expected_in = new HashSet<>();
+      final Set<Object> received_in = new HashSet<>();
+      expected.containedBy(volume, expected_in);
+      tree.containedBy(
+        (double) x, (double) (x + 20),
+        (double) y, (double) (y + 20),
+        (double) z, (double) (z + 20),
+        (i, x0, x1, y0, y1, z0, z1) -> {
+          received_in.add(i);
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+      Assert.assertEquals(expected_in, received_in);
+    }
+  }
+
+  /**
+   * Coordinates that do not describe a valid volume are rejected.
+   */
+
+  @Test
+  public final void testCoordinatesInvalid()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0));
+    final OctTreeConfigurationD c = cb.build();
+    final OctTreeDType<Object> tree = this.create(c);
+
+    this.expected.expect(PreconditionViolationException.class);
+    tree.insert(Integer.valueOf(0), 10.0, 20.0, 10.0, 20.0, 20.0, 10.0);
+  }
+
+  /**
+   * Objects that straddle the boundaries between octants remain in the
+   * root of an ordinary tree, but descend into the children of a loose
+   * tree.
+   */
+
+  @Test
+  public final void testLooseStraddling()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationD tight_config = cb.build();
+    final OctTreeConfigurationD loose_config =
+      tight_config.withLooseness(2.0);
+
+    final OctTreeDType<Object> tight = this.create(tight_config);
+    final OctTreeDType<Object> loose = this.create(loose_config);
+    for (int index = 0; index < 100; ++index) {
+      final VolumeD volume = VolumeD.of(62.0, 66.0, (double) index, (double) (index + 4), 10.0, 14.0);
+      Assert.assertTrue(tight.insert(Integer.valueOf(index), volume));
+      Assert.assertTrue(loose.insert(Integer.valueOf(index), volume));
+    }
+
+    final AtomicInteger tight_root = new AtomicInteger(0);
+    tight.iterateOctants(tight_root, (context, octant, depth) -> {
+      if (depth == 0L) {
+        context.set(octant.objects().size());
+      }
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(100L, (long) tight_root.get());
+
+    final AtomicInteger loose_root = new AtomicInteger(-1);
+    final AtomicInteger loose_max = new AtomicInteger(0);
+    loose.iterateOctants(loose_root, (context, octant, depth) -> {
+      if (depth == 0L) {
+        context.set(octant.objects().size());
+      }
+      loose_max.set(Math.max(loose_max.get(), octant.objects().size()));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(0L, (long) loose_root.get());
+    Assert.assertTrue(loose_max.get() < 100);
+
+    final Set<Object> tight_over = new HashSet<>();
+    final Set<Object> loose_over = new HashSet<>();
+    final VolumeD query = VolumeD.of(60.0, 70.0, 10.0, 20.0, 0.0, 128.0);
+    tight.overlappedBy(query, tight_over);
+    loose.overlappedBy(query, loose_over);
+    Assert.assertEquals(tight_over, loose_over);
+  }
+
+  /**
+   * Queries against a loose tree agree with queries against an ordinary
+   * tree holding the same objects.
+   */
+
+  @Test
+  public final void testLooseEquivalent()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationD tight_config = cb.build();
+
+    final OctTreeDType<Object> tight = this.create(tight_config);
+    final OctTreeDType<Object> loose =
+      this.create(tight_config.withLooseness(1.5));
+
+    final Integer[] items = new Integer[400];
+    final Random random = new Random(0x1005eL);
+    for (int index = 0; index < 400; ++index) {
+      items[index] = Integer.valueOf(index);
+      final int x = random.nextInt(108);
+      final int y = random.nextInt(108);
+      final int z = random.nextInt(108);
+      final int size = 1 + random.nextInt(20);
+      final VolumeD volume = VolumeD.of(
+        (double) x, (double) (x + size), (double) y, (double) (y + size), (double) z, (double) (z + size));
+      Assert.assertTrue(tight.insert(items[index], volume));
+      Assert.assertTrue(loose.insert(items[index], volume));
+    }
+
+    for (int index = 0; index < 400; index += 3) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final int z = random.nextInt(118);
+      final VolumeD volume = VolumeD.of(
+        (double) x, (double) (x + 10), (double) y, (double) (y + 10), (double) z, (double) (z + 10));
+      Assert.assertTrue(tight.move(items[index], volume));
+      Assert.assertTrue(loose.move(items[index], volume));
+    }
+
+    for (int index = 0; index < 400; index += 5) {
+      Assert.assertEquals(
+        Boolean.valueOf(tight.remove(items[index])),
+        Boolean.valueOf(loose.remove(items[index])));
+    }
+
+    Assert.assertEquals(tight.size(), loose.size());
+    for (int index = 0; index < 400; ++index) {
+      final Integer item = items[index];
+      if (tight.contains(item)) {
+        Assert.assertEquals(tight.volumeFor(item), loose.volumeFor(item));
+      }
+    }
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(100);
+      final int y = random.nextInt(100);
+      final int z = random.nextInt(100);
+      final VolumeD volume = VolumeD.of(
+        (double) x, (double) (x + 28), (double) y, (double) (y + 28), (double) z, (double) (z + 28));
+
+      final Set<Object> tight_over = new HashSet<>();
+      final Set<Object> loose_over = new HashSet<>();
+      tight.overlappedBy(volume, tight_over);
+      loose.overlappedBy(volume, loose_over);
+      Assert.assertEquals(tight_over, loose_over);
+
+      final Set<Object> tight_in = new HashSet<>();
+      final Set<Object> loose_in = new HashSet<>();
+      tight.containedBy(volume, tight_in);
+      loose.containedBy(volume, loose_in);
+      Assert.assertEquals(tight_in, loose_in);
+
+      final Ray3D ray = Ray3D.of(
+        Vector3D.of(
+          0.0, (double) random.nextInt(128), (double) random.nextInt(128)),
+        Vector3D.of(
+          1.0, random.nextDouble() - 0.5, random.nextDouble() - 0.5));
+      final Set<Object> tight_hits = new HashSet<>();
+      final Set<Object> loose_hits = new HashSet<>();
+      tight.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        tight_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      loose.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        loose_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      Assert.assertEquals(tight_hits, loose_hits);
+    }
+  }
+
+  /**
+   * An expandable tree grows to hold objects outside of its initial bounds.
+   */
+
+  @Test
+  public final void testExpandableInsertOutside()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0));
+    final OctTreeConfigurationD fixed_config = cb.build();
+    final OctTreeDType<Object> fixed = this.create(fixed_config);
+    final OctTreeDType<Object> tree =
+      this.create(fixed_config.withExpandable(true));
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final VolumeD volume0 = VolumeD.of(250.0, 260.0, 10.0, 20.0, 10.0, 20.0);
+    final VolumeD volume1 = VolumeD.of(-310.0, -300.0, -5.0, 5.0, -5.0, 5.0);
+
+    Assert.assertFalse(fixed.insert(item0, volume0));
+    Assert.assertEquals(VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0), fixed.bounds());
+
+    Assert.assertTrue(tree.insert(item0, volume0));
+    Assert.assertEquals(VolumeD.of(0.0, 400.0, 0.0, 400.0, 0.0, 400.0), tree.bounds());
+    Assert.assertTrue(tree.insert(item1, volume1));
+    Assert.assertEquals(VolumeD.of(-400.0, 400.0, -400.0, 400.0, -400.0, 400.0), tree.bounds());
+    Assert.assertEquals(2L, tree.size());
+    Assert.assertEquals(volume0, tree.volumeFor(item0));
+    Assert.assertEquals(volume1, tree.volumeFor(item1));
+
+    final Set<Object> all = new HashSet<>();
+    tree.overlappedBy(tree.bounds(), all);
+    Assert.assertEquals(2L, (long) all.size());
+
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(volume0, contained);
+    Assert.assertEquals(Collections.singleton(item0), contained);
+
+    final VolumeD volume2 = VolumeD.of(1000.0, 1010.0, -40.0, -30.0, 1000.0, 1010.0);
+    Assert.assertTrue(tree.move(item0, volume2));
+    Assert.assertEquals(volume2, tree.volumeFor(item0));
+
+    final Set<Object> moved = new HashSet<>();
+    tree.overlappedBy(volume2, moved);
+    Assert.assertEquals(Collections.singleton(item0), moved);
+  }
+
+  /**
+   * Inserting, moving, removing and querying objects in an expandable tree
+   * is equivalent to doing so in a tree that is large enough to hold every
+   * object from the start.
+   */
+
+  @Test
+  public final void testExpandableEquivalent()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(-1024.0, 1024.0, -1024.0, 1024.0, -1024.0, 1024.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationD fixed_config = cb.build();
+    final OctTreeConfigurationD expand_config =
+      fixed_config.withVolume(VolumeD.of(0.0, 16.0, 0.0, 16.0, 0.0, 16.0)).withExpandable(true);
+
+    final OctTreeDType<Object> fixed = this.create(fixed_config);
+    final OctTreeDType<Object> expand = this.create(expand_config);
+    final OctTreeDType<Object> loose =
+      this.create(expand_config.withLooseness(1.5));
+
+    final Integer[] items = new Integer[300];
+    final Map<Object, VolumeD> initial = new HashMap<>();
+    final Random random = new Random(0xe7a9dL);
+    for (int index = 0; index < 300; ++index) {
+      items[index] = Integer.valueOf(index);
+      final int x = random.nextInt(2000) - 1000;
+      final int y = random.nextInt(2000) - 1000;
+      final int z = random.nextInt(2000) - 1000;
+      final int size = 1 + random.nextInt(20);
+      final VolumeD volume = VolumeD.of(
+        (double) x, (double) (x + size), (double) y, (double) (y + size), (double) z, (double) (z + size));
+      Assert.assertTrue(fixed.insert(items[index], volume));
+      Assert.assertTrue(expand.insert(items[index], volume));
+      Assert.assertTrue(loose.insert(items[index], volume));
+      initial.put(items[index], volume);
+    }
+
+    final OctTreeDType<Object> bulk = this.createFrom(expand_config, initial);
+    Assert.assertEquals(300L, bulk.size());
+    Assert.assertEquals(expand.bounds(), bulk.bounds());
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(1900) - 950;
+      final int y = random.nextInt(1900) - 950;
+      final int z = random.nextInt(1900) - 950;
+      final VolumeD volume = VolumeD.of(
+        (double) x, (double) (x + 100), (double) y, (double) (y + 100), (double) z, (double) (z + 100));
+      final Set<Object> expected_over = new HashSet<>();
+      final Set<Object> received_over = new HashSet<>();
+      expand.overlappedBy(volume, expected_over);
+      bulk.overlappedBy(volume, received_over);
+      Assert.assertEquals(expected_over, received_over);
+    }
+
+    for (int index = 0; index < 300; index += 3) {
+      final int x = random.nextInt(2000) - 1000;
+      final int y = random.nextInt(2000) - 1000;
+      final int z = random.nextInt(2000) - 1000;
+      final VolumeD volume = VolumeD.of(
+        (double) x, (double) (x + 10), (double) y, (double) (y + 10), (double) z, (double) (z + 10));
+      Assert.assertTrue(fixed.move(items[index], volume));
+      Assert.assertTrue(expand.move(items[index], volume));
+      Assert.assertTrue(loose.move(items[index], volume));
+    }
+
+    for (int index = 0; index < 300; index += 5) {
+      Assert.assertTrue(fixed.remove(items[index]));
+      Assert.assertTrue(expand.remove(items[index]));
+      Assert.assertTrue(loose.remove(items[index]));
+    }
+
+    Assert.assertEquals(fixed.size(), expand.size());
+    Assert.assertEquals(fixed.size(), loose.size());
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(1900) - 950;
+      final int y = random.nextInt(1900) - 950;
+      final int z = random.nextInt(1900) - 950;
+      final VolumeD volume = VolumeD.of(
+        (double) x, (double) (x + 100), (double) y, (double) (y + 100), (double) z, (double) (z + 100));
+
+      final Set<Object> fixed_over = new HashSet<>();
+      final Set<Object> expand_over = new HashSet<>();
+      final Set<Object> loose_over = new HashSet<>();
+      fixed.overlappedBy(volume, fixed_over);
+      expand.overlappedBy(volume, expand_over);
+      loose.overlappedBy(volume, loose_over);
+      Assert.assertEquals(fixed_over, expand_over);
+      Assert.assertEquals(fixed_over, loose_over);
+
+      final Set<Object> fixed_in = new HashSet<>();
+      final Set<Object> expand_in = new HashSet<>();
+      final Set<Object> loose_in = new HashSet<>();
+      fixed.containedBy(volume, fixed_in);
+      expand.containedBy(volume, expand_in);
+      loose.containedBy(volume, loose_in);
+      Assert.assertEquals(fixed_in, expand_in);
+      Assert.assertEquals(fixed_in, loose_in);
+
+      final Ray3D ray = Ray3D.of(
+        Vector3D.of(
+          -1100.0, (double) (random.nextInt(2000) - 1000), 0.0),
+        Vector3D.of(
+          1.0, random.nextDouble() - 0.5, random.nextDouble() - 0.5));
+      final Set<Object> fixed_hits = new HashSet<>();
+      final Set<Object> expand_hits = new HashSet<>();
+      fixed.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        fixed_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      expand.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        expand_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      Assert.assertEquals(fixed_hits, expand_hits);
+    }
+  }
+
+  /**
+   * Counting the objects contained within a volume agrees with the
+   * objects passed to the consumer of a containment query, for trees built
+   * incrementally and in bulk, and for snapshots.
+   */
+
+  @Test
+  public final void testCountEquivalent()
+  {
+    for (final boolean trim : new boolean[]{false, true}) {
+      for (final double looseness : new double[]{1.0, 1.5}) {
+        final OctTreeConfigurationD.Builder cb =
+          OctTreeConfigurationD.builder();
+        cb.setVolume(VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0));
+        cb.setMaximumObjectsPerLeaf(4);
+        cb.setTrimOnRemove(trim);
+        cb.setLooseness(looseness);
+        final OctTreeConfigurationD c = cb.build();
+
+        final OctTreeDType<Object> tree = this.create(c);
+        final Integer[] items = new Integer[400];
+        final Random random = new Random(0xc0a7L);
+        for (int index = 0; index < 400; ++index) {
+          items[index] = Integer.valueOf(index);
+          final int x = random.nextInt(108);
+          final int y = random.nextInt(108);
+          final int z = random.nextInt(108);
+          final int size = 1 + random.nextInt(20);
+          Assert.assertTrue(tree.insert(items[index], VolumeD.of(
+            (double) x, (double) (x + size), (double) y, (double) (y + size), (double) z, (double) (z + size))));
+        }
+
+        for (int index = 0; index < 400; index += 3) {
+          final int x = random.nextInt(118);
+          final int y = random.nextInt(118);
+          final int z = random.nextInt(118);
+          Assert.assertTrue(tree.move(items[index], VolumeD.of(
+            (double) x, (double) (x + 10), (double) y, (double) (y + 10), (double) z, (double) (z + 10))));
+        }
+
+        final OctTreeReadableDType<Object> snapshot = tree.snapshot();
+        final Map<Object, VolumeD> snapshot_items = new HashMap<>();
+        for (int index = 0; index < 400; ++index) {
+          snapshot_items.put(items[index], tree.volumeFor(items[index]));
+        }
+
+        for (int index = 0; index < 400; index += 5) {
+          Assert.assertTrue(tree.remove(items[index]));
+        }
+
+        final OctTreeDType<Object> bulk = this.createFrom(c, snapshot_items);
+
+        Assert.assertEquals(tree.size(), tree.count(tree.bounds()));
+        Assert.assertEquals(400L, snapshot.count(snapshot.bounds()));
+        Assert.assertEquals(400L, bulk.count(bulk.bounds()));
+
+        for (int query = 0; query < 100; ++query) {
+          final int x = random.nextInt(100);
+          final int y = random.nextInt(100);
+          final int z = random.nextInt(100);
+          final int size = 1 + random.nextInt(64);
+          final VolumeD volume = VolumeD.of(
+            (double) x, (double) (x + size), (double) y, (double) (y + size), (double) z, (double) (z + size));
+          checkCount(tree, volume);
+          checkCount(snapshot, volume);
+          checkCount(bulk, volume);
+        }
+      }
+    }
+  }
+
+  private static void checkCount(
+    final OctTreeReadableDType<Object> tree,
+    final VolumeD volume)
+  {
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(volume, contained);
+    Assert.assertEquals((long) contained.size(), tree.count(volume));
+  }
+
+  /**
+   * Counting the objects in empty octants, and in volumes that hold no
+   * objects, yields zero.
+   */
+
+  @Test
+  public final void testCountEmpty()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(1);
+    final OctTreeDType<Object> tree = this.create(cb.build());
+    Assert.assertEquals(0L, tree.count(tree.bounds()));
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    Assert.assertTrue(tree.insert(item0, VolumeD.of(1.0, 2.0, 1.0, 2.0, 1.0, 2.0)));
+    Assert.assertTrue(tree.insert(item1, VolumeD.of(100.0, 110.0, 100.0, 110.0, 100.0, 110.0)));
+    Assert.assertEquals(2L, tree.count(tree.bounds()));
+    Assert.assertEquals(0L, tree.count(VolumeD.of(30.0, 90.0, 30.0, 90.0, 30.0, 90.0)));
+    Assert.assertEquals(1L, tree.count(VolumeD.of(64.0, 128.0, 64.0, 128.0, 64.0, 128.0)));
+
+    Assert.assertTrue(tree.remove(item0));
+    Assert.assertTrue(tree.remove(item1));
+    Assert.assertEquals(0L, tree.count(tree.bounds()));
+  }
+
+  /**
+   * Counting within coordinates that do not describe a valid volume is
+   * rejected.
+   */
+
+  @Test
+  public final void testCountInvalid()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0));
+    final OctTreeConfigurationD c = cb.build();
+    final OctTreeDType<Object> tree = this.create(c);
+
+    this.expected.expect(PreconditionViolationException.class);
+    tree.count(10.0, 20.0, 10.0, 20.0, 20.0, 10.0);
+  }
+
+  /**
+   * Entry raycasts report the same objects as ordinary raycasts, along
+   * with the parametric distance at which the ray enters each object.
+   */
+
+  @Test
+  public final void testRaycastEntry()
+  {
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeDType<Object> tree = this.create(cb.build());
+
+    final Integer near = Integer.valueOf(1000);
+    final Integer around = Integer.valueOf(1001);
+    Assert.assertTrue(tree.insert(near, VolumeD.of(20.0, 30.0, 10.0, 40.0, 10.0, 40.0)));
+    Assert.assertTrue(tree.insert(around, VolumeD.of(40.0, 60.0, 40.0, 60.0, 40.0, 60.0)));
+
+    final Map<Object, Double> simple = new HashMap<>();
+    tree.raycastEntry(
+      Ray3D.of(Vector3D.of(0.0, 15.0, 15.0), Vector3D.of(1.0, 0.0, 0.0)),
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        simple.put(item, Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(20.0, simple.get(near).doubleValue(), 0.000001);
+
+    simple.clear();
+    tree.raycastEntry(
+      Ray3D.of(Vector3D.of(50.0, 50.0, 50.0), Vector3D.of(1.0, 0.0, 0.0)),
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        simple.put(item, Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(0.0, simple.get(around).doubleValue(), 0.000001);
+
+    final Random random = new Random(0xe7a1L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(108);
+      final int y = random.nextInt(108);
+      final int z = random.nextInt(108);
+      final int size = 1 + random.nextInt(20);
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(index),
+        VolumeD.of(
+          (double) x, (double) (x + size),
+          (double) y, (double) (y + size),
+          (double) z, (double) (z + size))));
+    }
+
+    final OctTreeReadableDType<Object> snapshot = tree.snapshot();
+    for (int query = 0; query < 50; ++query) {
+      final Ray3D ray = Ray3D.of(
+        Vector3D.of(
+          random.nextDouble() * 128.0,
+          random.nextDouble() * 128.0,
+          random.nextDouble() * 128.0),
+        Vector3D.of(
+          random.nextDouble() - 0.5,
+          random.nextDouble() - 0.5,
+          random.nextDouble() - 0.5));
+      checkRaycastEntry(tree, ray);
+      checkRaycastEntry(snapshot, ray);
+    }
+  }
+
+  private static void checkRaycastEntry(
+    final OctTreeReadableDType<Object> tree,
+    final Ray3D ray)
+  {
+    final Set<Object> expected = new HashSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      expected.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final Set<Object> received = new HashSet<>();
+    tree.raycastEntry(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      received.add(item);
+      Assert.assertEquals(
+        ray.intersectionParameterVolume((double) x0, (double) y0, (double) z0, (double) x1, (double) y1, (double) z1),
+        distance,
+        0.000001);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+  }
+
+  /**
+   * A compiled tree answers every query in the same way as a snapshot of
+   * the tree taken at the same time, and is unaffected by later
+   * modifications to the tree.
+   */
+
+  @Test
+  public final void testCompileEquivalent()
+  {
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final boolean expandable : new boolean[]{false, true}) {
+        for (final double looseness : new double[]{1.0, 1.5}) {
+          final OctTreeConfigurationD.Builder cb =
+            OctTreeConfigurationD.builder();
+          cb.setVolume(VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0));
+          cb.setMaximumObjectsPerLeaf(4);
+          cb.setExpandable(expandable);
+          cb.setLooseness(looseness);
+          cb.setParallelQueryThreshold(7);
+          final OctTreeConfigurationD c = cb.build();
+
+          final double extent = expandable ? 200.0 : 108.0;
+          final OctTreeDType<Object> tree = this.create(c);
+          final Random random = new Random(0xc0111e5L);
+          final Object[] inserted = new Object[500];
+          for (int index = 0; index < 500; ++index) {
+            inserted[index] = Integer.valueOf(index);
+            final double x = Math.floor(random.nextDouble() * extent);
+            final double y = Math.floor(random.nextDouble() * extent);
+            final double z = Math.floor(random.nextDouble() * extent);
+            final double size = 1.0 + (double) random.nextInt(20);
+            Assert.assertTrue(tree.insert(
+              inserted[index],
+              VolumeD.of(x, x + size, y, y + size, z, z + size)));
+          }
+          for (int index = 0; index < 500; index += 7) {
+            Assert.assertTrue(tree.remove(inserted[index]));
+          }
+
+          final OctTreeReadableDType<Object> snapshot = tree.snapshot();
+          final OctTreeReadableDType<Object> compiled = tree.compile();
+          tree.clear();
+
+          checkCompiled(snapshot, compiled, random, pool);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void checkCompiled(
+    final OctTreeReadableDType<Object> snapshot,
+    final OctTreeReadableDType<Object> compiled,
+    final Random random,
+    final ForkJoinPool pool)
+  {
+    Assert.assertEquals(snapshot.size(), compiled.size());
+    Assert.assertEquals(snapshot.bounds(), compiled.bounds());
+
+    final List<Object> expected_octants = octants(snapshot);
+    Assert.assertEquals(expected_octants, octants(compiled));
+
+    final Map<Object, VolumeD> items = new HashMap<>();
+    snapshot.iterateOctants(items, (context, octant, depth) -> {
+      context.putAll(octant.objects());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    for (final Map.Entry<Object, VolumeD> entry : items.entrySet()) {
+      Assert.assertTrue(compiled.contains(entry.getKey()));
+      Assert.assertEquals(entry.getValue(), compiled.volumeFor(entry.getKey()));
+    }
+    Assert.assertFalse(compiled.contains(Integer.valueOf(-1)));
+    Assert.assertEquals(
+      snapshot.size(),
+      compiled.map((item, volume) -> item).size());
+
+    final List<VolumeD> queries = new ArrayList<>();
+    for (int query = 0; query < 50; ++query) {
+      final double x = Math.floor(random.nextDouble() * 200.0);
+      final double y = Math.floor(random.nextDouble() * 200.0);
+      final double z = Math.floor(random.nextDouble() * 200.0);
+      final double size = 1.0 + (double) random.nextInt(80);
+      final VolumeD volume = VolumeD.of(x, x + size, y, y + size, z, z + size);
+      queries.add(volume);
+
+      final Set<Object> contained = new HashSet<>();
+      snapshot.containedBy(volume, contained);
+      final Set<Object> compiled_contained = new HashSet<>();
+      compiled.containedBy(volume, compiled_contained);
+      Assert.assertEquals(contained, compiled_contained);
+      Assert.assertEquals((long) contained.size(), compiled.count(volume));
+
+      final Set<Object> contained_parallel = new HashSet<>();
+      compiled.containedByParallel(volume, pool, contained_parallel);
+      Assert.assertEquals(contained, contained_parallel);
+
+      final Set<Object> overlapped = new HashSet<>();
+      snapshot.overlappedBy(volume, overlapped);
+      final Set<Object> compiled_overlapped = new HashSet<>();
+      compiled.overlappedBy(volume, compiled_overlapped);
+      Assert.assertEquals(overlapped, compiled_overlapped);
+
+      final Set<Object> overlapped_parallel = new HashSet<>();
+      compiled.overlappedByParallel(volume, pool, overlapped_parallel);
+      Assert.assertEquals(overlapped, overlapped_parallel);
+    }
+
+    final Set<List<Object>> batch = new HashSet<>();
+    snapshot.overlappedByAll(queries, (query, item, x0, x1, y0, y1, z0, z1) -> {
+      batch.add(Arrays.asList(Integer.valueOf(query), item));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    final Set<List<Object>> compiled_batch = new HashSet<>();
+    compiled.overlappedByAll(queries, (query, item, x0, x1, y0, y1, z0, z1) -> {
+      compiled_batch.add(Arrays.asList(Integer.valueOf(query), item));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(batch, compiled_batch);
+
+    final List<Ray3D> rays = new ArrayList<>();
+    for (int query = 0; query < 50; ++query) {
+      final Ray3D ray = Ray3D.of(
+        Vector3D.of(
+          random.nextDouble() * 200.0,
+          random.nextDouble() * 200.0,
+          random.nextDouble() * 200.0),
+        Vector3D.of(
+          random.nextDouble() - 0.5,
+          random.nextDouble() - 0.5,
+          random.nextDouble() - 0.5));
+      rays.add(ray);
+
+      Assert.assertEquals(
+        raycastDistances(snapshot, ray, false),
+        raycastDistances(compiled, ray, false));
+      Assert.assertEquals(
+        raycastDistances(snapshot, ray, true),
+        raycastDistances(compiled, ray, true));
+
+      for (final int limit : new int[]{1, 5, 1000}) {
+        Assert.assertEquals(
+          raycastUpToDistances(snapshot, ray, limit),
+          raycastUpToDistances(compiled, ray, limit));
+      }
+
+      final Vector3D point = Vector3D.of(
+        random.nextDouble() * 200.0,
+        random.nextDouble() * 200.0,
+        random.nextDouble() * 200.0);
+      Assert.assertEquals(
+        nearestDistances(snapshot, point),
+        nearestDistances(compiled, point));
+    }
+
+    final Set<List<Object>> ray_batch = new HashSet<>();
+    snapshot.raycastAll(rays, (ray, item, x0, x1, y0, y1, z0, z1, distance) -> {
+      ray_batch.add(Arrays.asList(
+        Integer.valueOf(ray), item, Double.valueOf(distance)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    final Set<List<Object>> compiled_ray_batch = new HashSet<>();
+    compiled.raycastAll(rays, (ray, item, x0, x1, y0, y1, z0, z1, distance) -> {
+      compiled_ray_batch.add(Arrays.asList(
+        Integer.valueOf(ray), item, Double.valueOf(distance)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(ray_batch, compiled_ray_batch);
+  }
+
+  private static List<Object> octants(
+    final OctTreeReadableDType<Object> tree)
+  {
+    final List<Object> octants = new ArrayList<>();
+    tree.iterateOctants(octants, (context, octant, depth) -> {
+      context.add(Arrays.asList(
+        Long.valueOf(depth),
+        octant.volume(),
+        new HashMap<>(octant.objects())));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    return octants;
+  }
+
+  private static Map<Object, Double> raycastDistances(
+    final OctTreeReadableDType<Object> tree,
+    final Ray3D ray,
+    final boolean entry)
+  {
+    final Map<Object, Double> results = new HashMap<>();
+    final OctTreeRaycastConsumerDType<Object> consumer =
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        results.put(item, Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      };
+    if (entry) {
+      tree.raycastEntry(ray, consumer);
+    } else {
+      tree.raycast(ray, consumer);
+    }
+    return results;
+  }
+
+  private static List<Double> raycastUpToDistances(
+    final OctTreeReadableDType<Object> tree,
+    final Ray3D ray,
+    final int limit)
+  {
+    final List<OctTreeRaycastResultD<Object>> results = new ArrayList<>();
+    tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, limit, results);
+    final List<Double> distances = new ArrayList<>();
+    for (final OctTreeRaycastResultD<Object> result : results) {
+      distances.add(Double.valueOf(result.distance()));
+    }
+    return distances;
+  }
+
+  private static List<Double> nearestDistances(
+    final OctTreeReadableDType<Object> tree,
+    final Vector3D point)
+  {
+    final List<Double> distances = new ArrayList<>();
+    tree.nearest(point, 8, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      distances.add(Double.valueOf(distance));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    return distances;
+  }
+
+  /**
+   * Compiling an empty tree yields an empty tree with the same bounds.
+   */
+
+  @Test
+  public final void testCompileEmpty()
+  {
+    final VolumeD volume = VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0);
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(volume);
+    final OctTreeDType<Object> tree = this.create(cb.build());
+
+    final OctTreeReadableDType<Object> compiled = tree.compile();
+    Assert.assertEquals(0L, compiled.size());
+    Assert.assertEquals(volume, compiled.bounds());
+    Assert.assertEquals(0L, compiled.count(volume));
+    Assert.assertFalse(compiled.contains(Integer.valueOf(0)));
+
+    final Set<Object> overlapped = new HashSet<>();
+    compiled.overlappedBy(volume, overlapped);
+    Assert.assertTrue(overlapped.isEmpty());
+
+    this.expected.expect(NoSuchElementException.class);
+    compiled.volumeFor(Integer.valueOf(0));
+  }
+
+  /**
+   * A query listener receives the statistics of each query performed on the
+   * tree and on its snapshots, and receives nothing once it is removed.
+   */
+
+  @Test
+  public final void testQueryListener()
+  {
+    final OctTreeConfigurationD.Builder cb =
+      OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeDType<Object> tree = this.create(cb.build());
+
+    final Random random = new Random(0x57a7L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final int z = random.nextInt(118);
+      final int size = 1 + random.nextInt(9);
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), VolumeD.of(
+        (double) x, (double) (x + size),
+        (double) y, (double) (y + size),
+        (double) z, (double) (z + size))));
+    }
+
+    final List<TreeQueryKind> kinds = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) -> {
+        kinds.add(query);
+        stats.add(new long[]{
+          nodes_visited, node_tests, object_tests, hits, max_depth});
+      }));
+
+    final VolumeD target = VolumeD.of(16.0, 80.0, 16.0, 80.0, 16.0, 80.0);
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(target, contained);
+    final Set<Object> overlapped = new HashSet<>();
+    tree.overlappedBy(target, overlapped);
+    final long count = tree.count(target);
+
+    final Ray3D ray =
+      Ray3D.of(Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0));
+    final Set<Object> hit = new HashSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      hit.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    final List<OctTreeRaycastResultD<Object>> up_to = new ArrayList<>();
+    tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 5, up_to);
+    final List<Object> nearest = new ArrayList<>();
+    tree.nearest(
+      Vector3D.of(64.0, 64.0, 64.0),
+      7,
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        nearest.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+    Assert.assertEquals(
+      Arrays.asList(
+        TreeQueryKind.QUERY_CONTAINED_BY,
+        TreeQueryKind.QUERY_OVERLAPPED_BY,
+        TreeQueryKind.QUERY_COUNT,
+        TreeQueryKind.QUERY_RAYCAST,
+        TreeQueryKind.QUERY_RAYCAST_UP_TO,
+        TreeQueryKind.QUERY_NEAREST),
+      kinds);
+
+    final long[] expected_hits = {
+      (long) contained.size(),
+      (long) overlapped.size(),
+      count,
+      (long) hit.size(),
+      Math.min(5L, (long) hit.size()),
+      (long) nearest.size(),
+    };
+
+    Assert.assertEquals(count, (long) contained.size());
+    Assert.assertEquals(7L, (long) nearest.size());
+
+    Assert.assertEquals(expected_hits[4], (long) up_to.size());
+
+    for (int index = 0; index < expected_hits.length; ++index) {
+      final long[] query = stats.get(index);
+      Assert.assertTrue(query[0] > 0L);
+      Assert.assertTrue(query[1] > 0L);
+      Assert.assertTrue(query[2] >= 0L);
+      Assert.assertEquals(expected_hits[index], query[3]);
+      Assert.assertTrue(query[4] >= 0L && query[4] < 64L);
+    }
+
+    /*
+     * The overlap query examines objects in octants below the root.
+     */
+
+    Assert.assertTrue(stats.get(1)[2] >= (long) overlapped.size());
+    Assert.assertTrue(stats.get(1)[4] > 0L);
+
+    final OctTreeReadableDType<Object> snapshot = tree.snapshot();
+    final Set<Object> snapshot_overlapped = new HashSet<>();
+    snapshot.overlappedBy(target, snapshot_overlapped);
+    Assert.assertEquals(overlapped, snapshot_overlapped);
+    Assert.assertEquals(7L, (long) kinds.size());
+    Assert.assertEquals(TreeQueryKind.QUERY_OVERLAPPED_BY, kinds.get(6));
+    Assert.assertEquals((long) overlapped.size(), stats.get(6)[3]);
+
+    tree.setQueryListener(Optional.empty());
+    tree.overlappedBy(target, new HashSet<>());
+    snapshot.containedBy(target, new HashSet<>());
+    Assert.assertEquals(7L, (long) kinds.size());
+  }
+
+  /**
+   * The depths reported to a query listener are measured from the root of
+   * the tree being queried, both for a tree that has expanded and for a
+   * snapshot taken before the expansion.
+   */
+
+  @Test
+  public final void testQueryListenerDepthAfterExpansion()
+  {
+    final OctTreeConfigurationD.Builder cb =
+      OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0));
+    cb.setExpandable(true);
+    final OctTreeDType<Object> tree = this.create(cb.build());
+
+    final VolumeD volume0 = VolumeD.of(1.0, 2.0, 1.0, 2.0, 1.0, 2.0);
+    Assert.assertTrue(tree.insert(Integer.valueOf(0), volume0));
+
+    final List<Long> depths = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) ->
+        depths.add(Long.valueOf(max_depth))));
+
+    tree.overlappedBy(volume0, new HashSet<>());
+    final long before = depths.get(0).longValue();
+    Assert.assertTrue(before > 0L);
+
+    final OctTreeReadableDType<Object> snapshot = tree.snapshot();
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(1), VolumeD.of(200.0, 210.0, 1.0, 2.0, 1.0, 2.0)));
+    Assert.assertEquals(
+      VolumeD.of(0.0, 256.0, 0.0, 256.0, 0.0, 256.0), tree.bounds());
+
+    snapshot.overlappedBy(volume0, new HashSet<>());
+    tree.overlappedBy(volume0, new HashSet<>());
+    snapshot.overlappedBy(volume0, new HashSet<>());
+
+    Assert.assertEquals(
+      Arrays.asList(
+        Long.valueOf(before),
+        Long.valueOf(before),
+        Long.valueOf(before + 1L),
+        Long.valueOf(before)),
+      depths);
+  }
+
+  /**
+   * Batch queries and parallel queries are reported to the query listener,
+   * as are the queries performed on a compiled copy of the tree.
+   */
+
+  @Test
+  public final void testQueryListenerBatchParallelCompiled()
+  {
+    final OctTreeConfigurationD.Builder cb =
+      OctTreeConfigurationD.builder();
+    cb.setVolume(VolumeD.of(0.0, 128.0, 0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    cb.setParallelQueryThreshold(7);
+    final OctTreeDType<Object> tree = this.create(cb.build());
+
+    final Random random = new Random(0xba7c4L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final int z = random.nextInt(118);
+      final int size = 1 + random.nextInt(9);
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), VolumeD.of(
+        (double) x, (double) (x + size),
+        (double) y, (double) (y + size),
+        (double) z, (double) (z + size))));
+    }
+
+    final List<TreeQueryKind> kinds = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) -> {
+        kinds.add(query);
+        stats.add(new long[]{
+          nodes_visited, node_tests, object_tests, hits, max_depth});
+      }));
+
+    final List<VolumeD> queries = Arrays.asList(
+      VolumeD.of(16.0, 80.0, 16.0, 80.0, 16.0, 80.0),
+      VolumeD.of(40.0, 120.0, 8.0, 64.0, 0.0, 100.0));
+    final long[] batch_hits = {0L};
+    tree.overlappedByAll(queries, (query, item, x0, x1, y0, y1, z0, z1) -> {
+      ++batch_hits[0];
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final List<Ray3D> rays = Arrays.asList(
+      Ray3D.of(Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0)),
+      Ray3D.of(Vector3D.of(0.0, 64.0, 64.0), Vector3D.of(1.0, 0.0, 0.0)));
+    final long[] ray_hits = {0L};
+    tree.raycastAll(rays, (ray, item, x0, x1, y0, y1, z0, z1, distance) -> {
+      ++ray_hits[0];
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final Set<Object> contained = new HashSet<>();
+    final Set<Object> overlapped = new HashSet<>();
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      tree.containedByParallel(queries.get(0), pool, contained);
+      tree.overlappedByParallel(queries.get(0), pool, overlapped);
+    } finally {
+      pool.shutdown();
+    }
+
+    final OctTreeReadableDType<Object> compiled = tree.compile();
+    final Set<Object> compiled_overlapped = new HashSet<>();
+    compiled.overlappedBy(queries.get(0), compiled_overlapped);
+    final long compiled_count = compiled.count(queries.get(0));
+
+    Assert.assertEquals(
+      Arrays.asList(
+        TreeQueryKind.QUERY_OVERLAPPED_BY_ALL,
+        TreeQueryKind.QUERY_RAYCAST_ALL,
+        TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL,
+        TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL,
+        TreeQueryKind.QUERY_OVERLAPPED_BY,
+        TreeQueryKind.QUERY_COUNT),
+      kinds);
+
+    final long[] expected_hits = {
+      batch_hits[0],
+      ray_hits[0],
+      (long) contained.size(),
+      (long) overlapped.size(),
+      (long) compiled_overlapped.size(),
+      compiled_count,
+    };
+
+    Assert.assertEquals(overlapped, compiled_overlapped);
+    Assert.assertEquals(compiled_count, (long) contained.size());
+    Assert.assertTrue(batch_hits[0] > 0L);
+
+    for (int index = 0; index < expected_hits.length; ++index) {
+      final long[] query = stats.get(index);
+      Assert.assertTrue(query[0] > 0L);
+      Assert.assertTrue(query[1] > 0L);
+      Assert.assertTrue(query[2] >= 0L);
+      Assert.assertEquals(expected_hits[index], query[3]);
+      Assert.assertTrue(query[4] >= 0L && query[4] < 64L);
+    }
+
+    /*
+     * The compiled tree records the depth of each octant.
+     */
+
+    Assert.assertTrue(stats.get(4)[4] > 0L);
+
+    /*
+     * The compiled tree keeps the listener that the tree had when it was
+     * compiled.
+     */
+
+    tree.setQueryListener(Optional.empty());
+    tree.overlappedBy(queries.get(0), new HashSet<>());
+    compiled.overlappedBy(queries.get(0), new HashSet<>());
+    Assert.assertEquals(7L, (long) kinds.size());
+  }
 }
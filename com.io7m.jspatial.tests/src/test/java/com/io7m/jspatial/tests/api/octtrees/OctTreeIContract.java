@@ -16,14 +16,17 @@
 
 package com.io7m.jspatial.tests.api.octtrees;
 
+import com.io7m.jaffirm.core.PreconditionViolationException;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jregions.core.unparameterized.volumes.VolumeI;
 import com.io7m.jregions.core.unparameterized.volumes.VolumesI;
 import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.api.TreeQueryKind;
 import com.io7m.jspatial.api.TreeVisitResult;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationI;
 import com.io7m.jspatial.api.octtrees.OctTreeIType;
 import com.io7m.jspatial.api.octtrees.OctTreeRaycastResultI;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableIType;
 import com.io7m.jspatial.tests.api.VolumeIContainedGenerator;
 import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
 import com.io7m.jtensors.core.unparameterized.vectors.Vectors3D;
@@ -34,14 +37,20 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -64,6 +73,15 @@ public abstract class OctTreeIContract
 
   protected abstract <T> OctTreeIType<T> create(OctTreeConfigurationI config);
 
+  protected abstract <T> OctTreeIType<T> createFrom(
+    OctTreeConfigurationI config,
+    Map<T, VolumeI> items);
+
+  protected abstract <T> OctTreeIType<T> createFromParallel(
+    OctTreeConfigurationI config,
+    Map<T, VolumeI> items,
+    ForkJoinPool pool);
+
   /**
    * Simple identities.
    */
@@ -2100,4 +2118,2260 @@ public abstract class OctTreeIContract
     Assert.assertTrue(tree.insert(item, item_volume));
     Assert.assertEquals(1, (long) OctTreeIContract.countOctants(tree));
   }
+
+  /**
+   * Leaves are only split when they are full, and their objects are
+   * redistributed to the new child octants.
+   */
+
+  @Test
+  public final void testInsertCapacitySplit()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(2);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final Integer item2 = Integer.valueOf(2);
+
+    Assert.assertTrue(tree.insert(item0, VolumeI.of(1, 2, 1, 2, 1, 2)));
+    Assert.assertTrue(
+      tree.insert(item1, VolumeI.of(60, 61, 60, 61, 60, 61)));
+    Assert.assertEquals(1L, (long) OctTreeIContract.countOctants(tree));
+
+    Assert.assertTrue(
+      tree.insert(item2, VolumeI.of(40, 60, 40, 60, 40, 60)));
+    Assert.assertEquals(9L, (long) OctTreeIContract.countOctants(tree));
+
+    final Map<Long, Set<Object>> by_depth = new HashMap<>();
+    tree.iterateOctants(by_depth, (context, octant, depth) -> {
+      context.computeIfAbsent(Long.valueOf((long) depth), k -> new HashSet<>())
+        .addAll(octant.objects().keySet());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    Assert.assertEquals(1L, (long) by_depth.get(Long.valueOf(0L)).size());
+    Assert.assertTrue(by_depth.get(Long.valueOf(0L)).contains(item2));
+    Assert.assertEquals(2L, (long) by_depth.get(Long.valueOf(1L)).size());
+    Assert.assertTrue(by_depth.get(Long.valueOf(1L)).contains(item0));
+    Assert.assertTrue(by_depth.get(Long.valueOf(1L)).contains(item1));
+
+    final Set<Object> items = new HashSet<>();
+    tree.containedBy(volume, items);
+    Assert.assertEquals(3L, (long) items.size());
+
+    Assert.assertTrue(tree.remove(item0));
+    Assert.assertTrue(tree.remove(item1));
+    Assert.assertTrue(tree.remove(item2));
+    Assert.assertTrue(tree.isEmpty());
+  }
+
+  /**
+   * Splitting leaves only when full results in fewer octants than
+   * eager splitting.
+   */
+
+  @Test
+  public final void testInsertCapacityFewerOctants()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 128, 0, 128, 0, 128);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c_eager = cb.build();
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationI c_capacity = cb.build();
+
+    final OctTreeIType<Object> tree_eager = this.create(c_eager);
+    final OctTreeIType<Object> tree_capacity = this.create(c_capacity);
+
+    for (int index = 0; index < 64; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final int x = (index % 4) * 32;
+      final int y = ((index / 4) % 4) * 32;
+      final int z = (index / 16) * 32;
+      final VolumeI item_volume =
+        VolumeI.of(x + 1, x + 2, y + 1, y + 2, z + 1, z + 2);
+      Assert.assertTrue(tree_eager.insert(item, item_volume));
+      Assert.assertTrue(tree_capacity.insert(item, item_volume));
+    }
+
+    Assert.assertTrue(
+      OctTreeIContract.countOctants(tree_capacity)
+        < OctTreeIContract.countOctants(tree_eager));
+
+    final Set<Object> items_eager = new HashSet<>();
+    final Set<Object> items_capacity = new HashSet<>();
+    final VolumeI query = VolumeI.of(0, 64, 0, 64, 0, 64);
+    tree_eager.containedBy(query, items_eager);
+    tree_capacity.containedBy(query, items_capacity);
+    Assert.assertEquals(8L, (long) items_capacity.size());
+    Assert.assertEquals(items_eager, items_capacity);
+
+    for (int index = 0; index < 64; ++index) {
+      Assert.assertTrue(tree_capacity.remove(Integer.valueOf(index)));
+    }
+    Assert.assertTrue(tree_capacity.isEmpty());
+  }
+
+  /**
+   * Octants at the maximum depth are not split.
+   */
+
+  @Test
+  public final void testInsertMaximumDepth()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    cb.setMaximumDepth(1);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+
+    final Integer item = Integer.valueOf(0);
+    final VolumeI item_volume = VolumeI.of(1, 2, 1, 2, 1, 2);
+    Assert.assertTrue(tree.insert(item, item_volume));
+    Assert.assertEquals(9L, (long) OctTreeIContract.countOctants(tree));
+  }
+
+  /**
+   * Query consumers receive each item exactly once, with the correct bounds.
+   */
+
+  @Test
+  public final void testContainedByConsumer()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+
+    final Map<Object, VolumeI> expected = new HashMap<>();
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeI item_volume = VolumeI.of(
+        5 * index, 5 * index + 10,
+        5 * index, 5 * index + 10,
+        5 * index, 5 * index + 10);
+      expected.put(item, item_volume);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final Map<Object, VolumeI> received = new HashMap<>();
+    tree.containedBy(volume, (item, x0, x1, y0, y1, z0, z1) -> {
+      Assert.assertNull(received.put(item, VolumeI.of(x0, x1, y0, y1, z0, z1)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+
+    received.clear();
+    tree.overlappedBy(volume, (item, x0, x1, y0, y1, z0, z1) -> {
+      Assert.assertNull(received.put(item, VolumeI.of(x0, x1, y0, y1, z0, z1)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+
+    final Set<Object> contained = new HashSet<>();
+    final Set<Object> contained_consumer = new HashSet<>();
+    final VolumeI query = VolumeI.of(0, 30, 0, 30, 0, 30);
+    tree.containedBy(query, contained);
+    tree.containedBy(query, (item, x0, x1, y0, y1, z0, z1) -> {
+      contained_consumer.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(5L, (long) contained.size());
+    Assert.assertEquals(contained, contained_consumer);
+  }
+
+  /**
+   * Query consumers can terminate queries early.
+   */
+
+  @Test
+  public final void testQueryConsumerTerminate()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeI item_volume = VolumeI.of(
+        5 * index, 5 * index + 10,
+        5 * index, 5 * index + 10,
+        5 * index, 5 * index + 10);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.containedBy(volume, (item, x0, x1, y0, y1, z0, z1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.containedBy(
+      VolumeI.of(1, 99, 1, 99, 1, 99),
+      (item, x0, x1, y0, y1, z0, z1) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_TERMINATE;
+      });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.overlappedBy(volume, (item, x0, x1, y0, y1, z0, z1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    final Ray3D ray =
+      Ray3D.of(Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0));
+    tree.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * Raycast consumers receive the same results as the sorted raycast.
+   */
+
+  @Test
+  public final void testRaycastConsumer()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeI item_volume = VolumeI.of(
+        5 * index, 5 * index + 10,
+        5 * index, 5 * index + 10,
+        5 * index, 5 * index + 10);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final Ray3D ray =
+      Ray3D.of(Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0));
+    final SortedSet<OctTreeRaycastResultI<Object>> sorted = new TreeSet<>();
+    tree.raycast(ray, sorted);
+    Assert.assertEquals(10L, (long) sorted.size());
+
+    final SortedSet<OctTreeRaycastResultI<Object>> received = new TreeSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      received.add(OctTreeRaycastResultI.of(
+        distance, VolumeI.of(x0, x1, y0, y1, z0, z1), item));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(sorted, received);
+  }
+
+  /**
+   * Nearest-first raycasts return the nearest items in order.
+   */
+
+  @Test
+  public final void testRaycastUpTo()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeI item_volume = VolumeI.of(
+        5 * index, 5 * index + 10,
+        5 * index, 5 * index + 10,
+        5 * index, 5 * index + 10);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final Ray3D ray = Ray3D.of(
+      Vector3D.of(-10.0, -10.0, -10.0),
+      Vectors3D.normalize(Vector3D.of(1.0, 1.0, 1.0)));
+
+    {
+      final Optional<OctTreeRaycastResultI<Object>> first_opt =
+        tree.raycastFirst(ray);
+      Assert.assertTrue(first_opt.isPresent());
+      final OctTreeRaycastResultI<Object> first = first_opt.get();
+      Assert.assertEquals(Integer.valueOf(0), first.item());
+      Assert.assertEquals(10.0 * Math.sqrt(3.0), first.distance(), 0.000001);
+    }
+
+    {
+      final List<OctTreeRaycastResultI<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 2, items);
+      Assert.assertEquals(2L, (long) items.size());
+      final Iterator<OctTreeRaycastResultI<Object>> iter = items.iterator();
+      Assert.assertEquals(Integer.valueOf(0), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(1), iter.next().item());
+    }
+
+    {
+      final List<OctTreeRaycastResultI<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, 35.0, 10, items);
+      Assert.assertEquals(3L, (long) items.size());
+      final Iterator<OctTreeRaycastResultI<Object>> iter = items.iterator();
+      Assert.assertEquals(Integer.valueOf(0), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(1), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(2), iter.next().item());
+    }
+
+    {
+      final List<OctTreeRaycastResultI<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 100, items);
+      Assert.assertEquals(10L, (long) items.size());
+      int expected = 0;
+      for (final OctTreeRaycastResultI<Object> result : items) {
+        Assert.assertEquals(Integer.valueOf(expected), result.item());
+        ++expected;
+      }
+    }
+
+    {
+      final List<OctTreeRaycastResultI<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 0, items);
+      Assert.assertTrue(items.isEmpty());
+    }
+  }
+
+  /**
+   * Nearest-first raycasts keep every object at the same distance, such as
+   * objects whose bounds all contain the origin of the ray.
+   */
+
+  @Test
+  public final void testRaycastUpToTies()
+  {
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    final OctTreeIType<Object> tree = this.create(cb.build());
+
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(0),
+      VolumeI.of(5, 15, 5, 15, 5, 15)));
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(1),
+      VolumeI.of(0, 20, 0, 20, 0, 20)));
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(2),
+      VolumeI.of(8, 12, 8, 12, 8, 12)));
+
+    final Ray3D ray = Ray3D.of(
+      Vector3D.of(10.0, 10.0, 10.0),
+      Vector3D.of(1.0, 0.0, 0.0));
+
+    {
+      final List<OctTreeRaycastResultI<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 10, items);
+      Assert.assertEquals(3L, (long) items.size());
+      final Set<Object> received = new HashSet<>();
+      for (final OctTreeRaycastResultI<Object> result : items) {
+        Assert.assertEquals(0.0, result.distance(), 0.0);
+        received.add(result.item());
+      }
+      Assert.assertEquals(3L, (long) received.size());
+    }
+
+    {
+      final List<OctTreeRaycastResultI<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 2, items);
+      Assert.assertEquals(2L, (long) items.size());
+    }
+
+    final Optional<OctTreeRaycastResultI<Object>> first =
+      tree.raycastFirst(ray);
+    Assert.assertTrue(first.isPresent());
+    Assert.assertEquals(0.0, first.get().distance(), 0.0);
+  }
+
+  /**
+   * Nearest-first raycasts work in the negative direction.
+   */
+
+  @Test
+  public final void testRaycastFirstNegative()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeI item_volume = VolumeI.of(
+        5 * index, 5 * index + 10,
+        5 * index, 5 * index + 10,
+        5 * index, 5 * index + 10);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final Ray3D ray = Ray3D.of(
+      Vector3D.of(110.0, 110.0, 110.0),
+      Vectors3D.normalize(Vector3D.of(-1.0, -1.0, -1.0)));
+
+    final Optional<OctTreeRaycastResultI<Object>> first_opt =
+      tree.raycastFirst(ray);
+    Assert.assertTrue(first_opt.isPresent());
+    final OctTreeRaycastResultI<Object> first = first_opt.get();
+    Assert.assertEquals(Integer.valueOf(9), first.item());
+    Assert.assertEquals(55.0 * Math.sqrt(3.0), first.distance(), 0.000001);
+
+    final Ray3D miss = Ray3D.of(
+      Vector3D.of(110.0, 110.0, 110.0),
+      Vectors3D.normalize(Vector3D.of(1.0, 1.0, 1.0)));
+    Assert.assertFalse(tree.raycastFirst(miss).isPresent());
+  }
+
+  /**
+   * Nearest neighbour queries return the nearest items, nearest first.
+   */
+
+  @Test
+  public final void testNearest()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(2);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeI item_volume =
+        VolumeI.of(
+          5 * index, 5 * index + 10,
+          5 * index, 5 * index + 10,
+          5 * index, 5 * index + 10);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    {
+      final List<Object> items = new ArrayList<>();
+      final List<Double> distances = new ArrayList<>();
+      tree.nearest(
+        Vector3D.of(-10.0, -10.0, -10.0),
+        3,
+        (item, x0, x1, y0, y1, z0, z1, distance) -> {
+          items.add(item);
+          distances.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(3L, (long) items.size());
+      Assert.assertEquals(Integer.valueOf(0), items.get(0));
+      Assert.assertEquals(Integer.valueOf(1), items.get(1));
+      Assert.assertEquals(Integer.valueOf(2), items.get(2));
+      Assert.assertEquals(
+        10.0 * Math.sqrt(3.0), distances.get(0).doubleValue(), 0.000001);
+      Assert.assertEquals(
+        15.0 * Math.sqrt(3.0), distances.get(1).doubleValue(), 0.000001);
+    }
+
+    {
+      final List<Object> items = new ArrayList<>();
+      final List<Double> distances = new ArrayList<>();
+      tree.nearest(
+        Vector3D.of(50.0, 50.0, 50.0),
+        3,
+        (item, x0, x1, y0, y1, z0, z1, distance) -> {
+          items.add(item);
+          distances.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(3L, (long) items.size());
+      Assert.assertTrue(items.contains(Integer.valueOf(8)));
+      Assert.assertTrue(items.contains(Integer.valueOf(9)));
+      Assert.assertEquals(Integer.valueOf(7), items.get(2));
+      Assert.assertEquals(0.0, distances.get(0).doubleValue(), 0.0);
+      Assert.assertEquals(0.0, distances.get(1).doubleValue(), 0.0);
+      Assert.assertEquals(
+        5.0 * Math.sqrt(3.0), distances.get(2).doubleValue(), 0.000001);
+    }
+  }
+
+  /**
+   * Nearest neighbour queries agree with an exhaustive search.
+   */
+
+  @Test
+  public final void testNearestExhaustive()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+    final Random random = new Random(0x5eedL);
+
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final VolumeI item_volume =
+        VolumeI.of(
+          x, (x + size),
+          y, (y + size),
+          z, (z + size));
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), item_volume));
+    }
+
+    for (int query = 0; query < 20; ++query) {
+      final double px = random.nextDouble() * 120.0 - 10.0;
+      final double py = random.nextDouble() * 120.0 - 10.0;
+      final double pz = random.nextDouble() * 120.0 - 10.0;
+
+      final List<Double> expected = new ArrayList<>();
+      tree.map((item, item_volume) -> {
+        final double dx = Math.max(
+          0.0, Math.max((double) item_volume.minimumX() - px, px - (double) item_volume.maximumX()));
+        final double dy = Math.max(
+          0.0, Math.max((double) item_volume.minimumY() - py, py - (double) item_volume.maximumY()));
+        final double dz = Math.max(
+          0.0, Math.max((double) item_volume.minimumZ() - pz, pz - (double) item_volume.maximumZ()));
+        expected.add(Double.valueOf(Math.sqrt(dx * dx + dy * dy + dz * dz)));
+        return item;
+      });
+      Collections.sort(expected);
+
+      final List<Double> received = new ArrayList<>();
+      tree.nearest(
+        Vector3D.of(px, py, pz),
+        10,
+        (item, x0, x1, y0, y1, z0, z1, distance) -> {
+          received.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(expected.subList(0, 10), received);
+    }
+  }
+
+  /**
+   * Nearest neighbour queries can be terminated early, and return nothing for
+   * non-positive limits.
+   */
+
+  @Test
+  public final void testNearestTerminate()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final VolumeI item_volume =
+        VolumeI.of(
+          5 * index, 5 * index + 10,
+          5 * index, 5 * index + 10,
+          5 * index, 5 * index + 10);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.nearest(
+      Vector3D.of(0.0, 0.0, 0.0),
+      5,
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_TERMINATE;
+      });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.nearest(
+      Vector3D.of(0.0, 0.0, 0.0),
+      0,
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(0L, (long) count.get());
+  }
+
+  /**
+   * Bulk-loading a tree produces the same tree as inserting each item in
+   * turn.
+   */
+
+  @Test
+  public final void testCreateFromEquivalent()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final Random random = new Random(0x5eedL);
+    final Map<Object, VolumeI> items = new HashMap<>();
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int z = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      items.put(
+        Integer.valueOf(index),
+        VolumeI.of(
+          x, (x + size),
+          y, (y + size),
+          z, (z + size)));
+    }
+
+    for (final int capacity : new int[]{0, 1, 8}) {
+      final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+      cb.setVolume(volume);
+      cb.setMaximumObjectsPerLeaf(capacity);
+      final OctTreeConfigurationI c = cb.build();
+
+      final OctTreeIType<Object> expected = this.create(c);
+      for (final Map.Entry<Object, VolumeI> entry : items.entrySet()) {
+        expected.insert(entry.getKey(), entry.getValue());
+      }
+
+      final OctTreeIType<Object> tree = this.createFrom(c, items);
+      Assert.assertEquals(expected.size(), tree.size());
+      Assert.assertEquals(expected, tree);
+      Assert.assertEquals(
+        (long) countOctants(expected), (long) countOctants(tree));
+
+      for (int query = 0; query < 20; ++query) {
+        final int x = random.nextInt(90);
+        final int y = random.nextInt(90);
+        final int z = random.nextInt(90);
+        final VolumeI query_volume =
+          VolumeI.of(
+            x, (x + 20),
+            y, (y + 20),
+            z, (z + 20));
+
+        final Set<Object> expected_items = new HashSet<>();
+        final Set<Object> received_items = new HashSet<>();
+        expected.overlappedBy(query_volume, expected_items);
+        tree.overlappedBy(query_volume, received_items);
+        Assert.assertEquals(expected_items, received_items);
+      }
+    }
+  }
+
+  /**
+   * Bulk-loading a tree skips items that do not fit within the tree.
+   */
+
+  @Test
+  public final void testCreateFromOutside()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c = cb.build();
+
+    final Integer inside = Integer.valueOf(0);
+    final Integer outside = Integer.valueOf(1);
+    final Map<Object, VolumeI> items = new HashMap<>();
+    items.put(inside, VolumeI.of(10, 20, 10, 20, 10, 20));
+    items.put(outside, VolumeI.of(90, 110, 10, 20, 10, 20));
+
+    final OctTreeIType<Object> tree = this.createFrom(c, items);
+    Assert.assertEquals(1L, tree.size());
+    Assert.assertTrue(tree.contains(inside));
+    Assert.assertFalse(tree.contains(outside));
+    Assert.assertTrue(tree.remove(inside));
+    Assert.assertEquals(0L, tree.size());
+  }
+
+  /**
+   * Removing objects leaves the bounds of the remaining objects intact.
+   */
+
+  @Test
+  public final void testRemoveRetainsBounds()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationI c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, VolumeI> items = new HashMap<>();
+    final OctTreeIType<Object> tree = this.create(c);
+    for (int index = 0; index < 300; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final VolumeI item_volume =
+        VolumeI.of(
+          x, (x + size),
+          y, (y + size),
+          z, (z + size));
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, item_volume);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    for (int index = 0; index < 300; index += 2) {
+      final Object item = objects.get(index);
+      Assert.assertTrue(tree.remove(item));
+      items.remove(item);
+    }
+
+    Assert.assertEquals((long) items.size(), tree.size());
+    for (final Map.Entry<Object, VolumeI> entry : items.entrySet()) {
+      Assert.assertEquals(entry.getValue(), tree.volumeFor(entry.getKey()));
+    }
+
+    final Map<Object, VolumeI> received = new HashMap<>();
+    tree.iterateOctants(received, (context, octant, depth) -> {
+      context.putAll(octant.objects());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(items, received);
+
+    final Set<Object> overlapped = new HashSet<>();
+    tree.overlappedBy(volume, overlapped);
+    Assert.assertEquals(items.keySet(), overlapped);
+  }
+
+  /**
+   * Moving objects produces the same tree contents as removing and
+   * re-inserting them.
+   */
+
+  @Test
+  public final void testMove()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(2);
+    cb.setTrimOnRemove(true);
+    final OctTreeConfigurationI c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, VolumeI> items = new HashMap<>();
+    final OctTreeIType<Object> tree = this.create(c);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final VolumeI item_volume =
+        VolumeI.of(
+          x, (x + size),
+          y, (y + size),
+          z, (z + size));
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, item_volume);
+      Assert.assertTrue(tree.insert(item, item_volume));
+    }
+
+    for (int round = 0; round < 10; ++round) {
+      for (final Object item : objects) {
+        final VolumeI current = items.get(item);
+        final int x = Math.max(0, Math.min(90, (int) current.minimumX()
+          + random.nextInt(9) - 4));
+        final int y = Math.max(0, Math.min(90, (int) current.minimumY()
+          + random.nextInt(9) - 4));
+        final int z = Math.max(0, Math.min(90, (int) current.minimumZ()
+          + random.nextInt(9) - 4));
+        final int size = 1 + random.nextInt(10);
+        final VolumeI item_volume =
+          VolumeI.of(
+          x, (x + size),
+          y, (y + size),
+          z, (z + size));
+        items.put(item, item_volume);
+        Assert.assertTrue(tree.move(item, item_volume));
+      }
+    }
+
+    final OctTreeIType<Object> expected = this.create(c);
+    for (final Map.Entry<Object, VolumeI> entry : items.entrySet()) {
+      expected.insert(entry.getKey(), entry.getValue());
+    }
+
+    Assert.assertEquals((long) items.size(), tree.size());
+    Assert.assertEquals(expected, tree);
+
+    final Map<Object, VolumeI> received = new HashMap<>();
+    tree.iterateOctants(received, (context, octant, depth) -> {
+      context.putAll(octant.objects());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(items, received);
+
+    for (int query = 0; query < 20; ++query) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final VolumeI query_volume =
+        VolumeI.of(
+          x, (x + 20),
+          y, (y + 20),
+          z, (z + 20));
+
+      final Set<Object> expected_items = new HashSet<>();
+      final Set<Object> received_items = new HashSet<>();
+      expected.overlappedBy(query_volume, expected_items);
+      tree.overlappedBy(query_volume, received_items);
+      Assert.assertEquals(expected_items, received_items);
+    }
+  }
+
+  /**
+   * Moving an object that is not in the tree fails.
+   */
+
+  @Test
+  public final void testMoveNotPresent()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> tree = this.create(c);
+    Assert.assertFalse(tree.move(Integer.valueOf(0), volume));
+    Assert.assertEquals(0L, tree.size());
+  }
+
+  /**
+   * Moving an object to bounds outside of the tree fails and leaves the
+   * object in place.
+   */
+
+  @Test
+  public final void testMoveOutside()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c = cb.build();
+
+    final Integer item = Integer.valueOf(0);
+    final VolumeI item_volume = VolumeI.of(10, 20, 10, 20, 10, 20);
+    final OctTreeIType<Object> tree = this.create(c);
+    Assert.assertTrue(tree.insert(item, item_volume));
+    Assert.assertFalse(tree.move(item, VolumeI.of(90, 110, 10, 20, 10, 20)));
+    Assert.assertEquals(1L, tree.size());
+    Assert.assertEquals(item_volume, tree.volumeFor(item));
+  }
+
+  /**
+   * Snapshots are unaffected by later modifications to the tree.
+   */
+
+  @Test
+  public final void testSnapshotIsolated()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+    final VolumeI query =
+      VolumeI.of(20, 60, 20, 60, 20, 60);
+
+    for (final boolean trim : new boolean[]{false, true}) {
+      final OctTreeConfigurationI.Builder cb =
+        OctTreeConfigurationI.builder();
+      cb.setVolume(volume);
+      cb.setMaximumObjectsPerLeaf(2);
+      cb.setTrimOnRemove(trim);
+      final OctTreeConfigurationI c = cb.build();
+
+      final Random random = new Random(0x5eedL);
+      final List<Object> objects = new ArrayList<>();
+      final Map<Object, VolumeI> items = new HashMap<>();
+      final OctTreeIType<Object> tree = this.create(c);
+      final List<OctTreeReadableIType<Object>> snapshots = new ArrayList<>();
+      final List<Map<Object, VolumeI>> expected = new ArrayList<>();
+
+      int counter = 0;
+      for (int round = 0; round < 10; ++round) {
+        snapshots.add(tree.snapshot());
+        expected.add(new HashMap<>(items));
+
+        for (int step = 0; step < 50; ++step) {
+          final int x = random.nextInt(90);
+          final int y = random.nextInt(90);
+          final int z = random.nextInt(90);
+          final int size = 1 + random.nextInt(10);
+          final VolumeI item_volume =
+            VolumeI.of(
+              x, (x + size),
+              y, (y + size),
+              z, (z + size));
+
+          final int action = random.nextInt(4);
+          if (action == 0 || objects.isEmpty()) {
+            final Object item = Integer.valueOf(counter);
+            counter = counter + 1;
+            objects.add(item);
+            items.put(item, item_volume);
+            Assert.assertTrue(tree.insert(item, item_volume));
+          } else if (action == 1) {
+            final Object item = objects.remove(random.nextInt(objects.size()));
+            items.remove(item);
+            Assert.assertTrue(tree.remove(item));
+          } else {
+            final Object item = objects.get(random.nextInt(objects.size()));
+            items.put(item, item_volume);
+            Assert.assertTrue(tree.move(item, item_volume));
+          }
+        }
+
+        if (round % 3 == 2) {
+          tree.trim();
+        }
+      }
+
+      snapshots.add(tree.snapshot());
+      expected.add(new HashMap<>(items));
+      snapshots.add(tree);
+      expected.add(items);
+
+      for (int index = 0; index < snapshots.size(); ++index) {
+        final OctTreeReadableIType<Object> snapshot = snapshots.get(index);
+        final Map<Object, VolumeI> snapshot_items = expected.get(index);
+
+        Assert.assertEquals((long) snapshot_items.size(), snapshot.size());
+        for (final Map.Entry<Object, VolumeI> entry : snapshot_items.entrySet()) {
+          Assert.assertTrue(snapshot.contains(entry.getKey()));
+          Assert.assertEquals(
+            entry.getValue(), snapshot.volumeFor(entry.getKey()));
+        }
+
+        final Map<Object, VolumeI> received = new HashMap<>();
+        snapshot.iterateOctants(received, (context, octant, depth) -> {
+          context.putAll(octant.objects());
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+        Assert.assertEquals(snapshot_items, received);
+
+        final Set<Object> overlapped_expected = new HashSet<>();
+        for (final Map.Entry<Object, VolumeI> entry : snapshot_items.entrySet()) {
+          if (VolumesI.overlaps(query, entry.getValue())) {
+            overlapped_expected.add(entry.getKey());
+          }
+        }
+
+        final Set<Object> overlapped = new HashSet<>();
+        snapshot.overlappedBy(query, overlapped);
+        Assert.assertEquals(overlapped_expected, overlapped);
+      }
+    }
+  }
+
+  /**
+   * A snapshot does not contain objects inserted after it was taken.
+   */
+
+  @Test
+  public final void testSnapshotContains()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeConfigurationI c = cb.build();
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final OctTreeIType<Object> tree = this.create(c);
+    Assert.assertTrue(tree.insert(item0, VolumeI.of(10, 20, 10, 20, 10, 20)));
+
+    final OctTreeReadableIType<Object> snapshot = tree.snapshot();
+    Assert.assertTrue(tree.insert(item1, VolumeI.of(30, 40, 30, 40, 30, 40)));
+    tree.clear();
+
+    Assert.assertEquals(volume, snapshot.bounds());
+    Assert.assertEquals(1L, snapshot.size());
+    Assert.assertTrue(snapshot.contains(item0));
+    Assert.assertFalse(snapshot.contains(item1));
+    Assert.assertEquals(0L, tree.size());
+
+    this.expected.expect(NoSuchElementException.class);
+    snapshot.volumeFor(item1);
+  }
+
+  /**
+   * Parallel queries return the same results as sequential queries, both
+   * on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testParallelQueriesEquivalent()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final int capacity : new int[]{0, 4, 64}) {
+        final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+        cb.setVolume(volume);
+        cb.setMaximumObjectsPerLeaf(capacity);
+        cb.setParallelQueryThreshold(7);
+        final OctTreeConfigurationI c = cb.build();
+
+        final Random random = new Random(0x5eedL);
+        final OctTreeIType<Object> tree = this.create(c);
+        for (int index = 0; index < 1000; ++index) {
+          final int x = random.nextInt(95);
+          final int y = random.nextInt(95);
+          final int z = random.nextInt(95);
+          final int size = random.nextInt(6);
+          tree.insert(
+            Integer.valueOf(index),
+            VolumeI.of(
+              x, (x + size),
+              y, (y + size),
+              z, (z + size)));
+        }
+
+        final OctTreeReadableIType<Object> snapshot = tree.snapshot();
+        for (int query = 0; query < 20; ++query) {
+          final int x = random.nextInt(80);
+          final int y = random.nextInt(80);
+          final int z = random.nextInt(80);
+          final int size = random.nextInt(60);
+          final VolumeI query_volume =
+            VolumeI.of(
+              x, (x + size),
+              y, (y + size),
+              z, (z + size));
+
+          for (final OctTreeReadableIType<Object> target
+            : new OctTreeReadableIType[]{tree, snapshot}) {
+            final Set<Object> contained = new HashSet<>();
+            final Set<Object> contained_parallel = new HashSet<>();
+            target.containedBy(query_volume, contained);
+            target.containedByParallel(query_volume, pool, contained_parallel);
+            Assert.assertEquals(contained, contained_parallel);
+
+            final Set<Object> overlapped = new HashSet<>();
+            final Set<Object> overlapped_parallel = new HashSet<>();
+            target.overlappedBy(query_volume, overlapped);
+            target.overlappedByParallel(query_volume, pool, overlapped_parallel);
+            Assert.assertEquals(overlapped, overlapped_parallel);
+          }
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Bulk-loading a tree in parallel produces the same tree as bulk-loading
+   * it on a single thread.
+   */
+
+  @Test
+  public final void testCreateFromParallelEquivalent()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, VolumeI> items = new HashMap<>();
+    for (int index = 0; index < 2000; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int z = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, VolumeI.of(
+        x, (x + size),
+        y, (y + size),
+        z, (z + size)));
+    }
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final int capacity : new int[]{0, 1, 8}) {
+        final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+        cb.setVolume(volume);
+        cb.setMaximumObjectsPerLeaf(capacity);
+        cb.setParallelBuildThreshold(16);
+        final OctTreeConfigurationI c = cb.build();
+
+        final OctTreeIType<Object> expected = this.createFrom(c, items);
+        final OctTreeIType<Object> tree =
+          this.createFromParallel(c, items, pool);
+        Assert.assertEquals(expected.size(), tree.size());
+        Assert.assertEquals(expected, tree);
+        Assert.assertEquals(
+          (long) countOctants(expected), (long) countOctants(tree));
+
+        for (final Object item : objects) {
+          Assert.assertEquals(expected.contains(item), tree.contains(item));
+        }
+
+        final Set<Object> expected_items = new HashSet<>();
+        final Set<Object> received_items = new HashSet<>();
+        expected.overlappedBy(volume, expected_items);
+        tree.overlappedBy(volume, received_items);
+        Assert.assertEquals(expected_items, received_items);
+
+        for (final Object item : expected_items) {
+          Assert.assertTrue(tree.remove(item));
+        }
+        Assert.assertEquals(0L, tree.size());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * A batch of queries returns the same results as each query executed
+   * separately, both on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testOverlappedByAllEquivalent()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationI c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final OctTreeIType<Object> tree = this.create(c);
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(95);
+      final int y = random.nextInt(95);
+      final int z = random.nextInt(95);
+      final int size = random.nextInt(6);
+      tree.insert(
+        Integer.valueOf(index),
+        VolumeI.of(
+          x, (x + size),
+          y, (y + size),
+          z, (z + size)));
+    }
+
+    final List<VolumeI> queries = new ArrayList<>();
+    for (int query = 0; query < 40; ++query) {
+      final int x = random.nextInt(120) - 10;
+      final int y = random.nextInt(120) - 10;
+      final int z = random.nextInt(120) - 10;
+      final int size = random.nextInt(30);
+      queries.add(VolumeI.of(
+        x, (x + size),
+        y, (y + size),
+        z, (z + size)));
+    }
+
+    final OctTreeReadableIType<Object> snapshot = tree.snapshot();
+    for (final OctTreeReadableIType<Object> target
+      : new OctTreeReadableIType[]{tree, snapshot}) {
+      final List<Set<Object>> received = new ArrayList<>();
+      for (int query = 0; query < queries.size(); ++query) {
+        received.add(new HashSet<>());
+      }
+
+      target.overlappedByAll(queries, (query, item, x0, x1, y0, y1, z0, z1) -> {
+        Assert.assertTrue(received.get(query).add(item));
+        Assert.assertEquals(target.volumeFor(item), VolumeI.of(x0, x1, y0, y1, z0, z1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+      for (int query = 0; query < queries.size(); ++query) {
+        final Set<Object> expected = new HashSet<>();
+        target.overlappedBy(queries.get(query), expected);
+        Assert.assertEquals(expected, received.get(query));
+      }
+    }
+  }
+
+  /**
+   * A batch of queries stops when the consumer asks it to.
+   */
+
+  @Test
+  public final void testOverlappedByAllTerminate()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeIType<Object> tree = this.create(cb.build());
+    for (int index = 0; index < 10; ++index) {
+      tree.insert(Integer.valueOf(index), VolumeI.of(10, 20, 10, 20, 10, 20));
+    }
+
+    final List<VolumeI> queries = new ArrayList<>();
+    queries.add(volume);
+    queries.add(volume);
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.overlappedByAll(queries, (query, item, x0, x1, y0, y1, z0, z1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * A packet of rays returns the same results as each ray cast separately,
+   * both on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testRaycastAllEquivalent()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationI c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final OctTreeIType<Object> tree = this.create(c);
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(95);
+      final int y = random.nextInt(95);
+      final int z = random.nextInt(95);
+      final int size = random.nextInt(6);
+      tree.insert(
+        Integer.valueOf(index),
+        VolumeI.of(
+          x, (x + size),
+          y, (y + size),
+          z, (z + size)));
+    }
+
+    final List<Ray3D> rays = new ArrayList<>();
+    for (int index = 0; index < 40; ++index) {
+      rays.add(Ray3D.of(
+        Vector3D.of(
+          (double) (random.nextInt(140) - 20),
+          (double) (random.nextInt(140) - 20),
+          (double) (random.nextInt(140) - 20)),
+        Vectors3D.normalize(Vector3D.of(
+          random.nextGaussian(),
+          random.nextGaussian(),
+          random.nextGaussian()))));
+    }
+
+    final OctTreeReadableIType<Object> snapshot = tree.snapshot();
+    for (final OctTreeReadableIType<Object> target
+      : new OctTreeReadableIType[]{tree, snapshot}) {
+      final List<Map<Object, Double>> received = new ArrayList<>();
+      for (int index = 0; index < rays.size(); ++index) {
+        received.add(new HashMap<>());
+      }
+
+      target.raycastAll(rays, (ray, item, x0, x1, y0, y1, z0, z1, distance) -> {
+        Assert.assertNull(received.get(ray).put(item, Double.valueOf(distance)));
+        Assert.assertEquals(target.volumeFor(item), VolumeI.of(x0, x1, y0, y1, z0, z1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+      for (int index = 0; index < rays.size(); ++index) {
+        final Map<Object, Double> expected = new HashMap<>();
+        target.raycast(rays.get(index), (item, x0, x1, y0, y1, z0, z1, distance) -> {
+          expected.put(item, Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+        Assert.assertEquals(expected, received.get(index));
+      }
+    }
+  }
+
+  /**
+   * A packet of rays stops when the consumer asks it to.
+   */
+
+  @Test
+  public final void testRaycastAllTerminate()
+  {
+    final VolumeI volume =
+      VolumeI.of(0, 100, 0, 100, 0, 100);
+
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(volume);
+    final OctTreeIType<Object> tree = this.create(cb.build());
+    for (int index = 0; index < 10; ++index) {
+      tree.insert(Integer.valueOf(index), VolumeI.of(10, 20, 10, 20, 10, 20));
+    }
+
+    final Ray3D ray = Ray3D.of(
+      Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0));
+    final List<Ray3D> rays = new ArrayList<>();
+    rays.add(ray);
+    rays.add(ray);
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.raycastAll(rays, (index, item, x0, x1, y0, y1, z0, z1, distance) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * Inserting, moving and querying with coordinates is equivalent to doing
+   * so with volumes.
+   */
+
+  @Test
+  public final void testCoordinatesEquivalent()
+  {
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationI c = cb.build();
+
+    final OctTreeIType<Object> expected = this.create(c);
+    final OctTreeIType<Object> tree = this.create(c);
+
+    final Random random = new Random(0x5eedL);
+    for (int index = 0; index < 300; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int z = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      final Integer item = Integer.valueOf(index);
+      Assert.assertEquals(
+        Boolean.valueOf(expected.insert(
+          item, VolumeI.of(
+            x, (x + size),
+            y, (y + size),
+            z, (z + size)))),
+        Boolean.valueOf(tree.insert(
+          item,
+          x, (x + size),
+          y, (y + size),
+          z, (z + size))));
+    }
+    Assert.assertEquals(expected, tree);
+
+    for (int index = 0; index < 300; index += 3) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int z = random.nextInt(110);
+      final Integer item = Integer.valueOf(index);
+      Assert.assertEquals(
+        Boolean.valueOf(expected.move(
+          item,
+          VolumeI.of(
+            x, (x + 5),
+            y, (y + 5),
+            z, (z + 5)))),
+        Boolean.valueOf(tree.move(
+          item,
+          x, (x + 5),
+          y, (y + 5),
+          z, (z + 5))));
+    }
+    Assert.assertEquals(expected, tree);
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int z = random.nextInt(90);
+      final VolumeI volume =
+        VolumeI.of(
+          x, (x + 20),
+          y, (y + 20),
+          z, (z + 20));
+
+      final Set<Object> expected_over = new HashSet<>();
+      final Set<Object> received_over = new HashSet<>();
+      expected.overlappedBy(volume, expected_over);
+      tree.overlappedBy(
+        x, (x + 20),
+        y, (y + 20),
+        z, (z + 20),
+        (i, x0, x1, y0, y1, z0, z1) -> {
+          Assert.assertEquals(
+            tree.volumeFor(i), VolumeI.of(x0, x1, y0, y1, z0, z1));
+          received_over.add(i);
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+      Assert.assertEquals(expected_over, received_over);
+
+      final Set<Object> expected_in = new HashSet<>();
+      final Set<Object> received_in = new HashSet<>();
+      expected.containedBy(volume, expected_in);
+      tree.containedBy(
+        x, (x + 20),
+        y, (y + 20),
+        z, (z + 20),
+        (i, x0, x1, y0, y1, z0, z1) -> {
+          received_in.add(i);
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+      Assert.assertEquals(expected_in, received_in);
+    }
+  }
+
+  /**
+   * Coordinates that do not describe a valid volume are rejected.
+   */
+
+  @Test
+  public final void testCoordinatesInvalid()
+  {
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    final OctTreeConfigurationI c = cb.build();
+    final OctTreeIType<Object> tree = this.create(c);
+
+    this.expected.expect(PreconditionViolationException.class);
+    tree.insert(Integer.valueOf(0), 10, 20, 10, 20, 20, 10);
+  }
+
+  /**
+   * Objects that straddle the boundaries between octants remain in the
+   * root of an ordinary tree, but descend into the children of a loose
+   * tree.
+   */
+
+  @Test
+  public final void testLooseStraddling()
+  {
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 128, 0, 128, 0, 128));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationI tight_config = cb.build();
+    final OctTreeConfigurationI loose_config =
+      tight_config.withLooseness(2.0);
+
+    final OctTreeIType<Object> tight = this.create(tight_config);
+    final OctTreeIType<Object> loose = this.create(loose_config);
+    for (int index = 0; index < 100; ++index) {
+      final VolumeI volume = VolumeI.of(62, 66, index, (index + 4), 10, 14);
+      Assert.assertTrue(tight.insert(Integer.valueOf(index), volume));
+      Assert.assertTrue(loose.insert(Integer.valueOf(index), volume));
+    }
+
+    final AtomicInteger tight_root = new AtomicInteger(0);
+    tight.iterateOctants(tight_root, (context, octant, depth) -> {
+      if (depth == 0L) {
+        context.set(octant.objects().size());
+      }
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(100L, (long) tight_root.get());
+
+    final AtomicInteger loose_root = new AtomicInteger(-1);
+    final AtomicInteger loose_max = new AtomicInteger(0);
+    loose.iterateOctants(loose_root, (context, octant, depth) -> {
+      if (depth == 0L) {
+        context.set(octant.objects().size());
+      }
+      loose_max.set(Math.max(loose_max.get(), octant.objects().size()));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(0L, (long) loose_root.get());
+    Assert.assertTrue(loose_max.get() < 100);
+
+    final Set<Object> tight_over = new HashSet<>();
+    final Set<Object> loose_over = new HashSet<>();
+    final VolumeI query = VolumeI.of(60, 70, 10, 20, 0, 128);
+    tight.overlappedBy(query, tight_over);
+    loose.overlappedBy(query, loose_over);
+    Assert.assertEquals(tight_over, loose_over);
+  }
+
+  /**
+   * Queries against a loose tree agree with queries against an ordinary
+   * tree holding the same objects.
+   */
+
+  @Test
+  public final void testLooseEquivalent()
+  {
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 128, 0, 128, 0, 128));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationI tight_config = cb.build();
+
+    final OctTreeIType<Object> tight = this.create(tight_config);
+    final OctTreeIType<Object> loose =
+      this.create(tight_config.withLooseness(1.5));
+
+    final Integer[] items = new Integer[400];
+    final Random random = new Random(0x1005eL);
+    for (int index = 0; index < 400; ++index) {
+      items[index] = Integer.valueOf(index);
+      final int x = random.nextInt(108);
+      final int y = random.nextInt(108);
+      final int z = random.nextInt(108);
+      final int size = 1 + random.nextInt(20);
+      final VolumeI volume = VolumeI.of(
+        x, (x + size), y, (y + size), z, (z + size));
+      Assert.assertTrue(tight.insert(items[index], volume));
+      Assert.assertTrue(loose.insert(items[index], volume));
+    }
+
+    for (int index = 0; index < 400; index += 3) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final int z = random.nextInt(118);
+      final VolumeI volume = VolumeI.of(
+        x, (x + 10), y, (y + 10), z, (z + 10));
+      Assert.assertTrue(tight.move(items[index], volume));
+      Assert.assertTrue(loose.move(items[index], volume));
+    }
+
+    for (int index = 0; index < 400; index += 5) {
+      Assert.assertEquals(
+        Boolean.valueOf(tight.remove(items[index])),
+        Boolean.valueOf(loose.remove(items[index])));
+    }
+
+    Assert.assertEquals(tight.size(), loose.size());
+    for (int index = 0; index < 400; ++index) {
+      final Integer item = items[index];
+      if (tight.contains(item)) {
+        Assert.assertEquals(tight.volumeFor(item), loose.volumeFor(item));
+      }
+    }
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(100);
+      final int y = random.nextInt(100);
+      final int z = random.nextInt(100);
+      final VolumeI volume = VolumeI.of(
+        x, (x + 28), y, (y + 28), z, (z + 28));
+
+      final Set<Object> tight_over = new HashSet<>();
+      final Set<Object> loose_over = new HashSet<>();
+      tight.overlappedBy(volume, tight_over);
+      loose.overlappedBy(volume, loose_over);
+      Assert.assertEquals(tight_over, loose_over);
+
+      final Set<Object> tight_in = new HashSet<>();
+      final Set<Object> loose_in = new HashSet<>();
+      tight.containedBy(volume, tight_in);
+      loose.containedBy(volume, loose_in);
+      Assert.assertEquals(tight_in, loose_in);
+
+      final Ray3D ray = Ray3D.of(
+        Vector3D.of(
+          0.0, (double) random.nextInt(128), (double) random.nextInt(128)),
+        Vector3D.of(
+          1.0, random.nextDouble() - 0.5, random.nextDouble() - 0.5));
+      final Set<Object> tight_hits = new HashSet<>();
+      final Set<Object> loose_hits = new HashSet<>();
+      tight.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        tight_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      loose.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        loose_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      Assert.assertEquals(tight_hits, loose_hits);
+    }
+  }
+
+  /**
+   * An expandable tree grows to hold objects outside of its initial bounds.
+   */
+
+  @Test
+  public final void testExpandableInsertOutside()
+  {
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    final OctTreeConfigurationI fixed_config = cb.build();
+    final OctTreeIType<Object> fixed = this.create(fixed_config);
+    final OctTreeIType<Object> tree =
+      this.create(fixed_config.withExpandable(true));
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final VolumeI volume0 = VolumeI.of(250, 260, 10, 20, 10, 20);
+    final VolumeI volume1 = VolumeI.of(-310, -300, -5, 5, -5, 5);
+
+    Assert.assertFalse(fixed.insert(item0, volume0));
+    Assert.assertEquals(VolumeI.of(0, 100, 0, 100, 0, 100), fixed.bounds());
+
+    Assert.assertTrue(tree.insert(item0, volume0));
+    Assert.assertEquals(VolumeI.of(0, 400, 0, 400, 0, 400), tree.bounds());
+    Assert.assertTrue(tree.insert(item1, volume1));
+    Assert.assertEquals(VolumeI.of(-400, 400, -400, 400, -400, 400), tree.bounds());
+    Assert.assertEquals(2L, tree.size());
+    Assert.assertEquals(volume0, tree.volumeFor(item0));
+    Assert.assertEquals(volume1, tree.volumeFor(item1));
+
+    final Set<Object> all = new HashSet<>();
+    tree.overlappedBy(tree.bounds(), all);
+    Assert.assertEquals(2L, (long) all.size());
+
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(volume0, contained);
+    Assert.assertEquals(Collections.singleton(item0), contained);
+
+    final VolumeI volume2 = VolumeI.of(1000, 1010, -40, -30, 1000, 1010);
+    Assert.assertTrue(tree.move(item0, volume2));
+    Assert.assertEquals(volume2, tree.volumeFor(item0));
+
+    final Set<Object> moved = new HashSet<>();
+    tree.overlappedBy(volume2, moved);
+    Assert.assertEquals(Collections.singleton(item0), moved);
+  }
+
+  /**
+   * Inserting, moving, removing and querying objects in an expandable tree
+   * is equivalent to doing so in a tree that is large enough to hold every
+   * object from the start.
+   */
+
+  @Test
+  public final void testExpandableEquivalent()
+  {
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(-1024, 1024, -1024, 1024, -1024, 1024));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeConfigurationI fixed_config = cb.build();
+    final OctTreeConfigurationI expand_config =
+      fixed_config.withVolume(VolumeI.of(0, 16, 0, 16, 0, 16)).withExpandable(true);
+
+    final OctTreeIType<Object> fixed = this.create(fixed_config);
+    final OctTreeIType<Object> expand = this.create(expand_config);
+    final OctTreeIType<Object> loose =
+      this.create(expand_config.withLooseness(1.5));
+
+    final Integer[] items = new Integer[300];
+    final Map<Object, VolumeI> initial = new HashMap<>();
+    final Random random = new Random(0xe7a9dL);
+    for (int index = 0; index < 300; ++index) {
+      items[index] = Integer.valueOf(index);
+      final int x = random.nextInt(2000) - 1000;
+      final int y = random.nextInt(2000) - 1000;
+      final int z = random.nextInt(2000) - 1000;
+      final int size = 1 + random.nextInt(20);
+      final VolumeI volume = VolumeI.of(
+        x, (x + size), y, (y + size), z, (z + size));
+      Assert.assertTrue(fixed.insert(items[index], volume));
+      Assert.assertTrue(expand.insert(items[index], volume));
+      Assert.assertTrue(loose.insert(items[index], volume));
+      initial.put(items[index], volume);
+    }
+
+    final OctTreeIType<Object> bulk = this.createFrom(expand_config, initial);
+    Assert.assertEquals(300L, bulk.size());
+    Assert.assertEquals(expand.bounds(), bulk.bounds());
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(1900) - 950;
+      final int y = random.nextInt(1900) - 950;
+      final int z = random.nextInt(1900) - 950;
+      final VolumeI volume = VolumeI.of(
+        x, (x + 100), y, (y + 100), z, (z + 100));
+      final Set<Object> expected_over = new HashSet<>();
+      final Set<Object> received_over = new HashSet<>();
+      expand.overlappedBy(volume, expected_over);
+      bulk.overlappedBy(volume, received_over);
+      Assert.assertEquals(expected_over, received_over);
+    }
+
+    for (int index = 0; index < 300; index += 3) {
+      final int x = random.nextInt(2000) - 1000;
+      final int y = random.nextInt(2000) - 1000;
+      final int z = random.nextInt(2000) - 1000;
+      final VolumeI volume = VolumeI.of(
+        x, (x + 10), y, (y + 10), z, (z + 10));
+      Assert.assertTrue(fixed.move(items[index], volume));
+      Assert.assertTrue(expand.move(items[index], volume));
+      Assert.assertTrue(loose.move(items[index], volume));
+    }
+
+    for (int index = 0; index < 300; index += 5) {
+      Assert.assertTrue(fixed.remove(items[index]));
+      Assert.assertTrue(expand.remove(items[index]));
+      Assert.assertTrue(loose.remove(items[index]));
+    }
+
+    Assert.assertEquals(fixed.size(), expand.size());
+    Assert.assertEquals(fixed.size(), loose.size());
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(1900) - 950;
+      final int y = random.nextInt(1900) - 950;
+      final int z = random.nextInt(1900) - 950;
+      final VolumeI volume = VolumeI.of(
+        x, (x + 100), y, (y + 100), z, (z + 100));
+
+      final Set<Object> fixed_over = new HashSet<>();
+      final Set<Object> expand_over = new HashSet<>();
+      final Set<Object> loose_over = new HashSet<>();
+      fixed.overlappedBy(volume, fixed_over);
+      expand.overlappedBy(volume, expand_over);
+      loose.overlappedBy(volume, loose_over);
+      Assert.assertEquals(fixed_over, expand_over);
+      Assert.assertEquals(fixed_over, loose_over);
+
+      final Set<Object> fixed_in = new HashSet<>();
+      final Set<Object> expand_in = new HashSet<>();
+      final Set<Object> loose_in = new HashSet<>();
+      fixed.containedBy(volume, fixed_in);
+      expand.containedBy(volume, expand_in);
+      loose.containedBy(volume, loose_in);
+      Assert.assertEquals(fixed_in, expand_in);
+      Assert.assertEquals(fixed_in, loose_in);
+
+      final Ray3D ray = Ray3D.of(
+        Vector3D.of(
+          -1100.0, (double) (random.nextInt(2000) - 1000), 0.0),
+        Vector3D.of(
+          1.0, random.nextDouble() - 0.5, random.nextDouble() - 0.5));
+      final Set<Object> fixed_hits = new HashSet<>();
+      final Set<Object> expand_hits = new HashSet<>();
+      fixed.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        fixed_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      expand.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        expand_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      Assert.assertEquals(fixed_hits, expand_hits);
+    }
+  }
+
+  /**
+   * Counting the objects contained within a volume agrees with the
+   * objects passed to the consumer of a containment query, for trees built
+   * incrementally and in bulk, and for snapshots.
+   */
+
+  @Test
+  public final void testCountEquivalent()
+  {
+    for (final boolean trim : new boolean[]{false, true}) {
+      for (final double looseness : new double[]{1.0, 1.5}) {
+        final OctTreeConfigurationI.Builder cb =
+          OctTreeConfigurationI.builder();
+        cb.setVolume(VolumeI.of(0, 128, 0, 128, 0, 128));
+        cb.setMaximumObjectsPerLeaf(4);
+        cb.setTrimOnRemove(trim);
+        cb.setLooseness(looseness);
+        final OctTreeConfigurationI c = cb.build();
+
+        final OctTreeIType<Object> tree = this.create(c);
+        final Integer[] items = new Integer[400];
+        final Random random = new Random(0xc0a7L);
+        for (int index = 0; index < 400; ++index) {
+          items[index] = Integer.valueOf(index);
+          final int x = random.nextInt(108);
+          final int y = random.nextInt(108);
+          final int z = random.nextInt(108);
+          final int size = 1 + random.nextInt(20);
+          Assert.assertTrue(tree.insert(items[index], VolumeI.of(
+            x, (x + size), y, (y + size), z, (z + size))));
+        }
+
+        for (int index = 0; index < 400; index += 3) {
+          final int x = random.nextInt(118);
+          final int y = random.nextInt(118);
+          final int z = random.nextInt(118);
+          Assert.assertTrue(tree.move(items[index], VolumeI.of(
+            x, (x + 10), y, (y + 10), z, (z + 10))));
+        }
+
+        final OctTreeReadableIType<Object> snapshot = tree.snapshot();
+        final Map<Object, VolumeI> snapshot_items = new HashMap<>();
+        for (int index = 0; index < 400; ++index) {
+          snapshot_items.put(items[index], tree.volumeFor(items[index]));
+        }
+
+        for (int index = 0; index < 400; index += 5) {
+          Assert.assertTrue(tree.remove(items[index]));
+        }
+
+        final OctTreeIType<Object> bulk = this.createFrom(c, snapshot_items);
+
+        Assert.assertEquals(tree.size(), tree.count(tree.bounds()));
+        Assert.assertEquals(400L, snapshot.count(snapshot.bounds()));
+        Assert.assertEquals(400L, bulk.count(bulk.bounds()));
+
+        for (int query = 0; query < 100; ++query) {
+          final int x = random.nextInt(100);
+          final int y = random.nextInt(100);
+          final int z = random.nextInt(100);
+          final int size = 1 + random.nextInt(64);
+          final VolumeI volume = VolumeI.of(
+            x, (x + size), y, (y + size), z, (z + size));
+          checkCount(tree, volume);
+          checkCount(snapshot, volume);
+          checkCount(bulk, volume);
+        }
+      }
+    }
+  }
+
+  private static void checkCount(
+    final OctTreeReadableIType<Object> tree,
+    final VolumeI volume)
+  {
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(volume, contained);
+    Assert.assertEquals((long) contained.size(), tree.count(volume));
+  }
+
+  /**
+   * Counting the objects in empty octants, and in volumes that hold no
+   * objects, yields zero.
+   */
+
+  @Test
+  public final void testCountEmpty()
+  {
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 128, 0, 128, 0, 128));
+    cb.setMaximumObjectsPerLeaf(1);
+    final OctTreeIType<Object> tree = this.create(cb.build());
+    Assert.assertEquals(0L, tree.count(tree.bounds()));
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    Assert.assertTrue(tree.insert(item0, VolumeI.of(1, 2, 1, 2, 1, 2)));
+    Assert.assertTrue(tree.insert(item1, VolumeI.of(100, 110, 100, 110, 100, 110)));
+    Assert.assertEquals(2L, tree.count(tree.bounds()));
+    Assert.assertEquals(0L, tree.count(VolumeI.of(30, 90, 30, 90, 30, 90)));
+    Assert.assertEquals(1L, tree.count(VolumeI.of(64, 128, 64, 128, 64, 128)));
+
+    Assert.assertTrue(tree.remove(item0));
+    Assert.assertTrue(tree.remove(item1));
+    Assert.assertEquals(0L, tree.count(tree.bounds()));
+  }
+
+  /**
+   * Counting within coordinates that do not describe a valid volume is
+   * rejected.
+   */
+
+  @Test
+  public final void testCountInvalid()
+  {
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 100, 0, 100, 0, 100));
+    final OctTreeConfigurationI c = cb.build();
+    final OctTreeIType<Object> tree = this.create(c);
+
+    this.expected.expect(PreconditionViolationException.class);
+    tree.count(10, 20, 10, 20, 20, 10);
+  }
+
+  /**
+   * Entry raycasts report the same objects as ordinary raycasts, along
+   * with the parametric distance at which the ray enters each object.
+   */
+
+  @Test
+  public final void testRaycastEntry()
+  {
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 128, 0, 128, 0, 128));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeIType<Object> tree = this.create(cb.build());
+
+    final Integer near = Integer.valueOf(1000);
+    final Integer around = Integer.valueOf(1001);
+    Assert.assertTrue(tree.insert(near, VolumeI.of(20, 30, 10, 40, 10, 40)));
+    Assert.assertTrue(tree.insert(around, VolumeI.of(40, 60, 40, 60, 40, 60)));
+
+    final Map<Object, Double> simple = new HashMap<>();
+    tree.raycastEntry(
+      Ray3D.of(Vector3D.of(0.0, 15.0, 15.0), Vector3D.of(1.0, 0.0, 0.0)),
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        simple.put(item, Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(20.0, simple.get(near).doubleValue(), 0.000001);
+
+    simple.clear();
+    tree.raycastEntry(
+      Ray3D.of(Vector3D.of(50.0, 50.0, 50.0), Vector3D.of(1.0, 0.0, 0.0)),
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        simple.put(item, Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(0.0, simple.get(around).doubleValue(), 0.000001);
+
+    final Random random = new Random(0xe7a1L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(108);
+      final int y = random.nextInt(108);
+      final int z = random.nextInt(108);
+      final int size = 1 + random.nextInt(20);
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(index),
+        VolumeI.of(
+          x, x + size,
+          y, y + size,
+          z, z + size)));
+    }
+
+    final OctTreeReadableIType<Object> snapshot = tree.snapshot();
+    for (int query = 0; query < 50; ++query) {
+      final Ray3D ray = Ray3D.of(
+        Vector3D.of(
+          random.nextDouble() * 128.0,
+          random.nextDouble() * 128.0,
+          random.nextDouble() * 128.0),
+        Vector3D.of(
+          random.nextDouble() - 0.5,
+          random.nextDouble() - 0.5,
+          random.nextDouble() - 0.5));
+      checkRaycastEntry(tree, ray);
+      checkRaycastEntry(snapshot, ray);
+    }
+  }
+
+  private static void checkRaycastEntry(
+    final OctTreeReadableIType<Object> tree,
+    final Ray3D ray)
+  {
+    final Set<Object> expected = new HashSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      expected.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final Set<Object> received = new HashSet<>();
+    tree.raycastEntry(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      received.add(item);
+      Assert.assertEquals(
+        ray.intersectionParameterVolume((double) x0, (double) y0, (double) z0, (double) x1, (double) y1, (double) z1),
+        distance,
+        0.000001);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+  }
+
+  /**
+   * A query listener receives the statistics of each query performed on the
+   * tree and on its snapshots, and receives nothing once it is removed.
+   */
+
+  @Test
+  public final void testQueryListener()
+  {
+    final OctTreeConfigurationI.Builder cb =
+      OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 128, 0, 128, 0, 128));
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeIType<Object> tree = this.create(cb.build());
+
+    final Random random = new Random(0x57a7L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final int z = random.nextInt(118);
+      final int size = 1 + random.nextInt(9);
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), VolumeI.of(
+        x, (x + size),
+        y, (y + size),
+        z, (z + size))));
+    }
+
+    final List<TreeQueryKind> kinds = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) -> {
+        kinds.add(query);
+        stats.add(new long[]{
+          nodes_visited, node_tests, object_tests, hits, max_depth});
+      }));
+
+    final VolumeI target = VolumeI.of(16, 80, 16, 80, 16, 80);
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(target, contained);
+    final Set<Object> overlapped = new HashSet<>();
+    tree.overlappedBy(target, overlapped);
+    final long count = tree.count(target);
+
+    final Ray3D ray =
+      Ray3D.of(Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0));
+    final Set<Object> hit = new HashSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, z0, z1, distance) -> {
+      hit.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    final List<OctTreeRaycastResultI<Object>> up_to = new ArrayList<>();
+    tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 5, up_to);
+    final List<Object> nearest = new ArrayList<>();
+    tree.nearest(
+      Vector3D.of(64.0, 64.0, 64.0),
+      7,
+      (item, x0, x1, y0, y1, z0, z1, distance) -> {
+        nearest.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+    Assert.assertEquals(
+      Arrays.asList(
+        TreeQueryKind.QUERY_CONTAINED_BY,
+        TreeQueryKind.QUERY_OVERLAPPED_BY,
+        TreeQueryKind.QUERY_COUNT,
+        TreeQueryKind.QUERY_RAYCAST,
+        TreeQueryKind.QUERY_RAYCAST_UP_TO,
+        TreeQueryKind.QUERY_NEAREST),
+      kinds);
+
+    final long[] expected_hits = {
+      (long) contained.size(),
+      (long) overlapped.size(),
+      count,
+      (long) hit.size(),
+      Math.min(5L, (long) hit.size()),
+      (long) nearest.size(),
+    };
+
+    Assert.assertEquals(count, (long) contained.size());
+    Assert.assertEquals(7L, (long) nearest.size());
+
+    Assert.assertEquals(expected_hits[4], (long) up_to.size());
+
+    for (int index = 0; index < expected_hits.length; ++index) {
+      final long[] query = stats.get(index);
+      Assert.assertTrue(query[0] > 0L);
+      Assert.assertTrue(query[1] > 0L);
+      Assert.assertTrue(query[2] >= 0L);
+      Assert.assertEquals(expected_hits[index], query[3]);
+      Assert.assertTrue(query[4] >= 0L && query[4] < 64L);
+    }
+
+    /*
+     * The overlap query examines objects in octants below the root.
+     */
+
+    Assert.assertTrue(stats.get(1)[2] >= (long) overlapped.size());
+    Assert.assertTrue(stats.get(1)[4] > 0L);
+
+    final OctTreeReadableIType<Object> snapshot = tree.snapshot();
+    final Set<Object> snapshot_overlapped = new HashSet<>();
+    snapshot.overlappedBy(target, snapshot_overlapped);
+    Assert.assertEquals(overlapped, snapshot_overlapped);
+    Assert.assertEquals(7L, (long) kinds.size());
+    Assert.assertEquals(TreeQueryKind.QUERY_OVERLAPPED_BY, kinds.get(6));
+    Assert.assertEquals((long) overlapped.size(), stats.get(6)[3]);
+
+    tree.setQueryListener(Optional.empty());
+    tree.overlappedBy(target, new HashSet<>());
+    snapshot.containedBy(target, new HashSet<>());
+    Assert.assertEquals(7L, (long) kinds.size());
+  }
+
+  /**
+   * The depths reported to a query listener are measured from the root of
+   * the tree being queried, both for a tree that has expanded and for a
+   * snapshot taken before the expansion.
+   */
+
+  @Test
+  public final void testQueryListenerDepthAfterExpansion()
+  {
+    final OctTreeConfigurationI.Builder cb =
+      OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 128, 0, 128, 0, 128));
+    cb.setExpandable(true);
+    final OctTreeIType<Object> tree = this.create(cb.build());
+
+    final VolumeI volume0 = VolumeI.of(1, 2, 1, 2, 1, 2);
+    Assert.assertTrue(tree.insert(Integer.valueOf(0), volume0));
+
+    final List<Long> depths = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) ->
+        depths.add(Long.valueOf(max_depth))));
+
+    tree.overlappedBy(volume0, new HashSet<>());
+    final long before = depths.get(0).longValue();
+    Assert.assertTrue(before > 0L);
+
+    final OctTreeReadableIType<Object> snapshot = tree.snapshot();
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(1), VolumeI.of(200, 210, 1, 2, 1, 2)));
+    Assert.assertEquals(VolumeI.of(0, 256, 0, 256, 0, 256), tree.bounds());
+
+    snapshot.overlappedBy(volume0, new HashSet<>());
+    tree.overlappedBy(volume0, new HashSet<>());
+    snapshot.overlappedBy(volume0, new HashSet<>());
+
+    Assert.assertEquals(
+      Arrays.asList(
+        Long.valueOf(before),
+        Long.valueOf(before),
+        Long.valueOf(before + 1L),
+        Long.valueOf(before)),
+      depths);
+  }
+
+  /**
+   * Batch queries and parallel queries are reported to the query listener.
+   */
+
+  @Test
+  public final void testQueryListenerBatchParallel()
+  {
+    final OctTreeConfigurationI.Builder cb =
+      OctTreeConfigurationI.builder();
+    cb.setVolume(VolumeI.of(0, 128, 0, 128, 0, 128));
+    cb.setMaximumObjectsPerLeaf(4);
+    cb.setParallelQueryThreshold(7);
+    final OctTreeIType<Object> tree = this.create(cb.build());
+
+    final Random random = new Random(0xba7c4L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final int z = random.nextInt(118);
+      final int size = 1 + random.nextInt(9);
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), VolumeI.of(
+        x, (x + size),
+        y, (y + size),
+        z, (z + size))));
+    }
+
+    final List<TreeQueryKind> kinds = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) -> {
+        kinds.add(query);
+        stats.add(new long[]{
+          nodes_visited, node_tests, object_tests, hits, max_depth});
+      }));
+
+    final List<VolumeI> queries = Arrays.asList(
+      VolumeI.of(16, 80, 16, 80, 16, 80),
+      VolumeI.of(40, 120, 8, 64, 0, 100));
+    final long[] batch_hits = {0L};
+    tree.overlappedByAll(queries, (query, item, x0, x1, y0, y1, z0, z1) -> {
+      ++batch_hits[0];
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final List<Ray3D> rays = Arrays.asList(
+      Ray3D.of(Vector3D.of(0.0, 0.0, 0.0), Vector3D.of(1.0, 1.0, 1.0)),
+      Ray3D.of(Vector3D.of(0.0, 64.0, 64.0), Vector3D.of(1.0, 0.0, 0.0)));
+    final long[] ray_hits = {0L};
+    tree.raycastAll(rays, (ray, item, x0, x1, y0, y1, z0, z1, distance) -> {
+      ++ray_hits[0];
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final Set<Object> contained = new HashSet<>();
+    final Set<Object> overlapped = new HashSet<>();
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      tree.containedByParallel(queries.get(0), pool, contained);
+      tree.overlappedByParallel(queries.get(0), pool, overlapped);
+    } finally {
+      pool.shutdown();
+    }
+
+    Assert.assertEquals(
+      Arrays.asList(
+        TreeQueryKind.QUERY_OVERLAPPED_BY_ALL,
+        TreeQueryKind.QUERY_RAYCAST_ALL,
+        TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL,
+        TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL),
+      kinds);
+
+    final long[] expected_hits = {
+      batch_hits[0],
+      ray_hits[0],
+      (long) contained.size(),
+      (long) overlapped.size(),
+    };
+
+    Assert.assertEquals((long) contained.size(), tree.count(queries.get(0)));
+    Assert.assertTrue(batch_hits[0] > 0L);
+
+    for (int index = 0; index < expected_hits.length; ++index) {
+      final long[] query = stats.get(index);
+      Assert.assertTrue(query[0] > 0L);
+      Assert.assertTrue(query[1] > 0L);
+      Assert.assertTrue(query[2] >= 0L);
+      Assert.assertEquals(expected_hits[index], query[3]);
+      Assert.assertTrue(query[4] >= 0L && query[4] < 64L);
+    }
+  }
 }
@@ -16,6 +16,7 @@
 
 package com.io7m.jspatial.tests.api.quadtrees;
 
+import com.io7m.jaffirm.core.PreconditionViolationException;
 import com.io7m.jregions.core.unparameterized.areas.AreaD;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationD;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationDType;
@@ -280,4 +281,116 @@ public final class QuadTreeConfigurationDTest extends
     Assert.assertEquals(qc0, qc2);
     Assert.assertEquals(qc1, qc2);
   }
+
+  /**
+   * A negative maximum number of objects per leaf is rejected.
+   */
+
+  @Test
+  public void testMaximumObjectsPerLeafNegative()
+  {
+    final QuadTreeConfigurationD.Builder b = QuadTreeConfigurationD.builder();
+    b.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    b.setMaximumObjectsPerLeaf(-1);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A maximum depth of zero is rejected.
+   */
+
+  @Test
+  public void testMaximumDepthZero()
+  {
+    final QuadTreeConfigurationD.Builder b = QuadTreeConfigurationD.builder();
+    b.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    b.setMaximumDepth(0L);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A parallel query threshold of zero is rejected.
+   */
+
+  @Test
+  public void testParallelQueryThresholdZero()
+  {
+    final QuadTreeConfigurationD.Builder b = QuadTreeConfigurationD.builder();
+    b.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    b.setParallelQueryThreshold(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A parallel build threshold of zero is rejected.
+   */
+
+  @Test
+  public void testParallelBuildThresholdZero()
+  {
+    final QuadTreeConfigurationD.Builder b = QuadTreeConfigurationD.builder();
+    b.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    b.setParallelBuildThreshold(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A looseness less than one is rejected.
+   */
+
+  @Test
+  public void testLoosenessLessThanOne()
+  {
+    final QuadTreeConfigurationD.Builder b = QuadTreeConfigurationD.builder();
+    b.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    b.setLooseness(0.5);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A looseness that is not a number is rejected.
+   */
+
+  @Test
+  public void testLoosenessNaN()
+  {
+    final QuadTreeConfigurationD.Builder b = QuadTreeConfigurationD.builder();
+    b.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    b.setLooseness(Double.NaN);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * An infinite looseness is rejected.
+   */
+
+  @Test
+  public void testLoosenessInfinite()
+  {
+    final QuadTreeConfigurationD.Builder b = QuadTreeConfigurationD.builder();
+    b.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    b.setLooseness(Double.POSITIVE_INFINITY);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
 }
@@ -16,6 +16,7 @@
 
 package com.io7m.jspatial.tests.api.quadtrees;
 
+import com.io7m.jaffirm.core.PreconditionViolationException;
 import com.io7m.jregions.core.unparameterized.areas.AreaI;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationI;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationIType;
@@ -282,4 +283,116 @@ public final class QuadTreeConfigurationITest extends
     Assert.assertEquals(qc0, qc2);
     Assert.assertEquals(qc1, qc2);
   }
+
+  /**
+   * A negative maximum number of objects per leaf is rejected.
+   */
+
+  @Test
+  public void testMaximumObjectsPerLeafNegative()
+  {
+    final QuadTreeConfigurationI.Builder b = QuadTreeConfigurationI.builder();
+    b.setArea(AreaI.of(0, 100, 0, 100));
+    b.setMaximumObjectsPerLeaf(-1);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A maximum depth of zero is rejected.
+   */
+
+  @Test
+  public void testMaximumDepthZero()
+  {
+    final QuadTreeConfigurationI.Builder b = QuadTreeConfigurationI.builder();
+    b.setArea(AreaI.of(0, 100, 0, 100));
+    b.setMaximumDepth(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A parallel query threshold of zero is rejected.
+   */
+
+  @Test
+  public void testParallelQueryThresholdZero()
+  {
+    final QuadTreeConfigurationI.Builder b = QuadTreeConfigurationI.builder();
+    b.setArea(AreaI.of(0, 100, 0, 100));
+    b.setParallelQueryThreshold(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A parallel build threshold of zero is rejected.
+   */
+
+  @Test
+  public void testParallelBuildThresholdZero()
+  {
+    final QuadTreeConfigurationI.Builder b = QuadTreeConfigurationI.builder();
+    b.setArea(AreaI.of(0, 100, 0, 100));
+    b.setParallelBuildThreshold(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A looseness less than one is rejected.
+   */
+
+  @Test
+  public void testLoosenessLessThanOne()
+  {
+    final QuadTreeConfigurationI.Builder b = QuadTreeConfigurationI.builder();
+    b.setArea(AreaI.of(0, 100, 0, 100));
+    b.setLooseness(0.5);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A looseness that is not a number is rejected.
+   */
+
+  @Test
+  public void testLoosenessNaN()
+  {
+    final QuadTreeConfigurationI.Builder b = QuadTreeConfigurationI.builder();
+    b.setArea(AreaI.of(0, 100, 0, 100));
+    b.setLooseness(Double.NaN);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * An infinite looseness is rejected.
+   */
+
+  @Test
+  public void testLoosenessInfinite()
+  {
+    final QuadTreeConfigurationI.Builder b = QuadTreeConfigurationI.builder();
+    b.setArea(AreaI.of(0, 100, 0, 100));
+    b.setLooseness(Double.POSITIVE_INFINITY);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
 }
@@ -16,6 +16,7 @@
 
 package com.io7m.jspatial.tests.api.quadtrees;
 
+import com.io7m.jaffirm.core.PreconditionViolationException;
 import com.io7m.jregions.core.unparameterized.areas.AreaL;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationL;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationLType;
@@ -282,4 +283,116 @@ public final class QuadTreeConfigurationLTest extends
     Assert.assertEquals(qc0, qc2);
     Assert.assertEquals(qc1, qc2);
   }
+
+  /**
+   * A negative maximum number of objects per leaf is rejected.
+   */
+
+  @Test
+  public void testMaximumObjectsPerLeafNegative()
+  {
+    final QuadTreeConfigurationL.Builder b = QuadTreeConfigurationL.builder();
+    b.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    b.setMaximumObjectsPerLeaf(-1);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A maximum depth of zero is rejected.
+   */
+
+  @Test
+  public void testMaximumDepthZero()
+  {
+    final QuadTreeConfigurationL.Builder b = QuadTreeConfigurationL.builder();
+    b.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    b.setMaximumDepth(0L);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A parallel query threshold of zero is rejected.
+   */
+
+  @Test
+  public void testParallelQueryThresholdZero()
+  {
+    final QuadTreeConfigurationL.Builder b = QuadTreeConfigurationL.builder();
+    b.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    b.setParallelQueryThreshold(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A parallel build threshold of zero is rejected.
+   */
+
+  @Test
+  public void testParallelBuildThresholdZero()
+  {
+    final QuadTreeConfigurationL.Builder b = QuadTreeConfigurationL.builder();
+    b.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    b.setParallelBuildThreshold(0);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A looseness less than one is rejected.
+   */
+
+  @Test
+  public void testLoosenessLessThanOne()
+  {
+    final QuadTreeConfigurationL.Builder b = QuadTreeConfigurationL.builder();
+    b.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    b.setLooseness(0.5);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * A looseness that is not a number is rejected.
+   */
+
+  @Test
+  public void testLoosenessNaN()
+  {
+    final QuadTreeConfigurationL.Builder b = QuadTreeConfigurationL.builder();
+    b.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    b.setLooseness(Double.NaN);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
+
+  /**
+   * An infinite looseness is rejected.
+   */
+
+  @Test
+  public void testLoosenessInfinite()
+  {
+    final QuadTreeConfigurationL.Builder b = QuadTreeConfigurationL.builder();
+    b.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    b.setLooseness(Double.POSITIVE_INFINITY);
+
+    this.expected.expect(PreconditionViolationException.class);
+    b.build();
+    Assert.fail();
+  }
 }
@@ -16,14 +16,18 @@
 
 package com.io7m.jspatial.tests.api.quadtrees;
 
+import com.io7m.jaffirm.core.PreconditionViolationException;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jregions.core.unparameterized.areas.AreaD;
 import com.io7m.jregions.core.unparameterized.areas.AreasD;
 import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeQueryKind;
 import com.io7m.jspatial.api.TreeVisitResult;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationD;
 import com.io7m.jspatial.api.quadtrees.QuadTreeDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastConsumerDType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastResultD;
+import com.io7m.jspatial.api.quadtrees.QuadTreeReadableDType;
 import com.io7m.jspatial.tests.api.AreaDContainedGenerator;
 import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
 import com.io7m.jtensors.core.unparameterized.vectors.Vectors2D;
@@ -33,13 +37,21 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -62,6 +74,15 @@ public abstract class QuadTreeDContract
 
   protected abstract <T> QuadTreeDType<T> create(QuadTreeConfigurationD config);
 
+  protected abstract <T> QuadTreeDType<T> createFrom(
+    QuadTreeConfigurationD config,
+    Map<T, AreaD> items);
+
+  protected abstract <T> QuadTreeDType<T> createFromParallel(
+    QuadTreeConfigurationD config,
+    Map<T, AreaD> items,
+    ForkJoinPool pool);
+
   /**
    * Simple identities.
    */
@@ -1413,4 +1434,2390 @@ public abstract class QuadTreeDContract
     Assert.assertTrue(tree.insert(item, item_area));
     Assert.assertEquals(1L, (long) QuadTreeDContract.countQuadrants(tree));
   }
+
+  /**
+   * Leaves are only split when they are full, and their objects are
+   * redistributed to the new child quadrants.
+   */
+
+  @Test
+  public final void testInsertCapacitySplit()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(2);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final Integer item2 = Integer.valueOf(2);
+
+    Assert.assertTrue(tree.insert(item0, AreaD.of(1.0, 2.0, 1.0, 2.0)));
+    Assert.assertTrue(tree.insert(item1, AreaD.of(60.0, 61.0, 60.0, 61.0)));
+    Assert.assertEquals(1L, (long) QuadTreeDContract.countQuadrants(tree));
+
+    Assert.assertTrue(tree.insert(item2, AreaD.of(40.0, 60.0, 40.0, 60.0)));
+    Assert.assertEquals(5L, (long) QuadTreeDContract.countQuadrants(tree));
+
+    final Map<Long, Set<Object>> by_depth = new HashMap<>();
+    tree.iterateQuadrants(by_depth, (context, quadrant, depth) -> {
+      context.computeIfAbsent(Long.valueOf((long) depth), k -> new HashSet<>())
+        .addAll(quadrant.objects().keySet());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    Assert.assertEquals(1L, (long) by_depth.get(Long.valueOf(0L)).size());
+    Assert.assertTrue(by_depth.get(Long.valueOf(0L)).contains(item2));
+    Assert.assertEquals(2L, (long) by_depth.get(Long.valueOf(1L)).size());
+    Assert.assertTrue(by_depth.get(Long.valueOf(1L)).contains(item0));
+    Assert.assertTrue(by_depth.get(Long.valueOf(1L)).contains(item1));
+
+    final Set<Object> items = new HashSet<>();
+    tree.containedBy(area, items);
+    Assert.assertEquals(3L, (long) items.size());
+
+    Assert.assertTrue(tree.remove(item0));
+    Assert.assertTrue(tree.remove(item1));
+    Assert.assertTrue(tree.remove(item2));
+    Assert.assertTrue(tree.isEmpty());
+  }
+
+  /**
+   * Splitting leaves only when full results in fewer quadrants than
+   * eager splitting.
+   */
+
+  @Test
+  public final void testInsertCapacityFewerQuadrants()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 128.0, 0.0, 128.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c_eager = cb.build();
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationD c_capacity = cb.build();
+
+    final QuadTreeDType<Object> tree_eager = this.create(c_eager);
+    final QuadTreeDType<Object> tree_capacity = this.create(c_capacity);
+
+    for (int index = 0; index < 16; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final int x = (index % 4) * 32;
+      final int y = (index / 4) * 32;
+      final AreaD item_area = AreaD.of(x + 1.0, x + 2.0, y + 1.0, y + 2.0);
+      Assert.assertTrue(tree_eager.insert(item, item_area));
+      Assert.assertTrue(tree_capacity.insert(item, item_area));
+    }
+
+    Assert.assertTrue(
+      QuadTreeDContract.countQuadrants(tree_capacity)
+        < QuadTreeDContract.countQuadrants(tree_eager));
+
+    final Set<Object> items_eager = new HashSet<>();
+    final Set<Object> items_capacity = new HashSet<>();
+    final AreaD query = AreaD.of(0.0, 64.0, 0.0, 64.0);
+    tree_eager.containedBy(query, items_eager);
+    tree_capacity.containedBy(query, items_capacity);
+    Assert.assertEquals(4L, (long) items_capacity.size());
+    Assert.assertEquals(items_eager, items_capacity);
+
+    for (int index = 0; index < 16; ++index) {
+      Assert.assertTrue(tree_capacity.remove(Integer.valueOf(index)));
+    }
+    Assert.assertTrue(tree_capacity.isEmpty());
+  }
+
+  /**
+   * Quadrants at the maximum depth are not split.
+   */
+
+  @Test
+  public final void testInsertMaximumDepth()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    cb.setMaximumDepth(1);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    final Integer item = Integer.valueOf(0);
+    final AreaD item_area = AreaD.of(1.0, 2.0, 1.0, 2.0);
+    Assert.assertTrue(tree.insert(item, item_area));
+    Assert.assertEquals(5L, (long) QuadTreeDContract.countQuadrants(tree));
+  }
+
+  /**
+   * Query consumers receive each item exactly once, with the correct bounds.
+   */
+
+  @Test
+  public final void testContainedByConsumer()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    final Map<Object, AreaD> expected = new HashMap<>();
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaD item_area =
+        AreaD.of(5.0 * index, 5.0 * index + 10.0, 5.0 * index, 5.0 * index + 10.0);
+      expected.put(item, item_area);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final Map<Object, AreaD> received = new HashMap<>();
+    tree.containedBy(area, (item, x0, x1, y0, y1) -> {
+      Assert.assertNull(received.put(item, AreaD.of(x0, x1, y0, y1)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+
+    received.clear();
+    tree.overlappedBy(area, (item, x0, x1, y0, y1) -> {
+      Assert.assertNull(received.put(item, AreaD.of(x0, x1, y0, y1)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+
+    final Set<Object> contained = new HashSet<>();
+    final Set<Object> contained_consumer = new HashSet<>();
+    final AreaD query = AreaD.of(0.0, 30.0, 0.0, 30.0);
+    tree.containedBy(query, contained);
+    tree.containedBy(query, (item, x0, x1, y0, y1) -> {
+      contained_consumer.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(5L, (long) contained.size());
+    Assert.assertEquals(contained, contained_consumer);
+  }
+
+  /**
+   * Query consumers can terminate queries early.
+   */
+
+  @Test
+  public final void testQueryConsumerTerminate()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaD item_area =
+        AreaD.of(5.0 * index, 5.0 * index + 10.0, 5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.containedBy(area, (item, x0, x1, y0, y1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.containedBy(AreaD.of(1.0, 99.0, 1.0, 99.0), (item, x0, x1, y0, y1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.overlappedBy(area, (item, x0, x1, y0, y1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    final Ray2D ray = Ray2D.of(Vector2D.of(0.0, 0.0), Vector2D.of(1.0, 1.0));
+    tree.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * Raycast consumers receive the same results as the sorted raycast.
+   */
+
+  @Test
+  public final void testRaycastConsumer()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaD item_area =
+        AreaD.of(5.0 * index, 5.0 * index + 10.0, 5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final Ray2D ray = Ray2D.of(Vector2D.of(0.0, 0.0), Vector2D.of(1.0, 1.0));
+    final SortedSet<QuadTreeRaycastResultD<Object>> sorted = new TreeSet<>();
+    tree.raycast(ray, sorted);
+    Assert.assertEquals(10L, (long) sorted.size());
+
+    final SortedSet<QuadTreeRaycastResultD<Object>> received = new TreeSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+      received.add(QuadTreeRaycastResultD.of(
+        distance, AreaD.of(x0, x1, y0, y1), item));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(sorted, received);
+  }
+
+  /**
+   * Nearest-first raycasts return the nearest items in order.
+   */
+
+  @Test
+  public final void testRaycastUpTo()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaD item_area =
+        AreaD.of(5.0 * index, 5.0 * index + 10.0, 5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final Ray2D ray = Ray2D.of(
+      Vector2D.of(-10.0, -10.0),
+      Vectors2D.normalize(Vector2D.of(1.0, 1.0)));
+
+    {
+      final Optional<QuadTreeRaycastResultD<Object>> first_opt =
+        tree.raycastFirst(ray);
+      Assert.assertTrue(first_opt.isPresent());
+      final QuadTreeRaycastResultD<Object> first = first_opt.get();
+      Assert.assertEquals(Integer.valueOf(0), first.item());
+      Assert.assertEquals(10.0 * Math.sqrt(2.0), first.distance(), 0.000001);
+    }
+
+    {
+      final List<QuadTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 2, items);
+      Assert.assertEquals(2L, (long) items.size());
+      final Iterator<QuadTreeRaycastResultD<Object>> iter = items.iterator();
+      Assert.assertEquals(Integer.valueOf(0), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(1), iter.next().item());
+    }
+
+    {
+      final List<QuadTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, 30.0, 10, items);
+      Assert.assertEquals(3L, (long) items.size());
+      final Iterator<QuadTreeRaycastResultD<Object>> iter = items.iterator();
+      Assert.assertEquals(Integer.valueOf(0), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(1), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(2), iter.next().item());
+    }
+
+    {
+      final List<QuadTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 100, items);
+      Assert.assertEquals(10L, (long) items.size());
+      int expected = 0;
+      for (final QuadTreeRaycastResultD<Object> result : items) {
+        Assert.assertEquals(Integer.valueOf(expected), result.item());
+        ++expected;
+      }
+    }
+
+    {
+      final List<QuadTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 0, items);
+      Assert.assertTrue(items.isEmpty());
+    }
+  }
+
+  /**
+   * Nearest-first raycasts keep every object at the same distance, such as
+   * objects whose bounds all contain the origin of the ray.
+   */
+
+  @Test
+  public final void testRaycastUpToTies()
+  {
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    final QuadTreeDType<Object> tree = this.create(cb.build());
+
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(0), AreaD.of(5.0, 15.0, 5.0, 15.0)));
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(1), AreaD.of(0.0, 20.0, 0.0, 20.0)));
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(2), AreaD.of(8.0, 12.0, 8.0, 12.0)));
+
+    final Ray2D ray = Ray2D.of(Vector2D.of(10.0, 10.0), Vector2D.of(1.0, 0.0));
+
+    {
+      final List<QuadTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 10, items);
+      Assert.assertEquals(3L, (long) items.size());
+      final Set<Object> received = new HashSet<>();
+      for (final QuadTreeRaycastResultD<Object> result : items) {
+        Assert.assertEquals(0.0, result.distance(), 0.0);
+        received.add(result.item());
+      }
+      Assert.assertEquals(3L, (long) received.size());
+    }
+
+    {
+      final List<QuadTreeRaycastResultD<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 2, items);
+      Assert.assertEquals(2L, (long) items.size());
+    }
+
+    final Optional<QuadTreeRaycastResultD<Object>> first =
+      tree.raycastFirst(ray);
+    Assert.assertTrue(first.isPresent());
+    Assert.assertEquals(0.0, first.get().distance(), 0.0);
+  }
+
+  /**
+   * Nearest-first raycasts work in the negative direction.
+   */
+
+  @Test
+  public final void testRaycastFirstNegative()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaD item_area =
+        AreaD.of(5.0 * index, 5.0 * index + 10.0, 5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final Ray2D ray = Ray2D.of(
+      Vector2D.of(110.0, 110.0),
+      Vectors2D.normalize(Vector2D.of(-1.0, -1.0)));
+
+    final Optional<QuadTreeRaycastResultD<Object>> first_opt =
+      tree.raycastFirst(ray);
+    Assert.assertTrue(first_opt.isPresent());
+    final QuadTreeRaycastResultD<Object> first = first_opt.get();
+    Assert.assertEquals(Integer.valueOf(9), first.item());
+    Assert.assertEquals(55.0 * Math.sqrt(2.0), first.distance(), 0.000001);
+
+    final Ray2D miss = Ray2D.of(
+      Vector2D.of(110.0, 110.0),
+      Vectors2D.normalize(Vector2D.of(1.0, 1.0)));
+    Assert.assertFalse(tree.raycastFirst(miss).isPresent());
+  }
+
+  /**
+   * Nearest neighbour queries return the nearest items, nearest first.
+   */
+
+  @Test
+  public final void testNearest()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(2);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaD item_area =
+        AreaD.of(5.0 * index, 5.0 * index + 10.0, 5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    {
+      final List<Object> items = new ArrayList<>();
+      final List<Double> distances = new ArrayList<>();
+      tree.nearest(
+        Vector2D.of(-10.0, -10.0),
+        3,
+        (item, x0, x1, y0, y1, distance) -> {
+          items.add(item);
+          distances.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(3L, (long) items.size());
+      Assert.assertEquals(Integer.valueOf(0), items.get(0));
+      Assert.assertEquals(Integer.valueOf(1), items.get(1));
+      Assert.assertEquals(Integer.valueOf(2), items.get(2));
+      Assert.assertEquals(
+        10.0 * Math.sqrt(2.0), distances.get(0).doubleValue(), 0.000001);
+      Assert.assertEquals(
+        15.0 * Math.sqrt(2.0), distances.get(1).doubleValue(), 0.000001);
+    }
+
+    {
+      final List<Object> items = new ArrayList<>();
+      final List<Double> distances = new ArrayList<>();
+      tree.nearest(
+        Vector2D.of(50.0, 50.0),
+        3,
+        (item, x0, x1, y0, y1, distance) -> {
+          items.add(item);
+          distances.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(3L, (long) items.size());
+      Assert.assertTrue(items.contains(Integer.valueOf(8)));
+      Assert.assertTrue(items.contains(Integer.valueOf(9)));
+      Assert.assertEquals(Integer.valueOf(7), items.get(2));
+      Assert.assertEquals(0.0, distances.get(0).doubleValue(), 0.0);
+      Assert.assertEquals(0.0, distances.get(1).doubleValue(), 0.0);
+      Assert.assertEquals(
+        5.0 * Math.sqrt(2.0), distances.get(2).doubleValue(), 0.000001);
+    }
+  }
+
+  /**
+   * Nearest neighbour queries agree with an exhaustive search.
+   */
+
+  @Test
+  public final void testNearestExhaustive()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+    final Random random = new Random(0x5eedL);
+
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final AreaD item_area =
+        AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size));
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), item_area));
+    }
+
+    for (int query = 0; query < 20; ++query) {
+      final double px = random.nextDouble() * 120.0 - 10.0;
+      final double py = random.nextDouble() * 120.0 - 10.0;
+
+      final List<Double> expected = new ArrayList<>();
+      tree.map((item, item_area) -> {
+        final double dx = Math.max(
+          0.0, Math.max((double) item_area.minimumX() - px, px - (double) item_area.maximumX()));
+        final double dy = Math.max(
+          0.0, Math.max((double) item_area.minimumY() - py, py - (double) item_area.maximumY()));
+        expected.add(Double.valueOf(Math.sqrt(dx * dx + dy * dy)));
+        return item;
+      });
+      Collections.sort(expected);
+
+      final List<Double> received = new ArrayList<>();
+      tree.nearest(
+        Vector2D.of(px, py),
+        10,
+        (item, x0, x1, y0, y1, distance) -> {
+          received.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(expected.subList(0, 10), received);
+    }
+  }
+
+  /**
+   * Nearest neighbour queries can be terminated early, and return nothing for
+   * non-positive limits.
+   */
+
+  @Test
+  public final void testNearestTerminate()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaD item_area =
+        AreaD.of(5.0 * index, 5.0 * index + 10.0, 5.0 * index, 5.0 * index + 10.0);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.nearest(
+      Vector2D.of(0.0, 0.0),
+      5,
+      (item, x0, x1, y0, y1, distance) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_TERMINATE;
+      });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.nearest(
+      Vector2D.of(0.0, 0.0),
+      0,
+      (item, x0, x1, y0, y1, distance) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(0L, (long) count.get());
+  }
+
+  /**
+   * Bulk-loading a tree produces the same tree as inserting each item in
+   * turn.
+   */
+
+  @Test
+  public final void testCreateFromEquivalent()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final Random random = new Random(0x5eedL);
+    final Map<Object, AreaD> items = new HashMap<>();
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      items.put(
+        Integer.valueOf(index),
+        AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size)));
+    }
+
+    for (final int capacity : new int[]{0, 1, 8}) {
+      final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+      cb.setArea(area);
+      cb.setMaximumObjectsPerLeaf(capacity);
+      final QuadTreeConfigurationD c = cb.build();
+
+      final QuadTreeDType<Object> expected = this.create(c);
+      for (final Map.Entry<Object, AreaD> entry : items.entrySet()) {
+        expected.insert(entry.getKey(), entry.getValue());
+      }
+
+      final QuadTreeDType<Object> tree = this.createFrom(c, items);
+      Assert.assertEquals(expected.size(), tree.size());
+      Assert.assertEquals(expected, tree);
+      Assert.assertEquals(
+        (long) countQuadrants(expected), (long) countQuadrants(tree));
+
+      for (int query = 0; query < 20; ++query) {
+        final int x = random.nextInt(90);
+        final int y = random.nextInt(90);
+        final AreaD query_area =
+          AreaD.of((double) x, (double) (x + 20), (double) y, (double) (y + 20));
+
+        final Set<Object> expected_items = new HashSet<>();
+        final Set<Object> received_items = new HashSet<>();
+        expected.overlappedBy(query_area, expected_items);
+        tree.overlappedBy(query_area, received_items);
+        Assert.assertEquals(expected_items, received_items);
+      }
+    }
+  }
+
+  /**
+   * Bulk-loading a tree skips items that do not fit within the tree.
+   */
+
+  @Test
+  public final void testCreateFromOutside()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final Integer inside = Integer.valueOf(0);
+    final Integer outside = Integer.valueOf(1);
+    final Map<Object, AreaD> items = new HashMap<>();
+    items.put(inside, AreaD.of(10.0, 20.0, 10.0, 20.0));
+    items.put(outside, AreaD.of(90.0, 110.0, 10.0, 20.0));
+
+    final QuadTreeDType<Object> tree = this.createFrom(c, items);
+    Assert.assertEquals(1L, tree.size());
+    Assert.assertTrue(tree.contains(inside));
+    Assert.assertFalse(tree.contains(outside));
+    Assert.assertTrue(tree.remove(inside));
+    Assert.assertEquals(0L, tree.size());
+  }
+
+  /**
+   * Removing objects leaves the bounds of the remaining objects intact.
+   */
+
+  @Test
+  public final void testRemoveRetainsBounds()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, AreaD> items = new HashMap<>();
+    final QuadTreeDType<Object> tree = this.create(c);
+    for (int index = 0; index < 300; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final AreaD item_area =
+        AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size));
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, item_area);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    for (int index = 0; index < 300; index += 2) {
+      final Object item = objects.get(index);
+      Assert.assertTrue(tree.remove(item));
+      items.remove(item);
+    }
+
+    Assert.assertEquals((long) items.size(), tree.size());
+    for (final Map.Entry<Object, AreaD> entry : items.entrySet()) {
+      Assert.assertEquals(entry.getValue(), tree.areaFor(entry.getKey()));
+    }
+
+    final Map<Object, AreaD> received = new HashMap<>();
+    tree.iterateQuadrants(received, (context, quadrant, depth) -> {
+      context.putAll(quadrant.objects());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(items, received);
+
+    final Set<Object> overlapped = new HashSet<>();
+    tree.overlappedBy(area, overlapped);
+    Assert.assertEquals(items.keySet(), overlapped);
+  }
+
+  /**
+   * Moving objects produces the same tree contents as removing and
+   * re-inserting them.
+   */
+
+  @Test
+  public final void testMove()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(2);
+    cb.setTrimOnRemove(true);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, AreaD> items = new HashMap<>();
+    final QuadTreeDType<Object> tree = this.create(c);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final AreaD item_area =
+        AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size));
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, item_area);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    for (int round = 0; round < 10; ++round) {
+      for (final Object item : objects) {
+        final AreaD current = items.get(item);
+        final int x = Math.max(0, Math.min(90, (int) current.minimumX()
+          + random.nextInt(9) - 4));
+        final int y = Math.max(0, Math.min(90, (int) current.minimumY()
+          + random.nextInt(9) - 4));
+        final int size = 1 + random.nextInt(10);
+        final AreaD item_area =
+          AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size));
+        items.put(item, item_area);
+        Assert.assertTrue(tree.move(item, item_area));
+      }
+    }
+
+    final QuadTreeDType<Object> expected = this.create(c);
+    for (final Map.Entry<Object, AreaD> entry : items.entrySet()) {
+      expected.insert(entry.getKey(), entry.getValue());
+    }
+
+    Assert.assertEquals((long) items.size(), tree.size());
+    Assert.assertEquals(expected, tree);
+
+    final Map<Object, AreaD> received = new HashMap<>();
+    tree.iterateQuadrants(received, (context, quadrant, depth) -> {
+      context.putAll(quadrant.objects());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(items, received);
+
+    for (int query = 0; query < 20; ++query) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final AreaD query_area =
+        AreaD.of((double) x, (double) (x + 20), (double) y, (double) (y + 20));
+
+      final Set<Object> expected_items = new HashSet<>();
+      final Set<Object> received_items = new HashSet<>();
+      expected.overlappedBy(query_area, expected_items);
+      tree.overlappedBy(query_area, received_items);
+      Assert.assertEquals(expected_items, received_items);
+    }
+  }
+
+  /**
+   * Moving an object that is not in the tree fails.
+   */
+
+  @Test
+  public final void testMoveNotPresent()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> tree = this.create(c);
+    Assert.assertFalse(tree.move(Integer.valueOf(0), area));
+    Assert.assertEquals(0L, tree.size());
+  }
+
+  /**
+   * Moving an object to bounds outside of the tree fails and leaves the
+   * object in place.
+   */
+
+  @Test
+  public final void testMoveOutside()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final Integer item = Integer.valueOf(0);
+    final AreaD item_area = AreaD.of(10.0, 20.0, 10.0, 20.0);
+    final QuadTreeDType<Object> tree = this.create(c);
+    Assert.assertTrue(tree.insert(item, item_area));
+    Assert.assertFalse(tree.move(item, AreaD.of(90.0, 110.0, 10.0, 20.0)));
+    Assert.assertEquals(1L, tree.size());
+    Assert.assertEquals(item_area, tree.areaFor(item));
+  }
+
+  /**
+   * Snapshots are unaffected by later modifications to the tree.
+   */
+
+  @Test
+  public final void testSnapshotIsolated()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+    final AreaD query =
+      AreaD.of(20.0, 60.0, 20.0, 60.0);
+
+    for (final boolean trim : new boolean[]{false, true}) {
+      final QuadTreeConfigurationD.Builder cb =
+        QuadTreeConfigurationD.builder();
+      cb.setArea(area);
+      cb.setMaximumObjectsPerLeaf(2);
+      cb.setTrimOnRemove(trim);
+      final QuadTreeConfigurationD c = cb.build();
+
+      final Random random = new Random(0x5eedL);
+      final List<Object> objects = new ArrayList<>();
+      final Map<Object, AreaD> items = new HashMap<>();
+      final QuadTreeDType<Object> tree = this.create(c);
+      final List<QuadTreeReadableDType<Object>> snapshots = new ArrayList<>();
+      final List<Map<Object, AreaD>> expected = new ArrayList<>();
+
+      int counter = 0;
+      for (int round = 0; round < 10; ++round) {
+        snapshots.add(tree.snapshot());
+        expected.add(new HashMap<>(items));
+
+        for (int step = 0; step < 50; ++step) {
+          final int x = random.nextInt(90);
+          final int y = random.nextInt(90);
+          final int size = 1 + random.nextInt(10);
+          final AreaD item_area =
+            AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size));
+
+          final int action = random.nextInt(4);
+          if (action == 0 || objects.isEmpty()) {
+            final Object item = Integer.valueOf(counter);
+            counter = counter + 1;
+            objects.add(item);
+            items.put(item, item_area);
+            Assert.assertTrue(tree.insert(item, item_area));
+          } else if (action == 1) {
+            final Object item = objects.remove(random.nextInt(objects.size()));
+            items.remove(item);
+            Assert.assertTrue(tree.remove(item));
+          } else {
+            final Object item = objects.get(random.nextInt(objects.size()));
+            items.put(item, item_area);
+            Assert.assertTrue(tree.move(item, item_area));
+          }
+        }
+
+        if (round % 3 == 2) {
+          tree.trim();
+        }
+      }
+
+      snapshots.add(tree.snapshot());
+      expected.add(new HashMap<>(items));
+      snapshots.add(tree);
+      expected.add(items);
+
+      for (int index = 0; index < snapshots.size(); ++index) {
+        final QuadTreeReadableDType<Object> snapshot = snapshots.get(index);
+        final Map<Object, AreaD> snapshot_items = expected.get(index);
+
+        Assert.assertEquals((long) snapshot_items.size(), snapshot.size());
+        for (final Map.Entry<Object, AreaD> entry : snapshot_items.entrySet()) {
+          Assert.assertTrue(snapshot.contains(entry.getKey()));
+          Assert.assertEquals(
+            entry.getValue(), snapshot.areaFor(entry.getKey()));
+        }
+
+        final Map<Object, AreaD> received = new HashMap<>();
+        snapshot.iterateQuadrants(received, (context, quadrant, depth) -> {
+          context.putAll(quadrant.objects());
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+        Assert.assertEquals(snapshot_items, received);
+
+        final Set<Object> overlapped_expected = new HashSet<>();
+        for (final Map.Entry<Object, AreaD> entry : snapshot_items.entrySet()) {
+          if (AreasD.overlaps(query, entry.getValue())) {
+            overlapped_expected.add(entry.getKey());
+          }
+        }
+
+        final Set<Object> overlapped = new HashSet<>();
+        snapshot.overlappedBy(query, overlapped);
+        Assert.assertEquals(overlapped_expected, overlapped);
+      }
+    }
+  }
+
+  /**
+   * A snapshot does not contain objects inserted after it was taken.
+   */
+
+  @Test
+  public final void testSnapshotContains()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final QuadTreeDType<Object> tree = this.create(c);
+    Assert.assertTrue(tree.insert(item0, AreaD.of(10.0, 20.0, 10.0, 20.0)));
+
+    final QuadTreeReadableDType<Object> snapshot = tree.snapshot();
+    Assert.assertTrue(tree.insert(item1, AreaD.of(30.0, 40.0, 30.0, 40.0)));
+    tree.clear();
+
+    Assert.assertEquals(area, snapshot.bounds());
+    Assert.assertEquals(1L, snapshot.size());
+    Assert.assertTrue(snapshot.contains(item0));
+    Assert.assertFalse(snapshot.contains(item1));
+    Assert.assertEquals(0L, tree.size());
+
+    this.expected.expect(NoSuchElementException.class);
+    snapshot.areaFor(item1);
+  }
+
+  /**
+   * Parallel queries return the same results as sequential queries, both
+   * on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testParallelQueriesEquivalent()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final int capacity : new int[]{0, 4, 64}) {
+        final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+        cb.setArea(area);
+        cb.setMaximumObjectsPerLeaf(capacity);
+        cb.setParallelQueryThreshold(7);
+        final QuadTreeConfigurationD c = cb.build();
+
+        final Random random = new Random(0x5eedL);
+        final QuadTreeDType<Object> tree = this.create(c);
+        for (int index = 0; index < 1000; ++index) {
+          final int x = random.nextInt(95);
+          final int y = random.nextInt(95);
+          final int size = random.nextInt(6);
+          tree.insert(
+            Integer.valueOf(index),
+            AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size)));
+        }
+
+        final QuadTreeReadableDType<Object> snapshot = tree.snapshot();
+        for (int query = 0; query < 20; ++query) {
+          final int x = random.nextInt(80);
+          final int y = random.nextInt(80);
+          final int size = random.nextInt(60);
+          final AreaD query_area =
+            AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size));
+
+          for (final QuadTreeReadableDType<Object> target
+            : new QuadTreeReadableDType[]{tree, snapshot}) {
+            final Set<Object> contained = new HashSet<>();
+            final Set<Object> contained_parallel = new HashSet<>();
+            target.containedBy(query_area, contained);
+            target.containedByParallel(query_area, pool, contained_parallel);
+            Assert.assertEquals(contained, contained_parallel);
+
+            final Set<Object> overlapped = new HashSet<>();
+            final Set<Object> overlapped_parallel = new HashSet<>();
+            target.overlappedBy(query_area, overlapped);
+            target.overlappedByParallel(query_area, pool, overlapped_parallel);
+            Assert.assertEquals(overlapped, overlapped_parallel);
+          }
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Bulk-loading a tree in parallel produces the same tree as bulk-loading
+   * it on a single thread.
+   */
+
+  @Test
+  public final void testCreateFromParallelEquivalent()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, AreaD> items = new HashMap<>();
+    for (int index = 0; index < 2000; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size)));
+    }
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final int capacity : new int[]{0, 1, 8}) {
+        final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+        cb.setArea(area);
+        cb.setMaximumObjectsPerLeaf(capacity);
+        cb.setParallelBuildThreshold(16);
+        final QuadTreeConfigurationD c = cb.build();
+
+        final QuadTreeDType<Object> expected = this.createFrom(c, items);
+        final QuadTreeDType<Object> tree =
+          this.createFromParallel(c, items, pool);
+        Assert.assertEquals(expected.size(), tree.size());
+        Assert.assertEquals(expected, tree);
+        Assert.assertEquals(
+          (long) countQuadrants(expected), (long) countQuadrants(tree));
+
+        for (final Object item : objects) {
+          Assert.assertEquals(expected.contains(item), tree.contains(item));
+        }
+
+        final Set<Object> expected_items = new HashSet<>();
+        final Set<Object> received_items = new HashSet<>();
+        expected.overlappedBy(area, expected_items);
+        tree.overlappedBy(area, received_items);
+        Assert.assertEquals(expected_items, received_items);
+
+        for (final Object item : expected_items) {
+          Assert.assertTrue(tree.remove(item));
+        }
+        Assert.assertEquals(0L, tree.size());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * A batch of queries returns the same results as each query executed
+   * separately, both on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testOverlappedByAllEquivalent()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final QuadTreeDType<Object> tree = this.create(c);
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(95);
+      final int y = random.nextInt(95);
+      final int size = random.nextInt(6);
+      tree.insert(
+        Integer.valueOf(index),
+        AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size)));
+    }
+
+    final List<AreaD> queries = new ArrayList<>();
+    for (int query = 0; query < 40; ++query) {
+      final int x = random.nextInt(120) - 10;
+      final int y = random.nextInt(120) - 10;
+      final int size = random.nextInt(30);
+      queries.add(AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size)));
+    }
+
+    final QuadTreeReadableDType<Object> snapshot = tree.snapshot();
+    for (final QuadTreeReadableDType<Object> target
+      : new QuadTreeReadableDType[]{tree, snapshot}) {
+      final List<Set<Object>> received = new ArrayList<>();
+      for (int query = 0; query < queries.size(); ++query) {
+        received.add(new HashSet<>());
+      }
+
+      target.overlappedByAll(queries, (query, item, x0, x1, y0, y1) -> {
+        Assert.assertTrue(received.get(query).add(item));
+        Assert.assertEquals(target.areaFor(item), AreaD.of(x0, x1, y0, y1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+      for (int query = 0; query < queries.size(); ++query) {
+        final Set<Object> expected = new HashSet<>();
+        target.overlappedBy(queries.get(query), expected);
+        Assert.assertEquals(expected, received.get(query));
+      }
+    }
+  }
+
+  /**
+   * A batch of queries stops when the consumer asks it to.
+   */
+
+  @Test
+  public final void testOverlappedByAllTerminate()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeDType<Object> tree = this.create(cb.build());
+    for (int index = 0; index < 10; ++index) {
+      tree.insert(Integer.valueOf(index), AreaD.of(10.0, 20.0, 10.0, 20.0));
+    }
+
+    final List<AreaD> queries = new ArrayList<>();
+    queries.add(area);
+    queries.add(area);
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.overlappedByAll(queries, (query, item, x0, x1, y0, y1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * A packet of rays returns the same results as each ray cast separately,
+   * both on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testRaycastAllEquivalent()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final QuadTreeDType<Object> tree = this.create(c);
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(95);
+      final int y = random.nextInt(95);
+      final int size = random.nextInt(6);
+      tree.insert(
+        Integer.valueOf(index),
+        AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size)));
+    }
+
+    final List<Ray2D> rays = new ArrayList<>();
+    for (int index = 0; index < 40; ++index) {
+      final double angle = random.nextDouble() * 2.0 * Math.PI;
+      rays.add(Ray2D.of(
+        Vector2D.of(
+          (double) (random.nextInt(140) - 20),
+          (double) (random.nextInt(140) - 20)),
+        Vector2D.of(Math.cos(angle), Math.sin(angle))));
+    }
+
+    final QuadTreeReadableDType<Object> snapshot = tree.snapshot();
+    for (final QuadTreeReadableDType<Object> target
+      : new QuadTreeReadableDType[]{tree, snapshot}) {
+      final List<Map<Object, Double>> received = new ArrayList<>();
+      for (int index = 0; index < rays.size(); ++index) {
+        received.add(new HashMap<>());
+      }
+
+      target.raycastAll(rays, (ray, item, x0, x1, y0, y1, distance) -> {
+        Assert.assertNull(received.get(ray).put(item, Double.valueOf(distance)));
+        Assert.assertEquals(target.areaFor(item), AreaD.of(x0, x1, y0, y1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+      for (int index = 0; index < rays.size(); ++index) {
+        final Map<Object, Double> expected = new HashMap<>();
+        target.raycast(rays.get(index), (item, x0, x1, y0, y1, distance) -> {
+          expected.put(item, Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+        Assert.assertEquals(expected, received.get(index));
+      }
+    }
+  }
+
+  /**
+   * A packet of rays stops when the consumer asks it to.
+   */
+
+  @Test
+  public final void testRaycastAllTerminate()
+  {
+    final AreaD area =
+      AreaD.of(0.0, 100.0, 0.0, 100.0);
+
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeDType<Object> tree = this.create(cb.build());
+    for (int index = 0; index < 10; ++index) {
+      tree.insert(Integer.valueOf(index), AreaD.of(10.0, 20.0, 10.0, 20.0));
+    }
+
+    final Ray2D ray = Ray2D.of(Vector2D.of(0.0, 0.0), Vector2D.of(1.0, 1.0));
+    final List<Ray2D> rays = new ArrayList<>();
+    rays.add(ray);
+    rays.add(ray);
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.raycastAll(rays, (index, item, x0, x1, y0, y1, distance) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * Inserting, moving and querying with coordinates is equivalent to doing
+   * so with areas.
+   */
+
+  @Test
+  public final void testCoordinatesEquivalent()
+  {
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationD c = cb.build();
+
+    final QuadTreeDType<Object> expected = this.create(c);
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    final Random random = new Random(0x5eedL);
+    for (int index = 0; index < 300; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      final Integer item = Integer.valueOf(index);
+      Assert.assertEquals(
+        Boolean.valueOf(expected.insert(
+          item, AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size)))),
+        Boolean.valueOf(tree.insert(
+          item, (double) x, (double) (x + size), (double) y, (double) (y + size))));
+    }
+    Assert.assertEquals(expected, tree);
+
+    for (int index = 0; index < 300; index += 3) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final Integer item = Integer.valueOf(index);
+      Assert.assertEquals(
+        Boolean.valueOf(expected.move(
+          item, AreaD.of((double) x, (double) (x + 5), (double) y, (double) (y + 5)))),
+        Boolean.valueOf(tree.move(
+          item, (double) x, (double) (x + 5), (double) y, (double) (y + 5))));
+    }
+    Assert.assertEquals(expected, tree);
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final AreaD area = AreaD.of((double) x, (double) (x + 20), (double) y, (double) (y + 20));
+
+      final Set<Object> expected_over = new HashSet<>();
+      final Set<Object> received_over = new HashSet<>();
+      expected.overlappedBy(area, expected_over);
+      tree.overlappedBy(
+        (double) x, (double) (x + 20),
+        (double) y, (double) (y + 20),
+        (i, x0, x1, y0, y1) -> {
+          Assert.assertEquals(tree.areaFor(i), AreaD.of(x0, x1, y0, y1));
+          received_over.add(i);
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+      Assert.assertEquals(expected_over, received_over);
+
+      final Set<Object> expected_in = new HashSet<>();
+      final Set<Object> received_in = new HashSet<>();
+      expected.containedBy(area, expected_in);
+      tree.containedBy(
+        (double) x, (double) (x + 20),
+        (double) y, (double) (y + 20),
+        (i, x0, x1, y0, y1) -> {
+          received_in.add(i);
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+      Assert.assertEquals(expected_in, received_in);
+    }
+  }
+
+  /**
+   * Coordinates that do not describe a valid area are rejected.
+   */
+
+  @Test
+  public final void testCoordinatesInvalid()
+  {
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    final QuadTreeConfigurationD c = cb.build();
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    this.expected.expect(PreconditionViolationException.class);
+    tree.insert(Integer.valueOf(0), 20.0, 10.0, 10.0, 20.0);
+  }
+
+  /**
+   * Objects that straddle the boundaries between quadrants remain in the
+   * root of an ordinary tree, but descend into the children of a loose
+   * tree.
+   */
+
+  @Test
+  public final void testLooseStraddling()
+  {
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationD tight_config = cb.build();
+    final QuadTreeConfigurationD loose_config =
+      tight_config.withLooseness(2.0);
+
+    final QuadTreeDType<Object> tight = this.create(tight_config);
+    final QuadTreeDType<Object> loose = this.create(loose_config);
+    for (int index = 0; index < 100; ++index) {
+      final AreaD area = AreaD.of(62.0, 66.0, (double) index, (double) (index + 4));
+      Assert.assertTrue(tight.insert(Integer.valueOf(index), area));
+      Assert.assertTrue(loose.insert(Integer.valueOf(index), area));
+    }
+
+    final AtomicInteger tight_root = new AtomicInteger(0);
+    tight.iterateQuadrants(tight_root, (context, quadrant, depth) -> {
+      if (depth == 0L) {
+        context.set(quadrant.objects().size());
+      }
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(100L, (long) tight_root.get());
+
+    final AtomicInteger loose_root = new AtomicInteger(-1);
+    final AtomicInteger loose_max = new AtomicInteger(0);
+    loose.iterateQuadrants(loose_root, (context, quadrant, depth) -> {
+      if (depth == 0L) {
+        context.set(quadrant.objects().size());
+      }
+      loose_max.set(Math.max(loose_max.get(), quadrant.objects().size()));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(0L, (long) loose_root.get());
+    Assert.assertTrue(loose_max.get() < 100);
+
+    final Set<Object> tight_over = new HashSet<>();
+    final Set<Object> loose_over = new HashSet<>();
+    final AreaD query = AreaD.of(60.0, 70.0, 10.0, 20.0);
+    tight.overlappedBy(query, tight_over);
+    loose.overlappedBy(query, loose_over);
+    Assert.assertEquals(tight_over, loose_over);
+  }
+
+  /**
+   * Queries against a loose tree agree with queries against an ordinary
+   * tree holding the same objects.
+   */
+
+  @Test
+  public final void testLooseEquivalent()
+  {
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationD tight_config = cb.build();
+
+    final QuadTreeDType<Object> tight = this.create(tight_config);
+    final QuadTreeDType<Object> loose =
+      this.create(tight_config.withLooseness(1.5));
+
+    final Integer[] items = new Integer[400];
+    final Random random = new Random(0x1005eL);
+    for (int index = 0; index < 400; ++index) {
+      items[index] = Integer.valueOf(index);
+      final int x = random.nextInt(108);
+      final int y = random.nextInt(108);
+      final int size = 1 + random.nextInt(20);
+      final AreaD area = AreaD.of((double) x, (double) (x + size), (double) y, (double) (y + size));
+      Assert.assertTrue(tight.insert(items[index], area));
+      Assert.assertTrue(loose.insert(items[index], area));
+    }
+
+    for (int index = 0; index < 400; index += 3) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final AreaD area = AreaD.of((double) x, (double) (x + 10), (double) y, (double) (y + 10));
+      Assert.assertTrue(tight.move(items[index], area));
+      Assert.assertTrue(loose.move(items[index], area));
+    }
+
+    for (int index = 0; index < 400; index += 5) {
+      Assert.assertEquals(
+        Boolean.valueOf(tight.remove(items[index])),
+        Boolean.valueOf(loose.remove(items[index])));
+    }
+
+    Assert.assertEquals(tight.size(), loose.size());
+    for (int index = 0; index < 400; ++index) {
+      final Integer item = items[index];
+      if (tight.contains(item)) {
+        Assert.assertEquals(tight.areaFor(item), loose.areaFor(item));
+      }
+    }
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(100);
+      final int y = random.nextInt(100);
+      final AreaD area = AreaD.of((double) x, (double) (x + 28), (double) y, (double) (y + 28));
+
+      final Set<Object> tight_over = new HashSet<>();
+      final Set<Object> loose_over = new HashSet<>();
+      tight.overlappedBy(area, tight_over);
+      loose.overlappedBy(area, loose_over);
+      Assert.assertEquals(tight_over, loose_over);
+
+      final Set<Object> tight_in = new HashSet<>();
+      final Set<Object> loose_in = new HashSet<>();
+      tight.containedBy(area, tight_in);
+      loose.containedBy(area, loose_in);
+      Assert.assertEquals(tight_in, loose_in);
+
+      final Ray2D ray = Ray2D.of(
+        Vector2D.of(0.0, (double) random.nextInt(128)),
+        Vector2D.of(1.0, random.nextDouble() - 0.5));
+      final Set<Object> tight_hits = new HashSet<>();
+      final Set<Object> loose_hits = new HashSet<>();
+      tight.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+        tight_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      loose.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+        loose_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      Assert.assertEquals(tight_hits, loose_hits);
+    }
+  }
+
+  /**
+   * An expandable tree grows to hold objects outside of its initial bounds.
+   */
+
+  @Test
+  public final void testExpandableInsertOutside()
+  {
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    final QuadTreeConfigurationD fixed_config = cb.build();
+    final QuadTreeDType<Object> fixed = this.create(fixed_config);
+    final QuadTreeDType<Object> tree =
+      this.create(fixed_config.withExpandable(true));
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final AreaD area0 = AreaD.of(250.0, 260.0, 10.0, 20.0);
+    final AreaD area1 = AreaD.of(-310.0, -300.0, -5.0, 5.0);
+
+    Assert.assertFalse(fixed.insert(item0, area0));
+    Assert.assertEquals(AreaD.of(0.0, 100.0, 0.0, 100.0), fixed.bounds());
+
+    Assert.assertTrue(tree.insert(item0, area0));
+    Assert.assertEquals(AreaD.of(0.0, 400.0, 0.0, 400.0), tree.bounds());
+    Assert.assertTrue(tree.insert(item1, area1));
+    Assert.assertEquals(AreaD.of(-400.0, 400.0, -400.0, 400.0), tree.bounds());
+    Assert.assertEquals(2L, tree.size());
+    Assert.assertEquals(area0, tree.areaFor(item0));
+    Assert.assertEquals(area1, tree.areaFor(item1));
+
+    final Set<Object> all = new HashSet<>();
+    tree.overlappedBy(tree.bounds(), all);
+    Assert.assertEquals(2L, (long) all.size());
+
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(area0, contained);
+    Assert.assertEquals(Collections.singleton(item0), contained);
+
+    final AreaD area2 = AreaD.of(1000.0, 1010.0, -40.0, -30.0);
+    Assert.assertTrue(tree.move(item0, area2));
+    Assert.assertEquals(area2, tree.areaFor(item0));
+
+    final Set<Object> moved = new HashSet<>();
+    tree.overlappedBy(area2, moved);
+    Assert.assertEquals(Collections.singleton(item0), moved);
+  }
+
+  /**
+   * Inserting, moving, removing and querying objects in an expandable tree
+   * is equivalent to doing so in a tree that is large enough to hold every
+   * object from the start.
+   */
+
+  @Test
+  public final void testExpandableEquivalent()
+  {
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(-1024.0, 1024.0, -1024.0, 1024.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationD fixed_config = cb.build();
+    final QuadTreeConfigurationD expand_config =
+      fixed_config.withArea(AreaD.of(0.0, 16.0, 0.0, 16.0)).withExpandable(true);
+
+    final QuadTreeDType<Object> fixed = this.create(fixed_config);
+    final QuadTreeDType<Object> expand = this.create(expand_config);
+    final QuadTreeDType<Object> loose =
+      this.create(expand_config.withLooseness(1.5));
+
+    final Integer[] items = new Integer[300];
+    final Map<Object, AreaD> initial = new HashMap<>();
+    final Random random = new Random(0xe7a9dL);
+    for (int index = 0; index < 300; ++index) {
+      items[index] = Integer.valueOf(index);
+      final int x = random.nextInt(2000) - 1000;
+      final int y = random.nextInt(2000) - 1000;
+      final int size = 1 + random.nextInt(20);
+      final AreaD area = AreaD.of(
+        (double) x, (double) (x + size), (double) y, (double) (y + size));
+      Assert.assertTrue(fixed.insert(items[index], area));
+      Assert.assertTrue(expand.insert(items[index], area));
+      Assert.assertTrue(loose.insert(items[index], area));
+      initial.put(items[index], area);
+    }
+
+    final QuadTreeDType<Object> bulk = this.createFrom(expand_config, initial);
+    Assert.assertEquals(300L, bulk.size());
+    Assert.assertEquals(expand.bounds(), bulk.bounds());
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(1900) - 950;
+      final int y = random.nextInt(1900) - 950;
+      final AreaD area = AreaD.of(
+        (double) x, (double) (x + 100), (double) y, (double) (y + 100));
+      final Set<Object> expected_over = new HashSet<>();
+      final Set<Object> received_over = new HashSet<>();
+      expand.overlappedBy(area, expected_over);
+      bulk.overlappedBy(area, received_over);
+      Assert.assertEquals(expected_over, received_over);
+    }
+
+    for (int index = 0; index < 300; index += 3) {
+      final int x = random.nextInt(2000) - 1000;
+      final int y = random.nextInt(2000) - 1000;
+      final AreaD area = AreaD.of(
+        (double) x, (double) (x + 10), (double) y, (double) (y + 10));
+      Assert.assertTrue(fixed.move(items[index], area));
+      Assert.assertTrue(expand.move(items[index], area));
+      Assert.assertTrue(loose.move(items[index], area));
+    }
+
+    for (int index = 0; index < 300; index += 5) {
+      Assert.assertTrue(fixed.remove(items[index]));
+      Assert.assertTrue(expand.remove(items[index]));
+      Assert.assertTrue(loose.remove(items[index]));
+    }
+
+    Assert.assertEquals(fixed.size(), expand.size());
+    Assert.assertEquals(fixed.size(), loose.size());
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(1900) - 950;
+      final int y = random.nextInt(1900) - 950;
+      final AreaD area = AreaD.of(
+        (double) x, (double) (x + 100), (double) y, (double) (y + 100));
+
+      final Set<Object> fixed_over = new HashSet<>();
+      final Set<Object> expand_over = new HashSet<>();
+      final Set<Object> loose_over = new HashSet<>();
+      fixed.overlappedBy(area, fixed_over);
+      expand.overlappedBy(area, expand_over);
+      loose.overlappedBy(area, loose_over);
+      Assert.assertEquals(fixed_over, expand_over);
+      Assert.assertEquals(fixed_over, loose_over);
+
+      final Set<Object> fixed_in = new HashSet<>();
+      final Set<Object> expand_in = new HashSet<>();
+      final Set<Object> loose_in = new HashSet<>();
+      fixed.containedBy(area, fixed_in);
+      expand.containedBy(area, expand_in);
+      loose.containedBy(area, loose_in);
+      Assert.assertEquals(fixed_in, expand_in);
+      Assert.assertEquals(fixed_in, loose_in);
+
+      final Ray2D ray = Ray2D.of(
+        Vector2D.of(-1100.0, (double) (random.nextInt(2000) - 1000)),
+        Vector2D.of(1.0, random.nextDouble() - 0.5));
+      final Set<Object> fixed_hits = new HashSet<>();
+      final Set<Object> expand_hits = new HashSet<>();
+      fixed.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+        fixed_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      expand.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+        expand_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      Assert.assertEquals(fixed_hits, expand_hits);
+    }
+  }
+
+  /**
+   * Counting the objects contained within an area agrees with the
+   * objects passed to the consumer of a containment query, for trees built
+   * incrementally and in bulk, and for snapshots.
+   */
+
+  @Test
+  public final void testCountEquivalent()
+  {
+    for (final boolean trim : new boolean[]{false, true}) {
+      for (final double looseness : new double[]{1.0, 1.5}) {
+        final QuadTreeConfigurationD.Builder cb =
+          QuadTreeConfigurationD.builder();
+        cb.setArea(AreaD.of(0.0, 128.0, 0.0, 128.0));
+        cb.setMaximumObjectsPerLeaf(4);
+        cb.setTrimOnRemove(trim);
+        cb.setLooseness(looseness);
+        final QuadTreeConfigurationD c = cb.build();
+
+        final QuadTreeDType<Object> tree = this.create(c);
+        final Integer[] items = new Integer[400];
+        final Random random = new Random(0xc0a7L);
+        for (int index = 0; index < 400; ++index) {
+          items[index] = Integer.valueOf(index);
+          final int x = random.nextInt(108);
+          final int y = random.nextInt(108);
+          final int size = 1 + random.nextInt(20);
+          Assert.assertTrue(tree.insert(items[index], AreaD.of(
+            (double) x, (double) (x + size), (double) y, (double) (y + size))));
+        }
+
+        for (int index = 0; index < 400; index += 3) {
+          final int x = random.nextInt(118);
+          final int y = random.nextInt(118);
+          Assert.assertTrue(tree.move(items[index], AreaD.of(
+            (double) x, (double) (x + 10), (double) y, (double) (y + 10))));
+        }
+
+        final QuadTreeReadableDType<Object> snapshot = tree.snapshot();
+        final Map<Object, AreaD> snapshot_items = new HashMap<>();
+        for (int index = 0; index < 400; ++index) {
+          snapshot_items.put(items[index], tree.areaFor(items[index]));
+        }
+
+        for (int index = 0; index < 400; index += 5) {
+          Assert.assertTrue(tree.remove(items[index]));
+        }
+
+        final QuadTreeDType<Object> bulk = this.createFrom(c, snapshot_items);
+
+        Assert.assertEquals(tree.size(), tree.count(tree.bounds()));
+        Assert.assertEquals(400L, snapshot.count(snapshot.bounds()));
+        Assert.assertEquals(400L, bulk.count(bulk.bounds()));
+
+        for (int query = 0; query < 100; ++query) {
+          final int x = random.nextInt(100);
+          final int y = random.nextInt(100);
+          final int size = 1 + random.nextInt(64);
+          final AreaD area = AreaD.of(
+            (double) x, (double) (x + size), (double) y, (double) (y + size));
+          checkCount(tree, area);
+          checkCount(snapshot, area);
+          checkCount(bulk, area);
+        }
+      }
+    }
+  }
+
+  private static void checkCount(
+    final QuadTreeReadableDType<Object> tree,
+    final AreaD area)
+  {
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(area, contained);
+    Assert.assertEquals((long) contained.size(), tree.count(area));
+  }
+
+  /**
+   * Counting the objects in empty quadrants, and in areas that hold no
+   * objects, yields zero.
+   */
+
+  @Test
+  public final void testCountEmpty()
+  {
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(1);
+    final QuadTreeDType<Object> tree = this.create(cb.build());
+    Assert.assertEquals(0L, tree.count(tree.bounds()));
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    Assert.assertTrue(tree.insert(item0, AreaD.of(1.0, 2.0, 1.0, 2.0)));
+    Assert.assertTrue(tree.insert(item1, AreaD.of(100.0, 110.0, 100.0, 110.0)));
+    Assert.assertEquals(2L, tree.count(tree.bounds()));
+    Assert.assertEquals(0L, tree.count(AreaD.of(30.0, 90.0, 30.0, 90.0)));
+    Assert.assertEquals(1L, tree.count(AreaD.of(64.0, 128.0, 64.0, 128.0)));
+
+    Assert.assertTrue(tree.remove(item0));
+    Assert.assertTrue(tree.remove(item1));
+    Assert.assertEquals(0L, tree.count(tree.bounds()));
+  }
+
+  /**
+   * Counting within coordinates that do not describe a valid area is
+   * rejected.
+   */
+
+  @Test
+  public final void testCountInvalid()
+  {
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 100.0, 0.0, 100.0));
+    final QuadTreeConfigurationD c = cb.build();
+    final QuadTreeDType<Object> tree = this.create(c);
+
+    this.expected.expect(PreconditionViolationException.class);
+    tree.count(20.0, 10.0, 10.0, 20.0);
+  }
+
+  /**
+   * Entry raycasts report the same objects as ordinary raycasts, along
+   * with the parametric distance at which the ray enters each object.
+   */
+
+  @Test
+  public final void testRaycastEntry()
+  {
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeDType<Object> tree = this.create(cb.build());
+
+    final Integer near = Integer.valueOf(1000);
+    final Integer around = Integer.valueOf(1001);
+    Assert.assertTrue(tree.insert(near, AreaD.of(20.0, 30.0, 10.0, 40.0)));
+    Assert.assertTrue(tree.insert(around, AreaD.of(40.0, 60.0, 40.0, 60.0)));
+
+    final Map<Object, Double> simple = new HashMap<>();
+    tree.raycastEntry(
+      Ray2D.of(Vector2D.of(0.0, 15.0), Vector2D.of(1.0, 0.0)),
+      (item, x0, x1, y0, y1, distance) -> {
+        simple.put(item, Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(20.0, simple.get(near).doubleValue(), 0.000001);
+
+    simple.clear();
+    tree.raycastEntry(
+      Ray2D.of(Vector2D.of(50.0, 50.0), Vector2D.of(1.0, 0.0)),
+      (item, x0, x1, y0, y1, distance) -> {
+        simple.put(item, Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(0.0, simple.get(around).doubleValue(), 0.000001);
+
+    final Random random = new Random(0xe7a1L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(108);
+      final int y = random.nextInt(108);
+      final int size = 1 + random.nextInt(20);
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(index),
+        AreaD.of(
+          (double) x, (double) (x + size),
+          (double) y, (double) (y + size))));
+    }
+
+    final QuadTreeReadableDType<Object> snapshot = tree.snapshot();
+    for (int query = 0; query < 50; ++query) {
+      final Ray2D ray = Ray2D.of(
+        Vector2D.of(
+          random.nextDouble() * 128.0,
+          random.nextDouble() * 128.0),
+        Vector2D.of(
+          random.nextDouble() - 0.5,
+          random.nextDouble() - 0.5));
+      checkRaycastEntry(tree, ray);
+      checkRaycastEntry(snapshot, ray);
+    }
+  }
+
+  private static void checkRaycastEntry(
+    final QuadTreeReadableDType<Object> tree,
+    final Ray2D ray)
+  {
+    final Set<Object> expected = new HashSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+      expected.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final Set<Object> received = new HashSet<>();
+    tree.raycastEntry(ray, (item, x0, x1, y0, y1, distance) -> {
+      received.add(item);
+      Assert.assertEquals(
+        ray.intersectionParameterArea((double) x0, (double) y0, (double) x1, (double) y1),
+        distance,
+        0.000001);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+  }
+
+  /**
+   * A compiled tree answers every query in the same way as a snapshot of
+   * the tree taken at the same time, and is unaffected by later
+   * modifications to the tree.
+   */
+
+  @Test
+  public final void testCompileEquivalent()
+  {
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final boolean expandable : new boolean[]{false, true}) {
+        for (final double looseness : new double[]{1.0, 1.5}) {
+          final QuadTreeConfigurationD.Builder cb =
+            QuadTreeConfigurationD.builder();
+          cb.setArea(AreaD.of(0.0, 128.0, 0.0, 128.0));
+          cb.setMaximumObjectsPerLeaf(4);
+          cb.setExpandable(expandable);
+          cb.setLooseness(looseness);
+          cb.setParallelQueryThreshold(7);
+          final QuadTreeConfigurationD c = cb.build();
+
+          final double extent = expandable ? 200.0 : 108.0;
+          final QuadTreeDType<Object> tree = this.create(c);
+          final Random random = new Random(0xc0111e5L);
+          final Object[] inserted = new Object[500];
+          for (int index = 0; index < 500; ++index) {
+            inserted[index] = Integer.valueOf(index);
+            final double x = Math.floor(random.nextDouble() * extent);
+            final double y = Math.floor(random.nextDouble() * extent);
+            final double size = 1.0 + (double) random.nextInt(20);
+            Assert.assertTrue(tree.insert(
+              inserted[index], AreaD.of(x, x + size, y, y + size)));
+          }
+          for (int index = 0; index < 500; index += 7) {
+            Assert.assertTrue(tree.remove(inserted[index]));
+          }
+
+          final QuadTreeReadableDType<Object> snapshot = tree.snapshot();
+          final QuadTreeReadableDType<Object> compiled = tree.compile();
+          tree.clear();
+
+          checkCompiled(snapshot, compiled, random, pool);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void checkCompiled(
+    final QuadTreeReadableDType<Object> snapshot,
+    final QuadTreeReadableDType<Object> compiled,
+    final Random random,
+    final ForkJoinPool pool)
+  {
+    Assert.assertEquals(snapshot.size(), compiled.size());
+    Assert.assertEquals(snapshot.bounds(), compiled.bounds());
+
+    final List<Object> expected_quadrants = quadrants(snapshot);
+    Assert.assertEquals(expected_quadrants, quadrants(compiled));
+
+    final Map<Object, AreaD> items = new HashMap<>();
+    snapshot.iterateQuadrants(items, (context, quadrant, depth) -> {
+      context.putAll(quadrant.objects());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    for (final Map.Entry<Object, AreaD> entry : items.entrySet()) {
+      Assert.assertTrue(compiled.contains(entry.getKey()));
+      Assert.assertEquals(entry.getValue(), compiled.areaFor(entry.getKey()));
+    }
+    Assert.assertFalse(compiled.contains(Integer.valueOf(-1)));
+    Assert.assertEquals(
+      snapshot.size(),
+      compiled.map((item, area) -> item).size());
+
+    final List<AreaD> queries = new ArrayList<>();
+    for (int query = 0; query < 50; ++query) {
+      final double x = Math.floor(random.nextDouble() * 200.0);
+      final double y = Math.floor(random.nextDouble() * 200.0);
+      final double size = 1.0 + (double) random.nextInt(80);
+      final AreaD area = AreaD.of(x, x + size, y, y + size);
+      queries.add(area);
+
+      final Set<Object> contained = new HashSet<>();
+      snapshot.containedBy(area, contained);
+      final Set<Object> compiled_contained = new HashSet<>();
+      compiled.containedBy(area, compiled_contained);
+      Assert.assertEquals(contained, compiled_contained);
+      Assert.assertEquals((long) contained.size(), compiled.count(area));
+
+      final Set<Object> contained_parallel = new HashSet<>();
+      compiled.containedByParallel(area, pool, contained_parallel);
+      Assert.assertEquals(contained, contained_parallel);
+
+      final Set<Object> overlapped = new HashSet<>();
+      snapshot.overlappedBy(area, overlapped);
+      final Set<Object> compiled_overlapped = new HashSet<>();
+      compiled.overlappedBy(area, compiled_overlapped);
+      Assert.assertEquals(overlapped, compiled_overlapped);
+
+      final Set<Object> overlapped_parallel = new HashSet<>();
+      compiled.overlappedByParallel(area, pool, overlapped_parallel);
+      Assert.assertEquals(overlapped, overlapped_parallel);
+    }
+
+    final Set<List<Object>> batch = new HashSet<>();
+    snapshot.overlappedByAll(queries, (query, item, x0, x1, y0, y1) -> {
+      batch.add(Arrays.asList(Integer.valueOf(query), item));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    final Set<List<Object>> compiled_batch = new HashSet<>();
+    compiled.overlappedByAll(queries, (query, item, x0, x1, y0, y1) -> {
+      compiled_batch.add(Arrays.asList(Integer.valueOf(query), item));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(batch, compiled_batch);
+
+    final List<Ray2D> rays = new ArrayList<>();
+    for (int query = 0; query < 50; ++query) {
+      final Ray2D ray = Ray2D.of(
+        Vector2D.of(random.nextDouble() * 200.0, random.nextDouble() * 200.0),
+        Vector2D.of(random.nextDouble() - 0.5, random.nextDouble() - 0.5));
+      rays.add(ray);
+
+      Assert.assertEquals(
+        raycastDistances(snapshot, ray, false),
+        raycastDistances(compiled, ray, false));
+      Assert.assertEquals(
+        raycastDistances(snapshot, ray, true),
+        raycastDistances(compiled, ray, true));
+
+      for (final int limit : new int[]{1, 5, 1000}) {
+        Assert.assertEquals(
+          raycastUpToDistances(snapshot, ray, limit),
+          raycastUpToDistances(compiled, ray, limit));
+      }
+
+      final Vector2D point =
+        Vector2D.of(random.nextDouble() * 200.0, random.nextDouble() * 200.0);
+      Assert.assertEquals(
+        nearestDistances(snapshot, point),
+        nearestDistances(compiled, point));
+    }
+
+    final Set<List<Object>> ray_batch = new HashSet<>();
+    snapshot.raycastAll(rays, (ray, item, x0, x1, y0, y1, distance) -> {
+      ray_batch.add(Arrays.asList(
+        Integer.valueOf(ray), item, Double.valueOf(distance)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    final Set<List<Object>> compiled_ray_batch = new HashSet<>();
+    compiled.raycastAll(rays, (ray, item, x0, x1, y0, y1, distance) -> {
+      compiled_ray_batch.add(Arrays.asList(
+        Integer.valueOf(ray), item, Double.valueOf(distance)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(ray_batch, compiled_ray_batch);
+  }
+
+  private static List<Object> quadrants(
+    final QuadTreeReadableDType<Object> tree)
+  {
+    final List<Object> quadrants = new ArrayList<>();
+    tree.iterateQuadrants(quadrants, (context, quadrant, depth) -> {
+      context.add(Arrays.asList(
+        Long.valueOf(depth),
+        quadrant.area(),
+        new HashMap<>(quadrant.objects())));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    return quadrants;
+  }
+
+  private static Map<Object, Double> raycastDistances(
+    final QuadTreeReadableDType<Object> tree,
+    final Ray2D ray,
+    final boolean entry)
+  {
+    final Map<Object, Double> results = new HashMap<>();
+    final QuadTreeRaycastConsumerDType<Object> consumer =
+      (item, x0, x1, y0, y1, distance) -> {
+        results.put(item, Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      };
+    if (entry) {
+      tree.raycastEntry(ray, consumer);
+    } else {
+      tree.raycast(ray, consumer);
+    }
+    return results;
+  }
+
+  private static List<Double> raycastUpToDistances(
+    final QuadTreeReadableDType<Object> tree,
+    final Ray2D ray,
+    final int limit)
+  {
+    final List<QuadTreeRaycastResultD<Object>> results = new ArrayList<>();
+    tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, limit, results);
+    final List<Double> distances = new ArrayList<>();
+    for (final QuadTreeRaycastResultD<Object> result : results) {
+      distances.add(Double.valueOf(result.distance()));
+    }
+    return distances;
+  }
+
+  private static List<Double> nearestDistances(
+    final QuadTreeReadableDType<Object> tree,
+    final Vector2D point)
+  {
+    final List<Double> distances = new ArrayList<>();
+    tree.nearest(point, 8, (item, x0, x1, y0, y1, distance) -> {
+      distances.add(Double.valueOf(distance));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    return distances;
+  }
+
+  /**
+   * Compiling an empty tree yields an empty tree with the same bounds.
+   */
+
+  @Test
+  public final void testCompileEmpty()
+  {
+    final AreaD area = AreaD.of(0.0, 128.0, 0.0, 128.0);
+    final QuadTreeConfigurationD.Builder cb = QuadTreeConfigurationD.builder();
+    cb.setArea(area);
+    final QuadTreeDType<Object> tree = this.create(cb.build());
+
+    final QuadTreeReadableDType<Object> compiled = tree.compile();
+    Assert.assertEquals(0L, compiled.size());
+    Assert.assertEquals(area, compiled.bounds());
+    Assert.assertEquals(0L, compiled.count(area));
+    Assert.assertFalse(compiled.contains(Integer.valueOf(0)));
+
+    final Set<Object> overlapped = new HashSet<>();
+    compiled.overlappedBy(area, overlapped);
+    Assert.assertTrue(overlapped.isEmpty());
+
+    this.expected.expect(NoSuchElementException.class);
+    compiled.areaFor(Integer.valueOf(0));
+  }
+
+  /**
+   * A query listener receives the statistics of each query performed on the
+   * tree and on its snapshots, and receives nothing once it is removed.
+   */
+
+  @Test
+  public final void testQueryListener()
+  {
+    final QuadTreeConfigurationD.Builder cb =
+      QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeDType<Object> tree = this.create(cb.build());
+
+    final Random random = new Random(0x57a7L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final int size = 1 + random.nextInt(9);
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), AreaD.of(
+        (double) x, (double) (x + size), (double) y, (double) (y + size))));
+    }
+
+    final List<TreeQueryKind> kinds = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) -> {
+        kinds.add(query);
+        stats.add(new long[]{
+          nodes_visited, node_tests, object_tests, hits, max_depth});
+      }));
+
+    final AreaD target = AreaD.of(16.0, 80.0, 16.0, 80.0);
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(target, contained);
+    final Set<Object> overlapped = new HashSet<>();
+    tree.overlappedBy(target, overlapped);
+    final long count = tree.count(target);
+
+    final Ray2D ray =
+      Ray2D.of(Vector2D.of(0.0, 0.0), Vector2D.of(1.0, 1.0));
+    final Set<Object> hit = new HashSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+      hit.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    final List<QuadTreeRaycastResultD<Object>> up_to = new ArrayList<>();
+    tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 5, up_to);
+    final List<Object> nearest = new ArrayList<>();
+    tree.nearest(
+      Vector2D.of(64.0, 64.0),
+      7,
+      (item, x0, x1, y0, y1, distance) -> {
+        nearest.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+    Assert.assertEquals(
+      Arrays.asList(
+        TreeQueryKind.QUERY_CONTAINED_BY,
+        TreeQueryKind.QUERY_OVERLAPPED_BY,
+        TreeQueryKind.QUERY_COUNT,
+        TreeQueryKind.QUERY_RAYCAST,
+        TreeQueryKind.QUERY_RAYCAST_UP_TO,
+        TreeQueryKind.QUERY_NEAREST),
+      kinds);
+
+    final long[] expected_hits = {
+      (long) contained.size(),
+      (long) overlapped.size(),
+      count,
+      (long) hit.size(),
+      Math.min(5L, (long) hit.size()),
+      (long) nearest.size(),
+    };
+
+    Assert.assertEquals(count, (long) contained.size());
+    Assert.assertEquals(7L, (long) nearest.size());
+
+    Assert.assertEquals(expected_hits[4], (long) up_to.size());
+
+    for (int index = 0; index < expected_hits.length; ++index) {
+      final long[] query = stats.get(index);
+      Assert.assertTrue(query[0] > 0L);
+      Assert.assertTrue(query[1] > 0L);
+      Assert.assertTrue(query[2] >= 0L);
+      Assert.assertEquals(expected_hits[index], query[3]);
+      Assert.assertTrue(query[4] >= 0L && query[4] < 64L);
+    }
+
+    /*
+     * The overlap query examines objects in quadrants below the root.
+     */
+
+    Assert.assertTrue(stats.get(1)[2] >= (long) overlapped.size());
+    Assert.assertTrue(stats.get(1)[4] > 0L);
+
+    final QuadTreeReadableDType<Object> snapshot = tree.snapshot();
+    final Set<Object> snapshot_overlapped = new HashSet<>();
+    snapshot.overlappedBy(target, snapshot_overlapped);
+    Assert.assertEquals(overlapped, snapshot_overlapped);
+    Assert.assertEquals(7L, (long) kinds.size());
+    Assert.assertEquals(TreeQueryKind.QUERY_OVERLAPPED_BY, kinds.get(6));
+    Assert.assertEquals((long) overlapped.size(), stats.get(6)[3]);
+
+    tree.setQueryListener(Optional.empty());
+    tree.overlappedBy(target, new HashSet<>());
+    snapshot.containedBy(target, new HashSet<>());
+    Assert.assertEquals(7L, (long) kinds.size());
+  }
+
+  /**
+   * The depths reported to a query listener are measured from the root of
+   * the tree being queried, both for a tree that has expanded and for a
+   * snapshot taken before the expansion.
+   */
+
+  @Test
+  public final void testQueryListenerDepthAfterExpansion()
+  {
+    final QuadTreeConfigurationD.Builder cb =
+      QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 128.0, 0.0, 128.0));
+    cb.setExpandable(true);
+    final QuadTreeDType<Object> tree = this.create(cb.build());
+
+    final AreaD area0 = AreaD.of(1.0, 2.0, 1.0, 2.0);
+    Assert.assertTrue(tree.insert(Integer.valueOf(0), area0));
+
+    final List<Long> depths = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) ->
+        depths.add(Long.valueOf(max_depth))));
+
+    tree.overlappedBy(area0, new HashSet<>());
+    final long before = depths.get(0).longValue();
+    Assert.assertTrue(before > 0L);
+
+    final QuadTreeReadableDType<Object> snapshot = tree.snapshot();
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(1), AreaD.of(200.0, 210.0, 1.0, 2.0)));
+    Assert.assertEquals(AreaD.of(0.0, 256.0, 0.0, 256.0), tree.bounds());
+
+    snapshot.overlappedBy(area0, new HashSet<>());
+    tree.overlappedBy(area0, new HashSet<>());
+    snapshot.overlappedBy(area0, new HashSet<>());
+
+    Assert.assertEquals(
+      Arrays.asList(
+        Long.valueOf(before),
+        Long.valueOf(before),
+        Long.valueOf(before + 1L),
+        Long.valueOf(before)),
+      depths);
+  }
+
+  /**
+   * Batch queries and parallel queries are reported to the query listener,
+   * as are the queries performed on a compiled copy of the tree.
+   */
+
+  @Test
+  public final void testQueryListenerBatchParallelCompiled()
+  {
+    final QuadTreeConfigurationD.Builder cb =
+      QuadTreeConfigurationD.builder();
+    cb.setArea(AreaD.of(0.0, 128.0, 0.0, 128.0));
+    cb.setMaximumObjectsPerLeaf(4);
+    cb.setParallelQueryThreshold(7);
+    final QuadTreeDType<Object> tree = this.create(cb.build());
+
+    final Random random = new Random(0xba7c4L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final int size = 1 + random.nextInt(9);
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), AreaD.of(
+        (double) x, (double) (x + size), (double) y, (double) (y + size))));
+    }
+
+    final List<TreeQueryKind> kinds = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) -> {
+        kinds.add(query);
+        stats.add(new long[]{
+          nodes_visited, node_tests, object_tests, hits, max_depth});
+      }));
+
+    final List<AreaD> queries = Arrays.asList(
+      AreaD.of(16.0, 80.0, 16.0, 80.0),
+      AreaD.of(40.0, 120.0, 8.0, 64.0));
+    final long[] batch_hits = {0L};
+    tree.overlappedByAll(queries, (query, item, x0, x1, y0, y1) -> {
+      ++batch_hits[0];
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final List<Ray2D> rays = Arrays.asList(
+      Ray2D.of(Vector2D.of(0.0, 0.0), Vector2D.of(1.0, 1.0)),
+      Ray2D.of(Vector2D.of(0.0, 64.0), Vector2D.of(1.0, 0.0)));
+    final long[] ray_hits = {0L};
+    tree.raycastAll(rays, (ray, item, x0, x1, y0, y1, distance) -> {
+      ++ray_hits[0];
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final Set<Object> contained = new HashSet<>();
+    final Set<Object> overlapped = new HashSet<>();
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      tree.containedByParallel(queries.get(0), pool, contained);
+      tree.overlappedByParallel(queries.get(0), pool, overlapped);
+    } finally {
+      pool.shutdown();
+    }
+
+    final QuadTreeReadableDType<Object> compiled = tree.compile();
+    final Set<Object> compiled_overlapped = new HashSet<>();
+    compiled.overlappedBy(queries.get(0), compiled_overlapped);
+    final long compiled_count = compiled.count(queries.get(0));
+
+    Assert.assertEquals(
+      Arrays.asList(
+        TreeQueryKind.QUERY_OVERLAPPED_BY_ALL,
+        TreeQueryKind.QUERY_RAYCAST_ALL,
+        TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL,
+        TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL,
+        TreeQueryKind.QUERY_OVERLAPPED_BY,
+        TreeQueryKind.QUERY_COUNT),
+      kinds);
+
+    final long[] expected_hits = {
+      batch_hits[0],
+      ray_hits[0],
+      (long) contained.size(),
+      (long) overlapped.size(),
+      (long) compiled_overlapped.size(),
+      compiled_count,
+    };
+
+    Assert.assertEquals(overlapped, compiled_overlapped);
+    Assert.assertEquals(compiled_count, (long) contained.size());
+    Assert.assertTrue(batch_hits[0] > 0L);
+    Assert.assertTrue(ray_hits[0] > 0L);
+
+    for (int index = 0; index < expected_hits.length; ++index) {
+      final long[] query = stats.get(index);
+      Assert.assertTrue(query[0] > 0L);
+      Assert.assertTrue(query[1] > 0L);
+      Assert.assertTrue(query[2] >= 0L);
+      Assert.assertEquals(expected_hits[index], query[3]);
+      Assert.assertTrue(query[4] >= 0L && query[4] < 64L);
+    }
+
+    /*
+     * The compiled tree records the depth of each quadrant.
+     */
+
+    Assert.assertTrue(stats.get(4)[4] > 0L);
+
+    /*
+     * The compiled tree keeps the listener that the tree had when it was
+     * compiled.
+     */
+
+    tree.setQueryListener(Optional.empty());
+    tree.overlappedBy(queries.get(0), new HashSet<>());
+    compiled.overlappedBy(queries.get(0), new HashSet<>());
+    Assert.assertEquals(7L, (long) kinds.size());
+  }
 }
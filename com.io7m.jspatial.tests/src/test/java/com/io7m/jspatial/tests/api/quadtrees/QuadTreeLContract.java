@@ -16,14 +16,17 @@
 
 package com.io7m.jspatial.tests.api.quadtrees;
 
+import com.io7m.jaffirm.core.PreconditionViolationException;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jregions.core.unparameterized.areas.AreaL;
 import com.io7m.jregions.core.unparameterized.areas.AreasL;
 import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.TreeQueryKind;
 import com.io7m.jspatial.api.TreeVisitResult;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationL;
 import com.io7m.jspatial.api.quadtrees.QuadTreeLType;
 import com.io7m.jspatial.api.quadtrees.QuadTreeRaycastResultL;
+import com.io7m.jspatial.api.quadtrees.QuadTreeReadableLType;
 import com.io7m.jspatial.tests.api.AreaLContainedGenerator;
 import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
 import com.io7m.jtensors.core.unparameterized.vectors.Vectors2D;
@@ -33,13 +36,21 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -62,6 +73,15 @@ public abstract class QuadTreeLContract
 
   protected abstract <T> QuadTreeLType<T> create(QuadTreeConfigurationL config);
 
+  protected abstract <T> QuadTreeLType<T> createFrom(
+    QuadTreeConfigurationL config,
+    Map<T, AreaL> items);
+
+  protected abstract <T> QuadTreeLType<T> createFromParallel(
+    QuadTreeConfigurationL config,
+    Map<T, AreaL> items,
+    ForkJoinPool pool);
+
   /**
    * Simple identities.
    */
@@ -1380,4 +1400,2117 @@ public abstract class QuadTreeLContract
     Assert.assertTrue(tree.insert(item, item_area));
     Assert.assertEquals(1L, (long) QuadTreeLContract.countQuadrants(tree));
   }
+
+  /**
+   * Leaves are only split when they are full, and their objects are
+   * redistributed to the new child quadrants.
+   */
+
+  @Test
+  public final void testInsertCapacitySplit()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(2);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final Integer item2 = Integer.valueOf(2);
+
+    Assert.assertTrue(tree.insert(item0, AreaL.of(1L, 2L, 1L, 2L)));
+    Assert.assertTrue(tree.insert(item1, AreaL.of(60L, 61L, 60L, 61L)));
+    Assert.assertEquals(1L, (long) QuadTreeLContract.countQuadrants(tree));
+
+    Assert.assertTrue(tree.insert(item2, AreaL.of(40L, 60L, 40L, 60L)));
+    Assert.assertEquals(5L, (long) QuadTreeLContract.countQuadrants(tree));
+
+    final Map<Long, Set<Object>> by_depth = new HashMap<>();
+    tree.iterateQuadrants(by_depth, (context, quadrant, depth) -> {
+      context.computeIfAbsent(Long.valueOf((long) depth), k -> new HashSet<>())
+        .addAll(quadrant.objects().keySet());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    Assert.assertEquals(1L, (long) by_depth.get(Long.valueOf(0L)).size());
+    Assert.assertTrue(by_depth.get(Long.valueOf(0L)).contains(item2));
+    Assert.assertEquals(2L, (long) by_depth.get(Long.valueOf(1L)).size());
+    Assert.assertTrue(by_depth.get(Long.valueOf(1L)).contains(item0));
+    Assert.assertTrue(by_depth.get(Long.valueOf(1L)).contains(item1));
+
+    final Set<Object> items = new HashSet<>();
+    tree.containedBy(area, items);
+    Assert.assertEquals(3L, (long) items.size());
+
+    Assert.assertTrue(tree.remove(item0));
+    Assert.assertTrue(tree.remove(item1));
+    Assert.assertTrue(tree.remove(item2));
+    Assert.assertTrue(tree.isEmpty());
+  }
+
+  /**
+   * Splitting leaves only when full results in fewer quadrants than
+   * eager splitting.
+   */
+
+  @Test
+  public final void testInsertCapacityFewerQuadrants()
+  {
+    final AreaL area =
+      AreaL.of(0L, 128L, 0L, 128L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c_eager = cb.build();
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationL c_capacity = cb.build();
+
+    final QuadTreeLType<Object> tree_eager = this.create(c_eager);
+    final QuadTreeLType<Object> tree_capacity = this.create(c_capacity);
+
+    for (int index = 0; index < 16; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final int x = (index % 4) * 32;
+      final int y = (index / 4) * 32;
+      final AreaL item_area = AreaL.of(x + 1L, x + 2L, y + 1L, y + 2L);
+      Assert.assertTrue(tree_eager.insert(item, item_area));
+      Assert.assertTrue(tree_capacity.insert(item, item_area));
+    }
+
+    Assert.assertTrue(
+      QuadTreeLContract.countQuadrants(tree_capacity)
+        < QuadTreeLContract.countQuadrants(tree_eager));
+
+    final Set<Object> items_eager = new HashSet<>();
+    final Set<Object> items_capacity = new HashSet<>();
+    final AreaL query = AreaL.of(0L, 64L, 0L, 64L);
+    tree_eager.containedBy(query, items_eager);
+    tree_capacity.containedBy(query, items_capacity);
+    Assert.assertEquals(4L, (long) items_capacity.size());
+    Assert.assertEquals(items_eager, items_capacity);
+
+    for (int index = 0; index < 16; ++index) {
+      Assert.assertTrue(tree_capacity.remove(Integer.valueOf(index)));
+    }
+    Assert.assertTrue(tree_capacity.isEmpty());
+  }
+
+  /**
+   * Quadrants at the maximum depth are not split.
+   */
+
+  @Test
+  public final void testInsertMaximumDepth()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    cb.setMaximumDepth(1);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    final Integer item = Integer.valueOf(0);
+    final AreaL item_area = AreaL.of(1L, 2L, 1L, 2L);
+    Assert.assertTrue(tree.insert(item, item_area));
+    Assert.assertEquals(5L, (long) QuadTreeLContract.countQuadrants(tree));
+  }
+
+  /**
+   * Query consumers receive each item exactly once, with the correct bounds.
+   */
+
+  @Test
+  public final void testContainedByConsumer()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    final Map<Object, AreaL> expected = new HashMap<>();
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaL item_area =
+        AreaL.of(5L * index, 5L * index + 10L, 5L * index, 5L * index + 10L);
+      expected.put(item, item_area);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final Map<Object, AreaL> received = new HashMap<>();
+    tree.containedBy(area, (item, x0, x1, y0, y1) -> {
+      Assert.assertNull(received.put(item, AreaL.of(x0, x1, y0, y1)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+
+    received.clear();
+    tree.overlappedBy(area, (item, x0, x1, y0, y1) -> {
+      Assert.assertNull(received.put(item, AreaL.of(x0, x1, y0, y1)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+
+    final Set<Object> contained = new HashSet<>();
+    final Set<Object> contained_consumer = new HashSet<>();
+    final AreaL query = AreaL.of(0L, 30L, 0L, 30L);
+    tree.containedBy(query, contained);
+    tree.containedBy(query, (item, x0, x1, y0, y1) -> {
+      contained_consumer.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(5L, (long) contained.size());
+    Assert.assertEquals(contained, contained_consumer);
+  }
+
+  /**
+   * Query consumers can terminate queries early.
+   */
+
+  @Test
+  public final void testQueryConsumerTerminate()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaL item_area =
+        AreaL.of(5L * index, 5L * index + 10L, 5L * index, 5L * index + 10L);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.containedBy(area, (item, x0, x1, y0, y1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.containedBy(AreaL.of(1L, 99L, 1L, 99L), (item, x0, x1, y0, y1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.overlappedBy(area, (item, x0, x1, y0, y1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    final Ray2D ray = Ray2D.of(Vector2D.of(0.0, 0.0), Vector2D.of(1.0, 1.0));
+    tree.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * Raycast consumers receive the same results as the sorted raycast.
+   */
+
+  @Test
+  public final void testRaycastConsumer()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaL item_area =
+        AreaL.of(5L * index, 5L * index + 10L, 5L * index, 5L * index + 10L);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final Ray2D ray = Ray2D.of(Vector2D.of(0.0, 0.0), Vector2D.of(1.0, 1.0));
+    final SortedSet<QuadTreeRaycastResultL<Object>> sorted = new TreeSet<>();
+    tree.raycast(ray, sorted);
+    Assert.assertEquals(10L, (long) sorted.size());
+
+    final SortedSet<QuadTreeRaycastResultL<Object>> received = new TreeSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+      received.add(QuadTreeRaycastResultL.of(
+        distance, AreaL.of(x0, x1, y0, y1), item));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(sorted, received);
+  }
+
+  /**
+   * Nearest-first raycasts return the nearest items in order.
+   */
+
+  @Test
+  public final void testRaycastUpTo()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaL item_area =
+        AreaL.of(5L * index, 5L * index + 10L, 5L * index, 5L * index + 10L);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final Ray2D ray = Ray2D.of(
+      Vector2D.of(-10.0, -10.0),
+      Vectors2D.normalize(Vector2D.of(1.0, 1.0)));
+
+    {
+      final Optional<QuadTreeRaycastResultL<Object>> first_opt =
+        tree.raycastFirst(ray);
+      Assert.assertTrue(first_opt.isPresent());
+      final QuadTreeRaycastResultL<Object> first = first_opt.get();
+      Assert.assertEquals(Integer.valueOf(0), first.item());
+      Assert.assertEquals(10.0 * Math.sqrt(2.0), first.distance(), 0.000001);
+    }
+
+    {
+      final List<QuadTreeRaycastResultL<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 2, items);
+      Assert.assertEquals(2L, (long) items.size());
+      final Iterator<QuadTreeRaycastResultL<Object>> iter = items.iterator();
+      Assert.assertEquals(Integer.valueOf(0), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(1), iter.next().item());
+    }
+
+    {
+      final List<QuadTreeRaycastResultL<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, 30.0, 10, items);
+      Assert.assertEquals(3L, (long) items.size());
+      final Iterator<QuadTreeRaycastResultL<Object>> iter = items.iterator();
+      Assert.assertEquals(Integer.valueOf(0), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(1), iter.next().item());
+      Assert.assertEquals(Integer.valueOf(2), iter.next().item());
+    }
+
+    {
+      final List<QuadTreeRaycastResultL<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 100, items);
+      Assert.assertEquals(10L, (long) items.size());
+      int expected = 0;
+      for (final QuadTreeRaycastResultL<Object> result : items) {
+        Assert.assertEquals(Integer.valueOf(expected), result.item());
+        ++expected;
+      }
+    }
+
+    {
+      final List<QuadTreeRaycastResultL<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 0, items);
+      Assert.assertTrue(items.isEmpty());
+    }
+  }
+
+  /**
+   * Nearest-first raycasts keep every object at the same distance, such as
+   * objects whose bounds all contain the origin of the ray.
+   */
+
+  @Test
+  public final void testRaycastUpToTies()
+  {
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    final QuadTreeLType<Object> tree = this.create(cb.build());
+
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(0), AreaL.of(5L, 15L, 5L, 15L)));
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(1), AreaL.of(0L, 20L, 0L, 20L)));
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(2), AreaL.of(8L, 12L, 8L, 12L)));
+
+    final Ray2D ray = Ray2D.of(Vector2D.of(10.0, 10.0), Vector2D.of(1.0, 0.0));
+
+    {
+      final List<QuadTreeRaycastResultL<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 10, items);
+      Assert.assertEquals(3L, (long) items.size());
+      final Set<Object> received = new HashSet<>();
+      for (final QuadTreeRaycastResultL<Object> result : items) {
+        Assert.assertEquals(0.0, result.distance(), 0.0);
+        received.add(result.item());
+      }
+      Assert.assertEquals(3L, (long) received.size());
+    }
+
+    {
+      final List<QuadTreeRaycastResultL<Object>> items = new ArrayList<>();
+      tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 2, items);
+      Assert.assertEquals(2L, (long) items.size());
+    }
+
+    final Optional<QuadTreeRaycastResultL<Object>> first =
+      tree.raycastFirst(ray);
+    Assert.assertTrue(first.isPresent());
+    Assert.assertEquals(0.0, first.get().distance(), 0.0);
+  }
+
+  /**
+   * Nearest-first raycasts work in the negative direction.
+   */
+
+  @Test
+  public final void testRaycastFirstNegative()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaL item_area =
+        AreaL.of(5L * index, 5L * index + 10L, 5L * index, 5L * index + 10L);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final Ray2D ray = Ray2D.of(
+      Vector2D.of(110.0, 110.0),
+      Vectors2D.normalize(Vector2D.of(-1.0, -1.0)));
+
+    final Optional<QuadTreeRaycastResultL<Object>> first_opt =
+      tree.raycastFirst(ray);
+    Assert.assertTrue(first_opt.isPresent());
+    final QuadTreeRaycastResultL<Object> first = first_opt.get();
+    Assert.assertEquals(Integer.valueOf(9), first.item());
+    Assert.assertEquals(55.0 * Math.sqrt(2.0), first.distance(), 0.000001);
+
+    final Ray2D miss = Ray2D.of(
+      Vector2D.of(110.0, 110.0),
+      Vectors2D.normalize(Vector2D.of(1.0, 1.0)));
+    Assert.assertFalse(tree.raycastFirst(miss).isPresent());
+  }
+
+  /**
+   * Nearest neighbour queries return the nearest items, nearest first.
+   */
+
+  @Test
+  public final void testNearest()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(2);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaL item_area =
+        AreaL.of(5L * index, 5L * index + 10L, 5L * index, 5L * index + 10L);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    {
+      final List<Object> items = new ArrayList<>();
+      final List<Double> distances = new ArrayList<>();
+      tree.nearest(
+        Vector2D.of(-10.0, -10.0),
+        3,
+        (item, x0, x1, y0, y1, distance) -> {
+          items.add(item);
+          distances.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(3L, (long) items.size());
+      Assert.assertEquals(Integer.valueOf(0), items.get(0));
+      Assert.assertEquals(Integer.valueOf(1), items.get(1));
+      Assert.assertEquals(Integer.valueOf(2), items.get(2));
+      Assert.assertEquals(
+        10.0 * Math.sqrt(2.0), distances.get(0).doubleValue(), 0.000001);
+      Assert.assertEquals(
+        15.0 * Math.sqrt(2.0), distances.get(1).doubleValue(), 0.000001);
+    }
+
+    {
+      final List<Object> items = new ArrayList<>();
+      final List<Double> distances = new ArrayList<>();
+      tree.nearest(
+        Vector2D.of(50.0, 50.0),
+        3,
+        (item, x0, x1, y0, y1, distance) -> {
+          items.add(item);
+          distances.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(3L, (long) items.size());
+      Assert.assertTrue(items.contains(Integer.valueOf(8)));
+      Assert.assertTrue(items.contains(Integer.valueOf(9)));
+      Assert.assertEquals(Integer.valueOf(7), items.get(2));
+      Assert.assertEquals(0.0, distances.get(0).doubleValue(), 0.0);
+      Assert.assertEquals(0.0, distances.get(1).doubleValue(), 0.0);
+      Assert.assertEquals(
+        5.0 * Math.sqrt(2.0), distances.get(2).doubleValue(), 0.000001);
+    }
+  }
+
+  /**
+   * Nearest neighbour queries agree with an exhaustive search.
+   */
+
+  @Test
+  public final void testNearestExhaustive()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+    final Random random = new Random(0x5eedL);
+
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final AreaL item_area =
+        AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size));
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), item_area));
+    }
+
+    for (int query = 0; query < 20; ++query) {
+      final double px = random.nextDouble() * 120.0 - 10.0;
+      final double py = random.nextDouble() * 120.0 - 10.0;
+
+      final List<Double> expected = new ArrayList<>();
+      tree.map((item, item_area) -> {
+        final double dx = Math.max(
+          0.0, Math.max((double) item_area.minimumX() - px, px - (double) item_area.maximumX()));
+        final double dy = Math.max(
+          0.0, Math.max((double) item_area.minimumY() - py, py - (double) item_area.maximumY()));
+        expected.add(Double.valueOf(Math.sqrt(dx * dx + dy * dy)));
+        return item;
+      });
+      Collections.sort(expected);
+
+      final List<Double> received = new ArrayList<>();
+      tree.nearest(
+        Vector2D.of(px, py),
+        10,
+        (item, x0, x1, y0, y1, distance) -> {
+          received.add(Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+
+      Assert.assertEquals(expected.subList(0, 10), received);
+    }
+  }
+
+  /**
+   * Nearest neighbour queries can be terminated early, and return nothing for
+   * non-positive limits.
+   */
+
+  @Test
+  public final void testNearestTerminate()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    for (int index = 0; index < 10; ++index) {
+      final Integer item = Integer.valueOf(index);
+      final AreaL item_area =
+        AreaL.of(5L * index, 5L * index + 10L, 5L * index, 5L * index + 10L);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.nearest(
+      Vector2D.of(0.0, 0.0),
+      5,
+      (item, x0, x1, y0, y1, distance) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_TERMINATE;
+      });
+    Assert.assertEquals(1L, (long) count.get());
+
+    count.set(0);
+    tree.nearest(
+      Vector2D.of(0.0, 0.0),
+      0,
+      (item, x0, x1, y0, y1, distance) -> {
+        count.incrementAndGet();
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(0L, (long) count.get());
+  }
+
+  /**
+   * Bulk-loading a tree produces the same tree as inserting each item in
+   * turn.
+   */
+
+  @Test
+  public final void testCreateFromEquivalent()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final Random random = new Random(0x5eedL);
+    final Map<Object, AreaL> items = new HashMap<>();
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      items.put(
+        Integer.valueOf(index),
+        AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size)));
+    }
+
+    for (final int capacity : new int[]{0, 1, 8}) {
+      final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+      cb.setArea(area);
+      cb.setMaximumObjectsPerLeaf(capacity);
+      final QuadTreeConfigurationL c = cb.build();
+
+      final QuadTreeLType<Object> expected = this.create(c);
+      for (final Map.Entry<Object, AreaL> entry : items.entrySet()) {
+        expected.insert(entry.getKey(), entry.getValue());
+      }
+
+      final QuadTreeLType<Object> tree = this.createFrom(c, items);
+      Assert.assertEquals(expected.size(), tree.size());
+      Assert.assertEquals(expected, tree);
+      Assert.assertEquals(
+        (long) countQuadrants(expected), (long) countQuadrants(tree));
+
+      for (int query = 0; query < 20; ++query) {
+        final int x = random.nextInt(90);
+        final int y = random.nextInt(90);
+        final AreaL query_area =
+          AreaL.of((long) x, (long) (x + 20), (long) y, (long) (y + 20));
+
+        final Set<Object> expected_items = new HashSet<>();
+        final Set<Object> received_items = new HashSet<>();
+        expected.overlappedBy(query_area, expected_items);
+        tree.overlappedBy(query_area, received_items);
+        Assert.assertEquals(expected_items, received_items);
+      }
+    }
+  }
+
+  /**
+   * Bulk-loading a tree skips items that do not fit within the tree.
+   */
+
+  @Test
+  public final void testCreateFromOutside()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final Integer inside = Integer.valueOf(0);
+    final Integer outside = Integer.valueOf(1);
+    final Map<Object, AreaL> items = new HashMap<>();
+    items.put(inside, AreaL.of(10L, 20L, 10L, 20L));
+    items.put(outside, AreaL.of(90L, 110L, 10L, 20L));
+
+    final QuadTreeLType<Object> tree = this.createFrom(c, items);
+    Assert.assertEquals(1L, tree.size());
+    Assert.assertTrue(tree.contains(inside));
+    Assert.assertFalse(tree.contains(outside));
+    Assert.assertTrue(tree.remove(inside));
+    Assert.assertEquals(0L, tree.size());
+  }
+
+  /**
+   * Removing objects leaves the bounds of the remaining objects intact.
+   */
+
+  @Test
+  public final void testRemoveRetainsBounds()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, AreaL> items = new HashMap<>();
+    final QuadTreeLType<Object> tree = this.create(c);
+    for (int index = 0; index < 300; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final AreaL item_area =
+        AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size));
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, item_area);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    for (int index = 0; index < 300; index += 2) {
+      final Object item = objects.get(index);
+      Assert.assertTrue(tree.remove(item));
+      items.remove(item);
+    }
+
+    Assert.assertEquals((long) items.size(), tree.size());
+    for (final Map.Entry<Object, AreaL> entry : items.entrySet()) {
+      Assert.assertEquals(entry.getValue(), tree.areaFor(entry.getKey()));
+    }
+
+    final Map<Object, AreaL> received = new HashMap<>();
+    tree.iterateQuadrants(received, (context, quadrant, depth) -> {
+      context.putAll(quadrant.objects());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(items, received);
+
+    final Set<Object> overlapped = new HashSet<>();
+    tree.overlappedBy(area, overlapped);
+    Assert.assertEquals(items.keySet(), overlapped);
+  }
+
+  /**
+   * Moving objects produces the same tree contents as removing and
+   * re-inserting them.
+   */
+
+  @Test
+  public final void testMove()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(2);
+    cb.setTrimOnRemove(true);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, AreaL> items = new HashMap<>();
+    final QuadTreeLType<Object> tree = this.create(c);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final int size = 1 + random.nextInt(10);
+      final AreaL item_area =
+        AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size));
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, item_area);
+      Assert.assertTrue(tree.insert(item, item_area));
+    }
+
+    for (int round = 0; round < 10; ++round) {
+      for (final Object item : objects) {
+        final AreaL current = items.get(item);
+        final int x = Math.max(0, Math.min(90, (int) current.minimumX()
+          + random.nextInt(9) - 4));
+        final int y = Math.max(0, Math.min(90, (int) current.minimumY()
+          + random.nextInt(9) - 4));
+        final int size = 1 + random.nextInt(10);
+        final AreaL item_area =
+          AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size));
+        items.put(item, item_area);
+        Assert.assertTrue(tree.move(item, item_area));
+      }
+    }
+
+    final QuadTreeLType<Object> expected = this.create(c);
+    for (final Map.Entry<Object, AreaL> entry : items.entrySet()) {
+      expected.insert(entry.getKey(), entry.getValue());
+    }
+
+    Assert.assertEquals((long) items.size(), tree.size());
+    Assert.assertEquals(expected, tree);
+
+    final Map<Object, AreaL> received = new HashMap<>();
+    tree.iterateQuadrants(received, (context, quadrant, depth) -> {
+      context.putAll(quadrant.objects());
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(items, received);
+
+    for (int query = 0; query < 20; ++query) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final AreaL query_area =
+        AreaL.of((long) x, (long) (x + 20), (long) y, (long) (y + 20));
+
+      final Set<Object> expected_items = new HashSet<>();
+      final Set<Object> received_items = new HashSet<>();
+      expected.overlappedBy(query_area, expected_items);
+      tree.overlappedBy(query_area, received_items);
+      Assert.assertEquals(expected_items, received_items);
+    }
+  }
+
+  /**
+   * Moving an object that is not in the tree fails.
+   */
+
+  @Test
+  public final void testMoveNotPresent()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> tree = this.create(c);
+    Assert.assertFalse(tree.move(Integer.valueOf(0), area));
+    Assert.assertEquals(0L, tree.size());
+  }
+
+  /**
+   * Moving an object to bounds outside of the tree fails and leaves the
+   * object in place.
+   */
+
+  @Test
+  public final void testMoveOutside()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final Integer item = Integer.valueOf(0);
+    final AreaL item_area = AreaL.of(10L, 20L, 10L, 20L);
+    final QuadTreeLType<Object> tree = this.create(c);
+    Assert.assertTrue(tree.insert(item, item_area));
+    Assert.assertFalse(tree.move(item, AreaL.of(90L, 110L, 10L, 20L)));
+    Assert.assertEquals(1L, tree.size());
+    Assert.assertEquals(item_area, tree.areaFor(item));
+  }
+
+  /**
+   * Snapshots are unaffected by later modifications to the tree.
+   */
+
+  @Test
+  public final void testSnapshotIsolated()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+    final AreaL query =
+      AreaL.of(20L, 60L, 20L, 60L);
+
+    for (final boolean trim : new boolean[]{false, true}) {
+      final QuadTreeConfigurationL.Builder cb =
+        QuadTreeConfigurationL.builder();
+      cb.setArea(area);
+      cb.setMaximumObjectsPerLeaf(2);
+      cb.setTrimOnRemove(trim);
+      final QuadTreeConfigurationL c = cb.build();
+
+      final Random random = new Random(0x5eedL);
+      final List<Object> objects = new ArrayList<>();
+      final Map<Object, AreaL> items = new HashMap<>();
+      final QuadTreeLType<Object> tree = this.create(c);
+      final List<QuadTreeReadableLType<Object>> snapshots = new ArrayList<>();
+      final List<Map<Object, AreaL>> expected = new ArrayList<>();
+
+      int counter = 0;
+      for (int round = 0; round < 10; ++round) {
+        snapshots.add(tree.snapshot());
+        expected.add(new HashMap<>(items));
+
+        for (int step = 0; step < 50; ++step) {
+          final int x = random.nextInt(90);
+          final int y = random.nextInt(90);
+          final int size = 1 + random.nextInt(10);
+          final AreaL item_area =
+            AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size));
+
+          final int action = random.nextInt(4);
+          if (action == 0 || objects.isEmpty()) {
+            final Object item = Integer.valueOf(counter);
+            counter = counter + 1;
+            objects.add(item);
+            items.put(item, item_area);
+            Assert.assertTrue(tree.insert(item, item_area));
+          } else if (action == 1) {
+            final Object item = objects.remove(random.nextInt(objects.size()));
+            items.remove(item);
+            Assert.assertTrue(tree.remove(item));
+          } else {
+            final Object item = objects.get(random.nextInt(objects.size()));
+            items.put(item, item_area);
+            Assert.assertTrue(tree.move(item, item_area));
+          }
+        }
+
+        if (round % 3 == 2) {
+          tree.trim();
+        }
+      }
+
+      snapshots.add(tree.snapshot());
+      expected.add(new HashMap<>(items));
+      snapshots.add(tree);
+      expected.add(items);
+
+      for (int index = 0; index < snapshots.size(); ++index) {
+        final QuadTreeReadableLType<Object> snapshot = snapshots.get(index);
+        final Map<Object, AreaL> snapshot_items = expected.get(index);
+
+        Assert.assertEquals((long) snapshot_items.size(), snapshot.size());
+        for (final Map.Entry<Object, AreaL> entry : snapshot_items.entrySet()) {
+          Assert.assertTrue(snapshot.contains(entry.getKey()));
+          Assert.assertEquals(
+            entry.getValue(), snapshot.areaFor(entry.getKey()));
+        }
+
+        final Map<Object, AreaL> received = new HashMap<>();
+        snapshot.iterateQuadrants(received, (context, quadrant, depth) -> {
+          context.putAll(quadrant.objects());
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+        Assert.assertEquals(snapshot_items, received);
+
+        final Set<Object> overlapped_expected = new HashSet<>();
+        for (final Map.Entry<Object, AreaL> entry : snapshot_items.entrySet()) {
+          if (AreasL.overlaps(query, entry.getValue())) {
+            overlapped_expected.add(entry.getKey());
+          }
+        }
+
+        final Set<Object> overlapped = new HashSet<>();
+        snapshot.overlappedBy(query, overlapped);
+        Assert.assertEquals(overlapped_expected, overlapped);
+      }
+    }
+  }
+
+  /**
+   * A snapshot does not contain objects inserted after it was taken.
+   */
+
+  @Test
+  public final void testSnapshotContains()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final QuadTreeLType<Object> tree = this.create(c);
+    Assert.assertTrue(tree.insert(item0, AreaL.of(10L, 20L, 10L, 20L)));
+
+    final QuadTreeReadableLType<Object> snapshot = tree.snapshot();
+    Assert.assertTrue(tree.insert(item1, AreaL.of(30L, 40L, 30L, 40L)));
+    tree.clear();
+
+    Assert.assertEquals(area, snapshot.bounds());
+    Assert.assertEquals(1L, snapshot.size());
+    Assert.assertTrue(snapshot.contains(item0));
+    Assert.assertFalse(snapshot.contains(item1));
+    Assert.assertEquals(0L, tree.size());
+
+    this.expected.expect(NoSuchElementException.class);
+    snapshot.areaFor(item1);
+  }
+
+  /**
+   * Parallel queries return the same results as sequential queries, both
+   * on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testParallelQueriesEquivalent()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final int capacity : new int[]{0, 4, 64}) {
+        final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+        cb.setArea(area);
+        cb.setMaximumObjectsPerLeaf(capacity);
+        cb.setParallelQueryThreshold(7);
+        final QuadTreeConfigurationL c = cb.build();
+
+        final Random random = new Random(0x5eedL);
+        final QuadTreeLType<Object> tree = this.create(c);
+        for (int index = 0; index < 1000; ++index) {
+          final int x = random.nextInt(95);
+          final int y = random.nextInt(95);
+          final int size = random.nextInt(6);
+          tree.insert(
+            Integer.valueOf(index),
+            AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size)));
+        }
+
+        final QuadTreeReadableLType<Object> snapshot = tree.snapshot();
+        for (int query = 0; query < 20; ++query) {
+          final int x = random.nextInt(80);
+          final int y = random.nextInt(80);
+          final int size = random.nextInt(60);
+          final AreaL query_area =
+            AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size));
+
+          for (final QuadTreeReadableLType<Object> target
+            : new QuadTreeReadableLType[]{tree, snapshot}) {
+            final Set<Object> contained = new HashSet<>();
+            final Set<Object> contained_parallel = new HashSet<>();
+            target.containedBy(query_area, contained);
+            target.containedByParallel(query_area, pool, contained_parallel);
+            Assert.assertEquals(contained, contained_parallel);
+
+            final Set<Object> overlapped = new HashSet<>();
+            final Set<Object> overlapped_parallel = new HashSet<>();
+            target.overlappedBy(query_area, overlapped);
+            target.overlappedByParallel(query_area, pool, overlapped_parallel);
+            Assert.assertEquals(overlapped, overlapped_parallel);
+          }
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Bulk-loading a tree in parallel produces the same tree as bulk-loading
+   * it on a single thread.
+   */
+
+  @Test
+  public final void testCreateFromParallelEquivalent()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final Random random = new Random(0x5eedL);
+    final List<Object> objects = new ArrayList<>();
+    final Map<Object, AreaL> items = new HashMap<>();
+    for (int index = 0; index < 2000; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      final Integer item = Integer.valueOf(index);
+      objects.add(item);
+      items.put(item, AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size)));
+    }
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (final int capacity : new int[]{0, 1, 8}) {
+        final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+        cb.setArea(area);
+        cb.setMaximumObjectsPerLeaf(capacity);
+        cb.setParallelBuildThreshold(16);
+        final QuadTreeConfigurationL c = cb.build();
+
+        final QuadTreeLType<Object> expected = this.createFrom(c, items);
+        final QuadTreeLType<Object> tree =
+          this.createFromParallel(c, items, pool);
+        Assert.assertEquals(expected.size(), tree.size());
+        Assert.assertEquals(expected, tree);
+        Assert.assertEquals(
+          (long) countQuadrants(expected), (long) countQuadrants(tree));
+
+        for (final Object item : objects) {
+          Assert.assertEquals(expected.contains(item), tree.contains(item));
+        }
+
+        final Set<Object> expected_items = new HashSet<>();
+        final Set<Object> received_items = new HashSet<>();
+        expected.overlappedBy(area, expected_items);
+        tree.overlappedBy(area, received_items);
+        Assert.assertEquals(expected_items, received_items);
+
+        for (final Object item : expected_items) {
+          Assert.assertTrue(tree.remove(item));
+        }
+        Assert.assertEquals(0L, tree.size());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * A batch of queries returns the same results as each query executed
+   * separately, both on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testOverlappedByAllEquivalent()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final QuadTreeLType<Object> tree = this.create(c);
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(95);
+      final int y = random.nextInt(95);
+      final int size = random.nextInt(6);
+      tree.insert(
+        Integer.valueOf(index),
+        AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size)));
+    }
+
+    final List<AreaL> queries = new ArrayList<>();
+    for (int query = 0; query < 40; ++query) {
+      final int x = random.nextInt(120) - 10;
+      final int y = random.nextInt(120) - 10;
+      final int size = random.nextInt(30);
+      queries.add(AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size)));
+    }
+
+    final QuadTreeReadableLType<Object> snapshot = tree.snapshot();
+    for (final QuadTreeReadableLType<Object> target
+      : new QuadTreeReadableLType[]{tree, snapshot}) {
+      final List<Set<Object>> received = new ArrayList<>();
+      for (int query = 0; query < queries.size(); ++query) {
+        received.add(new HashSet<>());
+      }
+
+      target.overlappedByAll(queries, (query, item, x0, x1, y0, y1) -> {
+        Assert.assertTrue(received.get(query).add(item));
+        Assert.assertEquals(target.areaFor(item), AreaL.of(x0, x1, y0, y1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+      for (int query = 0; query < queries.size(); ++query) {
+        final Set<Object> expected = new HashSet<>();
+        target.overlappedBy(queries.get(query), expected);
+        Assert.assertEquals(expected, received.get(query));
+      }
+    }
+  }
+
+  /**
+   * A batch of queries stops when the consumer asks it to.
+   */
+
+  @Test
+  public final void testOverlappedByAllTerminate()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeLType<Object> tree = this.create(cb.build());
+    for (int index = 0; index < 10; ++index) {
+      tree.insert(Integer.valueOf(index), AreaL.of(10L, 20L, 10L, 20L));
+    }
+
+    final List<AreaL> queries = new ArrayList<>();
+    queries.add(area);
+    queries.add(area);
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.overlappedByAll(queries, (query, item, x0, x1, y0, y1) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * A packet of rays returns the same results as each ray cast separately,
+   * both on the tree and on snapshots of the tree.
+   */
+
+  @Test
+  public final void testRaycastAllEquivalent()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final Random random = new Random(0x5eedL);
+    final QuadTreeLType<Object> tree = this.create(c);
+    for (int index = 0; index < 500; ++index) {
+      final int x = random.nextInt(95);
+      final int y = random.nextInt(95);
+      final int size = random.nextInt(6);
+      tree.insert(
+        Integer.valueOf(index),
+        AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size)));
+    }
+
+    final List<Ray2D> rays = new ArrayList<>();
+    for (int index = 0; index < 40; ++index) {
+      final double angle = random.nextDouble() * 2.0 * Math.PI;
+      rays.add(Ray2D.of(
+        Vector2D.of(
+          (double) (random.nextInt(140) - 20),
+          (double) (random.nextInt(140) - 20)),
+        Vector2D.of(Math.cos(angle), Math.sin(angle))));
+    }
+
+    final QuadTreeReadableLType<Object> snapshot = tree.snapshot();
+    for (final QuadTreeReadableLType<Object> target
+      : new QuadTreeReadableLType[]{tree, snapshot}) {
+      final List<Map<Object, Double>> received = new ArrayList<>();
+      for (int index = 0; index < rays.size(); ++index) {
+        received.add(new HashMap<>());
+      }
+
+      target.raycastAll(rays, (ray, item, x0, x1, y0, y1, distance) -> {
+        Assert.assertNull(received.get(ray).put(item, Double.valueOf(distance)));
+        Assert.assertEquals(target.areaFor(item), AreaL.of(x0, x1, y0, y1));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+      for (int index = 0; index < rays.size(); ++index) {
+        final Map<Object, Double> expected = new HashMap<>();
+        target.raycast(rays.get(index), (item, x0, x1, y0, y1, distance) -> {
+          expected.put(item, Double.valueOf(distance));
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+        Assert.assertEquals(expected, received.get(index));
+      }
+    }
+  }
+
+  /**
+   * A packet of rays stops when the consumer asks it to.
+   */
+
+  @Test
+  public final void testRaycastAllTerminate()
+  {
+    final AreaL area =
+      AreaL.of(0L, 100L, 0L, 100L);
+
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(area);
+    final QuadTreeLType<Object> tree = this.create(cb.build());
+    for (int index = 0; index < 10; ++index) {
+      tree.insert(Integer.valueOf(index), AreaL.of(10L, 20L, 10L, 20L));
+    }
+
+    final Ray2D ray = Ray2D.of(Vector2D.of(0.0, 0.0), Vector2D.of(1.0, 1.0));
+    final List<Ray2D> rays = new ArrayList<>();
+    rays.add(ray);
+    rays.add(ray);
+
+    final AtomicInteger count = new AtomicInteger(0);
+    tree.raycastAll(rays, (index, item, x0, x1, y0, y1, distance) -> {
+      count.incrementAndGet();
+      return TreeVisitResult.RESULT_TERMINATE;
+    });
+    Assert.assertEquals(1L, (long) count.get());
+  }
+
+  /**
+   * Inserting, moving and querying with coordinates is equivalent to doing
+   * so with areas.
+   */
+
+  @Test
+  public final void testCoordinatesEquivalent()
+  {
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationL c = cb.build();
+
+    final QuadTreeLType<Object> expected = this.create(c);
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    final Random random = new Random(0x5eedL);
+    for (int index = 0; index < 300; ++index) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final int size = 1 + random.nextInt(10);
+      final Integer item = Integer.valueOf(index);
+      Assert.assertEquals(
+        Boolean.valueOf(expected.insert(
+          item, AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size)))),
+        Boolean.valueOf(tree.insert(
+          item, (long) x, (long) (x + size), (long) y, (long) (y + size))));
+    }
+    Assert.assertEquals(expected, tree);
+
+    for (int index = 0; index < 300; index += 3) {
+      final int x = random.nextInt(110);
+      final int y = random.nextInt(110);
+      final Integer item = Integer.valueOf(index);
+      Assert.assertEquals(
+        Boolean.valueOf(expected.move(
+          item, AreaL.of((long) x, (long) (x + 5), (long) y, (long) (y + 5)))),
+        Boolean.valueOf(tree.move(
+          item, (long) x, (long) (x + 5), (long) y, (long) (y + 5))));
+    }
+    Assert.assertEquals(expected, tree);
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(90);
+      final int y = random.nextInt(90);
+      final AreaL area = AreaL.of((long) x, (long) (x + 20), (long) y, (long) (y + 20));
+
+      final Set<Object> expected_over = new HashSet<>();
+      final Set<Object> received_over = new HashSet<>();
+      expected.overlappedBy(area, expected_over);
+      tree.overlappedBy(
+        (long) x, (long) (x + 20),
+        (long) y, (long) (y + 20),
+        (i, x0, x1, y0, y1) -> {
+          Assert.assertEquals(tree.areaFor(i), AreaL.of(x0, x1, y0, y1));
+          received_over.add(i);
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+      Assert.assertEquals(expected_over, received_over);
+
+      final Set<Object> expected_in = new HashSet<>();
+      final Set<Object> received_in = new HashSet<>();
+      expected.containedBy(area, expected_in);
+      tree.containedBy(
+        (long) x, (long) (x + 20),
+        (long) y, (long) (y + 20),
+        (i, x0, x1, y0, y1) -> {
+          received_in.add(i);
+          return TreeVisitResult.RESULT_CONTINUE;
+        });
+      Assert.assertEquals(expected_in, received_in);
+    }
+  }
+
+  /**
+   * Coordinates that do not describe a valid area are rejected.
+   */
+
+  @Test
+  public final void testCoordinatesInvalid()
+  {
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    final QuadTreeConfigurationL c = cb.build();
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    this.expected.expect(PreconditionViolationException.class);
+    tree.insert(Integer.valueOf(0), 20L, 10L, 10L, 20L);
+  }
+
+  /**
+   * Objects that straddle the boundaries between quadrants remain in the
+   * root of an ordinary tree, but descend into the children of a loose
+   * tree.
+   */
+
+  @Test
+  public final void testLooseStraddling()
+  {
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 128L, 0L, 128L));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationL tight_config = cb.build();
+    final QuadTreeConfigurationL loose_config =
+      tight_config.withLooseness(2.0);
+
+    final QuadTreeLType<Object> tight = this.create(tight_config);
+    final QuadTreeLType<Object> loose = this.create(loose_config);
+    for (int index = 0; index < 100; ++index) {
+      final AreaL area = AreaL.of(62L, 66L, (long) index, (long) (index + 4));
+      Assert.assertTrue(tight.insert(Integer.valueOf(index), area));
+      Assert.assertTrue(loose.insert(Integer.valueOf(index), area));
+    }
+
+    final AtomicInteger tight_root = new AtomicInteger(0);
+    tight.iterateQuadrants(tight_root, (context, quadrant, depth) -> {
+      if (depth == 0L) {
+        context.set(quadrant.objects().size());
+      }
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(100L, (long) tight_root.get());
+
+    final AtomicInteger loose_root = new AtomicInteger(-1);
+    final AtomicInteger loose_max = new AtomicInteger(0);
+    loose.iterateQuadrants(loose_root, (context, quadrant, depth) -> {
+      if (depth == 0L) {
+        context.set(quadrant.objects().size());
+      }
+      loose_max.set(Math.max(loose_max.get(), quadrant.objects().size()));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(0L, (long) loose_root.get());
+    Assert.assertTrue(loose_max.get() < 100);
+
+    final Set<Object> tight_over = new HashSet<>();
+    final Set<Object> loose_over = new HashSet<>();
+    final AreaL query = AreaL.of(60L, 70L, 10L, 20L);
+    tight.overlappedBy(query, tight_over);
+    loose.overlappedBy(query, loose_over);
+    Assert.assertEquals(tight_over, loose_over);
+  }
+
+  /**
+   * Queries against a loose tree agree with queries against an ordinary
+   * tree holding the same objects.
+   */
+
+  @Test
+  public final void testLooseEquivalent()
+  {
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 128L, 0L, 128L));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationL tight_config = cb.build();
+
+    final QuadTreeLType<Object> tight = this.create(tight_config);
+    final QuadTreeLType<Object> loose =
+      this.create(tight_config.withLooseness(1.5));
+
+    final Integer[] items = new Integer[400];
+    final Random random = new Random(0x1005eL);
+    for (int index = 0; index < 400; ++index) {
+      items[index] = Integer.valueOf(index);
+      final int x = random.nextInt(108);
+      final int y = random.nextInt(108);
+      final int size = 1 + random.nextInt(20);
+      final AreaL area = AreaL.of((long) x, (long) (x + size), (long) y, (long) (y + size));
+      Assert.assertTrue(tight.insert(items[index], area));
+      Assert.assertTrue(loose.insert(items[index], area));
+    }
+
+    for (int index = 0; index < 400; index += 3) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final AreaL area = AreaL.of((long) x, (long) (x + 10), (long) y, (long) (y + 10));
+      Assert.assertTrue(tight.move(items[index], area));
+      Assert.assertTrue(loose.move(items[index], area));
+    }
+
+    for (int index = 0; index < 400; index += 5) {
+      Assert.assertEquals(
+        Boolean.valueOf(tight.remove(items[index])),
+        Boolean.valueOf(loose.remove(items[index])));
+    }
+
+    Assert.assertEquals(tight.size(), loose.size());
+    for (int index = 0; index < 400; ++index) {
+      final Integer item = items[index];
+      if (tight.contains(item)) {
+        Assert.assertEquals(tight.areaFor(item), loose.areaFor(item));
+      }
+    }
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(100);
+      final int y = random.nextInt(100);
+      final AreaL area = AreaL.of((long) x, (long) (x + 28), (long) y, (long) (y + 28));
+
+      final Set<Object> tight_over = new HashSet<>();
+      final Set<Object> loose_over = new HashSet<>();
+      tight.overlappedBy(area, tight_over);
+      loose.overlappedBy(area, loose_over);
+      Assert.assertEquals(tight_over, loose_over);
+
+      final Set<Object> tight_in = new HashSet<>();
+      final Set<Object> loose_in = new HashSet<>();
+      tight.containedBy(area, tight_in);
+      loose.containedBy(area, loose_in);
+      Assert.assertEquals(tight_in, loose_in);
+
+      final Ray2D ray = Ray2D.of(
+        Vector2D.of(0.0, (double) random.nextInt(128)),
+        Vector2D.of(1.0, random.nextDouble() - 0.5));
+      final Set<Object> tight_hits = new HashSet<>();
+      final Set<Object> loose_hits = new HashSet<>();
+      tight.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+        tight_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      loose.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+        loose_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      Assert.assertEquals(tight_hits, loose_hits);
+    }
+  }
+
+  /**
+   * An expandable tree grows to hold objects outside of its initial bounds.
+   */
+
+  @Test
+  public final void testExpandableInsertOutside()
+  {
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    final QuadTreeConfigurationL fixed_config = cb.build();
+    final QuadTreeLType<Object> fixed = this.create(fixed_config);
+    final QuadTreeLType<Object> tree =
+      this.create(fixed_config.withExpandable(true));
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    final AreaL area0 = AreaL.of(250L, 260L, 10L, 20L);
+    final AreaL area1 = AreaL.of(-310L, -300L, -5L, 5L);
+
+    Assert.assertFalse(fixed.insert(item0, area0));
+    Assert.assertEquals(AreaL.of(0L, 100L, 0L, 100L), fixed.bounds());
+
+    Assert.assertTrue(tree.insert(item0, area0));
+    Assert.assertEquals(AreaL.of(0L, 400L, 0L, 400L), tree.bounds());
+    Assert.assertTrue(tree.insert(item1, area1));
+    Assert.assertEquals(AreaL.of(-400L, 400L, -400L, 400L), tree.bounds());
+    Assert.assertEquals(2L, tree.size());
+    Assert.assertEquals(area0, tree.areaFor(item0));
+    Assert.assertEquals(area1, tree.areaFor(item1));
+
+    final Set<Object> all = new HashSet<>();
+    tree.overlappedBy(tree.bounds(), all);
+    Assert.assertEquals(2L, (long) all.size());
+
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(area0, contained);
+    Assert.assertEquals(Collections.singleton(item0), contained);
+
+    final AreaL area2 = AreaL.of(1000L, 1010L, -40L, -30L);
+    Assert.assertTrue(tree.move(item0, area2));
+    Assert.assertEquals(area2, tree.areaFor(item0));
+
+    final Set<Object> moved = new HashSet<>();
+    tree.overlappedBy(area2, moved);
+    Assert.assertEquals(Collections.singleton(item0), moved);
+  }
+
+  /**
+   * Inserting, moving, removing and querying objects in an expandable tree
+   * is equivalent to doing so in a tree that is large enough to hold every
+   * object from the start.
+   */
+
+  @Test
+  public final void testExpandableEquivalent()
+  {
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(-1024L, 1024L, -1024L, 1024L));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeConfigurationL fixed_config = cb.build();
+    final QuadTreeConfigurationL expand_config =
+      fixed_config.withArea(AreaL.of(0L, 16L, 0L, 16L)).withExpandable(true);
+
+    final QuadTreeLType<Object> fixed = this.create(fixed_config);
+    final QuadTreeLType<Object> expand = this.create(expand_config);
+    final QuadTreeLType<Object> loose =
+      this.create(expand_config.withLooseness(1.5));
+
+    final Integer[] items = new Integer[300];
+    final Map<Object, AreaL> initial = new HashMap<>();
+    final Random random = new Random(0xe7a9dL);
+    for (int index = 0; index < 300; ++index) {
+      items[index] = Integer.valueOf(index);
+      final int x = random.nextInt(2000) - 1000;
+      final int y = random.nextInt(2000) - 1000;
+      final int size = 1 + random.nextInt(20);
+      final AreaL area = AreaL.of(
+        (long) x, (long) (x + size), (long) y, (long) (y + size));
+      Assert.assertTrue(fixed.insert(items[index], area));
+      Assert.assertTrue(expand.insert(items[index], area));
+      Assert.assertTrue(loose.insert(items[index], area));
+      initial.put(items[index], area);
+    }
+
+    final QuadTreeLType<Object> bulk = this.createFrom(expand_config, initial);
+    Assert.assertEquals(300L, bulk.size());
+    Assert.assertEquals(expand.bounds(), bulk.bounds());
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(1900) - 950;
+      final int y = random.nextInt(1900) - 950;
+      final AreaL area = AreaL.of(
+        (long) x, (long) (x + 100), (long) y, (long) (y + 100));
+      final Set<Object> expected_over = new HashSet<>();
+      final Set<Object> received_over = new HashSet<>();
+      expand.overlappedBy(area, expected_over);
+      bulk.overlappedBy(area, received_over);
+      Assert.assertEquals(expected_over, received_over);
+    }
+
+    for (int index = 0; index < 300; index += 3) {
+      final int x = random.nextInt(2000) - 1000;
+      final int y = random.nextInt(2000) - 1000;
+      final AreaL area = AreaL.of(
+        (long) x, (long) (x + 10), (long) y, (long) (y + 10));
+      Assert.assertTrue(fixed.move(items[index], area));
+      Assert.assertTrue(expand.move(items[index], area));
+      Assert.assertTrue(loose.move(items[index], area));
+    }
+
+    for (int index = 0; index < 300; index += 5) {
+      Assert.assertTrue(fixed.remove(items[index]));
+      Assert.assertTrue(expand.remove(items[index]));
+      Assert.assertTrue(loose.remove(items[index]));
+    }
+
+    Assert.assertEquals(fixed.size(), expand.size());
+    Assert.assertEquals(fixed.size(), loose.size());
+
+    for (int query = 0; query < 50; ++query) {
+      final int x = random.nextInt(1900) - 950;
+      final int y = random.nextInt(1900) - 950;
+      final AreaL area = AreaL.of(
+        (long) x, (long) (x + 100), (long) y, (long) (y + 100));
+
+      final Set<Object> fixed_over = new HashSet<>();
+      final Set<Object> expand_over = new HashSet<>();
+      final Set<Object> loose_over = new HashSet<>();
+      fixed.overlappedBy(area, fixed_over);
+      expand.overlappedBy(area, expand_over);
+      loose.overlappedBy(area, loose_over);
+      Assert.assertEquals(fixed_over, expand_over);
+      Assert.assertEquals(fixed_over, loose_over);
+
+      final Set<Object> fixed_in = new HashSet<>();
+      final Set<Object> expand_in = new HashSet<>();
+      final Set<Object> loose_in = new HashSet<>();
+      fixed.containedBy(area, fixed_in);
+      expand.containedBy(area, expand_in);
+      loose.containedBy(area, loose_in);
+      Assert.assertEquals(fixed_in, expand_in);
+      Assert.assertEquals(fixed_in, loose_in);
+
+      final Ray2D ray = Ray2D.of(
+        Vector2D.of(-1100.0, (double) (random.nextInt(2000) - 1000)),
+        Vector2D.of(1.0, random.nextDouble() - 0.5));
+      final Set<Object> fixed_hits = new HashSet<>();
+      final Set<Object> expand_hits = new HashSet<>();
+      fixed.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+        fixed_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      expand.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+        expand_hits.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+      Assert.assertEquals(fixed_hits, expand_hits);
+    }
+  }
+
+  /**
+   * Counting the objects contained within an area agrees with the
+   * objects passed to the consumer of a containment query, for trees built
+   * incrementally and in bulk, and for snapshots.
+   */
+
+  @Test
+  public final void testCountEquivalent()
+  {
+    for (final boolean trim : new boolean[]{false, true}) {
+      for (final double looseness : new double[]{1.0, 1.5}) {
+        final QuadTreeConfigurationL.Builder cb =
+          QuadTreeConfigurationL.builder();
+        cb.setArea(AreaL.of(0L, 128L, 0L, 128L));
+        cb.setMaximumObjectsPerLeaf(4);
+        cb.setTrimOnRemove(trim);
+        cb.setLooseness(looseness);
+        final QuadTreeConfigurationL c = cb.build();
+
+        final QuadTreeLType<Object> tree = this.create(c);
+        final Integer[] items = new Integer[400];
+        final Random random = new Random(0xc0a7L);
+        for (int index = 0; index < 400; ++index) {
+          items[index] = Integer.valueOf(index);
+          final int x = random.nextInt(108);
+          final int y = random.nextInt(108);
+          final int size = 1 + random.nextInt(20);
+          Assert.assertTrue(tree.insert(items[index], AreaL.of(
+            (long) x, (long) (x + size), (long) y, (long) (y + size))));
+        }
+
+        for (int index = 0; index < 400; index += 3) {
+          final int x = random.nextInt(118);
+          final int y = random.nextInt(118);
+          Assert.assertTrue(tree.move(items[index], AreaL.of(
+            (long) x, (long) (x + 10), (long) y, (long) (y + 10))));
+        }
+
+        final QuadTreeReadableLType<Object> snapshot = tree.snapshot();
+        final Map<Object, AreaL> snapshot_items = new HashMap<>();
+        for (int index = 0; index < 400; ++index) {
+          snapshot_items.put(items[index], tree.areaFor(items[index]));
+        }
+
+        for (int index = 0; index < 400; index += 5) {
+          Assert.assertTrue(tree.remove(items[index]));
+        }
+
+        final QuadTreeLType<Object> bulk = this.createFrom(c, snapshot_items);
+
+        Assert.assertEquals(tree.size(), tree.count(tree.bounds()));
+        Assert.assertEquals(400L, snapshot.count(snapshot.bounds()));
+        Assert.assertEquals(400L, bulk.count(bulk.bounds()));
+
+        for (int query = 0; query < 100; ++query) {
+          final int x = random.nextInt(100);
+          final int y = random.nextInt(100);
+          final int size = 1 + random.nextInt(64);
+          final AreaL area = AreaL.of(
+            (long) x, (long) (x + size), (long) y, (long) (y + size));
+          checkCount(tree, area);
+          checkCount(snapshot, area);
+          checkCount(bulk, area);
+        }
+      }
+    }
+  }
+
+  private static void checkCount(
+    final QuadTreeReadableLType<Object> tree,
+    final AreaL area)
+  {
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(area, contained);
+    Assert.assertEquals((long) contained.size(), tree.count(area));
+  }
+
+  /**
+   * Counting the objects in empty quadrants, and in areas that hold no
+   * objects, yields zero.
+   */
+
+  @Test
+  public final void testCountEmpty()
+  {
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 128L, 0L, 128L));
+    cb.setMaximumObjectsPerLeaf(1);
+    final QuadTreeLType<Object> tree = this.create(cb.build());
+    Assert.assertEquals(0L, tree.count(tree.bounds()));
+
+    final Integer item0 = Integer.valueOf(0);
+    final Integer item1 = Integer.valueOf(1);
+    Assert.assertTrue(tree.insert(item0, AreaL.of(1L, 2L, 1L, 2L)));
+    Assert.assertTrue(tree.insert(item1, AreaL.of(100L, 110L, 100L, 110L)));
+    Assert.assertEquals(2L, tree.count(tree.bounds()));
+    Assert.assertEquals(0L, tree.count(AreaL.of(30L, 90L, 30L, 90L)));
+    Assert.assertEquals(1L, tree.count(AreaL.of(64L, 128L, 64L, 128L)));
+
+    Assert.assertTrue(tree.remove(item0));
+    Assert.assertTrue(tree.remove(item1));
+    Assert.assertEquals(0L, tree.count(tree.bounds()));
+  }
+
+  /**
+   * Counting within coordinates that do not describe a valid area is
+   * rejected.
+   */
+
+  @Test
+  public final void testCountInvalid()
+  {
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 100L, 0L, 100L));
+    final QuadTreeConfigurationL c = cb.build();
+    final QuadTreeLType<Object> tree = this.create(c);
+
+    this.expected.expect(PreconditionViolationException.class);
+    tree.count(20L, 10L, 10L, 20L);
+  }
+
+  /**
+   * Entry raycasts report the same objects as ordinary raycasts, along
+   * with the parametric distance at which the ray enters each object.
+   */
+
+  @Test
+  public final void testRaycastEntry()
+  {
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 128L, 0L, 128L));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeLType<Object> tree = this.create(cb.build());
+
+    final Integer near = Integer.valueOf(1000);
+    final Integer around = Integer.valueOf(1001);
+    Assert.assertTrue(tree.insert(near, AreaL.of(20L, 30L, 10L, 40L)));
+    Assert.assertTrue(tree.insert(around, AreaL.of(40L, 60L, 40L, 60L)));
+
+    final Map<Object, Double> simple = new HashMap<>();
+    tree.raycastEntry(
+      Ray2D.of(Vector2D.of(0.0, 15.0), Vector2D.of(1.0, 0.0)),
+      (item, x0, x1, y0, y1, distance) -> {
+        simple.put(item, Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(20.0, simple.get(near).doubleValue(), 0.000001);
+
+    simple.clear();
+    tree.raycastEntry(
+      Ray2D.of(Vector2D.of(50.0, 50.0), Vector2D.of(1.0, 0.0)),
+      (item, x0, x1, y0, y1, distance) -> {
+        simple.put(item, Double.valueOf(distance));
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+    Assert.assertEquals(0.0, simple.get(around).doubleValue(), 0.000001);
+
+    final Random random = new Random(0xe7a1L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(108);
+      final int y = random.nextInt(108);
+      final int size = 1 + random.nextInt(20);
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(index),
+        AreaL.of(
+          (long) x, (long) (x + size),
+          (long) y, (long) (y + size))));
+    }
+
+    final QuadTreeReadableLType<Object> snapshot = tree.snapshot();
+    for (int query = 0; query < 50; ++query) {
+      final Ray2D ray = Ray2D.of(
+        Vector2D.of(
+          random.nextDouble() * 128.0,
+          random.nextDouble() * 128.0),
+        Vector2D.of(
+          random.nextDouble() - 0.5,
+          random.nextDouble() - 0.5));
+      checkRaycastEntry(tree, ray);
+      checkRaycastEntry(snapshot, ray);
+    }
+  }
+
+  private static void checkRaycastEntry(
+    final QuadTreeReadableLType<Object> tree,
+    final Ray2D ray)
+  {
+    final Set<Object> expected = new HashSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+      expected.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final Set<Object> received = new HashSet<>();
+    tree.raycastEntry(ray, (item, x0, x1, y0, y1, distance) -> {
+      received.add(item);
+      Assert.assertEquals(
+        ray.intersectionParameterArea((double) x0, (double) y0, (double) x1, (double) y1),
+        distance,
+        0.000001);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertEquals(expected, received);
+  }
+
+  /**
+   * A query listener receives the statistics of each query performed on the
+   * tree and on its snapshots, and receives nothing once it is removed.
+   */
+
+  @Test
+  public final void testQueryListener()
+  {
+    final QuadTreeConfigurationL.Builder cb =
+      QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 128L, 0L, 128L));
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeLType<Object> tree = this.create(cb.build());
+
+    final Random random = new Random(0x57a7L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final int size = 1 + random.nextInt(9);
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), AreaL.of(
+        (long) x, (long) (x + size), (long) y, (long) (y + size))));
+    }
+
+    final List<TreeQueryKind> kinds = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) -> {
+        kinds.add(query);
+        stats.add(new long[]{
+          nodes_visited, node_tests, object_tests, hits, max_depth});
+      }));
+
+    final AreaL target = AreaL.of(16L, 80L, 16L, 80L);
+    final Set<Object> contained = new HashSet<>();
+    tree.containedBy(target, contained);
+    final Set<Object> overlapped = new HashSet<>();
+    tree.overlappedBy(target, overlapped);
+    final long count = tree.count(target);
+
+    final Ray2D ray =
+      Ray2D.of(Vector2D.of(0.0, 0.0), Vector2D.of(1.0, 1.0));
+    final Set<Object> hit = new HashSet<>();
+    tree.raycast(ray, (item, x0, x1, y0, y1, distance) -> {
+      hit.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    final List<QuadTreeRaycastResultL<Object>> up_to = new ArrayList<>();
+    tree.raycastUpTo(ray, Double.POSITIVE_INFINITY, 5, up_to);
+    final List<Object> nearest = new ArrayList<>();
+    tree.nearest(
+      Vector2D.of(64.0, 64.0),
+      7,
+      (item, x0, x1, y0, y1, distance) -> {
+        nearest.add(item);
+        return TreeVisitResult.RESULT_CONTINUE;
+      });
+
+    Assert.assertEquals(
+      Arrays.asList(
+        TreeQueryKind.QUERY_CONTAINED_BY,
+        TreeQueryKind.QUERY_OVERLAPPED_BY,
+        TreeQueryKind.QUERY_COUNT,
+        TreeQueryKind.QUERY_RAYCAST,
+        TreeQueryKind.QUERY_RAYCAST_UP_TO,
+        TreeQueryKind.QUERY_NEAREST),
+      kinds);
+
+    final long[] expected_hits = {
+      (long) contained.size(),
+      (long) overlapped.size(),
+      count,
+      (long) hit.size(),
+      Math.min(5L, (long) hit.size()),
+      (long) nearest.size(),
+    };
+
+    Assert.assertEquals(count, (long) contained.size());
+    Assert.assertEquals(7L, (long) nearest.size());
+
+    Assert.assertEquals(expected_hits[4], (long) up_to.size());
+
+    for (int index = 0; index < expected_hits.length; ++index) {
+      final long[] query = stats.get(index);
+      Assert.assertTrue(query[0] > 0L);
+      Assert.assertTrue(query[1] > 0L);
+      Assert.assertTrue(query[2] >= 0L);
+      Assert.assertEquals(expected_hits[index], query[3]);
+      Assert.assertTrue(query[4] >= 0L && query[4] < 64L);
+    }
+
+    /*
+     * The overlap query examines objects in quadrants below the root.
+     */
+
+    Assert.assertTrue(stats.get(1)[2] >= (long) overlapped.size());
+    Assert.assertTrue(stats.get(1)[4] > 0L);
+
+    final QuadTreeReadableLType<Object> snapshot = tree.snapshot();
+    final Set<Object> snapshot_overlapped = new HashSet<>();
+    snapshot.overlappedBy(target, snapshot_overlapped);
+    Assert.assertEquals(overlapped, snapshot_overlapped);
+    Assert.assertEquals(7L, (long) kinds.size());
+    Assert.assertEquals(TreeQueryKind.QUERY_OVERLAPPED_BY, kinds.get(6));
+    Assert.assertEquals((long) overlapped.size(), stats.get(6)[3]);
+
+    tree.setQueryListener(Optional.empty());
+    tree.overlappedBy(target, new HashSet<>());
+    snapshot.containedBy(target, new HashSet<>());
+    Assert.assertEquals(7L, (long) kinds.size());
+  }
+
+  /**
+   * The depths reported to a query listener are measured from the root of
+   * the tree being queried, both for a tree that has expanded and for a
+   * snapshot taken before the expansion.
+   */
+
+  @Test
+  public final void testQueryListenerDepthAfterExpansion()
+  {
+    final QuadTreeConfigurationL.Builder cb =
+      QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 128L, 0L, 128L));
+    cb.setExpandable(true);
+    final QuadTreeLType<Object> tree = this.create(cb.build());
+
+    final AreaL area0 = AreaL.of(1L, 2L, 1L, 2L);
+    Assert.assertTrue(tree.insert(Integer.valueOf(0), area0));
+
+    final List<Long> depths = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) ->
+        depths.add(Long.valueOf(max_depth))));
+
+    tree.overlappedBy(area0, new HashSet<>());
+    final long before = depths.get(0).longValue();
+    Assert.assertTrue(before > 0L);
+
+    final QuadTreeReadableLType<Object> snapshot = tree.snapshot();
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(1), AreaL.of(200L, 210L, 1L, 2L)));
+    Assert.assertEquals(AreaL.of(0L, 256L, 0L, 256L), tree.bounds());
+
+    snapshot.overlappedBy(area0, new HashSet<>());
+    tree.overlappedBy(area0, new HashSet<>());
+    snapshot.overlappedBy(area0, new HashSet<>());
+
+    Assert.assertEquals(
+      Arrays.asList(
+        Long.valueOf(before),
+        Long.valueOf(before),
+        Long.valueOf(before + 1L),
+        Long.valueOf(before)),
+      depths);
+  }
+
+  /**
+   * Batch queries and parallel queries are reported to the query listener.
+   */
+
+  @Test
+  public final void testQueryListenerBatchParallel()
+  {
+    final QuadTreeConfigurationL.Builder cb =
+      QuadTreeConfigurationL.builder();
+    cb.setArea(AreaL.of(0L, 128L, 0L, 128L));
+    cb.setMaximumObjectsPerLeaf(4);
+    cb.setParallelQueryThreshold(7);
+    final QuadTreeLType<Object> tree = this.create(cb.build());
+
+    final Random random = new Random(0xba7c4L);
+    for (int index = 0; index < 200; ++index) {
+      final int x = random.nextInt(118);
+      final int y = random.nextInt(118);
+      final int size = 1 + random.nextInt(9);
+      Assert.assertTrue(tree.insert(Integer.valueOf(index), AreaL.of(
+        (long) x, (long) (x + size), (long) y, (long) (y + size))));
+    }
+
+    final List<TreeQueryKind> kinds = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>();
+    tree.setQueryListener(Optional.of(
+      (query, nodes_visited, node_tests, object_tests, hits, max_depth) -> {
+        kinds.add(query);
+        stats.add(new long[]{
+          nodes_visited, node_tests, object_tests, hits, max_depth});
+      }));
+
+    final List<AreaL> queries = Arrays.asList(
+      AreaL.of(16L, 80L, 16L, 80L),
+      AreaL.of(40L, 120L, 8L, 64L));
+    final long[] batch_hits = {0L};
+    tree.overlappedByAll(queries, (query, item, x0, x1, y0, y1) -> {
+      ++batch_hits[0];
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final List<Ray2D> rays = Arrays.asList(
+      Ray2D.of(Vector2D.of(0.0, 0.0), Vector2D.of(1.0, 1.0)),
+      Ray2D.of(Vector2D.of(0.0, 64.0), Vector2D.of(1.0, 0.0)));
+    final long[] ray_hits = {0L};
+    tree.raycastAll(rays, (ray, item, x0, x1, y0, y1, distance) -> {
+      ++ray_hits[0];
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    final Set<Object> contained = new HashSet<>();
+    final Set<Object> overlapped = new HashSet<>();
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      tree.containedByParallel(queries.get(0), pool, contained);
+      tree.overlappedByParallel(queries.get(0), pool, overlapped);
+    } finally {
+      pool.shutdown();
+    }
+
+    Assert.assertEquals(
+      Arrays.asList(
+        TreeQueryKind.QUERY_OVERLAPPED_BY_ALL,
+        TreeQueryKind.QUERY_RAYCAST_ALL,
+        TreeQueryKind.QUERY_CONTAINED_BY_PARALLEL,
+        TreeQueryKind.QUERY_OVERLAPPED_BY_PARALLEL),
+      kinds);
+
+    final long[] expected_hits = {
+      batch_hits[0],
+      ray_hits[0],
+      (long) contained.size(),
+      (long) overlapped.size(),
+    };
+
+    Assert.assertEquals((long) contained.size(), tree.count(queries.get(0)));
+    Assert.assertTrue(batch_hits[0] > 0L);
+
+    for (int index = 0; index < expected_hits.length; ++index) {
+      final long[] query = stats.get(index);
+      Assert.assertTrue(query[0] > 0L);
+      Assert.assertTrue(query[1] > 0L);
+      Assert.assertTrue(query[2] >= 0L);
+      Assert.assertEquals(expected_hits[index], query[3]);
+      Assert.assertTrue(query[4] >= 0L && query[4] < 64L);
+    }
+  }
 }
@@ -0,0 +1,587 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
+import com.io7m.jregions.core.unparameterized.areas.AreaI;
+import com.io7m.jregions.core.unparameterized.areas.AreaL;
+import com.io7m.jregions.core.unparameterized.areas.AreasD;
+import com.io7m.jregions.core.unparameterized.areas.AreasI;
+import com.io7m.jregions.core.unparameterized.areas.AreasL;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeI;
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+import com.io7m.jregions.core.unparameterized.volumes.VolumesD;
+import com.io7m.jregions.core.unparameterized.volumes.VolumesI;
+import com.io7m.jregions.core.unparameterized.volumes.VolumesL;
+import com.io7m.jspatial.api.Ray2D;
+import com.io7m.jspatial.api.Ray3D;
+import com.io7m.jspatial.implementation.spi.BoundsEngineScalar;
+import com.io7m.jspatial.implementation.spi.BoundsEngineType;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector2D;
+import com.io7m.jtensors.core.unparameterized.vectors.Vector3D;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.ServiceLoader;
+
+/**
+ * Tests for the bounds engines: The scalar engine, and any other engines
+ * that can be loaded on this platform.
+ */
+
+public final class BoundsEngineTest
+{
+  private static List<BoundsEngineType> engines()
+  {
+    final List<BoundsEngineType> engines = new ArrayList<>();
+    engines.add(new BoundsEngineScalar());
+    for (final BoundsEngineType engine
+      : ServiceLoader.load(BoundsEngineType.class)) {
+      engines.add(engine);
+    }
+    return engines;
+  }
+
+  /**
+   * Directions include zero components, so that the inverse direction has
+   * infinite components and rays may lie exactly on the faces of items.
+   */
+
+  private static double randomDirection(
+    final Random random)
+  {
+    return (double) (random.nextInt(5) - 2) * 0.5;
+  }
+
+  private static void randomBoundsD(
+    final Random random,
+    final double[] coordinates,
+    final int base,
+    final int axes)
+  {
+    for (int axis = 0; axis < axes; ++axis) {
+      final int min = random.nextInt(20);
+      coordinates[base + (axis * 2)] = (double) min;
+      coordinates[base + (axis * 2) + 1] = (double) (min + random.nextInt(4));
+    }
+  }
+
+  private static void randomBoundsL(
+    final Random random,
+    final long[] coordinates,
+    final int base,
+    final int axes)
+  {
+    for (int axis = 0; axis < axes; ++axis) {
+      final int min = random.nextInt(20);
+      coordinates[base + (axis * 2)] = (long) min;
+      coordinates[base + (axis * 2) + 1] = (long) (min + random.nextInt(4));
+    }
+  }
+
+  private static void randomBoundsI(
+    final Random random,
+    final int[] coordinates,
+    final int base,
+    final int axes)
+  {
+    for (int axis = 0; axis < axes; ++axis) {
+      final int min = random.nextInt(20);
+      coordinates[base + (axis * 2)] = min;
+      coordinates[base + (axis * 2) + 1] = (min + random.nextInt(4));
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link AreasD#overlaps}.
+   */
+
+  @Test
+  public void testOverlapsAreaD()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final double[] coordinates = new double[(first + count) * 4];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsD(random, coordinates, index * 4, 2);
+        }
+
+        final double[] target = new double[4];
+        randomBoundsD(random, target, 0, 2);
+        final AreaD query = AreaD.of(target[0], target[1], target[2], target[3]);
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 4;
+          if (AreasD.overlaps(query, AreaD.of(coordinates[base], coordinates[base + 1], coordinates[base + 2], coordinates[base + 3]))) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.overlapsArea(coordinates, first, count, query.minimumX(), query.maximumX(), query.minimumY(), query.maximumY()));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link AreasL#overlaps}.
+   */
+
+  @Test
+  public void testOverlapsAreaL()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final long[] coordinates = new long[(first + count) * 4];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsL(random, coordinates, index * 4, 2);
+        }
+
+        final long[] target = new long[4];
+        randomBoundsL(random, target, 0, 2);
+        final AreaL query = AreaL.of(target[0], target[1], target[2], target[3]);
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 4;
+          if (AreasL.overlaps(query, AreaL.of(coordinates[base], coordinates[base + 1], coordinates[base + 2], coordinates[base + 3]))) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.overlapsArea(coordinates, first, count, query.minimumX(), query.maximumX(), query.minimumY(), query.maximumY()));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link AreasI#overlaps}.
+   */
+
+  @Test
+  public void testOverlapsAreaI()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final int[] coordinates = new int[(first + count) * 4];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsI(random, coordinates, index * 4, 2);
+        }
+
+        final int[] target = new int[4];
+        randomBoundsI(random, target, 0, 2);
+        final AreaI query = AreaI.of(target[0], target[1], target[2], target[3]);
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 4;
+          if (AreasI.overlaps(query, AreaI.of(coordinates[base], coordinates[base + 1], coordinates[base + 2], coordinates[base + 3]))) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.overlapsArea(coordinates, first, count, query.minimumX(), query.maximumX(), query.minimumY(), query.maximumY()));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link Ray2D#intersectsArea}.
+   */
+
+  @Test
+  public void testIntersectsAreaD()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final double[] coordinates = new double[(first + count) * 4];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsD(random, coordinates, index * 4, 2);
+        }
+
+        final Ray2D ray = Ray2D.of(
+          Vector2D.of((double) (random.nextInt(30) - 5), (double) (random.nextInt(30) - 5)),
+          Vector2D.of(randomDirection(random), randomDirection(random)));
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 4;
+          if (ray.intersectsArea(
+              coordinates[base],
+              coordinates[base + 2],
+              coordinates[base + 1],
+              coordinates[base + 3])) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.intersectsArea(ray, coordinates, first, count));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link Ray2D#intersectsArea}.
+   */
+
+  @Test
+  public void testIntersectsAreaL()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final long[] coordinates = new long[(first + count) * 4];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsL(random, coordinates, index * 4, 2);
+        }
+
+        final Ray2D ray = Ray2D.of(
+          Vector2D.of((double) (random.nextInt(30) - 5), (double) (random.nextInt(30) - 5)),
+          Vector2D.of(randomDirection(random), randomDirection(random)));
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 4;
+          if (ray.intersectsArea(
+              (double) coordinates[base],
+              (double) coordinates[base + 2],
+              (double) coordinates[base + 1],
+              (double) coordinates[base + 3])) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.intersectsArea(ray, coordinates, first, count));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link Ray2D#intersectsArea}.
+   */
+
+  @Test
+  public void testIntersectsAreaI()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final int[] coordinates = new int[(first + count) * 4];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsI(random, coordinates, index * 4, 2);
+        }
+
+        final Ray2D ray = Ray2D.of(
+          Vector2D.of((double) (random.nextInt(30) - 5), (double) (random.nextInt(30) - 5)),
+          Vector2D.of(randomDirection(random), randomDirection(random)));
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 4;
+          if (ray.intersectsArea(
+              (double) coordinates[base],
+              (double) coordinates[base + 2],
+              (double) coordinates[base + 1],
+              (double) coordinates[base + 3])) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.intersectsArea(ray, coordinates, first, count));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link VolumesD#overlaps}.
+   */
+
+  @Test
+  public void testOverlapsVolumeD()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final double[] coordinates = new double[(first + count) * 6];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsD(random, coordinates, index * 6, 3);
+        }
+
+        final double[] target = new double[6];
+        randomBoundsD(random, target, 0, 3);
+        final VolumeD query = VolumeD.of(target[0], target[1], target[2], target[3], target[4], target[5]);
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 6;
+          if (VolumesD.overlaps(query, VolumeD.of(coordinates[base], coordinates[base + 1], coordinates[base + 2], coordinates[base + 3], coordinates[base + 4], coordinates[base + 5]))) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.overlapsVolume(coordinates, first, count, query.minimumX(), query.maximumX(), query.minimumY(), query.maximumY(), query.minimumZ(), query.maximumZ()));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link VolumesL#overlaps}.
+   */
+
+  @Test
+  public void testOverlapsVolumeL()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final long[] coordinates = new long[(first + count) * 6];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsL(random, coordinates, index * 6, 3);
+        }
+
+        final long[] target = new long[6];
+        randomBoundsL(random, target, 0, 3);
+        final VolumeL query = VolumeL.of(target[0], target[1], target[2], target[3], target[4], target[5]);
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 6;
+          if (VolumesL.overlaps(query, VolumeL.of(coordinates[base], coordinates[base + 1], coordinates[base + 2], coordinates[base + 3], coordinates[base + 4], coordinates[base + 5]))) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.overlapsVolume(coordinates, first, count, query.minimumX(), query.maximumX(), query.minimumY(), query.maximumY(), query.minimumZ(), query.maximumZ()));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link VolumesI#overlaps}.
+   */
+
+  @Test
+  public void testOverlapsVolumeI()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final int[] coordinates = new int[(first + count) * 6];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsI(random, coordinates, index * 6, 3);
+        }
+
+        final int[] target = new int[6];
+        randomBoundsI(random, target, 0, 3);
+        final VolumeI query = VolumeI.of(target[0], target[1], target[2], target[3], target[4], target[5]);
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 6;
+          if (VolumesI.overlaps(query, VolumeI.of(coordinates[base], coordinates[base + 1], coordinates[base + 2], coordinates[base + 3], coordinates[base + 4], coordinates[base + 5]))) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.overlapsVolume(coordinates, first, count, query.minimumX(), query.maximumX(), query.minimumY(), query.maximumY(), query.minimumZ(), query.maximumZ()));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link Ray3D#intersectsVolume}.
+   */
+
+  @Test
+  public void testIntersectsVolumeD()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final double[] coordinates = new double[(first + count) * 6];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsD(random, coordinates, index * 6, 3);
+        }
+
+        final Ray3D ray = Ray3D.of(
+          Vector3D.of((double) (random.nextInt(30) - 5), (double) (random.nextInt(30) - 5), (double) (random.nextInt(30) - 5)),
+          Vector3D.of(randomDirection(random), randomDirection(random), randomDirection(random)));
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 6;
+          if (ray.intersectsVolume(
+              coordinates[base],
+              coordinates[base + 2],
+              coordinates[base + 4],
+              coordinates[base + 1],
+              coordinates[base + 3],
+              coordinates[base + 5])) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.intersectsVolume(ray, coordinates, first, count));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link Ray3D#intersectsVolume}.
+   */
+
+  @Test
+  public void testIntersectsVolumeL()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final long[] coordinates = new long[(first + count) * 6];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsL(random, coordinates, index * 6, 3);
+        }
+
+        final Ray3D ray = Ray3D.of(
+          Vector3D.of((double) (random.nextInt(30) - 5), (double) (random.nextInt(30) - 5), (double) (random.nextInt(30) - 5)),
+          Vector3D.of(randomDirection(random), randomDirection(random), randomDirection(random)));
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 6;
+          if (ray.intersectsVolume(
+              (double) coordinates[base],
+              (double) coordinates[base + 2],
+              (double) coordinates[base + 4],
+              (double) coordinates[base + 1],
+              (double) coordinates[base + 3],
+              (double) coordinates[base + 5])) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.intersectsVolume(ray, coordinates, first, count));
+      }
+    }
+  }
+
+  /**
+   * Every engine agrees with {@link Ray3D#intersectsVolume}.
+   */
+
+  @Test
+  public void testIntersectsVolumeI()
+  {
+    final Random random = new Random(0x5eedL);
+    for (final BoundsEngineType engine : engines()) {
+      for (int iteration = 0; iteration < 1000; ++iteration) {
+        final int first = random.nextInt(4);
+        final int count = random.nextInt(65);
+        final int[] coordinates = new int[(first + count) * 6];
+        for (int index = 0; index < first + count; ++index) {
+          randomBoundsI(random, coordinates, index * 6, 3);
+        }
+
+        final Ray3D ray = Ray3D.of(
+          Vector3D.of((double) (random.nextInt(30) - 5), (double) (random.nextInt(30) - 5), (double) (random.nextInt(30) - 5)),
+          Vector3D.of(randomDirection(random), randomDirection(random), randomDirection(random)));
+
+        long expected = 0L;
+        for (int index = 0; index < count; ++index) {
+          final int base = (first + index) * 6;
+          if (ray.intersectsVolume(
+              (double) coordinates[base],
+              (double) coordinates[base + 2],
+              (double) coordinates[base + 4],
+              (double) coordinates[base + 1],
+              (double) coordinates[base + 3],
+              (double) coordinates[base + 5])) {
+            expected |= 1L << index;
+          }
+        }
+
+        Assert.assertEquals(
+          engine.getClass().getName(),
+          expected,
+          engine.intersectsVolume(ray, coordinates, first, count));
+      }
+    }
+  }
+}
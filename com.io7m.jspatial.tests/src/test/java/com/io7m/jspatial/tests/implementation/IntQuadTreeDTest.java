@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jspatial.api.quadtrees.IntQuadTreeDType;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationD;
+import com.io7m.jspatial.implementation.IntQuadTreeD;
+import com.io7m.jspatial.implementation.IntQuadTreeSupplierD;
+import com.io7m.jspatial.tests.api.quadtrees.IntQuadTreeDContract;
+
+/**
+ * Test for {@link IntQuadTreeD}
+ */
+
+public final class IntQuadTreeDTest extends IntQuadTreeDContract
+{
+  @Override
+  protected IntQuadTreeDType create(
+    final QuadTreeConfigurationD config)
+  {
+    return new IntQuadTreeSupplierD().create(config);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationD;
+import com.io7m.jspatial.api.octtrees.OctTreeDType;
+import com.io7m.jspatial.implementation.OctTreeConcurrentD;
+import com.io7m.jspatial.implementation.OctTreeConcurrentSupplierD;
+import com.io7m.jspatial.tests.api.octtrees.OctTreeDContract;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for {@link OctTreeConcurrentD}
+ */
+
+public final class OctTreeConcurrentDTest extends OctTreeDContract
+{
+  @Override
+  protected <T> OctTreeDType<T> create(final OctTreeConfigurationD config)
+  {
+    return new OctTreeConcurrentSupplierD().create(config);
+  }
+
+  @Override
+  protected <T> OctTreeDType<T> createFrom(
+    final OctTreeConfigurationD config,
+    final Map<T, VolumeD> items)
+  {
+    return new OctTreeConcurrentSupplierD().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> OctTreeDType<T> createFromParallel(
+    final OctTreeConfigurationD config,
+    final Map<T, VolumeD> items,
+    final ForkJoinPool pool)
+  {
+    return new OctTreeConcurrentSupplierD().createFromParallel(config, items, pool);
+  }
+
+  /**
+   * Queries running on several threads observe a consistent tree whilst
+   * another thread moves objects.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testConcurrentQueriesDuringMoves()
+    throws Exception
+  {
+    final VolumeD bounds = VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(bounds);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeDType<Integer> tree = this.create(cb.build());
+
+    final int count = 100;
+    final List<Integer> items = new ArrayList<>(count);
+    for (int index = 0; index < count; ++index) {
+      final Integer item = Integer.valueOf(index);
+      items.add(item);
+      Assert.assertTrue(tree.insert(item, VolumeD.of(
+        0.0, 10.0, 0.0, 10.0, 0.0, 10.0)));
+    }
+
+    final ExecutorService exec = Executors.newFixedThreadPool(5);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      futures.add(exec.submit(() -> {
+        final Random random = new Random(0x5eedL);
+        for (int round = 0; round < 200; ++round) {
+          for (final Integer item : items) {
+            final double x = (double) random.nextInt(90);
+            final double y = (double) random.nextInt(90);
+            Assert.assertTrue(tree.move(item, VolumeD.of(
+              x, x + 10.0, y, y + 10.0, x, x + 10.0)));
+          }
+        }
+      }));
+
+      for (int reader = 0; reader < 4; ++reader) {
+        futures.add(exec.submit(() -> {
+          for (int round = 0; round < 2000; ++round) {
+            final Set<Integer> found = new HashSet<>();
+            tree.overlappedBy(bounds, found);
+            Assert.assertEquals(count, found.size());
+            Assert.assertEquals((long) count, tree.size());
+          }
+        }));
+      }
+
+      for (final Future<?> future : futures) {
+        future.get(60L, TimeUnit.SECONDS);
+      }
+    } finally {
+      exec.shutdown();
+    }
+
+    Assert.assertEquals((long) count, tree.size());
+    for (final Integer item : items) {
+      Assert.assertTrue(tree.contains(item));
+      tree.volumeFor(item);
+    }
+  }
+
+  /**
+   * Functions passed to queries may query and modify the tree, and their
+   * modifications are not visible to the query that is in progress.
+   */
+
+  @Test(timeout = 60000L)
+  public void testQueryConsumerModifiesTree()
+  {
+    final VolumeD bounds = VolumeD.of(0.0, 100.0, 0.0, 100.0, 0.0, 100.0);
+    final OctTreeConfigurationD.Builder cb = OctTreeConfigurationD.builder();
+    cb.setVolume(bounds);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeDType<Integer> tree = this.create(cb.build());
+
+    final int count = 10;
+    for (int index = 0; index < count; ++index) {
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(index),
+        VolumeD.of(0.0, 10.0, 0.0, 10.0, 0.0, 10.0)));
+    }
+
+    final List<Integer> received = new ArrayList<>(count);
+    tree.overlappedBy(bounds, (item, x0, x1, y0, y1, z0, z1) -> {
+      received.add(item);
+      Assert.assertTrue(tree.contains(item));
+      Assert.assertTrue(tree.remove(item));
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(item.intValue() + count), VolumeD.of(20.0, 30.0, 20.0, 30.0, 20.0, 30.0)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    Assert.assertEquals(count, received.size());
+    Assert.assertEquals((long) count, tree.size());
+    for (int index = 0; index < count; ++index) {
+      Assert.assertFalse(tree.contains(Integer.valueOf(index)));
+      Assert.assertTrue(tree.contains(Integer.valueOf(index + count)));
+    }
+  }
+}
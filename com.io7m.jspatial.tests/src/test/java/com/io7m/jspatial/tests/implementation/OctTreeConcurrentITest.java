@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeI;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationI;
+import com.io7m.jspatial.api.octtrees.OctTreeIType;
+import com.io7m.jspatial.implementation.OctTreeConcurrentI;
+import com.io7m.jspatial.implementation.OctTreeConcurrentSupplierI;
+import com.io7m.jspatial.tests.api.octtrees.OctTreeIContract;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test for {@link OctTreeConcurrentI}
+ */
+
+public final class OctTreeConcurrentITest extends OctTreeIContract
+{
+  @Override
+  protected <T> OctTreeIType<T> create(final OctTreeConfigurationI config)
+  {
+    return new OctTreeConcurrentSupplierI().create(config);
+  }
+
+  @Override
+  protected <T> OctTreeIType<T> createFrom(
+    final OctTreeConfigurationI config,
+    final Map<T, VolumeI> items)
+  {
+    return new OctTreeConcurrentSupplierI().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> OctTreeIType<T> createFromParallel(
+    final OctTreeConfigurationI config,
+    final Map<T, VolumeI> items,
+    final ForkJoinPool pool)
+  {
+    return new OctTreeConcurrentSupplierI().createFromParallel(config, items, pool);
+  }
+
+  /**
+   * Functions passed to queries may query and modify the tree, and their
+   * modifications are not visible to the query that is in progress.
+   */
+
+  @Test(timeout = 60000L)
+  public void testQueryConsumerModifiesTree()
+  {
+    final VolumeI bounds = VolumeI.of(0, 100, 0, 100, 0, 100);
+    final OctTreeConfigurationI.Builder cb = OctTreeConfigurationI.builder();
+    cb.setVolume(bounds);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeIType<Integer> tree = this.create(cb.build());
+
+    final int count = 10;
+    for (int index = 0; index < count; ++index) {
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(index),
+        VolumeI.of(0, 10, 0, 10, 0, 10)));
+    }
+
+    final List<Integer> received = new ArrayList<>(count);
+    tree.overlappedBy(bounds, (item, x0, x1, y0, y1, z0, z1) -> {
+      received.add(item);
+      Assert.assertTrue(tree.contains(item));
+      Assert.assertTrue(tree.remove(item));
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(item.intValue() + count), VolumeI.of(20, 30, 20, 30, 20, 30)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    Assert.assertEquals(count, received.size());
+    Assert.assertEquals((long) count, tree.size());
+    for (int index = 0; index < count; ++index) {
+      Assert.assertFalse(tree.contains(Integer.valueOf(index)));
+      Assert.assertTrue(tree.contains(Integer.valueOf(index + count)));
+    }
+  }
+}
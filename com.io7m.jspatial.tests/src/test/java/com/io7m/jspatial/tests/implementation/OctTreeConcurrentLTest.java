@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationL;
+import com.io7m.jspatial.api.octtrees.OctTreeLType;
+import com.io7m.jspatial.implementation.OctTreeConcurrentL;
+import com.io7m.jspatial.implementation.OctTreeConcurrentSupplierL;
+import com.io7m.jspatial.tests.api.octtrees.OctTreeLContract;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test for {@link OctTreeConcurrentL}
+ */
+
+public final class OctTreeConcurrentLTest extends OctTreeLContract
+{
+  @Override
+  protected <T> OctTreeLType<T> create(final OctTreeConfigurationL config)
+  {
+    return new OctTreeConcurrentSupplierL().create(config);
+  }
+
+  @Override
+  protected <T> OctTreeLType<T> createFrom(
+    final OctTreeConfigurationL config,
+    final Map<T, VolumeL> items)
+  {
+    return new OctTreeConcurrentSupplierL().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> OctTreeLType<T> createFromParallel(
+    final OctTreeConfigurationL config,
+    final Map<T, VolumeL> items,
+    final ForkJoinPool pool)
+  {
+    return new OctTreeConcurrentSupplierL().createFromParallel(config, items, pool);
+  }
+
+  /**
+   * Functions passed to queries may query and modify the tree, and their
+   * modifications are not visible to the query that is in progress.
+   */
+
+  @Test(timeout = 60000L)
+  public void testQueryConsumerModifiesTree()
+  {
+    final VolumeL bounds = VolumeL.of(0L, 100L, 0L, 100L, 0L, 100L);
+    final OctTreeConfigurationL.Builder cb = OctTreeConfigurationL.builder();
+    cb.setVolume(bounds);
+    cb.setMaximumObjectsPerLeaf(4);
+    final OctTreeLType<Integer> tree = this.create(cb.build());
+
+    final int count = 10;
+    for (int index = 0; index < count; ++index) {
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(index),
+        VolumeL.of(0L, 10L, 0L, 10L, 0L, 10L)));
+    }
+
+    final List<Integer> received = new ArrayList<>(count);
+    tree.overlappedBy(bounds, (item, x0, x1, y0, y1, z0, z1) -> {
+      received.add(item);
+      Assert.assertTrue(tree.contains(item));
+      Assert.assertTrue(tree.remove(item));
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(item.intValue() + count), VolumeL.of(20L, 30L, 20L, 30L, 20L, 30L)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    Assert.assertEquals(count, received.size());
+    Assert.assertEquals((long) count, tree.size());
+    for (int index = 0; index < count; ++index) {
+      Assert.assertFalse(tree.contains(Integer.valueOf(index)));
+      Assert.assertTrue(tree.contains(Integer.valueOf(index + count)));
+    }
+  }
+}
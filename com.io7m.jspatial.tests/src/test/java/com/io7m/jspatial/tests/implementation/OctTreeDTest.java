@@ -16,12 +16,16 @@
 
 package com.io7m.jspatial.tests.implementation;
 
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationD;
 import com.io7m.jspatial.api.octtrees.OctTreeDType;
 import com.io7m.jspatial.implementation.OctTreeD;
 import com.io7m.jspatial.implementation.OctTreeSupplierD;
 import com.io7m.jspatial.tests.api.octtrees.OctTreeDContract;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Test for {@link OctTreeD}
  */
@@ -33,4 +37,21 @@ public final class OctTreeDTest extends OctTreeDContract
   {
     return new OctTreeSupplierD().create(config);
   }
+
+  @Override
+  protected <T> OctTreeDType<T> createFrom(
+    final OctTreeConfigurationD config,
+    final Map<T, VolumeD> items)
+  {
+    return new OctTreeSupplierD().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> OctTreeDType<T> createFromParallel(
+    final OctTreeConfigurationD config,
+    final Map<T, VolumeD> items,
+    final ForkJoinPool pool)
+  {
+    return new OctTreeSupplierD().createFromParallel(config, items, pool);
+  }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeI;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationI;
+import com.io7m.jspatial.api.octtrees.OctTreeIType;
+import com.io7m.jspatial.implementation.OctTreeI;
+import com.io7m.jspatial.implementation.OctTreeSupplierI;
+import com.io7m.jspatial.tests.api.octtrees.OctTreeIContract;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test for {@link OctTreeI} with packed bounds storage.
+ */
+
+public final class OctTreeIPackedTest extends OctTreeIContract
+{
+  @Override
+  protected <T> OctTreeIType<T> create(final OctTreeConfigurationI config)
+  {
+    return new OctTreeSupplierI().create(config.withPackedBounds(true));
+  }
+
+  @Override
+  protected <T> OctTreeIType<T> createFrom(
+    final OctTreeConfigurationI config,
+    final Map<T, VolumeI> items)
+  {
+    return new OctTreeSupplierI().createFrom(
+      config.withPackedBounds(true), items);
+  }
+
+  @Override
+  protected <T> OctTreeIType<T> createFromParallel(
+    final OctTreeConfigurationI config,
+    final Map<T, VolumeI> items,
+    final ForkJoinPool pool)
+  {
+    return new OctTreeSupplierI().createFromParallel(
+      config.withPackedBounds(true), items, pool);
+  }
+}
@@ -16,12 +16,16 @@
 
 package com.io7m.jspatial.tests.implementation;
 
+import com.io7m.jregions.core.unparameterized.volumes.VolumeI;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationI;
 import com.io7m.jspatial.api.octtrees.OctTreeIType;
 import com.io7m.jspatial.implementation.OctTreeI;
 import com.io7m.jspatial.implementation.OctTreeSupplierI;
 import com.io7m.jspatial.tests.api.octtrees.OctTreeIContract;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Test for {@link OctTreeI}
  */
@@ -33,4 +37,21 @@ public final class OctTreeITest extends OctTreeIContract
   {
     return new OctTreeSupplierI().create(config);
   }
+
+  @Override
+  protected <T> OctTreeIType<T> createFrom(
+    final OctTreeConfigurationI config,
+    final Map<T, VolumeI> items)
+  {
+    return new OctTreeSupplierI().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> OctTreeIType<T> createFromParallel(
+    final OctTreeConfigurationI config,
+    final Map<T, VolumeI> items,
+    final ForkJoinPool pool)
+  {
+    return new OctTreeSupplierI().createFromParallel(config, items, pool);
+  }
 }
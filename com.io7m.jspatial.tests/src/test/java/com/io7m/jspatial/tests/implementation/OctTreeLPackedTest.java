@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationL;
+import com.io7m.jspatial.api.octtrees.OctTreeLType;
+import com.io7m.jspatial.implementation.OctTreeL;
+import com.io7m.jspatial.implementation.OctTreeSupplierL;
+import com.io7m.jspatial.tests.api.octtrees.OctTreeLContract;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test for {@link OctTreeL} with packed bounds storage.
+ */
+
+public final class OctTreeLPackedTest extends OctTreeLContract
+{
+  @Override
+  protected <T> OctTreeLType<T> create(final OctTreeConfigurationL config)
+  {
+    return new OctTreeSupplierL().create(config.withPackedBounds(true));
+  }
+
+  @Override
+  protected <T> OctTreeLType<T> createFrom(
+    final OctTreeConfigurationL config,
+    final Map<T, VolumeL> items)
+  {
+    return new OctTreeSupplierL().createFrom(
+      config.withPackedBounds(true), items);
+  }
+
+  @Override
+  protected <T> OctTreeLType<T> createFromParallel(
+    final OctTreeConfigurationL config,
+    final Map<T, VolumeL> items,
+    final ForkJoinPool pool)
+  {
+    return new OctTreeSupplierL().createFromParallel(
+      config.withPackedBounds(true), items, pool);
+  }
+}
@@ -16,12 +16,16 @@
 
 package com.io7m.jspatial.tests.implementation;
 
+import com.io7m.jregions.core.unparameterized.volumes.VolumeL;
 import com.io7m.jspatial.api.octtrees.OctTreeConfigurationL;
 import com.io7m.jspatial.api.octtrees.OctTreeLType;
 import com.io7m.jspatial.implementation.OctTreeL;
 import com.io7m.jspatial.implementation.OctTreeSupplierL;
 import com.io7m.jspatial.tests.api.octtrees.OctTreeLContract;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Test for {@link OctTreeL}
  */
@@ -33,4 +37,21 @@ public final class OctTreeLTest extends OctTreeLContract
   {
     return new OctTreeSupplierL().create(config);
   }
+
+  @Override
+  protected <T> OctTreeLType<T> createFrom(
+    final OctTreeConfigurationL config,
+    final Map<T, VolumeL> items)
+  {
+    return new OctTreeSupplierL().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> OctTreeLType<T> createFromParallel(
+    final OctTreeConfigurationL config,
+    final Map<T, VolumeL> items,
+    final ForkJoinPool pool)
+  {
+    return new OctTreeSupplierL().createFromParallel(config, items, pool);
+  }
 }
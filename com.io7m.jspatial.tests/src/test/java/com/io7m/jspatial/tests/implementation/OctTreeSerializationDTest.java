@@ -0,0 +1,517 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeD;
+import com.io7m.jspatial.api.TreeItemCodecType;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationD;
+import com.io7m.jspatial.api.octtrees.OctTreeDType;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableDType;
+import com.io7m.jspatial.implementation.OctTreeD;
+import com.io7m.jspatial.implementation.OctTreeSerializationD;
+import com.io7m.jspatial.implementation.OctantsD;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests for {@link OctTreeSerializationD}.
+ */
+
+public final class OctTreeSerializationDTest
+{
+  private static final TreeItemCodecType<Integer> CODEC =
+    new IntegerCodec();
+
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  private static VolumeD volume(
+    final int x,
+    final int y,
+    final int z,
+    final int size)
+  {
+    return VolumeD.of(
+      (double) x,
+      (double) (x + size),
+      (double) y,
+      (double) (y + size),
+      (double) z,
+      (double) (z + size));
+  }
+
+  private static OctTreeConfigurationD configuration(
+    final int maximum,
+    final boolean expandable)
+  {
+    return OctTreeConfigurationD.builder()
+      .setVolume(volume(0, 0, 0, 512))
+      .setMaximumObjectsPerLeaf(maximum)
+      .setExpandable(expandable)
+      .build();
+  }
+
+  private static OctTreeDType<Integer> populated(
+    final OctTreeConfigurationD config,
+    final int count)
+  {
+    final Random random = new Random(0x2317L);
+    final OctTreeDType<Integer> tree = OctTreeD.create(config);
+    for (int index = 0; index < count; ++index) {
+      tree.insert(
+        Integer.valueOf(index),
+        volume(
+          random.nextInt(500),
+          random.nextInt(500),
+          random.nextInt(500),
+          1 + random.nextInt(12)));
+    }
+    return tree;
+  }
+
+  private static byte[] serialize(
+    final OctTreeReadableDType<Integer> tree)
+    throws IOException
+  {
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    OctTreeSerializationD.write(tree, CODEC, stream);
+    return stream.toByteArray();
+  }
+
+  private static OctTreeDType<Integer> deserialize(
+    final OctTreeConfigurationD config,
+    final byte[] data)
+    throws IOException
+  {
+    return OctTreeSerializationD.read(config, CODEC, ByteBuffer.wrap(data));
+  }
+
+  private static List<String> describe(
+    final OctTreeReadableDType<Integer> tree)
+  {
+    final List<String> octants = new ArrayList<>();
+    tree.iterateOctants(octants, (context, octant, depth) -> {
+      context.add(depth + " " + octant.volume() + " "
+                    + new TreeMap<>(octant.objects()));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    return octants;
+  }
+
+  private static void checkSame(
+    final OctTreeDType<Integer> tree,
+    final OctTreeDType<Integer> restored)
+  {
+    Assert.assertEquals(tree.size(), restored.size());
+    Assert.assertEquals(tree.bounds(), restored.bounds());
+    Assert.assertEquals(describe(tree), describe(restored));
+
+    final VolumeD query = volume(100, 100, 100, 200);
+    Assert.assertEquals(tree.count(query), restored.count(query));
+    final List<Integer> expected_items = new ArrayList<>();
+    final List<Integer> received_items = new ArrayList<>();
+    tree.overlappedBy(query, (item, x0, x1, y0, y1, z0, z1) -> {
+      expected_items.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    restored.overlappedBy(query, (item, x0, x1, y0, y1, z0, z1) -> {
+      received_items.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    expected_items.sort(Integer::compareTo);
+    received_items.sort(Integer::compareTo);
+    Assert.assertEquals(expected_items, received_items);
+  }
+
+  /**
+   * A serialized tree is restored with the same octants and objects.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRoundTrip()
+    throws Exception
+  {
+    for (final int maximum : new int[]{0, 1, 4}) {
+      final OctTreeConfigurationD config = configuration(maximum, false);
+      final OctTreeDType<Integer> tree = populated(config, 500);
+      checkSame(tree, deserialize(config, serialize(tree)));
+    }
+  }
+
+  /**
+   * An empty tree is restored.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRoundTripEmpty()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(0, false);
+    final OctTreeDType<Integer> tree = OctTreeD.create(config);
+    checkSame(tree, deserialize(config, serialize(tree)));
+  }
+
+  /**
+   * A tree that has grown is restored with its grown root.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRoundTripExpanded()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(2, true);
+    final OctTreeDType<Integer> tree = populated(config, 100);
+    Assert.assertTrue(
+      tree.insert(Integer.valueOf(1000), volume(-3000, 4000, 20, 10)));
+    Assert.assertNotEquals(config.volume(), tree.bounds());
+    checkSame(tree, deserialize(config, serialize(tree)));
+  }
+
+  /**
+   * A tree that has grown from fractional bounds is restored with its grown
+   * root split at the bounds of the original root, even though that split
+   * differs from the result of subdividing the grown root.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRoundTripExpandedFractional()
+    throws Exception
+  {
+    final OctTreeConfigurationD config =
+      OctTreeConfigurationD.builder()
+        .setVolume(VolumeD.of(0.1, 0.3, 0.1, 0.3, 0.1, 0.3))
+        .setMaximumObjectsPerLeaf(2)
+        .setExpandable(true)
+        .build();
+    final OctTreeDType<Integer> tree = OctTreeD.create(config);
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(0), VolumeD.of(0.15, 0.16, 0.15, 0.16, 0.15, 0.16)));
+    Assert.assertTrue(tree.insert(
+      Integer.valueOf(1), VolumeD.of(0.4, 0.45, 0.4, 0.45, 0.4, 0.45)));
+
+    final List<VolumeD> children = new ArrayList<>();
+    tree.iterateOctants(children, (context, octant, depth) -> {
+      if (depth == 1L) {
+        context.add(octant.volume());
+      }
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    Assert.assertNotEquals(
+      OctantsD.subdivide(tree.bounds()).x0y0z0(), children.get(0));
+
+    checkSame(tree, deserialize(config, serialize(tree)));
+  }
+
+  /**
+   * A snapshot can be serialized.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRoundTripSnapshot()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(2, false);
+    final OctTreeDType<Integer> tree = populated(config, 200);
+    final OctTreeReadableDType<Integer> snapshot = tree.snapshot();
+    final byte[] data = serialize(snapshot);
+    tree.clear();
+    Assert.assertEquals(describe(snapshot), describe(deserialize(config, data)));
+  }
+
+  /**
+   * A restored tree can be modified exactly as the original tree can.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRestoredModifiable()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(2, false);
+    final OctTreeDType<Integer> tree = populated(config, 300);
+    final OctTreeDType<Integer> restored =
+      deserialize(config, serialize(tree));
+
+    for (int index = 0; index < 300; index += 3) {
+      final Integer item = Integer.valueOf(index);
+      Assert.assertEquals(tree.remove(item), restored.remove(item));
+      final VolumeD moved = volume(index, 511 - index, index, 1);
+      final Integer other = Integer.valueOf(index + 1);
+      Assert.assertEquals(tree.move(other, moved), restored.move(other, moved));
+    }
+    tree.trim();
+    restored.trim();
+    checkSame(tree, restored);
+  }
+
+  /**
+   * A serialized tree can be loaded from a memory-mapped file.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testLoadMapped()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(4, false);
+    final OctTreeDType<Integer> tree = populated(config, 1000);
+
+    final Path path = Files.createTempFile("jspatial-", ".bin");
+    try {
+      try (final OutputStream stream = Files.newOutputStream(path)) {
+        OctTreeSerializationD.write(tree, CODEC, stream);
+      }
+      checkSame(tree, OctTreeSerializationD.load(config, CODEC, path));
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  /**
+   * Data that is not a serialized tree is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWrongMagic()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(4, false);
+    final byte[] data = serialize(populated(config, 10));
+    data[0] = (byte) 0;
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("magic number");
+    deserialize(config, data);
+  }
+
+  /**
+   * A serialized tree of a different version is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWrongVersion()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(4, false);
+    final byte[] data = serialize(populated(config, 10));
+    data[7] = (byte) 0x7f;
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("format version");
+    deserialize(config, data);
+  }
+
+  /**
+   * A serialized tree of a different kind is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWrongKind()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(4, false);
+    final byte[] data = serialize(populated(config, 10));
+    data[11] = (byte) 0;
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("tree kind");
+    deserialize(config, data);
+  }
+
+  /**
+   * A truncated serialized tree is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTruncated()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(4, false);
+    final byte[] data = serialize(populated(config, 100));
+
+    this.expected.expect(EOFException.class);
+    deserialize(config, Arrays.copyOf(data, data.length - 3));
+  }
+
+  /**
+   * A serialized tree followed by trailing data is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTrailing()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(4, false);
+    final byte[] data = serialize(populated(config, 100));
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("trailing data");
+    deserialize(config, Arrays.copyOf(data, data.length + 1));
+  }
+
+  /**
+   * A serialized tree holding the same object twice is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDuplicateObject()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(4, false);
+    final OctTreeDType<Integer> tree = OctTreeD.create(config);
+    tree.insert(Integer.valueOf(1), volume(10, 10, 10, 1));
+    tree.insert(Integer.valueOf(2), volume(20, 20, 20, 1));
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    OctTreeSerializationD.write(tree, new TreeItemCodecType<Integer>()
+    {
+      @Override
+      public void write(
+        final DataOutput output,
+        final Integer item)
+        throws IOException
+      {
+        output.writeInt(1);
+      }
+
+      @Override
+      public Integer read(
+        final DataInput input)
+        throws IOException
+      {
+        return Integer.valueOf(input.readInt());
+      }
+    }, stream);
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("duplicated");
+    deserialize(config, stream.toByteArray());
+  }
+
+  /**
+   * A serialized tree holding an object with inverted bounds is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInvalidObjectBounds()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(4, false);
+    final OctTreeDType<Integer> tree = OctTreeD.create(config);
+    tree.insert(Integer.valueOf(1), volume(10, 10, 10, 1));
+
+    final byte[] data = serialize(tree);
+    ByteBuffer.wrap(data)
+      .putDouble(73, 11.0)
+      .putDouble(81, 10.0);
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("Invalid object bounds");
+    deserialize(config, data);
+  }
+
+  /**
+   * A serialized tree holding a node of an unknown kind is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testUnknownNodeKind()
+    throws Exception
+  {
+    final OctTreeConfigurationD config = configuration(4, false);
+    final OctTreeDType<Integer> tree = OctTreeD.create(config);
+    tree.insert(Integer.valueOf(1), volume(10, 10, 10, 1));
+
+    final byte[] data = serialize(tree);
+    data[68] = (byte) 3;
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("node kind");
+    deserialize(config, data);
+  }
+
+  private static final class IntegerCodec
+    implements TreeItemCodecType<Integer>
+  {
+    IntegerCodec()
+    {
+
+    }
+
+    @Override
+    public void write(
+      final DataOutput output,
+      final Integer item)
+      throws IOException
+    {
+      output.writeInt(item.intValue());
+    }
+
+    @Override
+    public Integer read(
+      final DataInput input)
+      throws IOException
+    {
+      return Integer.valueOf(input.readInt());
+    }
+  }
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.volumes.VolumeI;
+import com.io7m.jspatial.api.TreeItemCodecType;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.octtrees.OctTreeConfigurationI;
+import com.io7m.jspatial.api.octtrees.OctTreeIType;
+import com.io7m.jspatial.api.octtrees.OctTreeReadableIType;
+import com.io7m.jspatial.implementation.OctTreeI;
+import com.io7m.jspatial.implementation.OctTreeSerializationI;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests for {@link OctTreeSerializationI}.
+ */
+
+public final class OctTreeSerializationITest
+{
+  private static final TreeItemCodecType<Integer> CODEC =
+    new IntegerCodec();
+
+  @Rule public final ExpectedException expected = ExpectedException.none();
+
+  private static VolumeI volume(
+    final int x,
+    final int y,
+    final int z,
+    final int size)
+  {
+    return VolumeI.of(
+      (int) x,
+      (int) (x + size),
+      (int) y,
+      (int) (y + size),
+      (int) z,
+      (int) (z + size));
+  }
+
+  private static OctTreeConfigurationI configuration(
+    final int maximum,
+    final boolean expandable)
+  {
+    return OctTreeConfigurationI.builder()
+      .setVolume(volume(0, 0, 0, 512))
+      .setMaximumObjectsPerLeaf(maximum)
+      .setExpandable(expandable)
+      .build();
+  }
+
+  private static OctTreeIType<Integer> populated(
+    final OctTreeConfigurationI config,
+    final int count)
+  {
+    final Random random = new Random(0x2317L);
+    final OctTreeIType<Integer> tree = OctTreeI.create(config);
+    for (int index = 0; index < count; ++index) {
+      tree.insert(
+        Integer.valueOf(index),
+        volume(
+          random.nextInt(500),
+          random.nextInt(500),
+          random.nextInt(500),
+          1 + random.nextInt(12)));
+    }
+    return tree;
+  }
+
+  private static byte[] serialize(
+    final OctTreeReadableIType<Integer> tree)
+    throws IOException
+  {
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    OctTreeSerializationI.write(tree, CODEC, stream);
+    return stream.toByteArray();
+  }
+
+  private static OctTreeIType<Integer> deserialize(
+    final OctTreeConfigurationI config,
+    final byte[] data)
+    throws IOException
+  {
+    return OctTreeSerializationI.read(config, CODEC, ByteBuffer.wrap(data));
+  }
+
+  private static List<String> describe(
+    final OctTreeReadableIType<Integer> tree)
+  {
+    final List<String> octants = new ArrayList<>();
+    tree.iterateOctants(octants, (context, octant, depth) -> {
+      context.add(depth + " " + octant.volume() + " "
+                    + new TreeMap<>(octant.objects()));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    return octants;
+  }
+
+  private static void checkSame(
+    final OctTreeIType<Integer> tree,
+    final OctTreeIType<Integer> restored)
+  {
+    Assert.assertEquals(tree.size(), restored.size());
+    Assert.assertEquals(tree.bounds(), restored.bounds());
+    Assert.assertEquals(describe(tree), describe(restored));
+
+    final VolumeI query = volume(100, 100, 100, 200);
+    Assert.assertEquals(tree.count(query), restored.count(query));
+    final List<Integer> expected_items = new ArrayList<>();
+    final List<Integer> received_items = new ArrayList<>();
+    tree.overlappedBy(query, (item, x0, x1, y0, y1, z0, z1) -> {
+      expected_items.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    restored.overlappedBy(query, (item, x0, x1, y0, y1, z0, z1) -> {
+      received_items.add(item);
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+    expected_items.sort(Integer::compareTo);
+    received_items.sort(Integer::compareTo);
+    Assert.assertEquals(expected_items, received_items);
+  }
+
+  /**
+   * A serialized tree is restored with the same octants and objects.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRoundTrip()
+    throws Exception
+  {
+    for (final int maximum : new int[]{0, 1, 4}) {
+      final OctTreeConfigurationI config = configuration(maximum, false);
+      final OctTreeIType<Integer> tree = populated(config, 500);
+      checkSame(tree, deserialize(config, serialize(tree)));
+    }
+  }
+
+  /**
+   * An empty tree is restored.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRoundTripEmpty()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(0, false);
+    final OctTreeIType<Integer> tree = OctTreeI.create(config);
+    checkSame(tree, deserialize(config, serialize(tree)));
+  }
+
+  /**
+   * A tree that has grown is restored with its grown root.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRoundTripExpanded()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(2, true);
+    final OctTreeIType<Integer> tree = populated(config, 100);
+    Assert.assertTrue(
+      tree.insert(Integer.valueOf(1000), volume(-3000, 4000, 20, 10)));
+    Assert.assertNotEquals(config.volume(), tree.bounds());
+    checkSame(tree, deserialize(config, serialize(tree)));
+  }
+
+  /**
+   * A snapshot can be serialized.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRoundTripSnapshot()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(2, false);
+    final OctTreeIType<Integer> tree = populated(config, 200);
+    final OctTreeReadableIType<Integer> snapshot = tree.snapshot();
+    final byte[] data = serialize(snapshot);
+    tree.clear();
+    Assert.assertEquals(describe(snapshot), describe(deserialize(config, data)));
+  }
+
+  /**
+   * A restored tree can be modified exactly as the original tree can.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRestoredModifiable()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(2, false);
+    final OctTreeIType<Integer> tree = populated(config, 300);
+    final OctTreeIType<Integer> restored =
+      deserialize(config, serialize(tree));
+
+    for (int index = 0; index < 300; index += 3) {
+      final Integer item = Integer.valueOf(index);
+      Assert.assertEquals(tree.remove(item), restored.remove(item));
+      final VolumeI moved = volume(index, 511 - index, index, 1);
+      final Integer other = Integer.valueOf(index + 1);
+      Assert.assertEquals(tree.move(other, moved), restored.move(other, moved));
+    }
+    tree.trim();
+    restored.trim();
+    checkSame(tree, restored);
+  }
+
+  /**
+   * A serialized tree can be loaded from a memory-mapped file.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testLoadMapped()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(4, false);
+    final OctTreeIType<Integer> tree = populated(config, 1000);
+
+    final Path path = Files.createTempFile("jspatial-", ".bin");
+    try {
+      try (final OutputStream stream = Files.newOutputStream(path)) {
+        OctTreeSerializationI.write(tree, CODEC, stream);
+      }
+      checkSame(tree, OctTreeSerializationI.load(config, CODEC, path));
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  /**
+   * Data that is not a serialized tree is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWrongMagic()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(4, false);
+    final byte[] data = serialize(populated(config, 10));
+    data[0] = (byte) 0;
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("magic number");
+    deserialize(config, data);
+  }
+
+  /**
+   * A serialized tree of a different version is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWrongVersion()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(4, false);
+    final byte[] data = serialize(populated(config, 10));
+    data[7] = (byte) 0x7f;
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("format version");
+    deserialize(config, data);
+  }
+
+  /**
+   * A serialized tree of a different kind is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWrongKind()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(4, false);
+    final byte[] data = serialize(populated(config, 10));
+    data[11] = (byte) 0;
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("tree kind");
+    deserialize(config, data);
+  }
+
+  /**
+   * A truncated serialized tree is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTruncated()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(4, false);
+    final byte[] data = serialize(populated(config, 100));
+
+    this.expected.expect(EOFException.class);
+    deserialize(config, Arrays.copyOf(data, data.length - 3));
+  }
+
+  /**
+   * A serialized tree followed by trailing data is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTrailing()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(4, false);
+    final byte[] data = serialize(populated(config, 100));
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("trailing data");
+    deserialize(config, Arrays.copyOf(data, data.length + 1));
+  }
+
+  /**
+   * A serialized tree holding the same object twice is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDuplicateObject()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(4, false);
+    final OctTreeIType<Integer> tree = OctTreeI.create(config);
+    tree.insert(Integer.valueOf(1), volume(10, 10, 10, 1));
+    tree.insert(Integer.valueOf(2), volume(20, 20, 20, 1));
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    OctTreeSerializationI.write(tree, new TreeItemCodecType<Integer>()
+    {
+      @Override
+      public void write(
+        final DataOutput output,
+        final Integer item)
+        throws IOException
+      {
+        output.writeInt(1);
+      }
+
+      @Override
+      public Integer read(
+        final DataInput input)
+        throws IOException
+      {
+        return Integer.valueOf(input.readInt());
+      }
+    }, stream);
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("duplicated");
+    deserialize(config, stream.toByteArray());
+  }
+
+  /**
+   * A serialized tree holding an object with inverted bounds is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInvalidObjectBounds()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(4, false);
+    final OctTreeIType<Integer> tree = OctTreeI.create(config);
+    tree.insert(Integer.valueOf(1), volume(10, 10, 10, 1));
+
+    final byte[] data = serialize(tree);
+    ByteBuffer.wrap(data)
+      .putInt(49, 11)
+      .putInt(53, 10);
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("Invalid object bounds");
+    deserialize(config, data);
+  }
+
+  /**
+   * A serialized tree holding a node of an unknown kind is rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testUnknownNodeKind()
+    throws Exception
+  {
+    final OctTreeConfigurationI config = configuration(4, false);
+    final OctTreeIType<Integer> tree = OctTreeI.create(config);
+    tree.insert(Integer.valueOf(1), volume(10, 10, 10, 1));
+
+    final byte[] data = serialize(tree);
+    data[44] = (byte) 3;
+
+    this.expected.expect(IOException.class);
+    this.expected.expectMessage("node kind");
+    deserialize(config, data);
+  }
+
+  private static final class IntegerCodec
+    implements TreeItemCodecType<Integer>
+  {
+    IntegerCodec()
+    {
+
+    }
+
+    @Override
+    public void write(
+      final DataOutput output,
+      final Integer item)
+      throws IOException
+    {
+      output.writeInt(item.intValue());
+    }
+
+    @Override
+    public Integer read(
+      final DataInput input)
+      throws IOException
+    {
+      return Integer.valueOf(input.readInt());
+    }
+  }
+}
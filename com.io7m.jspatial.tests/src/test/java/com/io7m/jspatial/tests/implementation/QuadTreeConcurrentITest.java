@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.areas.AreaI;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationI;
+import com.io7m.jspatial.api.quadtrees.QuadTreeIType;
+import com.io7m.jspatial.implementation.QuadTreeConcurrentI;
+import com.io7m.jspatial.implementation.QuadTreeConcurrentSupplierI;
+import com.io7m.jspatial.tests.api.quadtrees.QuadTreeIContract;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test for {@link QuadTreeConcurrentI}
+ */
+
+public final class QuadTreeConcurrentITest extends QuadTreeIContract
+{
+  @Override
+  protected <T> QuadTreeIType<T> create(
+    final QuadTreeConfigurationI config)
+  {
+    return new QuadTreeConcurrentSupplierI().create(config);
+  }
+
+  @Override
+  protected <T> QuadTreeIType<T> createFrom(
+    final QuadTreeConfigurationI config,
+    final Map<T, AreaI> items)
+  {
+    return new QuadTreeConcurrentSupplierI().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> QuadTreeIType<T> createFromParallel(
+    final QuadTreeConfigurationI config,
+    final Map<T, AreaI> items,
+    final ForkJoinPool pool)
+  {
+    return new QuadTreeConcurrentSupplierI().createFromParallel(config, items, pool);
+  }
+
+  /**
+   * Functions passed to queries may query and modify the tree, and their
+   * modifications are not visible to the query that is in progress.
+   */
+
+  @Test(timeout = 60000L)
+  public void testQueryConsumerModifiesTree()
+  {
+    final AreaI bounds = AreaI.of(0, 100, 0, 100);
+    final QuadTreeConfigurationI.Builder cb = QuadTreeConfigurationI.builder();
+    cb.setArea(bounds);
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeIType<Integer> tree = this.create(cb.build());
+
+    final int count = 10;
+    for (int index = 0; index < count; ++index) {
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(index),
+        AreaI.of(0, 10, 0, 10)));
+    }
+
+    final List<Integer> received = new ArrayList<>(count);
+    tree.overlappedBy(bounds, (item, x0, x1, y0, y1) -> {
+      received.add(item);
+      Assert.assertTrue(tree.contains(item));
+      Assert.assertTrue(tree.remove(item));
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(item.intValue() + count), AreaI.of(20, 30, 20, 30)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    Assert.assertEquals(count, received.size());
+    Assert.assertEquals((long) count, tree.size());
+    for (int index = 0; index < count; ++index) {
+      Assert.assertFalse(tree.contains(Integer.valueOf(index)));
+      Assert.assertTrue(tree.contains(Integer.valueOf(index + count)));
+    }
+  }
+}
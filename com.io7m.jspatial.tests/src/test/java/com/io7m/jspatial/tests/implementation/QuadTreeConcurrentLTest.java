@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.areas.AreaL;
+import com.io7m.jspatial.api.TreeVisitResult;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationL;
+import com.io7m.jspatial.api.quadtrees.QuadTreeLType;
+import com.io7m.jspatial.implementation.QuadTreeConcurrentL;
+import com.io7m.jspatial.implementation.QuadTreeConcurrentSupplierL;
+import com.io7m.jspatial.tests.api.quadtrees.QuadTreeLContract;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test for {@link QuadTreeConcurrentL}
+ */
+
+public final class QuadTreeConcurrentLTest extends QuadTreeLContract
+{
+  @Override
+  protected <T> QuadTreeLType<T> create(
+    final QuadTreeConfigurationL config)
+  {
+    return new QuadTreeConcurrentSupplierL().create(config);
+  }
+
+  @Override
+  protected <T> QuadTreeLType<T> createFrom(
+    final QuadTreeConfigurationL config,
+    final Map<T, AreaL> items)
+  {
+    return new QuadTreeConcurrentSupplierL().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> QuadTreeLType<T> createFromParallel(
+    final QuadTreeConfigurationL config,
+    final Map<T, AreaL> items,
+    final ForkJoinPool pool)
+  {
+    return new QuadTreeConcurrentSupplierL().createFromParallel(config, items, pool);
+  }
+
+  /**
+   * Functions passed to queries may query and modify the tree, and their
+   * modifications are not visible to the query that is in progress.
+   */
+
+  @Test(timeout = 60000L)
+  public void testQueryConsumerModifiesTree()
+  {
+    final AreaL bounds = AreaL.of(0L, 100L, 0L, 100L);
+    final QuadTreeConfigurationL.Builder cb = QuadTreeConfigurationL.builder();
+    cb.setArea(bounds);
+    cb.setMaximumObjectsPerLeaf(4);
+    final QuadTreeLType<Integer> tree = this.create(cb.build());
+
+    final int count = 10;
+    for (int index = 0; index < count; ++index) {
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(index),
+        AreaL.of(0L, 10L, 0L, 10L)));
+    }
+
+    final List<Integer> received = new ArrayList<>(count);
+    tree.overlappedBy(bounds, (item, x0, x1, y0, y1) -> {
+      received.add(item);
+      Assert.assertTrue(tree.contains(item));
+      Assert.assertTrue(tree.remove(item));
+      Assert.assertTrue(tree.insert(
+        Integer.valueOf(item.intValue() + count), AreaL.of(20L, 30L, 20L, 30L)));
+      return TreeVisitResult.RESULT_CONTINUE;
+    });
+
+    Assert.assertEquals(count, received.size());
+    Assert.assertEquals((long) count, tree.size());
+    for (int index = 0; index < count; ++index) {
+      Assert.assertFalse(tree.contains(Integer.valueOf(index)));
+      Assert.assertTrue(tree.contains(Integer.valueOf(index + count)));
+    }
+  }
+}
@@ -16,12 +16,16 @@
 
 package com.io7m.jspatial.tests.implementation;
 
+import com.io7m.jregions.core.unparameterized.areas.AreaD;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationD;
 import com.io7m.jspatial.api.quadtrees.QuadTreeDType;
 import com.io7m.jspatial.implementation.QuadTreeD;
 import com.io7m.jspatial.implementation.QuadTreeSupplierD;
 import com.io7m.jspatial.tests.api.quadtrees.QuadTreeDContract;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Test for {@link QuadTreeD}
  */
@@ -34,4 +38,21 @@ public final class QuadTreeDTest extends QuadTreeDContract
   {
     return new QuadTreeSupplierD().create(config);
   }
+
+  @Override
+  protected <T> QuadTreeDType<T> createFrom(
+    final QuadTreeConfigurationD config,
+    final Map<T, AreaD> items)
+  {
+    return new QuadTreeSupplierD().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> QuadTreeDType<T> createFromParallel(
+    final QuadTreeConfigurationD config,
+    final Map<T, AreaD> items,
+    final ForkJoinPool pool)
+  {
+    return new QuadTreeSupplierD().createFromParallel(config, items, pool);
+  }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2017 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jspatial.tests.implementation;
+
+import com.io7m.jregions.core.unparameterized.areas.AreaI;
+import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationI;
+import com.io7m.jspatial.api.quadtrees.QuadTreeIType;
+import com.io7m.jspatial.implementation.QuadTreeL;
+import com.io7m.jspatial.implementation.QuadTreeSupplierI;
+import com.io7m.jspatial.tests.api.quadtrees.QuadTreeIContract;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test for {@link QuadTreeL}
+ */
+
+public final class QuadTreeIPackedTest extends QuadTreeIContract
+{
+  @Override
+  protected <T> QuadTreeIType<T> create(
+    final QuadTreeConfigurationI config)
+  {
+    return new QuadTreeSupplierI().create(config.withPackedBounds(true));
+  }
+
+  @Override
+  protected <T> QuadTreeIType<T> createFrom(
+    final QuadTreeConfigurationI config,
+    final Map<T, AreaI> items)
+  {
+    return new QuadTreeSupplierI().createFrom(
+      config.withPackedBounds(true), items);
+  }
+
+  @Override
+  protected <T> QuadTreeIType<T> createFromParallel(
+    final QuadTreeConfigurationI config,
+    final Map<T, AreaI> items,
+    final ForkJoinPool pool)
+  {
+    return new QuadTreeSupplierI().createFromParallel(
+      config.withPackedBounds(true), items, pool);
+  }
+}
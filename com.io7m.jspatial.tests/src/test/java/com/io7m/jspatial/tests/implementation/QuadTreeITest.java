@@ -16,12 +16,16 @@
 
 package com.io7m.jspatial.tests.implementation;
 
+import com.io7m.jregions.core.unparameterized.areas.AreaI;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationI;
 import com.io7m.jspatial.api.quadtrees.QuadTreeIType;
 import com.io7m.jspatial.implementation.QuadTreeL;
 import com.io7m.jspatial.implementation.QuadTreeSupplierI;
 import com.io7m.jspatial.tests.api.quadtrees.QuadTreeIContract;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Test for {@link QuadTreeL}
  */
@@ -34,4 +38,21 @@ public final class QuadTreeITest extends QuadTreeIContract
   {
     return new QuadTreeSupplierI().create(config);
   }
+
+  @Override
+  protected <T> QuadTreeIType<T> createFrom(
+    final QuadTreeConfigurationI config,
+    final Map<T, AreaI> items)
+  {
+    return new QuadTreeSupplierI().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> QuadTreeIType<T> createFromParallel(
+    final QuadTreeConfigurationI config,
+    final Map<T, AreaI> items,
+    final ForkJoinPool pool)
+  {
+    return new QuadTreeSupplierI().createFromParallel(config, items, pool);
+  }
 }
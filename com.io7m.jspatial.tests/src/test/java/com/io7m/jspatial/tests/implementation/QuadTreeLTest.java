@@ -16,12 +16,16 @@
 
 package com.io7m.jspatial.tests.implementation;
 
+import com.io7m.jregions.core.unparameterized.areas.AreaL;
 import com.io7m.jspatial.api.quadtrees.QuadTreeConfigurationL;
 import com.io7m.jspatial.api.quadtrees.QuadTreeLType;
 import com.io7m.jspatial.implementation.QuadTreeL;
 import com.io7m.jspatial.implementation.QuadTreeSupplierL;
 import com.io7m.jspatial.tests.api.quadtrees.QuadTreeLContract;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Test for {@link QuadTreeL}
  */
@@ -34,4 +38,21 @@ public final class QuadTreeLTest extends QuadTreeLContract
   {
     return new QuadTreeSupplierL().create(config);
   }
+
+  @Override
+  protected <T> QuadTreeLType<T> createFrom(
+    final QuadTreeConfigurationL config,
+    final Map<T, AreaL> items)
+  {
+    return new QuadTreeSupplierL().createFrom(config, items);
+  }
+
+  @Override
+  protected <T> QuadTreeLType<T> createFromParallel(
+    final QuadTreeConfigurationL config,
+    final Map<T, AreaL> items,
+    final ForkJoinPool pool)
+  {
+    return new QuadTreeSupplierL().createFromParallel(config, items, pool);
+  }
 }